@@ -25,6 +25,7 @@ import distances.primary.CombinedMetric;
 import distances.primary.DistanceMeasure;
 import distances.sparse.SparseCombinedMetric;
 import distances.sparse.SparseMetric;
+import ioformat.ComputationCache;
 import ioformat.FileUtil;
 import ioformat.IOARFF;
 import java.io.BufferedReader;
@@ -133,6 +134,12 @@ public class BatchClassifierConfig {
     public int protoHubnessMode = MultiCrossValidation.PROTO_UNBIASED;
     // The number of threads used for distance matrix and kNN set calculations.
     public int numCommonThreads = 8;
+    // The number of datasets to test concurrently, in the shared thread pool.
+    public int numConcurrentDataSets = 1;
+    // The directory of the persistent computation cache and its size bound
+    // in bytes.
+    public File cacheDir;
+    public long cacheMaxBytes = ComputationCache.DEFAULT_MAX_BYTES;
     
     /**
      * Check whether a dataset that is listed is an openML task or an ordinary
@@ -596,6 +603,20 @@ public class BatchClassifierConfig {
                     // calculations.
                     lineItems = s.split("\\s+");
                     numCommonThreads = Integer.parseInt(lineItems[1]);
+                } else if (s.startsWith("@cache_directory")) {
+                    // Directory of the persistent cache for the distance
+                    // matrices and the kNN sets, optionally followed by its
+                    // size bound in megabytes.
+                    lineItems = s.split("\\s+");
+                    cacheDir = new File(lineItems[1]);
+                    if (lineItems.length > 2) {
+                        cacheMaxBytes = Long.parseLong(lineItems[2]) * 1024
+                                * 1024;
+                    }
+                } else if (s.startsWith("@concurrent_datasets")) {
+                    // The number of datasets to test concurrently.
+                    lineItems = s.split("\\s+");
+                    numConcurrentDataSets = Integer.parseInt(lineItems[1]);
                 } else if (s.startsWith("@dataset")) {
                     dataIndex++;
                     // Dataset specification.
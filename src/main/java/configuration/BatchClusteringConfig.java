@@ -23,6 +23,7 @@ import distances.primary.CombinedMetric;
 import distances.primary.DistanceMeasure;
 import distances.sparse.SparseCombinedMetric;
 import distances.sparse.SparseMetric;
+import ioformat.ComputationCache;
 import ioformat.FileUtil;
 import java.io.BufferedReader;
 import java.io.File;
@@ -94,6 +95,10 @@ public class BatchClusteringConfig {
     public boolean approximateNeighbors = false;
     // The number of threads used for distance matrix and kNN set calculations.
     public int numCommonThreads = 8;
+    // The directory of the persistent computation cache and its size bound
+    // in bytes.
+    public File cacheDir;
+    public long cacheMaxBytes = ComputationCache.DEFAULT_MAX_BYTES;
     
     /**
      * This method prints the clustering configuration to a Json string.
@@ -371,6 +376,16 @@ public class BatchClusteringConfig {
                             field.set(ker, paramValues.get(i));
                         }
                     }
+                } else if (s.startsWith("@cache_directory")) {
+                    // Directory of the persistent cache for the distance
+                    // matrices, optionally followed by its size bound in
+                    // megabytes.
+                    lineParse = s.split("\\s+");
+                    cacheDir = new File(lineParse[1]);
+                    if (lineParse.length > 2) {
+                        cacheMaxBytes = Long.parseLong(lineParse[2]) * 1024
+                                * 1024;
+                    }
                 } else if (s.startsWith("@dataset")) {
                     // Dataset specification: data path + metric to use.
                     lineParse = s.split("\\s+");
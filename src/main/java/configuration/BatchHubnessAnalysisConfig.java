@@ -22,6 +22,7 @@ import distances.primary.CombinedMetric;
 import distances.primary.DistanceMeasure;
 import distances.sparse.SparseCombinedMetric;
 import distances.sparse.SparseMetric;
+import ioformat.ComputationCache;
 import ioformat.FileUtil;
 import java.io.BufferedReader;
 import java.io.File;
@@ -66,6 +67,10 @@ public class BatchHubnessAnalysisConfig {
     public File distancesDir;
     // The number of threads used for distance matrix and kNN set calculations.
     public int numCommonThreads = 8;
+    // The directory of the persistent computation cache and its size bound
+    // in bytes.
+    public File cacheDir;
+    public long cacheMaxBytes = ComputationCache.DEFAULT_MAX_BYTES;
     
     /**
      * This method prints the hubness analysis configuration to a Json string.
@@ -241,6 +246,16 @@ public class BatchHubnessAnalysisConfig {
                     // matrices.
                     lineParse = s.split("\\s+");
                     distancesDir = new File(lineParse[1]);
+                } else if (s.startsWith("@cache_directory")) {
+                    // Directory of the persistent cache for the distance
+                    // matrices and the kNN sets, optionally followed by its
+                    // size bound in megabytes.
+                    lineParse = s.split("\\s+");
+                    cacheDir = new File(lineParse[1]);
+                    if (lineParse.length > 2) {
+                        cacheMaxBytes = Long.parseLong(lineParse[2]) * 1024
+                                * 1024;
+                    }
                 } else if (s.startsWith("@dataset")) {
                     // Dataset specification.
                     lineParse = s.split("\\s+");
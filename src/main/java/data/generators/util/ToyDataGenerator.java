@@ -0,0 +1,145 @@
+
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.generators.util;
+
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import java.util.Random;
+
+/**
+ * This class generates small seeded random datasets for the unit tests, so
+ * that the test data is reproducible across runs.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class ToyDataGenerator {
+
+    /**
+     * This method creates an empty dataset with generic float feature names.
+     *
+     * @param size Integer that is the expected number of instances.
+     * @param dim Integer that is the number of float features.
+     * @return DataSet with no instances and dim float features.
+     */
+    public static DataSet createFloatDataSet(int size, int dim) {
+        String[] floatNames = new String[dim];
+        for (int d = 0; d < dim; d++) {
+            floatNames[d] = "f" + d;
+        }
+        return new DataSet(null, floatNames, null, size);
+    }
+
+    /**
+     * This method generates unlabeled data with uniform float features in the
+     * [0, 1) range.
+     *
+     * @param size Integer that is the number of instances.
+     * @param dim Integer that is the number of float features.
+     * @param seed Long that is the random seed.
+     * @return DataSet with random float features.
+     */
+    public static DataSet generateUniformData(int size, int dim, long seed) {
+        return generateUniformData(size, dim, 0, seed);
+    }
+
+    /**
+     * This method generates data with uniform float features in the [0, 1)
+     * range and random labels.
+     *
+     * @param size Integer that is the number of instances.
+     * @param dim Integer that is the number of float features.
+     * @param numClasses Integer that is the number of classes, or zero if the
+     * instances are not to be labeled.
+     * @param seed Long that is the random seed.
+     * @return DataSet with random float features and labels.
+     */
+    public static DataSet generateUniformData(int size, int dim,
+            int numClasses, long seed) {
+        DataSet dset = createFloatDataSet(size, dim);
+        Random randa = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            DataInstance instance = new DataInstance(dset);
+            for (int d = 0; d < dim; d++) {
+                instance.fAttr[d] = randa.nextFloat();
+            }
+            if (numClasses > 0) {
+                instance.setCategory(randa.nextInt(numClasses));
+            }
+            dset.addDataInstance(instance);
+        }
+        return dset;
+    }
+
+    /**
+     * This method generates data with integer-valued float features, which
+     * results in many tied distances.
+     *
+     * @param size Integer that is the number of instances.
+     * @param dim Integer that is the number of float features.
+     * @param numValues Integer that is the number of different feature values.
+     * @param numClasses Integer that is the number of classes, or zero if the
+     * instances are not to be labeled.
+     * @param seed Long that is the random seed.
+     * @return DataSet with random discrete float features and labels.
+     */
+    public static DataSet generateDiscreteData(int size, int dim,
+            int numValues, int numClasses, long seed) {
+        DataSet dset = createFloatDataSet(size, dim);
+        Random randa = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            DataInstance instance = new DataInstance(dset);
+            for (int d = 0; d < dim; d++) {
+                instance.fAttr[d] = randa.nextInt(numValues);
+            }
+            if (numClasses > 0) {
+                instance.setCategory(randa.nextInt(numClasses));
+            }
+            dset.addDataInstance(instance);
+        }
+        return dset;
+    }
+
+    /**
+     * This method generates labeled data where the uniform float features are
+     * shifted by the class index, so that the classes are partly separable.
+     * The labels are assigned in a round-robin fashion.
+     *
+     * @param size Integer that is the number of instances.
+     * @param dim Integer that is the number of float features.
+     * @param numClasses Integer that is the number of classes.
+     * @param shift Float that is the feature shift between the consecutive
+     * classes.
+     * @param seed Long that is the random seed.
+     * @return DataSet with random float features and labels.
+     */
+    public static DataSet generateClassShiftedData(int size, int dim,
+            int numClasses, float shift, long seed) {
+        DataSet dset = createFloatDataSet(size, dim);
+        Random randa = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            DataInstance instance = new DataInstance(dset);
+            int category = i % numClasses;
+            for (int d = 0; d < dim; d++) {
+                instance.fAttr[d] = randa.nextFloat() + shift * category;
+            }
+            instance.setCategory(category);
+            dset.addDataInstance(instance);
+        }
+        return dset;
+    }
+}
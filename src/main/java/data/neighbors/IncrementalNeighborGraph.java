@@ -0,0 +1,404 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors;
+
+import data.representation.DataInstance;
+import distances.primary.CombinedMetric;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class maintains the kNN sets and the reverse kNN sets of a changing
+ * collection of points, for streaming scenarios where the NeighborSetFinder
+ * would have to be rebuilt from scratch. Points can be inserted and deleted
+ * and only the affected kNN sets are repaired. An insertion requires a single
+ * pass of distance calculations to the current points, as the new point can
+ * only enter the kNN sets of the points where it is closer than their current
+ * k-th neighbor. A deletion only affects the reverse neighbors of the deleted
+ * point, each of which needs a single replacement neighbor. The points are
+ * identified by slot indexes that remain stable while the points are in the
+ * graph. The slots of the deleted points are reused by later insertions. The
+ * points whose kNN sets were changed by the last operation are recorded, so
+ * that the dependent statistics can also be updated locally.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class IncrementalNeighborGraph {
+
+    private static final int INITIAL_CAPACITY = 16;
+    // Neighborhood size.
+    private int k;
+    private CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+    // The points in the slots, null for the free slots.
+    private DataInstance[] instances;
+    // The kNN sets, sorted by distance, and their current lengths.
+    private int[][] kNeighbors;
+    private float[][] kDistances;
+    private int[] kCurrLen;
+    // The reverse kNN sets.
+    private ArrayList<Integer>[] reverseNeighbors;
+    // The number of slots that were ever used.
+    private int numSlots = 0;
+    private int numPoints = 0;
+    // The free slots, to be reused by later insertions.
+    private ArrayList<Integer> freeSlots = new ArrayList<>();
+    // The points whose kNN sets were changed by the last operation.
+    private ArrayList<Integer> lastChanged = new ArrayList<>();
+    private TopKSelector selector;
+
+    /**
+     * Initialization.
+     *
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param k Integer that is the neighborhood size.
+     */
+    public IncrementalNeighborGraph(CombinedMetric cmet, int k) {
+        if (cmet != null) {
+            this.cmet = cmet;
+        }
+        this.k = k;
+        selector = new TopKSelector(k);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * @param capacity Integer that is the new number of slots.
+     */
+    // Generic arrays can not be created directly. The array is private and
+    // only ever holds ArrayList<Integer> objects, so the cast is safe.
+    @SuppressWarnings("unchecked")
+    private void allocate(int capacity) {
+        int oldCapacity = instances == null ? 0 : instances.length;
+        if (instances == null) {
+            instances = new DataInstance[capacity];
+            kNeighbors = new int[capacity][];
+            kDistances = new float[capacity][];
+            kCurrLen = new int[capacity];
+            reverseNeighbors =
+                    (ArrayList<Integer>[]) new ArrayList<?>[capacity];
+        } else {
+            instances = Arrays.copyOf(instances, capacity);
+            kNeighbors = Arrays.copyOf(kNeighbors, capacity);
+            kDistances = Arrays.copyOf(kDistances, capacity);
+            kCurrLen = Arrays.copyOf(kCurrLen, capacity);
+            reverseNeighbors = Arrays.copyOf(reverseNeighbors, capacity);
+        }
+        for (int i = oldCapacity; i < capacity; i++) {
+            kNeighbors[i] = new int[k];
+            kDistances[i] = new float[k];
+            reverseNeighbors[i] = new ArrayList<>(k);
+        }
+    }
+
+    /**
+     * @return Integer that is the neighborhood size.
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return CombinedMetric object for distance calculations.
+     */
+    public CombinedMetric getCombinedMetric() {
+        return cmet;
+    }
+
+    /**
+     * @return Integer that is the number of points in the graph.
+     */
+    public int size() {
+        return numPoints;
+    }
+
+    /**
+     * @return Integer that is an upper bound on the slot indexes, so that all
+     * slot indexes are smaller than it.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
+    /**
+     * @param index Integer that is the slot index.
+     * @return True if the slot currently holds a point, false otherwise.
+     */
+    public boolean contains(int index) {
+        return index >= 0 && index < numSlots && instances[index] != null;
+    }
+
+    /**
+     * @param index Integer that is the slot index.
+     * @return DataInstance in the slot, null if the slot is free.
+     */
+    public DataInstance getInstance(int index) {
+        return instances[index];
+    }
+
+    /**
+     * @return int[][] of the kNN sets, indexed by slots. Only the first
+     * getKCurrLen()[i] entries of the i-th set are valid.
+     */
+    public int[][] getKNeighbors() {
+        return kNeighbors;
+    }
+
+    /**
+     * @return float[][] of the distances to the kNN, indexed by slots.
+     */
+    public float[][] getKDistances() {
+        return kDistances;
+    }
+
+    /**
+     * @return int[] of the current kNN set lengths, which are smaller than k
+     * only while there are no more than k points in the graph.
+     */
+    public int[] getKCurrLen() {
+        return kCurrLen;
+    }
+
+    /**
+     * @param index Integer that is the slot index.
+     * @return ArrayList<Integer> of the points that have the point in their
+     * kNN sets.
+     */
+    public ArrayList<Integer> getReverseNeighbors(int index) {
+        return reverseNeighbors[index];
+    }
+
+    /**
+     * @param index Integer that is the slot index.
+     * @return Integer that is the neighbor occurrence frequency of the point.
+     */
+    public int getOccurrenceFrequency(int index) {
+        return reverseNeighbors[index].size();
+    }
+
+    /**
+     * @param index Integer that is the slot index.
+     * @return Float that is the distance to the furthest point in the kNN set,
+     * or Float.MAX_VALUE if the set is empty.
+     */
+    public float getKDistance(int index) {
+        return kCurrLen[index] > 0 ? kDistances[index][kCurrLen[index] - 1]
+                : Float.MAX_VALUE;
+    }
+
+    /**
+     * @return ArrayList<Integer> of the points whose kNN sets were changed by
+     * the last insertion or deletion, including the inserted point.
+     */
+    public ArrayList<Integer> getLastChanged() {
+        return lastChanged;
+    }
+
+    /**
+     * @param instance DataInstance to calculate the distances from.
+     * @return float[] of distances from the instance to the points in the
+     * graph, indexed by slots. The entries of the free slots are NaN.
+     * @throws Exception
+     */
+    public float[] getDistancesTo(DataInstance instance) throws Exception {
+        float[] distances = new float[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            distances[i] = instances[i] != null ? cmet.dist(instance,
+                    instances[i]) : Float.NaN;
+        }
+        return distances;
+    }
+
+    /**
+     * This method selects the kNN set of a point that is outside the graph.
+     *
+     * @param distances float[] of distances to the points in the graph, as
+     * given by getDistancesTo.
+     * @param neighbors int[] to write the neighbor slots to.
+     * @param neighborDistances float[] to write the neighbor distances to.
+     * @return Integer that is the number of selected neighbors.
+     */
+    public int selectNeighbors(float[] distances, int[] neighbors,
+            float[] neighborDistances) {
+        selector.reset();
+        for (int i = 0; i < distances.length; i++) {
+            if (instances[i] != null) {
+                selector.offer(i, distances[i]);
+            }
+        }
+        return selector.getSorted(neighbors, neighborDistances);
+    }
+
+    /**
+     * @param index Integer that is the slot index.
+     * @param distance Float that is the distance from the point to a
+     * candidate.
+     * @return True if the candidate at the given distance would enter the kNN
+     * set of the point.
+     */
+    public boolean admits(int index, float distance) {
+        return kCurrLen[index] < k
+                || distance < kDistances[index][kCurrLen[index] - 1];
+    }
+
+    /**
+     * This method inserts a point into the graph and updates the kNN sets of
+     * the points that now have it among their neighbors.
+     *
+     * @param instance DataInstance to insert.
+     * @return Integer that is the slot index of the inserted point.
+     * @throws Exception
+     */
+    public int insert(DataInstance instance) throws Exception {
+        float[] distances = getDistancesTo(instance);
+        int index;
+        if (!freeSlots.isEmpty()) {
+            index = freeSlots.remove(freeSlots.size() - 1);
+        } else {
+            if (numSlots == instances.length) {
+                allocate(2 * instances.length);
+            }
+            index = numSlots++;
+        }
+        lastChanged = new ArrayList<>();
+        kCurrLen[index] = selectNeighbors(distances, kNeighbors[index],
+                kDistances[index]);
+        for (int kInd = 0; kInd < kCurrLen[index]; kInd++) {
+            reverseNeighbors[kNeighbors[index][kInd]].add(index);
+        }
+        lastChanged.add(index);
+        for (int i = 0; i < distances.length; i++) {
+            if (instances[i] != null && admits(i, distances[i])) {
+                insertNeighbor(i, index, distances[i]);
+                lastChanged.add(i);
+            }
+        }
+        instances[index] = instance;
+        numPoints++;
+        return index;
+    }
+
+    /**
+     * Inserts a neighbor into a kNN set, removing the furthest neighbor if the
+     * set is full. Ties are placed after the existing neighbors.
+     *
+     * @param index Integer that is the slot index of the point.
+     * @param neighbor Integer that is the slot index of the neighbor.
+     * @param distance Float that is the distance to the neighbor.
+     */
+    private void insertNeighbor(int index, int neighbor, float distance) {
+        int[] neighbors = kNeighbors[index];
+        float[] nDistances = kDistances[index];
+        int l = kCurrLen[index];
+        if (l == k) {
+            reverseNeighbors[neighbors[k - 1]].remove(Integer.valueOf(index));
+            l--;
+        } else {
+            kCurrLen[index]++;
+        }
+        while (l >= 1 && distance < nDistances[l - 1]) {
+            nDistances[l] = nDistances[l - 1];
+            neighbors[l] = neighbors[l - 1];
+            l--;
+        }
+        nDistances[l] = distance;
+        neighbors[l] = neighbor;
+        reverseNeighbors[neighbor].add(index);
+    }
+
+    /**
+     * This method deletes a point from the graph and repairs the kNN sets of
+     * its reverse neighbors.
+     *
+     * @param index Integer that is the slot index of the point to delete.
+     * @throws Exception
+     */
+    public void delete(int index) throws Exception {
+        if (!contains(index)) {
+            throw new IllegalArgumentException("No point in slot " + index);
+        }
+        instances[index] = null;
+        numPoints--;
+        for (int kInd = 0; kInd < kCurrLen[index]; kInd++) {
+            reverseNeighbors[kNeighbors[index][kInd]].remove(
+                    Integer.valueOf(index));
+        }
+        kCurrLen[index] = 0;
+        lastChanged = new ArrayList<>(reverseNeighbors[index]);
+        reverseNeighbors[index].clear();
+        for (int r : lastChanged) {
+            removeNeighbor(r, index);
+            findReplacement(r);
+        }
+        freeSlots.add(index);
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     * @param neighbor Integer that is the slot index of the neighbor to remove
+     * from the kNN set of the point.
+     */
+    private void removeNeighbor(int index, int neighbor) {
+        int[] neighbors = kNeighbors[index];
+        float[] nDistances = kDistances[index];
+        int pos = 0;
+        while (pos < kCurrLen[index] && neighbors[pos] != neighbor) {
+            pos++;
+        }
+        for (; pos < kCurrLen[index] - 1; pos++) {
+            neighbors[pos] = neighbors[pos + 1];
+            nDistances[pos] = nDistances[pos + 1];
+        }
+        kCurrLen[index]--;
+    }
+
+    /**
+     * Fills the vacant position in the kNN set of a point with the closest
+     * point that is not already among its neighbors. The replacement is never
+     * closer than the remaining neighbors, so it is appended at the end.
+     *
+     * @param index Integer that is the slot index of the point.
+     * @throws Exception
+     */
+    private void findReplacement(int index) throws Exception {
+        int best = -1;
+        float bestDistance = Float.MAX_VALUE;
+        int len = kCurrLen[index];
+        candidateLoop:
+        for (int i = 0; i < numSlots; i++) {
+            if (instances[i] == null || i == index) {
+                continue;
+            }
+            float distance = cmet.dist(instances[index], instances[i]);
+            if (distance >= bestDistance) {
+                continue;
+            }
+            for (int kInd = len - 1; kInd >= 0; kInd--) {
+                if (kNeighbors[index][kInd] == i) {
+                    continue candidateLoop;
+                }
+            }
+            best = i;
+            bestDistance = distance;
+        }
+        if (best >= 0) {
+            kNeighbors[index][len] = best;
+            kDistances[index][len] = bestDistance;
+            kCurrLen[index]++;
+            reverseNeighbors[best].add(index);
+        }
+    }
+}
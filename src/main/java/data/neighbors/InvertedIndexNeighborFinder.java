@@ -0,0 +1,733 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors;
+
+import data.representation.sparse.BOWDataSet;
+import data.representation.sparse.BOWInstance;
+import data.representation.sparse.SparseVector;
+import data.representation.util.DataMineConstants;
+import distances.primary.CombinedMetric;
+import distances.sparse.SparseCombinedMetric;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import util.AuxSort;
+
+/**
+ * This class calculates the kNN sets of sparse bag-of-words documents under the
+ * cosine distance by using an inverted index, that maps each term to the
+ * posting list of the documents that contain it. The similarities of a query
+ * are accumulated term-at-a-time over the posting lists of its terms, so only
+ * the documents that share at least one term with the query are ever touched,
+ * instead of calculating the distances to all the documents in the corpus. The
+ * document weights in the index are normalized by the document norms, which
+ * makes the results the same as the ones obtained by SparseCosineMetric, that
+ * is also used for TF-IDF weighted corpora.
+ *
+ * When all the weights are non-negative, MaxScore pruning can be used. The
+ * query terms are processed in the descending order of their maximal possible
+ * contribution to the similarity and once the sum of the remaining upper
+ * bounds falls below the current k-th best score, no new candidates can enter
+ * the kNN set, so the remaining posting lists are only probed for the
+ * documents that are already candidates. The pruning does not change the
+ * results.
+ *
+ * The calculated kNN sets can be used to initialize a NeighborSetFinder
+ * object, so that all the hubness statistics and the hubness-aware methods
+ * can be used on large text corpora without computing the distance matrix.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class InvertedIndexNeighborFinder implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_NUM_THREADS = 8;
+    // The cosine distance between two documents that share no terms.
+    private static final float ORTHOGONAL_DISTANCE = 0.5f;
+    // The largest cosine distance.
+    private static final float MAX_DISTANCE = 1f;
+    // Document types, as they are treated differently by SparseCosineMetric.
+    private static final byte DOC_EMPTY = 0;
+    private static final byte DOC_ZERO_NORM = 1;
+    private static final byte DOC_POSITIVE_NORM = 2;
+    private static final byte DOC_OTHER = 3;
+    private BOWDataSet corpus;
+    private int numDocs;
+    // Document types.
+    private byte[] docTypes;
+    // Posting lists, sorted by document index, with the normalized weights.
+    private int[][] postingDocs;
+    private float[][] postingWeights;
+    // The maximal normalized weight in each posting list.
+    private float[] maxTermWeights;
+    // Whether all the indexed weights are non-negative.
+    private boolean nonNegativeWeights = true;
+    private boolean usePruning = true;
+    // The calculated kNN sets.
+    private int[][] kNeighbors;
+    private float[][] kDistances;
+
+    /**
+     * Initialization. The inverted index is built from the word vectors of the
+     * documents in the corpus.
+     *
+     * @param corpus BOWDataSet that is the document corpus.
+     */
+    public InvertedIndexNeighborFinder(BOWDataSet corpus) {
+        this.corpus = corpus;
+        buildIndex();
+    }
+
+    /**
+     * @param usePruning Boolean flag indicating whether to use MaxScore
+     * pruning when the weights allow it.
+     */
+    public void setPruning(boolean usePruning) {
+        this.usePruning = usePruning;
+    }
+
+    /**
+     * @return True if MaxScore pruning is used when the weights allow it,
+     * false otherwise.
+     */
+    public boolean usesPruning() {
+        return usePruning;
+    }
+
+    /**
+     * @return BOWDataSet that is the indexed corpus.
+     */
+    public BOWDataSet getCorpus() {
+        return corpus;
+    }
+
+    /**
+     * @return int[][] that are the calculated kNN sets.
+     */
+    public int[][] getKNeighbors() {
+        return kNeighbors;
+    }
+
+    /**
+     * @return float[][] that are the distances to the calculated kNN.
+     */
+    public float[][] getKDistances() {
+        return kDistances;
+    }
+
+    /**
+     * @param instance BOWInstance to get the word vector of.
+     * @return SparseVector that is the word vector of the document.
+     */
+    private static SparseVector getWordVector(BOWInstance instance) {
+        if (instance == null || instance.getWordVector() == null) {
+            return new SparseVector();
+        }
+        return instance.getWordVector();
+    }
+
+    /**
+     * @param vect SparseVector to calculate the norm for.
+     * @return Double value that is the Euclidean norm of the acceptable
+     * values in the vector.
+     */
+    private static double getNorm(SparseVector vect) {
+        float[] values = vect.getValues();
+        int size = vect.size();
+        double norm = 0;
+        for (int i = 0; i < size; i++) {
+            if (DataMineConstants.isAcceptableFloat(values[i])) {
+                norm += values[i] * values[i];
+            }
+        }
+        return Math.sqrt(norm);
+    }
+
+    /**
+     * @param vect SparseVector that is the document word vector.
+     * @param norm Double value that is the norm of the word vector.
+     * @return Byte that is the document type.
+     */
+    private static byte getDocType(SparseVector vect, double norm) {
+        if (vect.isEmpty()) {
+            return DOC_EMPTY;
+        } else if (DataMineConstants.isPositive(norm)) {
+            return DOC_POSITIVE_NORM;
+        } else if (DataMineConstants.isZero(norm)) {
+            return DOC_ZERO_NORM;
+        } else {
+            return DOC_OTHER;
+        }
+    }
+
+    /**
+     * This method builds the inverted index in two passes, first counting the
+     * posting list lengths and then filling in the posting lists, so that no
+     * resizing is necessary and the posting lists end up sorted by the
+     * document index.
+     */
+    private void buildIndex() {
+        numDocs = corpus == null || corpus.data == null ? 0 : corpus.size();
+        docTypes = new byte[numDocs];
+        double[] norms = new double[numDocs];
+        int maxTerm = -1;
+        for (int i = 0; i < numDocs; i++) {
+            SparseVector vect = getWordVector(
+                    (BOWInstance) (corpus.data.get(i)));
+            norms[i] = getNorm(vect);
+            docTypes[i] = getDocType(vect, norms[i]);
+            if (!vect.isEmpty()) {
+                maxTerm = Math.max(maxTerm, vect.getIndexAt(vect.size() - 1));
+            }
+        }
+        int[] postingLengths = new int[maxTerm + 1];
+        for (int i = 0; i < numDocs; i++) {
+            if (docTypes[i] != DOC_POSITIVE_NORM) {
+                continue;
+            }
+            SparseVector vect = getWordVector(
+                    (BOWInstance) (corpus.data.get(i)));
+            int[] indexes = vect.getIndexes();
+            float[] values = vect.getValues();
+            for (int j = 0; j < vect.size(); j++) {
+                if (isIndexable(values[j])) {
+                    postingLengths[indexes[j]]++;
+                }
+            }
+        }
+        postingDocs = new int[maxTerm + 1][];
+        postingWeights = new float[maxTerm + 1][];
+        maxTermWeights = new float[maxTerm + 1];
+        for (int t = 0; t <= maxTerm; t++) {
+            postingDocs[t] = new int[postingLengths[t]];
+            postingWeights[t] = new float[postingLengths[t]];
+        }
+        Arrays.fill(postingLengths, 0);
+        for (int i = 0; i < numDocs; i++) {
+            if (docTypes[i] != DOC_POSITIVE_NORM) {
+                continue;
+            }
+            SparseVector vect = getWordVector(
+                    (BOWInstance) (corpus.data.get(i)));
+            int[] indexes = vect.getIndexes();
+            float[] values = vect.getValues();
+            for (int j = 0; j < vect.size(); j++) {
+                if (isIndexable(values[j])) {
+                    int t = indexes[j];
+                    float weight = (float) (values[j] / norms[i]);
+                    postingDocs[t][postingLengths[t]] = i;
+                    postingWeights[t][postingLengths[t]] = weight;
+                    postingLengths[t]++;
+                    if (weight < 0) {
+                        nonNegativeWeights = false;
+                    }
+                    if (postingLengths[t] == 1
+                            || weight > maxTermWeights[t]) {
+                        maxTermWeights[t] = weight;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param value Float value of a document entry.
+     * @return True if the entry contributes to the cosine similarity, false
+     * otherwise.
+     */
+    private static boolean isIndexable(float value) {
+        return value != 0 && DataMineConstants.isAcceptableFloat(value);
+    }
+
+    /**
+     * This method calculates the kNN sets of all the documents in the corpus
+     * by using the default number of threads.
+     *
+     * @param k Integer that is the neighborhood size.
+     * @throws Exception
+     */
+    public void calculateNeighborSets(int k) throws Exception {
+        calculateNeighborSets(k, DEFAULT_NUM_THREADS);
+    }
+
+    /**
+     * This method calculates the kNN sets of all the documents in the corpus.
+     *
+     * @param k Integer that is the neighborhood size.
+     * @param numThreads Integer that is the number of threads to use.
+     * @throws Exception
+     */
+    public void calculateNeighborSets(int k, int numThreads)
+            throws Exception {
+        if (k <= 0 || k >= numDocs) {
+            throw new Exception("Bad neighborhood size " + k + " for "
+                    + numDocs + " documents.");
+        }
+        kNeighbors = new int[numDocs][k];
+        kDistances = new float[numDocs][k];
+        runQueries(null, k, numThreads, kNeighbors, kDistances);
+    }
+
+    /**
+     * This method calculates the kNN sets of the query documents among the
+     * documents in the corpus, for instance for the test documents.
+     *
+     * @param queries List<BOWInstance> of query documents.
+     * @param k Integer that is the neighborhood size.
+     * @param numThreads Integer that is the number of threads to use.
+     * @param neighbors int[][] that will hold the kNN sets, one row of length
+     * k for each query.
+     * @param distances float[][] that will hold the kNN distances, one row of
+     * length k for each query.
+     * @throws Exception
+     */
+    public void findNeighbors(List<BOWInstance> queries, int k,
+            int numThreads, int[][] neighbors, float[][] distances)
+            throws Exception {
+        if (k <= 0 || k > numDocs) {
+            throw new Exception("Bad neighborhood size " + k + " for "
+                    + numDocs + " documents.");
+        }
+        if (queries == null || queries.isEmpty()) {
+            return;
+        }
+        runQueries(queries, k, numThreads, neighbors, distances);
+    }
+
+    /**
+     * This method splits the queries into chunks and processes them in
+     * parallel.
+     *
+     * @param queries List<BOWInstance> of query documents, or null if the
+     * documents in the corpus are the queries.
+     * @param k Integer that is the neighborhood size.
+     * @param numThreads Integer that is the number of threads to use.
+     * @param neighbors int[][] that will hold the kNN sets.
+     * @param distances float[][] that will hold the kNN distances.
+     */
+    private void runQueries(List<BOWInstance> queries, int k, int numThreads,
+            int[][] neighbors, float[][] distances) {
+        int size = queries == null ? numDocs : queries.size();
+        numThreads = Math.max(1, Math.min(numThreads, size));
+        int chunkSize = size / numThreads;
+        Thread[] threads = new Thread[numThreads];
+        for (int tIndex = 0; tIndex < numThreads - 1; tIndex++) {
+            threads[tIndex] = new Thread(new QueryCalculator(queries,
+                    tIndex * chunkSize, (tIndex + 1) * chunkSize - 1, k,
+                    neighbors, distances));
+            threads[tIndex].start();
+        }
+        threads[numThreads - 1] = new Thread(new QueryCalculator(queries,
+                (numThreads - 1) * chunkSize, size - 1, k, neighbors,
+                distances));
+        threads[numThreads - 1].start();
+        for (int tIndex = 0; tIndex < numThreads; tIndex++) {
+            if (threads[tIndex] != null) {
+                try {
+                    threads[tIndex].join();
+                } catch (Throwable t) {
+                    System.err.println(t.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * This method generates a NeighborSetFinder object from the calculated kNN
+     * sets, with the cosine distance as the metric.
+     *
+     * @return NeighborSetFinder object holding the calculated kNN sets.
+     */
+    public NeighborSetFinder getNeighborSetFinder() {
+        return getNeighborSetFinder(SparseCombinedMetric.SPARSE_COSINE);
+    }
+
+    /**
+     * This method generates a NeighborSetFinder object from the calculated kNN
+     * sets, so that the hubness statistics and the hubness-aware methods can
+     * be used without calculating the distance matrix.
+     *
+     * @param cmet CombinedMetric object to set to the NeighborSetFinder.
+     * @return NeighborSetFinder object holding the calculated kNN sets.
+     */
+    public NeighborSetFinder getNeighborSetFinder(CombinedMetric cmet) {
+        if (kNeighbors == null) {
+            return null;
+        }
+        NeighborSetFinder nsf = new NeighborSetFinder(corpus, cmet);
+        int[] kCurrLen = new int[numDocs];
+        Arrays.fill(kCurrLen, kNeighbors[0].length);
+        nsf.setKNeighbors(kNeighbors, kDistances, kCurrLen);
+        return nsf;
+    }
+
+    /**
+     * This class holds the per-thread buffers that are re-used between the
+     * queries, so that the corpus-sized arrays are not allocated per query.
+     */
+    private class QueryWorkspace {
+
+        // Similarity accumulators.
+        float[] accumulators = new float[numDocs];
+        // The last query that touched each document.
+        int[] stamps = new int[numDocs];
+        int currentStamp = 0;
+        // The touched documents of the current query.
+        int[] touched = new int[16];
+        int numTouched = 0;
+        // Buffer for finding the k-th best score.
+        float[] scoreBuffer = new float[16];
+
+        /**
+         * This method starts a new query.
+         */
+        void reset() {
+            currentStamp++;
+            numTouched = 0;
+            if (currentStamp == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                currentStamp = 1;
+            }
+        }
+
+        /**
+         * @param doc Integer that is the document index.
+         * @return True if the document was touched by the current query.
+         */
+        boolean isTouched(int doc) {
+            return stamps[doc] == currentStamp;
+        }
+
+        /**
+         * @param doc Integer that is the document index.
+         * @param score Float value that is the score to add.
+         */
+        void add(int doc, float score) {
+            if (stamps[doc] != currentStamp) {
+                stamps[doc] = currentStamp;
+                accumulators[doc] = score;
+                if (numTouched == touched.length) {
+                    touched = Arrays.copyOf(touched, 2 * numTouched);
+                }
+                touched[numTouched++] = doc;
+            } else {
+                accumulators[doc] += score;
+            }
+        }
+
+        /**
+         * @param k Integer that is the neighborhood size.
+         * @param exclude Integer that is the index of the document to exclude.
+         * @return Float value that is the k-th largest accumulated score, or
+         * negative infinity if fewer than k documents were touched.
+         */
+        float getKthScore(int k, int exclude) {
+            if (scoreBuffer.length < numTouched) {
+                scoreBuffer = new float[touched.length];
+            }
+            int num = 0;
+            for (int i = 0; i < numTouched; i++) {
+                if (touched[i] != exclude) {
+                    scoreBuffer[num++] = accumulators[touched[i]];
+                }
+            }
+            if (num < k) {
+                return Float.NEGATIVE_INFINITY;
+            }
+            Arrays.sort(scoreBuffer, 0, num);
+            return scoreBuffer[num - k];
+        }
+    }
+
+    /**
+     * This method calculates the kNN set of a single query.
+     *
+     * @param query SparseVector that is the query word vector.
+     * @param exclude Integer that is the index of the document to exclude from
+     * the kNN set, or -1 if none.
+     * @param k Integer that is the neighborhood size.
+     * @param ws QueryWorkspace with the per-thread buffers.
+     * @param neighbors int[] that will hold the kNN set.
+     * @param distances float[] that will hold the kNN distances.
+     * @throws Exception
+     */
+    private void query(SparseVector query, int exclude, int k,
+            QueryWorkspace ws, int[] neighbors, float[] distances)
+            throws Exception {
+        double norm = getNorm(query);
+        byte queryType = getDocType(query, norm);
+        int kCurrLen = 0;
+        if (queryType == DOC_POSITIVE_NORM) {
+            ws.reset();
+            accumulateScores(query, norm, exclude, k, ws);
+            for (int i = 0; i < ws.numTouched; i++) {
+                int doc = ws.touched[i];
+                if (doc != exclude) {
+                    float dist = (1f - ws.accumulators[doc]) * 0.5f;
+                    kCurrLen = insertNeighbor(doc, dist, neighbors, distances,
+                            kCurrLen, k);
+                }
+            }
+            // The documents that share no terms with the query.
+            for (int doc = 0; doc < numDocs; doc++) {
+                if (kCurrLen == k
+                        && distances[k - 1] <= ORTHOGONAL_DISTANCE) {
+                    break;
+                }
+                if (doc != exclude && docTypes[doc] == DOC_POSITIVE_NORM
+                        && !ws.isTouched(doc)) {
+                    kCurrLen = insertNeighbor(doc, ORTHOGONAL_DISTANCE,
+                            neighbors, distances, kCurrLen, k);
+                }
+            }
+        } else if (queryType == DOC_EMPTY || queryType == DOC_ZERO_NORM) {
+            // The documents of the same type are at zero distance.
+            for (int doc = 0; doc < numDocs && kCurrLen < k; doc++) {
+                if (doc != exclude && docTypes[doc] == queryType) {
+                    kCurrLen = insertNeighbor(doc, 0, neighbors, distances,
+                            kCurrLen, k);
+                }
+            }
+        }
+        // All the remaining documents are at the maximal distance.
+        for (int doc = 0; doc < numDocs && kCurrLen < k; doc++) {
+            if (doc != exclude && !contains(neighbors, kCurrLen, doc)) {
+                kCurrLen = insertNeighbor(doc, MAX_DISTANCE, neighbors,
+                        distances, kCurrLen, k);
+            }
+        }
+    }
+
+    /**
+     * This method accumulates the cosine similarities between the query and
+     * the documents that share terms with it.
+     *
+     * @param query SparseVector that is the query word vector.
+     * @param norm Double value that is the query norm.
+     * @param exclude Integer that is the index of the document to exclude from
+     * the kNN set, or -1 if none.
+     * @param k Integer that is the neighborhood size.
+     * @param ws QueryWorkspace with the per-thread buffers.
+     * @throws Exception
+     */
+    private void accumulateScores(SparseVector query, double norm, int exclude,
+            int k, QueryWorkspace ws) throws Exception {
+        int[] indexes = query.getIndexes();
+        float[] values = query.getValues();
+        int numTerms = 0;
+        int[] terms = new int[query.size()];
+        float[] queryWeights = new float[query.size()];
+        boolean canPrune = usePruning && nonNegativeWeights;
+        for (int i = 0; i < query.size(); i++) {
+            if (isIndexable(values[i]) && indexes[i] < postingDocs.length
+                    && postingDocs[indexes[i]].length > 0) {
+                terms[numTerms] = indexes[i];
+                queryWeights[numTerms] = (float) (values[i] / norm);
+                if (queryWeights[numTerms] < 0) {
+                    canPrune = false;
+                }
+                numTerms++;
+            }
+        }
+        if (!canPrune) {
+            for (int i = 0; i < numTerms; i++) {
+                scanPostings(terms[i], queryWeights[i], ws, false);
+            }
+            return;
+        }
+        // Sort the terms by their upper bound contributions, descending.
+        float[] upperBounds = new float[numTerms];
+        for (int i = 0; i < numTerms; i++) {
+            upperBounds[i] = queryWeights[i] * maxTermWeights[terms[i]];
+        }
+        int[] order = AuxSort.sortIndexedValue(
+                Arrays.copyOf(upperBounds, numTerms), true);
+        float[] remainingBounds = new float[numTerms + 1];
+        for (int i = numTerms - 1; i >= 0; i--) {
+            remainingBounds[i] = remainingBounds[i + 1]
+                    + upperBounds[order[i]];
+        }
+        boolean candidatesFixed = false;
+        float maxScore = 0;
+        for (int i = 0; i < numTerms; i++) {
+            int term = terms[order[i]];
+            float queryWeight = queryWeights[order[i]];
+            if (!candidatesFixed && i > 0 && remainingBounds[i] < maxScore) {
+                // The k-th best score can not exceed the maximal score, so
+                // it is only determined when pruning is possible at all.
+                float kthScore = ws.getKthScore(k, exclude);
+                candidatesFixed = remainingBounds[i] < kthScore;
+            }
+            if (candidatesFixed) {
+                probePostings(term, queryWeight, ws);
+            } else {
+                maxScore = Math.max(maxScore,
+                        scanPostings(term, queryWeight, ws, false));
+            }
+        }
+    }
+
+    /**
+     * This method adds the contributions of a term to the accumulators by
+     * scanning its posting list.
+     *
+     * @param term Integer that is the term index.
+     * @param queryWeight Float value that is the normalized query weight.
+     * @param ws QueryWorkspace with the per-thread buffers.
+     * @param touchedOnly Boolean flag indicating whether to only update the
+     * documents that were already touched.
+     * @return Float value that is the maximal accumulated score among the
+     * updated documents.
+     */
+    private float scanPostings(int term, float queryWeight, QueryWorkspace ws,
+            boolean touchedOnly) {
+        int[] docs = postingDocs[term];
+        float[] weights = postingWeights[term];
+        float maxScore = 0;
+        for (int p = 0; p < docs.length; p++) {
+            if (!touchedOnly || ws.isTouched(docs[p])) {
+                ws.add(docs[p], queryWeight * weights[p]);
+                maxScore = Math.max(maxScore, ws.accumulators[docs[p]]);
+            }
+        }
+        return maxScore;
+    }
+
+    /**
+     * This method adds the contributions of a term to the documents that were
+     * already touched, by either binary searching the posting list for each
+     * touched document or scanning it, whichever is cheaper.
+     *
+     * @param term Integer that is the term index.
+     * @param queryWeight Float value that is the normalized query weight.
+     * @param ws QueryWorkspace with the per-thread buffers.
+     */
+    private void probePostings(int term, float queryWeight,
+            QueryWorkspace ws) {
+        int[] docs = postingDocs[term];
+        float[] weights = postingWeights[term];
+        int logLength = 32 - Integer.numberOfLeadingZeros(docs.length);
+        if ((long) ws.numTouched * logLength >= docs.length) {
+            scanPostings(term, queryWeight, ws, true);
+            return;
+        }
+        for (int i = 0; i < ws.numTouched; i++) {
+            int doc = ws.touched[i];
+            int pos = Arrays.binarySearch(docs, doc);
+            if (pos >= 0) {
+                ws.accumulators[doc] += queryWeight * weights[pos];
+            }
+        }
+    }
+
+    /**
+     * @param neighbors int[] that is the current kNN set.
+     * @param kCurrLen Integer that is the current kNN set length.
+     * @param doc Integer that is the document index.
+     * @return True if the document is in the current kNN set.
+     */
+    private static boolean contains(int[] neighbors, int kCurrLen, int doc) {
+        for (int i = 0; i < kCurrLen; i++) {
+            if (neighbors[i] == doc) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * This method inserts a neighbor into the kNN set that is sorted by the
+     * distances in ascending order, if the neighbor is closer than the current
+     * k-th nearest neighbor.
+     *
+     * @param doc Integer that is the document index.
+     * @param dist Float value that is the distance to the document.
+     * @param neighbors int[] that is the current kNN set.
+     * @param distances float[] that are the current kNN distances.
+     * @param kCurrLen Integer that is the current kNN set length.
+     * @param k Integer that is the neighborhood size.
+     * @return Integer that is the new kNN set length.
+     */
+    private static int insertNeighbor(int doc, float dist, int[] neighbors,
+            float[] distances, int kCurrLen, int k) {
+        if (kCurrLen == k && dist >= distances[k - 1]) {
+            return kCurrLen;
+        }
+        int pos = kCurrLen == k ? k - 1 : kCurrLen;
+        while (pos > 0 && distances[pos - 1] > dist) {
+            distances[pos] = distances[pos - 1];
+            neighbors[pos] = neighbors[pos - 1];
+            pos--;
+        }
+        distances[pos] = dist;
+        neighbors[pos] = doc;
+        return kCurrLen == k ? k : kCurrLen + 1;
+    }
+
+    /**
+     * This class processes a chunk of the queries.
+     */
+    class QueryCalculator implements Runnable {
+
+        private List<BOWInstance> queries;
+        private int startIndex;
+        private int endIndex;
+        private int k;
+        private int[][] neighbors;
+        private float[][] distances;
+
+        /**
+         * Initialization.
+         *
+         * @param queries List<BOWInstance> of query documents, or null if the
+         * documents in the corpus are the queries.
+         * @param startIndex Index of the first query to process.
+         * @param endIndex Index of the last query to process.
+         * @param k Integer that is the neighborhood size.
+         * @param neighbors int[][] that will hold the kNN sets.
+         * @param distances float[][] that will hold the kNN distances.
+         */
+        public QueryCalculator(List<BOWInstance> queries, int startIndex,
+                int endIndex, int k, int[][] neighbors, float[][] distances) {
+            this.queries = queries;
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.k = k;
+            this.neighbors = neighbors;
+            this.distances = distances;
+        }
+
+        @Override
+        public void run() {
+            QueryWorkspace ws = new QueryWorkspace();
+            try {
+                for (int i = startIndex; i <= endIndex; i++) {
+                    if (queries == null) {
+                        query(getWordVector(
+                                (BOWInstance) (corpus.data.get(i))), i, k, ws,
+                                neighbors[i], distances[i]);
+                    } else {
+                        query(getWordVector(queries.get(i)), -1, k, ws,
+                                neighbors[i], distances[i]);
+                    }
+                }
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+}
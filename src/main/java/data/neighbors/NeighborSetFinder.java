@@ -16,9 +16,12 @@
 */
 package data.neighbors;
 
-import data.neighbors.approximate.AppKNNGraphLanczosBisection;
+import data.neighbors.approximate.ApproximateNeighborFinder;
 import data.representation.DataInstance;
 import data.representation.DataSet;
+import data.structures.VPTree;
+import distances.matrix.HeapTriangularMatrix;
+import distances.matrix.TriangularDistanceMatrix;
 import distances.primary.CombinedMetric;
 import ioformat.FileUtil;
 import java.io.BufferedReader;
@@ -32,6 +35,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import util.ArrayUtil;
 import util.BasicMathUtil;
 import util.SOPLUtil;
@@ -58,10 +62,16 @@ import util.SOPLUtil;
 public class NeighborSetFinder implements Serializable {
 
     private static final long serialVersionUID = 1L;
+    // The number of points in a block of the tiled kNN calculations. A tile
+    // of distances between two blocks fits into the L2 cache.
+    public static final int KNN_TILE_SIZE = 128;
     // Dataset to calculate the k-nearest neighbor sets from.
     private DataSet dset = null;
     // The upper triangular distance matrix, as used throughout the library.
     private float[][] distMatrix = null;
+    // The distance matrix storage that is used when the distances are not
+    // kept in the jagged array on the heap, as for memory-mapped matrices.
+    private transient TriangularDistanceMatrix distMatrixBackend = null;
     // CombinedMetric object for distance calculations.
     private CombinedMetric cmet = null;
     // The k-nearest neighbor sets. Each row in the table contains the indexes
@@ -183,6 +193,24 @@ public class NeighborSetFinder implements Serializable {
         }
     }
 
+    /**
+     * Initialization.
+     *
+     * @param dset DataSet object that holds the data to calculate the kNN sets
+     * for.
+     * @param distMatrixBackend TriangularDistanceMatrix that holds the upper
+     * triangular distance matrix. It can be off-heap, in which case the
+     * distances are read from it directly, without copying them into a jagged
+     * array.
+     * @param cmet CombinedMetric object for distance calculations.
+     */
+    public NeighborSetFinder(DataSet dset,
+            TriangularDistanceMatrix distMatrixBackend, CombinedMetric cmet) {
+        this.dset = dset;
+        this.cmet = cmet;
+        setDistances(distMatrixBackend);
+    }
+
     /**
      * @return True if the distance matrix is already available, false
      * otherwise.
@@ -354,6 +382,25 @@ public class NeighborSetFinder implements Serializable {
      */
     public void setDistances(float[][] distMatrix) {
         this.distMatrix = distMatrix;
+        this.distMatrixBackend = null;
+        distancesCalculated = true;
+        calculateOccFreqMeanAndVariance();
+    }
+
+    /**
+     * @param distMatrixBackend TriangularDistanceMatrix that holds the upper
+     * triangular distance matrix. Heap-based matrices are unwrapped, while the
+     * off-heap ones are accessed directly.
+     */
+    public void setDistances(TriangularDistanceMatrix distMatrixBackend) {
+        if (distMatrixBackend instanceof HeapTriangularMatrix) {
+            this.distMatrix = ((HeapTriangularMatrix) distMatrixBackend).
+                    getJaggedArray();
+            this.distMatrixBackend = null;
+        } else {
+            this.distMatrix = null;
+            this.distMatrixBackend = distMatrixBackend;
+        }
         distancesCalculated = true;
         calculateOccFreqMeanAndVariance();
     }
@@ -769,18 +816,20 @@ public class NeighborSetFinder implements Serializable {
     }
 
     /**
-     * This method constructs a NeighborSetFinder object from the approximate
-     * NeighborSetFinder implementation via Lanczos bisections.
+     * This method constructs a NeighborSetFinder object from an approximate
+     * kNN graph implementation, like the one via Lanczos bisections.
      *
-     * @param appNSF AppKNNGraphLanczosBisection approximate kNN implementation.
+     * @param appNSF ApproximateNeighborFinder approximate kNN implementation.
      * @param calculateMissingDistances Boolean flag indicating whether to
-     * calculate the missing distances or not.
+     * calculate the missing distances or not. It is ignored if the approximate
+     * implementation does not use a distance matrix.
      * @return NeighborSetFinder object based on the kNN sets in the approximate
-     * kNN implementation.
+     * kNN implementation. The padding entries with negative indexes in the
+     * kNN sets are not counted as occurrences.
      * @throws Exception
      */
     public static NeighborSetFinder constructFromAppFinder(
-            AppKNNGraphLanczosBisection appNSF,
+            ApproximateNeighborFinder appNSF,
             boolean calculateMissingDistances) throws Exception {
         NeighborSetFinder nsf = new NeighborSetFinder();
         nsf.dset = appNSF.getDataSet();
@@ -788,7 +837,8 @@ public class NeighborSetFinder implements Serializable {
         nsf.distMatrix = appNSF.getDistances();
         CombinedMetric cmet = appNSF.getMetric();
         // Calculate the distance matrix, if specified.
-        if (calculateMissingDistances) {
+        if (calculateMissingDistances && nsf.distMatrix != null
+                && appNSF.getDistanceFlags() != null) {
             for (int i = 0; i < nsf.dset.size(); i++) {
                 for (int j = 0; j < nsf.distMatrix[i].length; j++) {
                     if (!appNSF.getDistanceFlags()[i][j]) {
@@ -804,7 +854,7 @@ public class NeighborSetFinder implements Serializable {
         for (int i = 0; i < nsf.reverseNeighbors.length; i++) {
             nsf.reverseNeighbors[i] = new ArrayList<>(appNSF.getK() * 4);
         }
-        nsf.distancesCalculated = true;
+        nsf.distancesCalculated = nsf.distMatrix != null;
         // Get the kNN sets and the k-distances.
         nsf.kDistances = appNSF.getKdistances();
         nsf.kNeighbors = appNSF.getKneighbors();
@@ -815,6 +865,9 @@ public class NeighborSetFinder implements Serializable {
         // counts.
         for (int i = 0; i < nsf.kNeighbors.length; i++) {
             for (int j = 0; j < appNSF.getK(); j++) {
+                if (nsf.kNeighbors[i][j] < 0) {
+                    continue;
+                }
                 nsf.reverseNeighbors[nsf.kNeighbors[i][j]].add(i);
                 nsf.kNeighborFrequencies[nsf.kNeighbors[i][j]]++;
                 if (nsf.dset.data.get(i).getCategory() != nsf.dset.data.get(
@@ -1600,99 +1653,19 @@ public class NeighborSetFinder implements Serializable {
     public static int[] getIndexesOfNeighbors(DataSet dset, int instanceIndex,
             int neighborhoodSize, CombinedMetric cmet) throws Exception {
         int[] neighbors = new int[neighborhoodSize];
-        float currDist;
-        int kCurrLen = 0;
-        float[] nDists = new float[neighborhoodSize];
-        Arrays.fill(nDists, Float.MAX_VALUE);
-        int l;
+        TopKSelector selector = new TopKSelector(neighborhoodSize);
         DataInstance instance = dset.data.get(instanceIndex);
-        // Check the first half of the points, with the index value below the
-        // query index value.
-        for (int i = 0; i < instanceIndex; i++) {
-            currDist = cmet.dist(instance, dset.data.get(i));
-            if (kCurrLen > 0) {
-                if (kCurrLen == neighborhoodSize) {
-                    if (currDist < nDists[kCurrLen - 1]) {
-                        // Search and inser.
-                        l = neighborhoodSize - 1;
-                        while ((l >= 1) && currDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = currDist;
-                        neighbors[l] = i;
-
-                    }
-                } else {
-                    if (currDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = kCurrLen - 1;
-                        nDists[kCurrLen] = nDists[kCurrLen - 1];
-                        neighbors[kCurrLen] = neighbors[kCurrLen - 1];
-                        while ((l >= 1) && currDist < nDists[l]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l + 1] = currDist;
-                        neighbors[l + 1] = i;
-                        kCurrLen++;
-                    } else {
-                        nDists[kCurrLen] = currDist;
-                        neighbors[kCurrLen] = i;
-                        kCurrLen++;
-                    }
-                }
-            } else {
-                nDists[0] = currDist;
-                nDists[0] = i;
-                kCurrLen = 1;
-            }
-        }
-        // Check the second half of the points, with the index value above the
-        // query index value.
-        for (int i = instanceIndex + 1; i < dset.size(); i++) {
-            currDist = cmet.dist(instance, dset.data.get(i));
-            if (kCurrLen > 0) {
-                if (kCurrLen == neighborhoodSize) {
-                    if (currDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = neighborhoodSize - 1;
-                        while ((l >= 1) && currDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = currDist;
-                        neighbors[l] = i;
-                    }
-                } else {
-                    if (currDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = kCurrLen - 1;
-                        nDists[kCurrLen] = nDists[kCurrLen - 1];
-                        neighbors[kCurrLen] = neighbors[kCurrLen - 1];
-                        while ((l >= 1) && currDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = currDist;
-                        neighbors[l] = i;
-                        kCurrLen++;
-                    } else {
-                        nDists[kCurrLen] = currDist;
-                        neighbors[kCurrLen] = i;
-                        kCurrLen++;
-                    }
-                }
-            } else {
-                nDists[0] = currDist;
-                neighbors[0] = i;
-                kCurrLen = 1;
-            }
-        }
+        // The distances to all the other points are calculated in batches.
+        float[] queryDistances = new float[dset.size()];
+        cmet.dist(instance, dset.data, 0, instanceIndex, queryDistances, 0);
+        cmet.dist(instance, dset.data, instanceIndex + 1, dset.size(),
+                queryDistances, instanceIndex + 1);
+        // Check the points with the index value below and above the query
+        // index value.
+        selector.offer(queryDistances, 0, instanceIndex, 0);
+        selector.offer(queryDistances, instanceIndex + 1, dset.size(),
+                instanceIndex + 1);
+        selector.getSorted(neighbors, null);
         return neighbors;
     }
 
@@ -1713,52 +1686,9 @@ public class NeighborSetFinder implements Serializable {
             DataInstance instance, int neighborhoodSize, float[] distances)
             throws Exception {
         int[] neighbors = new int[neighborhoodSize];
-        float currDist;
-        int kCurrLen = 0;
-        float[] nDists = new float[neighborhoodSize];
-        Arrays.fill(nDists, Float.MAX_VALUE);
-        int l;
-        for (int i = 0; i < dset.size(); i++) {
-            currDist = distances[i];
-            if (kCurrLen > 0) {
-                if (kCurrLen == neighborhoodSize) {
-                    if (currDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = neighborhoodSize - 1;
-                        while ((l >= 1) && currDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = currDist;
-                        neighbors[l] = i;
-                    }
-                } else {
-                    if (currDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = kCurrLen - 1;
-                        nDists[kCurrLen] = nDists[kCurrLen - 1];
-                        neighbors[kCurrLen] = neighbors[kCurrLen - 1];
-                        while ((l >= 1) && currDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = currDist;
-                        neighbors[l] = i;
-                        kCurrLen++;
-                    } else {
-                        nDists[kCurrLen] = currDist;
-                        neighbors[kCurrLen] = i;
-                        kCurrLen++;
-                    }
-                }
-            } else {
-                nDists[0] = currDist;
-                neighbors[0] = i;
-                kCurrLen = 1;
-            }
-        }
+        TopKSelector selector = new TopKSelector(neighborhoodSize);
+        selector.offer(distances, 0, dset.size(), 0);
+        selector.getSorted(neighbors, null);
         return neighbors;
     }
 
@@ -1816,6 +1746,29 @@ public class NeighborSetFinder implements Serializable {
         return neighborIndexes;
     }
 
+    /**
+     * Get the indexes of neighbors from the training set for all the instances
+     * in the test set, by querying the metric index built on the training data
+     * instead of scanning the entire training set for each test point.
+     *
+     * @param trainingIndex VPTree that indexes the training data.
+     * @param testDSet DataSet object that is the test data.
+     * @param neighborhoodSize Integer that is the neighborhood size.
+     * @param numThreads Integer that is the number of threads to use.
+     * @return Integer 2D array of indexes of neighbors from the training data
+     * of points in the test data.
+     * @throws Exception
+     */
+    public static int[][] getIndexesOfNeighbors(VPTree trainingIndex,
+            DataSet testDSet, int neighborhoodSize, int numThreads)
+            throws Exception {
+        if (trainingIndex == null || testDSet == null) {
+            return null;
+        }
+        return trainingIndex.getKNeighbors(testDSet, neighborhoodSize,
+                numThreads, null);
+    }
+
     /**
      * This method queries the dataset to determine the neighbors of a
      * particular point that does not belong to the dataset.
@@ -1833,52 +1786,10 @@ public class NeighborSetFinder implements Serializable {
             DataInstance instance, int neighborhoodSize, CombinedMetric cmet)
             throws Exception {
         int[] neighbors = new int[neighborhoodSize];
-        float currDist;
-        int kCurrLen = 0;
-        float[] nDists = new float[neighborhoodSize];
-        Arrays.fill(nDists, Float.MAX_VALUE);
-        int l;
-        for (int i = 0; i < dset.size(); i++) {
-            currDist = cmet.dist(instance, dset.data.get(i));
-            if (kCurrLen > 0) {
-                if (kCurrLen == neighborhoodSize) {
-                    if (currDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = neighborhoodSize - 1;
-                        while ((l >= 1) && currDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = currDist;
-                        neighbors[l] = i;
-                    }
-                } else {
-                    if (currDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = kCurrLen - 1;
-                        nDists[kCurrLen] = nDists[kCurrLen - 1];
-                        neighbors[kCurrLen] = neighbors[kCurrLen - 1];
-                        while ((l >= 1) && currDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = currDist;
-                        neighbors[l] = i;
-                        kCurrLen++;
-                    } else {
-                        nDists[kCurrLen] = currDist;
-                        neighbors[kCurrLen] = i;
-                        kCurrLen++;
-                    }
-                }
-            } else {
-                nDists[0] = currDist;
-                neighbors[0] = i;
-                kCurrLen = 1;
-            }
-        }
+        TopKSelector selector = new TopKSelector(neighborhoodSize);
+        float[] queryDistances = cmet.dist(instance, dset.data);
+        selector.offer(queryDistances, 0, dset.size(), 0);
+        selector.getSorted(neighbors, null);
         return neighbors;
     }
 
@@ -1901,55 +1812,14 @@ public class NeighborSetFinder implements Serializable {
             DataInstance instance, int neighborhoodSize, CombinedMetric cmet,
             HashMap tabuMap) throws Exception {
         int[] neighbors = new int[neighborhoodSize];
-        float tempDist;
-        int kCurrLen = 0;
-        float[] nDists = new float[neighborhoodSize];
-        Arrays.fill(nDists, Float.MAX_VALUE);
-        int l;
+        TopKSelector selector = new TopKSelector(neighborhoodSize);
         for (int i = 0; i < dset.size(); i++) {
             if (tabuMap.containsKey(i)) {
                 continue;
             }
-            tempDist = cmet.dist(instance, dset.data.get(i));
-            if (kCurrLen > 0) {
-                if (kCurrLen == neighborhoodSize) {
-                    if (tempDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = neighborhoodSize - 1;
-                        while ((l >= 1) && tempDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = tempDist;
-                        neighbors[l] = i;
-                    }
-                } else {
-                    if (tempDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = kCurrLen - 1;
-                        nDists[kCurrLen] = nDists[kCurrLen - 1];
-                        neighbors[kCurrLen] = neighbors[kCurrLen - 1];
-                        while ((l >= 1) && tempDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = tempDist;
-                        neighbors[l] = i;
-                        kCurrLen++;
-                    } else {
-                        nDists[kCurrLen] = tempDist;
-                        neighbors[kCurrLen] = i;
-                        kCurrLen++;
-                    }
-                }
-            } else {
-                nDists[0] = tempDist;
-                neighbors[0] = i;
-                kCurrLen = 1;
-            }
+            selector.offer(i, cmet.dist(instance, dset.data.get(i)));
         }
+        selector.getSorted(neighbors, null);
         return neighbors;
     }
     
@@ -1970,57 +1840,16 @@ public class NeighborSetFinder implements Serializable {
     public static int[] getIndexesOfNeighbors(float[][] dMat, int instanceIndex,
             int neighborhoodSize, HashMap tabuMap) throws Exception {
         int[] neighbors = new int[neighborhoodSize];
-        float tempDist;
-        int kCurrLen = 0;
-        float[] nDists = new float[neighborhoodSize];
-        Arrays.fill(nDists, Float.MAX_VALUE);
-        int l;
+        TopKSelector selector = new TopKSelector(neighborhoodSize);
         for (int i = 0; i < dMat.length; i++) {
             if (tabuMap.containsKey(i) || i == instanceIndex) {
                 continue;
             }
             int minIndex = Math.min(i, instanceIndex);
             int maxIndex = Math.max(i, instanceIndex);
-            tempDist = dMat[minIndex][maxIndex - minIndex - 1];
-            if (kCurrLen > 0) {
-                if (kCurrLen == neighborhoodSize) {
-                    if (tempDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = neighborhoodSize - 1;
-                        while ((l >= 1) && tempDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = tempDist;
-                        neighbors[l] = i;
-                    }
-                } else {
-                    if (tempDist < nDists[kCurrLen - 1]) {
-                        // Search and insert.
-                        l = kCurrLen - 1;
-                        nDists[kCurrLen] = nDists[kCurrLen - 1];
-                        neighbors[kCurrLen] = neighbors[kCurrLen - 1];
-                        while ((l >= 1) && tempDist < nDists[l - 1]) {
-                            nDists[l] = nDists[l - 1];
-                            neighbors[l] = neighbors[l - 1];
-                            l--;
-                        }
-                        nDists[l] = tempDist;
-                        neighbors[l] = i;
-                        kCurrLen++;
-                    } else {
-                        nDists[kCurrLen] = tempDist;
-                        neighbors[kCurrLen] = i;
-                        kCurrLen++;
-                    }
-                }
-            } else {
-                nDists[0] = tempDist;
-                neighbors[0] = i;
-                kCurrLen = 1;
-            }
+            selector.offer(i, dMat[minIndex][maxIndex - minIndex - 1]);
         }
+        selector.getSorted(neighbors, null);
         return neighbors;
     }
 
@@ -2074,6 +1903,20 @@ public class NeighborSetFinder implements Serializable {
         return distMatrix;
     }
 
+    /**
+     * @return TriangularDistanceMatrix that gives access to the distances,
+     * regardless of whether they are kept on the heap or off-heap.
+     */
+    public TriangularDistanceMatrix getDistanceMatrixBackend() {
+        if (distMatrixBackend != null) {
+            return distMatrixBackend;
+        } else if (distMatrix != null) {
+            return new HeapTriangularMatrix(distMatrix);
+        } else {
+            return null;
+        }
+    }
+
     /**
      * @return float[][] representing an array of arrays of k-distances for all
      * data points.
@@ -2188,6 +2031,10 @@ public class NeighborSetFinder implements Serializable {
      * This method calculates the distance mean and variance.
      */
     public final void calculateOccFreqMeanAndVariance() {
+        if (distMatrix == null && distMatrixBackend != null) {
+            calculateBackendMeanAndVariance();
+            return;
+        }
         for (int i = 0; i < distMatrix.length; i++) {
             for (int j = 0; j < distMatrix[i].length; j++) {
                 distMean += distMatrix[i][j];
@@ -2204,6 +2051,35 @@ public class NeighborSetFinder implements Serializable {
         distVariance = distVariance / (dset.size() - 1);
     }
 
+    /**
+     * This method calculates the distance mean and variance by streaming over
+     * the rows of the distance matrix backend, so that only one row at a time
+     * needs to be copied to the heap.
+     */
+    private void calculateBackendMeanAndVariance() {
+        int size = distMatrixBackend.size();
+        float[] rowBuffer = new float[Math.max(size - 1, 0)];
+        distMean = 0;
+        for (int i = 0; i < size; i++) {
+            int rowLength = distMatrixBackend.getRowLength(i);
+            distMatrixBackend.getRow(i, rowBuffer);
+            for (int j = 0; j < rowLength; j++) {
+                distMean += rowBuffer[j];
+            }
+        }
+        distMean = distMean / (size - 1);
+        distVariance = 0;
+        for (int i = 0; i < size; i++) {
+            int rowLength = distMatrixBackend.getRowLength(i);
+            distMatrixBackend.getRow(i, rowBuffer);
+            for (int j = 0; j < rowLength; j++) {
+                distVariance += (distMean - rowBuffer[j])
+                        * (distMean - rowBuffer[j]);
+            }
+        }
+        distVariance = distVariance / (size - 1);
+    }
+
     /**
      * This method calculates the distance matrix if it wasn't provided.
      *
@@ -2217,10 +2093,10 @@ public class NeighborSetFinder implements Serializable {
         distMean = 0;
         for (int i = 0; i < dset.size(); i++) {
             distMatrix[i] = new float[distMatrix.length - i - 1];
-            for (int j = i + 1; j < distMatrix.length; j++) {
-                distMatrix[i][j - i - 1] = cmet.dist(dset.data.get(i),
-                        dset.data.get(j));
-                distMean += distMatrix[i][j - i - 1];
+            cmet.dist(dset.data.get(i), dset.data, i + 1, distMatrix.length,
+                    distMatrix[i], 0);
+            for (int j = 0; j < distMatrix[i].length; j++) {
+                distMean += distMatrix[i][j];
             }
         }
         distMean = distMean / (dset.size() - 1);
@@ -2294,111 +2170,161 @@ public class NeighborSetFinder implements Serializable {
         @Override
         public void run() {
             try {
-                int l;
+                TopKSelector selector = new TopKSelector(k);
                 for (int i = startRow; i <= endRow; i++) {
-
+                    startSelection(selector, i);
                     for (int j = 0; j < i; j++) {
                         if (isAllowed != null && !isAllowed[j]) {
                             continue;
                         }
-                        if (kCurrLen[i] > 0) {
-                            if (kCurrLen[i] == k) {
-                                if (distMatrix[j][i - j - 1]
-                                        < kDistances[i][kCurrLen[i] - 1]) {
-                                    // Search and insert.
-                                    l = k - 1;
-                                    while ((l >= 1) && distMatrix[j][i - j - 1]
-                                            < kDistances[i][l - 1]) {
-                                        kDistances[i][l] = kDistances[i][l - 1];
-                                        kNeighbors[i][l] = kNeighbors[i][l - 1];
-                                        l--;
-                                    }
-                                    kDistances[i][l] = distMatrix[j][i - j - 1];
-                                    kNeighbors[i][l] = j;
-                                }
-                            } else {
-                                if (distMatrix[j][i - j - 1] < kDistances[i][
-                                        kCurrLen[i] - 1]) {
-                                    //search to see where to insert
-                                    l = kCurrLen[i] - 1;
-                                    kDistances[i][kCurrLen[i]] = kDistances[i][
-                                            kCurrLen[i] - 1];
-                                    kNeighbors[i][kCurrLen[i]] = kNeighbors[i][
-                                            kCurrLen[i] - 1];
-                                    while ((l >= 1) && distMatrix[j][i - j - 1]
-                                            < kDistances[i][l - 1]) {
-                                        kDistances[i][l] = kDistances[i][l - 1];
-                                        kNeighbors[i][l] = kNeighbors[i][l - 1];
-                                        l--;
-                                    }
-                                    kDistances[i][l] = distMatrix[j][i - j - 1];
-                                    kNeighbors[i][l] = j;
-                                    kCurrLen[i]++;
-                                } else {
-                                    kDistances[i][kCurrLen[i]] = distMatrix[j][
-                                            i - j - 1];
-                                    kNeighbors[i][kCurrLen[i]] = j;
-                                    kCurrLen[i]++;
-                                }
+                        selector.offer(j, distMatrix[j][i - j - 1]);
+                    }
+                    if (isAllowed == null) {
+                        selector.offer(distMatrix[i], 0, distMatrix[i].length,
+                                i + 1);
+                    } else {
+                        for (int j = 0; j < distMatrix[i].length; j++) {
+                            if (isAllowed[i + j + 1]) {
+                                selector.offer(i + j + 1, distMatrix[i][j]);
                             }
-                        } else {
-                            kDistances[i][0] = distMatrix[j][i - j - 1];
-                            kNeighbors[i][0] = j;
-                            kCurrLen[i] = 1;
                         }
                     }
+                    kCurrLen[i] = selector.getSorted(kNeighbors[i],
+                            kDistances[i]);
+                }
+            } catch (Exception e) {
+                System.err.println("kNN calculation error.");
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * This method prepares a selector for updating the kNN set of a point by
+     * offering it the current neighbors of the point first, so that they keep
+     * their precedence among the neighbors at equal distances.
+     *
+     * @param selector TopKSelector to prepare.
+     * @param i Integer that is the index of the point.
+     */
+    private void startSelection(TopKSelector selector, int i) {
+        selector.reset();
+        for (int kIndex = 0; kIndex < kCurrLen[i]; kIndex++) {
+            selector.offer(kNeighbors[i][kIndex], kDistances[i][kIndex]);
+        }
+    }
+
+    /**
+     * This method creates the kNN calculation worker that fits the current
+     * distance matrix storage.
+     *
+     * @param startRow Integer that is the index of the start row, inclusive.
+     * @param endRow Integer that is the index of the end row, inclusive.
+     * @param k Integer that is the neighborhood size.
+     * @param isAllowed boolean[] determining whether certain points are to be
+     * considered as neighbors or not in the given context. It can be null.
+     * @return Runnable that calculates the kNN sets for the specified rows.
+     */
+    private Runnable getNeighborCalculator(int startRow, int endRow, int k,
+            boolean[] isAllowed) {
+        if (distMatrix == null && distMatrixBackend != null) {
+            return new BackendNeighborCalculator(startRow, endRow, k,
+                    isAllowed);
+        } else if (isAllowed != null) {
+            return new ThreadNeighborCalculator(startRow, endRow, k,
+                    isAllowed);
+        } else {
+            return new ThreadNeighborCalculator(startRow, endRow, k);
+        }
+    }
+
+    /**
+     * This class allows for multi-threaded calculations of the kNN sets from
+     * the distance matrix backend. Each thread handles a block of points and
+     * scans the matrix rows in their natural order, reading the block columns
+     * of each row in bulk. The candidate neighbors for each point are thereby
+     * considered in the same order as in the jagged array implementation, so
+     * the results are identical.
+     */
+    class BackendNeighborCalculator implements Runnable {
+
+        private int startRow;
+        private int endRow;
+        private int k;
+        private boolean[] isAllowed;
+
+        /**
+         * Initialization.
+         *
+         * @param startRow Integer that is the index of the start row,
+         * inclusive.
+         * @param endRow Integer that is the index of the end row, inclusive.
+         * @param k Integer that is the neighborhood size.
+         * @param isAllowed boolean[] determining whether certain points are to
+         * be considered as neighbors or not in the given context. It can be
+         * null, in which case all points are allowed.
+         */
+        public BackendNeighborCalculator(int startRow, int endRow, int k,
+                boolean[] isAllowed) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.k = k;
+            this.isAllowed = isAllowed;
+        }
 
-                    for (int j = 0; j < distMatrix[i].length; j++) {
-                        if (isAllowed != null && !isAllowed[i + j + 1]) {
+        @Override
+        public void run() {
+            try {
+                int size = distMatrixBackend.size();
+                float[] rowBuffer = new float[Math.max(size - 1, 0)];
+                int blockLength = endRow - startRow + 1;
+                TopKSelector[] selectors = new TopKSelector[blockLength];
+                for (int i = startRow; i <= endRow; i++) {
+                    selectors[i - startRow] = new TopKSelector(k);
+                    startSelection(selectors[i - startRow], i);
+                }
+                for (int j = 0; j <= endRow; j++) {
+                    if (j < startRow) {
+                        // Row j holds the distances from j to the whole block.
+                        if (isAllowed != null && !isAllowed[j]) {
                             continue;
                         }
-                        if (kCurrLen[i] > 0) {
-                            if (kCurrLen[i] == k) {
-                                if (distMatrix[i][j] < kDistances[i][
-                                        kCurrLen[i] - 1]) {
-                                    // Search and inset.
-                                    l = k - 1;
-                                    while ((l >= 1) && distMatrix[i][j]
-                                            < kDistances[i][l - 1]) {
-                                        kDistances[i][l] = kDistances[i][l - 1];
-                                        kNeighbors[i][l] = kNeighbors[i][l - 1];
-                                        l--;
-                                    }
-                                    kDistances[i][l] = distMatrix[i][j];
-                                    kNeighbors[i][l] = i + j + 1;
-                                }
-                            } else {
-                                if (distMatrix[i][j] < kDistances[i][
-                                        kCurrLen[i] - 1]) {
-                                    // Search and insert.
-                                    l = kCurrLen[i] - 1;
-                                    kDistances[i][kCurrLen[i]] = kDistances[i][
-                                            kCurrLen[i] - 1];
-                                    kNeighbors[i][kCurrLen[i]] = kNeighbors[i][
-                                            kCurrLen[i] - 1];
-                                    while ((l >= 1) && distMatrix[i][j]
-                                            < kDistances[i][l - 1]) {
-                                        kDistances[i][l] = kDistances[i][l - 1];
-                                        kNeighbors[i][l] = kNeighbors[i][l - 1];
-                                        l--;
-                                    }
-                                    kDistances[i][l] = distMatrix[i][j];
-                                    kNeighbors[i][l] = i + j + 1;
-                                    kCurrLen[i]++;
-                                } else {
-                                    kDistances[i][kCurrLen[i]] =
-                                            distMatrix[i][j];
-                                    kNeighbors[i][kCurrLen[i]] = i + j + 1;
-                                    kCurrLen[i]++;
-                                }
+                        distMatrixBackend.getRowRange(j, startRow - j - 1,
+                                blockLength, rowBuffer, 0);
+                        for (int i = startRow; i <= endRow; i++) {
+                            selectors[i - startRow].offer(j,
+                                    rowBuffer[i - startRow]);
+                        }
+                    } else {
+                        // Row j belongs to the block. Its entries are the
+                        // candidates for the block points that follow j and
+                        // all the candidates with greater indexes for j.
+                        int rowLength = distMatrixBackend.getRowLength(j);
+                        distMatrixBackend.getRow(j, rowBuffer);
+                        if (isAllowed == null || isAllowed[j]) {
+                            for (int i = j + 1; i <= endRow; i++) {
+                                selectors[i - startRow].offer(j,
+                                        rowBuffer[i - j - 1]);
                             }
+                        }
+                        TopKSelector selector = selectors[j - startRow];
+                        if (isAllowed == null) {
+                            selector.offer(rowBuffer, 0, rowLength, j + 1);
                         } else {
-                            kDistances[i][0] = distMatrix[i][j];
-                            kNeighbors[i][0] = i + j + 1;
-                            kCurrLen[i] = 1;
+                            for (int offset = 0; offset < rowLength;
+                                    offset++) {
+                                if (isAllowed[j + offset + 1]) {
+                                    selector.offer(j + offset + 1,
+                                            rowBuffer[offset]);
+                                }
+                            }
                         }
                     }
                 }
+                for (int i = startRow; i <= endRow; i++) {
+                    kCurrLen[i] = selectors[i - startRow].getSorted(
+                            kNeighbors[i], kDistances[i]);
+                }
             } catch (Exception e) {
                 System.err.println("kNN calculation error.");
                 System.err.println(e.getMessage());
@@ -2771,7 +2697,7 @@ public class NeighborSetFinder implements Serializable {
         int minIndex, maxIndex;
         int datasize = dset.size();
         currK = k;
-        int l;
+        TopKSelector selector = new TopKSelector(k);
         for (int i = 0; i < datasize; i++) {
             if (kCurrLen[i] < k) {
                 ArrayList<Integer> neighborIntervals = new ArrayList<>(k + 2);
@@ -2782,6 +2708,7 @@ public class NeighborSetFinder implements Serializable {
                 neighborIntervals.add(datasize + 1);
                 // Ascending sort.
                 Collections.sort(neighborIntervals);
+                startSelection(selector, i);
                 int iSizeRed = neighborIntervals.size() - 1;
                 for (int ind = 0; ind < iSizeRed; ind++) {
                     lowerVal = neighborIntervals.get(ind);
@@ -2793,66 +2720,12 @@ public class NeighborSetFinder implements Serializable {
                         if (i != j) {
                             minIndex = Math.min(i, j);
                             maxIndex = Math.max(i, j);
-                            if (kCurrLen[i] > 0) {
-                                if (kCurrLen[i] == k) {
-                                    if (distMatrix[minIndex][maxIndex
-                                            - minIndex - 1] < kDistances[i][
-                                            kCurrLen[i] - 1]) {
-                                        // Search and insert.
-                                        l = k - 1;
-                                        while ((l >= 1) && distMatrix[minIndex][
-                                                maxIndex - minIndex - 1]
-                                                < kDistances[i][l - 1]) {
-                                            kDistances[i][l] =
-                                                    kDistances[i][l - 1];
-                                            kNeighbors[i][l] =
-                                                    kNeighbors[i][l - 1];
-                                            l--;
-                                        }
-                                        kDistances[i][l] = distMatrix[minIndex][
-                                                maxIndex - minIndex - 1];
-                                        kNeighbors[i][l] = j;
-                                    }
-                                } else {
-                                    if (distMatrix[minIndex][maxIndex
-                                            - minIndex - 1] < kDistances[i][
-                                            kCurrLen[i] - 1]) {
-                                        // Search and insert.
-                                        l = kCurrLen[i] - 1;
-                                        kDistances[i][kCurrLen[i]] =
-                                                kDistances[i][kCurrLen[i] - 1];
-                                        kNeighbors[i][kCurrLen[i]] =
-                                                kNeighbors[i][kCurrLen[i] - 1];
-                                        while ((l >= 1) && distMatrix[minIndex][
-                                                maxIndex - minIndex - 1]
-                                                < kDistances[i][l - 1]) {
-                                            kDistances[i][l] =
-                                                    kDistances[i][l - 1];
-                                            kNeighbors[i][l] =
-                                                    kNeighbors[i][l - 1];
-                                            l--;
-                                        }
-                                        kDistances[i][l] = distMatrix[minIndex][
-                                                maxIndex - minIndex - 1];
-                                        kNeighbors[i][l] = j;
-                                        kCurrLen[i]++;
-                                    } else {
-                                        kDistances[i][kCurrLen[i]] = distMatrix[
-                                                minIndex][maxIndex
-                                                - minIndex - 1];
-                                        kNeighbors[i][kCurrLen[i]] = j;
-                                        kCurrLen[i]++;
-                                    }
-                                }
-                            } else {
-                                kDistances[i][0] = distMatrix[minIndex][
-                                        maxIndex - minIndex - 1];
-                                kNeighbors[i][0] = j;
-                                kCurrLen[i] = 1;
-                            }
+                            selector.offer(j, distMatrix[minIndex][maxIndex
+                                    - minIndex - 1]);
                         }
                     }
                 }
+                kCurrLen[i] = selector.getSorted(kNeighbors[i], kDistances[i]);
             }
         }
         reverseNeighbors = new ArrayList[datasize];
@@ -2948,7 +2821,8 @@ public class NeighborSetFinder implements Serializable {
      */
     public void calculateNeighborSetsMultiThr(int k, int numThreads,
             boolean[] isAllowed) {
-        if (dset == null || dset.isEmpty() || distMatrix == null) {
+        if (dset == null || dset.isEmpty() || (distMatrix == null
+                && distMatrixBackend == null)) {
             return;
         }
         currK = k;
@@ -2964,12 +2838,12 @@ public class NeighborSetFinder implements Serializable {
         int chunkSize = size / numThreads;
         Thread[] threads = new Thread[numThreads];
         for (int tIndex = 0; tIndex < numThreads - 1; tIndex++) {
-            threads[tIndex] = new Thread(new ThreadNeighborCalculator(
+            threads[tIndex] = new Thread(getNeighborCalculator(
                     tIndex * chunkSize, (tIndex + 1) * chunkSize - 1, k, 
                     isAllowed));
             threads[tIndex].start();
         }
-        threads[numThreads - 1] = new Thread(new ThreadNeighborCalculator(
+        threads[numThreads - 1] = new Thread(getNeighborCalculator(
                 (numThreads - 1) * chunkSize, size - 1, k, isAllowed));
         threads[numThreads - 1].start();
         for (int tIndex = 0; tIndex < numThreads; tIndex++) {
@@ -3068,7 +2942,8 @@ public class NeighborSetFinder implements Serializable {
      * @param numThreads Integer that is the number of threads to use.
      */
     public void calculateNeighborSetsMultiThr(int k, int numThreads) {
-        if (dset == null || dset.isEmpty() || distMatrix == null) {
+        if (dset == null || dset.isEmpty() || (distMatrix == null
+                && distMatrixBackend == null)) {
             return;
         }
         currK = k;
@@ -3084,12 +2959,13 @@ public class NeighborSetFinder implements Serializable {
         int chunkSize = size / numThreads;
         Thread[] threads = new Thread[numThreads];
         for (int tIndex = 0; tIndex < numThreads - 1; tIndex++) {
-            threads[tIndex] = new Thread(new ThreadNeighborCalculator(
-                    tIndex * chunkSize, (tIndex + 1) * chunkSize - 1, k));
+            threads[tIndex] = new Thread(getNeighborCalculator(
+                    tIndex * chunkSize, (tIndex + 1) * chunkSize - 1, k,
+                    null));
             threads[tIndex].start();
         }
-        threads[numThreads - 1] = new Thread(new ThreadNeighborCalculator(
-                (numThreads - 1) * chunkSize, size - 1, k));
+        threads[numThreads - 1] = new Thread(getNeighborCalculator(
+                (numThreads - 1) * chunkSize, size - 1, k, null));
         threads[numThreads - 1].start();
         for (int tIndex = 0; tIndex < numThreads; tIndex++) {
             if (threads[tIndex] != null) {
@@ -3179,6 +3055,147 @@ public class NeighborSetFinder implements Serializable {
                 Math.sqrt(stDevRelativeGoodMinusBadness);
     }
 
+    /**
+     * This method calculates the k-nearest neighbor sets in a multi-threaded
+     * way without the distance matrix. The points are split into blocks of
+     * KNN_TILE_SIZE and the threads take the blocks one by one. The distances
+     * between a block and each of the other blocks are calculated in cache
+     * sized tiles and passed directly to the kNN selection for the points in
+     * the block, so the memory requirements are O(n * k) instead of O(n^2).
+     * Each pair of points from different blocks has its distance calculated
+     * twice, once for each block, so that no synchronization is needed. The
+     * candidate neighbors are considered in the same order and their
+     * distances are calculated in the same direction as when the distance
+     * matrix is used, so the kNN sets, the reverse neighbor sets and the
+     * occurrence stats are identical to those of calculateNeighborSetsMultiThr.
+     * The distance mean and variance are not calculated.
+     *
+     * @param k Integer that is the neighborhood size.
+     * @param numThreads Integer that is the number of threads to use.
+     * @throws Exception
+     */
+    public void calculateNeighborSetsTiled(int k, int numThreads)
+            throws Exception {
+        if (dset == null || dset.isEmpty()) {
+            return;
+        }
+        currK = k;
+        int size = dset.size();
+        kNeighbors = new int[size][k];
+        kDistances = new float[size][k];
+        kCurrLen = new int[size];
+        int numBlocks = (size + KNN_TILE_SIZE - 1) / KNN_TILE_SIZE;
+        AtomicInteger nextBlock = new AtomicInteger(0);
+        int numWorkers = Math.max(1, Math.min(numThreads, numBlocks));
+        TiledNeighborCalculator[] workers =
+                new TiledNeighborCalculator[numWorkers];
+        Thread[] threads = new Thread[numWorkers];
+        for (int tIndex = 0; tIndex < numWorkers; tIndex++) {
+            workers[tIndex] = new TiledNeighborCalculator(k, nextBlock);
+            threads[tIndex] = new Thread(workers[tIndex]);
+            threads[tIndex].start();
+        }
+        for (int tIndex = 0; tIndex < numWorkers; tIndex++) {
+            try {
+                threads[tIndex].join();
+            } catch (Throwable t) {
+                System.err.println(t.getMessage());
+            }
+        }
+        for (TiledNeighborCalculator worker : workers) {
+            if (worker.error != null) {
+                throw worker.error;
+            }
+        }
+        calculateHubnessStats(true);
+    }
+
+    /**
+     * This class calculates the kNN sets for the blocks of points that it takes
+     * from the shared counter, by calculating the distances from each block to
+     * all the other blocks tile by tile.
+     */
+    class TiledNeighborCalculator implements Runnable {
+
+        private int k;
+        private AtomicInteger nextBlock;
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param k Integer that is the neighborhood size.
+         * @param nextBlock AtomicInteger that is the index of the next
+         * unprocessed block.
+         */
+        public TiledNeighborCalculator(int k, AtomicInteger nextBlock) {
+            this.k = k;
+            this.nextBlock = nextBlock;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int size = dset.size();
+                float[][] tile = new float[KNN_TILE_SIZE][KNN_TILE_SIZE];
+                TopKSelector[] selectors = new TopKSelector[KNN_TILE_SIZE];
+                for (int p = 0; p < KNN_TILE_SIZE; p++) {
+                    selectors[p] = new TopKSelector(k);
+                }
+                int block;
+                while ((block = nextBlock.getAndIncrement()) * KNN_TILE_SIZE
+                        < size) {
+                    int start = block * KNN_TILE_SIZE;
+                    int end = Math.min(start + KNN_TILE_SIZE, size);
+                    int blockLength = end - start;
+                    for (int p = 0; p < blockLength; p++) {
+                        selectors[p].reset();
+                    }
+                    for (int cStart = 0; cStart < size;
+                            cStart += KNN_TILE_SIZE) {
+                        int cEnd = Math.min(cStart + KNN_TILE_SIZE, size);
+                        if (cEnd <= start) {
+                            // The preceding points are the queries, as in the
+                            // upper triangular distance matrix.
+                            cmet.distTile(dset.data, cStart, cEnd, dset.data,
+                                    start, end, tile);
+                            for (int p = 0; p < blockLength; p++) {
+                                for (int c = 0; c < cEnd - cStart; c++) {
+                                    selectors[p].offer(cStart + c, tile[c][p]);
+                                }
+                            }
+                        } else if (cStart >= end) {
+                            cmet.distTile(dset.data, start, end, dset.data,
+                                    cStart, cEnd, tile);
+                            for (int p = 0; p < blockLength; p++) {
+                                selectors[p].offer(tile[p], 0, cEnd - cStart,
+                                        cStart);
+                            }
+                        } else {
+                            // The block itself, where only the distances from
+                            // the preceding to the following points are used.
+                            cmet.distTile(dset.data, start, end, dset.data,
+                                    start, end, tile);
+                            for (int p = 0; p < blockLength; p++) {
+                                for (int c = 0; c < p; c++) {
+                                    selectors[p].offer(start + c, tile[c][p]);
+                                }
+                                selectors[p].offer(tile[p], p + 1, blockLength,
+                                        start + p + 1);
+                            }
+                        }
+                    }
+                    for (int p = 0; p < blockLength; p++) {
+                        kCurrLen[start + p] = selectors[p].getSorted(
+                                kNeighbors[start + p], kDistances[start + p]);
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
     /**
      * This method calculates the neighbor occurrence frequencies for some
      * neighborhood size that is less than equal to the currently calculated
@@ -3300,7 +3317,13 @@ public class NeighborSetFinder implements Serializable {
      * @param k Integer that is the neighborhood size.
      */
     public void calculateNeighborSets(int k) {
-        if (dset == null || dset.isEmpty() || distMatrix == null) {
+        if (dset == null || dset.isEmpty()) {
+            return;
+        }
+        if (distMatrix == null) {
+            if (distMatrixBackend != null) {
+                calculateNeighborSetsMultiThr(k, 1);
+            }
             return;
         }
         currK = k;
@@ -3313,100 +3336,8 @@ public class NeighborSetFinder implements Serializable {
         for (int i = 0; i < dset.size(); i++) {
             reverseNeighbors[i] = new ArrayList<>(10 * k);
         }
-        int l;
         // Calculate the kNN sets.
-        for (int i = 0; i < dset.size(); i++) {
-            for (int j = 0; j < distMatrix[i].length; j++) {
-                int other = i + j + 1;
-                if (kCurrLen[i] > 0) {
-                    if (kCurrLen[i] == k) {
-                        if (distMatrix[i][j] < kDistances[i][kCurrLen[i] - 1]) {
-                            // Search and insert.
-                            l = k - 1;
-                            while ((l >= 1) && distMatrix[i][j]
-                                    < kDistances[i][l - 1]) {
-                                kDistances[i][l] = kDistances[i][l - 1];
-                                kNeighbors[i][l] = kNeighbors[i][l - 1];
-                                l--;
-                            }
-                            kDistances[i][l] = distMatrix[i][j];
-                            kNeighbors[i][l] = i + j + 1;
-                        }
-                    } else {
-                        if (distMatrix[i][j] < kDistances[i][kCurrLen[i] - 1]) {
-                            // Search and insert.
-                            l = kCurrLen[i] - 1;
-                            kDistances[i][kCurrLen[i]] =
-                                    kDistances[i][kCurrLen[i] - 1];
-                            kNeighbors[i][kCurrLen[i]] =
-                                    kNeighbors[i][kCurrLen[i] - 1];
-                            while ((l >= 1) && distMatrix[i][j]
-                                    < kDistances[i][l - 1]) {
-                                kDistances[i][l] = kDistances[i][l - 1];
-                                kNeighbors[i][l] = kNeighbors[i][l - 1];
-                                l--;
-                            }
-                            kDistances[i][l] = distMatrix[i][j];
-                            kNeighbors[i][l] = i + j + 1;
-                            kCurrLen[i]++;
-                        } else {
-                            kDistances[i][kCurrLen[i]] = distMatrix[i][j];
-                            kNeighbors[i][kCurrLen[i]] = i + j + 1;
-                            kCurrLen[i]++;
-                        }
-                    }
-                } else {
-                    kDistances[i][0] = distMatrix[i][j];
-                    kNeighbors[i][0] = i + j + 1;
-                    kCurrLen[i] = 1;
-                }
-                if (kCurrLen[other] > 0) {
-                    if (kCurrLen[other] == k) {
-                        if (distMatrix[i][j] < kDistances[other][
-                                kCurrLen[other] - 1]) {
-                            // Search and insert.
-                            l = k - 1;
-                            while ((l >= 1) && distMatrix[i][j]
-                                    < kDistances[other][l - 1]) {
-                                kDistances[other][l] = kDistances[other][l - 1];
-                                kNeighbors[other][l] = kNeighbors[other][l - 1];
-                                l--;
-                            }
-                            kDistances[other][l] = distMatrix[i][j];
-                            kNeighbors[other][l] = i;
-                        }
-                    } else {
-                        if (distMatrix[i][j] < kDistances[other][
-                                kCurrLen[other] - 1]) {
-                            // Search and insert.
-                            l = kCurrLen[other] - 1;
-                            kDistances[other][kCurrLen[other]] =
-                                    kDistances[other][kCurrLen[other] - 1];
-                            kNeighbors[other][kCurrLen[other]] =
-                                    kNeighbors[other][kCurrLen[other] - 1];
-                            while ((l >= 1) && distMatrix[i][j]
-                                    < kDistances[other][l - 1]) {
-                                kDistances[other][l] = kDistances[other][l - 1];
-                                kNeighbors[other][l] = kNeighbors[other][l - 1];
-                                l--;
-                            }
-                            kDistances[other][l] = distMatrix[i][j];
-                            kNeighbors[other][l] = i;
-                            kCurrLen[other]++;
-                        } else {
-                            kDistances[other][kCurrLen[other]] =
-                                    distMatrix[i][j];
-                            kNeighbors[other][kCurrLen[other]] = i;
-                            kCurrLen[other]++;
-                        }
-                    }
-                } else {
-                    kDistances[other][0] = distMatrix[i][j];
-                    kNeighbors[other][0] = i;
-                    kCurrLen[other] = 1;
-                }
-            }
-        }
+        new ThreadNeighborCalculator(0, dset.size() - 1, k).run();
         // Count the neighbor occurrence frequencies.
         kNeighborFrequencies = new int[kNeighbors.length];
         kBadFrequencies = new int[kNeighbors.length];
@@ -3514,100 +3445,18 @@ public class NeighborSetFinder implements Serializable {
         for (int i = 0; i < dset.size(); i++) {
             reverseNeighbors[i] = new ArrayList<>(10 * k);
         }
-        int l;
-        float distModified = 0;
+        TopKSelector selector = new TopKSelector(k);
         for (int i = 0; i < dset.size(); i++) {
+            selector.reset();
+            for (int j = 0; j < i; j++) {
+                selector.offer(j, distMatrix[j][i - j - 1]
+                        - distanceCorrections[i]);
+            }
             for (int j = 0; j < distMatrix[i].length; j++) {
-                int other = i + j + 1;
-                distModified = distMatrix[i][j] - distanceCorrections[i];
-                if (kCurrLen[i] > 0) {
-                    if (kCurrLen[i] == k) {
-                        if (distModified < kDistances[i][kCurrLen[i] - 1]) {
-                            // Search and insert.
-                            l = k - 1;
-                            while ((l >= 1) && distModified
-                                    < kDistances[i][l - 1]) {
-                                kDistances[i][l] = kDistances[i][l - 1];
-                                kNeighbors[i][l] = kNeighbors[i][l - 1];
-                                l--;
-                            }
-                            kDistances[i][l] = distModified;
-                            kNeighbors[i][l] = i + j + 1;
-                        }
-                    } else {
-                        if (distModified < kDistances[i][kCurrLen[i] - 1]) {
-                            // Search and insert.
-                            l = kCurrLen[i] - 1;
-                            kDistances[i][kCurrLen[i]] =
-                                    kDistances[i][kCurrLen[i] - 1];
-                            kNeighbors[i][kCurrLen[i]] =
-                                    kNeighbors[i][kCurrLen[i] - 1];
-                            while ((l >= 1) && distModified
-                                    < kDistances[i][l - 1]) {
-                                kDistances[i][l] = kDistances[i][l - 1];
-                                kNeighbors[i][l] = kNeighbors[i][l - 1];
-                                l--;
-                            }
-                            kDistances[i][l] = distModified;
-                            kNeighbors[i][l] = i + j + 1;
-                            kCurrLen[i]++;
-                        } else {
-                            kDistances[i][kCurrLen[i]] = distModified;
-                            kNeighbors[i][kCurrLen[i]] = i + j + 1;
-                            kCurrLen[i]++;
-                        }
-                    }
-                } else {
-                    kDistances[i][0] = distModified;
-                    kNeighbors[i][0] = i + j + 1;
-                    kCurrLen[i] = 1;
-                }
-                distModified = distMatrix[i][j] - distanceCorrections[other];
-                if (kCurrLen[other] > 0) {
-                    if (kCurrLen[other] == k) {
-                        if (distModified < kDistances[other][
-                                kCurrLen[other] - 1]) {
-                            // Search and insert.
-                            l = k - 1;
-                            while ((l >= 1) && distModified
-                                    < kDistances[other][l - 1]) {
-                                kDistances[other][l] = kDistances[other][l - 1];
-                                kNeighbors[other][l] = kNeighbors[other][l - 1];
-                                l--;
-                            }
-                            kDistances[other][l] = distModified;
-                            kNeighbors[other][l] = i;
-                        }
-                    } else {
-                        if (distModified < kDistances[other][
-                                kCurrLen[other] - 1]) {
-                            // Search and insert.
-                            l = kCurrLen[other] - 1;
-                            kDistances[other][kCurrLen[other]] =
-                                    kDistances[other][kCurrLen[other] - 1];
-                            kNeighbors[other][kCurrLen[other]] =
-                                    kNeighbors[other][kCurrLen[other] - 1];
-                            while ((l >= 1) && distModified
-                                    < kDistances[other][l - 1]) {
-                                kDistances[other][l] = kDistances[other][l - 1];
-                                kNeighbors[other][l] = kNeighbors[other][l - 1];
-                                l--;
-                            }
-                            kDistances[other][l] = distModified;
-                            kNeighbors[other][l] = i;
-                            kCurrLen[other]++;
-                        } else {
-                            kDistances[other][kCurrLen[other]] = distModified;
-                            kNeighbors[other][kCurrLen[other]] = i;
-                            kCurrLen[other]++;
-                        }
-                    }
-                } else {
-                    kDistances[other][0] = distModified;
-                    kNeighbors[other][0] = i;
-                    kCurrLen[other] = 1;
-                }
+                selector.offer(i + j + 1, distMatrix[i][j]
+                        - distanceCorrections[i]);
             }
+            kCurrLen[i] = selector.getSorted(kNeighbors[i], kDistances[i]);
         }
         // Count the neighbor occurrence frequencies.
         kNeighborFrequencies = new int[kNeighbors.length];
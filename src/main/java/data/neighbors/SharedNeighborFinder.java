@@ -22,8 +22,10 @@ import data.representation.DataSet;
 import distances.primary.CombinedMetric;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import util.ArrayUtil;
 import util.BasicMathUtil;
 
@@ -57,6 +59,13 @@ public class SharedNeighborFinder implements Serializable {
     private ArrayList<Integer>[][] sharedNeighbors = null;
     // Shared neighbor counts.
     private float[][] sharedNeighborCount = null;
+    // Sparse upper triangular shared neighbor counts, as ascending indexes of
+    // the points with higher indexes and the corresponding counts.
+    private int[][] sparseSharedNeighborIndexes = null;
+    private float[][] sparseSharedNeighborCounts = null;
+    // Reverse neighbor lists in compressed form.
+    private int[] reverseStarts;
+    private int[] reverseNeighbors;
     public static final int DEFAULT_NUM_THREADS = 8;
 
     /**
@@ -860,6 +869,21 @@ public class SharedNeighborFinder implements Serializable {
      * @return The count of shared neighbors between the two.
      */
     public float getCountOfSharedNeighborsFor(int firstIndex, int secondIndex) {
+        if (sharedNeighborCount == null
+                && sparseSharedNeighborIndexes != null) {
+            if (sparseSharedNeighborIndexes.length <= firstIndex
+                    || sparseSharedNeighborIndexes.length <= secondIndex) {
+                return 0;
+            }
+            if (firstIndex == secondIndex) {
+                return nsf.getKNeighbors()[firstIndex].length;
+            }
+            int min = Math.min(firstIndex, secondIndex);
+            int max = Math.max(firstIndex, secondIndex);
+            int pos = Arrays.binarySearch(sparseSharedNeighborIndexes[min],
+                    max);
+            return pos < 0 ? 0 : sparseSharedNeighborCounts[min][pos];
+        }
         if (sharedNeighborCount == null || sharedNeighborCount.length
                 <= firstIndex || sharedNeighborCount.length <= secondIndex) {
             return 0;
@@ -899,6 +923,67 @@ public class SharedNeighborFinder implements Serializable {
         return sharedNeighbors[min][max - min - 1];
     }
 
+    /**
+     * This method builds the reverse neighbor lists from the kNN sets in a
+     * compressed form, where the reverse neighbors of point p are stored in
+     * reverseNeighbors[reverseStarts[p]] to reverseNeighbors[reverseStarts[p +
+     * 1] - 1] in ascending order. Two points share a neighbor p exactly when
+     * they are both found in the reverse neighbor list of p, so the shared
+     * neighbor counts can be obtained by only visiting the pairs that
+     * co-occur in some kNN set.
+     */
+    private void initializeReverseNeighbors() {
+        int size = dset.size();
+        int[][] kneighbors = nsf.getKNeighbors();
+        reverseStarts = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            int kLen = Math.min(k, kneighbors[i].length);
+            for (int kInd = 0; kInd < kLen; kInd++) {
+                reverseStarts[kneighbors[i][kInd] + 1]++;
+            }
+        }
+        for (int p = 0; p < size; p++) {
+            reverseStarts[p + 1] += reverseStarts[p];
+        }
+        reverseNeighbors = new int[reverseStarts[size]];
+        int[] insertPositions = new int[size];
+        System.arraycopy(reverseStarts, 0, insertPositions, 0, size);
+        for (int i = 0; i < size; i++) {
+            int kLen = Math.min(k, kneighbors[i].length);
+            for (int kInd = 0; kInd < kLen; kInd++) {
+                reverseNeighbors[insertPositions[kneighbors[i][kInd]]++] = i;
+            }
+        }
+    }
+
+    /**
+     * This method accumulates the shared neighbor counts between a point and
+     * all the points with higher indexes into a row of the upper triangular
+     * shared neighbor count matrix.
+     *
+     * @param i Integer that is the index of the point.
+     * @param row Float array of length dset.size() - i - 1 to add the counts
+     * to.
+     */
+    private void accumulateSharedNeighborRow(int i, float[] row) {
+        int[] neighbors = nsf.getKNeighbors()[i];
+        int kLen = Math.min(k, neighbors.length);
+        for (int kInd = 0; kInd < kLen; kInd++) {
+            int p = neighbors[kInd];
+            float weight = instanceWeights == null ? 1 : instanceWeights[p];
+            // The reverse neighbor lists are sorted, so the points with
+            // higher indexes are at the end.
+            for (int pos = reverseStarts[p + 1] - 1; pos >= reverseStarts[p];
+                    pos--) {
+                int j = reverseNeighbors[pos];
+                if (j <= i) {
+                    break;
+                }
+                row[j - i - 1] += weight;
+            }
+        }
+    }
+
     /**
      * This method finds all the shared neighbors between pairs of points on the
      * training data and memorizes the lists and counts.
@@ -919,26 +1004,33 @@ public class SharedNeighborFinder implements Serializable {
             }
             nsf.calculateNeighborSets(k);
         }
-        if (!hashInitialized()) {
-            initializeHashes();
-        }
+        initializeReverseNeighbors();
+        int[][] kneighbors = nsf.getKNeighbors();
         sharedNeighbors = new ArrayList[dset.size()][];
         sharedNeighborCount = new float[dset.size()][];
+        sparseSharedNeighborIndexes = null;
+        sparseSharedNeighborCounts = null;
         for (int i = 0; i < dset.size(); i++) {
             sharedNeighbors[i] = new ArrayList[dset.size() - i - 1];
             sharedNeighborCount[i] = new float[dset.size() - i - 1];
-            Set<Integer> keysFirst = neighborHash[i].keySet();
             for (int j = i + 1; j < dset.size(); j++) {
                 sharedNeighbors[i][j - i - 1] = new ArrayList<>(k);
-                for (int index : keysFirst) {
-                    if (neighborHash[j].containsKey(index)) {
-                        sharedNeighbors[i][j - i - 1].add(index);
-                        if (instanceWeights == null) {
-                            sharedNeighborCount[i][j - i - 1]++;
-                        } else {
-                            sharedNeighborCount[i][j - i - 1] +=
-                                    instanceWeights[index];
-                        }
+            }
+            int kLen = Math.min(k, kneighbors[i].length);
+            for (int kInd = 0; kInd < kLen; kInd++) {
+                int p = kneighbors[i][kInd];
+                for (int pos = reverseStarts[p + 1] - 1;
+                        pos >= reverseStarts[p]; pos--) {
+                    int j = reverseNeighbors[pos];
+                    if (j <= i) {
+                        break;
+                    }
+                    sharedNeighbors[i][j - i - 1].add(p);
+                    if (instanceWeights == null) {
+                        sharedNeighborCount[i][j - i - 1]++;
+                    } else {
+                        sharedNeighborCount[i][j - i - 1] +=
+                                instanceWeights[p];
                     }
                 }
             }
@@ -947,47 +1039,109 @@ public class SharedNeighborFinder implements Serializable {
 
     /**
      * This class is a worker class for multi-threaded shared-neighbor count
-     * calculations.
+     * calculations. The rows are taken in small blocks from a shared counter,
+     * as the rows with lower indexes are longer.
      */
     class SharedNeighborCounterThread implements Runnable {
 
+        // The number of rows that a thread takes at once.
+        private static final int ROW_BLOCK_SIZE = 16;
         float[][] sharedNeighborCount;
-        int startIndex;
-        int limitIndex;
+        AtomicInteger nextBlock;
+        boolean sparse;
+        Exception error;
 
-        public SharedNeighborCounterThread(
-                float[][] sharedNeighborCount, int startIndex, int limitIndex) {
+        /**
+         * @param sharedNeighborCount Float 2D array for the upper triangular
+         * shared neighbor counts, or null for the sparse output.
+         * @param nextBlock AtomicInteger that is the index of the next
+         * unprocessed block of rows.
+         * @param sparse Boolean flag indicating whether to produce the sparse
+         * rows.
+         */
+        public SharedNeighborCounterThread(float[][] sharedNeighborCount,
+                AtomicInteger nextBlock, boolean sparse) {
             this.sharedNeighborCount = sharedNeighborCount;
-            this.startIndex = startIndex;
-            this.limitIndex = limitIndex;
+            this.nextBlock = nextBlock;
+            this.sparse = sparse;
         }
 
         @Override
         public void run() {
             try {
-                for (int i = startIndex; i < limitIndex; i++) {
-                    sharedNeighborCount[i] = new float[dset.size() - i - 1];
-                    Set<Integer> keysFirst = neighborHash[i].keySet();
-                    for (int j = i + 1; j < dset.size(); j++) {
-                        for (int index : keysFirst) {
-                            if (neighborHash[j].containsKey(index)) {
-                                if (instanceWeights == null) {
-                                    sharedNeighborCount[i][j - i - 1]++;
-                                } else {
-                                    sharedNeighborCount[i][j - i - 1] +=
-                                            instanceWeights[index];
-                                }
-                            }
+                int size = dset.size();
+                float[] accumulator = null;
+                int[] touched = null;
+                int[] marks = null;
+                if (sparse) {
+                    accumulator = new float[size];
+                    touched = new int[size];
+                    marks = new int[size];
+                }
+                int block;
+                while ((block = nextBlock.getAndIncrement()) * ROW_BLOCK_SIZE
+                        < size) {
+                    int limitIndex = Math.min(size,
+                            (block + 1) * ROW_BLOCK_SIZE);
+                    for (int i = block * ROW_BLOCK_SIZE; i < limitIndex; i++) {
+                        if (sparse) {
+                            countSparseRow(i, accumulator, touched, marks);
+                        } else {
+                            sharedNeighborCount[i] = new float[size - i - 1];
+                            accumulateSharedNeighborRow(i,
+                                    sharedNeighborCount[i]);
                         }
                     }
                 }
             } catch (Exception e) {
-                System.err.println("SNN multithread error.");
-                System.err.println(e.getMessage());
-                System.err.println("Limit indexes: " + startIndex + " "
-                        + limitIndex);
+                error = e;
             }
         }
+
+        /**
+         * This method counts the shared neighbors between a point and the
+         * points with higher indexes and stores them as a sparse row.
+         *
+         * @param i Integer that is the index of the point.
+         * @param accumulator Float array of per-point accumulators, all zero.
+         * @param touched Integer array to record the visited points in.
+         * @param marks Integer array where the visited points are marked by
+         * the index of the current row, plus one.
+         */
+        private void countSparseRow(int i, float[] accumulator,
+                int[] touched, int[] marks) {
+            int[] neighbors = nsf.getKNeighbors()[i];
+            int kLen = Math.min(k, neighbors.length);
+            int numTouched = 0;
+            for (int kInd = 0; kInd < kLen; kInd++) {
+                int p = neighbors[kInd];
+                float weight = instanceWeights == null ? 1
+                        : instanceWeights[p];
+                for (int pos = reverseStarts[p + 1] - 1;
+                        pos >= reverseStarts[p]; pos--) {
+                    int j = reverseNeighbors[pos];
+                    if (j <= i) {
+                        break;
+                    }
+                    if (marks[j] != i + 1) {
+                        marks[j] = i + 1;
+                        touched[numTouched++] = j;
+                    }
+                    accumulator[j] += weight;
+                }
+            }
+            Arrays.sort(touched, 0, numTouched);
+            int[] rowIndexes = new int[numTouched];
+            float[] rowCounts = new float[numTouched];
+            for (int tInd = 0; tInd < numTouched; tInd++) {
+                int j = touched[tInd];
+                rowIndexes[tInd] = j;
+                rowCounts[tInd] = accumulator[j];
+                accumulator[j] = 0;
+            }
+            sparseSharedNeighborIndexes[i] = rowIndexes;
+            sparseSharedNeighborCounts[i] = rowCounts;
+        }
     }
 
     /**
@@ -1007,9 +1161,66 @@ public class SharedNeighborFinder implements Serializable {
      */
     public void countSharedNeighborsMultiThread(int numThreads)
             throws Exception {
-        if (nsf == null && dset == null) {
+        if (!prepareNeighborSets(numThreads)) {
+            return;
+        }
+        sharedNeighborCount = new float[dset.size()][];
+        sparseSharedNeighborIndexes = null;
+        sparseSharedNeighborCounts = null;
+        runCounterThreads(numThreads, false);
+    }
+
+    /**
+     * This method counts the shared neighbors in a multi-threaded way and
+     * stores only the non-zero counts, in sparse rows. For each point i, the
+     * row holds the indexes j > i of the points that share at least one
+     * neighbor with i, in ascending order, along with the counts. This avoids
+     * the quadratic memory of the full count matrix for large datasets. The
+     * counts can be accessed via getCountOfSharedNeighborsFor or via
+     * getSparseSharedNeighborIndexes and getSparseSharedNeighborCounts.
+     *
+     * @param numThreads Integer that is the number of threads to use.
+     * @throws Exception
+     */
+    public void countSharedNeighborsSparse(int numThreads) throws Exception {
+        if (!prepareNeighborSets(numThreads)) {
             return;
         }
+        sharedNeighborCount = null;
+        sparseSharedNeighborIndexes = new int[dset.size()][];
+        sparseSharedNeighborCounts = new float[dset.size()][];
+        runCounterThreads(numThreads, true);
+    }
+
+    /**
+     * @return Integer 2D array where each row holds the ascending indexes of
+     * the points with higher indexes that share neighbors with the point, if
+     * the counts were calculated by countSharedNeighborsSparse.
+     */
+    public int[][] getSparseSharedNeighborIndexes() {
+        return sparseSharedNeighborIndexes;
+    }
+
+    /**
+     * @return Float 2D array where each row holds the shared neighbor counts
+     * that correspond to the indexes in getSparseSharedNeighborIndexes.
+     */
+    public float[][] getSparseSharedNeighborCounts() {
+        return sparseSharedNeighborCounts;
+    }
+
+    /**
+     * This method makes sure that the kNN sets and the reverse neighbor lists
+     * are available for the shared neighbor calculations.
+     *
+     * @param numThreads Integer that is the number of threads to use.
+     * @return True if the data is available, false otherwise.
+     * @throws Exception
+     */
+    private boolean prepareNeighborSets(int numThreads) throws Exception {
+        if (nsf == null && dset == null) {
+            return false;
+        }
         if (nsf == null) {
             nsf = new NeighborSetFinder(dset, cmet);
         }
@@ -1027,26 +1238,31 @@ public class SharedNeighborFinder implements Serializable {
             }
             nsf.calculateNeighborSets(k);
         }
-        if (!hashInitialized()) {
-            initializeHashes();
-        }
-        sharedNeighborCount = new float[dset.size()][];
-        int[][] kneighbors = nsf.getKNeighbors();
-        int size = kneighbors.length;
-        int segLength = size / numThreads;
+        initializeReverseNeighbors();
+        return true;
+    }
+
+    /**
+     * This method runs the shared neighbor counting threads.
+     *
+     * @param numThreads Integer that is the number of threads to use.
+     * @param sparse Boolean flag indicating whether to produce the sparse
+     * rows.
+     * @throws Exception
+     */
+    private void runCounterThreads(int numThreads, boolean sparse)
+            throws Exception {
+        numThreads = Math.max(1, numThreads);
+        AtomicInteger nextBlock = new AtomicInteger(0);
+        SharedNeighborCounterThread[] counters =
+                new SharedNeighborCounterThread[numThreads];
         Thread[] countThreads = new Thread[numThreads];
-        for (int i = 0; i < numThreads - 1; i++) {
-            countThreads[i] = new Thread(
-                    new SharedNeighborCounterThread(
-                    sharedNeighborCount,
-                    i * segLength,
-                    (i + 1) * segLength));
+        for (int i = 0; i < numThreads; i++) {
+            counters[i] = new SharedNeighborCounterThread(
+                    sharedNeighborCount, nextBlock, sparse);
+            countThreads[i] = new Thread(counters[i]);
             countThreads[i].start();
         }
-        countThreads[numThreads - 1] =
-                new Thread(new SharedNeighborCounterThread(
-                sharedNeighborCount, (numThreads - 1) * segLength, size));
-        countThreads[numThreads - 1].start();
         for (int i = 0; i < numThreads; i++) {
             if (countThreads[i] != null) {
                 try {
@@ -1055,6 +1271,12 @@ public class SharedNeighborFinder implements Serializable {
                 }
             }
         }
+        for (int i = 0; i < numThreads; i++) {
+            if (counters[i].error != null) {
+                System.err.println("SNN multithread error.");
+                throw counters[i].error;
+            }
+        }
     }
 
     /**
@@ -1077,25 +1299,13 @@ public class SharedNeighborFinder implements Serializable {
             }
             nsf.calculateNeighborSets(k);
         }
-        if (!hashInitialized()) {
-            initializeHashes();
-        }
+        initializeReverseNeighbors();
         sharedNeighborCount = new float[dset.size()][];
+        sparseSharedNeighborIndexes = null;
+        sparseSharedNeighborCounts = null;
         for (int i = 0; i < dset.size(); i++) {
             sharedNeighborCount[i] = new float[dset.size() - i - 1];
-            Set<Integer> keysFirst = neighborHash[i].keySet();
-            for (int j = i + 1; j < dset.size(); j++) {
-                for (int index : keysFirst) {
-                    if (neighborHash[j].containsKey(index)) {
-                        if (instanceWeights == null) {
-                            sharedNeighborCount[i][j - i - 1]++;
-                        } else {
-                            sharedNeighborCount[i][j - i - 1] +=
-                                    instanceWeights[index];
-                        }
-                    }
-                }
-            }
+            accumulateSharedNeighborRow(i, sharedNeighborCount[i]);
         }
     }
-}
\ No newline at end of file
+}
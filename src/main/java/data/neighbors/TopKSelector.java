@@ -0,0 +1,267 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors;
+
+/**
+ * This class selects the k smallest distances among the offered candidates. It
+ * keeps a bounded max-heap in primitive arrays, so each candidate costs a
+ * single comparison with the current k-th distance when it is rejected and
+ * O(log(k)) operations when it is accepted, instead of O(k) shifts in a sorted
+ * insertion. The results are the same as those of the sorted insertion that
+ * was previously used in the kNN calculations: a candidate that is at the same
+ * distance as the current k-th neighbor is rejected and the ties are ordered
+ * by the order in which the candidates were offered. The selector can be reset
+ * and reused for many queries without allocating new memory.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class TopKSelector {
+
+    // The maximal number of selected candidates.
+    private int k;
+    // The current number of selected candidates.
+    private int size = 0;
+    // The number of candidates that were offered since the last reset, used
+    // for ordering the ties.
+    private int numOffered = 0;
+    // The heap arrays, with the furthest selected candidate at the root.
+    private float[] heapDists;
+    private int[] heapIndexes;
+    private int[] heapOrder;
+    // Work arrays for sorting the selection.
+    private float[] sortDists;
+    private int[] sortIndexes;
+    private int[] sortOrder;
+
+    /**
+     * Initialization.
+     *
+     * @param k Integer that is the number of candidates to select.
+     */
+    public TopKSelector(int k) {
+        this.k = Math.max(k, 0);
+        heapDists = new float[this.k];
+        heapIndexes = new int[this.k];
+        heapOrder = new int[this.k];
+        sortDists = new float[this.k];
+        sortIndexes = new int[this.k];
+        sortOrder = new int[this.k];
+    }
+
+    /**
+     * @return Integer that is the number of candidates to select.
+     */
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * @return Integer that is the current number of selected candidates.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return True if k candidates have already been selected, false
+     * otherwise.
+     */
+    public boolean isFull() {
+        return size == k;
+    }
+
+    /**
+     * Clears the selection, so that the selector can be used for a new query.
+     */
+    public void reset() {
+        size = 0;
+        numOffered = 0;
+    }
+
+    /**
+     * @return Float that is the distance that a candidate needs to be below in
+     * order to be selected, Float.MAX_VALUE while there are less than k
+     * selected candidates.
+     */
+    public float getThreshold() {
+        return size == k && k > 0 ? heapDists[0] : Float.MAX_VALUE;
+    }
+
+    /**
+     * Offers a candidate to the selection.
+     *
+     * @param index Integer that is the index of the candidate.
+     * @param dist Float that is the distance to the candidate.
+     * @return True if the candidate was selected, false otherwise.
+     */
+    public boolean offer(int index, float dist) {
+        int order = numOffered++;
+        if (size < k) {
+            siftUp(size++, index, dist, order);
+            return true;
+        } else if (k > 0 && dist < heapDists[0]) {
+            siftDown(index, dist, order);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Offers a contiguous block of distances to the selection. The candidate
+     * indexes are consecutive, starting from the provided first index.
+     *
+     * @param distances float[] that contains the distances.
+     * @param from Integer that is the first position in the distance array to
+     * offer, inclusive.
+     * @param to Integer that is the last position in the distance array to
+     * offer, exclusive.
+     * @param firstIndex Integer that is the candidate index that corresponds to
+     * the first offered position.
+     */
+    public void offer(float[] distances, int from, int to, int firstIndex) {
+        int pos = from;
+        int indexShift = firstIndex - from;
+        int orderShift = numOffered - from;
+        while (pos < to && size < k) {
+            siftUp(size++, pos + indexShift, distances[pos], pos + orderShift);
+            pos++;
+        }
+        if (size > 0 && size == k) {
+            // Most candidates are rejected by a single comparison.
+            float threshold = heapDists[0];
+            for (; pos < to; pos++) {
+                float dist = distances[pos];
+                if (dist < threshold) {
+                    siftDown(pos + indexShift, dist, pos + orderShift);
+                    threshold = heapDists[0];
+                }
+            }
+        }
+        numOffered += Math.max(to - from, 0);
+    }
+
+    /**
+     * Writes the selected candidates to the output arrays, sorted by their
+     * distances in ascending order. The selection is not modified.
+     *
+     * @param neighbors int[] to write the candidate indexes to.
+     * @param distances float[] to write the candidate distances to. It can be
+     * null if the distances are not needed.
+     * @return Integer that is the number of written candidates.
+     */
+    public int getSorted(int[] neighbors, float[] distances) {
+        // The entries are sorted by an in-place heap sort on the copies, so
+        // that the heap itself remains intact.
+        System.arraycopy(heapDists, 0, sortDists, 0, size);
+        System.arraycopy(heapIndexes, 0, sortIndexes, 0, size);
+        System.arraycopy(heapOrder, 0, sortOrder, 0, size);
+        for (int last = size - 1; last >= 0; last--) {
+            neighbors[last] = sortIndexes[0];
+            if (distances != null) {
+                distances[last] = sortDists[0];
+            }
+            siftDown(sortDists, sortIndexes, sortOrder, last, sortIndexes[last],
+                    sortDists[last], sortOrder[last]);
+        }
+        return size;
+    }
+
+    /**
+     * @param distA Float that is the first distance.
+     * @param orderA Integer that is the offer order of the first candidate.
+     * @param distB Float that is the second distance.
+     * @param orderB Integer that is the offer order of the second candidate.
+     * @return True if the first candidate is further than the second one.
+     */
+    private static boolean isFurther(float distA, int orderA, float distB,
+            int orderB) {
+        return distA > distB || (distA == distB && orderA > orderB);
+    }
+
+    /**
+     * Places a new candidate at the given heap position and moves it up.
+     *
+     * @param pos Integer that is the new heap position.
+     * @param index Integer that is the candidate index.
+     * @param dist Float that is the candidate distance.
+     * @param order Integer that is the offer order of the candidate.
+     */
+    private void siftUp(int pos, int index, float dist, int order) {
+        while (pos > 0) {
+            int parent = (pos - 1) >> 1;
+            if (!isFurther(dist, order, heapDists[parent],
+                    heapOrder[parent])) {
+                break;
+            }
+            heapDists[pos] = heapDists[parent];
+            heapIndexes[pos] = heapIndexes[parent];
+            heapOrder[pos] = heapOrder[parent];
+            pos = parent;
+        }
+        heapDists[pos] = dist;
+        heapIndexes[pos] = index;
+        heapOrder[pos] = order;
+    }
+
+    /**
+     * Replaces the root of the heap with a new candidate and moves it down.
+     *
+     * @param index Integer that is the candidate index.
+     * @param dist Float that is the candidate distance.
+     * @param order Integer that is the offer order of the candidate.
+     */
+    private void siftDown(int index, float dist, int order) {
+        siftDown(heapDists, heapIndexes, heapOrder, size, index, dist, order);
+    }
+
+    /**
+     * Replaces the root of a heap with a new entry and moves it down.
+     *
+     * @param dists float[] that contains the heap distances.
+     * @param indexes int[] that contains the heap indexes.
+     * @param orders int[] that contains the heap offer orders.
+     * @param heapSize Integer that is the heap size.
+     * @param index Integer that is the entry index.
+     * @param dist Float that is the entry distance.
+     * @param order Integer that is the offer order of the entry.
+     */
+    private static void siftDown(float[] dists, int[] indexes, int[] orders,
+            int heapSize, int index, float dist, int order) {
+        int pos = 0;
+        int half = heapSize >> 1;
+        while (pos < half) {
+            int child = 2 * pos + 1;
+            int right = child + 1;
+            if (right < heapSize && isFurther(dists[right], orders[right],
+                    dists[child], orders[child])) {
+                child = right;
+            }
+            if (!isFurther(dists[child], orders[child], dist, order)) {
+                break;
+            }
+            dists[pos] = dists[child];
+            indexes[pos] = indexes[child];
+            orders[pos] = orders[child];
+            pos = child;
+        }
+        if (heapSize > 0) {
+            dists[pos] = dist;
+            indexes[pos] = index;
+            orders[pos] = order;
+        }
+    }
+}
@@ -0,0 +1,891 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors.approximate;
+
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class implements the hierarchical navigable small world graphs (HNSW)
+ * for approximate kNN search. The points are inserted into a hierarchy of
+ * proximity graphs, where each point is present in all the layers up to its
+ * randomly drawn maximal layer, with exponentially decaying layer occupancy.
+ * The queries are answered by a greedy descent through the upper layers and a
+ * best-first search in the bottom layer, where the size of the dynamic
+ * candidate list (ef) controls the trade-off between the recall and the query
+ * time, while M and efConstruction control the quality of the graph. The
+ * points are inserted in parallel, with the neighbor lists guarded by per-point
+ * locks. The index can be used for queries with external points and for
+ * calculating the approximate kNN graph of the indexed data, which can then be
+ * used for constructing a NeighborSetFinder object. If the graph search
+ * reaches fewer than k points, which can happen when the pruned graph is
+ * disconnected, the kNN set is completed by a scan over the points that were
+ * not visited. The details are given in
+ * the following paper: Yu. A. Malkov and D. A. Yashunin. 2018. Efficient and
+ * robust approximate nearest neighbor search using Hierarchical Navigable Small
+ * World graphs. IEEE Transactions on Pattern Analysis and Machine Intelligence.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class AppKNNGraphHNSW implements ApproximateNeighborFinder {
+
+    public static final int DEFAULT_NUM_THREADS = 8;
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 100;
+    public static final int DEFAULT_EF = 50;
+    // Upper limit on the number of layers.
+    private static final int MAX_LEVEL = 30;
+    // Tasks of the parallel calculations.
+    private static final int BUILD = 0;
+    private static final int QUERY = 1;
+    private DataSet dset;
+    private CombinedMetric cmet;
+    // Neighborhood size for the kNN graph.
+    private int k = 5;
+    // The maximal number of neighbors per point in the upper layers. The
+    // bottom layer allows twice as many.
+    private int m = DEFAULT_M;
+    private int efConstruction = DEFAULT_EF_CONSTRUCTION;
+    private int ef = DEFAULT_EF;
+    private int numThreads = DEFAULT_NUM_THREADS;
+    private long seed = 1L;
+    // The top layer of each point.
+    private int[] levels;
+    // Neighbor lists per point and layer, where the first element of each list
+    // is the number of neighbors.
+    private int[][][] links;
+    private final Object entryLock = new Object();
+    private volatile int entryPoint = -1;
+    private volatile int maxLevel = -1;
+    // The approximate kNN graph.
+    private int[][] kneighbors;
+    private float[][] kdistances;
+
+    /**
+     * @return String containing the paper reference describing the algorithm.
+     */
+    public static String citing() {
+        return "Yu. A. Malkov and D. A. Yashunin. 2018. Efficient and robust "
+                + "approximate nearest neighbor search using Hierarchical "
+                + "Navigable Small World graphs. IEEE Transactions on Pattern "
+                + "Analysis and Machine Intelligence.";
+    }
+
+    /**
+     * @param dset Data set.
+     * @param cmet Metrics object.
+     * @param k Neighborhood size for the kNN graph.
+     */
+    public AppKNNGraphHNSW(DataSet dset, CombinedMetric cmet, int k) {
+        this.dset = dset;
+        this.cmet = cmet;
+        this.k = k;
+    }
+
+    /**
+     * @param dset Data set.
+     * @param cmet Metrics object.
+     * @param k Neighborhood size for the kNN graph.
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public AppKNNGraphHNSW(DataSet dset, CombinedMetric cmet, int k,
+            int numThreads) {
+        this(dset, cmet, k);
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param m Integer that is the maximal number of neighbors per point in
+     * the upper layers. It must be set before the index is built.
+     */
+    public void setM(int m) {
+        this.m = Math.max(2, m);
+    }
+
+    /**
+     * @param efConstruction Integer that is the size of the dynamic candidate
+     * list during the insertions. It must be set before the index is built.
+     */
+    public void setEfConstruction(int efConstruction) {
+        this.efConstruction = Math.max(1, efConstruction);
+    }
+
+    /**
+     * @param ef Integer that is the size of the dynamic candidate list during
+     * the queries. Higher values lead to better recall and slower queries.
+     */
+    public void setEf(int ef) {
+        this.ef = Math.max(1, ef);
+    }
+
+    /**
+     * @return Integer that is the size of the dynamic candidate list during
+     * the queries.
+     */
+    public int getEf() {
+        return ef;
+    }
+
+    /**
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param seed Long that is the seed for the layer assignments.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return True if the index has been built, false otherwise.
+     */
+    public boolean isBuilt() {
+        return entryPoint >= 0;
+    }
+
+    /**
+     * This method builds the index by inserting all the points from the data.
+     *
+     * @throws Exception
+     */
+    public void buildIndex() throws Exception {
+        int size = dset.size();
+        levels = new int[size];
+        links = new int[size][][];
+        entryPoint = -1;
+        maxLevel = -1;
+        if (size == 0) {
+            return;
+        }
+        Random randa = new Random(seed);
+        double levelMult = 1 / Math.log(m);
+        for (int i = 0; i < size; i++) {
+            levels[i] = Math.min(MAX_LEVEL, (int) (-Math.log(
+                    1 - randa.nextDouble()) * levelMult));
+        }
+        SearchWorkspace ws = new SearchWorkspace(size);
+        insert(0, ws);
+        runInParallel(1, size - 1, BUILD, null, 0, null, null);
+    }
+
+    /**
+     * This class holds the per-thread buffers for the graph searches.
+     */
+    private class SearchWorkspace {
+
+        int[] stamps;
+        int currentStamp = 0;
+        DistanceHeap candidates = new DistanceHeap(false);
+        DistanceHeap results = new DistanceHeap(true);
+        int[] neighborBuffer = new int[2 * m + 1];
+        // Search results, sorted by distance.
+        int[] resultIds = new int[16];
+        float[] resultDists = new float[16];
+        int numResults = 0;
+
+        /**
+         * @param size Integer that is the number of indexed points.
+         */
+        SearchWorkspace(int size) {
+            stamps = new int[size];
+        }
+
+        /**
+         * This method starts a new search.
+         */
+        void reset() {
+            currentStamp++;
+            if (currentStamp == Integer.MAX_VALUE) {
+                Arrays.fill(stamps, 0);
+                currentStamp = 1;
+            }
+            candidates.clear();
+            results.clear();
+        }
+
+        /**
+         * @param index Integer that is the point index.
+         * @return True if the point was not visited before in this search,
+         * in which case it is marked as visited.
+         */
+        boolean visit(int index) {
+            if (stamps[index] == currentStamp) {
+                return false;
+            }
+            stamps[index] = currentStamp;
+            return true;
+        }
+    }
+
+    /**
+     * This class implements a binary heap of point indexes, keyed by the
+     * distances.
+     */
+    private static class DistanceHeap {
+
+        private boolean maxHeap;
+        private int[] ids = new int[16];
+        private float[] dists = new float[16];
+        private int size = 0;
+
+        /**
+         * @param maxHeap Boolean flag indicating whether the largest distance
+         * is at the top.
+         */
+        DistanceHeap(boolean maxHeap) {
+            this.maxHeap = maxHeap;
+        }
+
+        /**
+         * @param first Float value that is the first distance.
+         * @param second Float value that is the second distance.
+         * @return True if the first distance should be closer to the top.
+         */
+        private boolean above(float first, float second) {
+            return maxHeap ? first > second : first < second;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        int peekId() {
+            return ids[0];
+        }
+
+        float peekDist() {
+            return dists[0];
+        }
+
+        /**
+         * @param id Integer that is the point index.
+         * @param dist Float value that is the distance.
+         */
+        void push(int id, float dist) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, 2 * size);
+                dists = Arrays.copyOf(dists, 2 * size);
+            }
+            int pos = size++;
+            while (pos > 0) {
+                int parent = (pos - 1) >> 1;
+                if (!above(dist, dists[parent])) {
+                    break;
+                }
+                ids[pos] = ids[parent];
+                dists[pos] = dists[parent];
+                pos = parent;
+            }
+            ids[pos] = id;
+            dists[pos] = dist;
+        }
+
+        /**
+         * This method removes the top element.
+         */
+        void pop() {
+            size--;
+            if (size == 0) {
+                return;
+            }
+            int id = ids[size];
+            float dist = dists[size];
+            int pos = 0;
+            while (true) {
+                int child = 2 * pos + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && above(dists[child + 1],
+                        dists[child])) {
+                    child++;
+                }
+                if (!above(dists[child], dist)) {
+                    break;
+                }
+                ids[pos] = ids[child];
+                dists[pos] = dists[child];
+                pos = child;
+            }
+            ids[pos] = id;
+            dists[pos] = dist;
+        }
+    }
+
+    /**
+     * This method copies the neighbor list of a point on a layer into the
+     * workspace buffer.
+     *
+     * @param index Integer that is the point index.
+     * @param level Integer that is the layer.
+     * @param ws SearchWorkspace with the per-thread buffers.
+     * @return Integer that is the number of neighbors.
+     */
+    private int copyNeighbors(int index, int level, SearchWorkspace ws) {
+        int[][] pointLinks = links[index];
+        synchronized (pointLinks) {
+            int[] list = pointLinks[level];
+            int count = list[0];
+            System.arraycopy(list, 1, ws.neighborBuffer, 0, count);
+            return count;
+        }
+    }
+
+    /**
+     * This method greedily moves towards the query point on a layer.
+     *
+     * @param query DataInstance that is the query point.
+     * @param start Integer that is the starting point index.
+     * @param startDist Float value that is the distance to the starting point.
+     * @param level Integer that is the layer.
+     * @param ws SearchWorkspace with the per-thread buffers.
+     * @return Integer that is the closest point found, with its distance
+     * stored in the first element of the result distances in the workspace.
+     * @throws Exception
+     */
+    private int greedySearch(DataInstance query, int start, float startDist,
+            int level, SearchWorkspace ws) throws Exception {
+        int current = start;
+        float currentDist = startDist;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int count = copyNeighbors(current, level, ws);
+            for (int i = 0; i < count; i++) {
+                int candidate = ws.neighborBuffer[i];
+                float dist = cmet.dist(query, dset.data.get(candidate));
+                if (dist < currentDist) {
+                    currentDist = dist;
+                    current = candidate;
+                    changed = true;
+                }
+            }
+        }
+        ws.resultDists[0] = currentDist;
+        return current;
+    }
+
+    /**
+     * This method performs the best-first search on a layer and stores the
+     * results in the workspace, sorted by distance.
+     *
+     * @param query DataInstance that is the query point.
+     * @param start Integer that is the starting point index.
+     * @param startDist Float value that is the distance to the starting point.
+     * @param efSearch Integer that is the size of the dynamic candidate list.
+     * @param level Integer that is the layer.
+     * @param ws SearchWorkspace with the per-thread buffers.
+     * @throws Exception
+     */
+    private void searchLayer(DataInstance query, int start, float startDist,
+            int efSearch, int level, SearchWorkspace ws) throws Exception {
+        ws.reset();
+        ws.visit(start);
+        ws.candidates.push(start, startDist);
+        ws.results.push(start, startDist);
+        while (ws.candidates.size() > 0) {
+            int current = ws.candidates.peekId();
+            float currentDist = ws.candidates.peekDist();
+            if (currentDist > ws.results.peekDist()
+                    && ws.results.size() >= efSearch) {
+                break;
+            }
+            ws.candidates.pop();
+            int count = copyNeighbors(current, level, ws);
+            for (int i = 0; i < count; i++) {
+                int candidate = ws.neighborBuffer[i];
+                if (!ws.visit(candidate)) {
+                    continue;
+                }
+                float dist = cmet.dist(query, dset.data.get(candidate));
+                if (ws.results.size() < efSearch
+                        || dist < ws.results.peekDist()) {
+                    ws.candidates.push(candidate, dist);
+                    ws.results.push(candidate, dist);
+                    if (ws.results.size() > efSearch) {
+                        ws.results.pop();
+                    }
+                }
+            }
+        }
+        int numResults = ws.results.size();
+        if (ws.resultIds.length < numResults) {
+            ws.resultIds = new int[numResults];
+            ws.resultDists = new float[numResults];
+        }
+        for (int i = numResults - 1; i >= 0; i--) {
+            ws.resultIds[i] = ws.results.peekId();
+            ws.resultDists[i] = ws.results.peekDist();
+            ws.results.pop();
+        }
+        ws.numResults = numResults;
+    }
+
+    /**
+     * This method selects the neighbors among the candidates by the heuristic
+     * that keeps a candidate only if it is closer to the base point than to
+     * any of the already selected neighbors, which keeps the graph navigable
+     * across the clusters.
+     *
+     * @param ids int[] of candidate indexes, sorted by the distance.
+     * @param dists float[] of candidate distances to the base point.
+     * @param numCandidates Integer that is the number of candidates.
+     * @param maxNeighbors Integer that is the maximal number of neighbors to
+     * select.
+     * @param selected int[] that will hold the selected neighbors.
+     * @return Integer that is the number of selected neighbors.
+     * @throws Exception
+     */
+    private int selectNeighbors(int[] ids, float[] dists, int numCandidates,
+            int maxNeighbors, int[] selected) throws Exception {
+        int numSelected = 0;
+        for (int i = 0; i < numCandidates && numSelected < maxNeighbors;
+                i++) {
+            DataInstance candidate = dset.data.get(ids[i]);
+            boolean keep = true;
+            for (int j = 0; j < numSelected; j++) {
+                if (cmet.dist(candidate, dset.data.get(selected[j]))
+                        < dists[i]) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[numSelected++] = ids[i];
+            }
+        }
+        return numSelected;
+    }
+
+    /**
+     * @param level Integer that is the layer.
+     * @return Integer that is the maximal number of neighbors on the layer.
+     */
+    private int getMaxNeighbors(int level) {
+        return level == 0 ? 2 * m : m;
+    }
+
+    /**
+     * This method inserts a point into the graph.
+     *
+     * @param index Integer that is the index of the point to insert.
+     * @param ws SearchWorkspace with the per-thread buffers.
+     * @throws Exception
+     */
+    private void insert(int index, SearchWorkspace ws) throws Exception {
+        int level = levels[index];
+        int[][] pointLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            pointLinks[l] = new int[getMaxNeighbors(l) + 1];
+        }
+        links[index] = pointLinks;
+        int currEntry;
+        int topLevel;
+        synchronized (entryLock) {
+            currEntry = entryPoint;
+            topLevel = maxLevel;
+            if (currEntry < 0) {
+                entryPoint = index;
+                maxLevel = level;
+                return;
+            }
+        }
+        DataInstance instance = dset.data.get(index);
+        float currDist = cmet.dist(instance, dset.data.get(currEntry));
+        for (int l = topLevel; l > level; l--) {
+            currEntry = greedySearch(instance, currEntry, currDist, l, ws);
+            currDist = ws.resultDists[0];
+        }
+        int[] selected = new int[2 * m];
+        for (int l = Math.min(level, topLevel); l >= 0; l--) {
+            searchLayer(instance, currEntry, currDist, efConstruction, l, ws);
+            int numSelected = selectNeighbors(ws.resultIds, ws.resultDists,
+                    ws.numResults, m, selected);
+            synchronized (pointLinks) {
+                pointLinks[l][0] = numSelected;
+                System.arraycopy(selected, 0, pointLinks[l], 1, numSelected);
+            }
+            for (int i = 0; i < numSelected; i++) {
+                addLink(selected[i], index, l);
+            }
+            currEntry = ws.resultIds[0];
+            currDist = ws.resultDists[0];
+        }
+        if (level > topLevel) {
+            synchronized (entryLock) {
+                if (level > maxLevel) {
+                    entryPoint = index;
+                    maxLevel = level;
+                }
+            }
+        }
+    }
+
+    /**
+     * This method adds a link from a point to a new neighbor, shrinking the
+     * neighbor list by the selection heuristic if it is full.
+     *
+     * @param index Integer that is the point index.
+     * @param neighbor Integer that is the new neighbor index.
+     * @param level Integer that is the layer.
+     * @throws Exception
+     */
+    private void addLink(int index, int neighbor, int level)
+            throws Exception {
+        int[][] pointLinks = links[index];
+        synchronized (pointLinks) {
+            int[] list = pointLinks[level];
+            int count = list[0];
+            for (int i = 1; i <= count; i++) {
+                if (list[i] == neighbor) {
+                    return;
+                }
+            }
+            if (count < list.length - 1) {
+                list[count + 1] = neighbor;
+                list[0] = count + 1;
+                return;
+            }
+            // The list is full, so the neighbors are re-selected.
+            DataInstance instance = dset.data.get(index);
+            int[] ids = new int[count + 1];
+            float[] dists = new float[count + 1];
+            System.arraycopy(list, 1, ids, 0, count);
+            ids[count] = neighbor;
+            for (int i = 0; i <= count; i++) {
+                dists[i] = cmet.dist(instance, dset.data.get(ids[i]));
+            }
+            sortByDistance(ids, dists);
+            int[] selected = new int[count];
+            int numSelected = selectNeighbors(ids, dists, count + 1, count,
+                    selected);
+            list[0] = numSelected;
+            System.arraycopy(selected, 0, list, 1, numSelected);
+        }
+    }
+
+    /**
+     * This method sorts the point indexes by the corresponding distances.
+     *
+     * @param ids int[] of point indexes.
+     * @param dists float[] of the corresponding distances.
+     */
+    private static void sortByDistance(int[] ids, float[] dists) {
+        for (int i = 1; i < ids.length; i++) {
+            int id = ids[i];
+            float dist = dists[i];
+            int pos = i;
+            while (pos > 0 && dists[pos - 1] > dist) {
+                ids[pos] = ids[pos - 1];
+                dists[pos] = dists[pos - 1];
+                pos--;
+            }
+            ids[pos] = id;
+            dists[pos] = dist;
+        }
+    }
+
+    /**
+     * This method finds the approximate k-nearest neighbors of a query point.
+     *
+     * @param query DataInstance that is the query point.
+     * @param kQuery Integer that is the neighborhood size.
+     * @return int[] that contains the indexes of the approximate k-nearest
+     * neighbors, sorted by the distance to the query point. It is shorter than
+     * kQuery only if there are not enough indexed points.
+     * @throws Exception
+     */
+    public int[] getKNeighbors(DataInstance query, int kQuery)
+            throws Exception {
+        int[] neighbors = new int[kQuery];
+        float[] distances = new float[kQuery];
+        int kCurrLen = search(query, kQuery, -1, neighbors, distances,
+                new SearchWorkspace(dset.size()));
+        return kCurrLen == kQuery ? neighbors
+                : Arrays.copyOf(neighbors, kCurrLen);
+    }
+
+    /**
+     * This method finds the approximate k-nearest neighbors of a query point.
+     *
+     * @param query DataInstance that is the query point.
+     * @param kQuery Integer that is the neighborhood size.
+     * @param exclude Integer that is the index of the point to exclude, or -1
+     * if none.
+     * @param neighbors int[] that will hold the kNN set. If there are not
+     * enough indexed points, the remaining positions are set to -1.
+     * @param distances float[] that will hold the kNN distances, with
+     * Float.MAX_VALUE at the unfilled positions.
+     * @param ws SearchWorkspace with the per-thread buffers.
+     * @return Integer that is the number of the found neighbors.
+     * @throws Exception
+     */
+    private int search(DataInstance query, int kQuery, int exclude,
+            int[] neighbors, float[] distances, SearchWorkspace ws)
+            throws Exception {
+        if (!isBuilt()) {
+            buildIndex();
+        }
+        int currEntry = entryPoint;
+        int topLevel = levels[currEntry];
+        float currDist = cmet.dist(query, dset.data.get(currEntry));
+        for (int l = topLevel; l > 0; l--) {
+            currEntry = greedySearch(query, currEntry, currDist, l, ws);
+            currDist = ws.resultDists[0];
+        }
+        int efSearch = Math.max(ef, exclude >= 0 ? kQuery + 1 : kQuery);
+        searchLayer(query, currEntry, currDist, efSearch, 0, ws);
+        int kCurrLen = 0;
+        for (int i = 0; i < ws.numResults && kCurrLen < kQuery; i++) {
+            if (ws.resultIds[i] != exclude) {
+                neighbors[kCurrLen] = ws.resultIds[i];
+                distances[kCurrLen] = ws.resultDists[i];
+                kCurrLen++;
+            }
+        }
+        if (kCurrLen < kQuery) {
+            // The search did not reach enough points, so the points that it
+            // has not visited are scanned.
+            for (int i = 0; i < dset.size(); i++) {
+                if (i == exclude || !ws.visit(i)) {
+                    continue;
+                }
+                float dist = cmet.dist(query, dset.data.get(i));
+                if (kCurrLen < kQuery) {
+                    kCurrLen++;
+                } else if (dist >= distances[kCurrLen - 1]) {
+                    continue;
+                }
+                int pos = kCurrLen - 1;
+                while (pos > 0 && distances[pos - 1] > dist) {
+                    neighbors[pos] = neighbors[pos - 1];
+                    distances[pos] = distances[pos - 1];
+                    pos--;
+                }
+                neighbors[pos] = i;
+                distances[pos] = dist;
+            }
+            for (int kInd = kCurrLen; kInd < kQuery; kInd++) {
+                neighbors[kInd] = -1;
+                distances[kInd] = Float.MAX_VALUE;
+            }
+        }
+        return kCurrLen;
+    }
+
+    /**
+     * This method calculates the approximate kNN sets of the query points in
+     * parallel.
+     *
+     * @param queries DataSet of the query points.
+     * @param kQuery Integer that is the neighborhood size.
+     * @param kDistances float[][] that will hold the kNN distances, one row of
+     * length kQuery for each query. It can be null, if the distances are not
+     * needed.
+     * @return int[][] that are the approximate kNN sets of the query points.
+     * If there are fewer than kQuery indexed points, the rows are padded with
+     * -1.
+     * @throws Exception
+     */
+    public int[][] getKNeighbors(DataSet queries, int kQuery,
+            float[][] kDistances) throws Exception {
+        if (queries == null || queries.isEmpty()) {
+            return null;
+        }
+        if (!isBuilt()) {
+            buildIndex();
+        }
+        int[][] kNeighbors = new int[queries.size()][kQuery];
+        runInParallel(0, queries.size() - 1, QUERY, queries, kQuery,
+                kNeighbors, kDistances);
+        return kNeighbors;
+    }
+
+    @Override
+    public void calculateApproximateNeighborSets() throws Exception {
+        int size = dset.size();
+        if (k <= 0 || k >= size) {
+            throw new Exception("Bad neighborhood size " + k + " for "
+                    + size + " points.");
+        }
+        if (!isBuilt()) {
+            buildIndex();
+        }
+        kneighbors = new int[size][k];
+        kdistances = new float[size][k];
+        runInParallel(0, size - 1, QUERY, null, k, kneighbors, kdistances);
+    }
+
+    /**
+     * This method splits a range of points into chunks and processes them in
+     * parallel.
+     *
+     * @param first Integer that is the first index in the range.
+     * @param last Integer that is the last index in the range.
+     * @param task Integer code of the task.
+     * @param queries DataSet of the query points, or null if the indexed
+     * points are the queries.
+     * @param kQuery Integer that is the neighborhood size for the queries.
+     * @param kNeighbors int[][] that will hold the kNN sets.
+     * @param kDistances float[][] that will hold the kNN distances, or null.
+     * @throws Exception
+     */
+    private void runInParallel(int first, int last, int task,
+            DataSet queries, int kQuery, int[][] kNeighbors,
+            float[][] kDistances) throws Exception {
+        int size = last - first + 1;
+        if (size <= 0) {
+            return;
+        }
+        int threadCount = Math.min(numThreads, size);
+        int chunkSize = size / threadCount;
+        Thread[] threads = new Thread[threadCount];
+        TaskCalculator[] calculators = new TaskCalculator[threadCount];
+        for (int tIndex = 0; tIndex < threadCount; tIndex++) {
+            int endIndex = tIndex == threadCount - 1 ? last
+                    : first + (tIndex + 1) * chunkSize - 1;
+            calculators[tIndex] = new TaskCalculator(first + tIndex
+                    * chunkSize, endIndex, task, queries, kQuery, kNeighbors,
+                    kDistances);
+            threads[tIndex] = new Thread(calculators[tIndex]);
+            threads[tIndex].start();
+        }
+        for (int tIndex = 0; tIndex < threadCount; tIndex++) {
+            if (threads[tIndex] != null) {
+                try {
+                    threads[tIndex].join();
+                } catch (Throwable t) {
+                    System.err.println(t.getMessage());
+                }
+            }
+        }
+        for (int tIndex = 0; tIndex < threadCount; tIndex++) {
+            if (calculators[tIndex].error != null) {
+                throw calculators[tIndex].error;
+            }
+        }
+    }
+
+    /**
+     * This class processes a chunk of the insertions or the queries.
+     */
+    class TaskCalculator implements Runnable {
+
+        private int startIndex;
+        private int endIndex;
+        private int task;
+        private DataSet queries;
+        private int kQuery;
+        private int[][] kNeighbors;
+        private float[][] kDistances;
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param startIndex Index of the first point to process.
+         * @param endIndex Index of the last point to process.
+         * @param task Integer code of the task.
+         * @param queries DataSet of the query points, or null if the indexed
+         * points are the queries.
+         * @param kQuery Integer that is the neighborhood size for the queries.
+         * @param kNeighbors int[][] that will hold the kNN sets.
+         * @param kDistances float[][] that will hold the kNN distances, or
+         * null.
+         */
+        TaskCalculator(int startIndex, int endIndex, int task,
+                DataSet queries, int kQuery, int[][] kNeighbors,
+                float[][] kDistances) {
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.task = task;
+            this.queries = queries;
+            this.kQuery = kQuery;
+            this.kNeighbors = kNeighbors;
+            this.kDistances = kDistances;
+        }
+
+        @Override
+        public void run() {
+            SearchWorkspace ws = new SearchWorkspace(dset.size());
+            float[] distBuffer = new float[Math.max(kQuery, 1)];
+            try {
+                for (int i = startIndex; i <= endIndex; i++) {
+                    if (task == BUILD) {
+                        insert(i, ws);
+                    } else if (queries == null) {
+                        search(dset.data.get(i), kQuery, i, kNeighbors[i],
+                                kDistances != null ? kDistances[i]
+                                : distBuffer, ws);
+                    } else {
+                        search(queries.data.get(i), kQuery, -1,
+                                kNeighbors[i], kDistances != null
+                                ? kDistances[i] : distBuffer, ws);
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    @Override
+    public DataSet getDataSet() {
+        return dset;
+    }
+
+    @Override
+    public CombinedMetric getMetric() {
+        return cmet;
+    }
+
+    @Override
+    public float[][] getDistances() {
+        return null;
+    }
+
+    @Override
+    public boolean[][] getDistanceFlags() {
+        return null;
+    }
+
+    @Override
+    public int getK() {
+        return k;
+    }
+
+    @Override
+    public int[][] getKneighbors() {
+        return kneighbors;
+    }
+
+    @Override
+    public float[][] getKdistances() {
+        return kdistances;
+    }
+}
@@ -42,7 +42,8 @@ import java.util.HashMap;
  *
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
-public class AppKNNGraphLanczosBisection {
+public class AppKNNGraphLanczosBisection
+        implements ApproximateNeighborFinder {
 
     // The point is to minimize the number of distance calculations, so we
     // won't be using the entire distance matrix.
@@ -120,6 +121,7 @@ public class AppKNNGraphLanczosBisection {
      * This method calculates the approximate neighbor sets by a divide and
      * conquer method based on recursive Lanczos bisections.
      */
+    @Override
     public void calculateApproximateNeighborSets() {
         Cluster rootCluster = new Cluster(ds);
         for (int i = 0; i < ds.size(); i++) {
@@ -705,6 +707,7 @@ public class AppKNNGraphLanczosBisection {
             } catch (Exception e) {
                 e.printStackTrace();
             }
+            subset.getDefinitionDataset().releasePackedFeatures();
             for (DataInstance dInst : subset.getAllInstances()) {
                 for (int d = 0; d < dim; d++) {
                     dInst.fAttr[d] -= c.fAttr[d];
@@ -728,6 +731,7 @@ public class AppKNNGraphLanczosBisection {
     /**
      * @return DataSet data.
      */
+    @Override
     public DataSet getDataSet() {
         return ds;
     }
@@ -735,6 +739,7 @@ public class AppKNNGraphLanczosBisection {
     /**
      * @return CombinedMetric metrics object.
      */
+    @Override
     public CombinedMetric getMetric() {
         return cmet;
     }
@@ -743,6 +748,7 @@ public class AppKNNGraphLanczosBisection {
      * @return Upper diagonal distance matrix (many distances might not be
      * calculated, as this class avoids that).
      */
+    @Override
     public float[][] getDistances() {
         return symDistMatrix;
     }
@@ -750,6 +756,7 @@ public class AppKNNGraphLanczosBisection {
     /**
      * @return A boolean array indicating which distances have been calculated.
      */
+    @Override
     public boolean[][] getDistanceFlags() {
         return symDistCalcMatrix;
     }
@@ -757,6 +764,7 @@ public class AppKNNGraphLanczosBisection {
     /**
      * @return Neighborhood size.
      */
+    @Override
     public int getK() {
         return k;
     }
@@ -764,6 +772,7 @@ public class AppKNNGraphLanczosBisection {
     /**
      * @return kNN sets, given as a two-dimensional array.
      */
+    @Override
     public int[][] getKneighbors() {
         return kneighbors;
     }
@@ -771,6 +780,7 @@ public class AppKNNGraphLanczosBisection {
     /**
      * @return kNN distances, given as a two-dimensional array.
      */
+    @Override
     public float[][] getKdistances() {
         return kdistances;
     }
@@ -0,0 +1,547 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors.approximate;
+
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class implements the NN-Descent approximate kNN graph construction. It
+ * starts from random kNN sets and iteratively improves them by the local joins,
+ * that compare the neighbors of neighbors, relying on the observation that a
+ * neighbor of a neighbor is also likely to be a neighbor. Only a sample of the
+ * new neighbors takes part in each join and the iterations stop once the
+ * number of kNN set updates falls below a fraction of the number of kNN
+ * entries, so the trade-off between the recall and the speed can be tuned by
+ * the sample rate, the termination threshold and the maximal number of
+ * iterations. The local joins are performed in parallel. The method does not
+ * need the distance matrix, so it can be used on large datasets. The details
+ * are given in the following paper: Wei Dong, Charikar Moses, and Kai Li.
+ * 2011. Efficient k-nearest neighbor graph construction for generic similarity
+ * measures. In Proceedings of the 20th international conference on World Wide
+ * Web (WWW '11), 577-586.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class AppKNNGraphNNDescent implements ApproximateNeighborFinder {
+
+    public static final int DEFAULT_NUM_THREADS = 8;
+    public static final int DEFAULT_MAX_ITERATIONS = 20;
+    public static final float DEFAULT_SAMPLE_RATE = 0.5f;
+    public static final float DEFAULT_TERMINATION_THRESHOLD = 0.001f;
+    // Phases of the parallel calculations.
+    private static final int INITIALIZE = 0;
+    private static final int SAMPLE = 1;
+    private static final int LOCAL_JOIN = 2;
+    private DataSet dset;
+    private CombinedMetric cmet;
+    // Neighborhood size.
+    private int k = 5;
+    // The fraction of the neighbors that are sampled for the local joins.
+    private float sampleRate = DEFAULT_SAMPLE_RATE;
+    // The iterations stop when fewer than the threshold times the number of
+    // kNN entries are updated in an iteration.
+    private float terminationThreshold = DEFAULT_TERMINATION_THRESHOLD;
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+    private int numThreads = DEFAULT_NUM_THREADS;
+    private long seed = 1L;
+    // The current kNN sets, sorted by distance, with the flags indicating
+    // which neighbors are new and have not yet taken part in a local join.
+    private int[][] kneighbors;
+    private float[][] kdistances;
+    private boolean[][] isNew;
+    // The sampled neighbor lists of the current iteration.
+    private int[][] newCandidates;
+    private int[][] oldCandidates;
+    private int numIterationsPerformed = 0;
+
+    /**
+     * @return String containing the paper reference describing the algorithm.
+     */
+    public static String citing() {
+        return "Wei Dong, Charikar Moses, and Kai Li. 2011. Efficient "
+                + "k-nearest neighbor graph construction for generic "
+                + "similarity measures. In Proceedings of the 20th "
+                + "international conference on World Wide Web (WWW '11), "
+                + "577-586.";
+    }
+
+    /**
+     * @param dset Data set.
+     * @param cmet Metrics object.
+     * @param k Neighborhood size.
+     */
+    public AppKNNGraphNNDescent(DataSet dset, CombinedMetric cmet, int k) {
+        this.dset = dset;
+        this.cmet = cmet;
+        this.k = k;
+    }
+
+    /**
+     * @param dset Data set.
+     * @param cmet Metrics object.
+     * @param k Neighborhood size.
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public AppKNNGraphNNDescent(DataSet dset, CombinedMetric cmet, int k,
+            int numThreads) {
+        this(dset, cmet, k);
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param sampleRate Float value that is the fraction of the neighbors that
+     * are sampled for the local joins. Higher values lead to better recall and
+     * more distance calculations.
+     */
+    public void setSampleRate(float sampleRate) {
+        this.sampleRate = Math.max(0.01f, Math.min(1f, sampleRate));
+    }
+
+    /**
+     * @param terminationThreshold Float value that is the fraction of updated
+     * kNN entries below which the iterations stop.
+     */
+    public void setTerminationThreshold(float terminationThreshold) {
+        this.terminationThreshold = terminationThreshold;
+    }
+
+    /**
+     * @param maxIterations Integer that is the maximal number of iterations.
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param seed Long that is the seed for the random initialization and
+     * sampling.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return Integer that is the number of iterations that were performed.
+     */
+    public int getNumIterationsPerformed() {
+        return numIterationsPerformed;
+    }
+
+    @Override
+    public void calculateApproximateNeighborSets() throws Exception {
+        int size = dset.size();
+        if (k <= 0 || k >= size) {
+            throw new Exception("Bad neighborhood size " + k + " for "
+                    + size + " points.");
+        }
+        kneighbors = new int[size][k];
+        kdistances = new float[size][k];
+        isNew = new boolean[size][k];
+        newCandidates = new int[size][];
+        oldCandidates = new int[size][];
+        Random randa = new Random(seed);
+        long[] chunkSeeds = new long[numThreads];
+        for (int tIndex = 0; tIndex < numThreads; tIndex++) {
+            chunkSeeds[tIndex] = randa.nextLong();
+        }
+        runInParallel(new int[numThreads], INITIALIZE, chunkSeeds);
+        numIterationsPerformed = 0;
+        int[] updateCounts = new int[numThreads];
+        for (int iteration = 0; iteration < maxIterations; iteration++) {
+            for (int tIndex = 0; tIndex < numThreads; tIndex++) {
+                chunkSeeds[tIndex] = randa.nextLong();
+            }
+            runInParallel(updateCounts, SAMPLE, chunkSeeds);
+            addReverseCandidates(randa);
+            Arrays.fill(updateCounts, 0);
+            runInParallel(updateCounts, LOCAL_JOIN, chunkSeeds);
+            numIterationsPerformed++;
+            long totalUpdates = 0;
+            for (int count : updateCounts) {
+                totalUpdates += count;
+            }
+            if (totalUpdates <= terminationThreshold * size * k) {
+                break;
+            }
+        }
+        newCandidates = null;
+        oldCandidates = null;
+        isNew = null;
+    }
+
+    /**
+     * This method splits the points into chunks and runs a phase of the
+     * calculations on them in parallel.
+     *
+     * @param updateCounts int[] that will hold the number of the kNN updates
+     * per thread.
+     * @param phase Integer code of the phase to run.
+     * @param chunkSeeds long[] of the random seeds for the chunks.
+     * @throws Exception
+     */
+    private void runInParallel(int[] updateCounts, int phase,
+            long[] chunkSeeds) throws Exception {
+        int size = dset.size();
+        int chunkSize = size / numThreads;
+        Thread[] threads = new Thread[numThreads];
+        PhaseCalculator[] calculators = new PhaseCalculator[numThreads];
+        for (int tIndex = 0; tIndex < numThreads; tIndex++) {
+            int endIndex = tIndex == numThreads - 1 ? size - 1
+                    : (tIndex + 1) * chunkSize - 1;
+            calculators[tIndex] = new PhaseCalculator(tIndex * chunkSize,
+                    endIndex, phase, new Random(chunkSeeds[tIndex]));
+            threads[tIndex] = new Thread(calculators[tIndex]);
+            threads[tIndex].start();
+        }
+        for (int tIndex = 0; tIndex < numThreads; tIndex++) {
+            if (threads[tIndex] != null) {
+                try {
+                    threads[tIndex].join();
+                } catch (Throwable t) {
+                    System.err.println(t.getMessage());
+                }
+            }
+        }
+        for (int tIndex = 0; tIndex < numThreads; tIndex++) {
+            if (calculators[tIndex].error != null) {
+                throw calculators[tIndex].error;
+            }
+            updateCounts[tIndex] += calculators[tIndex].numUpdates;
+        }
+    }
+
+    /**
+     * This class runs a phase of the calculations on a chunk of the points.
+     */
+    class PhaseCalculator implements Runnable {
+
+        private int startIndex;
+        private int endIndex;
+        private int phase;
+        private Random randa;
+        int numUpdates = 0;
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param startIndex Index of the first point to process.
+         * @param endIndex Index of the last point to process.
+         * @param phase Integer code of the phase to run.
+         * @param randa Random number generator for this chunk.
+         */
+        PhaseCalculator(int startIndex, int endIndex, int phase,
+                Random randa) {
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.phase = phase;
+            this.randa = randa;
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = startIndex; i <= endIndex; i++) {
+                    if (phase == INITIALIZE) {
+                        initializeNeighbors(i, randa);
+                    } else if (phase == SAMPLE) {
+                        sampleCandidates(i, randa);
+                    } else {
+                        numUpdates += localJoin(i);
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * This method initializes the kNN set of a point to random points.
+     *
+     * @param index Integer that is the point index.
+     * @param randa Random number generator.
+     * @throws Exception
+     */
+    private void initializeNeighbors(int index, Random randa)
+            throws Exception {
+        int size = dset.size();
+        DataInstance instance = dset.data.get(index);
+        int kCurrLen = 0;
+        Arrays.fill(kdistances[index], Float.MAX_VALUE);
+        while (kCurrLen < k) {
+            int candidate = randa.nextInt(size);
+            if (candidate == index || contains(kneighbors[index], kCurrLen,
+                    candidate)) {
+                continue;
+            }
+            float dist = cmet.dist(instance, dset.data.get(candidate));
+            insertSorted(index, candidate, dist, kCurrLen);
+            kCurrLen++;
+        }
+    }
+
+    /**
+     * This method samples the new neighbors for the local join and collects
+     * the old ones, marking the sampled new neighbors as old.
+     *
+     * @param index Integer that is the point index.
+     * @param randa Random number generator.
+     */
+    private void sampleCandidates(int index, Random randa) {
+        int sampleSize = Math.max(1, (int) (sampleRate * k));
+        int[] newList = new int[k];
+        int numNew = 0;
+        int[] oldList = new int[k];
+        int numOld = 0;
+        synchronized (kneighbors[index]) {
+            for (int kInd = 0; kInd < k; kInd++) {
+                if (isNew[index][kInd]) {
+                    newList[numNew++] = kInd;
+                } else {
+                    oldList[numOld++] = kneighbors[index][kInd];
+                }
+            }
+            // Random sample of the new neighbor positions.
+            for (int i = 0; i < numNew && i < sampleSize; i++) {
+                int j = i + randa.nextInt(numNew - i);
+                int temp = newList[i];
+                newList[i] = newList[j];
+                newList[j] = temp;
+            }
+            numNew = Math.min(numNew, sampleSize);
+            for (int i = 0; i < numNew; i++) {
+                isNew[index][newList[i]] = false;
+                newList[i] = kneighbors[index][newList[i]];
+            }
+        }
+        newCandidates[index] = Arrays.copyOf(newList, numNew);
+        oldCandidates[index] = Arrays.copyOf(oldList, numOld);
+    }
+
+    /**
+     * This method extends the candidate lists by samples of the reverse
+     * neighbors.
+     *
+     * @param randa Random number generator.
+     */
+    private void addReverseCandidates(Random randa) {
+        int size = dset.size();
+        int sampleSize = Math.max(1, (int) (sampleRate * k));
+        int[][] reverseNew = getReverseLists(newCandidates);
+        int[][] reverseOld = getReverseLists(oldCandidates);
+        for (int i = 0; i < size; i++) {
+            newCandidates[i] = mergeSample(newCandidates[i], reverseNew[i],
+                    sampleSize, randa);
+            oldCandidates[i] = mergeSample(oldCandidates[i], reverseOld[i],
+                    sampleSize, randa);
+        }
+    }
+
+    /**
+     * @param lists int[][] of candidate lists.
+     * @return int[][] of the reverse candidate lists.
+     */
+    private int[][] getReverseLists(int[][] lists) {
+        int size = lists.length;
+        int[] counts = new int[size];
+        for (int i = 0; i < size; i++) {
+            for (int neighbor : lists[i]) {
+                counts[neighbor]++;
+            }
+        }
+        int[][] reverse = new int[size][];
+        for (int i = 0; i < size; i++) {
+            reverse[i] = new int[counts[i]];
+        }
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < size; i++) {
+            for (int neighbor : lists[i]) {
+                reverse[neighbor][counts[neighbor]++] = i;
+            }
+        }
+        return reverse;
+    }
+
+    /**
+     * @param list int[] that is a candidate list.
+     * @param reverseList int[] that is the reverse candidate list.
+     * @param sampleSize Integer that is the number of reverse candidates to
+     * sample.
+     * @param randa Random number generator.
+     * @return int[] that is the candidate list extended by the sampled reverse
+     * candidates, without duplicates.
+     */
+    private static int[] mergeSample(int[] list, int[] reverseList,
+            int sampleSize, Random randa) {
+        int numSampled = Math.min(sampleSize, reverseList.length);
+        for (int i = 0; i < numSampled; i++) {
+            int j = i + randa.nextInt(reverseList.length - i);
+            int temp = reverseList[i];
+            reverseList[i] = reverseList[j];
+            reverseList[j] = temp;
+        }
+        int[] result = Arrays.copyOf(list, list.length + numSampled);
+        int length = list.length;
+        for (int i = 0; i < numSampled; i++) {
+            if (!contains(result, length, reverseList[i])) {
+                result[length++] = reverseList[i];
+            }
+        }
+        return length == result.length ? result
+                : Arrays.copyOf(result, length);
+    }
+
+    /**
+     * This method performs the local join around a point, by comparing its
+     * new candidates to each other and to the old candidates.
+     *
+     * @param index Integer that is the point index.
+     * @return Integer that is the number of kNN set updates.
+     * @throws Exception
+     */
+    private int localJoin(int index) throws Exception {
+        int numUpdates = 0;
+        int[] newList = newCandidates[index];
+        int[] oldList = oldCandidates[index];
+        for (int i = 0; i < newList.length; i++) {
+            DataInstance first = dset.data.get(newList[i]);
+            for (int j = i + 1; j < newList.length; j++) {
+                float dist = cmet.dist(first, dset.data.get(newList[j]));
+                numUpdates += update(newList[i], newList[j], dist);
+                numUpdates += update(newList[j], newList[i], dist);
+            }
+            for (int j = 0; j < oldList.length; j++) {
+                if (oldList[j] == newList[i]) {
+                    continue;
+                }
+                float dist = cmet.dist(first, dset.data.get(oldList[j]));
+                numUpdates += update(newList[i], oldList[j], dist);
+                numUpdates += update(oldList[j], newList[i], dist);
+            }
+        }
+        return numUpdates;
+    }
+
+    /**
+     * This method tries to insert a point into the kNN set of another point.
+     *
+     * @param index Integer that is the index of the point whose kNN set is
+     * updated.
+     * @param candidate Integer that is the index of the candidate neighbor.
+     * @param dist Float value that is the distance between the points.
+     * @return 1 if the kNN set was updated, 0 otherwise.
+     */
+    private int update(int index, int candidate, float dist) {
+        if (index == candidate) {
+            return 0;
+        }
+        synchronized (kneighbors[index]) {
+            if (!(dist < kdistances[index][k - 1])
+                    || contains(kneighbors[index], k, candidate)) {
+                return 0;
+            }
+            insertSorted(index, candidate, dist, k - 1);
+            return 1;
+        }
+    }
+
+    /**
+     * This method inserts a neighbor into the sorted kNN set, flagging it as
+     * new. The last element is overwritten if the kNN set is full.
+     *
+     * @param index Integer that is the point index.
+     * @param neighbor Integer that is the neighbor index.
+     * @param dist Float value that is the distance to the neighbor.
+     * @param pos Integer that is the position to start the insertion from.
+     */
+    private void insertSorted(int index, int neighbor, float dist, int pos) {
+        int[] neighbors = kneighbors[index];
+        float[] distances = kdistances[index];
+        boolean[] flags = isNew[index];
+        while (pos > 0 && distances[pos - 1] > dist) {
+            neighbors[pos] = neighbors[pos - 1];
+            distances[pos] = distances[pos - 1];
+            flags[pos] = flags[pos - 1];
+            pos--;
+        }
+        neighbors[pos] = neighbor;
+        distances[pos] = dist;
+        flags[pos] = true;
+    }
+
+    /**
+     * @param arr int[] to search.
+     * @param length Integer that is the number of valid elements.
+     * @param value Integer value to look for.
+     * @return True if the value is among the first length elements.
+     */
+    private static boolean contains(int[] arr, int length, int value) {
+        for (int i = 0; i < length; i++) {
+            if (arr[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public DataSet getDataSet() {
+        return dset;
+    }
+
+    @Override
+    public CombinedMetric getMetric() {
+        return cmet;
+    }
+
+    @Override
+    public float[][] getDistances() {
+        return null;
+    }
+
+    @Override
+    public boolean[][] getDistanceFlags() {
+        return null;
+    }
+
+    @Override
+    public int getK() {
+        return k;
+    }
+
+    @Override
+    public int[][] getKneighbors() {
+        return kneighbors;
+    }
+
+    @Override
+    public float[][] getKdistances() {
+        return kdistances;
+    }
+}
@@ -0,0 +1,78 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors.approximate;
+
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+
+/**
+ * This interface declares the methods of the approximate kNN graph
+ * construction methods, so that their kNN sets can be used to construct a
+ * NeighborSetFinder object via NeighborSetFinder.constructFromAppFinder and
+ * all the hubness statistics can be calculated on data that is too large for
+ * the exact kNN graph calculations.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public interface ApproximateNeighborFinder {
+
+    /**
+     * This method calculates the approximate kNN sets for all the points in
+     * the data.
+     *
+     * @throws Exception
+     */
+    public void calculateApproximateNeighborSets() throws Exception;
+
+    /**
+     * @return DataSet data.
+     */
+    public DataSet getDataSet();
+
+    /**
+     * @return CombinedMetric metrics object.
+     */
+    public CombinedMetric getMetric();
+
+    /**
+     * @return Upper diagonal distance matrix, where many distances might not
+     * be calculated, or null if the method does not use a distance matrix.
+     */
+    public float[][] getDistances();
+
+    /**
+     * @return A boolean array indicating which distances have been calculated,
+     * or null if the method does not use a distance matrix.
+     */
+    public boolean[][] getDistanceFlags();
+
+    /**
+     * @return Neighborhood size.
+     */
+    public int getK();
+
+    /**
+     * @return kNN sets, given as a two-dimensional array. The positions that
+     * could not be filled are set to -1.
+     */
+    public int[][] getKneighbors();
+
+    /**
+     * @return kNN distances, given as a two-dimensional array.
+     */
+    public float[][] getKdistances();
+}
@@ -0,0 +1,158 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors.approximate.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.neighbors.approximate.AppKNNGraphHNSW;
+import data.neighbors.approximate.AppKNNGraphNNDescent;
+import data.neighbors.approximate.ApproximateNeighborFinder;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.HashSet;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the recall of the approximate kNN graphs and their use for
+ * constructing the NeighborSetFinder objects.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class ApproximateKNNGraphTest extends TestCase {
+
+    /**
+     * This method tests the NN-Descent kNN graphs.
+     */
+    @Test
+    public static void testNNDescent() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(600, 8, 42);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            AppKNNGraphNNDescent appNSF = new AppKNNGraphNNDescent(dset, cmet,
+                    10, 4);
+            appNSF.calculateApproximateNeighborSets();
+            assertTrue(getRecall(appNSF, dset, cmet) > 0.9f);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the HNSW kNN graphs and queries.
+     */
+    @Test
+    public static void testHNSW() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(600, 8, 42);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            AppKNNGraphHNSW appNSF = new AppKNNGraphHNSW(dset, cmet, 10, 4);
+            appNSF.calculateApproximateNeighborSets();
+            assertTrue(getRecall(appNSF, dset, cmet) > 0.9f);
+            // A query that coincides with an indexed point finds it first.
+            int[] neighbors = appNSF.getKNeighbors(dset.getInstance(17), 3);
+            assertEquals(17, neighbors[0]);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the HNSW kNN sets on well separated clusters that are
+     * smaller than the neighborhood size, where the sparse graph is not
+     * navigable between the clusters.
+     */
+    @Test
+    public static void testDisconnectedHNSW() {
+        try {
+            int size = 60;
+            int k = 25;
+            DataSet dset = ToyDataGenerator.createFloatDataSet(size, 2);
+            Random randa = new Random(0);
+            for (int i = 0; i < size; i++) {
+                DataInstance instance = new DataInstance(dset);
+                instance.fAttr[0] = randa.nextFloat() + (i % 3) * 1000;
+                instance.fAttr[1] = randa.nextFloat();
+                dset.addDataInstance(instance);
+            }
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            AppKNNGraphHNSW appNSF = new AppKNNGraphHNSW(dset, cmet, k, 1);
+            appNSF.setM(2);
+            appNSF.setEfConstruction(2);
+            appNSF.setEf(1);
+            appNSF.calculateApproximateNeighborSets();
+            for (int i = 0; i < size; i++) {
+                HashSet<Integer> distinct = new HashSet<>();
+                for (int neighbor : appNSF.getKneighbors()[i]) {
+                    assertTrue(neighbor >= 0 && neighbor != i);
+                    distinct.add(neighbor);
+                }
+                assertEquals(k, distinct.size());
+            }
+            getRecall(appNSF, dset, cmet);
+            // There are not enough points for the query.
+            int[] neighbors = appNSF.getKNeighbors(dset.getInstance(0),
+                    size + 3);
+            assertEquals(size, neighbors.length);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * @param appNSF ApproximateNeighborFinder with the calculated kNN sets.
+     * @param dset DataSet that the kNN sets were calculated for.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @return Float value that is the fraction of the exact kNN that were
+     * found.
+     * @throws Exception
+     */
+    private static float getRecall(ApproximateNeighborFinder appNSF,
+            DataSet dset, CombinedMetric cmet) throws Exception {
+        int k = appNSF.getK();
+        NeighborSetFinder exactNSF = new NeighborSetFinder(dset, cmet);
+        exactNSF.calculateDistances();
+        exactNSF.calculateNeighborSets(k);
+        int[][] exact = exactNSF.getKNeighbors();
+        NeighborSetFinder nsf = NeighborSetFinder.constructFromAppFinder(
+                appNSF, false);
+        int[][] approximate = nsf.getKNeighbors();
+        int numFound = 0;
+        int totalOccurrences = 0;
+        for (int i = 0; i < dset.size(); i++) {
+            for (int kInd = 0; kInd < k; kInd++) {
+                assertTrue(approximate[i][kInd] != i);
+                for (int neighbor : exact[i]) {
+                    if (neighbor == approximate[i][kInd]) {
+                        numFound++;
+                        break;
+                    }
+                }
+                if (kInd > 0) {
+                    assertTrue(nsf.getKDistances()[i][kInd - 1]
+                            <= nsf.getKDistances()[i][kInd]);
+                }
+            }
+            totalOccurrences += nsf.getNeighborFrequencies()[i];
+        }
+        assertEquals(k * dset.size(), totalOccurrences);
+        return (float) numFound / (float) (k * dset.size());
+    }
+}
@@ -30,6 +30,7 @@ import distances.secondary.NICDMCalculator;
 import distances.secondary.snd.SharedNeighborCalculator;
 import distances.sparse.SparseCombinedMetric;
 import filters.TFIDF;
+import ioformat.ComputationCache;
 import ioformat.DistanceMatrixIO;
 import ioformat.FileUtil;
 import ioformat.SupervisedLoader;
@@ -85,6 +86,10 @@ public class BatchHubnessAnalyzer {
     private File distancesDir;
     // The number of threads used for distance matrix and kNN set calculations.
     private int numCommonThreads = 8;
+    // The persistent cache for the distance matrices and the kNN sets.
+    private File cacheDir;
+    private long cacheMaxBytes = ComputationCache.DEFAULT_MAX_BYTES;
+    private ComputationCache cache;
 
     /**
      * Initialization.
@@ -119,6 +124,8 @@ public class BatchHubnessAnalyzer {
         dsMetric = conf.dsMetric;
         distancesDir = conf.distancesDir;
         numCommonThreads = conf.numCommonThreads;
+        cacheDir = conf.cacheDir;
+        cacheMaxBytes = conf.cacheMaxBytes;
     }
 
     /**
@@ -129,6 +136,9 @@ public class BatchHubnessAnalyzer {
      * @throws Exception
      */
     public void runAllTests() throws Exception {
+        if (cacheDir != null) {
+            cache = new ComputationCache(cacheDir, cacheMaxBytes);
+        }
         int dsIndex = 0;
         for (String dsPath : dsPaths) {
             File dsFile = new File(dsPath);
@@ -375,11 +385,22 @@ public class BatchHubnessAnalyzer {
                         cmetClass = Class.forName(
                                 dMatFile.getParentFile().getName());
                     }
+                    // The hash of the data content, for the cache lookups.
+                    String dataHash = cache != null
+                            ? ComputationCache.hashDataSet(currDSet) : null;
+                    boolean dMatFileUsable = dMatFile != null
+                            && dMatFile.exists()
+                            && cmetClass.isInstance(cmet.getFloatMetric());
+                    if (distMat == null && !dMatFileUsable && cache != null) {
+                        distMat = cache.getDistances(ComputationCache.
+                                getDistanceKey(dataHash, cmet));
+                        if (distMat != null) {
+                            System.out.println(
+                                    "Distances loaded from the cache.");
+                        }
+                    }
                     if (distMat == null) {
-                        if (dMatFile == null
-                                || !dMatFile.exists()
-                                || !(cmetClass.isInstance(
-                                cmet.getFloatMetric()))) {
+                        if (!dMatFileUsable) {
                             // If the file does not exist or the loaded name is
                             // not an appropriate float metric, then calculate
                             // the distances with the specified metric.
@@ -393,6 +414,11 @@ public class BatchHubnessAnalyzer {
                                 DistanceMatrixIO.printDMatToFile(
                                         distMat, dMatFile);
                             }
+                            if (cache != null) {
+                                cache.putDistances(ComputationCache.
+                                        getDistanceKey(dataHash, cmet),
+                                        distMat);
+                            }
                         } else {
                             // Load the distances from an existing source.
                             System.out.print("Loading distances-");
@@ -410,13 +436,12 @@ public class BatchHubnessAnalyzer {
                         if (secondaryDistanceType == SecondaryDistance.SIMCOS) {
                             // The simcos secondary distance.
                             NeighborSetFinder nsfSND =
-                                    new NeighborSetFinder(currDSet, distMat,
-                                    cmet);
-                            nsfSND.calculateNeighborSetsMultiThr(
-                                    secondaryDistanceK, numCommonThreads);
+                                    getSecondaryNeighborSets(distMat,
+                                    dataHash);
                             SharedNeighborFinder snf =
                                     new SharedNeighborFinder(nsfSND);
-                            snf.countSharedNeighbors();
+                            snf.countSharedNeighborsMultiThread(
+                                    numCommonThreads);
                             SharedNeighborCalculator snc =
                                     new SharedNeighborCalculator(snf,
                                     SharedNeighborCalculator.
@@ -458,14 +483,14 @@ public class BatchHubnessAnalyzer {
                                 == SecondaryDistance.SIMHUB) {
                             // The hubness-aware simhub secondary distance
                             // measure based on shared-neighbor methodology.
-                            NeighborSetFinder nsfSND = new NeighborSetFinder(
-                                    currDSet, distMat, cmet);
-                            nsfSND.calculateNeighborSetsMultiThr(
-                                    secondaryDistanceK, numCommonThreads);
+                            NeighborSetFinder nsfSND =
+                                    getSecondaryNeighborSets(distMat,
+                                    dataHash);
                             SharedNeighborFinder snf =
                                     new SharedNeighborFinder(nsfSND, 5);
                             snf.obtainWeightsFromHubnessInformation(0);
-                            snf.countSharedNeighbors();
+                            snf.countSharedNeighborsMultiThread(
+                                    numCommonThreads);
                             SharedNeighborCalculator snc =
                                     new SharedNeighborCalculator(snf,
                                     SharedNeighborCalculator.
@@ -504,32 +529,22 @@ public class BatchHubnessAnalyzer {
                                 == SecondaryDistance.MP) {
                             // Mutual proximity secondary similarity measure.
                             NeighborSetFinder nsfSecondary =
-                                    new NeighborSetFinder(currDSet, distMat,
-                                    cmet);
-                            nsfSecondary.calculateNeighborSetsMultiThr(
-                                    secondaryDistanceK, numCommonThreads);
+                                    getSecondaryNeighborSets(distMat,
+                                    dataHash);
                             MutualProximityCalculator calc =
                                     new MutualProximityCalculator(
                                     nsfSecondary.getDistances(),
                                     nsfSecondary.getDataSet(),
                                     nsfSecondary.getCombinedMetric());
                             float[][] mpDistMat =
-                                    calc.calculateSecondaryDistMatrixMultThr(
-                                    nsfSecondary, numCommonThreads);
-                            // Normalize the scores.
-                            float max = 0;
-                            float min = Float.MAX_VALUE;
-                            for (int i = 0; i < mpDistMat.length; i++) {
-                                for (int j = 0; j < mpDistMat[i].length; j++) {
-                                    max = Math.max(max, mpDistMat[i][j]);
-                                    min = Math.min(min, mpDistMat[i][j]);
-                                }
-                            }
-                            for (int i = 0; i < mpDistMat.length; i++) {
-                                for (int j = 0; j < mpDistMat[i].length; j++) {
-                                    mpDistMat[i][j] = (mpDistMat[i][j] - min)
-                                            / (max - min);
-                                }
+                                    getCachedSecondaryDistances(dataHash);
+                            if (mpDistMat == null) {
+                                mpDistMat = calc.
+                                        calculateSecondaryDistMatrixMultThr(
+                                        nsfSecondary, numCommonThreads);
+                                // Normalize the scores.
+                                normalizeDistances(mpDistMat);
+                                cacheSecondaryDistances(dataHash, mpDistMat);
                             }
                             nsf = new NeighborSetFinder(
                                     originalDSet, mpDistMat, calc);
@@ -537,28 +552,18 @@ public class BatchHubnessAnalyzer {
                                 == SecondaryDistance.LS) {
                             // Local scaling secondary distance measure.
                             NeighborSetFinder nsfSecondary =
-                                    new NeighborSetFinder(currDSet, distMat,
-                                    cmet);
-                            nsfSecondary.calculateNeighborSetsMultiThr(
-                                    secondaryDistanceK, numCommonThreads);
+                                    getSecondaryNeighborSets(distMat,
+                                    dataHash);
                             LocalScalingCalculator lsc =
                                     new LocalScalingCalculator(nsfSecondary);
-                            float[][] lsDistMat = lsc.
-                                    getTransformedDMatFromNSFPrimaryDMat();
-                            // Normalize the scores.
-                            float max = 0;
-                            float min = Float.MAX_VALUE;
-                            for (int i = 0; i < lsDistMat.length; i++) {
-                                for (int j = 0; j < lsDistMat[i].length; j++) {
-                                    max = Math.max(max, lsDistMat[i][j]);
-                                    min = Math.min(min, lsDistMat[i][j]);
-                                }
-                            }
-                            for (int i = 0; i < lsDistMat.length; i++) {
-                                for (int j = 0; j < lsDistMat[i].length; j++) {
-                                    lsDistMat[i][j] = (lsDistMat[i][j] - min)
-                                            / (max - min);
-                                }
+                            float[][] lsDistMat =
+                                    getCachedSecondaryDistances(dataHash);
+                            if (lsDistMat == null) {
+                                lsDistMat = lsc.
+                                        getTransformedDMatFromNSFPrimaryDMat();
+                                // Normalize the scores.
+                                normalizeDistances(lsDistMat);
+                                cacheSecondaryDistances(dataHash, lsDistMat);
                             }
                             nsf = new NeighborSetFinder(
                                     originalDSet, lsDistMat, lsc);
@@ -566,28 +571,18 @@ public class BatchHubnessAnalyzer {
                                 == SecondaryDistance.NICDM) {
                             // NICDM secondary distance measure.
                             NeighborSetFinder nsfSecondary =
-                                    new NeighborSetFinder(currDSet, distMat,
-                                    cmet);
-                            nsfSecondary.calculateNeighborSetsMultiThr(
-                                    secondaryDistanceK, numCommonThreads);
+                                    getSecondaryNeighborSets(distMat,
+                                    dataHash);
                             NICDMCalculator nicdmCalc =
                                     new NICDMCalculator(nsfSecondary);
-                            float[][] lsDistMat = nicdmCalc.
-                                    getTransformedDMatFromNSFPrimaryDMat();
-                            // Normalize the scores.
-                            float max = 0;
-                            float min = Float.MAX_VALUE;
-                            for (int i = 0; i < lsDistMat.length; i++) {
-                                for (int j = 0; j < lsDistMat[i].length; j++) {
-                                    max = Math.max(max, lsDistMat[i][j]);
-                                    min = Math.min(min, lsDistMat[i][j]);
-                                }
-                            }
-                            for (int i = 0; i < lsDistMat.length; i++) {
-                                for (int j = 0; j < lsDistMat[i].length; j++) {
-                                    lsDistMat[i][j] = (lsDistMat[i][j] - min)
-                                            / (max - min);
-                                }
+                            float[][] lsDistMat =
+                                    getCachedSecondaryDistances(dataHash);
+                            if (lsDistMat == null) {
+                                lsDistMat = nicdmCalc.
+                                        getTransformedDMatFromNSFPrimaryDMat();
+                                // Normalize the scores.
+                                normalizeDistances(lsDistMat);
+                                cacheSecondaryDistances(dataHash, lsDistMat);
                             }
                             nsf = new NeighborSetFinder(
                                     originalDSet, lsDistMat, nicdmCalc);
@@ -936,6 +931,91 @@ public class BatchHubnessAnalyzer {
         }
     }
 
+    /**
+     * This method obtains the primary kNN sets on the current data that the
+     * secondary distances are based on, from the cache if possible.
+     *
+     * @param distMat float[][] that is the primary distance matrix.
+     * @param dataHash String that is the hash of the current data, or null if
+     * the cache is not used.
+     * @return NeighborSetFinder object holding the kNN sets for the secondary
+     * distance neighborhood size.
+     * @throws Exception
+     */
+    private NeighborSetFinder getSecondaryNeighborSets(float[][] distMat,
+            String dataHash) throws Exception {
+        NeighborSetFinder nsfSecondary = null;
+        if (cache != null) {
+            nsfSecondary = cache.getNeighborSetsForK(
+                    ComputationCache.getNeighborSetKey(dataHash, cmet),
+                    currDSet, distMat, cmet, secondaryDistanceK);
+        }
+        if (nsfSecondary == null) {
+            nsfSecondary = new NeighborSetFinder(currDSet, distMat, cmet);
+            nsfSecondary.calculateNeighborSetsMultiThr(
+                    secondaryDistanceK, numCommonThreads);
+            if (cache != null) {
+                cache.putNeighborSets(ComputationCache.getNeighborSetKey(
+                        dataHash, cmet), nsfSecondary);
+            }
+        }
+        return nsfSecondary;
+    }
+
+    /**
+     * @param dataHash String that is the hash of the current data, or null if
+     * the cache is not used.
+     * @return float[][] that is the cached normalized secondary distance
+     * matrix for the current secondary distance, or null if it is not cached.
+     * @throws Exception
+     */
+    private float[][] getCachedSecondaryDistances(String dataHash)
+            throws Exception {
+        if (cache == null) {
+            return null;
+        }
+        return cache.getDistances(ComputationCache.getSecondaryDistanceKey(
+                dataHash, cmet, secondaryDistanceType.toString(),
+                secondaryDistanceK));
+    }
+
+    /**
+     * @param dataHash String that is the hash of the current data, or null if
+     * the cache is not used.
+     * @param secondaryDMat float[][] that is the normalized secondary distance
+     * matrix for the current secondary distance.
+     * @throws Exception
+     */
+    private void cacheSecondaryDistances(String dataHash,
+            float[][] secondaryDMat) throws Exception {
+        if (cache != null) {
+            cache.putDistances(ComputationCache.getSecondaryDistanceKey(
+                    dataHash, cmet, secondaryDistanceType.toString(),
+                    secondaryDistanceK), secondaryDMat);
+        }
+    }
+
+    /**
+     * This method normalizes the distances to the [0, 1] range.
+     *
+     * @param dMat float[][] that is the upper triangular distance matrix.
+     */
+    private static void normalizeDistances(float[][] dMat) {
+        float max = 0;
+        float min = Float.MAX_VALUE;
+        for (int i = 0; i < dMat.length; i++) {
+            for (int j = 0; j < dMat[i].length; j++) {
+                max = Math.max(max, dMat[i][j]);
+                min = Math.min(min, dMat[i][j]);
+            }
+        }
+        for (int i = 0; i < dMat.length; i++) {
+            for (int j = 0; j < dMat[i].length; j++) {
+                dMat[i][j] = (dMat[i][j] - min) / (max - min);
+            }
+        }
+    }
+
     /**
      * This method loads the parameters from the configuration file.
      *
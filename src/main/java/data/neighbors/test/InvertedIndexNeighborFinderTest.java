@@ -0,0 +1,143 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors.test;
+
+import data.neighbors.InvertedIndexNeighborFinder;
+import data.neighbors.NeighborSetFinder;
+import data.representation.sparse.BOWDataSet;
+import data.representation.sparse.BOWInstance;
+import data.representation.sparse.SparseVector;
+import distances.sparse.SparseCosineMetric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the inverted index kNN search against the exhaustive search
+ * with the sparse cosine metric.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class InvertedIndexNeighborFinderTest extends TestCase {
+
+    /**
+     * @param corpus BOWDataSet to generate the document for.
+     * @param randa Random number generator.
+     * @param numWords Integer that is the vocabulary size.
+     * @return BOWInstance that is a random document.
+     */
+    private static BOWInstance generateDocument(BOWDataSet corpus,
+            Random randa, int numWords) {
+        BOWInstance instance = new BOWInstance(corpus);
+        SparseVector vect = new SparseVector();
+        // Some documents are intentionally left empty.
+        int length = randa.nextInt(8);
+        for (int i = 0; i < length; i++) {
+            vect.add(randa.nextInt(numWords), 1 + randa.nextInt(3));
+        }
+        instance.setWordVector(vect);
+        return instance;
+    }
+
+    /**
+     * This method tests whether the kNN distances match the exhaustive search
+     * for the corpus documents and for the external queries.
+     */
+    @Test
+    public static void testNeighborSets() {
+        try {
+            Random randa = new Random();
+            int numWords = 60;
+            int k = 5;
+            BOWDataSet corpus = new BOWDataSet();
+            corpus.data = new ArrayList<>(300);
+            for (int i = 0; i < 300; i++) {
+                BOWInstance instance = generateDocument(corpus, randa,
+                        numWords);
+                instance.setCategory(randa.nextInt(3));
+                corpus.addDataInstance(instance);
+            }
+            ArrayList<BOWInstance> queries = new ArrayList<>(30);
+            for (int i = 0; i < 30; i++) {
+                queries.add(generateDocument(corpus, randa, numWords));
+            }
+            SparseCosineMetric metric = new SparseCosineMetric();
+            InvertedIndexNeighborFinder finder =
+                    new InvertedIndexNeighborFinder(corpus);
+            for (boolean pruning : new boolean[]{true, false}) {
+                finder.setPruning(pruning);
+                finder.calculateNeighborSets(k, 4);
+                int[][] kNeighbors = finder.getKNeighbors();
+                float[][] kDistances = finder.getKDistances();
+                for (int i = 0; i < corpus.size(); i++) {
+                    float[] exact = new float[corpus.size() - 1];
+                    int pos = 0;
+                    for (int j = 0; j < corpus.size(); j++) {
+                        if (j != i) {
+                            exact[pos++] = metric.dist(
+                                    ((BOWInstance) corpus.data.get(i))
+                                    .getWordVector(),
+                                    ((BOWInstance) corpus.data.get(j))
+                                    .getWordVector());
+                        }
+                    }
+                    Arrays.sort(exact);
+                    for (int kInd = 0; kInd < k; kInd++) {
+                        assertTrue(kNeighbors[i][kInd] != i);
+                        assertEquals(exact[kInd], kDistances[i][kInd],
+                                0.0001f);
+                        assertEquals(metric.dist(
+                                ((BOWInstance) corpus.data.get(i))
+                                .getWordVector(),
+                                ((BOWInstance) corpus.data.get(
+                                kNeighbors[i][kInd])).getWordVector()),
+                                kDistances[i][kInd], 0.0001f);
+                    }
+                }
+                int[][] queryNeighbors = new int[queries.size()][k];
+                float[][] queryDistances = new float[queries.size()][k];
+                finder.findNeighbors(queries, k, 3, queryNeighbors,
+                        queryDistances);
+                for (int i = 0; i < queries.size(); i++) {
+                    float[] exact = new float[corpus.size()];
+                    for (int j = 0; j < corpus.size(); j++) {
+                        exact[j] = metric.dist(queries.get(i).getWordVector(),
+                                ((BOWInstance) corpus.data.get(j))
+                                .getWordVector());
+                    }
+                    Arrays.sort(exact);
+                    for (int kInd = 0; kInd < k; kInd++) {
+                        assertEquals(exact[kInd], queryDistances[i][kInd],
+                                0.0001f);
+                    }
+                }
+            }
+            NeighborSetFinder nsf = finder.getNeighborSetFinder();
+            assertEquals(k, nsf.getCurrK());
+            int totalOccurrences = 0;
+            for (int occFreq : nsf.getNeighborFrequencies()) {
+                totalOccurrences += occFreq;
+            }
+            assertEquals(k * corpus.size(), totalOccurrences);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+}
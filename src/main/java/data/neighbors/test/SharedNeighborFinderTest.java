@@ -0,0 +1,115 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.neighbors.SharedNeighborFinder;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.ArrayList;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the shared neighbor counts obtained from the reverse
+ * neighbor lists against the direct intersection of the kNN sets.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class SharedNeighborFinderTest extends TestCase {
+
+    /**
+     * This method tests the dense, multi-threaded and sparse counts, with and
+     * without the instance weights.
+     */
+    @Test
+    public static void testSharedNeighborCounts() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(250, 4, 1);
+            int k = 10;
+            NeighborSetFinder nsf = new NeighborSetFinder(dset,
+                    CombinedMetric.FLOAT_EUCLIDEAN);
+            nsf.calculateDistances();
+            nsf.calculateNeighborSets(k);
+            int[][] kNeighbors = nsf.getKNeighbors();
+            Random randa = new Random(2);
+            float[] weights = new float[dset.size()];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = randa.nextFloat();
+            }
+            float[][] weightOptions = {null, weights};
+            for (float[] instanceWeights : weightOptions) {
+                SharedNeighborFinder snf = new SharedNeighborFinder(nsf);
+                snf.setWeights(instanceWeights);
+                snf.countSharedNeighbors();
+                float[][] single = snf.getSharedNeighborCounts();
+                snf.countSharedNeighborsMultiThread(3);
+                float[][] multi = snf.getSharedNeighborCounts();
+                snf.findSharedNeighbors();
+                float[][] withLists = snf.getSharedNeighborCounts();
+                for (int i = 0; i < dset.size(); i++) {
+                    for (int j = i + 1; j < dset.size(); j++) {
+                        float expected = 0;
+                        int numShared = 0;
+                        for (int p : kNeighbors[i]) {
+                            for (int q : kNeighbors[j]) {
+                                if (p == q) {
+                                    expected += instanceWeights == null ? 1
+                                            : instanceWeights[p];
+                                    numShared++;
+                                }
+                            }
+                        }
+                        assertEquals(expected, single[i][j - i - 1], 0.0001f);
+                        assertEquals(expected, multi[i][j - i - 1], 0.0001f);
+                        assertEquals(expected, withLists[i][j - i - 1],
+                                0.0001f);
+                        ArrayList<Integer> sharedList =
+                                snf.getSharedNeighborsFor(j, i);
+                        assertEquals(numShared, sharedList.size());
+                    }
+                }
+                snf.countSharedNeighborsSparse(4);
+                assertNull(snf.getSharedNeighborCounts());
+                int[][] sparseIndexes = snf.getSparseSharedNeighborIndexes();
+                for (int i = 0; i < dset.size(); i++) {
+                    int numNonZero = 0;
+                    for (int j = i + 1; j < dset.size(); j++) {
+                        assertEquals(single[i][j - i - 1],
+                                snf.getCountOfSharedNeighborsFor(j, i),
+                                0.0001f);
+                        if (single[i][j - i - 1] != 0) {
+                            numNonZero++;
+                        }
+                    }
+                    for (int pos = 1; pos < sparseIndexes[i].length; pos++) {
+                        assertTrue(sparseIndexes[i][pos - 1]
+                                < sparseIndexes[i][pos]);
+                    }
+                    if (instanceWeights == null) {
+                        assertEquals(numNonZero, sparseIndexes[i].length);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+}
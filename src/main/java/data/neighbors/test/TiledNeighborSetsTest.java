@@ -0,0 +1,86 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.ArrayList;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the tiled kNN calculations without the distance matrix
+ * against the multi-threaded calculations from the distance matrix.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class TiledNeighborSetsTest extends TestCase {
+
+    /**
+     * This method tests that the kNN sets, the reverse neighbor sets and the
+     * occurrence stats are identical, on data with many distance ties and a
+     * size that is not a multiple of the block size.
+     */
+    @Test
+    public static void testIdenticalNeighborSets() {
+        try {
+            int[] sizes = {5, 2 * NeighborSetFinder.KNN_TILE_SIZE + 37};
+            for (int size : sizes) {
+                DataSet dset = ToyDataGenerator.generateDiscreteData(size, 2,
+                        8, 3, size);
+                int k = Math.min(10, size - 1);
+                NeighborSetFinder nsfMatrix = new NeighborSetFinder(dset,
+                        CombinedMetric.FLOAT_EUCLIDEAN);
+                nsfMatrix.calculateDistances();
+                nsfMatrix.calculateNeighborSetsMultiThr(k, 3);
+                NeighborSetFinder nsfTiled = new NeighborSetFinder(dset,
+                        CombinedMetric.FLOAT_EUCLIDEAN);
+                nsfTiled.calculateNeighborSetsTiled(k, 3);
+                assertNull(nsfTiled.getDistances());
+                int[][] expectedNeighbors = nsfMatrix.getKNeighbors();
+                float[][] expectedDistances = nsfMatrix.getKDistances();
+                int[][] kNeighbors = nsfTiled.getKNeighbors();
+                float[][] kDistances = nsfTiled.getKDistances();
+                ArrayList<Integer>[] expectedReverse =
+                        nsfMatrix.getReverseNeighbors();
+                ArrayList<Integer>[] reverse = nsfTiled.getReverseNeighbors();
+                for (int i = 0; i < size; i++) {
+                    for (int kIndex = 0; kIndex < k; kIndex++) {
+                        assertEquals(expectedNeighbors[i][kIndex],
+                                kNeighbors[i][kIndex]);
+                        assertEquals(expectedDistances[i][kIndex],
+                                kDistances[i][kIndex]);
+                    }
+                    assertEquals(expectedReverse[i], reverse[i]);
+                    assertEquals(nsfMatrix.getNeighborFrequencies()[i],
+                            nsfTiled.getNeighborFrequencies()[i]);
+                    assertEquals(nsfMatrix.getBadFrequencies()[i],
+                            nsfTiled.getBadFrequencies()[i]);
+                }
+                assertEquals(nsfMatrix.getMeanNeighborBadness(),
+                        nsfTiled.getMeanNeighborBadness());
+                assertEquals(nsfMatrix.getNeighborBadnessStDev(),
+                        nsfTiled.getNeighborBadnessStDev());
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+}
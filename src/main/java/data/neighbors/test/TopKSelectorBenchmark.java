@@ -0,0 +1,164 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors.test;
+
+import data.neighbors.TopKSelector;
+import java.util.Random;
+import util.CommandLineParser;
+
+/**
+ * This script compares the running times of the heap-based top-k selection to
+ * the sorted insertion that was previously used in the kNN calculations, for
+ * neighborhood sizes from 5 to 200. Each round selects the k smallest values
+ * from each row of a random distance table. The selected neighbor lists of the
+ * two approaches are also compared, as a sanity check.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class TopKSelectorBenchmark {
+
+    // The number of warm-up rounds before the measurements.
+    private static final int WARMUP_ROUNDS = 5;
+    // The measured neighborhood sizes.
+    private static final int[] NEIGHBORHOOD_SIZES = {5, 10, 20, 50, 100, 200};
+    // Used to prevent the JIT compiler from removing the measured calls.
+    private static long sink = 0;
+
+    /**
+     * This method runs the benchmark.
+     *
+     * @param args Command line parameters, as specified.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineParser clp = new CommandLineParser(true);
+        clp.addParam("-numQueries", "Number of queries in a round.",
+                CommandLineParser.INTEGER, true, false);
+        clp.addParam("-numCandidates", "Number of candidates per query.",
+                CommandLineParser.INTEGER, true, false);
+        clp.addParam("-rounds", "Number of measured rounds.",
+                CommandLineParser.INTEGER, true, false);
+        clp.parseLine(args);
+        int numQueries = (Integer) clp.getParamValues("-numQueries").get(0);
+        int numCandidates = (Integer) clp.getParamValues("-numCandidates").
+                get(0);
+        int rounds = (Integer) clp.getParamValues("-rounds").get(0);
+        Random randa = new Random(1L);
+        float[][] distances = new float[numQueries][numCandidates];
+        for (int i = 0; i < numQueries; i++) {
+            for (int j = 0; j < numCandidates; j++) {
+                distances[i][j] = randa.nextFloat();
+            }
+        }
+        for (int k : NEIGHBORHOOD_SIZES) {
+            if (k > numCandidates) {
+                continue;
+            }
+            int[] neighbors = new int[k];
+            float[] kDistances = new float[k];
+            int[] neighborsInsertion = new int[k];
+            float[] kDistancesInsertion = new float[k];
+            TopKSelector selector = new TopKSelector(k);
+            for (int r = 0; r < WARMUP_ROUNDS; r++) {
+                runInsertionRound(distances, neighborsInsertion,
+                        kDistancesInsertion);
+                runSelectorRound(distances, selector, neighbors, kDistances);
+            }
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                runInsertionRound(distances, neighborsInsertion,
+                        kDistancesInsertion);
+            }
+            long elapsedInsertion = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                runSelectorRound(distances, selector, neighbors, kDistances);
+            }
+            long elapsedSelector = System.nanoTime() - start;
+            boolean identical = true;
+            for (int kIndex = 0; kIndex < k; kIndex++) {
+                if (neighbors[kIndex] != neighborsInsertion[kIndex]) {
+                    identical = false;
+                }
+            }
+            double numQueriesTotal = (double) rounds * numQueries;
+            System.out.println("k = " + k + ", insertion: "
+                    + (elapsedInsertion / numQueriesTotal)
+                    + " ns per query, heap: "
+                    + (elapsedSelector / numQueriesTotal)
+                    + " ns per query, identical results: " + identical);
+        }
+        System.out.println("checksum: " + sink);
+    }
+
+    /**
+     * This method selects the k smallest values from each row by the heap.
+     *
+     * @param distances float[][] containing the candidate distances.
+     * @param selector TopKSelector to use.
+     * @param neighbors int[] for the selected indexes.
+     * @param kDistances float[] for the selected distances.
+     */
+    private static void runSelectorRound(float[][] distances,
+            TopKSelector selector, int[] neighbors, float[] kDistances) {
+        long sum = 0;
+        for (int i = 0; i < distances.length; i++) {
+            selector.reset();
+            selector.offer(distances[i], 0, distances[i].length, 0);
+            selector.getSorted(neighbors, kDistances);
+            sum += neighbors[0];
+        }
+        sink += sum;
+    }
+
+    /**
+     * This method selects the k smallest values from each row by the sorted
+     * insertion that was previously used in the kNN calculations.
+     *
+     * @param distances float[][] containing the candidate distances.
+     * @param neighbors int[] for the selected indexes.
+     * @param kDistances float[] for the selected distances.
+     */
+    private static void runInsertionRound(float[][] distances,
+            int[] neighbors, float[] kDistances) {
+        int k = neighbors.length;
+        long sum = 0;
+        int index;
+        for (int i = 0; i < distances.length; i++) {
+            for (int kIndex = 0; kIndex < k; kIndex++) {
+                kDistances[kIndex] = Float.MAX_VALUE;
+            }
+            for (int j = 0; j < distances[i].length; j++) {
+                float currDistance = distances[i][j];
+                if (currDistance < kDistances[k - 1]) {
+                    // Insertion.
+                    index = k - 1;
+                    while (index > 0 && kDistances[index - 1]
+                            > currDistance) {
+                        kDistances[index] = kDistances[index - 1];
+                        neighbors[index] = neighbors[index - 1];
+                        index--;
+                    }
+                    kDistances[index] = currDistance;
+                    neighbors[index] = j;
+                }
+            }
+            sum += neighbors[0];
+        }
+        sink += sum;
+    }
+}
@@ -0,0 +1,169 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.neighbors.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.neighbors.TopKSelector;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the heap-based top-k selection against the sorted insertion
+ * that was previously used in the kNN calculations, including the order of the
+ * candidates at equal distances.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class TopKSelectorTest extends TestCase {
+
+    /**
+     * This method tests the single and the batch offers on distances with many
+     * ties, for different neighborhood sizes.
+     */
+    @Test
+    public static void testSelection() {
+        try {
+            Random randa = new Random(2);
+            int[] neighborhoodSizes = {1, 5, 17, 100, 200};
+            for (int k : neighborhoodSizes) {
+                TopKSelector single = new TopKSelector(k);
+                TopKSelector batch = new TopKSelector(k);
+                for (int query = 0; query < 20; query++) {
+                    int numCandidates = randa.nextInt(3 * k) + 1;
+                    float[] distances = new float[numCandidates];
+                    for (int j = 0; j < numCandidates; j++) {
+                        // Few distinct values, so that there are many ties.
+                        distances[j] = randa.nextInt(10);
+                    }
+                    int[] expectedNeighbors = new int[k];
+                    float[] expectedDistances = new float[k];
+                    int expectedLen = insertionSelect(distances, k,
+                            expectedNeighbors, expectedDistances);
+                    single.reset();
+                    for (int j = 0; j < numCandidates; j++) {
+                        single.offer(j, distances[j]);
+                    }
+                    batch.reset();
+                    int split = randa.nextInt(numCandidates + 1);
+                    batch.offer(distances, 0, split, 0);
+                    batch.offer(distances, split, numCandidates, split);
+                    TopKSelector[] selectors = {single, batch};
+                    for (TopKSelector selector : selectors) {
+                        int[] neighbors = new int[k];
+                        float[] kDistances = new float[k];
+                        assertEquals(expectedLen, selector.getSorted(neighbors,
+                                kDistances));
+                        for (int kIndex = 0; kIndex < expectedLen; kIndex++) {
+                            assertEquals(expectedNeighbors[kIndex],
+                                    neighbors[kIndex]);
+                            assertEquals(expectedDistances[kIndex],
+                                    kDistances[kIndex]);
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests that the different kNN calculation paths in the
+     * NeighborSetFinder produce the same kNN sets as the direct sorted
+     * insertion over the distance matrix.
+     */
+    @Test
+    public static void testNeighborSetFinderPaths() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(300, 3, 2, 1);
+            int k = 12;
+            NeighborSetFinder nsf = new NeighborSetFinder(dset,
+                    CombinedMetric.FLOAT_EUCLIDEAN);
+            nsf.calculateDistances();
+            float[][] dMat = nsf.getDistances();
+            nsf.calculateNeighborSets(k);
+            int[][] singleThreaded = nsf.getKNeighbors();
+            NeighborSetFinder nsfMulti = new NeighborSetFinder(dset, dMat,
+                    CombinedMetric.FLOAT_EUCLIDEAN);
+            nsfMulti.calculateNeighborSetsMultiThr(k, 4);
+            int[][] multiThreaded = nsfMulti.getKNeighbors();
+            for (int i = 0; i < dset.size(); i++) {
+                float[] rowDistances = new float[dset.size() - 1];
+                for (int j = 0; j < dset.size(); j++) {
+                    if (j != i) {
+                        rowDistances[j < i ? j : j - 1] = dMat[Math.min(i, j)][
+                                Math.max(i, j) - Math.min(i, j) - 1];
+                    }
+                }
+                int[] expected = new int[k];
+                insertionSelect(rowDistances, k, expected, new float[k]);
+                for (int kIndex = 0; kIndex < k; kIndex++) {
+                    if (expected[kIndex] >= i) {
+                        expected[kIndex]++;
+                    }
+                }
+                int[] fromQuery = NeighborSetFinder.getIndexesOfNeighbors(
+                        dset, i, k, CombinedMetric.FLOAT_EUCLIDEAN);
+                for (int kIndex = 0; kIndex < k; kIndex++) {
+                    assertEquals(expected[kIndex], singleThreaded[i][kIndex]);
+                    assertEquals(expected[kIndex], multiThreaded[i][kIndex]);
+                    assertEquals(expected[kIndex], fromQuery[kIndex]);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * The sorted insertion that was previously used in the kNN calculations,
+     * for comparisons.
+     *
+     * @param distances float[] of candidate distances.
+     * @param k Integer that is the neighborhood size.
+     * @param neighbors int[] for the selected indexes.
+     * @param kDistances float[] for the selected distances.
+     * @return Integer that is the number of selected candidates.
+     */
+    private static int insertionSelect(float[] distances, int k,
+            int[] neighbors, float[] kDistances) {
+        int kCurrLen = 0;
+        for (int j = 0; j < distances.length; j++) {
+            float currDist = distances[j];
+            if (kCurrLen == k && currDist >= kDistances[k - 1]) {
+                continue;
+            }
+            int l = kCurrLen < k ? kCurrLen : k - 1;
+            while ((l >= 1) && currDist < kDistances[l - 1]) {
+                kDistances[l] = kDistances[l - 1];
+                neighbors[l] = neighbors[l - 1];
+                l--;
+            }
+            kDistances[l] = currDist;
+            neighbors[l] = j;
+            if (kCurrLen < k) {
+                kCurrLen++;
+            }
+        }
+        return kCurrLen;
+    }
+}
@@ -19,6 +19,7 @@ package data.representation;
 
 import data.representation.util.DataMineConstants;
 import distances.kernel.Kernel;
+import distances.matrix.TriangularDistanceMatrix;
 import distances.primary.CombinedMetric;
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -59,6 +60,10 @@ public class DataSet implements Serializable {
     public ArrayList<DataInstance> data;
     private static final int DEFAULT_INIT_CAPACITY = 1000;
     private int initCapacity;
+    // An optional packed row-major copy of the float features, which is used
+    // by the distance, kernel and centroid calculations when present. It is a
+    // snapshot, so it is discarded by the methods that modify the data.
+    private transient PackedFeatureMatrix packedFeatures = null;
     
     /**
      * This method filters the features in the data and produces a filtered
@@ -187,6 +192,7 @@ public class DataSet implements Serializable {
      */
     public void orderInstancesByClasses() {
         if (!isEmpty()) {
+            packedFeatures = null;
             ArrayList<Integer> indexes = new ArrayList<>(size());
             for (int i = 0; i < size(); i++) {
                 indexes.add(i);
@@ -263,6 +269,7 @@ public class DataSet implements Serializable {
      * errors this method looks it up in the data and removes them.
      */
     public void removeZeroVectorInstances() {
+        packedFeatures = null;
         ArrayList<Integer> emptyInstanceIndexes = getEmptyInstanceIndexes();
         for (int i = 0; i < emptyInstanceIndexes.size(); i++) {
             // Since the list shifts to the left with each remove.
@@ -523,6 +530,43 @@ public class DataSet implements Serializable {
         return data.get(index);
     }
 
+    /**
+     * This method packs the float features of all the instances into a single
+     * contiguous row-major array. The DataInstance objects are not affected,
+     * so the existing code keeps working, while the distance, kernel and
+     * centroid calculations switch to the stride-based loops over the packed
+     * array. The packed matrix is a snapshot: it is discarded by the DataSet
+     * methods and the filters that modify the data, while any other direct
+     * modification of the instances or of the data list has to be followed by
+     * releasePackedFeatures() or by packing the features again.
+     *
+     * @return PackedFeatureMatrix holding the float features.
+     */
+    public PackedFeatureMatrix packFloatFeatures() {
+        packedFeatures = new PackedFeatureMatrix(this);
+        return packedFeatures;
+    }
+
+    /**
+     * @return PackedFeatureMatrix holding the float features, or null if the
+     * features have not been packed or the packed matrix no longer matches the
+     * size of the data.
+     */
+    public PackedFeatureMatrix getPackedFeatures() {
+        if (packedFeatures == null || packedFeatures.getNumRows() != size()
+                || packedFeatures.getNumCols() != getNumFloatAttr()) {
+            return null;
+        }
+        return packedFeatures;
+    }
+
+    /**
+     * This method discards the packed float features, if any.
+     */
+    public void releasePackedFeatures() {
+        packedFeatures = null;
+    }
+
     /**
      * An auxiliary method that returns the largest absolute float value among
      * all the attributes and all the instances.
@@ -619,6 +663,7 @@ public class DataSet implements Serializable {
      * @param attIndex index of the attribute within the float array.
      */
     public void standardizeFloatAtt(int attIndex) {
+        packedFeatures = null;
         double mean = 0;
         double variance = 0;
         int numAcceptableFAttValues = 0;
@@ -1065,10 +1110,7 @@ public class DataSet implements Serializable {
             float[][] distances = new float[size()][];
             for (int i = 0; i < size(); i++) {
                 distances[i] = new float[size() - i - 1];
-                for (int j = i + 1; j < size(); j++) {
-                    distances[i][j - i - 1] = cmet.dist(data.get(i),
-                            data.get(j));
-                }
+                cmet.dist(this, i, i + 1, size(), distances[i], 0);
             }
             return distances;
         }
@@ -1141,10 +1183,24 @@ public class DataSet implements Serializable {
         @Override
         public void run() {
             try {
-                for (int i = startRow; i <= endRow; i++) {
-                    kmat[i] = new float[size() - i];
-                    for (int j = i; j < size(); j++) {
-                        kmat[i][j - i] = ker.dot(data.get(i), data.get(j));
+                PackedFeatureMatrix packed = getPackedFeatures();
+                if (packed != null) {
+                    // The rows are read directly from the packed array.
+                    float[] values = packed.getValues();
+                    int numCols = packed.getNumCols();
+                    for (int i = startRow; i <= endRow; i++) {
+                        kmat[i] = new float[size() - i];
+                        for (int j = i; j < size(); j++) {
+                            kmat[i][j - i] = ker.dot(values, i * numCols,
+                                    values, j * numCols, numCols);
+                        }
+                    }
+                } else {
+                    for (int i = startRow; i <= endRow; i++) {
+                        kmat[i] = new float[size() - i];
+                        for (int j = i; j < size(); j++) {
+                            kmat[i][j - i] = ker.dot(data.get(i), data.get(j));
+                        }
                     }
                 }
             } catch (Exception e) {
@@ -1219,10 +1275,90 @@ public class DataSet implements Serializable {
             try {
                 for (int i = startRow; i <= endRow; i++) {
                     distances[i] = new float[size() - i - 1];
-                    for (int j = i + 1; j < size(); j++) {
-                        distances[i][j - i - 1] =
-                                cmet.dist(data.get(i), data.get(j));
-                    }
+                    cmet.dist(DataSet.this, i, i + 1, size(), distances[i],
+                            0);
+                }
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Calculate the distance matrix in a multi-threaded way and write it to the
+     * provided triangular matrix storage, which can be off-heap. Each thread
+     * fills in whole rows, one row at a time, so that only a single row buffer
+     * per thread is kept on the heap.
+     *
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param numThreads Number of threads to use.
+     * @param target TriangularDistanceMatrix to write the distances to. Its
+     * size must match the size of the data.
+     * @throws Exception
+     */
+    public void calculateDistMatrixMultThr(CombinedMetric cmet,
+            int numThreads, TriangularDistanceMatrix target) throws Exception {
+        if (target.size() != size()) {
+            throw new IllegalArgumentException("Matrix size " + target.size()
+                    + " does not match the data size " + size());
+        }
+        if (size() == 0) {
+            return;
+        }
+        int size = size();
+        int chunkSize = size / numThreads;
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads - 1; i++) {
+            threads[i] = new Thread(
+                    new TriangularDmCalculator(i * chunkSize,
+                    (i + 1) * chunkSize - 1, target, cmet));
+            threads[i].start();
+        }
+        threads[numThreads - 1] = new Thread(
+                new TriangularDmCalculator((numThreads - 1) * chunkSize,
+                size - 1, target, cmet));
+        threads[numThreads - 1].start();
+        for (int i = 0; i < numThreads; i++) {
+            if (threads[i] != null) {
+                try {
+                    threads[i].join();
+                } catch (Throwable t) {
+                }
+            }
+        }
+    }
+
+    class TriangularDmCalculator implements Runnable {
+
+        int startRow;
+        int endRow;
+        TriangularDistanceMatrix target;
+        CombinedMetric cmet;
+
+        /**
+         * Calculates the distances in a block of the matrix.
+         *
+         * @param startRow Start row index.
+         * @param endRow End row index.
+         * @param target TriangularDistanceMatrix to write to.
+         * @param cmet CombinedMetric object for distance calculations.
+         */
+        public TriangularDmCalculator(int startRow, int endRow,
+                TriangularDistanceMatrix target, CombinedMetric cmet) {
+            this.startRow = startRow;
+            this.endRow = endRow;
+            this.target = target;
+            this.cmet = cmet;
+        }
+
+        @Override
+        public void run() {
+            try {
+                float[] rowBuffer = new float[Math.max(size() - startRow - 1,
+                        0)];
+                for (int i = startRow; i <= endRow; i++) {
+                    cmet.dist(DataSet.this, i, i + 1, size(), rowBuffer, 0);
+                    target.setRow(i, rowBuffer);
                 }
             } catch (Exception e) {
                 System.err.println(e.getMessage());
@@ -1257,6 +1393,7 @@ public class DataSet implements Serializable {
      */
     public void addGaussianNoiseToNormalizedCollection(
             float pMutate, float stDev) {
+        packedFeatures = null;
         DataInstance instance;
         Random randa = new Random();
         float choice;
@@ -1450,6 +1587,7 @@ public class DataSet implements Serializable {
      * Normalize all float values to the [0, 1] range.
      */
     public void normalizeFloats() {
+        packedFeatures = null;
         if (hasFloatAttr()) {
             float[] maxVal = new float[getNumFloatAttr()];
             for (int i = 0; i < maxVal.length; i++) {
@@ -1800,6 +1938,7 @@ public class DataSet implements Serializable {
      * @param instance DataInstance for insertion.
      */
     public void addDataInstance(DataInstance instance) {
+        packedFeatures = null;
         if (data == null) {
             data = new ArrayList<>(DEFAULT_INIT_CAPACITY);
         }
@@ -0,0 +1,171 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.representation;
+
+import data.representation.util.DataMineConstants;
+import java.io.Serializable;
+
+/**
+ * This class holds the float features of a DataSet in a single contiguous
+ * row-major float array, so that the feature vector of the instance with index
+ * i occupies the positions from i * numCols to (i + 1) * numCols - 1. Compared
+ * to the separate fAttr arrays of the DataInstance objects, the packed layout
+ * avoids the per-array object headers and keeps the consecutive instances
+ * close to each other in memory, which improves cache locality in the hot
+ * loops of the distance, kernel and centroid calculations.
+ *
+ * The matrix is a snapshot of the feature values at the time when it was
+ * created. The DataInstance objects keep their own arrays and remain the
+ * primary representation, so the code that reads the fAttr arrays keeps
+ * working unchanged, at the cost of holding the float features twice while the
+ * matrix is alive. The code that modifies the fAttr arrays of a packed DataSet
+ * in place has to call DataSet.releasePackedFeatures(), as the packed values
+ * would otherwise be stale.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class PackedFeatureMatrix implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    // The largest number of entries that can be held in a single Java array.
+    private static final long MAX_ENTRIES = Integer.MAX_VALUE - 8;
+    private int numRows;
+    private int numCols;
+    private float[] values;
+    // Whether any of the packed values is treated as missing.
+    private boolean hasMissingValues;
+
+    /**
+     * Initialization.
+     *
+     * @param numRows Integer that is the number of instances.
+     * @param numCols Integer that is the number of float features.
+     */
+    public PackedFeatureMatrix(int numRows, int numCols) {
+        if ((long) numRows * (long) numCols > MAX_ENTRIES) {
+            throw new IllegalArgumentException("Too many entries to pack: "
+                    + numRows + " x " + numCols);
+        }
+        this.numRows = numRows;
+        this.numCols = numCols;
+        values = new float[numRows * numCols];
+    }
+
+    /**
+     * This constructor packs the float features of all the instances in the
+     * provided DataSet.
+     *
+     * @param dset DataSet to pack the float features of.
+     */
+    public PackedFeatureMatrix(DataSet dset) {
+        this(dset.size(), dset.getNumFloatAttr());
+        DataInstance instance;
+        for (int i = 0; i < numRows; i++) {
+            instance = dset.data.get(i);
+            if (instance.fAttr == null || instance.fAttr.length != numCols) {
+                throw new IllegalArgumentException("Instance " + i
+                        + " does not have " + numCols + " float features.");
+            }
+            System.arraycopy(instance.fAttr, 0, values, i * numCols, numCols);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (!DataMineConstants.isAcceptableFloat(values[i])) {
+                hasMissingValues = true;
+                break;
+            }
+        }
+    }
+
+    /**
+     * @return Integer that is the number of packed instances.
+     */
+    public int getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * @return Integer that is the number of float features, which is also the
+     * stride between the consecutive rows.
+     */
+    public int getNumCols() {
+        return numCols;
+    }
+
+    /**
+     * @return float[] that holds all the packed values in row-major order.
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param row Integer that is the instance index.
+     * @return Integer that is the position of the first feature of the
+     * instance in the packed array.
+     */
+    public int getRowOffset(int row) {
+        return row * numCols;
+    }
+
+    /**
+     * @param row Integer that is the instance index.
+     * @param col Integer that is the feature index.
+     * @return Float value of the feature.
+     */
+    public float get(int row, int col) {
+        return values[row * numCols + col];
+    }
+
+    /**
+     * @param row Integer that is the instance index.
+     * @param col Integer that is the feature index.
+     * @param value Float value to set.
+     */
+    public void set(int row, int col, float value) {
+        values[row * numCols + col] = value;
+        if (!DataMineConstants.isAcceptableFloat(value)) {
+            hasMissingValues = true;
+        }
+    }
+
+    /**
+     * @param row Integer that is the instance index.
+     * @param dest float[] to copy the features of the instance to.
+     */
+    public void getRow(int row, float[] dest) {
+        System.arraycopy(values, row * numCols, dest, 0, numCols);
+    }
+
+    /**
+     * @param row Integer that is the instance index.
+     * @return float[] that is a copy of the features of the instance.
+     */
+    public float[] getRowCopy(int row) {
+        float[] result = new float[numCols];
+        System.arraycopy(values, row * numCols, result, 0, numCols);
+        return result;
+    }
+
+    /**
+     * @return True if some of the packed values are missing, false otherwise.
+     * When there are no missing values, the unchecked distance kernels can be
+     * used safely.
+     */
+    public boolean hasMissingValues() {
+        return hasMissingValues;
+    }
+}
@@ -29,7 +29,6 @@ import java.io.FileInputStream;
 import java.util.ArrayList;
 import ioformat.FileUtil;
 import java.util.Random;
-import java.util.Set;
 
 /**
  * This class implements a document corpus data holder. DataInstance objects are
@@ -137,6 +136,7 @@ public class BOWDataSet extends DataSet {
             }
         }
         data = nonEmptyBOWInstances;
+        releasePackedFeatures();
     }
 
     @Override
@@ -206,16 +206,14 @@ public class BOWDataSet extends DataSet {
         float value;
         for (int i = 0; i < size(); i++) {
             instance = (BOWInstance) data.get(i);
-            HashMap<Integer, Float> indexMap =
-                    instance.getWordIndexesHash();
-            Set<Integer> keys = indexMap.keySet();
-            for (int index : keys) {
+            SparseVector wordVector = instance.getWordVector();
+            for (int pos = 0; pos < wordVector.size(); pos++) {
                 choice = randa.nextFloat();
                 if (choice < pMutate) {
-                    value = indexMap.get(index);
+                    value = wordVector.getValueAt(pos);
                     value = (float) Math.max(
                             value + stDev * randa.nextGaussian(), 0);
-                    indexMap.put(index, value);
+                    wordVector.setValueAt(pos, value);
                 }
             }
         }
@@ -352,15 +350,10 @@ public class BOWDataSet extends DataSet {
                 if (instance == null || instance.isEmpty()) {
                     continue;
                 }
-                HashMap<Integer, Float> indexMap =
-                        instance.getWordIndexesHash();
-                Set<Integer> keys = indexMap.keySet();
-                if (keys == null || keys.isEmpty()) {
-                    continue;
-                }
-                for (int wordIndex : keys) {
-                    pw.println(i + " " + wordIndex + " "
-                            + indexMap.get(wordIndex));
+                SparseVector wordVector = instance.getWordVector();
+                for (int pos = 0; pos < wordVector.size(); pos++) {
+                    pw.println(i + " " + wordVector.getIndexAt(pos) + " "
+                            + wordVector.getValueAt(pos));
                 }
             }
         } catch (Exception e) {
@@ -391,6 +384,7 @@ public class BOWDataSet extends DataSet {
         BufferedReader br = new BufferedReader(
                 new InputStreamReader(new FileInputStream(inFile)));
         // Initialization.
+        releasePackedFeatures();
         data = new ArrayList<>(5000);
         int index;
         int featureIndex;
@@ -439,14 +433,10 @@ public class BOWDataSet extends DataSet {
             if (instance == null || instance.isEmpty()) {
                 continue;
             }
-            HashMap<Integer, Float> indexMap =
-                    instance.getWordIndexesHash();
-            Set<Integer> keys = indexMap.keySet();
-            if (keys == null || keys.isEmpty()) {
-                continue;
-            }
-            for (int wordIndex : keys) {
-                increaseFrequency(wordIndex, indexMap.get(wordIndex));
+            SparseVector wordVector = instance.getWordVector();
+            for (int pos = 0; pos < wordVector.size(); pos++) {
+                increaseFrequency(wordVector.getIndexAt(pos),
+                        wordVector.getValueAt(pos));
             }
         }
         numWords = vocabulary.size();
@@ -21,7 +21,6 @@ import data.representation.DataSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Set;
 
 /**
  * This class implements a data holder for sparse data like documents, in a bag
@@ -32,10 +31,9 @@ import java.util.Set;
 public class BOWInstance extends DataInstance {
 
     public static final int INIT_HASH_SIZE = 500;
-    // This map stores the mapping between word indexes from the vocabulary
-    // and their weights or counts in the current document.
-    private HashMap<Integer, Float> wordIndexHash =
-            new HashMap<>(INIT_HASH_SIZE);
+    // This sparse vector stores the mapping between word indexes from the
+    // vocabulary and their weights or counts in the current document.
+    private SparseVector wordVector = new SparseVector();
     // The data context variable here is named corpus.
     public BOWDataSet corpus;
     // Name or path of the document from which the data was extracted, if
@@ -78,21 +76,9 @@ public class BOWInstance extends DataInstance {
             return null;
         }
         BOWInstance result = new BOWInstance(instances.get(0).corpus);
-        // Iterate through the maps.
+        // The sorted sparse vectors are merged one by one.
         for (BOWInstance instance : instances) {
-            HashMap<Integer, Float> instanceIndexHash =
-                    instance.getWordIndexesHash();
-            Set<Integer> keys = instanceIndexHash.keySet();
-            for (int index : keys) {
-                if (!result.getWordIndexesHash().containsKey(index)) {
-                    result.getWordIndexesHash().put(index,
-                            instanceIndexHash.get(index));
-                } else {
-                    result.getWordIndexesHash().put(index,
-                            result.getWordIndexesHash().get(index)
-                            + instanceIndexHash.get(index));
-                }
-            }
+            result.wordVector.addAll(instance.wordVector);
         }
         return result;
     }
@@ -103,10 +89,7 @@ public class BOWInstance extends DataInstance {
      * @param scalarValue Float value to be used in multiplication.
      */
     public void multiplyByScalar(float scalarValue) {
-        Set<Integer> keys = wordIndexHash.keySet();
-        for (int index : keys) {
-            wordIndexHash.put(index, wordIndexHash.get(index) * scalarValue);
-        }
+        wordVector.multiply(scalarValue);
     }
 
     /**
@@ -128,7 +111,7 @@ public class BOWInstance extends DataInstance {
      * @return The number of different words this representation encodes.
      */
     public int getNumberOfDifferentWords() {
-        return wordIndexHash.isEmpty() ? 0 : wordIndexHash.keySet().size();
+        return wordVector.size();
     }
 
     @Override
@@ -159,12 +142,7 @@ public class BOWInstance extends DataInstance {
      * @return Float that is the sum of all the word frequencies.
      */
     public float getDocumentLength() {
-        float length = 0;
-        Set<Integer> keys = wordIndexHash.keySet();
-        for (int index : keys) {
-            length += wordIndexHash.get(index);
-        }
-        return length;
+        return wordVector.sum();
     }
 
     /**
@@ -193,11 +171,7 @@ public class BOWInstance extends DataInstance {
      * @param count Float count of the occurrences to add.
      */
     public void addWord(int index, float count) {
-        if (!wordIndexHash.containsKey(index)) {
-            wordIndexHash.put(index, count);
-        } else {
-            wordIndexHash.put(index, wordIndexHash.get(index) + count);
-        }
+        wordVector.add(index, count);
     }
 
     /**
@@ -207,12 +181,7 @@ public class BOWInstance extends DataInstance {
      * @param count Float count of the occurrences to set.
      */
     public void setWordWeight(int index, float count) {
-        if (!wordIndexHash.containsKey(index)) {
-            wordIndexHash.put(index, count);
-        } else {
-            wordIndexHash.remove(index);
-            wordIndexHash.put(index, count);
-        }
+        wordVector.set(index, count);
     }
 
     /**
@@ -233,7 +202,7 @@ public class BOWInstance extends DataInstance {
      * @return The occurrence count of the word in this sparse representation.
      */
     public float getWordFrequency(int index) {
-        return wordIndexHash.containsKey(index) ? wordIndexHash.get(index) : 0;
+        return wordVector.get(index);
     }
 
     /**
@@ -242,9 +211,7 @@ public class BOWInstance extends DataInstance {
      * @param index Index of the word, from the corpus vocabulary.
      */
     public void removeWord(int index) {
-        if (wordIndexHash.containsKey(index)) {
-            wordIndexHash.remove(index);
-        }
+        wordVector.remove(index);
     }
 
     /**
@@ -277,28 +244,47 @@ public class BOWInstance extends DataInstance {
      * @return True if the index is mapped in this BoW, false otherwise.
      */
     public boolean containsIndex(int index) {
-        return wordIndexHash.containsKey(index);
+        return wordVector.contains(index);
     }
 
     /**
      * @return True if the map is empty, false otherwise.
      */
     public boolean isEmpty() {
-        return wordIndexHash == null || wordIndexHash.isEmpty();
+        return wordVector == null || wordVector.isEmpty();
+    }
+
+    /**
+     * @param wordVector SparseVector representing the BoW.
+     */
+    public void setWordVector(SparseVector wordVector) {
+        this.wordVector = wordVector;
+    }
+
+    /**
+     * @return SparseVector representing the BoW. Changes made to the vector
+     * are reflected in this instance.
+     */
+    public SparseVector getWordVector() {
+        return wordVector;
     }
 
     /**
-     * @param wordIndexHash HashMap<Integer, Float> representing the BoW.
+     * @param wordIndexHash HashMap<Integer, Float> representing the BoW, which
+     * is converted to the internal sparse vector representation.
      */
     public void setWordIndexesHash(HashMap<Integer, Float> wordIndexHash) {
-        this.wordIndexHash = wordIndexHash;
+        this.wordVector = SparseVector.fromMap(wordIndexHash);
     }
 
     /**
-     * @return HashMap<Integer, Float> representing the BoW.
+     * @return HashMap<Integer, Float> representing the BoW. The map is created
+     * from the internal sparse vector representation, so changes made to the
+     * map are not reflected in this instance. The getWordVector method should
+     * be preferred.
      */
     public HashMap<Integer, Float> getWordIndexesHash() {
-        return wordIndexHash;
+        return wordVector.toMap();
     }
 
     @Override
@@ -327,7 +313,7 @@ public class BOWInstance extends DataInstance {
         if (hasNomAtt()) {
             instanceCopy.sAttr = Arrays.copyOf(sAttr, sAttr.length);
         }
-        instanceCopy.setWordIndexesHash(wordIndexHash);
+        instanceCopy.setWordVector(wordVector.copy());
         instanceCopy.setCategory(getCategory());
         instanceCopy.corpus = corpus;
         return instanceCopy;
@@ -337,8 +323,8 @@ public class BOWInstance extends DataInstance {
     public boolean equalsByContent(DataInstance other) {
         boolean denseFeatureEquality = super.equalsByContent(other);
         BOWInstance otherBow = (BOWInstance) other;
-        boolean sparseFeatureEquality = wordIndexHash.equals(
-                otherBow.getWordIndexesHash());
+        boolean sparseFeatureEquality = wordVector.equals(
+                otherBow.getWordVector());
         return denseFeatureEquality && sparseFeatureEquality;
     }
 }
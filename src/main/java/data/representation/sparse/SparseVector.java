@@ -0,0 +1,397 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.representation.sparse;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class implements a sparse float vector as a pair of primitive arrays:
+ * the indexes of the non-zero entries, sorted in ascending order, and the
+ * corresponding values. Compared to a HashMap<Integer, Float>, there are no
+ * boxed keys and values or hash entry objects, and the distances between two
+ * vectors can be calculated by a single merge-join pass over the sorted index
+ * arrays. The arrays can have spare capacity, so only the first size() entries
+ * are valid.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class SparseVector implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final int[] EMPTY_INDEXES = new int[0];
+    private static final float[] EMPTY_VALUES = new float[0];
+    // Sorted indexes of the stored entries.
+    private int[] indexes;
+    // Values of the stored entries.
+    private float[] values;
+    // The number of stored entries.
+    private int size;
+
+    /**
+     * Initialization of an empty vector.
+     */
+    public SparseVector() {
+        indexes = EMPTY_INDEXES;
+        values = EMPTY_VALUES;
+    }
+
+    /**
+     * Initialization of an empty vector.
+     *
+     * @param capacity Integer that is the initial capacity.
+     */
+    public SparseVector(int capacity) {
+        indexes = new int[capacity];
+        values = new float[capacity];
+    }
+
+    /**
+     * Initialization from the arrays that are already sorted by index and
+     * contain no duplicate indexes. The arrays are used directly and not
+     * copied.
+     *
+     * @param indexes int[] of sorted entry indexes.
+     * @param values float[] of the corresponding entry values.
+     * @param size Integer that is the number of valid entries in the arrays.
+     */
+    public SparseVector(int[] indexes, float[] values, int size) {
+        this.indexes = indexes;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * This method creates a sparse vector from entries that might not be
+     * sorted and might contain repeated indexes, in which case the values for
+     * the same index are summed up. The arrays are used directly if they are
+     * already sorted.
+     *
+     * @param indexes int[] of entry indexes.
+     * @param values float[] of the corresponding entry values.
+     * @param size Integer that is the number of valid entries in the arrays.
+     * @return SparseVector containing the entries.
+     */
+    public static SparseVector fromEntries(int[] indexes, float[] values,
+            int size) {
+        boolean sorted = true;
+        for (int i = 1; i < size; i++) {
+            if (indexes[i] <= indexes[i - 1]) {
+                sorted = false;
+                break;
+            }
+        }
+        if (sorted) {
+            return new SparseVector(indexes, values, size);
+        }
+        SparseVector result = new SparseVector(size);
+        for (int i = 0; i < size; i++) {
+            result.add(indexes[i], values[i]);
+        }
+        return result;
+    }
+
+    /**
+     * @param map Map<Integer, Float> to convert.
+     * @return SparseVector containing the entries of the map.
+     */
+    public static SparseVector fromMap(Map<Integer, Float> map) {
+        if (map == null || map.isEmpty()) {
+            return new SparseVector();
+        }
+        int[] indexes = new int[map.size()];
+        int pos = 0;
+        for (int index : map.keySet()) {
+            indexes[pos++] = index;
+        }
+        Arrays.sort(indexes);
+        float[] values = new float[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            values[i] = map.get(indexes[i]);
+        }
+        return new SparseVector(indexes, values, indexes.length);
+    }
+
+    /**
+     * @return HashMap<Integer, Float> containing the entries of this vector.
+     */
+    public HashMap<Integer, Float> toMap() {
+        HashMap<Integer, Float> map = new HashMap<>(Math.max(size * 2, 16));
+        for (int i = 0; i < size; i++) {
+            map.put(indexes[i], values[i]);
+        }
+        return map;
+    }
+
+    /**
+     * @return Integer that is the number of stored entries.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return True if there are no stored entries, false otherwise.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return int[] that holds the sorted entry indexes. Only the first size()
+     * elements are valid.
+     */
+    public int[] getIndexes() {
+        return indexes;
+    }
+
+    /**
+     * @return float[] that holds the entry values. Only the first size()
+     * elements are valid.
+     */
+    public float[] getValues() {
+        return values;
+    }
+
+    /**
+     * @param pos Integer that is the position of the entry.
+     * @return Integer that is the index of the entry at the position.
+     */
+    public int getIndexAt(int pos) {
+        return indexes[pos];
+    }
+
+    /**
+     * @param pos Integer that is the position of the entry.
+     * @return Float value of the entry at the position.
+     */
+    public float getValueAt(int pos) {
+        return values[pos];
+    }
+
+    /**
+     * @param pos Integer that is the position of the entry.
+     * @param value Float value to set for the entry at the position.
+     */
+    public void setValueAt(int pos, float value) {
+        values[pos] = value;
+    }
+
+    /**
+     * @param index Integer that is the entry index.
+     * @return Integer that is the position of the entry if it is stored,
+     * otherwise (-(insertion point) - 1), as in Arrays.binarySearch.
+     */
+    public int find(int index) {
+        // Appending in the ascending order of indexes is the most common case.
+        if (size > 0 && index > indexes[size - 1]) {
+            return -size - 1;
+        }
+        return Arrays.binarySearch(indexes, 0, size, index);
+    }
+
+    /**
+     * @param index Integer that is the entry index.
+     * @return True if the entry is stored, false otherwise.
+     */
+    public boolean contains(int index) {
+        return find(index) >= 0;
+    }
+
+    /**
+     * @param index Integer that is the entry index.
+     * @return Float value of the entry, or zero if it is not stored.
+     */
+    public float get(int index) {
+        int pos = find(index);
+        return pos >= 0 ? values[pos] : 0;
+    }
+
+    /**
+     * This method sets the value of an entry, overwriting any previous value.
+     *
+     * @param index Integer that is the entry index.
+     * @param value Float value to set.
+     */
+    public void set(int index, float value) {
+        int pos = find(index);
+        if (pos >= 0) {
+            values[pos] = value;
+        } else {
+            insertAt(-pos - 1, index, value);
+        }
+    }
+
+    /**
+     * This method adds the value to the entry, inserting it if it is not
+     * already stored.
+     *
+     * @param index Integer that is the entry index.
+     * @param value Float value to add.
+     */
+    public void add(int index, float value) {
+        int pos = find(index);
+        if (pos >= 0) {
+            values[pos] += value;
+        } else {
+            insertAt(-pos - 1, index, value);
+        }
+    }
+
+    /**
+     * @param index Integer that is the index of the entry to remove.
+     */
+    public void remove(int index) {
+        int pos = find(index);
+        if (pos >= 0) {
+            System.arraycopy(indexes, pos + 1, indexes, pos, size - pos - 1);
+            System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+            size--;
+        }
+    }
+
+    /**
+     * @param pos Integer that is the insertion position.
+     * @param index Integer that is the entry index.
+     * @param value Float value of the entry.
+     */
+    private void insertAt(int pos, int index, float value) {
+        if (size == indexes.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, size + (size >> 1));
+            indexes = Arrays.copyOf(indexes, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        if (pos < size) {
+            System.arraycopy(indexes, pos, indexes, pos + 1, size - pos);
+            System.arraycopy(values, pos, values, pos + 1, size - pos);
+        }
+        indexes[pos] = index;
+        values[pos] = value;
+        size++;
+    }
+
+    /**
+     * This method adds another sparse vector to this one, by a single merge
+     * pass over the two sorted index arrays.
+     *
+     * @param other SparseVector to add.
+     */
+    public void addAll(SparseVector other) {
+        if (other == null || other.size == 0) {
+            return;
+        }
+        int[] newIndexes = new int[size + other.size];
+        float[] newValues = new float[size + other.size];
+        int i = 0, j = 0, k = 0;
+        while (i < size && j < other.size) {
+            if (indexes[i] < other.indexes[j]) {
+                newIndexes[k] = indexes[i];
+                newValues[k++] = values[i++];
+            } else if (indexes[i] > other.indexes[j]) {
+                newIndexes[k] = other.indexes[j];
+                newValues[k++] = other.values[j++];
+            } else {
+                newIndexes[k] = indexes[i];
+                newValues[k++] = values[i++] + other.values[j++];
+            }
+        }
+        while (i < size) {
+            newIndexes[k] = indexes[i];
+            newValues[k++] = values[i++];
+        }
+        while (j < other.size) {
+            newIndexes[k] = other.indexes[j];
+            newValues[k++] = other.values[j++];
+        }
+        indexes = newIndexes;
+        values = newValues;
+        size = k;
+    }
+
+    /**
+     * @param scalarValue Float value to multiply all the entries by.
+     */
+    public void multiply(float scalarValue) {
+        for (int i = 0; i < size; i++) {
+            values[i] *= scalarValue;
+        }
+    }
+
+    /**
+     * @return Float value that is the sum of all the entries.
+     */
+    public float sum() {
+        float sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += values[i];
+        }
+        return sum;
+    }
+
+    /**
+     * This method releases the spare capacity of the arrays.
+     */
+    public void trimToSize() {
+        if (size < indexes.length) {
+            indexes = Arrays.copyOf(indexes, size);
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * @return SparseVector that is a copy of this vector.
+     */
+    public SparseVector copy() {
+        return new SparseVector(Arrays.copyOf(indexes, size),
+                Arrays.copyOf(values, size), size);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof SparseVector)) {
+            return false;
+        }
+        SparseVector other = (SparseVector) obj;
+        if (size != other.size) {
+            return false;
+        }
+        for (int i = 0; i < size; i++) {
+            if (indexes[i] != other.indexes[i]
+                    || Float.floatToIntBits(values[i])
+                    != Float.floatToIntBits(other.values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        for (int i = 0; i < size; i++) {
+            hash = 31 * hash + indexes[i];
+            hash = 31 * hash + Float.floatToIntBits(values[i]);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,123 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.representation.sparse.test;
+
+import data.representation.sparse.SparseVector;
+import distances.primary.CosineMetric;
+import distances.primary.Manhattan;
+import distances.primary.MinkowskiMetric;
+import distances.sparse.SparseCosineMetric;
+import distances.sparse.SparseManhattan;
+import distances.sparse.SparseMinkowskiMetric;
+import java.util.HashMap;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the sorted sparse vector representation and the merge-join
+ * sparse distances.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class SparseVectorTest extends TestCase {
+
+    /**
+     * This method tests the insertion, update and removal of entries.
+     */
+    @Test
+    public static void testVectorOperations() {
+        SparseVector vector = new SparseVector();
+        HashMap<Integer, Float> map = new HashMap<>();
+        Random randa = new Random();
+        for (int i = 0; i < 500; i++) {
+            int index = randa.nextInt(200);
+            float value = randa.nextFloat();
+            if (randa.nextFloat() < 0.1f) {
+                vector.remove(index);
+                map.remove(index);
+            } else if (map.containsKey(index)) {
+                vector.add(index, value);
+                map.put(index, map.get(index) + value);
+            } else {
+                vector.set(index, value);
+                map.put(index, value);
+            }
+        }
+        assertEquals(map.size(), vector.size());
+        for (int pos = 1; pos < vector.size(); pos++) {
+            assertTrue(vector.getIndexAt(pos - 1) < vector.getIndexAt(pos));
+        }
+        for (int index : map.keySet()) {
+            assertEquals(map.get(index), vector.get(index), 0.00001f);
+        }
+        assertEquals(vector, SparseVector.fromMap(vector.toMap()));
+    }
+
+    /**
+     * This method tests the merge-join distances against the dense metrics.
+     */
+    @Test
+    public static void testSparseDistances() {
+        try {
+            int dim = 100;
+            Random randa = new Random();
+            for (int iter = 0; iter < 20; iter++) {
+                float[] firstDense = new float[dim];
+                float[] secondDense = new float[dim];
+                SparseVector first = generateSparseVector(dim, randa,
+                        firstDense);
+                SparseVector second = generateSparseVector(dim, randa,
+                        secondDense);
+                assertEquals(new Manhattan().dist(firstDense, secondDense),
+                        new SparseManhattan().dist(first, second), 0.0001f);
+                assertEquals(new MinkowskiMetric().dist(firstDense,
+                        secondDense), new SparseMinkowskiMetric().dist(first,
+                        second), 0.0001f);
+                assertEquals(new CosineMetric().dist(firstDense, secondDense),
+                        new SparseCosineMetric().dist(first, second), 0.0001f);
+                assertEquals(new SparseCosineMetric().dist(first, second),
+                        new SparseCosineMetric().dist(first.toMap(),
+                        second.toMap()), 0.0001f);
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method generates a random sparse vector, in an arbitrary order of
+     * indexes.
+     *
+     * @param dim Integer that is the dimensionality.
+     * @param randa Random number generator.
+     * @param dense float[] to write the dense representation to.
+     * @return SparseVector that was generated.
+     */
+    private static SparseVector generateSparseVector(int dim, Random randa,
+            float[] dense) {
+        int[] indexes = new int[dim / 5];
+        float[] values = new float[dim / 5];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = randa.nextInt(dim);
+            values[i] = randa.nextFloat();
+            dense[indexes[i]] += values[i];
+        }
+        return SparseVector.fromEntries(indexes, values, indexes.length);
+    }
+}
@@ -0,0 +1,172 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.representation.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import data.representation.PackedFeatureMatrix;
+import distances.kernel.RBF;
+import distances.primary.CombinedMetric;
+import filters.TFIDF;
+import java.util.ArrayList;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.unsupervised.Cluster;
+import org.junit.Test;
+
+/**
+ * This class tests whether the calculations on the packed float features match
+ * those on the DataInstance feature arrays.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class PackedFeatureMatrixTest extends TestCase {
+
+    /**
+     * This method tests the distance matrix calculations.
+     */
+    @Test
+    public static void testDistanceMatrices() {
+        try {
+            DataSet dset = generateToyData(50, 7, 1);
+            CombinedMetric[] metrics = {CombinedMetric.FLOAT_EUCLIDEAN,
+                CombinedMetric.FLOAT_MANHATTAN, CombinedMetric.FLOAT_COSINE,
+                CombinedMetric.FLOAT_MAX, CombinedMetric.FLOAT_BRAY_CURTIS};
+            for (CombinedMetric cmet : metrics) {
+                float[][] dMat = dset.calculateDistMatrix(cmet);
+                PackedFeatureMatrix packed = dset.packFloatFeatures();
+                assertTrue(packed.hasMissingValues());
+                float[][] dMatPacked = dset.calculateDistMatrixMultThr(cmet,
+                        3);
+                dset.releasePackedFeatures();
+                for (int i = 0; i < dMat.length; i++) {
+                    for (int j = 0; j < dMat[i].length; j++) {
+                        assertEquals(dMat[i][j], dMatPacked[i][j], 0.00001f);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the kernel matrix and the centroid calculations.
+     */
+    @Test
+    public static void testKernelsAndCentroids() {
+        try {
+            DataSet dset = generateToyData(40, 6, 2);
+            RBF ker = new RBF(0.5f);
+            float[][] kMat = dset.calculateKernelMatrixMultThr(ker, 2);
+            ArrayList<Integer> indexes = new ArrayList<>();
+            for (int i = 0; i < dset.size(); i += 3) {
+                indexes.add(i);
+            }
+            Cluster clust = new Cluster(dset, indexes);
+            DataInstance centroid = clust.getCentroid();
+            dset.packFloatFeatures();
+            float[][] kMatPacked = dset.calculateKernelMatrixMultThr(ker, 2);
+            DataInstance centroidPacked = clust.getCentroid();
+            for (int i = 0; i < kMat.length; i++) {
+                for (int j = 0; j < kMat[i].length; j++) {
+                    assertEquals(kMat[i][j], kMatPacked[i][j], 0.00001f);
+                }
+            }
+            for (int d = 0; d < dset.getNumFloatAttr(); d++) {
+                assertEquals(centroid.fAttr[d], centroidPacked.fAttr[d],
+                        0.00001f);
+            }
+            // Modifying the data discards the packed snapshot.
+            dset.addDataInstance(dset.getInstance(0).copy());
+            assertNull(dset.getPackedFeatures());
+            // So does re-ordering it, which keeps the size unchanged.
+            dset.packFloatFeatures();
+            dset.orderInstancesByClasses();
+            assertNull(dset.getPackedFeatures());
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests whether the in-place re-weighting of the features by
+     * the TF-IDF filter discards the packed snapshot, so that the packed
+     * distance paths do not read the stale values.
+     */
+    @Test
+    public static void testTFIDFOnPackedFeatures() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(30, 8, 3);
+            // The terms that occur in all the documents get a zero weight, so
+            // some of the entries are zeroed out.
+            Random randa = new Random(3);
+            for (int i = 0; i < dset.size(); i++) {
+                for (int d = 0; d < dset.getNumFloatAttr(); d++) {
+                    if (randa.nextFloat() < 0.4f) {
+                        dset.getInstance(i).fAttr[d] = 0;
+                    }
+                }
+            }
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            float[][] dMatBefore = dset.calculateDistMatrix(cmet);
+            dset.packFloatFeatures();
+            TFIDF.filterFloats(dset);
+            assertNull(dset.getPackedFeatures());
+            float[][] dMat = dset.calculateDistMatrix(cmet);
+            float[][] dMatPacked = dset.calculateDistMatrixMultThr(cmet, 2);
+            float[] block = new float[dset.size()];
+            boolean changed = false;
+            for (int i = 0; i < dset.size(); i++) {
+                cmet.dist(dset, i, 0, dset.size(), block, 0);
+                for (int j = 0; j < dset.size(); j++) {
+                    float unpacked = cmet.dist(dset.getInstance(i),
+                            dset.getInstance(j));
+                    assertEquals(unpacked, cmet.dist(dset, i,
+                            dset.getInstance(j)), 0.00001f);
+                    assertEquals(unpacked, block[j], 0.00001f);
+                }
+                for (int j = 0; j < dMat[i].length; j++) {
+                    assertEquals(dMat[i][j], dMatPacked[i][j], 0.00001f);
+                    if (Math.abs(dMat[i][j] - dMatBefore[i][j]) > 0.001f) {
+                        changed = true;
+                    }
+                }
+            }
+            assertTrue(changed);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method generates a toy dataset with random float features and a
+     * missing value.
+     *
+     * @param size Integer that is the number of instances.
+     * @param dim Integer that is the number of float features.
+     * @param seed Long that is the random seed.
+     * @return DataSet that is a random toy dataset for testing.
+     */
+    private static DataSet generateToyData(int size, int dim, long seed) {
+        DataSet dset = ToyDataGenerator.generateUniformData(size, dim, seed);
+        dset.getInstance(size / 2).fAttr[dim / 2] = Float.MAX_VALUE;
+        return dset;
+    }
+}
@@ -0,0 +1,868 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.structures;
+
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import ioformat.FileUtil;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class implements the vantage point tree, a metric space index that
+ * supports exact kNN and range queries under any CombinedMetric that satisfies
+ * the triangle inequality. Each inner node selects a vantage point and splits
+ * the remaining points by the median of their distances to it. The distance
+ * bounds of both subtrees are stored in the node, so that the subtrees that
+ * can not contain any of the results are pruned via the triangle inequality.
+ * Unlike the KDTree, the tree does not depend on the individual dimensions,
+ * so it can also be used with sparse and mixed representations. If the metric
+ * does not satisfy the triangle inequality, the queries are still answered,
+ * but the results are only approximate.
+ *
+ * The top levels of the tree can be built in parallel, as the subtrees are
+ * independent. The tree is serializable, along with the indexed data and the
+ * metric, so it can be built once and re-used.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class VPTree implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    public static final int DEFAULT_LEAF_SIZE = 16;
+    public static final int DEFAULT_NUM_THREADS = 8;
+    // Data that is indexed by the tree.
+    private DataSet dset;
+    // Metric that is used for the distance calculations.
+    private CombinedMetric cmet;
+    // Maximal number of points in a leaf bucket.
+    private int leafSize = DEFAULT_LEAF_SIZE;
+    // Root node of the tree.
+    private VPNode root;
+    // Seed for the random vantage point selection.
+    private long seed = 1L;
+
+    /**
+     * This class implements a node of the tree. Leaf nodes hold a bucket of
+     * point indexes, while the inner nodes hold a vantage point and the
+     * distance bounds of their subtrees.
+     */
+    static class VPNode implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+        // Index of the vantage point in the inner nodes.
+        int vantagePoint = -1;
+        // Maximal distance from the vantage point in the inner subtree.
+        float innerMax = Float.NEGATIVE_INFINITY;
+        // Minimal and maximal distances from the vantage point in the outer
+        // subtree.
+        float outerMin = Float.POSITIVE_INFINITY;
+        float outerMax = Float.NEGATIVE_INFINITY;
+        VPNode inner;
+        VPNode outer;
+        // Point indexes in the leaf nodes.
+        int[] bucket;
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param dset DataSet object to index.
+     * @param cmet CombinedMetric object for distance calculations.
+     */
+    public VPTree(DataSet dset, CombinedMetric cmet) {
+        this.dset = dset;
+        this.cmet = cmet;
+    }
+
+    /**
+     * @param leafSize Integer that is the maximal number of points in a leaf.
+     */
+    public void setLeafSize(int leafSize) {
+        this.leafSize = Math.max(1, leafSize);
+    }
+
+    /**
+     * @return Integer that is the maximal number of points in a leaf.
+     */
+    public int getLeafSize() {
+        return leafSize;
+    }
+
+    /**
+     * @param seed Long that is the seed for the vantage point selection.
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return DataSet object that is indexed by the tree.
+     */
+    public DataSet getDataSet() {
+        return dset;
+    }
+
+    /**
+     * @return CombinedMetric object that is used for distance calculations.
+     */
+    public CombinedMetric getCombinedMetric() {
+        return cmet;
+    }
+
+    /**
+     * @return True if the tree has been built, false otherwise.
+     */
+    public boolean isBuilt() {
+        return root != null;
+    }
+
+    /**
+     * This method builds the tree by using the default number of threads.
+     *
+     * @throws Exception
+     */
+    public void build() throws Exception {
+        build(DEFAULT_NUM_THREADS);
+    }
+
+    /**
+     * This method builds the tree. The subtrees at the top levels are built in
+     * separate threads.
+     *
+     * @param numThreads Integer that is the number of threads to use.
+     * @throws Exception
+     */
+    public void build(int numThreads) throws Exception {
+        if (dset == null || dset.isEmpty()) {
+            root = null;
+            return;
+        }
+        int size = dset.size();
+        int[] items = new int[size];
+        for (int i = 0; i < size; i++) {
+            items[i] = i;
+        }
+        float[] itemDists = new float[size];
+        // The number of levels at which the subtrees are built in parallel.
+        int parallelDepth = 0;
+        while ((1 << parallelDepth) < numThreads) {
+            parallelDepth++;
+        }
+        SubtreeBuilder builder = new SubtreeBuilder(items, itemDists, 0, size,
+                0, parallelDepth, new Random(seed));
+        builder.run();
+        if (builder.error != null) {
+            throw builder.error;
+        }
+        root = builder.node;
+    }
+
+    /**
+     * This class builds a subtree over a range of the point index array.
+     */
+    class SubtreeBuilder implements Runnable {
+
+        private int[] items;
+        private float[] itemDists;
+        private int start;
+        private int end;
+        private int depth;
+        private int parallelDepth;
+        private Random randa;
+        // The built subtree root.
+        VPNode node;
+        // The first error encountered while building, if any.
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param items int[] of point indexes, shared between the builders.
+         * @param itemDists float[] of distances to the vantage points, shared
+         * between the builders.
+         * @param start Integer that is the first position in the range.
+         * @param end Integer that is the position after the range end.
+         * @param depth Integer that is the depth of the subtree root.
+         * @param parallelDepth Integer that is the depth up to which the
+         * subtrees are built in separate threads.
+         * @param randa Random number generator for this subtree.
+         */
+        SubtreeBuilder(int[] items, float[] itemDists, int start, int end,
+                int depth, int parallelDepth, Random randa) {
+            this.items = items;
+            this.itemDists = itemDists;
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+            this.parallelDepth = parallelDepth;
+            this.randa = randa;
+        }
+
+        @Override
+        public void run() {
+            try {
+                node = buildNode();
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /**
+         * @return VPNode that is the root of the subtree.
+         * @throws Exception
+         */
+        private VPNode buildNode() throws Exception {
+            if (start >= end) {
+                return null;
+            }
+            VPNode result = new VPNode();
+            if (end - start <= leafSize) {
+                result.bucket = Arrays.copyOfRange(items, start, end);
+                return result;
+            }
+            // Select a random vantage point and move it to the range start.
+            swap(items, itemDists, start, start + randa.nextInt(end - start));
+            result.vantagePoint = items[start];
+            DataInstance vantageInstance = dset.data.get(items[start]);
+            for (int i = start + 1; i < end; i++) {
+                itemDists[i] = cmet.dist(vantageInstance,
+                        dset.data.get(items[i]));
+            }
+            // Split by the median distance.
+            int median = start + 1 + (end - start - 1) / 2;
+            select(items, itemDists, start + 1, end - 1, median);
+            for (int i = start + 1; i < median; i++) {
+                result.innerMax = Math.max(result.innerMax, itemDists[i]);
+            }
+            for (int i = median; i < end; i++) {
+                result.outerMin = Math.min(result.outerMin, itemDists[i]);
+                result.outerMax = Math.max(result.outerMax, itemDists[i]);
+            }
+            SubtreeBuilder innerBuilder = new SubtreeBuilder(items, itemDists,
+                    start + 1, median, depth + 1, parallelDepth,
+                    new Random(randa.nextLong()));
+            SubtreeBuilder outerBuilder = new SubtreeBuilder(items, itemDists,
+                    median, end, depth + 1, parallelDepth,
+                    new Random(randa.nextLong()));
+            if (depth < parallelDepth) {
+                Thread outerThread = new Thread(outerBuilder);
+                outerThread.start();
+                innerBuilder.run();
+                try {
+                    outerThread.join();
+                } catch (Throwable t) {
+                    System.err.println(t.getMessage());
+                }
+            } else {
+                innerBuilder.run();
+                outerBuilder.run();
+            }
+            if (innerBuilder.error != null) {
+                throw innerBuilder.error;
+            }
+            if (outerBuilder.error != null) {
+                throw outerBuilder.error;
+            }
+            result.inner = innerBuilder.node;
+            result.outer = outerBuilder.node;
+            return result;
+        }
+    }
+
+    /**
+     * @param items int[] of point indexes.
+     * @param itemDists float[] of the corresponding distances.
+     * @param first Integer that is the first position to swap.
+     * @param second Integer that is the second position to swap.
+     */
+    private static void swap(int[] items, float[] itemDists, int first,
+            int second) {
+        int tempItem = items[first];
+        items[first] = items[second];
+        items[second] = tempItem;
+        float tempDist = itemDists[first];
+        itemDists[first] = itemDists[second];
+        itemDists[second] = tempDist;
+    }
+
+    /**
+     * This method partially sorts the range by the distances, so that the
+     * element at the target position is the one that would be there if the
+     * range was sorted, with no larger elements before it and no smaller
+     * elements after it.
+     *
+     * @param items int[] of point indexes.
+     * @param itemDists float[] of the corresponding distances.
+     * @param left Integer that is the first position in the range.
+     * @param right Integer that is the last position in the range.
+     * @param target Integer that is the target position.
+     */
+    private static void select(int[] items, float[] itemDists, int left,
+            int right, int target) {
+        while (right > left) {
+            float pivot = itemDists[(left + right) >>> 1];
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (Float.compare(itemDists[i], pivot) < 0) {
+                    i++;
+                }
+                while (Float.compare(itemDists[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(items, itemDists, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            if (target <= j) {
+                right = j;
+            } else if (target >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * This method finds the k-nearest neighbors of a query point.
+     *
+     * @param query DataInstance that is the query point.
+     * @param k Integer that is the neighborhood size.
+     * @return int[] that contains the indexes of the k-nearest neighbors,
+     * sorted by the distance to the query point.
+     * @throws Exception
+     */
+    public int[] getKNeighbors(DataInstance query, int k) throws Exception {
+        int[] neighbors = new int[k];
+        float[] distances = new float[k];
+        int kCurrLen = getKNeighbors(query, k, -1, neighbors, distances);
+        return kCurrLen == k ? neighbors : Arrays.copyOf(neighbors, kCurrLen);
+    }
+
+    /**
+     * This method finds the k-nearest neighbors of a point from the indexed
+     * data.
+     *
+     * @param index Integer that is the index of the query point, which is
+     * excluded from its own kNN set.
+     * @param k Integer that is the neighborhood size.
+     * @return int[] that contains the indexes of the k-nearest neighbors,
+     * sorted by the distance to the query point.
+     * @throws Exception
+     */
+    public int[] getKNeighbors(int index, int k) throws Exception {
+        int[] neighbors = new int[k];
+        float[] distances = new float[k];
+        int kCurrLen = getKNeighbors(dset.data.get(index), k, index,
+                neighbors, distances);
+        return kCurrLen == k ? neighbors : Arrays.copyOf(neighbors, kCurrLen);
+    }
+
+    /**
+     * This method finds the k-nearest neighbors of a query point.
+     *
+     * @param query DataInstance that is the query point.
+     * @param k Integer that is the neighborhood size.
+     * @param exclude Integer that is the index of the point to exclude from
+     * the kNN set, or -1 if none.
+     * @param neighbors int[] of length k that will hold the kNN set.
+     * @param distances float[] of length k that will hold the kNN distances.
+     * @return Integer that is the number of the found neighbors, which is
+     * smaller than k only if there are not enough indexed points.
+     * @throws Exception
+     */
+    public int getKNeighbors(DataInstance query, int k, int exclude,
+            int[] neighbors, float[] distances) throws Exception {
+        if (root == null || k <= 0) {
+            return 0;
+        }
+        KNNState state = new KNNState(k, neighbors, distances);
+        searchKNN(root, query, exclude, state);
+        return state.kCurrLen;
+    }
+
+    /**
+     * This class holds the current state of a kNN query.
+     */
+    private static class KNNState {
+
+        int k;
+        int[] neighbors;
+        float[] distances;
+        int kCurrLen = 0;
+
+        /**
+         * Initialization.
+         *
+         * @param k Integer that is the neighborhood size.
+         * @param neighbors int[] that will hold the kNN set.
+         * @param distances float[] that will hold the kNN distances.
+         */
+        KNNState(int k, int[] neighbors, float[] distances) {
+            this.k = k;
+            this.neighbors = neighbors;
+            this.distances = distances;
+        }
+
+        /**
+         * @return Float value that is the current search radius.
+         */
+        float getRadius() {
+            return kCurrLen < k ? Float.POSITIVE_INFINITY
+                    : distances[k - 1];
+        }
+
+        /**
+         * This method inserts a point into the kNN set if it is closer than
+         * the current k-th nearest neighbor.
+         *
+         * @param index Integer that is the point index.
+         * @param dist Float value that is the distance to the point.
+         */
+        void insert(int index, float dist) {
+            if (kCurrLen == k && !(dist < distances[k - 1])) {
+                return;
+            }
+            int pos = kCurrLen == k ? k - 1 : kCurrLen;
+            while (pos > 0 && distances[pos - 1] > dist) {
+                distances[pos] = distances[pos - 1];
+                neighbors[pos] = neighbors[pos - 1];
+                pos--;
+            }
+            distances[pos] = dist;
+            neighbors[pos] = index;
+            if (kCurrLen < k) {
+                kCurrLen++;
+            }
+        }
+    }
+
+    /**
+     * This method searches a subtree for the k-nearest neighbors.
+     *
+     * @param node VPNode that is the subtree root.
+     * @param query DataInstance that is the query point.
+     * @param exclude Integer that is the index of the point to exclude.
+     * @param state KNNState that is the current query state.
+     * @throws Exception
+     */
+    private void searchKNN(VPNode node, DataInstance query, int exclude,
+            KNNState state) throws Exception {
+        if (node == null) {
+            return;
+        }
+        if (node.bucket != null) {
+            for (int index : node.bucket) {
+                if (index != exclude) {
+                    state.insert(index, cmet.dist(query,
+                            dset.data.get(index)));
+                }
+            }
+            return;
+        }
+        float dist = cmet.dist(query, dset.data.get(node.vantagePoint));
+        if (node.vantagePoint != exclude) {
+            state.insert(node.vantagePoint, dist);
+        }
+        // The subtree that is more likely to contain the neighbors is
+        // searched first, so that the radius shrinks faster.
+        if (dist <= node.innerMax) {
+            if (!(dist - state.getRadius() > node.innerMax)) {
+                searchKNN(node.inner, query, exclude, state);
+            }
+            if (canContainOuter(node, dist, state.getRadius())) {
+                searchKNN(node.outer, query, exclude, state);
+            }
+        } else {
+            if (canContainOuter(node, dist, state.getRadius())) {
+                searchKNN(node.outer, query, exclude, state);
+            }
+            if (!(dist - state.getRadius() > node.innerMax)) {
+                searchKNN(node.inner, query, exclude, state);
+            }
+        }
+    }
+
+    /**
+     * @param node VPNode that is the inner node.
+     * @param dist Float value that is the distance from the query point to the
+     * vantage point.
+     * @param radius Float value that is the search radius.
+     * @return True if the outer subtree can contain points within the radius.
+     */
+    private static boolean canContainOuter(VPNode node, float dist,
+            float radius) {
+        return !(dist + radius < node.outerMin)
+                && !(dist - radius > node.outerMax);
+    }
+
+    /**
+     * This class is a growable buffer of point indexes for the range queries,
+     * which can be re-used across many queries without boxing the indexes.
+     */
+    public static class IndexBuffer {
+
+        private int[] indexes;
+        private int size = 0;
+
+        /**
+         * Initialization.
+         *
+         * @param capacity Integer that is the initial capacity.
+         */
+        public IndexBuffer(int capacity) {
+            indexes = new int[Math.max(capacity, 1)];
+        }
+
+        /**
+         * @param index Integer that is the point index to append.
+         */
+        public void add(int index) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, 2 * size);
+            }
+            indexes[size++] = index;
+        }
+
+        /**
+         * Empties the buffer, while keeping the allocated memory.
+         */
+        public void clear() {
+            size = 0;
+        }
+
+        /**
+         * @return Integer that is the number of indexes in the buffer.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @param pos Integer that is the position in the buffer.
+         * @return Integer that is the point index at the position.
+         */
+        public int get(int pos) {
+            return indexes[pos];
+        }
+
+        /**
+         * @return int[] that is a copy of the indexes in the buffer.
+         */
+        public int[] toArray() {
+            return Arrays.copyOf(indexes, size);
+        }
+    }
+
+    /**
+     * This method finds all the points that are closer to the query point than
+     * the provided radius.
+     *
+     * @param query DataInstance that is the query point.
+     * @param radius Float value that is the query radius.
+     * @return ArrayList<Integer> of the indexes of the points closer than the
+     * radius to the query point.
+     * @throws Exception
+     */
+    public ArrayList<Integer> rangeQuery(DataInstance query, float radius)
+            throws Exception {
+        IndexBuffer result = new IndexBuffer(16);
+        searchRange(root, query, -1, radius, result);
+        return toList(result);
+    }
+
+    /**
+     * This method finds all the points that are closer to a point from the
+     * indexed data than the provided radius.
+     *
+     * @param index Integer that is the index of the query point, which is
+     * excluded from the result.
+     * @param radius Float value that is the query radius.
+     * @return ArrayList<Integer> of the indexes of the points closer than the
+     * radius to the query point.
+     * @throws Exception
+     */
+    public ArrayList<Integer> rangeQuery(int index, float radius)
+            throws Exception {
+        IndexBuffer result = new IndexBuffer(16);
+        searchRange(root, dset.data.get(index), index, radius, result);
+        return toList(result);
+    }
+
+    /**
+     * This method finds all the points that are closer to a point from the
+     * indexed data than the provided radius and writes them to a re-usable
+     * buffer. It is safe to call concurrently with different buffers.
+     *
+     * @param index Integer that is the index of the query point, which is
+     * excluded from the result.
+     * @param radius Float value that is the query radius.
+     * @param result IndexBuffer that is cleared and filled with the indexes of
+     * the points closer than the radius to the query point.
+     * @return Integer that is the number of the found points.
+     * @throws Exception
+     */
+    public int rangeQuery(int index, float radius, IndexBuffer result)
+            throws Exception {
+        result.clear();
+        searchRange(root, dset.data.get(index), index, radius, result);
+        return result.size();
+    }
+
+    /**
+     * @param buffer IndexBuffer of point indexes.
+     * @return ArrayList<Integer> of the point indexes.
+     */
+    private static ArrayList<Integer> toList(IndexBuffer buffer) {
+        ArrayList<Integer> result = new ArrayList<>(buffer.size());
+        for (int pos = 0; pos < buffer.size(); pos++) {
+            result.add(buffer.get(pos));
+        }
+        return result;
+    }
+
+    /**
+     * This method searches a subtree for the points within the radius.
+     *
+     * @param node VPNode that is the subtree root.
+     * @param query DataInstance that is the query point.
+     * @param exclude Integer that is the index of the point to exclude.
+     * @param radius Float value that is the query radius.
+     * @param result IndexBuffer to add the found points to.
+     * @throws Exception
+     */
+    private void searchRange(VPNode node, DataInstance query, int exclude,
+            float radius, IndexBuffer result) throws Exception {
+        if (node == null) {
+            return;
+        }
+        if (node.bucket != null) {
+            for (int index : node.bucket) {
+                if (index != exclude && cmet.dist(query,
+                        dset.data.get(index)) < radius) {
+                    result.add(index);
+                }
+            }
+            return;
+        }
+        float dist = cmet.dist(query, dset.data.get(node.vantagePoint));
+        if (node.vantagePoint != exclude && dist < radius) {
+            result.add(node.vantagePoint);
+        }
+        if (!(dist - radius >= node.innerMax)) {
+            searchRange(node.inner, query, exclude, radius, result);
+        }
+        if (!(dist + radius <= node.outerMin)
+                && !(dist - radius >= node.outerMax)) {
+            searchRange(node.outer, query, exclude, radius, result);
+        }
+    }
+
+    /**
+     * This method calculates the kNN sets of the query points in parallel.
+     *
+     * @param queries DataSet of the query points.
+     * @param k Integer that is the neighborhood size, which can not exceed the
+     * number of the indexed points.
+     * @param numThreads Integer that is the number of threads to use.
+     * @param kDistances float[][] that will hold the kNN distances, one row of
+     * length k for each query. It can be null, if the distances are not
+     * needed.
+     * @return int[][] that are the kNN sets of the query points.
+     * @throws Exception
+     */
+    public int[][] getKNeighbors(DataSet queries, int k, int numThreads,
+            float[][] kDistances) throws Exception {
+        if (queries == null || queries.isEmpty()) {
+            return null;
+        }
+        if (dset == null || k <= 0 || k > dset.size()) {
+            throw new Exception("Bad neighborhood size " + k + ".");
+        }
+        int[][] kNeighbors = new int[queries.size()][k];
+        runQueries(queries, k, numThreads, kNeighbors, kDistances);
+        return kNeighbors;
+    }
+
+    /**
+     * This method calculates the kNN sets of all the indexed points in
+     * parallel and generates a NeighborSetFinder object that holds them.
+     *
+     * @param k Integer that is the neighborhood size.
+     * @param numThreads Integer that is the number of threads to use.
+     * @return NeighborSetFinder object holding the calculated kNN sets.
+     * @throws Exception
+     */
+    public NeighborSetFinder getNeighborSetFinder(int k, int numThreads)
+            throws Exception {
+        if (dset == null || k <= 0 || k >= dset.size()) {
+            throw new Exception("Bad neighborhood size " + k + ".");
+        }
+        int[][] kNeighbors = new int[dset.size()][k];
+        float[][] kDistances = new float[dset.size()][k];
+        runQueries(null, k, numThreads, kNeighbors, kDistances);
+        NeighborSetFinder nsf = new NeighborSetFinder(dset, cmet);
+        int[] kCurrLen = new int[dset.size()];
+        Arrays.fill(kCurrLen, k);
+        nsf.setKNeighbors(kNeighbors, kDistances, kCurrLen);
+        return nsf;
+    }
+
+    /**
+     * This method splits the queries into chunks and processes them in
+     * parallel.
+     *
+     * @param queries DataSet of the query points, or null if the indexed
+     * points are the queries.
+     * @param k Integer that is the neighborhood size.
+     * @param numThreads Integer that is the number of threads to use.
+     * @param kNeighbors int[][] that will hold the kNN sets.
+     * @param kDistances float[][] that will hold the kNN distances, or null.
+     * @throws Exception
+     */
+    private void runQueries(DataSet queries, int k, int numThreads,
+            int[][] kNeighbors, float[][] kDistances) throws Exception {
+        if (root == null) {
+            build(numThreads);
+        }
+        int size = queries == null ? dset.size() : queries.size();
+        numThreads = Math.max(1, Math.min(numThreads, size));
+        int chunkSize = size / numThreads;
+        Thread[] threads = new Thread[numThreads];
+        QueryCalculator[] calculators = new QueryCalculator[numThreads];
+        for (int tIndex = 0; tIndex < numThreads; tIndex++) {
+            int endIndex = tIndex == numThreads - 1 ? size - 1
+                    : (tIndex + 1) * chunkSize - 1;
+            calculators[tIndex] = new QueryCalculator(queries,
+                    tIndex * chunkSize, endIndex, k, kNeighbors, kDistances);
+            threads[tIndex] = new Thread(calculators[tIndex]);
+            threads[tIndex].start();
+        }
+        for (int tIndex = 0; tIndex < numThreads; tIndex++) {
+            if (threads[tIndex] != null) {
+                try {
+                    threads[tIndex].join();
+                } catch (Throwable t) {
+                    System.err.println(t.getMessage());
+                }
+            }
+        }
+        for (int tIndex = 0; tIndex < numThreads; tIndex++) {
+            if (calculators[tIndex].error != null) {
+                throw calculators[tIndex].error;
+            }
+        }
+    }
+
+    /**
+     * This class processes a chunk of the kNN queries.
+     */
+    class QueryCalculator implements Runnable {
+
+        private DataSet queries;
+        private int startIndex;
+        private int endIndex;
+        private int k;
+        private int[][] kNeighbors;
+        private float[][] kDistances;
+        // The first error encountered while querying, if any.
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param queries DataSet of the query points, or null if the indexed
+         * points are the queries.
+         * @param startIndex Index of the first query to process.
+         * @param endIndex Index of the last query to process.
+         * @param k Integer that is the neighborhood size.
+         * @param kNeighbors int[][] that will hold the kNN sets.
+         * @param kDistances float[][] that will hold the kNN distances, or
+         * null.
+         */
+        QueryCalculator(DataSet queries, int startIndex, int endIndex, int k,
+                int[][] kNeighbors, float[][] kDistances) {
+            this.queries = queries;
+            this.startIndex = startIndex;
+            this.endIndex = endIndex;
+            this.k = k;
+            this.kNeighbors = kNeighbors;
+            this.kDistances = kDistances;
+        }
+
+        @Override
+        public void run() {
+            float[] distBuffer = new float[k];
+            try {
+                for (int i = startIndex; i <= endIndex; i++) {
+                    float[] distances = kDistances != null ? kDistances[i]
+                            : distBuffer;
+                    if (queries == null) {
+                        getKNeighbors(dset.data.get(i), k, i, kNeighbors[i],
+                                distances);
+                    } else {
+                        getKNeighbors(queries.data.get(i), k, -1,
+                                kNeighbors[i], distances);
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+
+    /**
+     * This method saves the tree, along with the indexed data and the metric.
+     *
+     * @param outFile File to write the tree to.
+     * @throws Exception
+     */
+    public void save(File outFile) throws Exception {
+        FileUtil.createFile(outFile);
+        try (ObjectOutputStream ous =
+                new ObjectOutputStream(new FileOutputStream(outFile))) {
+            ous.writeObject(this);
+        }
+    }
+
+    /**
+     * This method loads the tree.
+     *
+     * @param inFile File to load the tree from.
+     * @return VPTree that is the loaded tree.
+     * @throws Exception
+     */
+    public static VPTree load(File inFile) throws Exception {
+        try (ObjectInputStream ins =
+                new ObjectInputStream(new FileInputStream(inFile))) {
+            return (VPTree) ins.readObject();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package data.structures.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import data.structures.VPTree;
+import distances.primary.CombinedMetric;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the exact kNN and range queries of the vantage point tree
+ * against the exhaustive search.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class VPTreeTest extends TestCase {
+
+    /**
+     * This method tests the kNN queries for the indexed points and the
+     * external query points.
+     */
+    @Test
+    public static void testKNNQueries() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(400, 5, 1);
+            DataSet queries = ToyDataGenerator.generateUniformData(40, 5, 2);
+            int k = 7;
+            CombinedMetric[] metrics = {CombinedMetric.FLOAT_EUCLIDEAN,
+                CombinedMetric.FLOAT_MANHATTAN};
+            for (CombinedMetric cmet : metrics) {
+                VPTree tree = new VPTree(dset, cmet);
+                tree.setLeafSize(4);
+                tree.build(4);
+                NeighborSetFinder nsf = tree.getNeighborSetFinder(k, 3);
+                float[][] kDistances = nsf.getKDistances();
+                for (int i = 0; i < dset.size(); i++) {
+                    float[] exact = getSortedDistances(dset,
+                            dset.getInstance(i), i, cmet);
+                    for (int kInd = 0; kInd < k; kInd++) {
+                        assertEquals(exact[kInd], kDistances[i][kInd],
+                                0.00001f);
+                    }
+                }
+                float[][] queryDistances = new float[queries.size()][k];
+                tree.getKNeighbors(queries, k, 2, queryDistances);
+                for (int i = 0; i < queries.size(); i++) {
+                    float[] exact = getSortedDistances(dset,
+                            queries.getInstance(i), -1, cmet);
+                    for (int kInd = 0; kInd < k; kInd++) {
+                        assertEquals(exact[kInd], queryDistances[i][kInd],
+                                0.00001f);
+                    }
+                }
+                // The kNN sets can not be larger than the indexed data.
+                boolean rejected = false;
+                try {
+                    tree.getKNeighbors(queries, dset.size() + 1, 2, null);
+                } catch (Exception e) {
+                    rejected = true;
+                }
+                assertTrue(rejected);
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the range queries and the serialization of the tree.
+     */
+    @Test
+    public static void testRangeQueriesAndPersistence() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(300, 4, 3);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            VPTree tree = new VPTree(dset, cmet);
+            tree.build(2);
+            File tempFile = File.createTempFile("vptree", ".ser");
+            tempFile.deleteOnExit();
+            tree.save(tempFile);
+            VPTree loadedTree = VPTree.load(tempFile);
+            float radius = 0.3f;
+            for (int i = 0; i < dset.size(); i += 7) {
+                ArrayList<Integer> expected = new ArrayList<>();
+                for (int j = 0; j < dset.size(); j++) {
+                    if (j != i && cmet.dist(dset.getInstance(i),
+                            dset.getInstance(j)) < radius) {
+                        expected.add(j);
+                    }
+                }
+                ArrayList<Integer> found = loadedTree.rangeQuery(i, radius);
+                assertEquals(expected.size(), found.size());
+                assertTrue(found.containsAll(expected));
+                assertEquals(expected.size(), tree.rangeQuery(i,
+                        radius).size());
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * @param dset DataSet to calculate the distances to.
+     * @param query DataInstance that is the query point.
+     * @param exclude Integer that is the index of the point to skip.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @return float[] of sorted distances from the query point.
+     * @throws Exception
+     */
+    private static float[] getSortedDistances(DataSet dset,
+            DataInstance query, int exclude, CombinedMetric cmet)
+            throws Exception {
+        float[] distances = new float[dset.size()];
+        for (int j = 0; j < dset.size(); j++) {
+            distances[j] = j == exclude ? Float.MAX_VALUE
+                    : cmet.dist(query, dset.getInstance(j));
+        }
+        Arrays.sort(distances);
+        return distances;
+    }
+}
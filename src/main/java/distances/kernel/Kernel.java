@@ -19,6 +19,7 @@ package distances.kernel;
 import com.google.gson.Gson;
 import data.representation.DataInstance;
 import data.representation.sparse.BOWInstance;
+import data.representation.sparse.SparseVector;
 import java.util.HashMap;
 
 /**
@@ -28,6 +29,16 @@ import java.util.HashMap;
  */
 public abstract class Kernel {
 
+    // Per-thread vectors that the default offset method copies the vectors
+    // into, so that no arrays are allocated for each pair.
+    private static final ThreadLocal<float[][]> offsetVectors =
+            new ThreadLocal<float[][]>() {
+        @Override
+        protected float[][] initialValue() {
+            return new float[2][0];
+        }
+    };
+
     /**
      * The dot product in the mapped space.
      * 
@@ -37,6 +48,37 @@ public abstract class Kernel {
      */
     public abstract float dot(float[] x, float[] y);
 
+    /**
+     * The dot product in the mapped space, between two vectors that are stored
+     * at the given offsets within larger arrays, such as the rows of a packed
+     * feature matrix. The default implementation passes whole arrays on to
+     * the array method and copies the vectors into reused per-thread arrays
+     * otherwise, while the frequently used kernels work on the arrays
+     * directly.
+     * 
+     * @param x float[] containing the first feature value vector.
+     * @param xOffset Integer that is the offset of the first vector.
+     * @param y float[] containing the second feature value vector.
+     * @param yOffset Integer that is the offset of the second vector.
+     * @param length Integer that is the vector length.
+     * @return float value that is the dot product in the mapped space.
+     */
+    public float dot(float[] x, int xOffset, float[] y, int yOffset,
+            int length) {
+        if (x == null || y == null || (xOffset == 0 && yOffset == 0
+                && x.length == length && y.length == length)) {
+            return dot(x, y);
+        }
+        float[][] vectors = offsetVectors.get();
+        if (vectors[0].length != length) {
+            vectors[0] = new float[length];
+            vectors[1] = new float[length];
+        }
+        System.arraycopy(x, xOffset, vectors[0], 0, length);
+        System.arraycopy(y, yOffset, vectors[1], 0, length);
+        return dot(vectors[0], vectors[1]);
+    }
+
     /**
      * The dot product in the mapped space.
      * 
@@ -47,6 +89,19 @@ public abstract class Kernel {
     public abstract float dot(HashMap<Integer, Float> x,
             HashMap<Integer, Float> y);
 
+    /**
+     * The dot product in the mapped space, between two sorted sparse vectors.
+     * The default implementation converts the vectors to maps, while the
+     * frequently used kernels merge the sorted index arrays directly.
+     * 
+     * @param x SparseVector representing sparse feature values.
+     * @param y SparseVector representing sparse feature values.
+     * @return float value that is the dot product in the mapped space.
+     */
+    public float dot(SparseVector x, SparseVector y) {
+        return dot(x != null ? x.toMap() : null, y != null ? y.toMap() : null);
+    }
+
     /**
      * The dot product in the mapped space.
      * 
@@ -57,8 +112,8 @@ public abstract class Kernel {
     public float dot(DataInstance firstInstance, DataInstance secondInstance) {
         if (firstInstance instanceof BOWInstance &&
                 secondInstance instanceof BOWInstance) {
-            return dot(((BOWInstance) firstInstance).getWordIndexesHash(),
-                    ((BOWInstance) secondInstance).getWordIndexesHash());
+            return dot(((BOWInstance) firstInstance).getWordVector(),
+                    ((BOWInstance) secondInstance).getWordVector());
         } else {
             return dot(firstInstance.fAttr, secondInstance.fAttr);
         }
@@ -17,6 +17,7 @@
 */
 package distances.kernel;
 
+import data.representation.sparse.SparseVector;
 import data.representation.util.DataMineConstants;
 import java.util.HashMap;
 import java.util.Set;
@@ -75,6 +76,26 @@ public class PolynomialKernel extends Kernel {
         return (float) result;
     }
 
+    @Override
+    public float dot(float[] x, int xOffset, float[] y, int yOffset,
+            int length) {
+        double result = 0;
+        float xValue, yValue;
+        for (int i = 0; i < length; i++) {
+            xValue = x[xOffset + i];
+            yValue = y[yOffset + i];
+            if (!DataMineConstants.isAcceptableFloat(xValue)
+                    || !DataMineConstants.isAcceptableFloat(yValue)) {
+                continue;
+            }
+            result += xValue * yValue;
+        }
+        result *= slope;
+        result += c;
+        result = Math.pow(result, d);
+        return (float) result;
+    }
+
     /**
      * @param x Feature value sparse vector.
      * @param y Feature value sparse vector.
@@ -109,4 +130,41 @@ public class PolynomialKernel extends Kernel {
             return (float) result;
         }
     }
+
+    @Override
+    public float dot(SparseVector x, SparseVector y) {
+        boolean xEmpty = x == null || x.isEmpty();
+        boolean yEmpty = y == null || y.isEmpty();
+        if (xEmpty && yEmpty) {
+            return 0;
+        } else if (xEmpty || yEmpty) {
+            return Float.MAX_VALUE;
+        }
+        int[] xIndexes = x.getIndexes();
+        float[] xValues = x.getValues();
+        int[] yIndexes = y.getIndexes();
+        float[] yValues = y.getValues();
+        int i = 0;
+        int j = 0;
+        double result = 0;
+        // Only the common indexes contribute to the dot product.
+        while (i < x.size() && j < y.size()) {
+            if (xIndexes[i] < yIndexes[j]) {
+                i++;
+            } else if (xIndexes[i] > yIndexes[j]) {
+                j++;
+            } else {
+                if (DataMineConstants.isAcceptableFloat(xValues[i])
+                        && DataMineConstants.isAcceptableFloat(yValues[j])) {
+                    result += xValues[i] * yValues[j];
+                }
+                i++;
+                j++;
+            }
+        }
+        result *= slope;
+        result += c;
+        result = Math.pow(result, d);
+        return (float) result;
+    }
 }
\ No newline at end of file
@@ -17,6 +17,7 @@
 */
 package distances.kernel;
 
+import data.representation.sparse.SparseVector;
 import data.representation.util.DataMineConstants;
 import java.util.HashMap;
 import java.util.Set;
@@ -70,6 +71,26 @@ public class RBF extends Kernel {
         return (float) result;
     }
 
+    @Override
+    public float dot(float[] x, int xOffset, float[] y, int yOffset,
+            int length) {
+        double result = 0;
+        float xValue, yValue;
+        for (int i = 0; i < length; i++) {
+            xValue = x[xOffset + i];
+            yValue = y[yOffset + i];
+            if (!DataMineConstants.isAcceptableFloat(xValue)
+                    || !DataMineConstants.isAcceptableFloat(yValue)) {
+                continue;
+            }
+            result += (xValue - yValue) * (xValue - yValue);
+        }
+        result = -result;
+        result *= gamma;
+        result = Math.exp(result);
+        return (float) result;
+    }
+
     /**
      * @param x Feature value sparse vector.
      * @param y Feature value sparse vector.
@@ -118,4 +139,58 @@ public class RBF extends Kernel {
             return (float) result;
         }
     }
+
+    @Override
+    public float dot(SparseVector x, SparseVector y) {
+        boolean xEmpty = x == null || x.isEmpty();
+        boolean yEmpty = y == null || y.isEmpty();
+        if (xEmpty && yEmpty) {
+            return 0;
+        } else if (xEmpty || yEmpty) {
+            return Float.MAX_VALUE;
+        }
+        int[] xIndexes = x.getIndexes();
+        float[] xValues = x.getValues();
+        int[] yIndexes = y.getIndexes();
+        float[] yValues = y.getValues();
+        int i = 0;
+        int j = 0;
+        double result = 0;
+        // The sorted index arrays are merged in a single pass.
+        while (i < x.size() && j < y.size()) {
+            if (xIndexes[i] < yIndexes[j]) {
+                if (DataMineConstants.isAcceptableFloat(xValues[i])) {
+                    result += xValues[i] * xValues[i];
+                }
+                i++;
+            } else if (xIndexes[i] > yIndexes[j]) {
+                if (DataMineConstants.isAcceptableFloat(yValues[j])) {
+                    result += yValues[j] * yValues[j];
+                }
+                j++;
+            } else {
+                if (DataMineConstants.isAcceptableFloat(xValues[i])
+                        && DataMineConstants.isAcceptableFloat(yValues[j])) {
+                    result += (xValues[i] - yValues[j])
+                            * (xValues[i] - yValues[j]);
+                }
+                i++;
+                j++;
+            }
+        }
+        for (; i < x.size(); i++) {
+            if (DataMineConstants.isAcceptableFloat(xValues[i])) {
+                result += xValues[i] * xValues[i];
+            }
+        }
+        for (; j < y.size(); j++) {
+            if (DataMineConstants.isAcceptableFloat(yValues[j])) {
+                result += yValues[j] * yValues[j];
+            }
+        }
+        result = -result;
+        result *= gamma;
+        result = Math.exp(result);
+        return (float) result;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,94 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package distances.matrix;
+
+/**
+ * This class wraps the jagged float[][] upper triangular distance matrix that
+ * is used throughout the library, so that it can be passed to the methods that
+ * operate on the TriangularDistanceMatrix abstraction.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class HeapTriangularMatrix extends TriangularDistanceMatrix {
+
+    // The upper triangular distance matrix, as used throughout the library.
+    private float[][] distMatrix;
+
+    /**
+     * Initialization.
+     *
+     * @param size Integer that is the number of points.
+     */
+    public HeapTriangularMatrix(int size) {
+        distMatrix = new float[size][];
+        for (int i = 0; i < size; i++) {
+            distMatrix[i] = new float[size - i - 1];
+        }
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param distMatrix float[][] that is the upper triangular distance matrix.
+     */
+    public HeapTriangularMatrix(float[][] distMatrix) {
+        this.distMatrix = distMatrix;
+    }
+
+    /**
+     * @return float[][] that is the wrapped upper triangular distance matrix.
+     */
+    public float[][] getJaggedArray() {
+        return distMatrix;
+    }
+
+    @Override
+    public int size() {
+        return distMatrix.length;
+    }
+
+    @Override
+    public float getRowEntry(int row, int offset) {
+        return distMatrix[row][offset];
+    }
+
+    @Override
+    public void setRowEntry(int row, int offset, float value) {
+        distMatrix[row][offset] = value;
+    }
+
+    @Override
+    public void getRow(int row, float[] dest) {
+        System.arraycopy(distMatrix[row], 0, dest, 0, distMatrix[row].length);
+    }
+
+    @Override
+    public void getRowRange(int row, int offset, int length, float[] dest,
+            int destPos) {
+        System.arraycopy(distMatrix[row], offset, dest, destPos, length);
+    }
+
+    @Override
+    public void setRow(int row, float[] values) {
+        System.arraycopy(values, 0, distMatrix[row], 0, distMatrix[row].length);
+    }
+
+    @Override
+    public float[][] toJaggedArray() {
+        return distMatrix;
+    }
+}
@@ -0,0 +1,506 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package distances.matrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * This class implements an off-heap upper triangular distance matrix that is
+ * backed by a memory-mapped file. The rows are packed one after another without
+ * the zero diagonal, so that a matrix on n points takes n(n-1)/2 entries. The
+ * entries can be stored as 32-bit floats or, for halving the storage
+ * requirements, as 16-bit half-precision floats. Since a single mapping can not
+ * exceed 2GB, the file is mapped in segments, each of which holds whole rows,
+ * so that each row can be handed out as a buffer view without copying. The
+ * file begins with a small header that holds the matrix size and the storage
+ * type, so that the same file can be re-opened later or shared between
+ * different processes.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class MappedTriangularMatrix extends TriangularDistanceMatrix {
+
+    // The magic number that identifies the files, "HMDM" in little-endian.
+    public static final int MAGIC = 0x4D444D48;
+    // The current format version.
+    public static final int VERSION = 1;
+    // Storage types.
+    public static final int DTYPE_FLOAT32 = 0;
+    public static final int DTYPE_FLOAT16 = 1;
+    // The header length in bytes. The header contains the magic number, the
+    // version, the storage type, the matrix size and the payload checksum,
+    // followed by reserved space.
+    public static final int HEADER_SIZE = 64;
+    public static final int MAGIC_POS = 0;
+    public static final int VERSION_POS = 4;
+    public static final int DTYPE_POS = 8;
+    public static final int SIZE_POS = 12;
+    public static final int CHECKSUM_POS = 16;
+    // The maximum length of a mapped segment, in bytes.
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+    private File matrixFile;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private boolean writable;
+    private int size;
+    private int dtype;
+    // The number of bytes per entry, 4 for float32 and 2 for float16.
+    private int entryBytes;
+    // Mapped file segments.
+    private MappedByteBuffer[] segments;
+    // The segment index for each row and the byte position where the row
+    // begins within its segment.
+    private int[] rowSegment;
+    private int[] rowPosition;
+
+    /**
+     * Initialization. Use the create and open methods to obtain instances.
+     *
+     * @param matrixFile File that holds the matrix.
+     * @param raf RandomAccessFile that is open on the matrix file.
+     * @param writable Boolean flag indicating whether the mapping should allow
+     * for modifications.
+     * @param size Integer that is the number of points.
+     * @param dtype Integer code of the storage type.
+     * @throws IOException
+     */
+    private MappedTriangularMatrix(File matrixFile, RandomAccessFile raf,
+            boolean writable, int size, int dtype) throws IOException {
+        this.matrixFile = matrixFile;
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.writable = writable;
+        this.size = size;
+        this.dtype = dtype;
+        entryBytes = dtype == DTYPE_FLOAT16 ? 2 : 4;
+        mapSegments();
+    }
+
+    /**
+     * This method creates a new matrix file and maps it into memory. The
+     * entries are initialized to zero.
+     *
+     * @param matrixFile File that is to hold the matrix.
+     * @param size Integer that is the number of points.
+     * @param dtype Integer code of the storage type, DTYPE_FLOAT32 or
+     * DTYPE_FLOAT16.
+     * @return MappedTriangularMatrix that is mapped to the new file.
+     * @throws IOException
+     */
+    public static MappedTriangularMatrix create(File matrixFile, int size,
+            int dtype) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative matrix size: "
+                    + size);
+        }
+        if (dtype != DTYPE_FLOAT32 && dtype != DTYPE_FLOAT16) {
+            throw new IllegalArgumentException("Unknown storage type: "
+                    + dtype);
+        }
+        if (matrixFile.getParentFile() != null) {
+            matrixFile.getParentFile().mkdirs();
+        }
+        RandomAccessFile raf = new RandomAccessFile(matrixFile, "rw");
+        try {
+            int entryBytes = dtype == DTYPE_FLOAT16 ? 2 : 4;
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + getNumEntries(size) * entryBytes);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(
+                    ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC_POS, MAGIC);
+            header.putInt(VERSION_POS, VERSION);
+            header.putInt(DTYPE_POS, dtype);
+            header.putInt(SIZE_POS, size);
+            header.putLong(CHECKSUM_POS, 0L);
+            raf.getChannel().write(header, 0);
+            return new MappedTriangularMatrix(matrixFile, raf, true, size,
+                    dtype);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method maps an existing matrix file into memory.
+     *
+     * @param matrixFile File that holds the matrix.
+     * @param writable Boolean flag indicating whether the mapping should allow
+     * for modifications.
+     * @return MappedTriangularMatrix that is mapped to the file.
+     * @throws IOException if the file is not a valid matrix file.
+     */
+    public static MappedTriangularMatrix open(File matrixFile,
+            boolean writable) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(matrixFile,
+                writable ? "rw" : "r");
+        try {
+            ByteBuffer header = readHeader(raf.getChannel());
+            int dtype = header.getInt(DTYPE_POS);
+            int size = header.getInt(SIZE_POS);
+            int entryBytes = dtype == DTYPE_FLOAT16 ? 2 : 4;
+            long expectedLength = HEADER_SIZE + getNumEntries(size)
+                    * entryBytes;
+            if (raf.length() < expectedLength) {
+                throw new IOException("Truncated matrix file "
+                        + matrixFile.getPath() + ": expected "
+                        + expectedLength + " bytes, found " + raf.length());
+            }
+            return new MappedTriangularMatrix(matrixFile, raf, writable, size,
+                    dtype);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * This method reads and validates the matrix file header.
+     *
+     * @param channel FileChannel that is open on the matrix file.
+     * @return ByteBuffer containing the header, in little-endian order.
+     * @throws IOException if the header is not valid.
+     */
+    public static ByteBuffer readHeader(FileChannel channel)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(
+                ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (channel.read(header, header.position()) < 0) {
+                throw new IOException("Incomplete distance matrix header.");
+            }
+        }
+        if (header.getInt(MAGIC_POS) != MAGIC) {
+            throw new IOException("Not a binary distance matrix file.");
+        }
+        if (header.getInt(VERSION_POS) > VERSION) {
+            throw new IOException("Unsupported distance matrix format version "
+                    + header.getInt(VERSION_POS));
+        }
+        int dtype = header.getInt(DTYPE_POS);
+        if (dtype != DTYPE_FLOAT32 && dtype != DTYPE_FLOAT16) {
+            throw new IOException("Unknown storage type: " + dtype);
+        }
+        if (header.getInt(SIZE_POS) < 0) {
+            throw new IOException("Negative matrix size in the header.");
+        }
+        return header;
+    }
+
+    /**
+     * This method maps the file segments so that each segment holds a
+     * contiguous block of whole rows.
+     *
+     * @throws IOException
+     */
+    private void mapSegments() throws IOException {
+        rowSegment = new int[size];
+        rowPosition = new int[size];
+        MapMode mode = writable ? MapMode.READ_WRITE : MapMode.READ_ONLY;
+        ArrayList<MappedByteBuffer> segmentList = new ArrayList<>();
+        long segmentStartByte = 0;
+        long segmentLength = 0;
+        for (int row = 0; row < size; row++) {
+            long rowBytes = (long) getRowLength(row) * entryBytes;
+            if (segmentLength + rowBytes > MAX_SEGMENT_BYTES
+                    && segmentLength > 0) {
+                segmentList.add(channel.map(mode,
+                        HEADER_SIZE + segmentStartByte, segmentLength));
+                segmentStartByte += segmentLength;
+                segmentLength = 0;
+            }
+            rowSegment[row] = segmentList.size();
+            rowPosition[row] = (int) segmentLength;
+            segmentLength += rowBytes;
+        }
+        segmentList.add(channel.map(mode, HEADER_SIZE + segmentStartByte,
+                segmentLength));
+        segments = new MappedByteBuffer[segmentList.size()];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = segmentList.get(i);
+            segments[i].order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    /**
+     * @return File that holds the matrix.
+     */
+    public File getFile() {
+        return matrixFile;
+    }
+
+    /**
+     * @return Integer code of the storage type.
+     */
+    public int getDataType() {
+        return dtype;
+    }
+
+    /**
+     * @return Boolean flag indicating whether the matrix can be modified.
+     */
+    public boolean isWritable() {
+        return writable;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public float getRowEntry(int row, int offset) {
+        if (dtype == DTYPE_FLOAT32) {
+            return segments[rowSegment[row]].getFloat(rowPosition[row]
+                    + (offset << 2));
+        } else {
+            return halfToFloat(segments[rowSegment[row]].getShort(
+                    rowPosition[row] + (offset << 1)));
+        }
+    }
+
+    @Override
+    public void setRowEntry(int row, int offset, float value) {
+        if (dtype == DTYPE_FLOAT32) {
+            segments[rowSegment[row]].putFloat(rowPosition[row]
+                    + (offset << 2), value);
+        } else {
+            segments[rowSegment[row]].putShort(rowPosition[row]
+                    + (offset << 1), floatToHalf(value));
+        }
+    }
+
+    /**
+     * This method gets a view of a subset of the row bytes. The view has its
+     * own position and limit, so it can be used concurrently with other views.
+     *
+     * @param row Integer that is the row index.
+     * @param offset Integer that is the offset of the first entry.
+     * @param length Integer that is the number of entries.
+     * @return ByteBuffer that is a little-endian view of the entries.
+     */
+    private ByteBuffer getEntryBytes(int row, int offset, int length) {
+        ByteBuffer view = segments[rowSegment[row]].duplicate();
+        int start = rowPosition[row] + offset * entryBytes;
+        view.limit(start + length * entryBytes);
+        view.position(start);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * This method gives direct access to a row of a float32 matrix, without
+     * copying the data.
+     *
+     * @param row Integer that is the row index.
+     * @return FloatBuffer that is a view of the row entries.
+     */
+    public FloatBuffer getRowBuffer(int row) {
+        if (dtype != DTYPE_FLOAT32) {
+            throw new UnsupportedOperationException("Row views are only "
+                    + "available for the float32 storage type.");
+        }
+        return getEntryBytes(row, 0, getRowLength(row)).asFloatBuffer();
+    }
+
+    @Override
+    public void getRowRange(int row, int offset, int length, float[] dest,
+            int destPos) {
+        if (length <= 0) {
+            return;
+        }
+        ByteBuffer view = getEntryBytes(row, offset, length);
+        if (dtype == DTYPE_FLOAT32) {
+            view.asFloatBuffer().get(dest, destPos, length);
+        } else {
+            for (int j = 0; j < length; j++) {
+                dest[destPos + j] = halfToFloat(view.getShort(j << 1));
+            }
+        }
+    }
+
+    @Override
+    public void getRow(int row, float[] dest) {
+        getRowRange(row, 0, getRowLength(row), dest, 0);
+    }
+
+    @Override
+    public void setRow(int row, float[] values) {
+        int rowLength = getRowLength(row);
+        if (rowLength == 0) {
+            return;
+        }
+        ByteBuffer view = getEntryBytes(row, 0, rowLength);
+        if (dtype == DTYPE_FLOAT32) {
+            view.asFloatBuffer().put(values, 0, rowLength);
+        } else {
+            for (int j = 0; j < rowLength; j++) {
+                view.putShort(j << 1, floatToHalf(values[j]));
+            }
+        }
+    }
+
+    /**
+     * This method calculates the CRC32 checksum of the stored entries.
+     *
+     * @return Long value that is the checksum of the matrix payload.
+     */
+    public long calculateChecksum() {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[1 << 16];
+        for (MappedByteBuffer segment : segments) {
+            ByteBuffer view = segment.duplicate();
+            view.clear();
+            while (view.hasRemaining()) {
+                int length = Math.min(chunk.length, view.remaining());
+                view.get(chunk, 0, length);
+                crc.update(chunk, 0, length);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * @return Long value that is the checksum stored in the file header, or
+     * zero if no checksum was stored.
+     * @throws IOException
+     */
+    public long getStoredChecksum() throws IOException {
+        return readHeader(channel).getLong(CHECKSUM_POS);
+    }
+
+    /**
+     * This method calculates the payload checksum and stores it in the file
+     * header, so that the file contents can be verified when it is re-opened.
+     * It should be invoked once the matrix has been filled in.
+     *
+     * @throws IOException
+     */
+    public void storeChecksum() throws IOException {
+        if (!writable) {
+            throw new IOException("The matrix was opened as read-only.");
+        }
+        ByteBuffer checksumBuffer = ByteBuffer.allocate(8).order(
+                ByteOrder.LITTLE_ENDIAN);
+        checksumBuffer.putLong(0, calculateChecksum());
+        channel.write(checksumBuffer, CHECKSUM_POS);
+    }
+
+    /**
+     * @return True if no checksum was stored or if the stored checksum matches
+     * the payload, false otherwise.
+     * @throws IOException
+     */
+    public boolean verifyChecksum() throws IOException {
+        long storedChecksum = getStoredChecksum();
+        return storedChecksum == 0 || storedChecksum == calculateChecksum();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (writable && segments != null) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * This method flushes the changes and closes the underlying file. The
+     * mapped memory is released when the buffers are garbage collected, so the
+     * object should not be used after it is closed.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            segments = null;
+            raf.close();
+        }
+    }
+
+    /**
+     * This method converts a float to the IEEE 754 half-precision format, with
+     * rounding to the nearest value. Values outside of the half-precision range
+     * are mapped to infinity.
+     *
+     * @param value Float value to convert.
+     * @return Short value that holds the half-precision bits.
+     */
+    public static short floatToHalf(float value) {
+        if (Float.isNaN(value)) {
+            return (short) 0x7e00;
+        }
+        int bits = Float.floatToIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int absBits = bits & 0x7fffffff;
+        // Add half of the lowest kept mantissa bit, for rounding.
+        int rounded = absBits + 0x1000;
+        if (rounded >= 0x47800000) {
+            // The value overflows the half-precision range.
+            return (short) (sign | 0x7c00);
+        }
+        if (rounded >= 0x38800000) {
+            // Normalized half-precision values.
+            return (short) (sign | ((rounded - 0x38000000) >>> 13));
+        }
+        if (rounded < 0x33000000) {
+            // Values that are too small are flushed to zero.
+            return (short) sign;
+        }
+        // Subnormal half-precision values.
+        int exponent = absBits >>> 23;
+        return (short) (sign | ((((absBits & 0x7fffff) | 0x800000)
+                + (0x800000 >>> (exponent - 102))) >>> (126 - exponent)));
+    }
+
+    /**
+     * This method converts a value in the IEEE 754 half-precision format to a
+     * float.
+     *
+     * @param half Short value that holds the half-precision bits.
+     * @return Float value.
+     */
+    public static float halfToFloat(short half) {
+        int bits = half & 0xffff;
+        int sign = (bits & 0x8000) << 16;
+        int exponent = (bits >>> 10) & 0x1f;
+        int mantissa = bits & 0x3ff;
+        if (exponent == 0) {
+            // Zero or subnormal values.
+            float value = mantissa / 16777216f;
+            return sign == 0 ? value : -value;
+        } else if (exponent == 0x1f) {
+            // Infinity or NaN.
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23)
+                | (mantissa << 13));
+    }
+}
@@ -0,0 +1,180 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package distances.matrix;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * This class defines the storage abstraction for the upper triangular distance
+ * matrices that are used throughout the library. The layout mirrors the jagged
+ * float[][] convention: row i holds the (size - i - 1) distances between point
+ * i and points i + 1, ..., size - 1, so that getRowEntry(i, j) corresponds to
+ * distMatrix[i][j], the distance between points i and i + j + 1. The
+ * implementations can keep the data on the heap or off-heap, which allows for
+ * matrices that are too large to be held as Java arrays.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public abstract class TriangularDistanceMatrix implements Closeable {
+
+    /**
+     * @return Integer that is the number of points that the matrix is defined
+     * on.
+     */
+    public abstract int size();
+
+    /**
+     * @param row Integer that is the row index.
+     * @param offset Integer that is the offset within the row, so that the
+     * entry corresponds to the point with index row + offset + 1.
+     * @return Float value that is the stored distance.
+     */
+    public abstract float getRowEntry(int row, int offset);
+
+    /**
+     * @param row Integer that is the row index.
+     * @param offset Integer that is the offset within the row, so that the
+     * entry corresponds to the point with index row + offset + 1.
+     * @param value Float value that is the distance to store.
+     */
+    public abstract void setRowEntry(int row, int offset, float value);
+
+    /**
+     * @param row Integer that is the row index.
+     * @return Integer that is the number of entries in the row.
+     */
+    public int getRowLength(int row) {
+        return size() - row - 1;
+    }
+
+    /**
+     * This method gets the distance between two points, regardless of their
+     * order.
+     *
+     * @param first Integer that is the index of the first point.
+     * @param second Integer that is the index of the second point.
+     * @return Float value that is the distance between the two points.
+     */
+    public float getDistance(int first, int second) {
+        if (first == second) {
+            return 0;
+        }
+        int minIndex = Math.min(first, second);
+        int maxIndex = Math.max(first, second);
+        return getRowEntry(minIndex, maxIndex - minIndex - 1);
+    }
+
+    /**
+     * This method copies a row of the matrix into the provided array.
+     *
+     * @param row Integer that is the row index.
+     * @param dest float[] to copy the row entries to. It needs to have at least
+     * getRowLength(row) elements.
+     */
+    public void getRow(int row, float[] dest) {
+        int rowLength = getRowLength(row);
+        for (int j = 0; j < rowLength; j++) {
+            dest[j] = getRowEntry(row, j);
+        }
+    }
+
+    /**
+     * This method copies a contiguous range of row entries into the provided
+     * array.
+     *
+     * @param row Integer that is the row index.
+     * @param offset Integer that is the offset of the first entry to copy.
+     * @param length Integer that is the number of entries to copy.
+     * @param dest float[] to copy the row entries to.
+     * @param destPos Integer that is the start position in the target array.
+     */
+    public void getRowRange(int row, int offset, int length, float[] dest,
+            int destPos) {
+        for (int j = 0; j < length; j++) {
+            dest[destPos + j] = getRowEntry(row, offset + j);
+        }
+    }
+
+    /**
+     * This method sets all the entries in a row of the matrix.
+     *
+     * @param row Integer that is the row index.
+     * @param values float[] containing the row entries. It needs to have at
+     * least getRowLength(row) elements.
+     */
+    public void setRow(int row, float[] values) {
+        int rowLength = getRowLength(row);
+        for (int j = 0; j < rowLength; j++) {
+            setRowEntry(row, j, values[j]);
+        }
+    }
+
+    /**
+     * This method copies the matrix into the jagged float[][] representation
+     * that is used by the older parts of the code. It should only be invoked
+     * when the matrix is known to fit in the heap.
+     *
+     * @return float[][] that is the upper triangular distance matrix.
+     */
+    public float[][] toJaggedArray() {
+        int size = size();
+        float[][] distMatrix = new float[size][];
+        for (int i = 0; i < size; i++) {
+            distMatrix[i] = new float[getRowLength(i)];
+            getRow(i, distMatrix[i]);
+        }
+        return distMatrix;
+    }
+
+    /**
+     * This method persists any pending changes. Heap-based implementations do
+     * not need to do anything.
+     *
+     * @throws IOException
+     */
+    public void flush() throws IOException {
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * This method calculates the number of entries in a packed upper
+     * triangular matrix without the diagonal.
+     *
+     * @param size Integer that is the number of points.
+     * @return Long value that is the number of stored entries.
+     */
+    public static long getNumEntries(int size) {
+        return (long) size * (long) (size - 1) / 2L;
+    }
+
+    /**
+     * This method calculates the index of the first entry of a row in a packed
+     * upper triangular matrix without the diagonal.
+     *
+     * @param size Integer that is the number of points.
+     * @param row Integer that is the row index.
+     * @return Long value that is the number of entries that precede the row.
+     */
+    public static long getRowStartEntry(int size, int row) {
+        return (long) row * (long) (size - 1) - (long) row * (long) (row - 1)
+                / 2L;
+    }
+}
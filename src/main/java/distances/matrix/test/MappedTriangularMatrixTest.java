@@ -0,0 +1,139 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package distances.matrix.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataSet;
+import distances.matrix.MappedTriangularMatrix;
+import distances.primary.CombinedMetric;
+import java.io.File;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the memory-mapped upper triangular distance matrix storage.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class MappedTriangularMatrixTest extends TestCase {
+
+    /**
+     * This method tests whether the stored distances are preserved when the
+     * matrix file is re-opened.
+     */
+    @Test
+    public static void testMatrixPersistence() {
+        int[] dtypes = {MappedTriangularMatrix.DTYPE_FLOAT32,
+            MappedTriangularMatrix.DTYPE_FLOAT16};
+        float[] tolerances = {0f, 0.001f};
+        for (int dInd = 0; dInd < dtypes.length; dInd++) {
+            File matrixFile = null;
+            try {
+                matrixFile = File.createTempFile("dmat", ".bin");
+                float[][] dMat = generateToyDistanceMatrix(17);
+                try (MappedTriangularMatrix mapped =
+                        MappedTriangularMatrix.create(matrixFile, dMat.length,
+                        dtypes[dInd])) {
+                    for (int i = 0; i < dMat.length; i++) {
+                        mapped.setRow(i, dMat[i]);
+                    }
+                }
+                try (MappedTriangularMatrix mapped =
+                        MappedTriangularMatrix.open(matrixFile, false)) {
+                    assertEquals(dMat.length, mapped.size());
+                    for (int i = 0; i < dMat.length; i++) {
+                        for (int j = 0; j < dMat[i].length; j++) {
+                            assertEquals(dMat[i][j], mapped.getDistance(i,
+                                    i + j + 1), tolerances[dInd]);
+                            assertEquals(dMat[i][j], mapped.getDistance(
+                                    i + j + 1, i), tolerances[dInd]);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                fail(e.getMessage());
+            } finally {
+                if (matrixFile != null) {
+                    matrixFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * This method tests whether the kNN sets calculated on the mapped matrix
+     * match those calculated on the jagged array.
+     */
+    @Test
+    public static void testNeighborSets() {
+        File matrixFile = null;
+        try {
+            matrixFile = File.createTempFile("dmat", ".bin");
+            DataSet dset = ToyDataGenerator.generateUniformData(60, 5, 1);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            float[][] dMat = dset.calculateDistMatrix(cmet);
+            NeighborSetFinder nsfHeap = new NeighborSetFinder(dset, dMat,
+                    cmet);
+            nsfHeap.calculateNeighborSetsMultiThr(5, 3);
+            try (MappedTriangularMatrix mapped =
+                    MappedTriangularMatrix.create(matrixFile, dset.size(),
+                    MappedTriangularMatrix.DTYPE_FLOAT32)) {
+                dset.calculateDistMatrixMultThr(cmet, 4, mapped);
+                NeighborSetFinder nsfMapped = new NeighborSetFinder(dset,
+                        mapped, cmet);
+                nsfMapped.calculateNeighborSetsMultiThr(5, 3);
+                int[][] kNeighborsHeap = nsfHeap.getKNeighbors();
+                int[][] kNeighborsMapped = nsfMapped.getKNeighbors();
+                for (int i = 0; i < dset.size(); i++) {
+                    for (int kInd = 0; kInd < 5; kInd++) {
+                        assertEquals(kNeighborsHeap[i][kInd],
+                                kNeighborsMapped[i][kInd]);
+                    }
+                }
+                assertEquals(nsfHeap.getDistanceMean(),
+                        nsfMapped.getDistanceMean(), 0.0001);
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        } finally {
+            if (matrixFile != null) {
+                matrixFile.delete();
+            }
+        }
+    }
+
+    /**
+     * This method generates a toy distance matrix.
+     *
+     * @param dim Integer representing the matrix dimensionality.
+     * @return float[][] that is a random toy "distance matrix" for testing.
+     */
+    private static float[][] generateToyDistanceMatrix(int dim) {
+        float[][] dMat = new float[dim][];
+        Random randa = new Random();
+        for (int i = 0; i < dim; i++) {
+            dMat[i] = new float[dim - i - 1];
+            for (int j = 0; j < dMat[i].length; j++) {
+                dMat[i][j] = randa.nextFloat();
+            }
+        }
+        return dMat;
+    }
+}
@@ -19,8 +19,11 @@ package distances.primary;
 
 import com.google.gson.Gson;
 import data.representation.DataInstance;
+import data.representation.DataSet;
+import data.representation.PackedFeatureMatrix;
 import data.representation.util.DataMineConstants;
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * This class implements a way to combine the distances between the integer and
@@ -45,6 +48,10 @@ public class CombinedMetric implements Serializable {
             null, new MinkowskiMetric(), DEFAULT);
     public static final CombinedMetric FLOAT_MANHATTAN = new CombinedMetric(
             null, new Manhattan(), DEFAULT);
+    public static final CombinedMetric FLOAT_SQUARED_EUCLIDEAN =
+            new CombinedMetric(null, new SquaredEuclidean(), DEFAULT);
+    public static final CombinedMetric FLOAT_MAX = new CombinedMetric(
+            null, new MaxMetric(), DEFAULT);
     public static final CombinedMetric FLOAT_COSINE = new CombinedMetric(
             null, new CosineMetric(), DEFAULT);
     public static final CombinedMetric FLOAT_TANIMOTO = new CombinedMetric(
@@ -67,6 +74,9 @@ public class CombinedMetric implements Serializable {
             new BrayCurtis(), null, DEFAULT);
     public static final CombinedMetric INT_CANBERRA = new CombinedMetric(
             new Canberra(), null, DEFAULT);
+    // The number of points in a block of the many-against-many tiles, chosen
+    // so that the feature arrays of a block are likely to fit in the cache.
+    public static final int TILE_BLOCK_SIZE = 64;
     private DistanceMeasure integerMetric;
     private DistanceMeasure floatMetric;
     private Mixer combineBy;
@@ -226,6 +236,25 @@ public class CombinedMetric implements Serializable {
         this.floatMetric = floatMetric;
     }
 
+    /**
+     * This method sets the missing value handling mode for both the integer
+     * and the float metric. If there are no missing values in the data, the
+     * specialized distance kernels can skip the checks in their inner loops.
+     * As the predefined static objects are shared, this should be invoked on
+     * separately created CombinedMetric objects.
+     *
+     * @param noMissingValues Boolean flag indicating that the data is known
+     * not to contain any missing values.
+     */
+    public void setNoMissingValues(boolean noMissingValues) {
+        if (integerMetric != null) {
+            integerMetric.setNoMissingValues(noMissingValues);
+        }
+        if (floatMetric != null) {
+            floatMetric.setNoMissingValues(noMissingValues);
+        }
+    }
+
     /**
      * @param first Data instance.
      * @param second Data Instance.
@@ -301,4 +330,163 @@ public class CombinedMetric implements Serializable {
         }
         return totalDistance;
     }
-}
\ No newline at end of file
+
+    /**
+     * This method calculates the distances from one query point to a
+     * contiguous block of points. In the default SUM mode without the integer
+     * features, which is the most common case, the combination logic is
+     * resolved once for the whole block instead of once per pair. The
+     * subclasses that override the pairwise distance are handled pair by pair.
+     *
+     * @param query DataInstance that is the query point.
+     * @param points List of DataInstance objects to calculate the distances to.
+     * @param start Integer that is the index of the first point, inclusive.
+     * @param end Integer that is the index of the last point, exclusive.
+     * @param dest float[] to write the distances to.
+     * @param destPos Integer that is the position in the target array where the
+     * distance to the first point in the block is written.
+     * @throws Exception
+     */
+    public void dist(DataInstance query, List<DataInstance> points, int start,
+            int end, float[] dest, int destPos) throws Exception {
+        if (getClass() == CombinedMetric.class && combineBy == Mixer.SUM
+                && floatMetric != null && (integerMetric == null
+                || !query.hasIntAtt())) {
+            boolean queryHasFloatAtt = query.hasFloatAtt();
+            float[] queryFAttr = query.fAttr;
+            DataInstance point;
+            float floatDistance;
+            for (int i = start; i < end; i++) {
+                point = points.get(i);
+                floatDistance = queryHasFloatAtt && point.hasFloatAtt()
+                        ? floatMetric.dist(queryFAttr, point.fAttr) : 0f;
+                dest[destPos + i - start] = DataMineConstants.
+                        isAcceptableFloat(floatDistance) ? floatDistance : 0;
+            }
+        } else {
+            for (int i = start; i < end; i++) {
+                dest[destPos + i - start] = dist(query, points.get(i));
+            }
+        }
+    }
+
+    /**
+     * This method calculates the distance between an instance of a DataSet and
+     * another instance. If the float features of the DataSet have been packed,
+     * the feature vector of the instance is read directly from the packed
+     * array in the default SUM mode without the integer features.
+     *
+     * @param dset DataSet that contains the first instance.
+     * @param index Integer that is the index of the first instance.
+     * @param other DataInstance that is the second instance.
+     * @return The distance between the two instances.
+     * @throws Exception
+     */
+    public float dist(DataSet dset, int index, DataInstance other)
+            throws Exception {
+        PackedFeatureMatrix packed = dset.getPackedFeatures();
+        if (packed != null && getClass() == CombinedMetric.class
+                && combineBy == Mixer.SUM && floatMetric != null
+                && other.fAttr != null
+                && other.fAttr.length == packed.getNumCols()
+                && (integerMetric == null || !other.hasIntAtt()
+                || !dset.data.get(index).hasIntAtt())) {
+            float floatDistance = other.fAttr.length > 0 ? floatMetric.dist(
+                    packed.getValues(), packed.getRowOffset(index),
+                    other.fAttr, 0, other.fAttr.length) : 0f;
+            return DataMineConstants.isAcceptableFloat(floatDistance)
+                    ? floatDistance : 0;
+        } else {
+            return dist(dset.data.get(index), other);
+        }
+    }
+
+    /**
+     * This method calculates the distances from one instance of a DataSet to
+     * a contiguous block of its instances. If the float features of the
+     * DataSet have been packed, the default SUM mode without the integer
+     * features is handled by a stride-based loop over the packed array.
+     * Otherwise, the distances are calculated from the DataInstance objects.
+     *
+     * @param dset DataSet that contains the instances.
+     * @param query Integer that is the index of the query instance.
+     * @param start Integer that is the index of the first instance, inclusive.
+     * @param end Integer that is the index of the last instance, exclusive.
+     * @param dest float[] to write the distances to.
+     * @param destPos Integer that is the position in the target array where the
+     * distance to the first instance in the block is written.
+     * @throws Exception
+     */
+    public void dist(DataSet dset, int query, int start, int end, float[] dest,
+            int destPos) throws Exception {
+        PackedFeatureMatrix packed = dset.getPackedFeatures();
+        if (packed != null && packed.getNumCols() > 0
+                && getClass() == CombinedMetric.class
+                && combineBy == Mixer.SUM && floatMetric != null
+                && (integerMetric == null
+                || !dset.data.get(query).hasIntAtt())) {
+            float[] values = packed.getValues();
+            int numCols = packed.getNumCols();
+            int queryOffset = query * numCols;
+            float floatDistance;
+            for (int i = start; i < end; i++) {
+                floatDistance = floatMetric.dist(values, queryOffset, values,
+                        i * numCols, numCols);
+                dest[destPos + i - start] = DataMineConstants.
+                        isAcceptableFloat(floatDistance) ? floatDistance : 0;
+            }
+        } else {
+            dist(dset.data.get(query), dset.data, start, end, dest, destPos);
+        }
+    }
+
+    /**
+     * This method calculates the distances from one query point to all the
+     * points in the list.
+     *
+     * @param query DataInstance that is the query point.
+     * @param points List of DataInstance objects to calculate the distances to.
+     * @return float[] containing the distances to all the points.
+     * @throws Exception
+     */
+    public float[] dist(DataInstance query, List<DataInstance> points)
+            throws Exception {
+        float[] distances = new float[points.size()];
+        dist(query, points, 0, points.size(), distances, 0);
+        return distances;
+    }
+
+    /**
+     * This method calculates a many-against-many tile of distances. The
+     * columns are processed in blocks, so that the feature arrays of a column
+     * block remain in the cache while they are compared to all the rows.
+     *
+     * @param rowPoints List of DataInstance objects that contains the row
+     * points.
+     * @param rowStart Integer that is the index of the first row point,
+     * inclusive.
+     * @param rowEnd Integer that is the index of the last row point, exclusive.
+     * @param colPoints List of DataInstance objects that contains the column
+     * points.
+     * @param colStart Integer that is the index of the first column point,
+     * inclusive.
+     * @param colEnd Integer that is the index of the last column point,
+     * exclusive.
+     * @param dest float[][] to write the distances to, so that dest[r][c]
+     * holds the distance between the row point rowStart + r and the column
+     * point colStart + c.
+     * @throws Exception
+     */
+    public void distTile(List<DataInstance> rowPoints, int rowStart,
+            int rowEnd, List<DataInstance> colPoints, int colStart, int colEnd,
+            float[][] dest) throws Exception {
+        for (int blockStart = colStart; blockStart < colEnd;
+                blockStart += TILE_BLOCK_SIZE) {
+            int blockEnd = Math.min(blockStart + TILE_BLOCK_SIZE, colEnd);
+            for (int r = rowStart; r < rowEnd; r++) {
+                dist(rowPoints.get(r), colPoints, blockStart, blockEnd,
+                        dest[r - rowStart], blockStart - colStart);
+            }
+        }
+    }
+}
@@ -42,27 +42,16 @@ public class CosineMetric extends DistanceMeasure implements Serializable {
     public float dist(float[] arrFirst, float[] arrSecond)
             throws MetricException {
         DistanceMeasure.assertArrays(arrFirst, arrSecond);
-        float sum = 0;
-        for (int i = 0; i < arrFirst.length; i++) {
-            if (!DataMineConstants.isAcceptableFloat(arrFirst[i])
-                    || !DataMineConstants.isAcceptableFloat(arrSecond[i])) {
-                continue;
-            }
-            sum += arrFirst[i] * arrSecond[i];
-        }
-        MinkowskiMetric mm = new MinkowskiMetric(2);
-        float normFirst = mm.norm(arrFirst);
-        float normSecond = mm.norm(arrSecond);
-        if (DataMineConstants.isNonZero(normFirst)
-                && DataMineConstants.isNonZero(normSecond)) {
-            sum = sum / (normFirst * normSecond);
-        } else if (DataMineConstants.isZero(normFirst)
-                && DataMineConstants.isZero(normSecond)) {
-            sum = 1;
-        } else {
-            sum = -1;
-        }
-        return (1f - sum) * 0.5f;
+        // The dot product and the norms are calculated in a single pass.
+        return DistanceKernels.cosine(arrFirst, arrSecond,
+                !assumesNoMissingValues());
+    }
+
+    @Override
+    public float dist(float[] arrFirst, int offFirst, float[] arrSecond,
+            int offSecond, int length) throws MetricException {
+        return DistanceKernels.cosine(arrFirst, offFirst, arrSecond,
+                offSecond, length, !assumesNoMissingValues());
     }
 
     @Override
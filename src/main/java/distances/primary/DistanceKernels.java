@@ -0,0 +1,403 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package distances.primary;
+
+import data.representation.util.DataMineConstants;
+
+/**
+ * This class implements the specialized inner loops for the most frequently
+ * used distances between dense float feature arrays. The loops are unrolled
+ * and use several independent accumulators, which shortens the dependency
+ * chains and allows the JIT compiler to vectorize them. There are two variants
+ * of each kernel: the default one skips the missing values in the same way as
+ * DataMineConstants.isAcceptableFloat does, by ignoring the coordinates where
+ * either value is Float.MAX_VALUE or infinite, while the unchecked variant
+ * assumes that there are no missing values in the data. The arrays are assumed
+ * to be of the same length, which is checked by the calling metrics. Each
+ * kernel also has a variant that takes array offsets, so that it can operate
+ * on the rows of a packed feature matrix without copying them.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class DistanceKernels {
+
+    /**
+     * @param value Float value.
+     * @return True if the value is treated as missing, false otherwise.
+     */
+    private static boolean isMissing(float value) {
+        return value == Float.MAX_VALUE | Math.abs(value)
+                == Float.POSITIVE_INFINITY;
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param arrSecond Float array.
+     * @return Squared Euclidean distance, with no checks for missing values.
+     */
+    public static float squaredEuclideanUnchecked(float[] arrFirst,
+            float[] arrSecond) {
+        return squaredEuclideanUnchecked(arrFirst, 0, arrSecond, 0,
+                arrFirst.length);
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param offFirst Integer that is the offset of the first vector.
+     * @param arrSecond Float array.
+     * @param offSecond Integer that is the offset of the second vector.
+     * @param length Integer that is the vector length.
+     * @return Squared Euclidean distance, with no checks for missing values.
+     */
+    public static float squaredEuclideanUnchecked(float[] arrFirst,
+            int offFirst, float[] arrSecond, int offSecond, int length) {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        float d0, d1, d2, d3;
+        int bound = length & ~3;
+        int i = 0;
+        for (; i < bound; i += 4) {
+            d0 = arrFirst[offFirst + i] - arrSecond[offSecond + i];
+            d1 = arrFirst[offFirst + i + 1] - arrSecond[offSecond + i + 1];
+            d2 = arrFirst[offFirst + i + 2] - arrSecond[offSecond + i + 2];
+            d3 = arrFirst[offFirst + i + 3] - arrSecond[offSecond + i + 3];
+            sum0 += d0 * d0;
+            sum1 += d1 * d1;
+            sum2 += d2 * d2;
+            sum3 += d3 * d3;
+        }
+        for (; i < length; i++) {
+            d0 = arrFirst[offFirst + i] - arrSecond[offSecond + i];
+            sum0 += d0 * d0;
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param arrSecond Float array.
+     * @return Squared Euclidean distance over the coordinates where neither
+     * value is missing.
+     */
+    public static float squaredEuclidean(float[] arrFirst, float[] arrSecond) {
+        return squaredEuclidean(arrFirst, 0, arrSecond, 0, arrFirst.length);
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param offFirst Integer that is the offset of the first vector.
+     * @param arrSecond Float array.
+     * @param offSecond Integer that is the offset of the second vector.
+     * @param length Integer that is the vector length.
+     * @return Squared Euclidean distance over the coordinates where neither
+     * value is missing.
+     */
+    public static float squaredEuclidean(float[] arrFirst, int offFirst,
+            float[] arrSecond, int offSecond, int length) {
+        float sum0 = 0, sum1 = 0;
+        float a0, a1, b0, b1, d0, d1;
+        int bound = length & ~1;
+        int i = 0;
+        // The checks are combined without branching, so that the loop does
+        // not suffer from branch mispredictions.
+        for (; i < bound; i += 2) {
+            a0 = arrFirst[offFirst + i];
+            a1 = arrFirst[offFirst + i + 1];
+            b0 = arrSecond[offSecond + i];
+            b1 = arrSecond[offSecond + i + 1];
+            d0 = a0 - b0;
+            d1 = a1 - b1;
+            sum0 += isMissing(a0) | isMissing(b0) ? 0 : d0 * d0;
+            sum1 += isMissing(a1) | isMissing(b1) ? 0 : d1 * d1;
+        }
+        if (i < length) {
+            a0 = arrFirst[offFirst + i];
+            b0 = arrSecond[offSecond + i];
+            d0 = a0 - b0;
+            sum0 += isMissing(a0) | isMissing(b0) ? 0 : d0 * d0;
+        }
+        return sum0 + sum1;
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param arrSecond Float array.
+     * @return Manhattan distance, with no checks for missing values.
+     */
+    public static float manhattanUnchecked(float[] arrFirst,
+            float[] arrSecond) {
+        return manhattanUnchecked(arrFirst, 0, arrSecond, 0, arrFirst.length);
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param offFirst Integer that is the offset of the first vector.
+     * @param arrSecond Float array.
+     * @param offSecond Integer that is the offset of the second vector.
+     * @param length Integer that is the vector length.
+     * @return Manhattan distance, with no checks for missing values.
+     */
+    public static float manhattanUnchecked(float[] arrFirst, int offFirst,
+            float[] arrSecond, int offSecond, int length) {
+        float sum0 = 0, sum1 = 0, sum2 = 0, sum3 = 0;
+        int bound = length & ~3;
+        int i = 0;
+        for (; i < bound; i += 4) {
+            sum0 += Math.abs(arrFirst[offFirst + i]
+                    - arrSecond[offSecond + i]);
+            sum1 += Math.abs(arrFirst[offFirst + i + 1]
+                    - arrSecond[offSecond + i + 1]);
+            sum2 += Math.abs(arrFirst[offFirst + i + 2]
+                    - arrSecond[offSecond + i + 2]);
+            sum3 += Math.abs(arrFirst[offFirst + i + 3]
+                    - arrSecond[offSecond + i + 3]);
+        }
+        for (; i < length; i++) {
+            sum0 += Math.abs(arrFirst[offFirst + i]
+                    - arrSecond[offSecond + i]);
+        }
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param arrSecond Float array.
+     * @return Manhattan distance over the coordinates where neither value is
+     * missing.
+     */
+    public static float manhattan(float[] arrFirst, float[] arrSecond) {
+        return manhattan(arrFirst, 0, arrSecond, 0, arrFirst.length);
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param offFirst Integer that is the offset of the first vector.
+     * @param arrSecond Float array.
+     * @param offSecond Integer that is the offset of the second vector.
+     * @param length Integer that is the vector length.
+     * @return Manhattan distance over the coordinates where neither value is
+     * missing.
+     */
+    public static float manhattan(float[] arrFirst, int offFirst,
+            float[] arrSecond, int offSecond, int length) {
+        float sum0 = 0, sum1 = 0;
+        float a0, a1, b0, b1;
+        int bound = length & ~1;
+        int i = 0;
+        for (; i < bound; i += 2) {
+            a0 = arrFirst[offFirst + i];
+            a1 = arrFirst[offFirst + i + 1];
+            b0 = arrSecond[offSecond + i];
+            b1 = arrSecond[offSecond + i + 1];
+            sum0 += isMissing(a0) | isMissing(b0) ? 0 : Math.abs(a0 - b0);
+            sum1 += isMissing(a1) | isMissing(b1) ? 0 : Math.abs(a1 - b1);
+        }
+        if (i < length) {
+            a0 = arrFirst[offFirst + i];
+            b0 = arrSecond[offSecond + i];
+            sum0 += isMissing(a0) | isMissing(b0) ? 0 : Math.abs(a0 - b0);
+        }
+        return sum0 + sum1;
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param arrSecond Float array.
+     * @return Chebyshev (L-infinity) distance, with no checks for missing
+     * values.
+     */
+    public static float chebyshevUnchecked(float[] arrFirst,
+            float[] arrSecond) {
+        return chebyshevUnchecked(arrFirst, 0, arrSecond, 0, arrFirst.length);
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param offFirst Integer that is the offset of the first vector.
+     * @param arrSecond Float array.
+     * @param offSecond Integer that is the offset of the second vector.
+     * @param length Integer that is the vector length.
+     * @return Chebyshev (L-infinity) distance, with no checks for missing
+     * values.
+     */
+    public static float chebyshevUnchecked(float[] arrFirst, int offFirst,
+            float[] arrSecond, int offSecond, int length) {
+        float max0 = 0, max1 = 0, max2 = 0, max3 = 0;
+        int bound = length & ~3;
+        int i = 0;
+        for (; i < bound; i += 4) {
+            max0 = Math.max(max0, Math.abs(arrFirst[offFirst + i]
+                    - arrSecond[offSecond + i]));
+            max1 = Math.max(max1, Math.abs(arrFirst[offFirst + i + 1]
+                    - arrSecond[offSecond + i + 1]));
+            max2 = Math.max(max2, Math.abs(arrFirst[offFirst + i + 2]
+                    - arrSecond[offSecond + i + 2]));
+            max3 = Math.max(max3, Math.abs(arrFirst[offFirst + i + 3]
+                    - arrSecond[offSecond + i + 3]));
+        }
+        for (; i < length; i++) {
+            max0 = Math.max(max0, Math.abs(arrFirst[offFirst + i]
+                    - arrSecond[offSecond + i]));
+        }
+        return Math.max(Math.max(max0, max1), Math.max(max2, max3));
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param arrSecond Float array.
+     * @return Chebyshev (L-infinity) distance over the coordinates where
+     * neither value is missing.
+     */
+    public static float chebyshev(float[] arrFirst, float[] arrSecond) {
+        return chebyshev(arrFirst, 0, arrSecond, 0, arrFirst.length);
+    }
+
+    /**
+     * @param arrFirst Float array.
+     * @param offFirst Integer that is the offset of the first vector.
+     * @param arrSecond Float array.
+     * @param offSecond Integer that is the offset of the second vector.
+     * @param length Integer that is the vector length.
+     * @return Chebyshev (L-infinity) distance over the coordinates where
+     * neither value is missing.
+     */
+    public static float chebyshev(float[] arrFirst, int offFirst,
+            float[] arrSecond, int offSecond, int length) {
+        float max = 0;
+        float first, second;
+        for (int i = 0; i < length; i++) {
+            first = arrFirst[offFirst + i];
+            second = arrSecond[offSecond + i];
+            if (!isMissing(first) && !isMissing(second)) {
+                max = Math.max(max, Math.abs(first - second));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * This method calculates the cosine distance in a single pass over the
+     * data. It follows the conventions of the CosineMetric class: the result
+     * is (1 - cos) / 2, zero when both vectors are zero vectors and one when
+     * only one of them is.
+     *
+     * @param arrFirst Float array.
+     * @param arrSecond Float array.
+     * @param checkMissing Boolean flag indicating whether to skip the missing
+     * values. The dot product is then taken over the coordinates where neither
+     * value is missing, while each norm is taken over the coordinates where
+     * its own value is not missing.
+     * @return Cosine distance.
+     */
+    public static float cosine(float[] arrFirst, float[] arrSecond,
+            boolean checkMissing) {
+        return cosine(arrFirst, 0, arrSecond, 0, arrFirst.length, checkMissing);
+    }
+
+    /**
+     * This method calculates the cosine distance in a single pass over the
+     * data. It follows the conventions of the CosineMetric class: the result
+     * is (1 - cos) / 2, zero when both vectors are zero vectors and one when
+     * only one of them is.
+     *
+     * @param arrFirst Float array.
+     * @param offFirst Integer that is the offset of the first vector.
+     * @param arrSecond Float array.
+     * @param offSecond Integer that is the offset of the second vector.
+     * @param length Integer that is the vector length.
+     * @param checkMissing Boolean flag indicating whether to skip the missing
+     * values. The dot product is then taken over the coordinates where neither
+     * value is missing, while each norm is taken over the coordinates where
+     * its own value is not missing.
+     * @return Cosine distance.
+     */
+    public static float cosine(float[] arrFirst, int offFirst,
+            float[] arrSecond, int offSecond, int length,
+            boolean checkMissing) {
+        float dot = 0, sqNormFirst = 0, sqNormSecond = 0;
+        float first, second;
+        if (checkMissing) {
+            for (int i = 0; i < length; i++) {
+                first = arrFirst[offFirst + i];
+                second = arrSecond[offSecond + i];
+                boolean firstOk = !isMissing(first);
+                boolean secondOk = !isMissing(second);
+                if (firstOk) {
+                    sqNormFirst += first * first;
+                }
+                if (secondOk) {
+                    sqNormSecond += second * second;
+                }
+                if (firstOk && secondOk) {
+                    dot += first * second;
+                }
+            }
+        } else {
+            float dot1 = 0, sqNormFirst1 = 0, sqNormSecond1 = 0;
+            float first1, second1;
+            int bound = length & ~1;
+            int i = 0;
+            for (; i < bound; i += 2) {
+                first = arrFirst[offFirst + i];
+                second = arrSecond[offSecond + i];
+                first1 = arrFirst[offFirst + i + 1];
+                second1 = arrSecond[offSecond + i + 1];
+                dot += first * second;
+                sqNormFirst += first * first;
+                sqNormSecond += second * second;
+                dot1 += first1 * second1;
+                sqNormFirst1 += first1 * first1;
+                sqNormSecond1 += second1 * second1;
+            }
+            if (i < length) {
+                first = arrFirst[offFirst + i];
+                second = arrSecond[offSecond + i];
+                dot += first * second;
+                sqNormFirst += first * first;
+                sqNormSecond += second * second;
+            }
+            dot += dot1;
+            sqNormFirst += sqNormFirst1;
+            sqNormSecond += sqNormSecond1;
+        }
+        return cosineFromProducts(dot, (float) Math.sqrt(sqNormFirst),
+                (float) Math.sqrt(sqNormSecond));
+    }
+
+    /**
+     * This method turns the dot product and the norms into the cosine distance
+     * in the same way as the CosineMetric class.
+     *
+     * @param dot Float value that is the dot product.
+     * @param normFirst Float value that is the norm of the first vector.
+     * @param normSecond Float value that is the norm of the second vector.
+     * @return Cosine distance.
+     */
+    private static float cosineFromProducts(float dot, float normFirst,
+            float normSecond) {
+        float cos;
+        if (DataMineConstants.isNonZero(normFirst)
+                && DataMineConstants.isNonZero(normSecond)) {
+            cos = dot / (normFirst * normSecond);
+        } else if (DataMineConstants.isZero(normFirst)
+                && DataMineConstants.isZero(normSecond)) {
+            cos = 1;
+        } else {
+            cos = -1;
+        }
+        return (1f - cos) * 0.5f;
+    }
+}
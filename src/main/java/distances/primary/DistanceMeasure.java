@@ -28,6 +28,35 @@ import java.io.Serializable;
 public class DistanceMeasure implements Serializable {
     
     private static final long serialVersionUID = 1L;
+    // Boolean flag indicating that the feature arrays are known not to contain
+    // any missing values, so that the metrics can skip the checks.
+    private boolean noMissingValues = false;
+    // Per-thread vectors that the default offset method copies the vectors
+    // into, so that no arrays are allocated for each pair.
+    private static final ThreadLocal<float[][]> offsetVectors =
+            new ThreadLocal<float[][]>() {
+        @Override
+        protected float[][] initialValue() {
+            return new float[2][0];
+        }
+    };
+
+    /**
+     * @param noMissingValues Boolean flag indicating that the feature arrays
+     * are known not to contain any missing values, so that the metrics that
+     * support it can skip the checks in their inner loops.
+     */
+    public void setNoMissingValues(boolean noMissingValues) {
+        this.noMissingValues = noMissingValues;
+    }
+
+    /**
+     * @return True if the feature arrays are assumed not to contain any
+     * missing values, false otherwise.
+     */
+    public boolean assumesNoMissingValues() {
+        return noMissingValues;
+    }
 
     /**
      * @param arrFirst Integer array.
@@ -50,6 +79,39 @@ public class DistanceMeasure implements Serializable {
         return 0f;
     }
 
+    /**
+     * This method calculates the distance between two vectors that are stored
+     * at the given offsets within larger arrays, such as the rows of a packed
+     * feature matrix. The default implementation passes whole arrays on to
+     * the array method and copies the vectors into reused per-thread arrays
+     * otherwise, while the frequently used metrics override it and work on
+     * the arrays directly.
+     *
+     * @param arrFirst Float array containing the first vector.
+     * @param offFirst Integer that is the offset of the first vector.
+     * @param arrSecond Float array containing the second vector.
+     * @param offSecond Integer that is the offset of the second vector.
+     * @param length Integer that is the vector length.
+     * @return Distance.
+     * @throws MetricException
+     */
+    public float dist(float[] arrFirst, int offFirst, float[] arrSecond,
+            int offSecond, int length) throws MetricException {
+        if (arrFirst == null || arrSecond == null || (offFirst == 0
+                && offSecond == 0 && arrFirst.length == length
+                && arrSecond.length == length)) {
+            return dist(arrFirst, arrSecond);
+        }
+        float[][] vectors = offsetVectors.get();
+        if (vectors[0].length != length) {
+            vectors[0] = new float[length];
+            vectors[1] = new float[length];
+        }
+        System.arraycopy(arrFirst, offFirst, vectors[0], 0, length);
+        System.arraycopy(arrSecond, offSecond, vectors[1], 0, length);
+        return dist(vectors[0], vectors[1]);
+    }
+
     /**
      * Throws a MetricException if some of the arrays are null or not equal in
      * length.
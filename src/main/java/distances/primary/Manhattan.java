@@ -34,15 +34,23 @@ public class Manhattan extends DistanceMeasure implements Serializable {
     public float dist(float[] arrFirst, float[] arrSecond)
             throws MetricException {
         DistanceMeasure.assertArrays(arrFirst, arrSecond);
-        float sum = 0;
-        for (int i = 0; i < arrFirst.length; i++) {
-            if (!DataMineConstants.isAcceptableFloat(arrFirst[i])
-                    || !DataMineConstants.isAcceptableFloat(arrSecond[i])) {
-                continue;
-            }
-            sum += Math.abs(arrFirst[i] - arrSecond[i]);
+        if (assumesNoMissingValues()) {
+            return DistanceKernels.manhattanUnchecked(arrFirst, arrSecond);
+        } else {
+            return DistanceKernels.manhattan(arrFirst, arrSecond);
+        }
+    }
+
+    @Override
+    public float dist(float[] arrFirst, int offFirst, float[] arrSecond,
+            int offSecond, int length) throws MetricException {
+        if (assumesNoMissingValues()) {
+            return DistanceKernels.manhattanUnchecked(arrFirst, offFirst,
+                    arrSecond, offSecond, length);
+        } else {
+            return DistanceKernels.manhattan(arrFirst, offFirst, arrSecond,
+                    offSecond, length);
         }
-        return sum;
     }
 
     @Override
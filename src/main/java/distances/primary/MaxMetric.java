@@ -33,15 +33,23 @@ public class MaxMetric extends DistanceMeasure implements Serializable {
     public float dist(float[] arrFirst, float[] arrSecond)
             throws MetricException {
         DistanceMeasure.assertArrays(arrFirst, arrSecond);
-        float max = 0;
-        for (int i = 0; i < arrFirst.length; i++) {
-            if (!DataMineConstants.isAcceptableFloat(arrFirst[i])
-                    || !DataMineConstants.isAcceptableFloat(arrSecond[i])) {
-                continue;
-            }
-            max = (float) Math.max(max, Math.abs(arrFirst[i] - arrSecond[i]));
+        if (assumesNoMissingValues()) {
+            return DistanceKernels.chebyshevUnchecked(arrFirst, arrSecond);
+        } else {
+            return DistanceKernels.chebyshev(arrFirst, arrSecond);
+        }
+    }
+
+    @Override
+    public float dist(float[] arrFirst, int offFirst, float[] arrSecond,
+            int offSecond, int length) throws MetricException {
+        if (assumesNoMissingValues()) {
+            return DistanceKernels.chebyshevUnchecked(arrFirst, offFirst,
+                    arrSecond, offSecond, length);
+        } else {
+            return DistanceKernels.chebyshev(arrFirst, offFirst, arrSecond,
+                    offSecond, length);
         }
-        return max;
     }
 
     @Override
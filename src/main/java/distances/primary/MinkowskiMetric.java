@@ -46,10 +46,29 @@ public class MinkowskiMetric extends DistanceMeasure implements Serializable {
         this.p = 2;
     }
 
+    /**
+     * @return Float value that defines the L_p Minkowski distance.
+     */
+    public float getP() {
+        return p;
+    }
+
     @Override
     public float dist(float[] arrFirst, float[] arrSecond)
             throws MetricException {
         DistanceMeasure.assertArrays(arrFirst, arrSecond);
+        // The most frequently used cases are handled by the specialized
+        // kernels that avoid the Math.pow calls.
+        if (p == 2) {
+            return (float) Math.sqrt(assumesNoMissingValues()
+                    ? DistanceKernels.squaredEuclideanUnchecked(arrFirst,
+                    arrSecond) : DistanceKernels.squaredEuclidean(arrFirst,
+                    arrSecond));
+        } else if (p == 1) {
+            return assumesNoMissingValues()
+                    ? DistanceKernels.manhattanUnchecked(arrFirst, arrSecond)
+                    : DistanceKernels.manhattan(arrFirst, arrSecond);
+        }
         float sum = 0;
         for (int i = 0; i < arrFirst.length; i++) {
             if (!DataMineConstants.isAcceptableFloat(arrFirst[i])
@@ -62,6 +81,27 @@ public class MinkowskiMetric extends DistanceMeasure implements Serializable {
         return sum;
     }
 
+    @Override
+    public float dist(float[] arrFirst, int offFirst, float[] arrSecond,
+            int offSecond, int length) throws MetricException {
+        if (p == 2) {
+            return (float) Math.sqrt(assumesNoMissingValues()
+                    ? DistanceKernels.squaredEuclideanUnchecked(arrFirst,
+                    offFirst, arrSecond, offSecond, length)
+                    : DistanceKernels.squaredEuclidean(arrFirst, offFirst,
+                    arrSecond, offSecond, length));
+        } else if (p == 1) {
+            return assumesNoMissingValues()
+                    ? DistanceKernels.manhattanUnchecked(arrFirst, offFirst,
+                    arrSecond, offSecond, length)
+                    : DistanceKernels.manhattan(arrFirst, offFirst, arrSecond,
+                    offSecond, length);
+        } else {
+            return super.dist(arrFirst, offFirst, arrSecond, offSecond,
+                    length);
+        }
+    }
+
     /**
      * @param Float array.
      * @return Norm of the given array.
@@ -125,7 +165,10 @@ public class MinkowskiMetric extends DistanceMeasure implements Serializable {
             throws MetricException {
         DistanceMeasure.assertInstances(first, second);
         float sum = 0f;
-        DistanceMeasure.assertInstances(first, second);
+        if ((p == 1 || p == 2) && first.getNumIAtt() == 0
+                && first.getNumFAtt() > 0) {
+            return dist(first.fAttr, second.fAttr);
+        }
         for (int i = 0; i < first.getNumFAtt(); i++) {
             if (!DataMineConstants.isAcceptableFloat(first.fAttr[i])
                     || !DataMineConstants.isAcceptableFloat(second.fAttr[i])) {
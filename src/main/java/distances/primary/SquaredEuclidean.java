@@ -0,0 +1,74 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package distances.primary;
+
+import data.representation.util.DataMineConstants;
+import java.io.Serializable;
+
+/**
+ * Squared Euclidean distance between float feature arrays. It is not a metric,
+ * but it preserves the ordering of the Euclidean distances and avoids the
+ * square root, which makes it useful for the kNN search and clustering.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class SquaredEuclidean extends DistanceMeasure implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public float dist(float[] arrFirst, float[] arrSecond)
+            throws MetricException {
+        DistanceMeasure.assertArrays(arrFirst, arrSecond);
+        if (assumesNoMissingValues()) {
+            return DistanceKernels.squaredEuclideanUnchecked(arrFirst,
+                    arrSecond);
+        } else {
+            return DistanceKernels.squaredEuclidean(arrFirst, arrSecond);
+        }
+    }
+
+    @Override
+    public float dist(float[] arrFirst, int offFirst, float[] arrSecond,
+            int offSecond, int length) throws MetricException {
+        if (assumesNoMissingValues()) {
+            return DistanceKernels.squaredEuclideanUnchecked(arrFirst,
+                    offFirst, arrSecond, offSecond, length);
+        } else {
+            return DistanceKernels.squaredEuclidean(arrFirst, offFirst,
+                    arrSecond, offSecond, length);
+        }
+    }
+
+    @Override
+    public float dist(int[] arrFirst, int[] arrSecond)
+            throws MetricException {
+        DistanceMeasure.assertArrays(arrFirst, arrSecond);
+        float sum = 0;
+        float diff;
+        for (int i = 0; i < arrFirst.length; i++) {
+            if (!assumesNoMissingValues()
+                    && (!DataMineConstants.isAcceptableInt(arrFirst[i])
+                    || !DataMineConstants.isAcceptableInt(arrSecond[i]))) {
+                continue;
+            }
+            diff = arrFirst[i] - arrSecond[i];
+            sum += diff * diff;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,262 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package distances.primary.test;
+
+import data.representation.util.DataMineConstants;
+import distances.primary.CosineMetric;
+import distances.primary.DistanceMeasure;
+import distances.primary.Manhattan;
+import distances.primary.MaxMetric;
+import distances.primary.MinkowskiMetric;
+import distances.primary.SquaredEuclidean;
+import java.util.Random;
+import util.CommandLineParser;
+
+/**
+ * This script compares the running times of the specialized distance kernels
+ * to the generic implementations that were previously used for the Euclidean,
+ * Manhattan, Chebyshev and cosine distances. Both the default mode with the
+ * missing value checks and the mode without them are measured. It also reports
+ * the largest absolute difference between the results, as a sanity check.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class DistanceKernelBenchmark {
+
+    // The number of warm-up rounds before the measurements.
+    private static final int WARMUP_ROUNDS = 5;
+    // Used to prevent the JIT compiler from removing the measured calls.
+    private static float sink = 0;
+
+    /**
+     * This interface abstracts the measured distance implementations.
+     */
+    private interface DistanceFunction {
+
+        float dist(float[] arrFirst, float[] arrSecond) throws Exception;
+    }
+
+    /**
+     * This method runs the benchmark.
+     *
+     * @param args Command line parameters, as specified.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineParser clp = new CommandLineParser(true);
+        clp.addParam("-dim", "Feature array length.",
+                CommandLineParser.INTEGER, true, false);
+        clp.addParam("-numVectors", "Number of random vectors.",
+                CommandLineParser.INTEGER, true, false);
+        clp.addParam("-rounds", "Number of measured rounds.",
+                CommandLineParser.INTEGER, true, false);
+        clp.parseLine(args);
+        int dim = (Integer) clp.getParamValues("-dim").get(0);
+        int numVectors = (Integer) clp.getParamValues("-numVectors").get(0);
+        int rounds = (Integer) clp.getParamValues("-rounds").get(0);
+        Random randa = new Random(1L);
+        float[][] vectors = new float[numVectors][dim];
+        for (int i = 0; i < numVectors; i++) {
+            for (int d = 0; d < dim; d++) {
+                vectors[i][d] = randa.nextFloat();
+            }
+        }
+        final MinkowskiMetric euclidean = new MinkowskiMetric(2);
+        final MinkowskiMetric euclideanNoMissing = new MinkowskiMetric(2);
+        euclideanNoMissing.setNoMissingValues(true);
+        final SquaredEuclidean sqEuclideanNoMissing = new SquaredEuclidean();
+        sqEuclideanNoMissing.setNoMissingValues(true);
+        final Manhattan manhattan = new Manhattan();
+        final Manhattan manhattanNoMissing = new Manhattan();
+        manhattanNoMissing.setNoMissingValues(true);
+        final MaxMetric chebyshev = new MaxMetric();
+        final MaxMetric chebyshevNoMissing = new MaxMetric();
+        chebyshevNoMissing.setNoMissingValues(true);
+        final CosineMetric cosine = new CosineMetric();
+        final CosineMetric cosineNoMissing = new CosineMetric();
+        cosineNoMissing.setNoMissingValues(true);
+        String[] names = {"L2 generic", "L2", "L2 no missing",
+            "squared L2 no missing", "L1 generic", "L1", "L1 no missing",
+            "L-inf generic", "L-inf", "L-inf no missing", "cosine generic",
+            "cosine", "cosine no missing"};
+        DistanceFunction[] functions = {
+            new DistanceFunction() {
+                @Override
+                public float dist(float[] arrFirst, float[] arrSecond) {
+                    return genericMinkowski(arrFirst, arrSecond, 2);
+                }
+            }, wrap(euclidean), wrap(euclideanNoMissing),
+            wrap(sqEuclideanNoMissing),
+            new DistanceFunction() {
+                @Override
+                public float dist(float[] arrFirst, float[] arrSecond) {
+                    return genericManhattan(arrFirst, arrSecond);
+                }
+            }, wrap(manhattan), wrap(manhattanNoMissing),
+            new DistanceFunction() {
+                @Override
+                public float dist(float[] arrFirst, float[] arrSecond) {
+                    return genericChebyshev(arrFirst, arrSecond);
+                }
+            }, wrap(chebyshev), wrap(chebyshevNoMissing),
+            new DistanceFunction() {
+                @Override
+                public float dist(float[] arrFirst, float[] arrSecond) {
+                    return genericCosine(arrFirst, arrSecond);
+                }
+            }, wrap(cosine), wrap(cosineNoMissing)};
+        // The index of the reference generic implementation for each function.
+        int[] referenceIndexes = {0, 0, 0, -1, 4, 4, 4, 7, 7, 7, 10, 10, 10};
+        for (int fIndex = 0; fIndex < functions.length; fIndex++) {
+            for (int r = 0; r < WARMUP_ROUNDS; r++) {
+                runRound(functions[fIndex], vectors);
+            }
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                runRound(functions[fIndex], vectors);
+            }
+            long elapsed = System.nanoTime() - start;
+            double nsPerCall = (double) elapsed / ((double) rounds
+                    * numVectors * (numVectors - 1) / 2);
+            float maxDiff = 0;
+            if (referenceIndexes[fIndex] >= 0) {
+                for (int i = 0; i < Math.min(numVectors, 50); i++) {
+                    for (int j = i + 1; j < Math.min(numVectors, 50); j++) {
+                        maxDiff = Math.max(maxDiff, Math.abs(
+                                functions[fIndex].dist(vectors[i], vectors[j])
+                                - functions[referenceIndexes[fIndex]].dist(
+                                vectors[i], vectors[j])));
+                    }
+                }
+            }
+            System.out.println(names[fIndex] + ": " + nsPerCall
+                    + " ns per call, max. abs. difference: " + maxDiff);
+        }
+        System.out.println("checksum: " + sink);
+    }
+
+    /**
+     * This method wraps a DistanceMeasure into a DistanceFunction.
+     *
+     * @param dm DistanceMeasure to wrap.
+     * @return DistanceFunction that invokes the DistanceMeasure.
+     */
+    private static DistanceFunction wrap(final DistanceMeasure dm) {
+        return new DistanceFunction() {
+            @Override
+            public float dist(float[] arrFirst, float[] arrSecond)
+                    throws Exception {
+                return dm.dist(arrFirst, arrSecond);
+            }
+        };
+    }
+
+    /**
+     * This method calculates the distances between all pairs of vectors.
+     *
+     * @param function DistanceFunction to measure.
+     * @param vectors float[][] containing the vectors.
+     * @throws Exception
+     */
+    private static void runRound(DistanceFunction function, float[][] vectors)
+            throws Exception {
+        float sum = 0;
+        for (int i = 0; i < vectors.length; i++) {
+            for (int j = i + 1; j < vectors.length; j++) {
+                sum += function.dist(vectors[i], vectors[j]);
+            }
+        }
+        sink += sum;
+    }
+
+    /**
+     * The generic Minkowski implementation, for comparisons.
+     */
+    private static float genericMinkowski(float[] arrFirst, float[] arrSecond,
+            float p) {
+        float sum = 0;
+        for (int i = 0; i < arrFirst.length; i++) {
+            if (!DataMineConstants.isAcceptableFloat(arrFirst[i])
+                    || !DataMineConstants.isAcceptableFloat(arrSecond[i])) {
+                continue;
+            }
+            sum += Math.pow(Math.abs(arrFirst[i] - arrSecond[i]), p);
+        }
+        sum = (float) Math.pow(sum, 1. / p);
+        return sum;
+    }
+
+    /**
+     * The generic Manhattan implementation, for comparisons.
+     */
+    private static float genericManhattan(float[] arrFirst,
+            float[] arrSecond) {
+        float sum = 0;
+        for (int i = 0; i < arrFirst.length; i++) {
+            if (!DataMineConstants.isAcceptableFloat(arrFirst[i])
+                    || !DataMineConstants.isAcceptableFloat(arrSecond[i])) {
+                continue;
+            }
+            sum += Math.abs(arrFirst[i] - arrSecond[i]);
+        }
+        return sum;
+    }
+
+    /**
+     * The generic Chebyshev implementation, for comparisons.
+     */
+    private static float genericChebyshev(float[] arrFirst,
+            float[] arrSecond) {
+        float max = 0;
+        for (int i = 0; i < arrFirst.length; i++) {
+            if (!DataMineConstants.isAcceptableFloat(arrFirst[i])
+                    || !DataMineConstants.isAcceptableFloat(arrSecond[i])) {
+                continue;
+            }
+            max = Math.max(max, Math.abs(arrFirst[i] - arrSecond[i]));
+        }
+        return max;
+    }
+
+    /**
+     * The generic cosine implementation, for comparisons.
+     */
+    private static float genericCosine(float[] arrFirst, float[] arrSecond) {
+        float sum = 0;
+        for (int i = 0; i < arrFirst.length; i++) {
+            if (!DataMineConstants.isAcceptableFloat(arrFirst[i])
+                    || !DataMineConstants.isAcceptableFloat(arrSecond[i])) {
+                continue;
+            }
+            sum += arrFirst[i] * arrSecond[i];
+        }
+        float normFirst = genericMinkowski(arrFirst, new float[
+                arrFirst.length], 2);
+        float normSecond = genericMinkowski(arrSecond, new float[
+                arrSecond.length], 2);
+        if (DataMineConstants.isNonZero(normFirst)
+                && DataMineConstants.isNonZero(normSecond)) {
+            sum = sum / (normFirst * normSecond);
+        } else if (DataMineConstants.isZero(normFirst)
+                && DataMineConstants.isZero(normSecond)) {
+            sum = 1;
+        } else {
+            sum = -1;
+        }
+        return (1f - sum) * 0.5f;
+    }
+}
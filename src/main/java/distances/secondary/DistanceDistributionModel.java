@@ -0,0 +1,186 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package distances.secondary;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import probability.GammaDistributionCalculator;
+import probability.NormalDistributionCalculator;
+
+/**
+ * This class models the distribution of distances from a single point to the
+ * other points in the data. It is fit once per point and then used to obtain
+ * the probability that a distance from the point exceeds a given value in
+ * constant time, which is what the mutual proximity calculations need. The
+ * distribution can be modeled as a Gaussian, as a Gamma distribution with the
+ * parameters estimated by the method of moments, or by an empirical quantile
+ * sketch.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class DistanceDistributionModel implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    // The default number of quantile intervals in the empirical sketch.
+    public static final int DEFAULT_NUM_QUANTILES = 32;
+
+    /**
+     * The types of the distance distribution models.
+     */
+    public enum ModelType {
+
+        GAUSSIAN, GAMMA, EMPIRICAL
+    }
+    private ModelType type;
+    // The requested number of quantile intervals in the empirical sketch.
+    private int numQuantiles;
+    // Mean and standard deviation of the distances.
+    private double distMean;
+    private double distStDev;
+    // Parameters of the Gamma distribution.
+    private double shape;
+    private double scale;
+    // Sorted distances at evenly spaced ranks, for the empirical sketch.
+    private float[] quantiles;
+
+    /**
+     * This method fits the distance distribution model to the provided
+     * distances from a point to the other points.
+     *
+     * @param distances float[] of distances from a point to other points.
+     * @param length Integer that is the number of distances to use, from the
+     * beginning of the array.
+     * @param type ModelType of the model to fit.
+     * @param numQuantiles Integer that is the number of quantile intervals in
+     * the empirical sketch.
+     * @return DistanceDistributionModel that was fit to the distances.
+     */
+    public static DistanceDistributionModel fit(float[] distances, int length,
+            ModelType type, int numQuantiles) {
+        DistanceDistributionModel model = new DistanceDistributionModel();
+        model.type = type;
+        model.numQuantiles = numQuantiles;
+        if (length <= 0) {
+            return model;
+        }
+        for (int i = 0; i < length; i++) {
+            model.distMean += distances[i];
+        }
+        model.distMean /= length;
+        for (int i = 0; i < length; i++) {
+            model.distStDev += (distances[i] - model.distMean)
+                    * (distances[i] - model.distMean);
+        }
+        model.distStDev = Math.sqrt(model.distStDev / length);
+        if (type == ModelType.GAMMA && model.distMean > 0
+                && model.distStDev > 0) {
+            double variance = model.distStDev * model.distStDev;
+            model.shape = model.distMean * model.distMean / variance;
+            model.scale = variance / model.distMean;
+        } else if (type == ModelType.EMPIRICAL) {
+            float[] sorted = Arrays.copyOf(distances, length);
+            Arrays.sort(sorted);
+            int numIntervals = Math.max(1, Math.min(numQuantiles, length - 1));
+            model.quantiles = new float[numIntervals + 1];
+            for (int t = 0; t <= numIntervals; t++) {
+                model.quantiles[t] = sorted[(int) Math.round(
+                        (double) t * (length - 1) / numIntervals)];
+            }
+        }
+        return model;
+    }
+
+    /**
+     * @param distance Float that is the distance value.
+     * @return Double that is the probability that a distance from the modeled
+     * point to a random other point is larger than the provided distance.
+     */
+    public double getExceedanceProbability(float distance) {
+        if (distStDev == 0) {
+            // Degenerate distribution, all distances are equal.
+            return distance < distMean ? 1 : 0;
+        }
+        switch (type) {
+            case GAMMA:
+                return 1 - GammaDistributionCalculator.GammaCumulative(
+                        distance, shape, scale);
+            case EMPIRICAL:
+                return 1 - getEmpiricalCumulative(distance);
+            default:
+                return 1 - NormalDistributionCalculator.PhiCumulative(
+                        distance, distMean, distStDev);
+        }
+    }
+
+    /**
+     * @param distance Float that is the distance value.
+     * @return Double that is the empirical cumulative distribution function at
+     * the provided distance, linearly interpolated between the quantiles.
+     */
+    private double getEmpiricalCumulative(float distance) {
+        int numIntervals = quantiles.length - 1;
+        if (distance < quantiles[0]) {
+            return 0;
+        }
+        if (distance >= quantiles[numIntervals]) {
+            return 1;
+        }
+        // The last quantile that is not larger than the distance.
+        int low = 0;
+        int high = numIntervals;
+        while (high - low > 1) {
+            int mid = (low + high) >>> 1;
+            if (quantiles[mid] <= distance) {
+                low = mid;
+            } else {
+                high = mid;
+            }
+        }
+        double fraction = (distance - quantiles[low])
+                / (quantiles[low + 1] - quantiles[low]);
+        return (low + fraction) / numIntervals;
+    }
+
+    /**
+     * @return ModelType of the model.
+     */
+    public ModelType getType() {
+        return type;
+    }
+
+    /**
+     * @return Integer that is the requested number of quantile intervals in
+     * the empirical sketch.
+     */
+    public int getNumQuantiles() {
+        return numQuantiles;
+    }
+
+    /**
+     * @return Double that is the mean distance.
+     */
+    public double getDistMean() {
+        return distMean;
+    }
+
+    /**
+     * @return Double that is the standard deviation of the distances.
+     */
+    public double getDistStDev() {
+        return distStDev;
+    }
+}
@@ -19,9 +19,12 @@ package distances.secondary;
 import data.neighbors.NeighborSetFinder;
 import data.representation.DataInstance;
 import data.representation.DataSet;
+import distances.matrix.HeapTriangularMatrix;
+import distances.matrix.TriangularDistanceMatrix;
 import distances.primary.CombinedMetric;
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
 import probability.NormalDistributionCalculator;
 import sampling.UniformSampler;
 
@@ -46,9 +49,15 @@ implements Serializable {
     double[] distStDevs;
     // Primary distance matrix.
     float[][] dMatPrimary;
+    // Primary distance matrix storage, used when the primary distances are not
+    // available as a jagged array on the heap.
+    transient TriangularDistanceMatrix dMatPrimaryBackend;
     DataSet dset;
     // CombinedMetric object for distance calculations.
     CombinedMetric cmet;
+    // Per-point distance distribution models, fit once and then used for
+    // constant-time mutual proximity calculations.
+    DistanceDistributionModel[] pointModels;
     
     @Override
     public String toString() {
@@ -67,65 +76,150 @@ implements Serializable {
         this.dMatPrimary = dMatPrimary;
         this.dset = dset;
         this.cmet = cmet;
+        if (dMatPrimary != null) {
+            fitDistanceModel(new HeapTriangularMatrix(dMatPrimary));
+        }
+    }
+
+    /**
+     * Initialization of the model from a primary distance matrix that can be
+     * kept off-heap. The model is estimated by streaming over the matrix rows.
+     *
+     * @param dMatPrimaryBackend TriangularDistanceMatrix that holds the primary
+     * distances.
+     * @param dset DataSet object.
+     * @param cmet CombinedMetric object for distance calculations.
+     */
+    public MutualProximityCalculator(
+            TriangularDistanceMatrix dMatPrimaryBackend, DataSet dset,
+            CombinedMetric cmet) {
+        this.dset = dset;
+        this.cmet = cmet;
+        if (dMatPrimaryBackend instanceof HeapTriangularMatrix) {
+            this.dMatPrimary = ((HeapTriangularMatrix) dMatPrimaryBackend).
+                    getJaggedArray();
+        } else {
+            this.dMatPrimaryBackend = dMatPrimaryBackend;
+        }
+        if (dMatPrimaryBackend != null) {
+            fitDistanceModel(dMatPrimaryBackend);
+        }
+    }
+
+    /**
+     * @return True if the primary distances are available, false otherwise.
+     */
+    public boolean hasPrimaryDistances() {
+        return getPrimarySize() > 0;
+    }
+
+    /**
+     * @return Integer that is the number of points in the primary distance
+     * matrix.
+     */
+    private int getPrimarySize() {
+        if (dMatPrimary != null) {
+            return dMatPrimary.length;
+        } else if (dMatPrimaryBackend != null) {
+            return dMatPrimaryBackend.size();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * This method gets a row of the primary distance matrix. The jagged array
+     * rows are returned directly, while the backend rows are copied to the
+     * provided buffer.
+     *
+     * @param dMat TriangularDistanceMatrix that holds the primary distances.
+     * @param row Integer that is the row index.
+     * @param rowBuffer float[] to copy the row to, if needed.
+     * @return float[] containing the row entries.
+     */
+    private static float[] getPrimaryRow(TriangularDistanceMatrix dMat,
+            int row, float[] rowBuffer) {
+        if (dMat instanceof HeapTriangularMatrix) {
+            return ((HeapTriangularMatrix) dMat).getJaggedArray()[row];
+        }
+        dMat.getRow(row, rowBuffer);
+        return rowBuffer;
+    }
+
+    /**
+     * This method estimates the means and standard deviations of distances
+     * from each point to the other points.
+     *
+     * @param dMat TriangularDistanceMatrix that holds the primary distances.
+     */
+    private void fitDistanceModel(TriangularDistanceMatrix dMat) {
+        int size = dMat.size();
         int other;
-        if (dMatPrimary != null && dMatPrimary.length > 0) {
-            distMeans = new double[dMatPrimary.length];
-            distStDevs = new double[dMatPrimary.length];
-            float[] numIncluded = new float[dMatPrimary.length];
+        float[] rowBuffer = new float[Math.max(size - 1, 0)];
+        float[] row;
+        int rowLength;
+        if (size > 0) {
+            distMeans = new double[size];
+            distStDevs = new double[size];
+            float[] numIncluded = new float[size];
             // Calculate the means of distances from each point to other points.
-            for (int i = 0; i < dMatPrimary.length; i++) {
-                for (int j = 0; j < dMatPrimary[i].length; j++) {
+            for (int i = 0; i < size; i++) {
+                row = getPrimaryRow(dMat, i, rowBuffer);
+                rowLength = dMat.getRowLength(i);
+                for (int j = 0; j < rowLength; j++) {
                     if (numIncluded[i] == 0) {
                         numIncluded[i] = 1;
-                        distMeans[i] = dMatPrimary[i][j];
+                        distMeans[i] = row[j];
                     } else {
                         numIncluded[i]++;
                         distMeans[i] = distMeans[i]
                                 * ((numIncluded[i] - 1) / numIncluded[i])
-                                + dMatPrimary[i][j] * (1 / numIncluded[i]);
+                                + row[j] * (1 / numIncluded[i]);
                     }
                     other = i + j + 1;
                     if (numIncluded[other] == 0) {
                         numIncluded[other] = 1;
-                        distMeans[other] = dMatPrimary[i][j];
+                        distMeans[other] = row[j];
                     } else {
                         numIncluded[other]++;
                         distMeans[other] = distMeans[other]
                                 * ((numIncluded[other] - 1)
                                 / numIncluded[other])
-                                + dMatPrimary[i][j] * (1 / numIncluded[other]);
+                                + row[j] * (1 / numIncluded[other]);
                     }
                 }
             }
             Arrays.fill(numIncluded, 0);
             // Calculate the standard deviation of distances from each point to
             // other points.
-            for (int i = 0; i < dMatPrimary.length; i++) {
-                for (int j = 0; j < dMatPrimary[i].length; j++) {
+            for (int i = 0; i < size; i++) {
+                row = getPrimaryRow(dMat, i, rowBuffer);
+                rowLength = dMat.getRowLength(i);
+                for (int j = 0; j < rowLength; j++) {
                     if (numIncluded[i] == 0) {
                         numIncluded[i] = 1;
-                        distStDevs[i] = (dMatPrimary[i][j] - distMeans[i])
-                                * (dMatPrimary[i][j] - distMeans[i]);
+                        distStDevs[i] = (row[j] - distMeans[i])
+                                * (row[j] - distMeans[i]);
                     } else {
                         numIncluded[i]++;
                         distStDevs[i] = distStDevs[i] * ((numIncluded[i] - 1)
-                                / numIncluded[i]) + (dMatPrimary[i][j]
-                                - distMeans[i]) * (dMatPrimary[i][j]
+                                / numIncluded[i]) + (row[j]
+                                - distMeans[i]) * (row[j]
                                 - distMeans[i]) * (1 / numIncluded[i]);
                     }
                     other = i + j + 1;
                     if (numIncluded[other] == 0) {
                         numIncluded[other] = 1;
-                        distStDevs[other] = (dMatPrimary[i][j]
-                                - distMeans[other]) * (dMatPrimary[i][j]
+                        distStDevs[other] = (row[j]
+                                - distMeans[other]) * (row[j]
                                 - distMeans[other]);
                     } else {
                         numIncluded[other]++;
                         distStDevs[other] = distStDevs[other]
                                 * ((numIncluded[other] - 1)
                                 / numIncluded[other])
-                                + (dMatPrimary[i][j] - distMeans[other])
-                                * (dMatPrimary[i][j] - distMeans[other])
+                                + (row[j] - distMeans[other])
+                                * (row[j] - distMeans[other])
                                 * (1 / numIncluded[other]);
                     }
                 }
@@ -179,7 +273,9 @@ implements Serializable {
 
     /**
      * Calculate the secondary distance matrix on the data in a multi-threaded
-     * way, with sampling for speed-up.
+     * way, with sampling for speed-up. The Gaussian distance model of each
+     * point is estimated once from a sample of its distances to other points,
+     * so the secondary distance of each pair is calculated in constant time.
      *
      * @param numThreads Integer that is the number of threads to use.
      * @param samplingSize Integer that is the size of the sample.
@@ -193,77 +289,339 @@ implements Serializable {
             return null;
         } else {
             samplingSize = Math.min(samplingSize, (int) (dset.size() * 0.8f));
-            float[][] distances = new float[dset.size()][];
-            int size = dset.size();
-            int chunkSize = size / numThreads;
-            Thread[] threads = new Thread[numThreads];
-            for (int i = 0; i < numThreads - 1; i++) {
-                threads[i] = new Thread(new DmCalculatorFast(
-                        dset, i * chunkSize, (i + 1) * chunkSize - 1,
-                        distances, cmet, samplingSize));
-                threads[i].start();
+            DistanceDistributionModel[] sampledModels = fitModels(
+                    DistanceDistributionModel.ModelType.GAUSSIAN, samplingSize,
+                    DistanceDistributionModel.DEFAULT_NUM_QUANTILES,
+                    numThreads);
+            return calculateSecondaryDistMatrix(sampledModels, numThreads);
+        }
+    }
+
+    /**
+     * This method fits the distance distribution model of each point to its
+     * distances to all the other points, in a multi-threaded way. The models
+     * are kept and used by calculateSecondaryDistMatrixFromModels and for the
+     * mutual proximity of new query points. They are serializable and can be
+     * persisted and restored by getPointModels and setPointModels.
+     *
+     * @param type ModelType of the distance distribution models.
+     * @param numQuantiles Integer that is the number of quantile intervals in
+     * the empirical models.
+     * @param numThreads Integer that is the number of threads to use.
+     * @throws Exception
+     */
+    public void fitPointModels(DistanceDistributionModel.ModelType type,
+            int numQuantiles, int numThreads) throws Exception {
+        pointModels = fitModels(type, 0, numQuantiles, numThreads);
+    }
+
+    /**
+     * @return DistanceDistributionModel[] of the per-point distance models.
+     */
+    public DistanceDistributionModel[] getPointModels() {
+        return pointModels;
+    }
+
+    /**
+     * @param pointModels DistanceDistributionModel[] of the per-point distance
+     * models.
+     */
+    public void setPointModels(DistanceDistributionModel[] pointModels) {
+        this.pointModels = pointModels;
+    }
+
+    /**
+     * Calculate the secondary distance matrix on the data in a multi-threaded
+     * way, from the per-point distance models that were previously fit by
+     * fitPointModels. The secondary distance of each pair is calculated in
+     * constant time.
+     *
+     * @param numThreads Integer that is the number of threads to use.
+     * @return float[][] representing the upper triangular secondary MP distance
+     * matrix.
+     * @throws Exception
+     */
+    public float[][] calculateSecondaryDistMatrixFromModels(int numThreads)
+            throws Exception {
+        if (pointModels == null) {
+            throw new Exception("The point models have not been fit.");
+        }
+        return calculateSecondaryDistMatrix(pointModels, numThreads);
+    }
+
+    /**
+     * This method fits the distance distribution models of all points.
+     *
+     * @param type ModelType of the distance distribution models.
+     * @param sampleSize Integer that is the number of sampled distances per
+     * point, or zero if all the distances are to be used.
+     * @param numQuantiles Integer that is the number of quantile intervals in
+     * the empirical models.
+     * @param numThreads Integer that is the number of threads to use.
+     * @return DistanceDistributionModel[] of the per-point distance models.
+     * @throws Exception
+     */
+    private DistanceDistributionModel[] fitModels(
+            DistanceDistributionModel.ModelType type, int sampleSize,
+            int numQuantiles, int numThreads) throws Exception {
+        int size = getPrimarySize();
+        if (size == 0) {
+            throw new Exception("No primary distances provided.");
+        }
+        TriangularDistanceMatrix source = dMatPrimary != null
+                ? new HeapTriangularMatrix(dMatPrimary) : dMatPrimaryBackend;
+        DistanceDistributionModel[] models =
+                new DistanceDistributionModel[size];
+        AtomicInteger nextPoint = new AtomicInteger(0);
+        numThreads = Math.max(1, Math.min(numThreads, size));
+        ModelFitter[] workers = new ModelFitter[numThreads];
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new ModelFitter(source, type, sampleSize,
+                    numQuantiles, models, nextPoint);
+            threads[i] = new Thread(workers[i]);
+            threads[i].start();
+        }
+        joinAndCheck(threads, workers);
+        return models;
+    }
+
+    /**
+     * This method calculates the secondary distance matrix from the per-point
+     * distance models.
+     *
+     * @param models DistanceDistributionModel[] of the per-point distance
+     * models.
+     * @param numThreads Integer that is the number of threads to use.
+     * @return float[][] representing the upper triangular secondary MP distance
+     * matrix.
+     * @throws Exception
+     */
+    private float[][] calculateSecondaryDistMatrix(
+            DistanceDistributionModel[] models, int numThreads)
+            throws Exception {
+        int size = getPrimarySize();
+        TriangularDistanceMatrix source = dMatPrimary != null
+                ? new HeapTriangularMatrix(dMatPrimary) : dMatPrimaryBackend;
+        float[][] distances = new float[size][];
+        AtomicInteger nextRow = new AtomicInteger(0);
+        numThreads = Math.max(1, Math.min(numThreads, size));
+        ModelDmCalculator[] workers = new ModelDmCalculator[numThreads];
+        Thread[] threads = new Thread[numThreads];
+        for (int i = 0; i < numThreads; i++) {
+            workers[i] = new ModelDmCalculator(source, models, distances,
+                    nextRow);
+            threads[i] = new Thread(workers[i]);
+            threads[i].start();
+        }
+        joinAndCheck(threads, workers);
+        return distances;
+    }
+
+    /**
+     * This method waits for the worker threads to finish and re-throws the
+     * first error that occurred in the workers.
+     *
+     * @param threads Thread[] of the worker threads.
+     * @param workers ModelWorker[] of the workers.
+     * @throws Exception
+     */
+    private static void joinAndCheck(Thread[] threads, ModelWorker[] workers)
+            throws Exception {
+        for (int i = 0; i < threads.length; i++) {
+            try {
+                threads[i].join();
+            } catch (Throwable t) {
+                System.err.println(t.getMessage());
             }
-            threads[numThreads - 1] = new Thread(new DmCalculatorFast(dset,
-                    (numThreads - 1) * chunkSize, size - 1,
-                    distances, cmet, samplingSize));
-            threads[numThreads - 1].start();
-            for (int i = 0; i < numThreads; i++) {
-                if (threads[i] != null) {
-                    try {
-                        threads[i].join();
-                    } catch (Throwable t) {
+        }
+        for (ModelWorker worker : workers) {
+            if (worker.error != null) {
+                throw worker.error;
+            }
+        }
+    }
+
+    /**
+     * This method fits the distance distribution model of a query point that
+     * is not in the data, of the same type as the per-point models.
+     *
+     * @param distToData float[] of distances from the query point to all the
+     * points in the data.
+     * @return DistanceDistributionModel of the query point.
+     */
+    public DistanceDistributionModel fitQueryModel(float[] distToData) {
+        if (pointModels == null || pointModels.length == 0) {
+            return DistanceDistributionModel.fit(distToData, distToData.length,
+                    DistanceDistributionModel.ModelType.GAUSSIAN,
+                    DistanceDistributionModel.DEFAULT_NUM_QUANTILES);
+        }
+        return DistanceDistributionModel.fit(distToData, distToData.length,
+                pointModels[0].getType(), pointModels[0].getNumQuantiles());
+    }
+
+    /**
+     * This method calculates the mutual proximity distances from a query point
+     * that is not in the data to all the points in the data, from the
+     * per-point distance models that were previously fit by fitPointModels.
+     * Only the primary distances from the query point need to be calculated.
+     *
+     * @param instance DataInstance that is the query point.
+     * @return float[] of the secondary MP distances to all the points in the
+     * data.
+     * @throws Exception
+     */
+    public float[] queryDistances(DataInstance instance) throws Exception {
+        if (pointModels == null) {
+            throw new Exception("The point models have not been fit.");
+        }
+        float[] distToData = cmet.dist(instance, dset.data);
+        DistanceDistributionModel queryModel = fitQueryModel(distToData);
+        float[] mpDistances = new float[distToData.length];
+        for (int i = 0; i < distToData.length; i++) {
+            mpDistances[i] = distFromModels(distToData[i], queryModel,
+                    pointModels[i]);
+        }
+        return mpDistances;
+    }
+
+    /**
+     * Calculates the distance based on mutual proximity from the distance
+     * distribution models of the two points.
+     *
+     * @param distance Float that is the distance between the instances.
+     * @param firstModel DistanceDistributionModel of the first point.
+     * @param secondModel DistanceDistributionModel of the second point.
+     * @return Float value that is the distance based on mutual proximity.
+     */
+    public static float distFromModels(float distance,
+            DistanceDistributionModel firstModel,
+            DistanceDistributionModel secondModel) {
+        float mp = (float) (firstModel.getExceedanceProbability(distance)
+                * secondModel.getExceedanceProbability(distance));
+        return 1 - mp;
+    }
+
+    /**
+     * Base class of the workers that process the points from a shared
+     * counter.
+     */
+    abstract static class ModelWorker implements Runnable {
+
+        Exception error;
+    }
+
+    /**
+     * Worker class for multi-threaded fitting of the per-point distance
+     * models.
+     */
+    static class ModelFitter extends ModelWorker {
+
+        TriangularDistanceMatrix source;
+        DistanceDistributionModel.ModelType type;
+        int sampleSize;
+        DistanceDistributionModel[] models;
+        int numQuantiles;
+        AtomicInteger nextPoint;
+
+        /**
+         * @param source TriangularDistanceMatrix of the primary distances.
+         * @param type ModelType of the distance distribution models.
+         * @param sampleSize Integer that is the number of sampled distances
+         * per point, or zero if all the distances are to be used.
+         * @param numQuantiles Integer that is the number of quantile
+         * intervals in the empirical models.
+         * @param models DistanceDistributionModel[] for the fit models.
+         * @param nextPoint AtomicInteger that is the next unprocessed point.
+         */
+        ModelFitter(TriangularDistanceMatrix source,
+                DistanceDistributionModel.ModelType type, int sampleSize,
+                int numQuantiles, DistanceDistributionModel[] models,
+                AtomicInteger nextPoint) {
+            this.source = source;
+            this.type = type;
+            this.sampleSize = sampleSize;
+            this.numQuantiles = numQuantiles;
+            this.models = models;
+            this.nextPoint = nextPoint;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int size = source.size();
+                float[] pointDists = new float[Math.max(size - 1, 1)];
+                int i;
+                while ((i = nextPoint.getAndIncrement()) < size) {
+                    int length = 0;
+                    if (sampleSize > 0 && sampleSize < size - 1) {
+                        int[] sampleIndexes = UniformSampler.getSample(
+                                size - 1, sampleSize);
+                        for (int s = 0; s < sampleSize; s++) {
+                            // Skip the point itself.
+                            int j = sampleIndexes[s] < i ? sampleIndexes[s]
+                                    : sampleIndexes[s] + 1;
+                            pointDists[length++] = source.getDistance(i, j);
+                        }
+                    } else {
+                        for (int j = 0; j < size; j++) {
+                            if (j != i) {
+                                pointDists[length++] = source.getDistance(i,
+                                        j);
+                            }
+                        }
                     }
+                    models[i] = DistanceDistributionModel.fit(pointDists,
+                            length, type, numQuantiles);
                 }
+            } catch (Exception e) {
+                error = e;
             }
-            return distances;
         }
     }
 
     /**
-     * Worker class for multi-threaded calculations of the distance matrix.
+     * Worker class for multi-threaded calculations of the distance matrix
+     * from the per-point distance models.
      */
-    class DmCalculator implements Runnable {
+    static class ModelDmCalculator extends ModelWorker {
 
-        int startRow;
-        int endRow;
+        TriangularDistanceMatrix source;
+        DistanceDistributionModel[] models;
         float[][] distances;
-        CombinedMetric cmet;
-        DataSet dset;
-        NeighborSetFinder nsf;
+        AtomicInteger nextRow;
 
         /**
-         * The range is inclusive.
-         *
-         * @param dset DataSet object.
-         * @param startRow Index of the start row.
-         * @param endRow Index of the end row.
-         * @param distances The primary distance matrix.
-         * @param cmet The CombinedMetric object used for primary distances.
-         * @param nsf The NeighborSetFinder object.
+         * @param source TriangularDistanceMatrix of the primary distances.
+         * @param models DistanceDistributionModel[] of the per-point models.
+         * @param distances float[][] for the secondary distances.
+         * @param nextRow AtomicInteger that is the next unprocessed row.
          */
-        public DmCalculator(DataSet dset, int startRow, int endRow,
-                float[][] distances, CombinedMetric cmet,
-                NeighborSetFinder nsf) {
-            this.startRow = startRow;
-            this.endRow = endRow;
+        ModelDmCalculator(TriangularDistanceMatrix source,
+                DistanceDistributionModel[] models, float[][] distances,
+                AtomicInteger nextRow) {
+            this.source = source;
+            this.models = models;
             this.distances = distances;
-            this.cmet = cmet;
-            this.dset = dset;
-            this.nsf = nsf;
+            this.nextRow = nextRow;
         }
 
         @Override
         public void run() {
             try {
-                for (int i = startRow; i <= endRow; i++) {
-                    distances[i] = new float[dset.size() - i - 1];
-                    for (int j = i + 1; j < dset.size(); j++) {
-                        distances[i][j - i - 1] = dist(dset.data.get(i),
-                                dset.data.get(j), nsf.getKDistances()[i],
-                                nsf.getKDistances()[j]);
+                int size = source.size();
+                float[] rowBuffer = new float[Math.max(size - 1, 0)];
+                int i;
+                while ((i = nextRow.getAndIncrement()) < size) {
+                    float[] row = getPrimaryRow(source, i, rowBuffer);
+                    distances[i] = new float[size - i - 1];
+                    for (int j = 0; j < distances[i].length; j++) {
+                        distances[i][j] = distFromModels(row[j], models[i],
+                                models[i + j + 1]);
                     }
                 }
             } catch (Exception e) {
+                error = e;
             }
         }
     }
@@ -271,7 +629,7 @@ implements Serializable {
     /**
      * Worker class for multi-threaded calculations of the distance matrix.
      */
-    class DmCalculatorFast implements Runnable {
+    class DmCalculator implements Runnable {
 
         int startRow;
         int endRow;
@@ -279,7 +637,6 @@ implements Serializable {
         CombinedMetric cmet;
         DataSet dset;
         NeighborSetFinder nsf;
-        int sampleSize;
 
         /**
          * The range is inclusive.
@@ -290,43 +647,16 @@ implements Serializable {
          * @param distances The primary distance matrix.
          * @param cmet The CombinedMetric object used for primary distances.
          * @param nsf The NeighborSetFinder object.
-         * @param sampleSize Integer that is the sampling size.
          */
-        public DmCalculatorFast(DataSet dset, int startRow, int endRow,
+        public DmCalculator(DataSet dset, int startRow, int endRow,
                 float[][] distances, CombinedMetric cmet,
-                int sampleSize) {
+                NeighborSetFinder nsf) {
             this.startRow = startRow;
             this.endRow = endRow;
             this.distances = distances;
             this.cmet = cmet;
             this.dset = dset;
-            this.sampleSize = sampleSize;
-        }
-
-        /**
-         * Gets a distance sample.
-         *
-         * @param index Integer index to get the distance sample for.
-         * @return float[] sample of distances.
-         */
-        private float[] sampleDists(int index) {
-            int size = dMatPrimary.length;
-            int[] sampleIndexes = null;
-            try {
-                sampleIndexes = UniformSampler.getSample(size, sampleSize);
-            } catch (Exception e) {
-            }
-            float[] dSample = new float[size];
-            for (int i = 0; i < sampleSize; i++) {
-                int maxIndex = Math.max(sampleIndexes[i], index);
-                int minIndex = Math.min(sampleIndexes[i], index);
-                if (maxIndex != minIndex) {
-                    dSample[i] = dMatPrimary[minIndex][maxIndex - minIndex - 1];
-                } else {
-                    dSample[i] = 0;
-                }
-            }
-            return dSample;
+            this.nsf = nsf;
         }
 
         @Override
@@ -335,10 +665,9 @@ implements Serializable {
                 for (int i = startRow; i <= endRow; i++) {
                     distances[i] = new float[dset.size() - i - 1];
                     for (int j = i + 1; j < dset.size(); j++) {
-                        distances[i][j - i - 1] = distFast(
-                                dMatPrimary[i][j - i - 1],
-                                sampleDists(i),
-                                sampleDists(j));
+                        distances[i][j - i - 1] = dist(dset.data.get(i),
+                                dset.data.get(j), nsf.getKDistances()[i],
+                                nsf.getKDistances()[j]);
                     }
                 }
             } catch (Exception e) {
@@ -374,6 +703,46 @@ implements Serializable {
         }
     }
 
+    /**
+     * Calculate the secondary distance matrix and write it to the provided
+     * triangular matrix storage, one row at a time. This allows for the
+     * transformation of matrices that do not fit in the heap.
+     *
+     * @param target TriangularDistanceMatrix to write the secondary distances
+     * to. Its size must match the size of the primary distance matrix.
+     */
+    public void getTransformedDMat(TriangularDistanceMatrix target) {
+        int size = getPrimarySize();
+        if (size == 0) {
+            return;
+        }
+        if (target.size() != size) {
+            throw new IllegalArgumentException("Matrix size " + target.size()
+                    + " does not match the primary matrix size " + size);
+        }
+        TriangularDistanceMatrix source = dMatPrimary != null
+                ? new HeapTriangularMatrix(dMatPrimary) : dMatPrimaryBackend;
+        float[] rowBuffer = new float[Math.max(size - 1, 0)];
+        float[] secondaryRow = new float[Math.max(size - 1, 0)];
+        float[] row;
+        float mp;
+        for (int i = 0; i < size; i++) {
+            row = getPrimaryRow(source, i, rowBuffer);
+            int rowLength = source.getRowLength(i);
+            for (int j = 0; j < rowLength; j++) {
+                mp = (float) ((1
+                        - NormalDistributionCalculator.PhiCumulative(
+                        row[j], distMeans[i],
+                        distStDevs[i])) * (1
+                        - NormalDistributionCalculator.PhiCumulative(
+                        row[j], distMeans[i + j + 1],
+                        distStDevs[i + j + 1])));
+                secondaryRow[j] = 1 - mp;
+            }
+            target.setRow(i, secondaryRow);
+        }
+    }
+
     /**
      * Returns a secondary similarity matrix where the entries are the mutual
      * proximity scores between the points.
@@ -405,15 +774,15 @@ implements Serializable {
     @Override
     public float dist(DataInstance firstInstance,
             DataInstance secondInstance) throws Exception {
-        if (dMatPrimary != null && dMatPrimary.length > 0 && cmet != null
+        if (hasPrimaryDistances() && cmet != null
                 && dset != null && !dset.isEmpty()) {
             // First we get the basic distance statistics.
             double distMeanFirst = 0;
             double distMeanSecond = 0;
             double distStDevFirst = 0;
             double distStDevSecond = 0;
-            float[] distsFirst = new float[dMatPrimary.length];
-            float[] distsSecond = new float[dMatPrimary.length];
+            float[] distsFirst = new float[getPrimarySize()];
+            float[] distsSecond = new float[getPrimarySize()];
             for (int i = 0; i < distsFirst.length; i++) {
                 distsFirst[i] = cmet.dist(firstInstance, dset.getInstance(i));
                 distMeanFirst = ((float) i / (float) (i + 1))
@@ -462,7 +831,7 @@ implements Serializable {
      */
     public float dist(DataInstance firstInstance, DataInstance secondInstance,
             float[] distsFirst, float[] distsSecond) throws Exception {
-        if (dMatPrimary != null && dMatPrimary.length > 0 && cmet != null
+        if (hasPrimaryDistances() && cmet != null
                 && dset != null && !dset.isEmpty()) {
             // First we get the basic distance statistics.
             double distMeanFirst = 0;
@@ -0,0 +1,175 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package distances.secondary.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import distances.secondary.DistanceDistributionModel;
+import distances.secondary.MutualProximityCalculator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+import probability.GammaDistributionCalculator;
+
+/**
+ * This class tests the mutual proximity calculations from the per-point
+ * distance distribution models.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class MutualProximityModelTest extends TestCase {
+
+    /**
+     * This method tests that the Gaussian point models give the same
+     * secondary distances as the single-threaded transformation.
+     */
+    @Test
+    public static void testGaussianModels() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(150, 5, 1);
+            NeighborSetFinder nsf = new NeighborSetFinder(dset,
+                    CombinedMetric.FLOAT_EUCLIDEAN);
+            nsf.calculateDistances();
+            MutualProximityCalculator calc = new MutualProximityCalculator(
+                    nsf.getDistances(), dset, CombinedMetric.FLOAT_EUCLIDEAN);
+            calc.fitPointModels(DistanceDistributionModel.ModelType.GAUSSIAN,
+                    DistanceDistributionModel.DEFAULT_NUM_QUANTILES, 3);
+            float[][] expected = calc.getTransformedDMat();
+            float[][] fromModels = calc.calculateSecondaryDistMatrixFromModels(
+                    3);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i].length, fromModels[i].length);
+                for (int j = 0; j < expected[i].length; j++) {
+                    assertEquals(expected[i][j], fromModels[i][j], 0.0001f);
+                    assertTrue(fromModels[i][j] >= 0
+                            && fromModels[i][j] <= 1);
+                }
+            }
+            float[][] sampled = calc.calculateSecondaryDistMatrixMultThrFast(
+                    3, 50);
+            assertEquals(dset.size(), sampled.length);
+            for (int i = 0; i < sampled.length; i++) {
+                assertEquals(dset.size() - i - 1, sampled[i].length);
+                for (int j = 0; j < sampled[i].length; j++) {
+                    assertTrue(sampled[i][j] >= 0 && sampled[i][j] <= 1);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the Gamma and the empirical distance models.
+     */
+    @Test
+    public static void testModelTypes() {
+        try {
+            // The Gamma distribution with unit shape is exponential.
+            for (double x = 0.1; x < 5; x += 0.7) {
+                assertEquals(1 - Math.exp(-x / 2),
+                        GammaDistributionCalculator.GammaCumulative(x, 1, 2),
+                        0.000001);
+            }
+            Random randa = new Random(4);
+            float[] distances = new float[500];
+            for (int i = 0; i < distances.length; i++) {
+                distances[i] = randa.nextFloat() * 10;
+            }
+            DistanceDistributionModel.ModelType[] types = {
+                DistanceDistributionModel.ModelType.GAMMA,
+                DistanceDistributionModel.ModelType.EMPIRICAL};
+            for (DistanceDistributionModel.ModelType type : types) {
+                DistanceDistributionModel model = DistanceDistributionModel.
+                        fit(distances, distances.length, type, 20);
+                double previous = 1;
+                for (float d = -1; d <= 11; d += 0.25f) {
+                    double exceedance = model.getExceedanceProbability(d);
+                    assertTrue(exceedance >= 0 && exceedance <= 1);
+                    assertTrue(exceedance <= previous + 0.000001);
+                    previous = exceedance;
+                }
+            }
+            // The empirical model follows the fraction of larger distances.
+            DistanceDistributionModel empirical = DistanceDistributionModel.
+                    fit(distances, distances.length,
+                    DistanceDistributionModel.ModelType.EMPIRICAL, 50);
+            for (float d = 1; d < 10; d += 1) {
+                int numLarger = 0;
+                for (int i = 0; i < distances.length; i++) {
+                    if (distances[i] > d) {
+                        numLarger++;
+                    }
+                }
+                assertEquals((double) numLarger / distances.length,
+                        empirical.getExceedanceProbability(d), 0.03);
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests that the query distances are preserved when the point
+     * models are persisted and restored.
+     */
+    @Test
+    public static void testQueryDistances() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(100, 4, 2);
+            NeighborSetFinder nsf = new NeighborSetFinder(dset,
+                    CombinedMetric.FLOAT_EUCLIDEAN);
+            nsf.calculateDistances();
+            MutualProximityCalculator calc = new MutualProximityCalculator(
+                    nsf.getDistances(), dset, CombinedMetric.FLOAT_EUCLIDEAN);
+            calc.fitPointModels(DistanceDistributionModel.ModelType.EMPIRICAL,
+                    16, 2);
+            ByteArrayOutputStream bytesOut = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytesOut)) {
+                out.writeObject(calc.getPointModels());
+            }
+            DistanceDistributionModel[] restored;
+            try (ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(bytesOut.toByteArray()))) {
+                restored = (DistanceDistributionModel[]) in.readObject();
+            }
+            MutualProximityCalculator restoredCalc =
+                    new MutualProximityCalculator((float[][]) null, dset,
+                    CombinedMetric.FLOAT_EUCLIDEAN);
+            restoredCalc.setPointModels(restored);
+            DataSet queries = ToyDataGenerator.generateUniformData(10, 4, 3);
+            for (int q = 0; q < queries.size(); q++) {
+                float[] expected = calc.queryDistances(queries.getInstance(q));
+                float[] fromRestored = restoredCalc.queryDistances(
+                        queries.getInstance(q));
+                assertEquals(dset.size(), fromRestored.length);
+                for (int i = 0; i < expected.length; i++) {
+                    assertEquals(expected[i], fromRestored[i]);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+}
@@ -214,8 +214,8 @@ public class SparseCombinedMetric extends CombinedMetric
                 first.fAttr, second.fAttr) : combineBy == Mixer.PRODUCT
                 ? 1f : 0f;
         float sparseDistance = sparseMetric != null ? sparseMetric.dist(
-                ((BOWInstance) first).getWordIndexesHash(),
-                ((BOWInstance) second).getWordIndexesHash())
+                ((BOWInstance) first).getWordVector(),
+                ((BOWInstance) second).getWordVector())
                 : combineBy == Mixer.PRODUCT ? 1f : 0f;
         float totalDistance = combineBy == Mixer.PRODUCT ? 1f : 0f;
         switch (combineBy) {
@@ -16,10 +16,10 @@
 */
 package distances.sparse;
 
+import data.representation.sparse.SparseVector;
 import data.representation.util.DataMineConstants;
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.Set;
 
 /**
  * This class implements the cosine distance on sparse representations.
@@ -34,56 +34,82 @@ public class SparseCosineMetric extends SparseMetric implements Serializable {
     public float dist(HashMap<Integer, Float> firstMap,
             HashMap<Integer, Float> secondMap)
             throws Exception {
-        if ((firstMap == null || firstMap.isEmpty())
-                && (secondMap == null || secondMap.isEmpty())) {
+        return dist(SparseVector.fromMap(firstMap),
+                SparseVector.fromMap(secondMap));
+    }
+
+    @Override
+    public float dist(SparseVector first, SparseVector second)
+            throws Exception {
+        boolean firstEmpty = first == null || first.isEmpty();
+        boolean secondEmpty = second == null || second.isEmpty();
+        if (firstEmpty && secondEmpty) {
             return 0;
-        } else if ((firstMap == null || firstMap.isEmpty())
-                && (secondMap != null && !secondMap.isEmpty())) {
-            return 1;
-        } else if ((secondMap == null || secondMap.isEmpty())
-                && (firstMap != null && !firstMap.isEmpty())) {
+        } else if (firstEmpty || secondEmpty) {
             return 1;
-        } else {
-            double result = 0;
-            double normFirst = 0;
-            double normSecond = 0;
-            // Iterating over one of the maps and looking into the other is
-            // enough to find all the common keys.
-            Set<Integer> keys = firstMap.keySet();
-            for (int index : keys) {
-                if (secondMap.containsKey(index)) {
-                    if (DataMineConstants.isAcceptableFloat(firstMap.get(index))
-                            && DataMineConstants.isAcceptableFloat(
-                            secondMap.get(index))) {
-                        result += firstMap.get(index) * secondMap.get(index);
-                    }
-                    if (DataMineConstants.isAcceptableFloat(
-                            firstMap.get(index))) {
-                        normFirst += firstMap.get(index) * firstMap.get(index);
-                    }
+        }
+        int[] firstIndexes = first.getIndexes();
+        float[] firstValues = first.getValues();
+        int firstSize = first.size();
+        int[] secondIndexes = second.getIndexes();
+        float[] secondValues = second.getValues();
+        int secondSize = second.size();
+        double result = 0;
+        double normFirst = 0;
+        double normSecond = 0;
+        int i = 0;
+        int j = 0;
+        // The sorted index arrays are merged in a single pass.
+        while (i < firstSize && j < secondSize) {
+            if (firstIndexes[i] < secondIndexes[j]) {
+                if (DataMineConstants.isAcceptableFloat(firstValues[i])) {
+                    normFirst += firstValues[i] * firstValues[i];
                 }
-            }
-            // Now calculate the norm of the second BoW.
-            keys = secondMap.keySet();
-            for (int index : keys) {
-                if (DataMineConstants.isAcceptableFloat(secondMap.get(index))) {
-                    normSecond += secondMap.get(index) * secondMap.get(index);
+                i++;
+            } else if (firstIndexes[i] > secondIndexes[j]) {
+                if (DataMineConstants.isAcceptableFloat(secondValues[j])) {
+                    normSecond += secondValues[j] * secondValues[j];
                 }
-            }
-            normFirst = Math.sqrt(normFirst);
-            normSecond = Math.sqrt(normSecond);
-            if ((DataMineConstants.isPositive(normFirst))
-                    && (DataMineConstants.isPositive(normSecond))) {
-                result = result / (normFirst * normSecond);
+                j++;
             } else {
-                if ((DataMineConstants.isZero(normFirst))
-                        && (DataMineConstants.isZero(normSecond))) {
-                    result = 1;
-                } else {
-                    result = -1.;
+                if (DataMineConstants.isAcceptableFloat(firstValues[i])) {
+                    normFirst += firstValues[i] * firstValues[i];
+                }
+                if (DataMineConstants.isAcceptableFloat(secondValues[j])) {
+                    normSecond += secondValues[j] * secondValues[j];
                 }
+                if (DataMineConstants.isAcceptableFloat(firstValues[i])
+                        && DataMineConstants.isAcceptableFloat(
+                        secondValues[j])) {
+                    result += firstValues[i] * secondValues[j];
+                }
+                i++;
+                j++;
+            }
+        }
+        for (; i < firstSize; i++) {
+            if (DataMineConstants.isAcceptableFloat(firstValues[i])) {
+                normFirst += firstValues[i] * firstValues[i];
+            }
+        }
+        for (; j < secondSize; j++) {
+            if (DataMineConstants.isAcceptableFloat(secondValues[j])) {
+                normSecond += secondValues[j] * secondValues[j];
+            }
+        }
+        normFirst = Math.sqrt(normFirst);
+        normSecond = Math.sqrt(normSecond);
+        if ((DataMineConstants.isPositive(normFirst))
+                && (DataMineConstants.isPositive(normSecond))) {
+            result = result / (normFirst * normSecond);
+        } else {
+            if ((DataMineConstants.isZero(normFirst))
+                    && (DataMineConstants.isZero(normSecond))) {
+                result = 1;
+            } else {
+                result = -1.;
             }
-            return (float) (1f - result) * 0.5f;
         }
+        return (float) (1f - result) * 0.5f;
     }
 }
@@ -17,10 +17,10 @@
 */
 package distances.sparse;
 
+import data.representation.sparse.SparseVector;
 import data.representation.util.DataMineConstants;
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.Set;
 
 /**
  * This class implements the Manhattan distance for sparse representations, with
@@ -48,63 +48,77 @@ public class SparseManhattanWeighted extends SparseMetric
     public float dist(HashMap<Integer, Float> firstMap,
             HashMap<Integer, Float> secondMap)
             throws Exception {
-        if ((firstMap == null || firstMap.isEmpty())
-                && (secondMap == null || secondMap.isEmpty())) {
+        return dist(SparseVector.fromMap(firstMap),
+                SparseVector.fromMap(secondMap));
+    }
+
+    @Override
+    public float dist(SparseVector first, SparseVector second)
+            throws Exception {
+        boolean firstEmpty = first == null || first.isEmpty();
+        boolean secondEmpty = second == null || second.isEmpty();
+        if (firstEmpty && secondEmpty) {
             return 0;
-        } else if ((firstMap == null || firstMap.isEmpty())
-                && (secondMap != null && !secondMap.isEmpty())) {
+        } else if (firstEmpty || secondEmpty) {
             return 1;
-        } else if ((secondMap == null || secondMap.isEmpty())
-                && (firstMap != null && !firstMap.isEmpty())) {
-            return 1;
-        } else {
-            float result = 0;
-            // Iterating over one of the maps and looking into the other is
-            // enough to find all the common keys.
-            Set<Integer> keys = firstMap.keySet();
-            for (int index : keys) {
-                if (secondMap.containsKey(index)) {
-                    if (DataMineConstants.isAcceptableFloat(firstMap.get(index))
-                            && DataMineConstants.isAcceptableFloat(
-                            secondMap.get(index))) {
-                        if (featureWeights != null && index <
-                                featureWeights.length) {
-                            result += featureWeights[index] * Math.abs(
-                                    firstMap.get(index) - secondMap.get(index));
-                        } else {
-                            result += Math.abs(
-                                    firstMap.get(index) - secondMap.get(index));
-                        }
-                    }
-                } else {
-                    if (DataMineConstants.isAcceptableFloat(
-                            firstMap.get(index))) {
-                        if (featureWeights != null && index <
-                                featureWeights.length) {
-                            result += featureWeights[index] *
-                                    Math.abs(firstMap.get(index));
-                        } else {
-                            result += Math.abs(firstMap.get(index));
-                        }
-                    }
+        }
+        int[] firstIndexes = first.getIndexes();
+        float[] firstValues = first.getValues();
+        int firstSize = first.size();
+        int[] secondIndexes = second.getIndexes();
+        float[] secondValues = second.getValues();
+        int secondSize = second.size();
+        float result = 0;
+        int i = 0;
+        int j = 0;
+        // The sorted index arrays are merged in a single pass.
+        while (i < firstSize && j < secondSize) {
+            if (firstIndexes[i] < secondIndexes[j]) {
+                if (DataMineConstants.isAcceptableFloat(firstValues[i])) {
+                    result += getWeight(firstIndexes[i])
+                            * Math.abs(firstValues[i]);
                 }
-            }
-            keys = secondMap.keySet();
-            for (int index : keys) {
-                if (!firstMap.containsKey(index)
+                i++;
+            } else if (firstIndexes[i] > secondIndexes[j]) {
+                if (DataMineConstants.isAcceptableFloat(secondValues[j])) {
+                    result += getWeight(secondIndexes[j])
+                            * Math.abs(secondValues[j]);
+                }
+                j++;
+            } else {
+                if (DataMineConstants.isAcceptableFloat(firstValues[i])
                         && DataMineConstants.isAcceptableFloat(
-                        secondMap.get(index))) {
-                    if (featureWeights != null && index <
-                            featureWeights.length) {
-                        result += featureWeights[index] *
-                                Math.abs(secondMap.get(index));
-                    } else {
-                        result += Math.abs(secondMap.get(index));
-                    }
+                        secondValues[j])) {
+                    result += getWeight(firstIndexes[i])
+                            * Math.abs(firstValues[i] - secondValues[j]);
                 }
+                i++;
+                j++;
             }
-            return result;
         }
+        for (; i < firstSize; i++) {
+            if (DataMineConstants.isAcceptableFloat(firstValues[i])) {
+                result += getWeight(firstIndexes[i])
+                        * Math.abs(firstValues[i]);
+            }
+        }
+        for (; j < secondSize; j++) {
+            if (DataMineConstants.isAcceptableFloat(secondValues[j])) {
+                result += getWeight(secondIndexes[j])
+                        * Math.abs(secondValues[j]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param index Integer that is the feature index.
+     * @return Float value that is the weight of the feature, or one if no
+     * weight is specified for it.
+     */
+    private float getWeight(int index) {
+        return featureWeights != null && index < featureWeights.length
+                ? featureWeights[index] : 1f;
     }
     
 }
\ No newline at end of file
@@ -16,12 +16,13 @@
 */
 package distances.sparse;
 
+import data.representation.sparse.SparseVector;
 import java.io.Serializable;
 import java.util.HashMap;
 
 /**
  * This class defines sparse metrics via the distance method on their respective
- * index to frequency maps.
+ * index to frequency maps or sorted sparse vectors.
  *
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
@@ -38,4 +39,21 @@ public abstract class SparseMetric implements Serializable {
     public abstract float dist(HashMap<Integer, Float> first,
             HashMap<Integer, Float> second)
             throws Exception;
+
+    /**
+     * This method calculates the distance between two sparse vectors. The
+     * default implementation converts the vectors to maps, while the metrics
+     * in this package override it with a merge-join over the sorted index
+     * arrays that does not allocate any objects.
+     *
+     * @param first First BoW vector.
+     * @param second Second BoW vector.
+     * @return Distance between the two BoW vectors.
+     * @throws Exception
+     */
+    public float dist(SparseVector first, SparseVector second)
+            throws Exception {
+        return dist(first != null ? first.toMap() : null,
+                second != null ? second.toMap() : null);
+    }
 }
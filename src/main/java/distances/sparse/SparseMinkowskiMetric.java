@@ -16,10 +16,10 @@
 */
 package distances.sparse;
 
+import data.representation.sparse.SparseVector;
 import data.representation.util.DataMineConstants;
 import java.io.Serializable;
 import java.util.HashMap;
-import java.util.Set;
 
 /**
  * This class implements Minkowski distances for sparse representations
@@ -48,45 +48,63 @@ public class SparseMinkowskiMetric extends SparseMetric
     public float dist(HashMap<Integer, Float> firstMap,
             HashMap<Integer, Float> secondMap)
             throws Exception {
-        if ((firstMap == null || firstMap.isEmpty())
-                && (secondMap == null || secondMap.isEmpty())) {
+        return dist(SparseVector.fromMap(firstMap),
+                SparseVector.fromMap(secondMap));
+    }
+
+    @Override
+    public float dist(SparseVector first, SparseVector second)
+            throws Exception {
+        boolean firstEmpty = first == null || first.isEmpty();
+        boolean secondEmpty = second == null || second.isEmpty();
+        if (firstEmpty && secondEmpty) {
             return 0;
-        } else if ((firstMap == null || firstMap.isEmpty())
-                && (secondMap != null && !secondMap.isEmpty())) {
-            return 1;
-        } else if ((secondMap == null || secondMap.isEmpty())
-                && (firstMap != null && !firstMap.isEmpty())) {
+        } else if (firstEmpty || secondEmpty) {
             return 1;
-        } else {
-            float result = 0;
-            // Iterating over one of the maps and looking into the other is
-            // enough to find all the common keys.
-            Set<Integer> keys = firstMap.keySet();
-            for (int index : keys) {
-                if (secondMap.containsKey(index)) {
-                    if (DataMineConstants.isAcceptableFloat(firstMap.get(index))
-                            && DataMineConstants.isAcceptableFloat(
-                            secondMap.get(index))) {
-                        result += Math.pow(Math.abs(
-                                firstMap.get(index) - secondMap.get(index)), M);
-                    }
-                } else {
-                    if (DataMineConstants.isAcceptableFloat(
-                            firstMap.get(index))) {
-                        result += Math.pow(Math.abs(firstMap.get(index)), M);
-                    }
+        }
+        int[] firstIndexes = first.getIndexes();
+        float[] firstValues = first.getValues();
+        int firstSize = first.size();
+        int[] secondIndexes = second.getIndexes();
+        float[] secondValues = second.getValues();
+        int secondSize = second.size();
+        float result = 0;
+        int i = 0;
+        int j = 0;
+        // The sorted index arrays are merged in a single pass.
+        while (i < firstSize && j < secondSize) {
+            if (firstIndexes[i] < secondIndexes[j]) {
+                if (DataMineConstants.isAcceptableFloat(firstValues[i])) {
+                    result += Math.pow(Math.abs(firstValues[i]), M);
                 }
-            }
-            keys = secondMap.keySet();
-            for (int index : keys) {
-                if (!firstMap.containsKey(index)
+                i++;
+            } else if (firstIndexes[i] > secondIndexes[j]) {
+                if (DataMineConstants.isAcceptableFloat(secondValues[j])) {
+                    result += Math.pow(Math.abs(secondValues[j]), M);
+                }
+                j++;
+            } else {
+                if (DataMineConstants.isAcceptableFloat(firstValues[i])
                         && DataMineConstants.isAcceptableFloat(
-                        secondMap.get(index))) {
-                    result += Math.pow(Math.abs(secondMap.get(index)), M);
+                        secondValues[j])) {
+                    result += Math.pow(Math.abs(
+                            firstValues[i] - secondValues[j]), M);
                 }
+                i++;
+                j++;
+            }
+        }
+        for (; i < firstSize; i++) {
+            if (DataMineConstants.isAcceptableFloat(firstValues[i])) {
+                result += Math.pow(Math.abs(firstValues[i]), M);
+            }
+        }
+        for (; j < secondSize; j++) {
+            if (DataMineConstants.isAcceptableFloat(secondValues[j])) {
+                result += Math.pow(Math.abs(secondValues[j]), M);
             }
-            result = (float) Math.pow(result, 1f / M);
-            return result;
         }
+        result = (float) Math.pow(result, 1f / M);
+        return result;
     }
 }
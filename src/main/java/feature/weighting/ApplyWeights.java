@@ -41,6 +41,9 @@ public class ApplyWeights {
                 || weightsDSet.isEmpty()) {
             return;
         }
+        // The features are re-weighted in place, so the packed snapshot would
+        // become stale.
+        dset.releasePackedFeatures();
         if (dset.getNumFloatAttr() < weightsDSet.getNumFloatAttr()
                 && dset.getNumIntAttr() >= weightsDSet.getNumFloatAttr()) {
             for (DataInstance instance : dset.data) {
@@ -20,10 +20,9 @@ import data.representation.DataInstance;
 import data.representation.DataSet;
 import data.representation.sparse.BOWDataSet;
 import data.representation.sparse.BOWInstance;
+import data.representation.sparse.SparseVector;
 import data.representation.util.DataMineConstants;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Set;
 import util.BasicMathUtil;
 
 /**
@@ -122,6 +121,9 @@ public class TFIDF implements FilterInterface {
         if (dset == null) {
             return;
         }
+        // The features are re-weighted in place, so the packed snapshot would
+        // become stale.
+        dset.releasePackedFeatures();
         if (sparse) {
             // The sparse case.
             if (!(dset instanceof BOWDataSet)) {
@@ -133,28 +135,27 @@ public class TFIDF implements FilterInterface {
             float[] termDocumentFrequencies = new float[totalNumFeat];
             for (int i = 0; i < dset.size(); i++) {
                 instance = (BOWInstance) (dset.getInstance(i));
-                HashMap<Integer, Float> indexMap =
-                        instance.getWordIndexesHash();
-                Set<Integer> keys = indexMap.keySet();
-                for (int index : keys) {
-                    if (termFeatures[index] && indexMap.get(index) > 0) {
-                        termDocumentFrequencies[index]++;
+                SparseVector wordVector = instance.getWordVector();
+                int[] indexes = wordVector.getIndexes();
+                float[] values = wordVector.getValues();
+                for (int pos = 0; pos < wordVector.size(); pos++) {
+                    if (termFeatures[indexes[pos]] && values[pos] > 0) {
+                        termDocumentFrequencies[indexes[pos]]++;
                     }
                 }
             }
             // Iterate over documents.
             for (int i = 0; i < dset.size(); i++) {
                 instance = (BOWInstance) (dset.getInstance(i));
-                HashMap<Integer, Float> indexMap =
-                        instance.getWordIndexesHash();
-                Set<Integer> keys = indexMap.keySet();
-                for (int index : keys) {
+                SparseVector wordVector = instance.getWordVector();
+                int[] indexes = wordVector.getIndexes();
+                float[] values = wordVector.getValues();
+                for (int pos = 0; pos < wordVector.size(); pos++) {
+                    int index = indexes[pos];
                     if (termFeatures[index]) {
-                        float value = indexMap.get(index);
-                        indexMap.put(index, value
-                                * (float) BasicMathUtil.log2(
+                        values[pos] *= (float) BasicMathUtil.log2(
                                 ((float) (dset.size()))
-                                / termDocumentFrequencies[index]));
+                                / termDocumentFrequencies[index]);
                     }
                 }
             }
@@ -17,60 +17,659 @@
 */
 package graph.calc;
 
-import data.representation.util.DataMineConstants;
+import distances.matrix.TriangularDistanceMatrix;
 import graph.basic.DMGraphEdge;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import util.RangeTask;
 
 /**
  * This class implements the methods for calculating the geodesic graph distance
- * between two vertices.
+ * between two vertices. The edges are treated as undirected and their weights
+ * are used as their lengths, unless unit edge lengths are requested, in which
+ * case the geodesic distances are the numbers of hops. Unreachable vertices
+ * are at the maximal value of the distance type.
+ *
+ * For dense graphs, all the shortest distances are calculated by a blocked
+ * Floyd-Warshall algorithm on a packed row-major matrix. In each round, the
+ * diagonal block is processed first, then the blocks in its row and column in
+ * parallel and then all the remaining blocks in parallel. For large sparse
+ * graphs, such as the kNN graphs, the shortest distances are calculated by
+ * running Dijkstra's algorithm from many sources in parallel over a compact
+ * adjacency representation. The Dijkstra rows can be streamed to a
+ * TriangularDistanceMatrix, which can be a MappedTriangularMatrix on disk.
  *
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
 public class GraphGeodesic {
 
+    // The number of vertices in the side of a Floyd-Warshall block.
+    public static final int DEFAULT_BLOCK_SIZE = 64;
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    // Whether to ignore the edge weights and count the hops instead.
+    private boolean unitEdgeLengths = false;
+
     /**
      * Default constructor.
      */
     public GraphGeodesic() {
     }
 
+    /**
+     * Initialization.
+     *
+     * @param numThreads Integer that is the number of threads to use.
+     * @param unitEdgeLengths Boolean flag indicating whether to use unit edge
+     * lengths instead of the edge weights.
+     */
+    public GraphGeodesic(int numThreads, boolean unitEdgeLengths) {
+        this.numThreads = numThreads;
+        this.unitEdgeLengths = unitEdgeLengths;
+    }
+
+    /**
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @param unitEdgeLengths Boolean flag indicating whether to use unit edge
+     * lengths instead of the edge weights.
+     */
+    public void setUnitEdgeLengths(boolean unitEdgeLengths) {
+        this.unitEdgeLengths = unitEdgeLengths;
+    }
+
+    /**
+     * @param blockSize Integer that is the number of vertices in the side of a
+     * Floyd-Warshall block.
+     */
+    public void setBlockSize(int blockSize) {
+        this.blockSize = Math.max(blockSize, 1);
+    }
+
     /**
      * Calculates all the shortest distances between pairs of vertices via the
-     * Floyd-Warshall algorithm.
+     * Floyd-Warshall algorithm. The rows are copied from the packed matrix,
+     * so the peak memory use is about 1.5 * size^2 doubles. For large graphs,
+     * stream the distances to a TriangularDistanceMatrix instead.
      *
      * @param incidenceMatrix DMGraphEdge[] that is the incidence matrix.
-     * @return double[][] that is the geodesic distance matrix.
+     * @return double[][] that is the geodesic distance matrix, where the
+     * distance between the vertices i <= j is at [i][j - i].
      * @throws Exception
      */
     public double[][] calculateAllShortestDistances(
             DMGraphEdge[] incidenceMatrix) throws Exception {
-        double[][] geodesicDistances = new double[incidenceMatrix.length][];
-        for (int i = 0; i < incidenceMatrix.length; i++) {
-            geodesicDistances[i] = new double[incidenceMatrix.length - i];
+        int numNodes = incidenceMatrix.length;
+        double[] packed = calculateAllShortestDistancesPacked(incidenceMatrix);
+        double[][] geodesicDistances = new double[numNodes][];
+        for (int i = 0; i < numNodes; i++) {
+            geodesicDistances[i] = Arrays.copyOfRange(packed,
+                    i * numNodes + i, (i + 1) * numNodes);
         }
+        return geodesicDistances;
+    }
+
+    /**
+     * Calculates all the shortest distances between pairs of vertices via the
+     * blocked Floyd-Warshall algorithm.
+     *
+     * @param incidenceMatrix DMGraphEdge[] that is the incidence matrix.
+     * @return double[] that is the packed row-major geodesic distance matrix,
+     * where the distance between the vertices i and j is at [i * size + j].
+     * @throws Exception
+     */
+    public double[] calculateAllShortestDistancesPacked(
+            DMGraphEdge[] incidenceMatrix) throws Exception {
+        int numNodes = incidenceMatrix.length;
+        if ((long) numNodes * numNodes > Integer.MAX_VALUE - 8) {
+            throw new Exception("The graph with " + numNodes + " vertices is "
+                    + "too large for a packed distance matrix. Use the sparse "
+                    + "shortest distance calculations instead.");
+        }
+        double[] dist = new double[numNodes * numNodes];
+        Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < numNodes; i++) {
+            dist[i * numNodes + i] = 0;
+        }
+        for (int i = 0; i < numNodes; i++) {
+            DMGraphEdge edge = incidenceMatrix[i];
+            while (edge != null) {
+                if (edge.first != edge.second) {
+                    double length = getEdgeLength(edge);
+                    int pos = edge.first * numNodes + edge.second;
+                    if (length < dist[pos]) {
+                        dist[pos] = length;
+                        dist[edge.second * numNodes + edge.first] = length;
+                    }
+                }
+                edge = edge.next;
+            }
+        }
+        runBlockedFloydWarshall(dist, numNodes);
+        for (int pos = 0; pos < dist.length; pos++) {
+            if (dist[pos] == Double.POSITIVE_INFINITY) {
+                dist[pos] = Double.MAX_VALUE;
+            }
+        }
+        return dist;
+    }
+
+    /**
+     * Calculates all the shortest distances between pairs of vertices and
+     * writes them to the output matrix as soon as each row is finished. The
+     * rows are calculated by Dijkstra's algorithm over the sparse adjacency of
+     * the graph, so the whole matrix never needs to be held in memory. The
+     * edge lengths must not be negative.
+     *
+     * @param incidenceMatrix DMGraphEdge[] that is the incidence matrix.
+     * @param output TriangularDistanceMatrix of the same size as the graph, to
+     * write the geodesic distances to. Unreachable vertices are at
+     * Float.MAX_VALUE.
+     * @throws Exception
+     */
+    public void calculateAllShortestDistances(DMGraphEdge[] incidenceMatrix,
+            TriangularDistanceMatrix output) throws Exception {
         for (int i = 0; i < incidenceMatrix.length; i++) {
-            for (int j = 1; j < geodesicDistances[i].length; j++) {
-                geodesicDistances[i][i + j] = Double.MAX_VALUE;
+            for (DMGraphEdge edge = incidenceMatrix[i]; edge != null;
+                    edge = edge.next) {
+                if (getEdgeLength(edge) < 0) {
+                    throw new Exception("Negative edge length between "
+                            + edge.first + " and " + edge.second + ".");
+                }
             }
         }
-        int numNodes = incidenceMatrix.length;
-        for (int k = 0; k < numNodes; k++) {
+        calculateAllShortestDistances(SparseAdjacency.fromIncidenceMatrix(
+                incidenceMatrix, unitEdgeLengths), output);
+    }
+
+    /**
+     * @param distance Double value that is the geodesic distance.
+     * @return Float value that is the distance, with Float.MAX_VALUE for the
+     * unreachable vertices.
+     */
+    private static float toFloatDistance(double distance) {
+        return distance >= Float.MAX_VALUE ? Float.MAX_VALUE
+                : (float) distance;
+    }
+
+    /**
+     * @param edge DMGraphEdge that is the edge.
+     * @return Double that is the length of the edge.
+     */
+    private double getEdgeLength(DMGraphEdge edge) {
+        return unitEdgeLengths ? 1 : edge.weight;
+    }
+
+    /**
+     * Runs the blocked Floyd-Warshall rounds on the packed matrix.
+     *
+     * @param dist double[] that is the packed distance matrix, where the
+     * missing edges are at infinity.
+     * @param numNodes Integer that is the number of vertices.
+     */
+    private void runBlockedFloydWarshall(final double[] dist,
+            final int numNodes) {
+        final int numBlocks = (numNodes + blockSize - 1) / blockSize;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(numThreads, 1));
+        try {
+            for (int kb = 0; kb < numBlocks; kb++) {
+                final int kBlock = kb;
+                updateBlock(dist, numNodes, kBlock, kBlock, kBlock);
+                // The blocks in the row and the column of the diagonal block
+                // depend only on the diagonal block.
+                pool.invoke(new RangeTask(0, 2 * numBlocks, 1,
+                        new RangeTask.RangeProcessor() {
+                    @Override
+                    public void processRange(int first, int last) {
+                        for (int t = first; t < last; t++) {
+                            int other = t >> 1;
+                            if (other == kBlock) {
+                                continue;
+                            }
+                            if ((t & 1) == 0) {
+                                updateBlock(dist, numNodes, kBlock, kBlock,
+                                        other);
+                            } else {
+                                updateBlock(dist, numNodes, kBlock, other,
+                                        kBlock);
+                            }
+                        }
+                    }
+                }));
+                pool.invoke(new RangeTask(0, numBlocks * numBlocks, 1,
+                        new RangeTask.RangeProcessor() {
+                    @Override
+                    public void processRange(int first, int last) {
+                        for (int t = first; t < last; t++) {
+                            int iBlock = t / numBlocks;
+                            int jBlock = t % numBlocks;
+                            if (iBlock != kBlock && jBlock != kBlock) {
+                                updateBlock(dist, numNodes, kBlock, iBlock,
+                                        jBlock);
+                            }
+                        }
+                    }
+                }));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Relaxes the paths in a block of the matrix via the intermediate
+     * vertices in the given block.
+     *
+     * @param dist double[] that is the packed distance matrix.
+     * @param numNodes Integer that is the number of vertices.
+     * @param kBlock Integer that is the block of the intermediate vertices.
+     * @param iBlock Integer that is the row block.
+     * @param jBlock Integer that is the column block.
+     */
+    private void updateBlock(double[] dist, int numNodes, int kBlock,
+            int iBlock, int jBlock) {
+        int kEnd = Math.min((kBlock + 1) * blockSize, numNodes);
+        int iEnd = Math.min((iBlock + 1) * blockSize, numNodes);
+        int jStart = jBlock * blockSize;
+        int jEnd = Math.min(jStart + blockSize, numNodes);
+        for (int k = kBlock * blockSize; k < kEnd; k++) {
+            int kRow = k * numNodes;
+            for (int i = iBlock * blockSize; i < iEnd; i++) {
+                int iRow = i * numNodes;
+                double distIK = dist[iRow + k];
+                if (distIK == Double.POSITIVE_INFINITY) {
+                    continue;
+                }
+                for (int j = jStart; j < jEnd; j++) {
+                    double candidate = distIK + dist[kRow + j];
+                    if (candidate < dist[iRow + j]) {
+                        dist[iRow + j] = candidate;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates the shortest distances from the specified source vertices to
+     * all the vertices by running Dijkstra's algorithm in parallel. The edge
+     * lengths must not be negative.
+     *
+     * @param graph SparseAdjacency of the graph.
+     * @param sources int[] of the source vertices.
+     * @return double[][] where the i-th row holds the geodesic distances from
+     * the i-th source to all the vertices.
+     * @throws Exception
+     */
+    public double[][] calculateShortestDistancesFrom(SparseAdjacency graph,
+            int[] sources) throws Exception {
+        double[][] result = new double[sources.length][];
+        runDijkstra(graph, sources, result, null);
+        return result;
+    }
+
+    /**
+     * Calculates all the shortest distances between pairs of vertices by
+     * running Dijkstra's algorithm from each vertex in parallel and writes
+     * them to the output matrix as soon as each row is finished, so the whole
+     * matrix never needs to be held in memory. The edge lengths must not be
+     * negative.
+     *
+     * @param graph SparseAdjacency of the graph.
+     * @param output TriangularDistanceMatrix of the same size as the graph, to
+     * write the geodesic distances to. Unreachable vertices are at
+     * Float.MAX_VALUE.
+     * @throws Exception
+     */
+    public void calculateAllShortestDistances(SparseAdjacency graph,
+            TriangularDistanceMatrix output) throws Exception {
+        int[] sources = new int[graph.size()];
+        for (int i = 0; i < sources.length; i++) {
+            sources[i] = i;
+        }
+        runDijkstra(graph, sources, null, output);
+        output.flush();
+    }
+
+    /**
+     * Runs the Dijkstra workers.
+     *
+     * @param graph SparseAdjacency of the graph.
+     * @param sources int[] of the source vertices.
+     * @param result double[][] to write the full distance rows to, or null.
+     * @param output TriangularDistanceMatrix to write the upper triangular
+     * distance rows to, or null.
+     * @throws Exception if any of the workers failed.
+     */
+    private void runDijkstra(SparseAdjacency graph, int[] sources,
+            double[][] result, TriangularDistanceMatrix output)
+            throws Exception {
+        int numWorkers = Math.max(1, Math.min(numThreads, sources.length));
+        AtomicInteger nextSource = new AtomicInteger();
+        DijkstraWorker[] workers = new DijkstraWorker[numWorkers];
+        Thread[] threads = new Thread[numWorkers];
+        for (int wIndex = 0; wIndex < numWorkers; wIndex++) {
+            workers[wIndex] = new DijkstraWorker(graph, sources, nextSource,
+                    result, output);
+            threads[wIndex] = new Thread(workers[wIndex]);
+            threads[wIndex].start();
+        }
+        for (int wIndex = 0; wIndex < numWorkers; wIndex++) {
+            try {
+                threads[wIndex].join();
+            } catch (Throwable t) {
+                System.err.println(t.getMessage());
+            }
+        }
+        for (DijkstraWorker worker : workers) {
+            if (worker.error != null) {
+                throw worker.error;
+            }
+        }
+    }
+
+    /**
+     * This class runs Dijkstra's algorithm from the sources that it takes
+     * from a shared counter. The distance array and the indexed binary heap
+     * are re-used across the sources.
+     */
+    private static class DijkstraWorker implements Runnable {
+
+        private SparseAdjacency graph;
+        private int[] sources;
+        private AtomicInteger nextSource;
+        private double[][] result;
+        private TriangularDistanceMatrix output;
+        private double[] dist;
+        // The heap of vertices, ordered by their current distances.
+        private int[] heap;
+        // The heap positions of the vertices, -1 if not in the heap. The
+        // settled vertices are never re-added, as their distances are final.
+        private int[] heapPos;
+        private int heapSize;
+        // The first error encountered, if any.
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param graph SparseAdjacency of the graph.
+         * @param sources int[] of the source vertices.
+         * @param nextSource AtomicInteger that is the shared source counter.
+         * @param result double[][] to write the full distance rows to, or
+         * null.
+         * @param output TriangularDistanceMatrix to write the upper triangular
+         * distance rows to, or null.
+         */
+        DijkstraWorker(SparseAdjacency graph, int[] sources,
+                AtomicInteger nextSource, double[][] result,
+                TriangularDistanceMatrix output) {
+            this.graph = graph;
+            this.sources = sources;
+            this.nextSource = nextSource;
+            this.result = result;
+            this.output = output;
+            int numNodes = graph.size();
+            dist = new double[numNodes];
+            heap = new int[numNodes];
+            heapPos = new int[numNodes];
+        }
+
+        @Override
+        public void run() {
+            try {
+                float[] row = output != null ? new float[graph.size()] : null;
+                int sIndex;
+                while ((sIndex = nextSource.getAndIncrement())
+                        < sources.length) {
+                    int source = sources[sIndex];
+                    if (output != null) {
+                        // Only the distances to the vertices with larger
+                        // indexes go to the upper triangular row.
+                        search(source, source + 1);
+                        int numNodes = graph.size();
+                        for (int j = source + 1; j < numNodes; j++) {
+                            row[j - source - 1] = toFloatDistance(dist[j]);
+                        }
+                        output.setRow(source, row);
+                    } else {
+                        search(source, 0);
+                        result[sIndex] = Arrays.copyOf(dist, dist.length);
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /**
+         * Runs Dijkstra's algorithm from the source. The search stops early
+         * once all the vertices from the target range have been settled.
+         *
+         * @param source Integer that is the source vertex.
+         * @param firstTarget Integer that is the first vertex of the target
+         * range, which extends to the last vertex.
+         */
+        private void search(int source, int firstTarget) {
+            int[] offsets = graph.offsets;
+            int[] targets = graph.targets;
+            double[] lengths = graph.lengths;
+            int numTargets = dist.length - firstTarget;
+            Arrays.fill(dist, Double.MAX_VALUE);
+            Arrays.fill(heapPos, -1);
+            heapSize = 0;
+            dist[source] = 0;
+            push(source);
+            int numSettled = 0;
+            while (heapSize > 0 && numSettled < numTargets) {
+                int current = pop();
+                if (current >= firstTarget) {
+                    numSettled++;
+                }
+                double currentDist = dist[current];
+                for (int e = offsets[current]; e < offsets[current + 1]; e++) {
+                    int neighbor = targets[e];
+                    double candidate = currentDist + lengths[e];
+                    if (candidate < dist[neighbor]) {
+                        boolean inHeap = heapPos[neighbor] >= 0;
+                        dist[neighbor] = candidate;
+                        if (inHeap) {
+                            siftUp(heapPos[neighbor]);
+                        } else {
+                            push(neighbor);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @param vertex Integer that is the vertex to add to the heap.
+         */
+        private void push(int vertex) {
+            heap[heapSize] = vertex;
+            heapPos[vertex] = heapSize;
+            siftUp(heapSize++);
+        }
+
+        /**
+         * @return Integer that is the vertex with the smallest distance, which
+         * is removed from the heap.
+         */
+        private int pop() {
+            int top = heap[0];
+            heapSize--;
+            if (heapSize > 0) {
+                heap[0] = heap[heapSize];
+                heapPos[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        /**
+         * @param pos Integer that is the heap position to move up from.
+         */
+        private void siftUp(int pos) {
+            int vertex = heap[pos];
+            double vertexDist = dist[vertex];
+            while (pos > 0) {
+                int parentPos = (pos - 1) >> 1;
+                int parent = heap[parentPos];
+                if (dist[parent] <= vertexDist) {
+                    break;
+                }
+                heap[pos] = parent;
+                heapPos[parent] = pos;
+                pos = parentPos;
+            }
+            heap[pos] = vertex;
+            heapPos[vertex] = pos;
+        }
+
+        /**
+         * @param pos Integer that is the heap position to move down from.
+         */
+        private void siftDown(int pos) {
+            int vertex = heap[pos];
+            double vertexDist = dist[vertex];
+            while (true) {
+                int childPos = 2 * pos + 1;
+                if (childPos >= heapSize) {
+                    break;
+                }
+                if (childPos + 1 < heapSize
+                        && dist[heap[childPos + 1]] < dist[heap[childPos]]) {
+                    childPos++;
+                }
+                int child = heap[childPos];
+                if (dist[child] >= vertexDist) {
+                    break;
+                }
+                heap[pos] = child;
+                heapPos[child] = pos;
+                pos = childPos;
+            }
+            heap[pos] = vertex;
+            heapPos[vertex] = pos;
+        }
+    }
+
+    /**
+     * This class holds the graph adjacency in the compressed sparse row form,
+     * with each undirected edge stored in both directions.
+     */
+    public static class SparseAdjacency {
+
+        // The edges of the i-th vertex are at [offsets[i], offsets[i + 1]).
+        private int[] offsets;
+        private int[] targets;
+        private double[] lengths;
+
+        /**
+         * Initialization.
+         *
+         * @param numNodes Integer that is the number of vertices.
+         * @param firsts int[] of the first vertices of the edges.
+         * @param seconds int[] of the second vertices of the edges.
+         * @param edgeLengths double[] of the edge lengths.
+         * @param numEdges Integer that is the number of edges.
+         */
+        private SparseAdjacency(int numNodes, int[] firsts, int[] seconds,
+                double[] edgeLengths, int numEdges) {
+            offsets = new int[numNodes + 1];
+            for (int e = 0; e < numEdges; e++) {
+                offsets[firsts[e] + 1]++;
+                offsets[seconds[e] + 1]++;
+            }
             for (int i = 0; i < numNodes; i++) {
-                for (int j = 0; j < numNodes; j++) {
-                    double distIK = geodesicDistances[Math.min(i, k)][
-                            Math.max(i, k) - Math.min(i, k)];
-                    double distKJ = geodesicDistances[Math.min(j, k)][
-                            Math.max(j, k) - Math.min(j, k)];
-                    double distIJ = geodesicDistances[Math.min(i, j)][
-                            Math.max(i, j) - Math.min(i, j)];
-                    if (DataMineConstants.isAcceptableDouble(distIK + distKJ)
-                            && distIK + distKJ < distIJ) {
-                        geodesicDistances[Math.min(i, j)][Math.max(i, j)
-                                - Math.min(i, j)] = distIK + distKJ;
+                offsets[i + 1] += offsets[i];
+            }
+            targets = new int[2 * numEdges];
+            lengths = new double[2 * numEdges];
+            int[] fill = Arrays.copyOf(offsets, numNodes);
+            for (int e = 0; e < numEdges; e++) {
+                targets[fill[firsts[e]]] = seconds[e];
+                lengths[fill[firsts[e]]++] = edgeLengths[e];
+                targets[fill[seconds[e]]] = firsts[e];
+                lengths[fill[seconds[e]]++] = edgeLengths[e];
+            }
+        }
+
+        /**
+         * @return Integer that is the number of vertices.
+         */
+        public int size() {
+            return offsets.length - 1;
+        }
+
+        /**
+         * @param incidenceMatrix DMGraphEdge[] that is the incidence matrix.
+         * @param unitEdgeLengths Boolean flag indicating whether to use unit
+         * edge lengths instead of the edge weights.
+         * @return SparseAdjacency of the graph.
+         */
+        public static SparseAdjacency fromIncidenceMatrix(
+                DMGraphEdge[] incidenceMatrix, boolean unitEdgeLengths) {
+            int numEdges = 0;
+            for (int i = 0; i < incidenceMatrix.length; i++) {
+                for (DMGraphEdge edge = incidenceMatrix[i]; edge != null;
+                        edge = edge.next) {
+                    numEdges++;
+                }
+            }
+            int[] firsts = new int[numEdges];
+            int[] seconds = new int[numEdges];
+            double[] edgeLengths = new double[numEdges];
+            int e = 0;
+            for (int i = 0; i < incidenceMatrix.length; i++) {
+                for (DMGraphEdge edge = incidenceMatrix[i]; edge != null;
+                        edge = edge.next) {
+                    if (edge.first != edge.second) {
+                        firsts[e] = edge.first;
+                        seconds[e] = edge.second;
+                        edgeLengths[e++] = unitEdgeLengths ? 1 : edge.weight;
                     }
                 }
             }
+            return new SparseAdjacency(incidenceMatrix.length, firsts,
+                    seconds, edgeLengths, e);
+        }
+
+        /**
+         * Creates the adjacency of the symmetrized kNN graph, where the edge
+         * lengths are the distances to the neighbors. This avoids creating the
+         * edge objects for large kNN graphs.
+         *
+         * @param kNeighbors int[][] of the kNN sets.
+         * @param kDistances float[][] of the distances to the kNN.
+         * @return SparseAdjacency of the kNN graph.
+         */
+        public static SparseAdjacency fromKNNSets(int[][] kNeighbors,
+                float[][] kDistances) {
+            int numEdges = 0;
+            for (int i = 0; i < kNeighbors.length; i++) {
+                numEdges += kNeighbors[i].length;
+            }
+            int[] firsts = new int[numEdges];
+            int[] seconds = new int[numEdges];
+            double[] edgeLengths = new double[numEdges];
+            int e = 0;
+            for (int i = 0; i < kNeighbors.length; i++) {
+                for (int kInd = 0; kInd < kNeighbors[i].length; kInd++) {
+                    firsts[e] = i;
+                    seconds[e] = kNeighbors[i][kInd];
+                    edgeLengths[e++] = kDistances[i][kInd];
+                }
+            }
+            return new SparseAdjacency(kNeighbors.length, firsts, seconds,
+                    edgeLengths, e);
         }
-        return geodesicDistances;
     }
-}
\ No newline at end of file
+}
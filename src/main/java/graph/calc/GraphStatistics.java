@@ -153,11 +153,11 @@ public class GraphStatistics {
         double[] closenessCntralityArray = new double[g.edges.length];
         for (int i = 0; i < g.edges.length; i++) {
             for (int j = i + 1; j < g.edges.length; j++) {
-                if (shortestDist[i][j] != Double.MAX_VALUE) {
+                if (shortestDist[i][j - i] != Double.MAX_VALUE) {
                     closenessCntralityArray[i] += (1 / Math.pow(2,
-                            shortestDist[i][j]));
+                            shortestDist[i][j - i]));
                     closenessCntralityArray[j] += (1 / Math.pow(2,
-                            shortestDist[i][j]));
+                            shortestDist[i][j - i]));
                 }
             }
         }
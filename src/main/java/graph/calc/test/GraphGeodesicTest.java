@@ -0,0 +1,238 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package graph.calc.test;
+
+import distances.matrix.HeapTriangularMatrix;
+import distances.matrix.MappedTriangularMatrix;
+import graph.basic.DMGraph;
+import graph.basic.DMGraphEdge;
+import graph.calc.GraphGeodesic;
+import java.io.File;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the blocked Floyd-Warshall and the parallel Dijkstra
+ * shortest distance calculations against a direct Floyd-Warshall
+ * implementation.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class GraphGeodesicTest extends TestCase {
+
+    /**
+     * This method tests the blocked Floyd-Warshall calculations.
+     */
+    @Test
+    public static void testBlockedFloydWarshall() {
+        try {
+            int numNodes = 150;
+            Random randa = new Random(1);
+            DMGraphEdge[] incidenceMatrix = generateGraph(numNodes, randa);
+            double[][] expected = referenceDistances(incidenceMatrix);
+            GraphGeodesic geodesic = new GraphGeodesic(3, false);
+            geodesic.setBlockSize(16);
+            double[] packed = geodesic.calculateAllShortestDistancesPacked(
+                    incidenceMatrix);
+            double[][] jagged = geodesic.calculateAllShortestDistances(
+                    incidenceMatrix);
+            HeapTriangularMatrix streamed = new HeapTriangularMatrix(numNodes);
+            geodesic.calculateAllShortestDistances(incidenceMatrix, streamed);
+            for (int i = 0; i < numNodes; i++) {
+                assertEquals(numNodes - i, jagged[i].length);
+                for (int j = 0; j < numNodes; j++) {
+                    assertEquals(expected[i][j], packed[i * numNodes + j],
+                            1e-9);
+                    if (j >= i) {
+                        assertEquals(expected[i][j], jagged[i][j - i], 1e-9);
+                    }
+                    if (j > i) {
+                        assertEquals(toFloat(expected[i][j]),
+                                streamed.getDistance(i, j), 1e-4f);
+                    }
+                }
+            }
+            // Unit edge lengths give the numbers of hops.
+            geodesic.setUnitEdgeLengths(true);
+            packed = geodesic.calculateAllShortestDistancesPacked(
+                    incidenceMatrix);
+            for (int i = 0; i < numNodes; i++) {
+                for (DMGraphEdge edge = incidenceMatrix[i]; edge != null;
+                        edge = edge.next) {
+                    assertEquals(1.0, packed[edge.first * numNodes
+                            + edge.second], 1e-9);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the parallel Dijkstra calculations.
+     */
+    @Test
+    public static void testSparseDijkstra() {
+        try {
+            int numNodes = 130;
+            Random randa = new Random(2);
+            DMGraphEdge[] incidenceMatrix = generateGraph(numNodes, randa);
+            double[][] expected = referenceDistances(incidenceMatrix);
+            GraphGeodesic geodesic = new GraphGeodesic(4, false);
+            GraphGeodesic.SparseAdjacency adjacency =
+                    GraphGeodesic.SparseAdjacency.fromIncidenceMatrix(
+                    incidenceMatrix, false);
+            int[] sources = {0, 17, numNodes - 1, 5};
+            double[][] rows = geodesic.calculateShortestDistancesFrom(
+                    adjacency, sources);
+            for (int s = 0; s < sources.length; s++) {
+                for (int j = 0; j < numNodes; j++) {
+                    assertEquals(expected[sources[s]][j], rows[s][j], 1e-9);
+                }
+            }
+            File tempFile = File.createTempFile("geodesic", ".bin");
+            tempFile.deleteOnExit();
+            try (MappedTriangularMatrix streamed = MappedTriangularMatrix.
+                    create(tempFile, numNodes,
+                    MappedTriangularMatrix.DTYPE_FLOAT32)) {
+                geodesic.calculateAllShortestDistances(adjacency, streamed);
+                for (int i = 0; i < numNodes; i++) {
+                    for (int j = i + 1; j < numNodes; j++) {
+                        assertEquals(toFloat(expected[i][j]),
+                                streamed.getDistance(i, j), 1e-4f);
+                    }
+                }
+            }
+            tempFile.delete();
+            // The kNN adjacency gives the same distances as the kNN edges.
+            // The distances are symmetric, as for the actual kNN sets, so
+            // the pairs that DMGraph.insertEdge merges into a single edge
+            // have the same length in both directions.
+            int k = 3;
+            float[][] points = new float[numNodes][2];
+            for (int i = 0; i < numNodes; i++) {
+                points[i][0] = randa.nextFloat();
+                points[i][1] = randa.nextFloat();
+            }
+            int[][] kNeighbors = new int[numNodes][k];
+            float[][] kDistances = new float[numNodes][k];
+            DMGraphEdge[] knnEdges = new DMGraphEdge[numNodes];
+            for (int i = 0; i < numNodes; i++) {
+                for (int kInd = 0; kInd < k; kInd++) {
+                    int neighbor;
+                    boolean repeated;
+                    do {
+                        neighbor = randa.nextInt(numNodes);
+                        repeated = neighbor == i;
+                        for (int l = 0; l < kInd; l++) {
+                            repeated |= kNeighbors[i][l] == neighbor;
+                        }
+                    } while (repeated);
+                    kNeighbors[i][kInd] = neighbor;
+                    kDistances[i][kInd] = (float) Math.hypot(
+                            points[i][0] - points[neighbor][0],
+                            points[i][1] - points[neighbor][1]);
+                    DMGraph.insertEdge(knnEdges, new DMGraphEdge(
+                            Math.min(i, neighbor), Math.max(i, neighbor),
+                            kDistances[i][kInd]));
+                }
+            }
+            double[][] fromKNN = geodesic.calculateShortestDistancesFrom(
+                    GraphGeodesic.SparseAdjacency.fromKNNSets(kNeighbors,
+                    kDistances), sources);
+            double[][] fromEdges = geodesic.calculateShortestDistancesFrom(
+                    GraphGeodesic.SparseAdjacency.fromIncidenceMatrix(knnEdges,
+                    false), sources);
+            for (int s = 0; s < sources.length; s++) {
+                for (int j = 0; j < numNodes; j++) {
+                    assertEquals(fromEdges[s][j], fromKNN[s][j], 1e-9);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * @param distance Double value that is the geodesic distance.
+     * @return Float value of the distance, as streamed to the matrices.
+     */
+    private static float toFloat(double distance) {
+        return distance == Double.MAX_VALUE ? Float.MAX_VALUE
+                : (float) distance;
+    }
+
+    /**
+     * @param numNodes Integer that is the number of vertices.
+     * @param randa Random object.
+     * @return DMGraphEdge[] that is the incidence matrix of a random sparse
+     * weighted graph, where the last vertex is isolated.
+     * @throws Exception
+     */
+    private static DMGraphEdge[] generateGraph(int numNodes, Random randa)
+            throws Exception {
+        DMGraphEdge[] incidenceMatrix = new DMGraphEdge[numNodes];
+        for (int e = 0; e < 2 * numNodes; e++) {
+            int first = randa.nextInt(numNodes - 1);
+            int second = randa.nextInt(numNodes - 1);
+            if (first != second) {
+                DMGraph.insertEdge(incidenceMatrix, new DMGraphEdge(
+                        Math.min(first, second), Math.max(first, second),
+                        randa.nextDouble() * 10));
+            }
+        }
+        return incidenceMatrix;
+    }
+
+    /**
+     * @param incidenceMatrix DMGraphEdge[] that is the incidence matrix.
+     * @return double[][] of the shortest distances by a direct Floyd-Warshall
+     * implementation.
+     */
+    private static double[][] referenceDistances(
+            DMGraphEdge[] incidenceMatrix) {
+        int numNodes = incidenceMatrix.length;
+        double[][] dist = new double[numNodes][numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            for (int j = 0; j < numNodes; j++) {
+                dist[i][j] = i == j ? 0 : Double.MAX_VALUE;
+            }
+        }
+        for (int i = 0; i < numNodes; i++) {
+            for (DMGraphEdge edge = incidenceMatrix[i]; edge != null;
+                    edge = edge.next) {
+                dist[edge.first][edge.second] = Math.min(edge.weight,
+                        dist[edge.first][edge.second]);
+                dist[edge.second][edge.first] = dist[edge.first][edge.second];
+            }
+        }
+        for (int k = 0; k < numNodes; k++) {
+            for (int i = 0; i < numNodes; i++) {
+                for (int j = 0; j < numNodes; j++) {
+                    if (dist[i][k] != Double.MAX_VALUE
+                            && dist[k][j] != Double.MAX_VALUE
+                            && dist[i][k] + dist[k][j] < dist[i][j]) {
+                        dist[i][j] = dist[i][k] + dist[k][j];
+                    }
+                }
+            }
+        }
+        return dist;
+    }
+}
@@ -0,0 +1,294 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package images.mining.codebook;
+
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import data.structures.VPTree;
+import distances.primary.CombinedMetric;
+import distances.primary.DistanceMeasure;
+import distances.primary.LocalImageFeatureMetric;
+import distances.primary.Manhattan;
+import distances.primary.MaxMetric;
+import distances.primary.MinkowskiMetric;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class indexes the codebook vectors in a vantage point tree, so that the
+ * closest codebook vector of a local feature is found without comparing the
+ * feature to all codebook vectors. The tree is only used for the metrics that
+ * are known to satisfy the triangle inequality, where its results are exact.
+ * For other distances, the codebook vectors are scanned linearly. It also
+ * supports quantizing the features of many images at once, in parallel. If
+ * the features are longer than the codebook vectors, only their trailing parts
+ * are compared to the codebook, as the keypoint information is not always
+ * contained in the codebook.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class CodeBookIndex {
+
+    // The tree over the codebook vectors, null if they are scanned linearly.
+    private VPTree tree = null;
+    private List<? extends DataInstance> codebook;
+    private CombinedMetric cmet;
+    private int codeLength;
+
+    /**
+     * Initialization.
+     *
+     * @param codebook List of the codebook vectors.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @throws Exception
+     */
+    public CodeBookIndex(List<? extends DataInstance> codebook,
+            CombinedMetric cmet) throws Exception {
+        this(codebook, cmet, 1);
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param codebook List of the codebook vectors.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param numThreads Integer that is the number of threads to use for
+     * building the index.
+     * @throws Exception
+     */
+    public CodeBookIndex(List<? extends DataInstance> codebook,
+            CombinedMetric cmet, int numThreads) throws Exception {
+        if (codebook == null || codebook.isEmpty()) {
+            throw new Exception("Can not index an empty codebook.");
+        }
+        this.codebook = new ArrayList<>(codebook);
+        this.cmet = cmet;
+        codeLength = codebook.get(0).getNumFAtt();
+        if (satisfiesTriangleInequality(cmet)) {
+            DataSet codebookData = new DataSet();
+            codebookData.data = new ArrayList<>(codebook);
+            tree = new VPTree(codebookData, cmet);
+            tree.build(numThreads);
+        }
+    }
+
+    /**
+     * @param cmet CombinedMetric object.
+     * @return True if the metric is known to satisfy the triangle inequality,
+     * which is the case for the sums, averages and maxima of the Minkowski
+     * metrics with p >= 1.
+     */
+    public static boolean satisfiesTriangleInequality(CombinedMetric cmet) {
+        if (cmet == null || (cmet.getIntegerMetric() == null
+                && cmet.getFloatMetric() == null)) {
+            return false;
+        }
+        switch (cmet.getCombinationMethod()) {
+            case SUM:
+            case AVERAGE:
+            case MAX:
+            case EUCLIDEAN:
+                return isKnownMetric(cmet.getIntegerMetric())
+                        && isKnownMetric(cmet.getFloatMetric());
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param measure DistanceMeasure object, can be null.
+     * @return True if the measure is null or known to satisfy the triangle
+     * inequality.
+     */
+    private static boolean isKnownMetric(DistanceMeasure measure) {
+        if (measure == null || measure instanceof Manhattan
+                || measure instanceof MaxMetric
+                || measure instanceof LocalImageFeatureMetric) {
+            return true;
+        }
+        return measure instanceof MinkowskiMetric
+                && ((MinkowskiMetric) measure).getP() >= 1;
+    }
+
+    /**
+     * @return True if the codebook vectors are indexed in a tree, false if
+     * they are scanned linearly.
+     */
+    public boolean isTreeIndexed() {
+        return tree != null;
+    }
+
+    /**
+     * @return Integer that is the number of indexed codebook vectors.
+     */
+    public int getSize() {
+        return codebook.size();
+    }
+
+    /**
+     * Returns the index of the closest codebook vector.
+     *
+     * @param instance DataInstance to find the corresponding codebook vector
+     * for.
+     * @return Integer that is the index of the closest codebook vector.
+     * @throws Exception
+     */
+    public int getIndexOfClosestCodebook(DataInstance instance)
+            throws Exception {
+        int[] closest = new int[1];
+        float[] closestDist = new float[1];
+        findClosest(getQueryInstance(instance), closest, closestDist);
+        return closest[0];
+    }
+
+    /**
+     * Finds the closest codebook vector of a query, in the tree or by a
+     * linear scan.
+     *
+     * @param query DataInstance that is compared to the codebook vectors.
+     * @param closest int[] of length 1 for the index of the closest vector.
+     * @param closestDist float[] of length 1 for the distance to it.
+     * @throws Exception
+     */
+    private void findClosest(DataInstance query, int[] closest,
+            float[] closestDist) throws Exception {
+        if (tree != null) {
+            tree.getKNeighbors(query, 1, -1, closest, closestDist);
+            return;
+        }
+        closest[0] = -1;
+        closestDist[0] = Float.MAX_VALUE;
+        for (int c = 0; c < codebook.size(); c++) {
+            float dist = cmet.dist(query, codebook.get(c));
+            if (dist < closestDist[0]) {
+                closestDist[0] = dist;
+                closest[0] = c;
+            }
+        }
+    }
+
+    /**
+     * @param instance DataInstance that is the local feature.
+     * @return DataInstance that holds the part of the feature that is compared
+     * to the codebook vectors.
+     */
+    private DataInstance getQueryInstance(DataInstance instance) {
+        if (instance.getNumFAtt() <= codeLength) {
+            return instance;
+        }
+        int offset = instance.getNumFAtt() - codeLength;
+        DataInstance offsetInstance = new DataInstance();
+        offsetInstance.fAttr = new float[codeLength];
+        System.arraycopy(instance.fAttr, offset, offsetInstance.fAttr, 0,
+                codeLength);
+        return offsetInstance;
+    }
+
+    /**
+     * This method finds the closest codebook vectors of all the features of
+     * all the provided images. The images are distributed among the threads.
+     *
+     * @param reps List of DataSet objects that are the image representations.
+     * Null entries are allowed.
+     * @param numThreads Integer that is the number of threads to use.
+     * @return int[][] that contains the indexes of the closest codebook vectors
+     * for all features of each image. The rows of the null representations are
+     * empty.
+     * @throws Exception
+     */
+    public int[][] quantize(final List<? extends DataSet> reps,
+            int numThreads) throws Exception {
+        final int[][] assignments = new int[reps.size()][];
+        final AtomicInteger nextImage = new AtomicInteger(0);
+        int numWorkers = Math.max(1, Math.min(numThreads, reps.size()));
+        QuantizationWorker[] workers = new QuantizationWorker[numWorkers];
+        Thread[] threads = new Thread[numWorkers];
+        for (int wIndex = 0; wIndex < numWorkers; wIndex++) {
+            workers[wIndex] = new QuantizationWorker(reps, assignments,
+                    nextImage);
+            threads[wIndex] = new Thread(workers[wIndex]);
+            threads[wIndex].start();
+        }
+        for (int wIndex = 0; wIndex < numWorkers; wIndex++) {
+            try {
+                threads[wIndex].join();
+            } catch (Throwable t) {
+                System.err.println(t.getMessage());
+            }
+        }
+        for (QuantizationWorker worker : workers) {
+            if (worker.error != null) {
+                throw worker.error;
+            }
+        }
+        return assignments;
+    }
+
+    /**
+     * This class quantizes the images that it takes from the shared counter.
+     */
+    class QuantizationWorker implements Runnable {
+
+        private List<? extends DataSet> reps;
+        private int[][] assignments;
+        private AtomicInteger nextImage;
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param reps List of DataSet objects that are the image
+         * representations.
+         * @param assignments int[][] that will hold the codebook assignments.
+         * @param nextImage AtomicInteger that is the index of the next
+         * unprocessed image.
+         */
+        QuantizationWorker(List<? extends DataSet> reps, int[][] assignments,
+                AtomicInteger nextImage) {
+            this.reps = reps;
+            this.assignments = assignments;
+            this.nextImage = nextImage;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int[] closest = new int[1];
+                float[] closestDist = new float[1];
+                int imageIndex;
+                while ((imageIndex = nextImage.getAndIncrement())
+                        < reps.size()) {
+                    DataSet rep = reps.get(imageIndex);
+                    if (rep == null || rep.isEmpty()) {
+                        assignments[imageIndex] = new int[0];
+                        continue;
+                    }
+                    int[] imageAssignments = new int[rep.size()];
+                    for (int i = 0; i < imageAssignments.length; i++) {
+                        findClosest(getQueryInstance(rep.data.get(i)),
+                                closest, closestDist);
+                        imageAssignments[i] = closest[0];
+                    }
+                    assignments[imageIndex] = imageAssignments;
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+}
@@ -31,6 +31,7 @@ import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A generic class for representing image feature codebooks.
@@ -43,12 +44,16 @@ public class GenericCodeBook {
     // Feature vectors that define the codeboook.
     private ArrayList<DataInstance> codebook = new ArrayList<>();
     private CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+    // The index over the codebook vectors, built on first use. It is only
+    // accessed while holding the lock of the codebook.
+    private CodeBookIndex index = null;
 
     /**
      * @param cmet CombinedMetric object for distance calculations.
      */
-    public void setCombinedMetirc(CombinedMetric cmet) {
+    public synchronized void setCombinedMetirc(CombinedMetric cmet) {
         this.cmet = cmet;
+        index = null;
     }
 
     /**
@@ -70,8 +75,9 @@ public class GenericCodeBook {
      *
      * @param instance DataInstance to add to the codebook.
      */
-    public void addVectorToCodeBook(DataInstance instance) {
+    public synchronized void addVectorToCodeBook(DataInstance instance) {
         codebook.add(instance);
+        index = null;
     }
 
     /**
@@ -80,8 +86,23 @@ public class GenericCodeBook {
      * @param codebook ArrayList of DataInstance objects comprising the current
      * codebook.
      */
-    public void setCodeBookSet(ArrayList<DataInstance> codebook) {
+    public synchronized void setCodeBookSet(ArrayList<DataInstance> codebook) {
         this.codebook = codebook;
+        index = null;
+    }
+
+    /**
+     * @return CodeBookIndex over the current codebook vectors.
+     * @throws Exception
+     */
+    public synchronized CodeBookIndex getCodeBookIndex() throws Exception {
+        if (index == null) {
+            if (codebook == null || codebook.isEmpty()) {
+                throw new Exception("Can not compare to empty codebook.");
+            }
+            index = new CodeBookIndex(codebook, cmet);
+        }
+        return index;
     }
 
     /**
@@ -225,6 +246,38 @@ public class GenericCodeBook {
         return qid;
     }
 
+    /**
+     * Generates the quantized representations of multiple images at once. The
+     * features of different images are quantized in parallel.
+     *
+     * @param reps List of DataSet objects that are the representations of the
+     * images to quantize.
+     * @param qihDSet QuantizedImageHistogramDataSet data context to use for
+     * initializing the quantized representations.
+     * @param imagePaths List of String paths to the image files.
+     * @param numThreads Integer that is the number of threads to use.
+     * @return QuantizedImageHistogram[] that are the quantized image
+     * representations, in the order of the provided representations.
+     * @throws Exception
+     */
+    public QuantizedImageHistogram[] getHistogramsForImageRepresentations(
+            List<? extends DataSet> reps,
+            QuantizedImageHistogramDataSet qihDSet, List<String> imagePaths,
+            int numThreads) throws Exception {
+        int[][] assignments = getCodeBookIndex().quantize(reps, numThreads);
+        QuantizedImageHistogram[] histograms =
+                new QuantizedImageHistogram[reps.size()];
+        for (int imageIndex = 0; imageIndex < histograms.length;
+                imageIndex++) {
+            histograms[imageIndex] = new QuantizedImageHistogram(qihDSet);
+            histograms[imageIndex].setPath(imagePaths.get(imageIndex));
+            for (int codeIndex : assignments[imageIndex]) {
+                histograms[imageIndex].iAttr[codeIndex]++;
+            }
+        }
+        return histograms;
+    }
+
     /**
      * Returns the index of the closest codebook vector.
      *
@@ -235,34 +288,9 @@ public class GenericCodeBook {
      */
     public int getIndexOfClosestCodebook(DataInstance instance)
             throws Exception {
-        // Only the desciptors are taken into account in distance calculations.
-        if (codebook == null || codebook.isEmpty()) {
-            throw new Exception("Can not compare to empty codebook.");
-        }
-        int closest = -1;
-        float currMinDist = Float.MAX_VALUE;
-        float tempDist;
-        DataInstance offsetInstance;
-        if (instance.getNumFAtt() > codebook.get(0).getNumFAtt()) {
-            int offset = instance.getNumFAtt() - codebook.get(0).getNumFAtt();
-            offsetInstance = new DataInstance();
-            offsetInstance.fAttr = new float[instance.getNumFAtt() - offset];
-            for (int i = 0; i < instance.getNumFAtt() - offset; i++) {
-                offsetInstance.fAttr[i] = instance.fAttr[i + offset];
-            }
-        } else {
-            offsetInstance = instance;
-        }
-        for (int i = 0; i < codebook.size(); i++) {
-            tempDist = cmet.dist(offsetInstance, codebook.get(i));
-            if (tempDist < currMinDist) {
-                currMinDist = tempDist;
-                closest = i;
-            }
-        }
-        return closest;
+        return getCodeBookIndex().getIndexOfClosestCodebook(instance);
     }
-    
+
     /**
      * Returns the index of the closest codebook vector.
      *
@@ -327,7 +355,8 @@ public class GenericCodeBook {
      * @param inCodebookFile File to load the codebook data from.
      * @throws Exception
      */
-    public void loadCodeBookFromFile(File inCodebookFile) throws Exception {
+    public synchronized void loadCodeBookFromFile(File inCodebookFile)
+            throws Exception {
         try (BufferedReader br = new BufferedReader(new InputStreamReader(
                      new FileInputStream(inCodebookFile)))) {
             String s = br.readLine();
@@ -342,6 +371,7 @@ public class GenericCodeBook {
             String[] pair = s.split(":");
             int size = Integer.parseInt(pair[1]);
             codebook = new ArrayList<>(size);
+            index = null;
             s = br.readLine();
             DataInstance instance;
             while (s != null) {
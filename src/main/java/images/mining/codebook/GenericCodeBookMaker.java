@@ -29,7 +29,7 @@ import java.util.HashMap;
 import java.util.Random;
 import learning.unsupervised.Cluster;
 import learning.unsupervised.ClusteringAlg;
-import learning.unsupervised.methods.multithreaded.MTFastKMeans;
+import learning.unsupervised.methods.multithreaded.MTHamerlyKMeans;
 import util.CommandLineParser;
 import util.fileFilters.DirectoryFilter;
 import util.fileFilters.DescFileNameFilter;
@@ -51,7 +51,7 @@ public class GenericCodeBookMaker {
     // Cluster centroids.
     private DataInstance[] centroids = null;
     // The object used to cluster the features.
-    private MTFastKMeans clusterer = null;
+    private MTHamerlyKMeans clusterer = null;
     // Metric to use in the feature space.
     private CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
     private HashMap<String, String> tabuPathMap;
@@ -176,7 +176,7 @@ public class GenericCodeBookMaker {
             System.out.println("Empty sample.");
             return;
         }
-        clusterer = new MTFastKMeans(featureSample, cmet, numClusters,
+        clusterer = new MTHamerlyKMeans(featureSample, cmet, numClusters,
                 NUM_THREADS, true);
         clusterer.cluster();
         resultingConfiguration = clusterer.getClusters();
@@ -20,12 +20,14 @@ package images.mining.codebook;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import data.representation.images.quantized.QuantizedImageHistogram;
+import data.representation.images.quantized.QuantizedImageHistogramDataSet;
 import distances.primary.CombinedMetric;
 import ioformat.IOARFF;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashMap;
 import util.CommandLineParser;
 import util.fileFilters.DescFileNameFilter;
@@ -40,6 +42,10 @@ import util.fileFilters.DirectoryFilter;
  */
 public class GenericHistogramUtil {
 
+    public static final int NUM_THREADS =
+            Runtime.getRuntime().availableProcessors();
+    // The number of descriptor files that are quantized together.
+    public static final int FILE_BATCH_SIZE = 4 * NUM_THREADS;
     private File target = null;
     private boolean recursive = true;
     private DataSet quantizedData;
@@ -201,18 +207,47 @@ public class GenericHistogramUtil {
                 processDirectory(dir);
             }
         }
+        ArrayList<DataSet> batchReps = new ArrayList<>(FILE_BATCH_SIZE);
+        ArrayList<String> batchPaths = new ArrayList<>(FILE_BATCH_SIZE);
         for (File descFile : descFiles) {
             if (!tabuPathMap.containsKey(descFile.getAbsolutePath())) {
-                DataSet imageRep = loadFeaturesFromDescriptorFile(descFile);
-                QuantizedImageHistogram qih = codebook.
-                        getHistogramForImageRepresentation(imageRep,
-                        descFile.getPath());
-                qih.sAttr = new String[1];
-                qih.sAttr[0] = descFile.getPath();
-                quantizedData.addDataInstance(qih);
-                qih.embedInDataset(quantizedData);
+                batchReps.add(loadFeaturesFromDescriptorFile(descFile));
+                batchPaths.add(descFile.getPath());
+                if (batchReps.size() == FILE_BATCH_SIZE) {
+                    quantizeBatch(batchReps, batchPaths);
+                }
             }
         }
+        quantizeBatch(batchReps, batchPaths);
+    }
+
+    /**
+     * Quantizes the loaded image representations in parallel, adds them to
+     * the quantized data and clears the batch.
+     *
+     * @param batchReps ArrayList of DataSet objects that are the loaded image
+     * representations.
+     * @param batchPaths ArrayList of String paths to the descriptor files.
+     * @throws Exception
+     */
+    private void quantizeBatch(ArrayList<DataSet> batchReps,
+            ArrayList<String> batchPaths) throws Exception {
+        if (batchReps.isEmpty()) {
+            return;
+        }
+        QuantizedImageHistogram[] histograms = codebook.
+                getHistogramsForImageRepresentations(batchReps,
+                new QuantizedImageHistogramDataSet(codebook.getSize()),
+                batchPaths, NUM_THREADS);
+        for (int i = 0; i < histograms.length; i++) {
+            QuantizedImageHistogram qih = histograms[i];
+            qih.sAttr = new String[1];
+            qih.sAttr[0] = batchPaths.get(i);
+            quantizedData.addDataInstance(qih);
+            qih.embedInDataset(quantizedData);
+        }
+        batchReps.clear();
+        batchPaths.clear();
     }
 
     /**
@@ -22,6 +22,7 @@ import data.representation.images.quantized.QuantizedImageHistogram;
 import data.representation.images.quantized.QuantizedImageHistogramDataSet;
 import data.representation.images.sift.LFeatRepresentation;
 import data.representation.images.sift.LFeatVector;
+import distances.primary.CombinedMetric;
 import distances.primary.LocalImageFeatureMetric;
 import java.io.BufferedReader;
 import java.io.File;
@@ -30,6 +31,7 @@ import java.io.FileWriter;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.List;
 
 /**
  * SIFT features codebook class for feature quantization.
@@ -41,6 +43,8 @@ public class SIFTCodeBook {
     public static final int DEFAULT_SIZE = 400;
     // Feature vectors that define the codeboook.
     private ArrayList<LFeatVector> codebook = new ArrayList<>();
+    // The index over the codebook vectors, built on first use.
+    private CodeBookIndex index = null;
 
     /**
      * @return Integer that is the codebook size.
@@ -54,8 +58,9 @@ public class SIFTCodeBook {
      *
      * @param v SIFT feature vector to add to the codebook.
      */
-    public void addVectorToCodeBook(LFeatVector v) {
+    public synchronized void addVectorToCodeBook(LFeatVector v) {
         codebook.add(v);
+        index = null;
     }
 
     /**
@@ -64,8 +69,17 @@ public class SIFTCodeBook {
      * @param codebook ArrayList of SIFT feature vectors comprising the current
      * codebook.
      */
-    public void setCodeBookSet(ArrayList<LFeatVector> codebook) {
+    public synchronized void setCodeBookSet(ArrayList<LFeatVector> codebook) {
         this.codebook = codebook;
+        index = null;
+    }
+
+    /**
+     * @return ArrayList of SIFT feature vectors comprising the current
+     * codebook.
+     */
+    public ArrayList<LFeatVector> getCodeBookSet() {
+        return codebook;
     }
 
     /**
@@ -218,19 +232,56 @@ public class SIFTCodeBook {
      * @throws Exception
      */
     public int getIndexOfClosestCodebook(LFeatVector vect) throws Exception {
-        // Only the desciptors are taken into account in distance calculations.
-        int closest = -1;
-        LocalImageFeatureMetric smet = new LocalImageFeatureMetric();
-        float currMinDist = Float.MAX_VALUE;
-        float tempDist;
-        for (int i = 0; i < codebook.size(); i++) {
-            tempDist = smet.dist(vect, codebook.get(i));
-            if (tempDist < currMinDist) {
-                currMinDist = tempDist;
-                closest = i;
+        if (codebook == null || codebook.isEmpty()) {
+            return -1;
+        }
+        return getCodeBookIndex().getIndexOfClosestCodebook(vect);
+    }
+
+    /**
+     * @return CodeBookIndex over the current codebook vectors. Only the
+     * descriptors are taken into account in distance calculations.
+     * @throws Exception
+     */
+    public synchronized CodeBookIndex getCodeBookIndex() throws Exception {
+        if (index == null) {
+            index = new CodeBookIndex(codebook, new CombinedMetric(null,
+                    new LocalImageFeatureMetric(), CombinedMetric.DEFAULT));
+        }
+        return index;
+    }
+
+    /**
+     * Generates the quantized representations of multiple images at once. The
+     * features of different images are quantized in parallel.
+     *
+     * @param reps List of LFeatRepresentation objects that are the
+     * representations of the images to quantize.
+     * @param qihDSet QuantizedImageHistogramDataSet data context to use for
+     * initializing the quantized representations.
+     * @param numThreads Integer that is the number of threads to use.
+     * @return QuantizedImageHistogram[] that are the quantized image
+     * representations, in the order of the provided representations.
+     * @throws Exception
+     */
+    public QuantizedImageHistogram[] getHistogramsForImageRepresentations(
+            List<LFeatRepresentation> reps,
+            QuantizedImageHistogramDataSet qihDSet, int numThreads)
+            throws Exception {
+        int[][] assignments = getCodeBookIndex().quantize(reps, numThreads);
+        QuantizedImageHistogram[] histograms =
+                new QuantizedImageHistogram[reps.size()];
+        for (int imageIndex = 0; imageIndex < histograms.length;
+                imageIndex++) {
+            histograms[imageIndex] = new QuantizedImageHistogram(qihDSet);
+            if (reps.get(imageIndex) != null) {
+                histograms[imageIndex].setPath(reps.get(imageIndex).getPath());
+            }
+            for (int codeIndex : assignments[imageIndex]) {
+                histograms[imageIndex].iAttr[codeIndex]++;
             }
         }
-        return closest;
+        return histograms;
     }
 
     /**
@@ -259,7 +310,8 @@ public class SIFTCodeBook {
      * @param inCodebookFile File to load the codebook data from.
      * @throws Exception
      */
-    public void loadCodeBookFromFile(File inCodebookFile) throws Exception {
+    public synchronized void loadCodeBookFromFile(File inCodebookFile)
+            throws Exception {
         BufferedReader br = new BufferedReader(new InputStreamReader(
                 new FileInputStream(inCodebookFile)));
         try {
@@ -275,6 +327,7 @@ public class SIFTCodeBook {
             String[] pair = s.split(":");
             int size = Integer.parseInt(pair[1]);
             codebook = new ArrayList<>(size);
+            index = null;
             s = br.readLine();
             LFeatVector tempVector;
             while (s != null) {
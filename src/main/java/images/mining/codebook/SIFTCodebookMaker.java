@@ -30,7 +30,7 @@ import data.representation.DataInstance;
 import learning.unsupervised.Cluster;
 import distances.primary.LocalImageFeatureMetric;
 import distances.primary.CombinedMetric;
-import learning.unsupervised.methods.FastKMeans;
+import learning.unsupervised.methods.multithreaded.MTHamerlyKMeans;
 import learning.unsupervised.ClusteringAlg;
 import java.util.Random;
 
@@ -43,11 +43,14 @@ import java.util.Random;
 public class SIFTCodebookMaker {
 
     public static final int DEFAULT_SIZE = 400;
+    public static final int NUM_THREADS =
+            Runtime.getRuntime().availableProcessors();
     private File target = null;
     private boolean recursive = true;
     private LFeatRepresentation siftSample = null;
     private Cluster[] resultingConfiguration = null;
-    private FastKMeans clusterer = null;
+    private DataInstance[] centroids = null;
+    private MTHamerlyKMeans clusterer = null;
 
     /**
      * The main method which takes exactly four command line parameters: input
@@ -113,9 +116,11 @@ public class SIFTCodebookMaker {
         }
         CombinedMetric cmet = new CombinedMetric(null, new LocalImageFeatureMetric(),
                 CombinedMetric.DEFAULT);
-        clusterer = new FastKMeans(siftSample, cmet, numClusters);
+        clusterer = new MTHamerlyKMeans(siftSample, cmet, numClusters,
+                NUM_THREADS);
         clusterer.cluster();
         resultingConfiguration = clusterer.getClusters();
+        centroids = clusterer.getCentroids();
     }
 
     /**
@@ -137,12 +142,12 @@ public class SIFTCodebookMaker {
                 || resultingConfiguration.length == 0) {
             return new LFeatVector[0];
         }
-        LFeatVector[] centroids = new LFeatVector[resultingConfiguration.length];
-        for (int i = 0; i < centroids.length; i++) {
-            centroids[i] = new LFeatVector(
-                    resultingConfiguration[i].getCentroid());
+        LFeatVector[] centroidVectors =
+                new LFeatVector[resultingConfiguration.length];
+        for (int i = 0; i < centroidVectors.length; i++) {
+            centroidVectors[i] = new LFeatVector(centroids[i]);
         }
-        return centroids;
+        return centroidVectors;
     }
 
     /**
@@ -158,8 +163,7 @@ public class SIFTCodebookMaker {
         ArrayList<LFeatVector> featureVector = new ArrayList<>(
                 resultingConfiguration.length);
         for (int i = 0; i < resultingConfiguration.length; i++) {
-            featureVector.add(new LFeatVector(
-                    resultingConfiguration[i].getCentroid()));
+            featureVector.add(new LFeatVector(centroids[i]));
         }
         result.setCodeBookSet(featureVector);
         return result;
@@ -0,0 +1,612 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package images.mining.codebook;
+
+import data.representation.DataInstance;
+import data.representation.images.sift.LFeatRepresentation;
+import data.representation.images.sift.LFeatVector;
+import distances.primary.CombinedMetric;
+import distances.primary.LocalImageFeatureMetric;
+import ioformat.IOARFF;
+import ioformat.images.SiftUtil;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import learning.unsupervised.Cluster;
+import learning.unsupervised.methods.multithreaded.MTHamerlyKMeans;
+import util.fileFilters.ARFFFileNameFilter;
+import util.fileFilters.DirectoryFilter;
+import util.fileFilters.KeyFileNameFilter;
+
+/**
+ * This class builds SIFT codebooks by mini-batch K-means, as described in:
+ * D. Sculley, "Web-scale k-means clustering". Unlike SIFTCodebookMaker, it
+ * never loads the whole feature collection. The worker threads read the
+ * feature files one at a time, assign the features in each mini-batch to the
+ * closest centroids in their own snapshot of the codebook and then move the
+ * centroids towards the batch means, with per-centroid learning rates that
+ * decrease with the number of features assigned so far. The initial centroids
+ * are obtained by clustering a bounded sample of the features. The current
+ * codebook can be periodically checkpointed to disk and the training resumes
+ * from an existing checkpoint.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class StreamingSIFTCodebookMaker {
+
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+    public static final int DEFAULT_NUM_PASSES = 1;
+    // The default number of processed files between two checkpoints.
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 100;
+    // The default size of the initialization sample, per cluster.
+    public static final int DEFAULT_SAMPLE_FACTOR = 10;
+    // The first four feature values are the coordinates, the scale and the
+    // angle, which are not used in the distance calculations.
+    private static final int DESCRIPTOR_OFFSET = 4;
+    private File target = null;
+    private boolean recursive = true;
+    private int numClusters = SIFTCodebookMaker.DEFAULT_SIZE;
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private int numPasses = DEFAULT_NUM_PASSES;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+    private int checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private int sampleSize = -1;
+    private File checkpointFile = null;
+    private ArrayList<File> featureFiles;
+    // The current centroids and the number of features assigned to each.
+    private float[][] centroids;
+    private long[] centroidCounts;
+    private int featureLength;
+    private final Object centroidLock = new Object();
+    private final Object checkpointLock = new Object();
+    private AtomicInteger numProcessedFiles = new AtomicInteger(0);
+    private AtomicLong numProcessedFeatures = new AtomicLong(0);
+
+    /**
+     * The main method which takes four or five command line parameters:
+     * input path, output file, the size of the codebook to be generated, the
+     * number of passes over the data and, optionally, the checkpoint file.
+     *
+     * @param args Command line parameters, as specified.
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 4 && args.length != 5) {
+            System.out.println("4 or 5 args");
+            System.out.println("arg0: inPath to a directory of arff or key "
+                    + "files with local features, or a single arff file");
+            System.out.println("arg1: outPath to file where codebooks are to "
+                    + "be persisted");
+            System.out.println("arg2: dimensionality of codebook");
+            System.out.println("arg3: number of passes over the features");
+            System.out.println("arg4: (optional) path to the checkpoint file");
+        } else {
+            StreamingSIFTCodebookMaker maker = new StreamingSIFTCodebookMaker(
+                    new File(args[0]), true, Integer.parseInt(args[2]));
+            maker.setNumPasses(Integer.parseInt(args[3]));
+            if (args.length == 5) {
+                maker.setCheckpointFile(new File(args[4]));
+            }
+            SIFTCodeBook generatedCodebook = maker.makeCodeBook();
+            generatedCodebook.writeCodeBookToFile(new File(args[1]));
+        }
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param target File that is either a directory of feature files or a
+     * single feature file.
+     * @param recursive Boolean flag indicating whether to also use the files
+     * in the subdirectories.
+     * @param numClusters Integer that is the size of the codebook.
+     */
+    public StreamingSIFTCodebookMaker(File target, boolean recursive,
+            int numClusters) {
+        this.target = target;
+        this.recursive = recursive;
+        this.numClusters = numClusters;
+    }
+
+    /**
+     * @param batchSize Integer that is the number of features in a mini-batch.
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * @param numPasses Integer that is the number of passes over the data.
+     */
+    public void setNumPasses(int numPasses) {
+        this.numPasses = Math.max(1, numPasses);
+    }
+
+    /**
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param sampleSize Integer that is the number of features to cluster for
+     * the initial centroids. The default is ten features per cluster.
+     */
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    /**
+     * @param checkpointFile File to periodically write the current codebook
+     * to. If the file already exists, the training starts from the codebook
+     * it contains.
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    /**
+     * @param checkpointInterval Integer that is the number of processed files
+     * between two checkpoints.
+     */
+    public void setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+    }
+
+    /**
+     * @return Long that is the number of features that were processed in the
+     * mini-batch updates.
+     */
+    public long getNumProcessedFeatures() {
+        return numProcessedFeatures.get();
+    }
+
+    /**
+     * This method runs the mini-batch K-means over all the feature files.
+     *
+     * @return SIFTCodeBook that was generated.
+     * @throws Exception
+     */
+    public SIFTCodeBook makeCodeBook() throws Exception {
+        featureFiles = new ArrayList<>(1000);
+        if (target.isDirectory()) {
+            collectFeatureFiles(target);
+        } else {
+            featureFiles.add(target);
+        }
+        if (featureFiles.isEmpty()) {
+            throw new Exception("No feature files found in "
+                    + target.getPath());
+        }
+        numProcessedFiles.set(0);
+        numProcessedFeatures.set(0);
+        if (checkpointFile != null && checkpointFile.isFile()) {
+            resumeFromCheckpoint();
+        } else {
+            initializeCentroids();
+        }
+        Random randa = new Random();
+        for (int pass = 0; pass < numPasses; pass++) {
+            ArrayList<File> passFiles = new ArrayList<>(featureFiles);
+            Collections.shuffle(passFiles, randa);
+            AtomicInteger nextFile = new AtomicInteger(0);
+            int numWorkers = Math.min(numThreads, passFiles.size());
+            FileWorker[] workers = new FileWorker[numWorkers];
+            Thread[] threads = new Thread[numWorkers];
+            for (int wIndex = 0; wIndex < numWorkers; wIndex++) {
+                workers[wIndex] = new FileWorker(passFiles, nextFile);
+                threads[wIndex] = new Thread(workers[wIndex]);
+                threads[wIndex].start();
+            }
+            for (int wIndex = 0; wIndex < numWorkers; wIndex++) {
+                try {
+                    threads[wIndex].join();
+                } catch (Throwable t) {
+                    System.err.println(t.getMessage());
+                }
+            }
+            for (FileWorker worker : workers) {
+                if (worker.error != null) {
+                    throw worker.error;
+                }
+            }
+        }
+        if (checkpointFile != null) {
+            writeCheckpoint();
+        }
+        return getCodeBook();
+    }
+
+    /**
+     * @return SIFTCodeBook that holds a copy of the current centroids.
+     */
+    public SIFTCodeBook getCodeBook() {
+        SIFTCodeBook codebook = new SIFTCodeBook();
+        if (centroids == null) {
+            return codebook;
+        }
+        ArrayList<LFeatVector> vectors = new ArrayList<>(centroids.length);
+        synchronized (centroidLock) {
+            for (float[] centroid : centroids) {
+                LFeatVector vector = new LFeatVector();
+                vector.fAttr = Arrays.copyOf(centroid, centroid.length);
+                vectors.add(vector);
+            }
+        }
+        codebook.setCodeBookSet(vectors);
+        return codebook;
+    }
+
+    /**
+     * This method writes the current codebook to the checkpoint file and the
+     * centroid counts to an accompanying file. The files are first written
+     * under temporary names, so that an interrupted write never replaces the
+     * previous checkpoint.
+     *
+     * @throws Exception
+     */
+    public void writeCheckpoint() throws Exception {
+        if (checkpointFile == null) {
+            return;
+        }
+        synchronized (checkpointLock) {
+            long[] counts;
+            synchronized (centroidLock) {
+                counts = Arrays.copyOf(centroidCounts, centroidCounts.length);
+            }
+            SIFTCodeBook codebook = getCodeBook();
+            File tempCodebookFile = new File(checkpointFile.getPath()
+                    + ".tmp");
+            codebook.writeCodeBookToFile(tempCodebookFile);
+            File countsFile = getCountsFile();
+            File tempCountsFile = new File(countsFile.getPath() + ".tmp");
+            PrintWriter pw = new PrintWriter(new FileWriter(tempCountsFile));
+            try {
+                for (long count : counts) {
+                    pw.println(count);
+                }
+            } finally {
+                pw.close();
+            }
+            replaceFile(tempCountsFile, countsFile);
+            replaceFile(tempCodebookFile, checkpointFile);
+        }
+    }
+
+    /**
+     * @param tempFile File that was written.
+     * @param targetFile File to replace by the written file.
+     * @throws IOException
+     */
+    private static void replaceFile(File tempFile, File targetFile)
+            throws IOException {
+        if (targetFile.exists() && !targetFile.delete()) {
+            throw new IOException("Unable to replace " + targetFile.getPath());
+        }
+        if (!tempFile.renameTo(targetFile)) {
+            throw new IOException("Unable to rename " + tempFile.getPath());
+        }
+    }
+
+    /**
+     * @return File that holds the centroid counts of the checkpoint.
+     */
+    private File getCountsFile() {
+        return new File(checkpointFile.getPath() + ".counts");
+    }
+
+    /**
+     * This method loads the centroids from the checkpoint file. If the counts
+     * file is missing, each centroid is treated as if it had a single feature
+     * assigned to it.
+     *
+     * @throws Exception
+     */
+    private void resumeFromCheckpoint() throws Exception {
+        SIFTCodeBook codebook = new SIFTCodeBook();
+        codebook.loadCodeBookFromFile(checkpointFile);
+        ArrayList<LFeatVector> vectors = codebook.getCodeBookSet();
+        if (vectors.size() != numClusters) {
+            throw new Exception("The checkpoint codebook has " + vectors.size()
+                    + " vectors instead of " + numClusters);
+        }
+        centroids = new float[numClusters][];
+        centroidCounts = new long[numClusters];
+        Arrays.fill(centroidCounts, 1);
+        for (int cIndex = 0; cIndex < numClusters; cIndex++) {
+            centroids[cIndex] = vectors.get(cIndex).fAttr;
+        }
+        featureLength = centroids[0].length;
+        File countsFile = getCountsFile();
+        if (countsFile.isFile()) {
+            BufferedReader br = new BufferedReader(new InputStreamReader(
+                    new FileInputStream(countsFile)));
+            try {
+                String line;
+                for (int cIndex = 0; cIndex < numClusters; cIndex++) {
+                    line = br.readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    centroidCounts[cIndex] = Math.max(1,
+                            Long.parseLong(line.trim()));
+                }
+            } finally {
+                br.close();
+            }
+        }
+    }
+
+    /**
+     * This method clusters a sample of the features from randomly chosen
+     * files to obtain the initial centroids.
+     *
+     * @throws Exception
+     */
+    private void initializeCentroids() throws Exception {
+        int maxSampleSize = sampleSize > 0 ? Math.max(sampleSize, numClusters)
+                : DEFAULT_SAMPLE_FACTOR * numClusters;
+        ArrayList<File> sampleFiles = new ArrayList<>(featureFiles);
+        Collections.shuffle(sampleFiles);
+        LFeatRepresentation sample = new LFeatRepresentation(maxSampleSize,
+                maxSampleSize);
+        featureLength = -1;
+        for (File featureFile : sampleFiles) {
+            LFeatRepresentation rep = loadFeatureFile(featureFile);
+            if (rep == null || rep.isEmpty()) {
+                continue;
+            }
+            for (DataInstance feature : rep.data) {
+                if (feature.fAttr == null) {
+                    continue;
+                }
+                if (featureLength < 0) {
+                    featureLength = feature.fAttr.length;
+                }
+                if (feature.fAttr.length == featureLength) {
+                    sample.addDataInstance(feature);
+                }
+            }
+            if (sample.size() >= maxSampleSize) {
+                break;
+            }
+        }
+        if (sample.size() < numClusters) {
+            throw new Exception("Only " + sample.size() + " local features "
+                    + "found for a codebook of size " + numClusters);
+        }
+        CombinedMetric cmet = new CombinedMetric(null,
+                new LocalImageFeatureMetric(), CombinedMetric.DEFAULT);
+        MTHamerlyKMeans clusterer = new MTHamerlyKMeans(sample, cmet,
+                numClusters, numThreads);
+        clusterer.cluster();
+        DataInstance[] sampleCentroids = clusterer.getCentroids();
+        Cluster[] sampleClusters = clusterer.getClusters();
+        centroids = new float[numClusters][];
+        centroidCounts = new long[numClusters];
+        for (int cIndex = 0; cIndex < numClusters; cIndex++) {
+            centroids[cIndex] = Arrays.copyOf(sampleCentroids[cIndex].fAttr,
+                    featureLength);
+            centroidCounts[cIndex] = Math.max(1,
+                    sampleClusters[cIndex].size());
+        }
+    }
+
+    /**
+     * This method collects the feature files from a directory.
+     *
+     * @param inDir Input directory.
+     */
+    private void collectFeatureFiles(File inDir) {
+        File[] arffFiles = inDir.listFiles(new ARFFFileNameFilter());
+        File[] keyFiles = inDir.listFiles(new KeyFileNameFilter());
+        File[] subdirectories = inDir.listFiles(new DirectoryFilter());
+        if (recursive) {
+            for (File dir : subdirectories) {
+                collectFeatureFiles(dir);
+            }
+        }
+        featureFiles.addAll(Arrays.asList(arffFiles));
+        featureFiles.addAll(Arrays.asList(keyFiles));
+    }
+
+    /**
+     * This method loads the local features from a file in the arff format or
+     * in Lowe's key format.
+     *
+     * @param inFile Input file.
+     * @return LFeatRepresentation that holds the features, or null if the file
+     * could not be loaded.
+     */
+    private static LFeatRepresentation loadFeatureFile(File inFile) {
+        try {
+            if (new ARFFFileNameFilter().accept(inFile.getParentFile(),
+                    inFile.getName())) {
+                IOARFF persister = new IOARFF();
+                return new LFeatRepresentation(persister.load(
+                        inFile.getPath()));
+            } else {
+                return SiftUtil.importFeaturesFromSift(inFile);
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * This method moves the centroids towards the means of the features that
+     * were assigned to them in a mini-batch. The step of each centroid is
+     * inversely proportional to the number of features that have been
+     * assigned to it so far, including the current batch.
+     *
+     * @param batchSums double[][] of the feature sums per centroid.
+     * @param batchCounts int[] of the feature counts per centroid.
+     * @param touched int[] of the indexes of the centroids with features in the
+     * batch.
+     * @param numTouched Integer that is the number of touched centroids.
+     */
+    private void applyBatch(double[][] batchSums, int[] batchCounts,
+            int[] touched, int numTouched) {
+        synchronized (centroidLock) {
+            for (int tIndex = 0; tIndex < numTouched; tIndex++) {
+                int cIndex = touched[tIndex];
+                float[] centroid = centroids[cIndex];
+                double[] sums = batchSums[cIndex];
+                int batchCount = batchCounts[cIndex];
+                centroidCounts[cIndex] += batchCount;
+                double count = centroidCounts[cIndex];
+                for (int d = 0; d < featureLength; d++) {
+                    centroid[d] += (float) ((sums[d] - batchCount
+                            * centroid[d]) / count);
+                }
+            }
+        }
+    }
+
+    /**
+     * This class processes the feature files in mini-batches.
+     */
+    class FileWorker implements Runnable {
+
+        private ArrayList<File> passFiles;
+        private AtomicInteger nextFile;
+        // A local copy of the centroids, refreshed before each batch.
+        private float[][] snapshot;
+        private double[][] batchSums;
+        private int[] batchCounts;
+        private int[] touched;
+        private int numTouched;
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param passFiles ArrayList of the files to process in this pass.
+         * @param nextFile AtomicInteger that is the index of the next
+         * unprocessed file.
+         */
+        FileWorker(ArrayList<File> passFiles, AtomicInteger nextFile) {
+            this.passFiles = passFiles;
+            this.nextFile = nextFile;
+            snapshot = new float[numClusters][featureLength];
+            batchSums = new double[numClusters][featureLength];
+            batchCounts = new int[numClusters];
+            touched = new int[numClusters];
+        }
+
+        @Override
+        public void run() {
+            try {
+                int fileIndex;
+                while ((fileIndex = nextFile.getAndIncrement())
+                        < passFiles.size()) {
+                    LFeatRepresentation rep = loadFeatureFile(
+                            passFiles.get(fileIndex));
+                    if (rep != null && !rep.isEmpty()) {
+                        processFeatures(rep);
+                    }
+                    if (numProcessedFiles.incrementAndGet()
+                            % checkpointInterval == 0) {
+                        writeCheckpoint();
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /**
+         * This method processes the features of a single file.
+         *
+         * @param rep LFeatRepresentation that holds the features.
+         */
+        private void processFeatures(LFeatRepresentation rep) {
+            for (int first = 0; first < rep.size(); first += batchSize) {
+                int last = Math.min(first + batchSize, rep.size());
+                synchronized (centroidLock) {
+                    for (int cIndex = 0; cIndex < numClusters; cIndex++) {
+                        System.arraycopy(centroids[cIndex], 0,
+                                snapshot[cIndex], 0, featureLength);
+                    }
+                }
+                numTouched = 0;
+                int numUsed = 0;
+                for (int i = first; i < last; i++) {
+                    float[] feature = rep.data.get(i).fAttr;
+                    if (feature == null || feature.length != featureLength) {
+                        continue;
+                    }
+                    int closest = getClosestCentroid(feature);
+                    if (batchCounts[closest] == 0) {
+                        touched[numTouched++] = closest;
+                    }
+                    batchCounts[closest]++;
+                    double[] sums = batchSums[closest];
+                    for (int d = 0; d < featureLength; d++) {
+                        sums[d] += feature[d];
+                    }
+                    numUsed++;
+                }
+                applyBatch(batchSums, batchCounts, touched, numTouched);
+                for (int tIndex = 0; tIndex < numTouched; tIndex++) {
+                    batchCounts[touched[tIndex]] = 0;
+                    Arrays.fill(batchSums[touched[tIndex]], 0);
+                }
+                numProcessedFeatures.addAndGet(numUsed);
+            }
+        }
+
+        /**
+         * @param feature float[] that is the local feature.
+         * @return Integer that is the index of the closest centroid in the
+         * snapshot, by the descriptor distance.
+         */
+        private int getClosestCentroid(float[] feature) {
+            int closest = 0;
+            float minDist = Float.MAX_VALUE;
+            for (int cIndex = 0; cIndex < numClusters; cIndex++) {
+                float[] centroid = snapshot[cIndex];
+                float dist = 0;
+                float diff;
+                for (int d = DESCRIPTOR_OFFSET; d < featureLength; d++) {
+                    diff = feature[d] - centroid[d];
+                    dist += diff * diff;
+                    if (dist >= minDist) {
+                        break;
+                    }
+                }
+                if (dist < minDist) {
+                    minDist = dist;
+                    closest = cIndex;
+                }
+            }
+            return closest;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package images.mining.codebook.test;
+
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import data.representation.images.quantized.QuantizedImageHistogram;
+import data.representation.images.quantized.QuantizedImageHistogramDataSet;
+import data.representation.images.sift.LFeatRepresentation;
+import data.representation.images.sift.LFeatVector;
+import distances.primary.CombinedMetric;
+import distances.primary.LocalImageFeatureMetric;
+import images.mining.codebook.GenericCodeBook;
+import images.mining.codebook.SIFTCodeBook;
+import java.util.ArrayList;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the indexed codebook lookups and the batched quantization
+ * against the exhaustive comparison to all codebook vectors.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class CodeBookIndexTest extends TestCase {
+
+    /**
+     * This method tests the generic codebook, where the features also contain
+     * the keypoint information that is not contained in the codebook.
+     */
+    @Test
+    public static void testGenericCodeBook() {
+        try {
+            Random randa = new Random(1);
+            int dim = 16;
+            ArrayList<DataInstance> codewords = new ArrayList<>();
+            for (int c = 0; c < 200; c++) {
+                DataInstance codeword = new DataInstance();
+                codeword.fAttr = randomVector(dim, randa);
+                codewords.add(codeword);
+            }
+            GenericCodeBook codebook = new GenericCodeBook();
+            codebook.setCodeBookSet(codewords);
+            CombinedMetric cmet = codebook.getCombinedMetric();
+            assertTrue(codebook.getCodeBookIndex().isTreeIndexed());
+            ArrayList<DataSet> reps = new ArrayList<>();
+            ArrayList<String> paths = new ArrayList<>();
+            for (int imageIndex = 0; imageIndex < 10; imageIndex++) {
+                DataSet rep = new DataSet();
+                for (int i = 0; i < 100; i++) {
+                    DataInstance feature = new DataInstance();
+                    feature.fAttr = new float[dim + 4];
+                    System.arraycopy(randomVector(dim, randa), 0,
+                            feature.fAttr, 4, dim);
+                    rep.addDataInstance(feature);
+                }
+                reps.add(rep);
+                paths.add("image" + imageIndex);
+            }
+            QuantizedImageHistogram[] histograms = codebook.
+                    getHistogramsForImageRepresentations(reps,
+                    new QuantizedImageHistogramDataSet(codebook.getSize()),
+                    paths, 3);
+            for (int imageIndex = 0; imageIndex < reps.size(); imageIndex++) {
+                int[] expectedCounts = new int[codewords.size()];
+                for (DataInstance feature : reps.get(imageIndex).data) {
+                    DataInstance descriptor = new DataInstance();
+                    descriptor.fAttr = new float[dim];
+                    System.arraycopy(feature.fAttr, 4, descriptor.fAttr, 0,
+                            dim);
+                    int expected = getClosestExhaustively(descriptor,
+                            codewords, cmet);
+                    int result = codebook.getIndexOfClosestCodebook(feature);
+                    assertEquals(cmet.dist(descriptor, codewords.get(expected)),
+                            cmet.dist(descriptor, codewords.get(result)),
+                            0.00001f);
+                    expectedCounts[result]++;
+                }
+                assertEquals(paths.get(imageIndex),
+                        histograms[imageIndex].getPath());
+                for (int c = 0; c < codewords.size(); c++) {
+                    assertEquals(expectedCounts[c],
+                            histograms[imageIndex].iAttr[c]);
+                }
+            }
+            // The squared Euclidean distance does not satisfy the triangle
+            // inequality, so the codebook is scanned linearly.
+            cmet = CombinedMetric.FLOAT_SQUARED_EUCLIDEAN;
+            codebook.setCombinedMetirc(cmet);
+            assertFalse(codebook.getCodeBookIndex().isTreeIndexed());
+            for (DataInstance feature : reps.get(0).data) {
+                DataInstance descriptor = new DataInstance();
+                descriptor.fAttr = new float[dim];
+                System.arraycopy(feature.fAttr, 4, descriptor.fAttr, 0, dim);
+                assertEquals(getClosestExhaustively(descriptor, codewords,
+                        cmet), codebook.getIndexOfClosestCodebook(feature));
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the SIFT codebook, where only the descriptors are
+     * compared.
+     */
+    @Test
+    public static void testSIFTCodeBook() {
+        try {
+            Random randa = new Random(2);
+            int length = 4 + 32;
+            ArrayList<LFeatVector> codewords = new ArrayList<>();
+            for (int c = 0; c < 150; c++) {
+                LFeatVector codeword = new LFeatVector();
+                codeword.fAttr = randomVector(length, randa);
+                codewords.add(codeword);
+            }
+            SIFTCodeBook codebook = new SIFTCodeBook();
+            codebook.setCodeBookSet(codewords);
+            LocalImageFeatureMetric metric = new LocalImageFeatureMetric();
+            ArrayList<LFeatRepresentation> reps = new ArrayList<>();
+            for (int imageIndex = 0; imageIndex < 6; imageIndex++) {
+                LFeatRepresentation rep = new LFeatRepresentation(length - 4);
+                rep.setPath("image" + imageIndex);
+                for (int i = 0; i < 80; i++) {
+                    LFeatVector feature = new LFeatVector(rep);
+                    feature.fAttr = randomVector(length, randa);
+                    rep.addDataInstance(feature);
+                }
+                reps.add(rep);
+            }
+            reps.add(null);
+            QuantizedImageHistogram[] histograms = codebook.
+                    getHistogramsForImageRepresentations(reps,
+                    codebook.getNewHistogramContext(), 4);
+            assertEquals(reps.size(), histograms.length);
+            for (int imageIndex = 0; imageIndex < reps.size() - 1;
+                    imageIndex++) {
+                QuantizedImageHistogram single = codebook.
+                        getHistogramForImageRepresentation(
+                        reps.get(imageIndex));
+                int[] expectedCounts = new int[codewords.size()];
+                for (DataInstance feature : reps.get(imageIndex).data) {
+                    float minDist = Float.MAX_VALUE;
+                    for (LFeatVector codeword : codewords) {
+                        minDist = Math.min(minDist, metric.dist(feature,
+                                codeword));
+                    }
+                    int result = codebook.getIndexOfClosestCodebook(
+                            (LFeatVector) feature);
+                    assertEquals(minDist, metric.dist(feature,
+                            codewords.get(result)), 0.00001f);
+                    expectedCounts[result]++;
+                }
+                for (int c = 0; c < codewords.size(); c++) {
+                    assertEquals(expectedCounts[c],
+                            histograms[imageIndex].iAttr[c]);
+                    assertEquals(expectedCounts[c], single.iAttr[c]);
+                }
+            }
+            int total = 0;
+            for (int count : histograms[reps.size() - 1].iAttr) {
+                total += count;
+            }
+            assertEquals(0, total);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * @param instance DataInstance to find the closest codebook vector for.
+     * @param codewords ArrayList of DataInstance codebook vectors.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @return Integer that is the index of the closest codebook vector.
+     * @throws Exception
+     */
+    private static int getClosestExhaustively(DataInstance instance,
+            ArrayList<DataInstance> codewords, CombinedMetric cmet)
+            throws Exception {
+        int closest = -1;
+        float minDist = Float.MAX_VALUE;
+        for (int c = 0; c < codewords.size(); c++) {
+            float dist = cmet.dist(instance, codewords.get(c));
+            if (dist < minDist) {
+                minDist = dist;
+                closest = c;
+            }
+        }
+        return closest;
+    }
+
+    /**
+     * @param length Integer that is the vector length.
+     * @param randa Random number generator.
+     * @return float[] with random values.
+     */
+    private static float[] randomVector(int length, Random randa) {
+        float[] vector = new float[length];
+        for (int d = 0; d < length; d++) {
+            vector[d] = randa.nextFloat();
+        }
+        return vector;
+    }
+}
@@ -0,0 +1,209 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package images.mining.codebook.test;
+
+import data.representation.images.sift.LFeatVector;
+import images.mining.codebook.SIFTCodeBook;
+import images.mining.codebook.StreamingSIFTCodebookMaker;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * This class tests the mini-batch codebook construction on generated key
+ * files with features around known descriptor centers.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class StreamingSIFTCodebookMakerTest extends TestCase {
+
+    private static final int DESCRIPTOR_LENGTH = 128;
+
+    /**
+     * This method tests the codebook construction from the initial sample,
+     * including the checkpoints.
+     */
+    @Test
+    public static void testCodeBookConstruction() {
+        File dir = null;
+        try {
+            dir = createTempDir();
+            float[][] centers = generateCenters(3);
+            int numFiles = 6;
+            int numPerFile = 150;
+            generateKeyFiles(dir, centers, numFiles, numPerFile);
+            File checkpointFile = new File(dir, "codebook.checkpoint");
+            StreamingSIFTCodebookMaker maker = new StreamingSIFTCodebookMaker(
+                    dir, false, 3);
+            maker.setBatchSize(50);
+            maker.setNumThreads(2);
+            maker.setNumPasses(2);
+            maker.setCheckpointFile(checkpointFile);
+            maker.setCheckpointInterval(2);
+            SIFTCodeBook codebook = maker.makeCodeBook();
+            assertEquals(3, codebook.getSize());
+            assertEquals(2L * numFiles * numPerFile,
+                    maker.getNumProcessedFeatures());
+            assertTrue(checkpointFile.isFile());
+            assertTrue(new File(checkpointFile.getPath() + ".counts").
+                    isFile());
+            SIFTCodeBook loaded = new SIFTCodeBook();
+            loaded.loadCodeBookFromFile(checkpointFile);
+            assertEquals(3, loaded.getSize());
+            for (int cIndex = 0; cIndex < 3; cIndex++) {
+                float[] expected = codebook.getCodeBookSet().get(cIndex).fAttr;
+                float[] result = loaded.getCodeBookSet().get(cIndex).fAttr;
+                for (int d = 0; d < expected.length; d++) {
+                    assertEquals(expected[d], result[d], 0.001f);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * This method tests that the mini-batch updates resumed from a perturbed
+     * checkpoint move the centroids to the descriptor centers.
+     */
+    @Test
+    public static void testResumedConvergence() {
+        File dir = null;
+        try {
+            dir = createTempDir();
+            float[][] centers = generateCenters(4);
+            generateKeyFiles(dir, centers, 8, 200);
+            File checkpointFile = new File(dir, "codebook.checkpoint");
+            ArrayList<LFeatVector> initial = new ArrayList<>();
+            for (float[] center : centers) {
+                LFeatVector vector = new LFeatVector();
+                vector.fAttr = new float[4 + DESCRIPTOR_LENGTH];
+                for (int d = 0; d < DESCRIPTOR_LENGTH; d++) {
+                    vector.fAttr[4 + d] = center[d] + 3;
+                }
+                initial.add(vector);
+            }
+            SIFTCodeBook initialCodebook = new SIFTCodeBook();
+            initialCodebook.setCodeBookSet(initial);
+            initialCodebook.writeCodeBookToFile(checkpointFile);
+            StreamingSIFTCodebookMaker maker = new StreamingSIFTCodebookMaker(
+                    dir, false, centers.length);
+            maker.setBatchSize(64);
+            maker.setNumThreads(3);
+            maker.setCheckpointFile(checkpointFile);
+            SIFTCodeBook codebook = maker.makeCodeBook();
+            for (int cIndex = 0; cIndex < centers.length; cIndex++) {
+                float[] centroid = codebook.getCodeBookSet().get(cIndex).fAttr;
+                for (int d = 0; d < DESCRIPTOR_LENGTH; d++) {
+                    assertEquals(centers[cIndex][d], centroid[4 + d], 0.5f);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * @param numCenters Integer that is the number of centers.
+     * @return float[][] of well separated descriptor centers.
+     */
+    private static float[][] generateCenters(int numCenters) {
+        Random randa = new Random();
+        float[][] centers = new float[numCenters][DESCRIPTOR_LENGTH];
+        for (int c = 0; c < numCenters; c++) {
+            for (int d = 0; d < DESCRIPTOR_LENGTH; d++) {
+                centers[c][d] = 50 * c + 10 * randa.nextFloat();
+            }
+        }
+        return centers;
+    }
+
+    /**
+     * This method writes the key files with features that are uniformly
+     * distributed around the centers.
+     *
+     * @param dir File that is the target directory.
+     * @param centers float[][] of the descriptor centers.
+     * @param numFiles Integer that is the number of files.
+     * @param numPerFile Integer that is the number of features per file.
+     * @throws Exception
+     */
+    private static void generateKeyFiles(File dir, float[][] centers,
+            int numFiles, int numPerFile) throws Exception {
+        Random randa = new Random();
+        for (int fIndex = 0; fIndex < numFiles; fIndex++) {
+            PrintWriter pw = new PrintWriter(new FileWriter(new File(dir,
+                    "image" + fIndex + ".key")));
+            try {
+                pw.println(numPerFile + " " + DESCRIPTOR_LENGTH);
+                for (int i = 0; i < numPerFile; i++) {
+                    float[] center = centers[randa.nextInt(centers.length)];
+                    pw.println(randa.nextInt(100) + " " + randa.nextInt(100)
+                            + " 1.0 0.5");
+                    StringBuilder sb = new StringBuilder();
+                    for (int d = 0; d < DESCRIPTOR_LENGTH; d++) {
+                        if (d > 0 && d % 20 == 0) {
+                            pw.println(sb.toString().trim());
+                            sb = new StringBuilder();
+                        }
+                        sb.append(center[d] + 2 * randa.nextFloat() - 1);
+                        sb.append(" ");
+                    }
+                    pw.println(sb.toString().trim());
+                }
+            } finally {
+                pw.close();
+            }
+        }
+    }
+
+    /**
+     * @return File that is a new empty temporary directory.
+     * @throws Exception
+     */
+    private static File createTempDir() throws Exception {
+        File tempDir = File.createTempFile("codebook", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+        return tempDir;
+    }
+
+    /**
+     * @param dir File that is the directory to delete, with its contents.
+     */
+    private static void deleteDir(File dir) {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
@@ -0,0 +1,602 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ioformat;
+
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import data.representation.sparse.BOWInstance;
+import data.representation.sparse.SparseVector;
+import distances.primary.CombinedMetric;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class implements a persistent on-disk cache for the expensive
+ * calculations that are repeated across the experimental runs, like the
+ * primary and secondary distance matrices and the kNN sets. The entries are
+ * addressed by a hash of the data content, the metric description and the
+ * calculation parameters, so that the cached results are re-used whenever the
+ * same calculation is requested on the same data, regardless of the file that
+ * the data was loaded from. The distance matrices are stored in the binary
+ * format of DistanceMatrixIO and the kNN sets in a compact binary format. The
+ * total size of the cache is bounded and the least recently used entries are
+ * evicted first. Failures to read or write the cache are reported and treated
+ * as cache misses, so that they never prevent the calculations.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class ComputationCache {
+
+    // The default size bound of the cache, in bytes.
+    public static final long DEFAULT_MAX_BYTES = 4L * 1024 * 1024 * 1024;
+    // The header of the binary kNN set files.
+    public static final int KNN_MAGIC = 0x484d4b4e;
+    public static final int KNN_VERSION = 1;
+    private static final String DMAT_EXTENSION = ".dmat";
+    private static final String KNN_EXTENSION = ".knn";
+    private static final String TEMP_EXTENSION = ".tmp";
+    private File cacheDir;
+    private long maxBytes;
+    // Entry file names and sizes, in the least recently used order.
+    private LinkedHashMap<String, Long> entries =
+            new LinkedHashMap<>(100, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * Initialization.
+     *
+     * @param cacheDir File that is the cache directory.
+     * @throws IOException
+     */
+    public ComputationCache(File cacheDir) throws IOException {
+        this(cacheDir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Initialization. The existing entries in the directory are registered in
+     * the order of their last use.
+     *
+     * @param cacheDir File that is the cache directory.
+     * @param maxBytes Long that is the size bound of the cache, in bytes.
+     * @throws IOException
+     */
+    public ComputationCache(File cacheDir, long maxBytes) throws IOException {
+        this.cacheDir = cacheDir;
+        this.maxBytes = maxBytes;
+        FileUtil.createDirectory(cacheDir);
+        File[] existing = cacheDir.listFiles();
+        if (existing == null) {
+            return;
+        }
+        Arrays.sort(existing, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(),
+                        second.lastModified());
+            }
+        });
+        for (File entryFile : existing) {
+            String name = entryFile.getName();
+            if (name.endsWith(TEMP_EXTENSION)) {
+                // Left over from an interrupted write.
+                entryFile.delete();
+            } else if (name.endsWith(DMAT_EXTENSION)
+                    || name.endsWith(KNN_EXTENSION)) {
+                entries.put(name, entryFile.length());
+                totalBytes += entryFile.length();
+            }
+        }
+    }
+
+    /**
+     * @return File that is the cache directory.
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * @return Long that is the size bound of the cache, in bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return Long that is the current total size of the cache entries, in
+     * bytes.
+     */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /**
+     * @return Integer that is the number of cache entries.
+     */
+    public synchronized int getNumEntries() {
+        return entries.size();
+    }
+
+    /**
+     * This method calculates the hash of the data content. The features of
+     * all instances are included, as well as the sparse word vectors of the
+     * bag-of-words instances. The labels are not included, as they do not
+     * affect the distances and the kNN sets.
+     *
+     * @param dset DataSet to hash.
+     * @return String that is the hexadecimal SHA-256 hash of the data.
+     * @throws Exception
+     */
+    public static String hashDataSet(DataSet dset) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new DigestOutputStream(
+                new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+            }
+        }, digest)))) {
+            int size = dset == null ? 0 : dset.size();
+            dos.writeInt(size);
+            for (int i = 0; i < size; i++) {
+                DataInstance instance = dset.getInstance(i);
+                if (instance.iAttr != null) {
+                    dos.writeInt(instance.iAttr.length);
+                    for (int value : instance.iAttr) {
+                        dos.writeInt(value);
+                    }
+                } else {
+                    dos.writeInt(-1);
+                }
+                if (instance.fAttr != null) {
+                    dos.writeInt(instance.fAttr.length);
+                    for (float value : instance.fAttr) {
+                        dos.writeInt(Float.floatToIntBits(value));
+                    }
+                } else {
+                    dos.writeInt(-1);
+                }
+                if (instance.sAttr != null) {
+                    dos.writeInt(instance.sAttr.length);
+                    for (String value : instance.sAttr) {
+                        dos.writeUTF(value == null ? "" : value);
+                    }
+                } else {
+                    dos.writeInt(-1);
+                }
+                if (instance instanceof BOWInstance) {
+                    SparseVector wordVector =
+                            ((BOWInstance) instance).getWordVector();
+                    dos.writeInt(wordVector.size());
+                    for (int pos = 0; pos < wordVector.size(); pos++) {
+                        dos.writeInt(wordVector.getIndexAt(pos));
+                        dos.writeInt(Float.floatToIntBits(
+                                wordVector.getValueAt(pos)));
+                    }
+                } else {
+                    dos.writeInt(-1);
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * This method forms a cache key from its parts.
+     *
+     * @param parts String values that determine the cached calculation.
+     * @return String that is the hexadecimal SHA-256 hash of the parts.
+     * @throws Exception
+     */
+    public static String makeKey(String... parts) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        for (String part : parts) {
+            byte[] bytes = (part == null ? "null" : part).getBytes("UTF-8");
+            // The length prefix keeps the part boundaries unambiguous.
+            digest.update(new byte[]{(byte) (bytes.length >>> 24),
+                (byte) (bytes.length >>> 16), (byte) (bytes.length >>> 8),
+                (byte) bytes.length});
+            digest.update(bytes);
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param dataHash String that is the hash of the data content.
+     * @param cmet CombinedMetric object used for the distances.
+     * @return String that is the key of the primary distance matrix.
+     * @throws Exception
+     */
+    public static String getDistanceKey(String dataHash, CombinedMetric cmet)
+            throws Exception {
+        return makeKey("dmat", dataHash, cmet.getClass().getName(),
+                cmet.toString());
+    }
+
+    /**
+     * @param dataHash String that is the hash of the data content.
+     * @param cmet CombinedMetric object used for the primary distances.
+     * @param secondaryName String that is the name of the secondary distance.
+     * @param secondaryK Integer that is the neighborhood size used by the
+     * secondary distance.
+     * @return String that is the key of the secondary distance matrix.
+     * @throws Exception
+     */
+    public static String getSecondaryDistanceKey(String dataHash,
+            CombinedMetric cmet, String secondaryName, int secondaryK)
+            throws Exception {
+        return makeKey("secondary", dataHash, cmet.getClass().getName(),
+                cmet.toString(), secondaryName, Integer.toString(secondaryK));
+    }
+
+    /**
+     * The kNN sets for smaller neighborhood sizes are prefixes of the kNN sets
+     * for larger ones, so a single entry is kept for the data and the metric,
+     * holding the largest neighborhood size calculated so far.
+     *
+     * @param dataHash String that is the hash of the data content.
+     * @param cmet CombinedMetric object used for the distances.
+     * @return String that is the key of the kNN sets.
+     * @throws Exception
+     */
+    public static String getNeighborSetKey(String dataHash, CombinedMetric cmet)
+            throws Exception {
+        return makeKey("knn", dataHash, cmet.getClass().getName(),
+                cmet.toString());
+    }
+
+    /**
+     * @param bytes byte[] to convert.
+     * @return String that is the hexadecimal representation of the bytes.
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(2 * bytes.length);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >>> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param key String that is the entry key.
+     * @return True if the distance matrix for the key is in the cache.
+     */
+    public synchronized boolean containsDistances(String key) {
+        return entries.containsKey(key + DMAT_EXTENSION);
+    }
+
+    /**
+     * This method loads a distance matrix from the cache.
+     *
+     * @param key String that is the entry key.
+     * @return float[][] that is the upper triangular distance matrix, or null
+     * if it is not in the cache.
+     */
+    public synchronized float[][] getDistances(String key) {
+        String name = key + DMAT_EXTENSION;
+        if (!touch(name)) {
+            return null;
+        }
+        try {
+            return DistanceMatrixIO.loadDMatFromBinaryFile(
+                    new File(cacheDir, name));
+        } catch (Exception e) {
+            System.err.println("Discarding the cached distances: "
+                    + e.getMessage());
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * This method persists a distance matrix to the cache. Nothing is written
+     * if the matrix is already in the cache.
+     *
+     * @param key String that is the entry key.
+     * @param distMat float[][] that is the upper triangular distance matrix.
+     */
+    public synchronized void putDistances(String key, float[][] distMat) {
+        String name = key + DMAT_EXTENSION;
+        if (distMat == null || touch(name)) {
+            return;
+        }
+        File tempFile = new File(cacheDir, name + TEMP_EXTENSION);
+        try {
+            DistanceMatrixIO.printDMatToBinaryFile(distMat, tempFile);
+            commit(tempFile, name);
+        } catch (Exception e) {
+            System.err.println("Unable to cache the distances: "
+                    + e.getMessage());
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * This method loads the kNN sets from the cache. The neighbor occurrence
+     * statistics are calculated from the labels of the provided data.
+     *
+     * @param key String that is the entry key.
+     * @param dset DataSet that the kNN sets were calculated on.
+     * @param distMat float[][] that is the upper triangular distance matrix on
+     * the data, set to the returned object. It may be null.
+     * @param cmet CombinedMetric object used for the distances.
+     * @param minK Integer that is the minimal required neighborhood size.
+     * @return NeighborSetFinder object holding the kNN sets for the largest
+     * cached neighborhood size, or null if there are no kNN sets for at least
+     * minK neighbors in the cache.
+     */
+    public synchronized NeighborSetFinder getNeighborSets(String key,
+            DataSet dset, float[][] distMat, CombinedMetric cmet, int minK) {
+        return loadNeighborSets(key, dset, distMat, cmet, minK, 0);
+    }
+
+    /**
+     * This method loads the kNN sets for a fixed neighborhood size from the
+     * cache, restricting the cached kNN sets if they are larger.
+     *
+     * @param key String that is the entry key.
+     * @param dset DataSet that the kNN sets were calculated on.
+     * @param distMat float[][] that is the upper triangular distance matrix on
+     * the data, set to the returned object. It may be null.
+     * @param cmet CombinedMetric object used for the distances.
+     * @param k Integer that is the neighborhood size.
+     * @return NeighborSetFinder object holding the kNN sets for k neighbors,
+     * or null if there are no kNN sets for at least k neighbors in the cache.
+     */
+    public synchronized NeighborSetFinder getNeighborSetsForK(String key,
+            DataSet dset, float[][] distMat, CombinedMetric cmet, int k) {
+        return loadNeighborSets(key, dset, distMat, cmet, k, k);
+    }
+
+    /**
+     * @param key String that is the entry key.
+     * @param dset DataSet that the kNN sets were calculated on.
+     * @param distMat float[][] that is the upper triangular distance matrix on
+     * the data. It may be null.
+     * @param cmet CombinedMetric object used for the distances.
+     * @param minK Integer that is the minimal required neighborhood size.
+     * @param kRestriction Integer that is the neighborhood size to restrict
+     * the kNN sets to, or zero for no restriction.
+     * @return NeighborSetFinder object holding the kNN sets, or null.
+     */
+    private NeighborSetFinder loadNeighborSets(String key, DataSet dset,
+            float[][] distMat, CombinedMetric cmet, int minK,
+            int kRestriction) {
+        String name = key + KNN_EXTENSION;
+        if (!touch(name)) {
+            return null;
+        }
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(new File(cacheDir, name))))) {
+            if (dis.readInt() != KNN_MAGIC || dis.readInt() != KNN_VERSION) {
+                throw new IOException("Not a kNN set file.");
+            }
+            int size = dis.readInt();
+            int kCached = dis.readInt();
+            if (size != dset.size()) {
+                throw new IOException("Data size mismatch: " + size + " "
+                        + dset.size());
+            }
+            if (kCached < minK) {
+                return null;
+            }
+            int k = kRestriction > 0 ? kRestriction : kCached;
+            int[][] kNeighbors = new int[size][k];
+            float[][] kDistances = new float[size][k];
+            int[] kCurrLen = new int[size];
+            for (int i = 0; i < size; i++) {
+                kCurrLen[i] = Math.min(dis.readInt(), k);
+                for (int kInd = 0; kInd < kCached; kInd++) {
+                    int neighbor = dis.readInt();
+                    if (kInd < k) {
+                        kNeighbors[i][kInd] = neighbor;
+                    }
+                }
+                for (int kInd = 0; kInd < kCached; kInd++) {
+                    float dist = dis.readFloat();
+                    if (kInd < k) {
+                        kDistances[i][kInd] = dist;
+                    }
+                }
+            }
+            NeighborSetFinder nsf = distMat != null
+                    ? new NeighborSetFinder(dset, distMat, cmet)
+                    : new NeighborSetFinder(dset, cmet);
+            nsf.setKNeighbors(kNeighbors, kDistances, kCurrLen);
+            return nsf;
+        } catch (Exception e) {
+            System.err.println("Discarding the cached kNN sets: "
+                    + e.getMessage());
+            remove(name);
+            return null;
+        }
+    }
+
+    /**
+     * @param key String that is the entry key.
+     * @return Integer that is the neighborhood size of the cached kNN sets, or
+     * zero if there are none in the cache.
+     */
+    public synchronized int getCachedNeighborhoodSize(String key) {
+        String name = key + KNN_EXTENSION;
+        if (!entries.containsKey(name)) {
+            return 0;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new FileInputStream(new File(cacheDir, name)))) {
+            if (dis.readInt() != KNN_MAGIC || dis.readInt() != KNN_VERSION) {
+                return 0;
+            }
+            dis.readInt();
+            return dis.readInt();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /**
+     * This method persists the kNN sets to the cache, unless kNN sets for at
+     * least as many neighbors are already in the cache.
+     *
+     * @param key String that is the entry key.
+     * @param nsf NeighborSetFinder object holding the kNN sets.
+     */
+    public synchronized void putNeighborSets(String key,
+            NeighborSetFinder nsf) {
+        int[][] kNeighbors = nsf.getKNeighbors();
+        float[][] kDistances = nsf.getKDistances();
+        if (kNeighbors == null || kNeighbors.length == 0) {
+            return;
+        }
+        int k = kNeighbors[0].length;
+        String name = key + KNN_EXTENSION;
+        if (getCachedNeighborhoodSize(key) >= k) {
+            touch(name);
+            return;
+        }
+        int[] kCurrLen = nsf.getKCurrLen();
+        File tempFile = new File(cacheDir, name + TEMP_EXTENSION);
+        try (DataOutputStream dos = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            dos.writeInt(KNN_MAGIC);
+            dos.writeInt(KNN_VERSION);
+            dos.writeInt(kNeighbors.length);
+            dos.writeInt(k);
+            for (int i = 0; i < kNeighbors.length; i++) {
+                dos.writeInt(kCurrLen != null ? kCurrLen[i] : k);
+                for (int kInd = 0; kInd < k; kInd++) {
+                    dos.writeInt(kNeighbors[i][kInd]);
+                }
+                for (int kInd = 0; kInd < k; kInd++) {
+                    dos.writeFloat(kDistances[i][kInd]);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Unable to cache the kNN sets: "
+                    + e.getMessage());
+            tempFile.delete();
+            return;
+        }
+        try {
+            commit(tempFile, name);
+        } catch (Exception e) {
+            System.err.println("Unable to cache the kNN sets: "
+                    + e.getMessage());
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * This method marks the entry as the most recently used one.
+     *
+     * @param name String that is the entry file name.
+     * @return True if the entry exists, false otherwise.
+     */
+    private boolean touch(String name) {
+        if (!entries.containsKey(name)) {
+            return false;
+        }
+        File entryFile = new File(cacheDir, name);
+        if (!entryFile.exists()) {
+            // Removed from outside.
+            remove(name);
+            return false;
+        }
+        entries.get(name);
+        entryFile.setLastModified(System.currentTimeMillis());
+        return true;
+    }
+
+    /**
+     * This method moves the completely written temporary file in place of the
+     * entry and evicts the least recently used entries, if needed.
+     *
+     * @param tempFile File that was written.
+     * @param name String that is the entry file name.
+     * @throws IOException
+     */
+    private void commit(File tempFile, String name) throws IOException {
+        File entryFile = new File(cacheDir, name);
+        if (entries.containsKey(name)) {
+            remove(name);
+        }
+        if (!tempFile.renameTo(entryFile)) {
+            throw new IOException("Unable to rename " + tempFile.getPath());
+        }
+        entries.put(name, entryFile.length());
+        totalBytes += entryFile.length();
+        evict(name);
+    }
+
+    /**
+     * This method evicts the least recently used entries until the cache fits
+     * within its size bound. The most recent entry is always kept.
+     *
+     * @param keptName String that is the name of the entry to keep.
+     */
+    private void evict(String keptName) {
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        ArrayList<String> evicted = new ArrayList<>();
+        long remainingBytes = totalBytes;
+        Iterator<Map.Entry<String, Long>> iterator =
+                entries.entrySet().iterator();
+        while (iterator.hasNext() && remainingBytes > maxBytes) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (!entry.getKey().equals(keptName)) {
+                evicted.add(entry.getKey());
+                remainingBytes -= entry.getValue();
+            }
+        }
+        for (String name : evicted) {
+            remove(name);
+        }
+    }
+
+    /**
+     * @param name String that is the name of the entry to remove.
+     */
+    private void remove(String name) {
+        Long size = entries.remove(name);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        new File(cacheDir, name).delete();
+    }
+}
@@ -17,7 +17,11 @@
 */
 package ioformat;
 
+import distances.matrix.HeapTriangularMatrix;
+import distances.matrix.MappedTriangularMatrix;
+import distances.matrix.TriangularDistanceMatrix;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileWriter;
@@ -30,7 +34,11 @@ import java.io.Writer;
 /**
  * This class handles some basic IO operations for reading and writing the
  * distance matrix from and to files in the format that is used throughout this
- * library.
+ * library. Apart from the default text format, the matrices can also be
+ * persisted in a versioned binary format, with a header that holds the matrix
+ * size, the storage type and the checksum, followed by the little-endian
+ * packed upper triangular rows. The binary files can be memory-mapped, so that
+ * the rows are available without parsing or copying.
  *
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
@@ -73,6 +81,9 @@ public class DistanceMatrixIO {
      * @throws Exception
      */
     public static float[][] loadDMatFromFile(File dMatFile) throws Exception {
+        if (isBinaryDMatFile(dMatFile)) {
+            return loadDMatFromBinaryFile(dMatFile);
+        }
         BufferedReader br = new BufferedReader(new InputStreamReader(
                 new FileInputStream(dMatFile)));
         float[][] dMatLoaded = null;
@@ -154,4 +165,167 @@ public class DistanceMatrixIO {
         }
         return dMatLoaded;
     }
-}
\ No newline at end of file
+
+    /**
+     * This method checks whether the file contains a distance matrix in the
+     * binary format.
+     *
+     * @param dMatFile File to check.
+     * @return True if the file starts with the binary matrix header, false
+     * otherwise.
+     * @throws IOException
+     */
+    public static boolean isBinaryDMatFile(File dMatFile) throws IOException {
+        if (dMatFile.length() < MappedTriangularMatrix.HEADER_SIZE) {
+            return false;
+        }
+        try (DataInputStream dis = new DataInputStream(
+                new FileInputStream(dMatFile))) {
+            // The header is little-endian.
+            return Integer.reverseBytes(dis.readInt())
+                    == MappedTriangularMatrix.MAGIC;
+        }
+    }
+
+    /**
+     * Print the distance matrix to a file in the binary format, as float32.
+     *
+     * @param distMat float[][] that is the upper triangular distance matrix.
+     * @param dMatFile File that is to contain the distance matrix data.
+     * @throws Exception
+     */
+    public static void printDMatToBinaryFile(float[][] distMat, File dMatFile)
+            throws Exception {
+        printDMatToBinaryFile(new HeapTriangularMatrix(distMat), dMatFile,
+                MappedTriangularMatrix.DTYPE_FLOAT32);
+    }
+
+    /**
+     * Print the distance matrix to a file in the binary format.
+     *
+     * @param distMat TriangularDistanceMatrix that holds the distances.
+     * @param dMatFile File that is to contain the distance matrix data.
+     * @param dtype Integer code of the storage type, as defined in
+     * MappedTriangularMatrix.
+     * @throws Exception
+     */
+    public static void printDMatToBinaryFile(TriangularDistanceMatrix distMat,
+            File dMatFile, int dtype) throws Exception {
+        FileUtil.createFile(dMatFile);
+        int size = distMat.size();
+        float[] rowBuffer = new float[Math.max(size - 1, 0)];
+        try (MappedTriangularMatrix target = MappedTriangularMatrix.create(
+                dMatFile, size, dtype)) {
+            for (int i = 0; i < size; i++) {
+                distMat.getRow(i, rowBuffer);
+                target.setRow(i, rowBuffer);
+            }
+            target.storeChecksum();
+        }
+    }
+
+    /**
+     * Load the upper triangular distance matrix from a binary file into the
+     * heap. The checksum is verified, if present.
+     *
+     * @param dMatFile File containing the distance matrix data.
+     * @return float[][] that is the loaded distance matrix.
+     * @throws Exception
+     */
+    public static float[][] loadDMatFromBinaryFile(File dMatFile)
+            throws Exception {
+        try (MappedTriangularMatrix mapped = mapDMatFromBinaryFile(dMatFile,
+                true)) {
+            float[][] dMatLoaded = new float[mapped.size()][];
+            for (int i = 0; i < dMatLoaded.length; i++) {
+                dMatLoaded[i] = new float[mapped.getRowLength(i)];
+                mapped.getRow(i, dMatLoaded[i]);
+            }
+            return dMatLoaded;
+        }
+    }
+
+    /**
+     * Map the upper triangular distance matrix from a binary file, without
+     * loading it into the heap. The rows of float32 matrices can be accessed
+     * without copying via MappedTriangularMatrix.getRowBuffer. The returned
+     * matrix should be closed once it is no longer needed.
+     *
+     * @param dMatFile File containing the distance matrix data.
+     * @param verifyChecksum Boolean flag indicating whether to verify the
+     * stored checksum, which requires a pass over the whole file.
+     * @return MappedTriangularMatrix that is mapped to the file, as read-only.
+     * @throws Exception
+     */
+    public static MappedTriangularMatrix mapDMatFromBinaryFile(File dMatFile,
+            boolean verifyChecksum) throws Exception {
+        MappedTriangularMatrix mapped = MappedTriangularMatrix.open(dMatFile,
+                false);
+        if (verifyChecksum && !mapped.verifyChecksum()) {
+            mapped.close();
+            throw new IOException("Checksum mismatch in "
+                    + dMatFile.getPath());
+        }
+        return mapped;
+    }
+
+    /**
+     * Convert a distance matrix from the text format to the binary format. The
+     * conversion is done one row at a time, so the matrix is never fully
+     * loaded into the heap.
+     *
+     * @param textFile File containing the distance matrix in the text format.
+     * @param binaryFile File that is to contain the binary distance matrix.
+     * @param dtype Integer code of the storage type, as defined in
+     * MappedTriangularMatrix.
+     * @throws Exception
+     */
+    public static void convertTextDMatToBinary(File textFile, File binaryFile,
+            int dtype) throws Exception {
+        FileUtil.createFile(binaryFile);
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(textFile)), 1 << 20)) {
+            int size = Integer.parseInt(br.readLine().trim());
+            float[] rowBuffer = new float[Math.max(size - 1, 0)];
+            try (MappedTriangularMatrix target = MappedTriangularMatrix.create(
+                    binaryFile, size, dtype)) {
+                for (int i = 0; i < size - 1; i++) {
+                    String line = br.readLine();
+                    if (line == null) {
+                        throw new IOException("Unexpected end of file at row "
+                                + i);
+                    }
+                    parseRow(line, rowBuffer, size - i - 1);
+                    target.setRow(i, rowBuffer);
+                }
+                target.storeChecksum();
+            }
+        }
+    }
+
+    /**
+     * This method parses a comma-separated row of the text distance matrix
+     * format.
+     *
+     * @param line String that is the row line.
+     * @param rowBuffer float[] to parse the values into.
+     * @param rowLength Integer that is the expected number of values.
+     * @throws IOException if the number of values does not match.
+     */
+    private static void parseRow(String line, float[] rowBuffer,
+            int rowLength) throws IOException {
+        int start = 0;
+        for (int j = 0; j < rowLength; j++) {
+            int end = line.indexOf(',', start);
+            if (end < 0) {
+                end = line.length();
+                if (j < rowLength - 1) {
+                    throw new IOException("Expected " + rowLength
+                            + " values, found " + (j + 1));
+                }
+            }
+            rowBuffer[j] = Float.parseFloat(line.substring(start, end));
+            start = end + 1;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import data.representation.DataInstance;
 import data.representation.DataSet;
 import data.representation.sparse.BOWDataSet;
 import data.representation.sparse.BOWInstance;
+import data.representation.sparse.SparseVector;
 import data.representation.util.DataMineConstants;
 import ioformat.parsing.DataFeature;
 import java.io.BufferedReader;
@@ -492,11 +493,10 @@ public class IOARFF {
             }
             for (int i = 0; i < bowDSet.data.size(); i++) {
                 BOWInstance instance = (BOWInstance) (bowDSet.data.get(i));
-                HashMap<Integer, Float> indexMap =
-                        instance.getWordIndexesHash();
-                Set<Integer> keys = indexMap.keySet();
-                for (int index : keys) {
-                    bowDSet.increaseFrequency(index, indexMap.get(index));
+                SparseVector wordVector = instance.getWordVector();
+                for (int pos = 0; pos < wordVector.size(); pos++) {
+                    bowDSet.increaseFrequency(wordVector.getIndexAt(pos),
+                            wordVector.getValueAt(pos));
                 }
             }
         } catch (IOException e) {
@@ -539,7 +539,6 @@ public class IOARFF {
         line = br.readLine();
         int maxFeatureIndex = -1;
         int featureIndex;
-        float featureValue;
         int classAttIndex = -1;
         while (line != null) {
             line = line.trim();
@@ -588,14 +587,19 @@ public class IOARFF {
                 }
                 lineItems = line.split(",");
                 BOWInstance instance = new BOWInstance(bowDSet);
+                // The entries are parsed directly into the primitive arrays
+                // of the sparse vector.
+                int[] wordIndexes = new int[lineItems.length];
+                float[] wordValues = new float[lineItems.length];
+                int numEntries = 0;
                 if (!hasCategory) {
                     // Class information is not present.
                     try {
                         for (int i = 0; i < lineItems.length; i++) {
                             pair = lineItems[i].split(" ");
-                            featureIndex = Integer.parseInt(pair[0]);
-                            featureValue = Float.parseFloat(pair[1]);
-                            instance.addWord(featureIndex, featureValue);
+                            wordIndexes[numEntries] = Integer.parseInt(pair[0]);
+                            wordValues[numEntries++] =
+                                    Float.parseFloat(pair[1]);
                         }
                     } catch (Exception e) {
                         System.err.println(e.getMessage());
@@ -617,21 +621,24 @@ public class IOARFF {
                             instance.setCategory(classNameToIndexMap.get(
                                     classNameString));
                         } else {
-                            featureValue = Float.parseFloat(pair[1]);
-                            instance.addWord(featureIndex, featureValue);
+                            wordIndexes[numEntries] = featureIndex;
+                            wordValues[numEntries++] =
+                                    Float.parseFloat(pair[1]);
                         }
                     }
                 }
+                instance.setWordVector(SparseVector.fromEntries(wordIndexes,
+                        wordValues, numEntries));
                 bowDSet.data.add(instance);
             }
             line = br.readLine();
         }
         for (int i = 0; i < bowDSet.data.size(); i++) {
             BOWInstance instance = (BOWInstance) (bowDSet.data.get(i));
-            HashMap<Integer, Float> indexMap = instance.getWordIndexesHash();
-            Set<Integer> keys = indexMap.keySet();
-            for (int index : keys) {
-                bowDSet.increaseFrequency(index, indexMap.get(index));
+            SparseVector wordVector = instance.getWordVector();
+            for (int pos = 0; pos < wordVector.size(); pos++) {
+                bowDSet.increaseFrequency(wordVector.getIndexAt(pos),
+                        wordVector.getValueAt(pos));
             }
         }
         return bowDSet;
@@ -1224,18 +1231,16 @@ public class IOARFF {
                 boolean printSeparator = false;
                 pw.print("{");
                 BOWInstance instance = (BOWInstance) (bowDSet.data.get(i));
-                HashMap<Integer, Float> indexMap =
-                        instance.getWordIndexesHash();
-                Set<Integer> keys = indexMap.keySet();
-                for (int index : keys) {
+                SparseVector wordVector = instance.getWordVector();
+                for (int pos = 0; pos < wordVector.size(); pos++) {
                     if (printSeparator) {
                         pw.print(",");
                     } else {
                         printSeparator = true;
                     }
-                    pw.print(index);
+                    pw.print(wordVector.getIndexAt(pos));
                     pw.print(" ");
-                    pw.print(indexMap.get(index));
+                    pw.print(wordVector.getValueAt(pos));
                 }
                 pw.print("}");
                 pw.println();
@@ -1280,18 +1285,16 @@ public class IOARFF {
                 boolean printSeparator = false;
                 pw.print("{");
                 BOWInstance instance = (BOWInstance) (bowDSet.data.get(i));
-                HashMap<Integer, Float> indexMap =
-                        instance.getWordIndexesHash();
-                Set<Integer> keys = indexMap.keySet();
-                for (int index : keys) {
+                SparseVector wordVector = instance.getWordVector();
+                for (int pos = 0; pos < wordVector.size(); pos++) {
                     if (printSeparator) {
                         pw.print(",");
                     } else {
                         printSeparator = true;
                     }
-                    pw.print(index);
+                    pw.print(wordVector.getIndexAt(pos));
                     pw.print(" ");
-                    pw.print(indexMap.get(index));
+                    pw.print(wordVector.getValueAt(pos));
                 }
                 if (printSeparator) {
                     pw.print(",");
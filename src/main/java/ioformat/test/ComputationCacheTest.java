@@ -0,0 +1,222 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package ioformat.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import ioformat.ComputationCache;
+import java.io.File;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.supervised.evaluation.cv.ExternalExperimentalContext;
+import org.junit.Test;
+
+/**
+ * This class tests the persistent computation cache.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class ComputationCacheTest extends TestCase {
+
+    /**
+     * This method tests that the cache keys depend on the data content and the
+     * metric, but not on the labels.
+     */
+    @Test
+    public static void testKeys() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(50, 3, 3, 1);
+            DataSet relabeled = dset.copy();
+            relabeled.getInstance(0).setCategory(
+                    relabeled.getInstance(0).getCategory() + 1);
+            DataSet changed = dset.copy();
+            changed.getInstance(10).fAttr[1] += 0.001f;
+            String hash = ComputationCache.hashDataSet(dset);
+            assertEquals(hash, ComputationCache.hashDataSet(relabeled));
+            assertFalse(hash.equals(ComputationCache.hashDataSet(changed)));
+            CombinedMetric manhattan = CombinedMetric.FLOAT_MANHATTAN;
+            assertFalse(ComputationCache.getDistanceKey(hash,
+                    CombinedMetric.FLOAT_EUCLIDEAN).equals(
+                    ComputationCache.getDistanceKey(hash, manhattan)));
+            assertFalse(ComputationCache.getSecondaryDistanceKey(hash,
+                    CombinedMetric.FLOAT_EUCLIDEAN, "MP", 10).equals(
+                    ComputationCache.getSecondaryDistanceKey(hash,
+                    CombinedMetric.FLOAT_EUCLIDEAN, "MP", 20)));
+            assertFalse(ComputationCache.makeKey("ab", "c").equals(
+                    ComputationCache.makeKey("a", "bc")));
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the persistence of the distances and the kNN sets,
+     * also through the experimental context.
+     */
+    @Test
+    public static void testPersistence() {
+        File cacheDir = null;
+        try {
+            cacheDir = createTempDir();
+            DataSet dset = ToyDataGenerator.generateUniformData(80, 4, 3, 2);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            float[][] distMat = dset.calculateDistMatrix(cmet);
+            NeighborSetFinder nsf = new NeighborSetFinder(dset, distMat, cmet);
+            nsf.calculateNeighborSets(10);
+            ComputationCache cache = new ComputationCache(cacheDir);
+            ExternalExperimentalContext context =
+                    new ExternalExperimentalContext();
+            context.setCache(cache, dset, cmet);
+            assertNull(context.getDistances());
+            assertNull(context.getNeighborSets());
+            context.setDistances(distMat);
+            context.setNeighborSets(nsf);
+            // A smaller neighborhood does not replace the larger one.
+            NeighborSetFinder smallNSF = new NeighborSetFinder(dset, distMat,
+                    cmet);
+            smallNSF.calculateNeighborSets(5);
+            context.setNeighborSets(smallNSF);
+            assertEquals(2, cache.getNumEntries());
+            // A new cache object on the same directory.
+            ComputationCache reopened = new ComputationCache(cacheDir);
+            assertEquals(2, reopened.getNumEntries());
+            ExternalExperimentalContext reopenedContext =
+                    new ExternalExperimentalContext();
+            reopenedContext.setCache(reopened, dset.copy(), cmet);
+            assertDMatEquals(distMat, reopenedContext.getDistances());
+            NeighborSetFinder loaded = reopenedContext.getNeighborSets();
+            assertEquals(10, loaded.getCurrK());
+            assertKNNEquals(nsf, loaded, 10);
+            for (int i = 0; i < dset.size(); i++) {
+                assertEquals(nsf.getNeighborFrequencies()[i],
+                        loaded.getNeighborFrequencies()[i]);
+            }
+            String knnKey = ComputationCache.getNeighborSetKey(
+                    reopenedContext.getDataHash(), cmet);
+            NeighborSetFinder restricted = reopened.getNeighborSetsForK(
+                    knnKey, dset, distMat, cmet, 5);
+            assertEquals(5, restricted.getKNeighbors()[0].length);
+            assertKNNEquals(smallNSF, restricted, 5);
+            assertNull(reopened.getNeighborSetsForK(knnKey, dset, distMat,
+                    cmet, 11));
+        } catch (Exception e) {
+            fail(e.getMessage());
+        } finally {
+            deleteDir(cacheDir);
+        }
+    }
+
+    /**
+     * This method tests the eviction of the least recently used entries.
+     */
+    @Test
+    public static void testEviction() {
+        File cacheDir = null;
+        try {
+            cacheDir = createTempDir();
+            float[][][] dMats = new float[4][][];
+            for (int m = 0; m < dMats.length; m++) {
+                dMats[m] = ToyDataGenerator.generateUniformData(60, 2, 3, m).
+                        calculateDistMatrix(CombinedMetric.FLOAT_EUCLIDEAN);
+            }
+            ComputationCache probe = new ComputationCache(cacheDir);
+            probe.putDistances("probe", dMats[0]);
+            long entrySize = probe.getTotalBytes();
+            deleteDir(cacheDir);
+            // The cache can hold three entries.
+            ComputationCache cache = new ComputationCache(cacheDir,
+                    3 * entrySize + entrySize / 2);
+            cache.putDistances("a", dMats[0]);
+            cache.putDistances("b", dMats[1]);
+            cache.putDistances("c", dMats[2]);
+            // Make the first entry the most recently used one.
+            assertDMatEquals(dMats[0], cache.getDistances("a"));
+            cache.putDistances("d", dMats[3]);
+            assertEquals(3, cache.getNumEntries());
+            assertTrue(cache.getTotalBytes() <= cache.getMaxBytes());
+            assertTrue(cache.containsDistances("a"));
+            assertFalse(cache.containsDistances("b"));
+            assertNull(cache.getDistances("b"));
+            assertDMatEquals(dMats[2], cache.getDistances("c"));
+            assertDMatEquals(dMats[3], cache.getDistances("d"));
+        } catch (Exception e) {
+            fail(e.getMessage());
+        } finally {
+            deleteDir(cacheDir);
+        }
+    }
+
+    /**
+     * @param expected NeighborSetFinder object with the expected kNN sets.
+     * @param result NeighborSetFinder object with the obtained kNN sets.
+     * @param k Integer that is the neighborhood size to compare.
+     */
+    private static void assertKNNEquals(NeighborSetFinder expected,
+            NeighborSetFinder result, int k) {
+        for (int i = 0; i < expected.getKNeighbors().length; i++) {
+            for (int kInd = 0; kInd < k; kInd++) {
+                assertEquals(expected.getKNeighbors()[i][kInd],
+                        result.getKNeighbors()[i][kInd]);
+                assertEquals(expected.getKDistances()[i][kInd],
+                        result.getKDistances()[i][kInd], 0.00001f);
+            }
+        }
+    }
+
+    /**
+     * @param dMat float[][] that is the original distance matrix.
+     * @param loadedDMat float[][] that is the loaded distance matrix.
+     */
+    private static void assertDMatEquals(float[][] dMat, float[][] loadedDMat) {
+        assertEquals(dMat.length, loadedDMat.length);
+        for (int i = 0; i < dMat.length; i++) {
+            assertEquals(dMat[i].length, loadedDMat[i].length);
+            for (int j = 0; j < dMat[i].length; j++) {
+                assertEquals(dMat[i][j], loadedDMat[i][j], 0.00001f);
+            }
+        }
+    }
+
+    /**
+     * @return File that is a new empty temporary directory.
+     * @throws Exception
+     */
+    private static File createTempDir() throws Exception {
+        File tempDir = File.createTempFile("cache", "");
+        tempDir.delete();
+        tempDir.mkdirs();
+        return tempDir;
+    }
+
+    /**
+     * @param dir File that is the directory to delete, with its contents.
+     */
+    private static void deleteDir(File dir) {
+        if (dir == null || !dir.exists()) {
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+}
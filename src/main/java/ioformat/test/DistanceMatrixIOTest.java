@@ -18,7 +18,9 @@
 package ioformat.test;
 
 import data.representation.util.DataMineConstants;
+import distances.matrix.MappedTriangularMatrix;
 import ioformat.DistanceMatrixIO;
+import java.io.File;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.Random;
@@ -65,6 +67,63 @@ public class DistanceMatrixIOTest extends TestCase {
         }
     }
 
+    /**
+     * This method tests the binary persistence of distance matrices and the
+     * conversion from the text format.
+     */
+    @Test
+    public static void testBinaryDMatPersistence() {
+        int[] dims = {1, 2, 5, 40};
+        for (int dim : dims) {
+            float[][] dMat = generateToyDistanceMatrix(dim);
+            File textFile = null;
+            File binaryFile = null;
+            try {
+                textFile = File.createTempFile("dmat", ".txt");
+                binaryFile = File.createTempFile("dmat", ".bin");
+                DistanceMatrixIO.printDMatToBinaryFile(dMat, binaryFile);
+                assertTrue(DistanceMatrixIO.isBinaryDMatFile(binaryFile));
+                assertDMatEquals(dMat, DistanceMatrixIO.loadDMatFromFile(
+                        binaryFile));
+                if (dim > 1) {
+                    DistanceMatrixIO.printDMatToFile(dMat, textFile);
+                    assertFalse(DistanceMatrixIO.isBinaryDMatFile(textFile));
+                    DistanceMatrixIO.convertTextDMatToBinary(textFile,
+                            binaryFile, MappedTriangularMatrix.DTYPE_FLOAT32);
+                    assertDMatEquals(dMat,
+                            DistanceMatrixIO.loadDMatFromBinaryFile(
+                            binaryFile));
+                }
+            } catch (Exception e) {
+                fail(e.getMessage());
+            } finally {
+                if (textFile != null) {
+                    textFile.delete();
+                }
+                if (binaryFile != null) {
+                    binaryFile.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * This method checks whether two distance matrices are equal.
+     *
+     * @param dMat float[][] that is the original distance matrix.
+     * @param loadedDMat float[][] that is the loaded distance matrix.
+     */
+    private static void assertDMatEquals(float[][] dMat, float[][] loadedDMat) {
+        assertEquals(dMat.length, loadedDMat.length);
+        for (int i = 0; i < dMat.length; i++) {
+            assertEquals(dMat[i].length, loadedDMat[i].length);
+            for (int j = 0; j < dMat[i].length; j++) {
+                assertEquals(dMat[i][j], loadedDMat[i][j],
+                        DataMineConstants.EPSILON);
+            }
+        }
+    }
+
     /**
      * This method generates a toy distance matrix.
      *
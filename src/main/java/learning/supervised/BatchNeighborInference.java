@@ -0,0 +1,169 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.supervised;
+
+import data.neighbors.TopKSelector;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
+
+/**
+ * This class implements the batch inference of the kNN-based classifiers over
+ * many test points in a single parallel pass. The threads take blocks of test
+ * points from a shared counter. The distances from a block to the training
+ * data are calculated in tiles, so that the training feature vectors are
+ * reused for all the test points in the block while they are in the cache.
+ * The kNN sets are then selected from the distances and the classifier votes
+ * based on them. The memory requirements per thread are proportional to the
+ * block size times the training data size, regardless of the number of test
+ * points.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class BatchNeighborInference {
+
+    // The number of test points in a block.
+    public static final int QUERY_BLOCK_SIZE = 16;
+
+    /**
+     * This method calculates the probabilistic classification of all the
+     * provided test points.
+     *
+     * @param classifier BatchNeighborQueryUserInterface classifier that was
+     * already trained.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param instances DataInstance[] of the test points.
+     * @param numThreads Integer that is the number of threads to use.
+     * @return float[][] that holds the class probabilities of each test point.
+     * @throws Exception
+     */
+    public static float[][] classifyProbabilistically(
+            BatchNeighborQueryUserInterface classifier, CombinedMetric cmet,
+            DataInstance[] instances, int numThreads) throws Exception {
+        DataSet trainingData = classifier.getTrainingSet();
+        if (trainingData == null || trainingData.isEmpty()) {
+            throw new Exception("No training data provided.");
+        }
+        if (trainingData.size() < classifier.getNeighborhoodSize()) {
+            // The kNN sets would have to be padded with indexes that are not
+            // actual neighbors.
+            throw new Exception("The neighborhood size "
+                    + classifier.getNeighborhoodSize()
+                    + " exceeds the training data size " + trainingData.size());
+        }
+        float[][] classProbs = new float[instances.length][];
+        List<DataInstance> queries = Arrays.asList(instances);
+        int numBlocks = (instances.length + QUERY_BLOCK_SIZE - 1)
+                / QUERY_BLOCK_SIZE;
+        AtomicInteger nextBlock = new AtomicInteger(0);
+        int numWorkers = Math.max(1, Math.min(numThreads, numBlocks));
+        InferenceWorker[] workers = new InferenceWorker[numWorkers];
+        Thread[] threads = new Thread[numWorkers];
+        for (int tIndex = 0; tIndex < numWorkers; tIndex++) {
+            workers[tIndex] = new InferenceWorker(classifier, cmet,
+                    trainingData, queries, classProbs, nextBlock);
+            threads[tIndex] = new Thread(workers[tIndex]);
+            threads[tIndex].start();
+        }
+        for (int tIndex = 0; tIndex < numWorkers; tIndex++) {
+            try {
+                threads[tIndex].join();
+            } catch (Throwable t) {
+                System.err.println(t.getMessage());
+            }
+        }
+        for (InferenceWorker worker : workers) {
+            if (worker.error != null) {
+                throw worker.error;
+            }
+        }
+        return classProbs;
+    }
+
+    /**
+     * This class classifies the blocks of test points that it takes from the
+     * shared counter.
+     */
+    static class InferenceWorker implements Runnable {
+
+        private BatchNeighborQueryUserInterface classifier;
+        private CombinedMetric cmet;
+        private DataSet trainingData;
+        private List<DataInstance> queries;
+        private float[][] classProbs;
+        private AtomicInteger nextBlock;
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param classifier BatchNeighborQueryUserInterface classifier.
+         * @param cmet CombinedMetric object for distance calculations.
+         * @param trainingData DataSet that is the training data.
+         * @param queries List of the test points.
+         * @param classProbs float[][] for the class probabilities.
+         * @param nextBlock AtomicInteger that is the index of the next
+         * unprocessed block.
+         */
+        InferenceWorker(BatchNeighborQueryUserInterface classifier,
+                CombinedMetric cmet, DataSet trainingData,
+                List<DataInstance> queries, float[][] classProbs,
+                AtomicInteger nextBlock) {
+            this.classifier = classifier;
+            this.cmet = cmet;
+            this.trainingData = trainingData;
+            this.queries = queries;
+            this.classProbs = classProbs;
+            this.nextBlock = nextBlock;
+        }
+
+        @Override
+        public void run() {
+            try {
+                int trainingSize = trainingData.size();
+                int k = classifier.getNeighborhoodSize();
+                float[][] distToTraining =
+                        new float[QUERY_BLOCK_SIZE][trainingSize];
+                TopKSelector selector = new TopKSelector(k);
+                int block;
+                while ((block = nextBlock.getAndIncrement())
+                        * QUERY_BLOCK_SIZE < queries.size()) {
+                    int start = block * QUERY_BLOCK_SIZE;
+                    int end = Math.min(start + QUERY_BLOCK_SIZE,
+                            queries.size());
+                    cmet.distTile(queries, start, end, trainingData.data, 0,
+                            trainingSize, distToTraining);
+                    for (int q = start; q < end; q++) {
+                        float[] queryDistances = distToTraining[q - start];
+                        selector.reset();
+                        selector.offer(queryDistances, 0, trainingSize, 0);
+                        int[] trNeighbors = new int[k];
+                        selector.getSorted(trNeighbors, null);
+                        classProbs[q] = classifier.classifyProbabilistically(
+                                queries.get(q), queryDistances, trNeighbors);
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+    }
+}
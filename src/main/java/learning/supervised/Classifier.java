@@ -32,6 +32,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import learning.supervised.evaluation.ClassificationEstimator;
 import learning.supervised.evaluation.ValidateableInterface;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
 import learning.supervised.interfaces.DistToPointsQueryUserInterface;
 import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
 import preprocessing.instance_selection.InstanceSelector;
@@ -253,6 +254,41 @@ public abstract class Classifier implements ValidateableInterface,
         }
     }
 
+    /**
+     * This method performs parallel batch classification of an array of
+     * DataInstance objects. For the kNN-based classifiers that implement the
+     * BatchNeighborQueryUserInterface, the kNN sets are calculated for blocks
+     * of test points at once from the tiled distances to the training data,
+     * in a single parallel pass. Other classifiers, as well as the ones with
+     * fewer training points than the neighborhood size, classify the
+     * instances one by one.
+     *
+     * @param instances DataInstance[] array to classify.
+     * @param numThreads Integer that is the number of threads to use.
+     * @return float[][] that are the resulting predicted probabilistic class
+     * assignments.
+     * @throws Exception
+     */
+    public float[][] classifyProbabilistically(DataInstance[] instances,
+            int numThreads) throws Exception {
+        if ((instances == null) || (instances.length == 0)) {
+            return null;
+        }
+        if (this instanceof BatchNeighborQueryUserInterface
+                && getCombinedMetric() != null) {
+            BatchNeighborQueryUserInterface batchUser =
+                    (BatchNeighborQueryUserInterface) this;
+            DataSet trainingSet = batchUser.getTrainingSet();
+            if (trainingSet != null && trainingSet.size()
+                    >= batchUser.getNeighborhoodSize()) {
+                return BatchNeighborInference.classifyProbabilistically(
+                        batchUser, getCombinedMetric(), instances,
+                        numThreads);
+            }
+        }
+        return classifyProbabilistically(instances);
+    }
+
     /**
      * This method performs batch classification of a list of DataInstance
      * objects.
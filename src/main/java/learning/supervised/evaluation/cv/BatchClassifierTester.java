@@ -27,6 +27,7 @@ import data.representation.util.DataMineConstants;
 import distances.primary.CombinedMetric;
 import distances.sparse.SparseCombinedMetric;
 import filters.TFIDF;
+import ioformat.ComputationCache;
 import ioformat.DistanceMatrixIO;
 import ioformat.FileUtil;
 import ioformat.IOARFF;
@@ -43,6 +44,8 @@ import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import learning.supervised.ClassifierFactory;
@@ -66,7 +69,7 @@ import preprocessing.instance_selection.ReducersFactory;
  *
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
-public class BatchClassifierTester {
+public class BatchClassifierTester implements Cloneable {
 
     // Connector for API calls to OpenML in case when networked experiments are
     // performed and data and training/test splits are obtained from OpenML
@@ -186,6 +189,15 @@ public class BatchClassifierTester {
     private int protoHubnessMode = MultiCrossValidation.PROTO_UNBIASED;
     // The number of threads used for distance matrix and kNN set calculations.
     private int numCommonThreads = 8;
+    // The number of datasets to test concurrently.
+    private int numConcurrentDataSets = 1;
+    // The pool shared by all the cross-validation runs.
+    private EvaluationTaskPool taskPool;
+    // The persistent cache for the distance matrices and the kNN sets, shared
+    // by all the datasets.
+    private File cacheDir;
+    private long cacheMaxBytes = ComputationCache.DEFAULT_MAX_BYTES;
+    private ComputationCache cache;
     // OpenML taskID-s and a map that checks whether a particular dataset is a
     // OpenML data source.
     public ArrayList<Integer> openMLTaskIDList;
@@ -236,7 +248,6 @@ public class BatchClassifierTester {
      * configuration.
      */
     public void runAllTests() throws Exception {
-        int datasetIndex = 0;
         DataSet labelCol = null;
         if (multiLabelMode) {
             // Each label array is a column in the label file.
@@ -255,811 +266,881 @@ public class BatchClassifierTester {
             // of the data.
             numDifferentLabelings = labelCol.getNumIntAttr();
         }
-        // Iterate over all data representations / datasets.
-        for (String dsPath : dsPaths) {
-            cmet = dsMetric.get(datasetIndex);
-            File dsFile = new File(dsPath);
-            originalDSet = SupervisedLoader.loadData(dsFile, multiLabelMode);
-            System.out.println("Testing on: " + dsPath);
-            // Make all category indexes be in the range [0 .. numCategores - 1]
-            originalDSet.standardizeCategories();
-            // Perform feature normalization, if specified.
-            if (normType != Normalization.NONE) {
-                System.out.print("Normalizing features-");
-                if (normType == Normalization.NORM_01) {
-                    // Normalization to the 0-1 range.
-                    originalDSet.normalizeFloats();
-                } else if (normType == Normalization.STANDARDIZE) {
-                    // Feature standardization.
-                    originalDSet.standardizeAllFloats();
-                } else if (normType == Normalization.TFIDF) {
-                    // TFIDF normalization.
-                    boolean[] fBool;
-                    if (originalDSet instanceof BOWDataSet) {
-                        fBool = new boolean[((BOWDataSet) originalDSet).
-                                getNumDifferentWords()];
-                    } else {
-                        fBool = new boolean[originalDSet.getNumFloatAttr()];
-                    }
-                    Arrays.fill(fBool, true);
-                    TFIDF filterTFIDF = new TFIDF(fBool,
-                            DataMineConstants.FLOAT);
-                    if (originalDSet instanceof BOWDataSet) {
-                        filterTFIDF.setSparse(true);
-                    }
-                    filterTFIDF.filter(originalDSet);
+        if (cacheDir != null) {
+            cache = new ComputationCache(cacheDir, cacheMaxBytes);
+        }
+        // Iterate over all data representations / datasets. Several datasets
+        // can be tested concurrently, sharing the same pool of threads for
+        // the algorithm tests.
+        taskPool = new EvaluationTaskPool(numCommonThreads);
+        try {
+            if (numConcurrentDataSets <= 1) {
+                for (int datasetIndex = 0; datasetIndex < dsPaths.size();
+                        datasetIndex++) {
+                    testDataSet(datasetIndex, labelCol);
                 }
-                System.out.println("-Normalization complete.");
             } else {
-                System.out.println("Skipping feature normalization.");
+                final Semaphore admission = new Semaphore(
+                        numConcurrentDataSets);
+                ArrayList<ForkJoinTask<?>> dataSetTasks =
+                        new ArrayList<>(dsPaths.size());
+                for (int datasetIndex = 0; datasetIndex < dsPaths.size();
+                        datasetIndex++) {
+                    admission.acquire();
+                    final int dsIndex = datasetIndex;
+                    final DataSet labels = labelCol;
+                    // Each dataset is tested on a separate copy of the
+                    // tester, as the current data is kept in the fields.
+                    final BatchClassifierTester dsTester =
+                            copyConfiguration();
+                    dataSetTasks.add(taskPool.submit("dataset " + dsIndex,
+                            new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                dsTester.testDataSet(dsIndex, labels);
+                            } catch (Exception e) {
+                                throw new RuntimeException(e);
+                            } finally {
+                                admission.release();
+                            }
+                        }
+                    }));
+                }
+                EvaluationTaskPool.awaitAll(dataSetTasks);
             }
-            // Get the original label array.
-            originalLabels = originalDSet.obtainLabelArray();
-            // Get the number of classes in the data.
-            numCategories = originalDSet.countCategories();
+        } finally {
+            taskPool.shutdown();
+        }
+        if (summaryDir != null) {
+            BatchStatSummarizer summarizer =
+                    new BatchStatSummarizer(outDir, summaryDir, numTimes,
+                    numFolds);
+            summarizer.summarize();
+        }
+    }
 
-            // Initialize the discrete classifier flag array.
-            for (int cIndex = 0; cIndex < classifierNames.size(); cIndex++) {
-                String cName = classifierNames.get(cIndex);
-                if (isDiscrete(cName)) {
-                    discreteExists = true;
-                    break;
+    /**
+     * This method runs all the tests on a single dataset.
+     *
+     * @param datasetIndex Integer that is the index of the dataset.
+     * @param labelCol DataSet holding the label arrays in the multi-label
+     * mode, null otherwise.
+     * @throws Exception
+     */
+    private void testDataSet(int datasetIndex, DataSet labelCol)
+            throws Exception {
+        String dsPath = dsPaths.get(datasetIndex);
+        cmet = dsMetric.get(datasetIndex);
+        File dsFile = new File(dsPath);
+        originalDSet = SupervisedLoader.loadData(dsFile, multiLabelMode);
+        System.out.println("Testing on: " + dsPath);
+        // Make all category indexes be in the range [0 .. numCategores - 1]
+        originalDSet.standardizeCategories();
+        // Perform feature normalization, if specified.
+        if (normType != Normalization.NONE) {
+            System.out.print("Normalizing features-");
+            if (normType == Normalization.NORM_01) {
+                // Normalization to the 0-1 range.
+                originalDSet.normalizeFloats();
+            } else if (normType == Normalization.STANDARDIZE) {
+                // Feature standardization.
+                originalDSet.standardizeAllFloats();
+            } else if (normType == Normalization.TFIDF) {
+                // TFIDF normalization.
+                boolean[] fBool;
+                if (originalDSet instanceof BOWDataSet) {
+                    fBool = new boolean[((BOWDataSet) originalDSet).
+                            getNumDifferentWords()];
+                } else {
+                    fBool = new boolean[originalDSet.getNumFloatAttr()];
                 }
-            }
-            dsFolds = null;
-            if (allDataSetFolds == null && foldsDir != null) {
-                File foldsFile = new File(foldsDir,
-                        dsFile.getName().substring(0, dsFile.getName().
-                        lastIndexOf(".")) + "_cv_" + numTimes + "_" + numFolds +
-                        ".json");
-                if (foldsFile.exists()) {
-                    System.out.println("Loading the existing folds from: " +
-                            foldsFile.getPath());
-                    dsFolds = CVFoldsIO.loadAllFolds(foldsFile);
+                Arrays.fill(fBool, true);
+                TFIDF filterTFIDF = new TFIDF(fBool,
+                        DataMineConstants.FLOAT);
+                if (originalDSet instanceof BOWDataSet) {
+                    filterTFIDF.setSparse(true);
                 }
-            } else {
-                dsFolds = allDataSetFolds[datasetIndex];
+                filterTFIDF.filter(originalDSet);
+            }
+            System.out.println("-Normalization complete.");
+        } else {
+            System.out.println("Skipping feature normalization.");
+        }
+        // Get the original label array.
+        originalLabels = originalDSet.obtainLabelArray();
+        // Get the number of classes in the data.
+        numCategories = originalDSet.countCategories();
+
+        // Initialize the discrete classifier flag array.
+        for (int cIndex = 0; cIndex < classifierNames.size(); cIndex++) {
+            String cName = classifierNames.get(cIndex);
+            if (isDiscrete(cName)) {
+                discreteExists = true;
+                break;
+            }
+        }
+        dsFolds = null;
+        if (allDataSetFolds == null && foldsDir != null) {
+            File foldsFile = new File(foldsDir,
+                    dsFile.getName().substring(0, dsFile.getName().
+                    lastIndexOf(".")) + "_cv_" + numTimes + "_" + numFolds +
+                    ".json");
+            if (foldsFile.exists()) {
+                System.out.println("Loading the existing folds from: " +
+                        foldsFile.getPath());
+                dsFolds = CVFoldsIO.loadAllFolds(foldsFile);
             }
-            int memCleanCount = 0;
-            // Iterate over all the noise and mislabeling rates, for all the
-            // label assignments (if in the multi-label mode).
-            for (float noise = noiseMin; noise <= noiseMax;
-                    noise += noiseStep) {
-                for (int lIndex = 0; lIndex < numDifferentLabelings; lIndex++) {
-                    for (float ml = mlMin; ml <= mlMax; ml += mlStep) {
-                        if (++memCleanCount % 5 == 0) {
-                            // Try initiating some clean-up periodically.
-                            System.gc();
+        } else {
+            dsFolds = allDataSetFolds[datasetIndex];
+        }
+        int memCleanCount = 0;
+        // Iterate over all the noise and mislabeling rates, for all the
+        // label assignments (if in the multi-label mode).
+        for (float noise = noiseMin; noise <= noiseMax;
+                noise += noiseStep) {
+            for (int lIndex = 0; lIndex < numDifferentLabelings; lIndex++) {
+                for (float ml = mlMin; ml <= mlMax; ml += mlStep) {
+                    if (++memCleanCount % 5 == 0) {
+                        // Try initiating some clean-up periodically.
+                        System.gc();
+                    }
+                    if (ml > 0 || noise > 0) {
+                        // If some noise or mislabeling is to be applied,
+                        // first make a copy of the original data.
+                        currDSet = originalDSet.copy();
+                    } else {
+                        currDSet = originalDSet;
+                    }
+                    if (multiLabelMode && labelCol != null) {
+                        // If in the multi-label mode, assign the
+                        // appropriate labels to the data points.
+                        for (int dInd = 0; dInd < currDSet.size(); dInd++) {
+                            currDSet.data.get(dInd).setCategory(
+                                    labelCol.getInstance(
+                                    dInd).iAttr[lIndex]);
                         }
-                        if (ml > 0 || noise > 0) {
-                            // If some noise or mislabeling is to be applied,
-                            // first make a copy of the original data.
-                            currDSet = originalDSet.copy();
+                        numCategories = currDSet.countCategories();
+                        originalLabels = currDSet.obtainLabelArray();
+                    }
+                    if (ml > 0) {
+                        // First check if any mislabeling instance weights
+                        // were provided, that make certain mislabelings
+                        // more probable than others.
+                        String weightsPath = null;
+                        if (mlWeightsDir != null) {
+                            if (!(cmet instanceof SparseCombinedMetric)) {
+                                String metricDir = cmet.getFloatMetric()
+                                        != null ?
+                                        cmet.getFloatMetric().getClass().
+                                        getName() : cmet.getIntegerMetric().
+                                        getClass().getName();
+                                switch (normType) {
+                                    case NONE:
+                                        weightsPath = "NO" + File.separator
+                                                + metricDir + File.separator
+                                                + "ml_weights.txt";
+                                        break;
+                                    case NORM_01:
+                                        weightsPath = "NORM01" +
+                                                File.separator + metricDir +
+                                                File.separator +
+                                                "ml_weights.txt";
+                                        break;
+                                    case STANDARDIZE:
+                                        weightsPath = "STANDARDIZED" +
+                                                File.separator + metricDir +
+                                                File.separator +
+                                                "ml_weights.txt";
+                                        break;
+                                    case TFIDF:
+                                        weightsPath = "TFIDF" +
+                                                File.separator + metricDir +
+                                                File.separator +
+                                                "ml_weights.txt";
+                                        break;
+                                }
+                            } else {
+                                switch (normType) {
+                                    case NONE:
+                                        weightsPath = "NO" + File.separator
+                                                + ((SparseCombinedMetric)
+                                                cmet).getSparseMetric().
+                                                getClass().getName() +
+                                                File.separator +
+                                                "ml_weights.txt";
+                                        break;
+                                    case NORM_01:
+                                        weightsPath = "NORM01" +
+                                                File.separator +
+                                                ((SparseCombinedMetric)
+                                                cmet).getSparseMetric().
+                                                getClass().getName() +
+                                                File.separator +
+                                                "ml_weights.txt";
+                                        break;
+                                    case STANDARDIZE:
+                                        weightsPath = "STANDARDIZED" +
+                                                File.separator +
+                                                ((SparseCombinedMetric)
+                                                cmet).getSparseMetric().
+                                                getClass().getName() +
+                                                File.separator +
+                                                "ml_weights.txt";
+                                        break;
+                                    case TFIDF:
+                                        weightsPath = "TFIDF" +
+                                                File.separator +
+                                                ((SparseCombinedMetric)
+                                                cmet).getSparseMetric().
+                                                getClass().getName() +
+                                                File.separator +
+                                                "ml_weights.txt";
+                                        break;
+                                }
+                            }
+                            File inWeightFile = new File(mlWeightsDir,
+                                    weightsPath);
+                             try (BufferedReader br = new BufferedReader(
+                                     new InputStreamReader(
+                                     new FileInputStream(inWeightFile)));) {
+                                 String[] weightStrs = br.readLine().split(
+                                         " ");
+                                 float[] mlWeights = new float[
+                                         weightStrs.length];
+                                 for (int i = 0; i < weightStrs.length;
+                                         i++) {
+                                     mlWeights[i] = Float.parseFloat(
+                                             weightStrs[i]);
+                                 }
+                                 currDSet.induceWeightProportionalMislabeling(
+                                         ml, numCategories, mlWeights);
+                             }
+                        } else {
+                            // Induce the specified mislabeling rate.
+                            currDSet.induceMislabeling(ml, numCategories);
+                        }
+                    }
+                    if (noise > 0) {
+                        // Induce Gaussian featue noise.
+                        currDSet.addGaussianNoiseToNormalizedCollection(
+                                noise, 0.1f);
+                    }
+                    if (discreteExists) {
+                        // Make a discretized version of the original data.
+                        currDiscDSet = new DiscretizedDataSet(currDSet);
+                        EntropyMDLDiscretizer discretizer =
+                                new EntropyMDLDiscretizer(
+                                currDSet, currDiscDSet, numCategories);
+                        discretizer.discretizeAll();
+                        currDiscDSet.discretizeDataSet(currDSet);
+                    }
+                    for (int k = kMax; k >= kMin; k -= kStep) {
+                        // Iterate over different neighborhood sizes.
+                        if (multiLabelMode) {
+                            currOutDSDir = new File(outDir,
+                                    dsFile.getName().substring(0,
+                                    dsFile.getName().lastIndexOf(".")) +
+                                    "L" + lIndex + File.separator + "k" +
+                                    k + File.separator + "ml" + ml +
+                                    File.separator + "noise" + noise);
                         } else {
-                            currDSet = originalDSet;
+                            currOutDSDir = new File(outDir,
+                                    dsFile.getName().substring(0,
+                                    dsFile.getName().lastIndexOf(".")) +
+                                    File.separator + "k" + k +
+                                    File.separator + "ml" + ml +
+                                    File.separator + "noise" + noise);
+                        }
+                        FileUtil.createDirectory(currOutDSDir);
+                        isDiscreteAlgorithm =
+                                new boolean[classifierNames.size()];
+                        // Initialize algorithm lists.
+                        ArrayList<ValidateableInterface> nonDiscreteAlgs =
+                                new ArrayList<>(20);
+                        ArrayList<ValidateableInterface> discreteAlgs =
+                                new ArrayList<>(20);
+
+                        for (int cIndex = 0; cIndex <
+                                classifierNames.size(); cIndex++) {
+                            // Place the algorithm in the appropriate list.
+                            String cName = classifierNames.get(cIndex);
+                            ValidateableInterface cInstance;
+                            if (algorithmParametrizationMap.containsKey(
+                                    cName)) {
+                                cInstance = getClassifierForName(cName,
+                                        cIndex, numCategories, cmet, k,
+                                        algorithmParametrizationMap.get(
+                                        cName));
+                            } else {
+                                cInstance = getClassifierForName(cName,
+                                        cIndex, numCategories, cmet, k,
+                                        null);
+                            }
+                            if (cInstance instanceof DiscreteClassifier) {
+                                isDiscreteAlgorithm[cIndex] = true;
+                            }
+                            if (isDiscreteAlgorithm[cIndex]) {
+                                discreteAlgs.add(cInstance);
+                            } else {
+                                nonDiscreteAlgs.add(cInstance);
+                            }
+                        }
+                        discreteArray =
+                                new ValidateableInterface[
+                                        discreteAlgs.size()];
+                        if (discreteArray.length > 0) {
+                            discreteArray = discreteAlgs.toArray(
+                                    discreteArray);
+                        }
+                        nonDiscreteArray =
+                                new ValidateableInterface[
+                                        nonDiscreteAlgs.size()];
+                        if (nonDiscreteArray.length > 0) {
+                            nonDiscreteArray = nonDiscreteAlgs.toArray(
+                                    nonDiscreteArray);
                         }
-                        if (multiLabelMode && labelCol != null) {
-                            // If in the multi-label mode, assign the
-                            // appropriate labels to the data points.
-                            for (int dInd = 0; dInd < currDSet.size(); dInd++) {
-                                currDSet.data.get(dInd).setCategory(
-                                        labelCol.getInstance(
-                                        dInd).iAttr[lIndex]);
+                        // Check for distance matrix users.
+                        for (int cIndex = 0; cIndex < discreteArray.length;
+                                cIndex++) {
+                            if (discreteArray[cIndex] instanceof
+                                    DistMatrixUserInterface) {
+                                distUserPresentDisc = true;
+                                break;
                             }
-                            numCategories = currDSet.countCategories();
-                            originalLabels = currDSet.obtainLabelArray();
                         }
-                        if (ml > 0) {
-                            // First check if any mislabeling instance weights
-                            // were provided, that make certain mislabelings
-                            // more probable than others.
-                            String weightsPath = null;
-                            if (mlWeightsDir != null) {
+                        for (int cIndex = 0; cIndex <
+                                nonDiscreteArray.length; cIndex++) {
+                            if (nonDiscreteArray[cIndex] instanceof
+                                    DistMatrixUserInterface) {
+                                distUserPresentNonDisc = true;
+                                break;
+                            }
+                            if (nonDiscreteArray[cIndex] instanceof
+                                    NeighborPointsQueryUserInterface ||
+                                    nonDiscreteArray[cIndex] instanceof
+                                    NSFUserInterface ) {
+                                kNNUserPresent = true;
+                                break;
+                            }
+                        }
+                        MultiCrossValidation discreteCV = null;
+                        MultiCrossValidation nonDiscreteCV;
+                        if (distUserPresentDisc || distUserPresentNonDisc ||
+                                kNNUserPresent) {
+                            // Load or calculate the distance matrix.
+                            String dMatPath = null;
+                            // Calculate the appropriate distance matrix
+                            // path.
+                            if (distancesDir != null) {
                                 if (!(cmet instanceof SparseCombinedMetric)) {
-                                    String metricDir = cmet.getFloatMetric()
-                                            != null ?
-                                            cmet.getFloatMetric().getClass().
-                                            getName() : cmet.getIntegerMetric().
+                                    String metricDir =
+                                            cmet.getFloatMetric() != null ?
+                                            cmet.getFloatMetric().
+                                            getClass().getName() :
+                                            cmet.getIntegerMetric().
                                             getClass().getName();
                                     switch (normType) {
                                         case NONE:
-                                            weightsPath = "NO" + File.separator
-                                                    + metricDir + File.separator
-                                                    + "ml_weights.txt";
+                                            dMatPath = "NO" + File.separator
+                                                    + metricDir +
+                                                    File.separator +
+                                                    "dMat.txt";
                                             break;
                                         case NORM_01:
-                                            weightsPath = "NORM01" +
-                                                    File.separator + metricDir +
+                                            dMatPath = "NORM01" +
+                                                    File.separator +
+                                                    metricDir +
                                                     File.separator +
-                                                    "ml_weights.txt";
+                                                    "dMat.txt";
                                             break;
                                         case STANDARDIZE:
-                                            weightsPath = "STANDARDIZED" +
-                                                    File.separator + metricDir +
+                                            dMatPath = "STANDARDIZED" +
                                                     File.separator +
-                                                    "ml_weights.txt";
+                                                    metricDir +
+                                                    File.separator +
+                                                    "dMat.txt";
                                             break;
                                         case TFIDF:
-                                            weightsPath = "TFIDF" +
-                                                    File.separator + metricDir +
+                                            dMatPath = "TFIDF" +
+                                                    File.separator +
+                                                    metricDir +
                                                     File.separator +
-                                                    "ml_weights.txt";
+                                                    "dMat.txt";
                                             break;
                                     }
                                 } else {
                                     switch (normType) {
                                         case NONE:
-                                            weightsPath = "NO" + File.separator
-                                                    + ((SparseCombinedMetric)
+                                            dMatPath = "NO" +
+                                                    File.separator +
+                                                    ((SparseCombinedMetric)
                                                     cmet).getSparseMetric().
                                                     getClass().getName() +
                                                     File.separator +
-                                                    "ml_weights.txt";
+                                                    "dMat.txt";
                                             break;
                                         case NORM_01:
-                                            weightsPath = "NORM01" +
+                                            dMatPath = "NORM01" +
                                                     File.separator +
                                                     ((SparseCombinedMetric)
                                                     cmet).getSparseMetric().
                                                     getClass().getName() +
                                                     File.separator +
-                                                    "ml_weights.txt";
+                                                    "dMat.txt";
                                             break;
                                         case STANDARDIZE:
-                                            weightsPath = "STANDARDIZED" +
+                                            dMatPath = "STANDARDIZED" +
                                                     File.separator +
                                                     ((SparseCombinedMetric)
                                                     cmet).getSparseMetric().
                                                     getClass().getName() +
                                                     File.separator +
-                                                    "ml_weights.txt";
+                                                    "dMat.txt";
                                             break;
                                         case TFIDF:
-                                            weightsPath = "TFIDF" +
+                                            dMatPath = "TFIDF" +
                                                     File.separator +
                                                     ((SparseCombinedMetric)
                                                     cmet).getSparseMetric().
                                                     getClass().getName() +
                                                     File.separator +
-                                                    "ml_weights.txt";
+                                                    "dMat.txt";
                                             break;
                                     }
                                 }
-                                File inWeightFile = new File(mlWeightsDir,
-                                        weightsPath);
-                                 try (BufferedReader br = new BufferedReader(
-                                         new InputStreamReader(
-                                         new FileInputStream(inWeightFile)));) {
-                                     String[] weightStrs = br.readLine().split(
-                                             " ");
-                                     float[] mlWeights = new float[
-                                             weightStrs.length];
-                                     for (int i = 0; i < weightStrs.length;
-                                             i++) {
-                                         mlWeights[i] = Float.parseFloat(
-                                                 weightStrs[i]);
-                                     }
-                                     currDSet.induceWeightProportionalMislabeling(
-                                             ml, numCategories, mlWeights);
-                                 }
-                            } else {
-                                // Induce the specified mislabeling rate.
-                                currDSet.induceMislabeling(ml, numCategories);
                             }
-                        }
-                        if (noise > 0) {
-                            // Induce Gaussian featue noise.
-                            currDSet.addGaussianNoiseToNormalizedCollection(
-                                    noise, 0.1f);
-                        }
-                        if (discreteExists) {
-                            // Make a discretized version of the original data.
-                            currDiscDSet = new DiscretizedDataSet(currDSet);
-                            EntropyMDLDiscretizer discretizer =
-                                    new EntropyMDLDiscretizer(
-                                    currDSet, currDiscDSet, numCategories);
-                            discretizer.discretizeAll();
-                            currDiscDSet.discretizeDataSet(currDSet);
-                        }
-                        for (int k = kMax; k >= kMin; k -= kStep) {
-                            // Iterate over different neighborhood sizes.
-                            if (multiLabelMode) {
-                                currOutDSDir = new File(outDir,
-                                        dsFile.getName().substring(0,
-                                        dsFile.getName().lastIndexOf(".")) +
-                                        "L" + lIndex + File.separator + "k" +
-                                        k + File.separator + "ml" + ml +
-                                        File.separator + "noise" + noise);
-                            } else {
-                                currOutDSDir = new File(outDir,
+                            File dMatFile = null;
+                            Class cmetClass = originalDSet.getClass();
+                            if (dMatPath != null && noise == 0) {
+                                dMatFile = new File(distancesDir,
                                         dsFile.getName().substring(0,
                                         dsFile.getName().lastIndexOf(".")) +
-                                        File.separator + "k" + k +
-                                        File.separator + "ml" + ml +
-                                        File.separator + "noise" + noise);
-                            }
-                            FileUtil.createDirectory(currOutDSDir);
-                            isDiscreteAlgorithm =
-                                    new boolean[classifierNames.size()];
-                            // Initialize algorithm lists.
-                            ArrayList<ValidateableInterface> nonDiscreteAlgs =
-                                    new ArrayList<>(20);
-                            ArrayList<ValidateableInterface> discreteAlgs =
-                                    new ArrayList<>(20);
-
-                            for (int cIndex = 0; cIndex <
-                                    classifierNames.size(); cIndex++) {
-                                // Place the algorithm in the appropriate list.
-                                String cName = classifierNames.get(cIndex);
-                                ValidateableInterface cInstance;
-                                if (algorithmParametrizationMap.containsKey(
-                                        cName)) {
-                                    cInstance = getClassifierForName(cName,
-                                            cIndex, numCategories, cmet, k,
-                                            algorithmParametrizationMap.get(
-                                            cName));
-                                } else {
-                                    cInstance = getClassifierForName(cName,
-                                            cIndex, numCategories, cmet, k,
-                                            null);
-                                }
-                                if (cInstance instanceof DiscreteClassifier) {
-                                    isDiscreteAlgorithm[cIndex] = true;
-                                }
-                                if (isDiscreteAlgorithm[cIndex]) {
-                                    discreteAlgs.add(cInstance);
-                                } else {
-                                    nonDiscreteAlgs.add(cInstance);
-                                }
-                            }
-                            discreteArray =
-                                    new ValidateableInterface[
-                                            discreteAlgs.size()];
-                            if (discreteArray.length > 0) {
-                                discreteArray = discreteAlgs.toArray(
-                                        discreteArray);
-                            }
-                            nonDiscreteArray =
-                                    new ValidateableInterface[
-                                            nonDiscreteAlgs.size()];
-                            if (nonDiscreteArray.length > 0) {
-                                nonDiscreteArray = nonDiscreteAlgs.toArray(
-                                        nonDiscreteArray);
+                                        File.separator + dMatPath);
+                                cmetClass = Class.forName(dMatFile.
+                                        getParentFile().getName());
                             }
-                            // Check for distance matrix users.
-                            for (int cIndex = 0; cIndex < discreteArray.length;
-                                    cIndex++) {
-                                if (discreteArray[cIndex] instanceof
-                                        DistMatrixUserInterface) {
-                                    distUserPresentDisc = true;
-                                    break;
+                            if (contextObjects == null) {
+                                contextObjects =
+                                        new ExternalExperimentalContext();
+                                if (cache != null) {
+                                    contextObjects.setCache(cache, currDSet,
+                                            cmet);
                                 }
                             }
-                            for (int cIndex = 0; cIndex <
-                                    nonDiscreteArray.length; cIndex++) {
-                                if (nonDiscreteArray[cIndex] instanceof
-                                        DistMatrixUserInterface) {
-                                    distUserPresentNonDisc = true;
-                                    break;
-                                }
-                                if (nonDiscreteArray[cIndex] instanceof
-                                        NeighborPointsQueryUserInterface ||
-                                        nonDiscreteArray[cIndex] instanceof
-                                        NSFUserInterface ) {
-                                    kNNUserPresent = true;
-                                    break;
+                            if (distMat == null) {
+                                boolean dMatFileUsable = dMatFile != null
+                                        && dMatFile.exists()
+                                        && cmetClass.isInstance(
+                                        cmet.getFloatMetric());
+                                if (!dMatFileUsable) {
+                                    // Look the distances up in the cache
+                                    // before calculating them.
+                                    distMat = contextObjects.getDistances();
                                 }
-                            }
-                            MultiCrossValidation discreteCV = null;
-                            MultiCrossValidation nonDiscreteCV;
-                            if (distUserPresentDisc || distUserPresentNonDisc ||
-                                    kNNUserPresent) {
-                                // Load or calculate the distance matrix.
-                                String dMatPath = null;
-                                // Calculate the appropriate distance matrix
-                                // path.
-                                if (distancesDir != null) {
-                                    if (!(cmet instanceof SparseCombinedMetric)) {
-                                        String metricDir =
-                                                cmet.getFloatMetric() != null ?
-                                                cmet.getFloatMetric().
-                                                getClass().getName() :
-                                                cmet.getIntegerMetric().
-                                                getClass().getName();
-                                        switch (normType) {
-                                            case NONE:
-                                                dMatPath = "NO" + File.separator
-                                                        + metricDir +
-                                                        File.separator +
-                                                        "dMat.txt";
-                                                break;
-                                            case NORM_01:
-                                                dMatPath = "NORM01" +
-                                                        File.separator +
-                                                        metricDir +
-                                                        File.separator +
-                                                        "dMat.txt";
-                                                break;
-                                            case STANDARDIZE:
-                                                dMatPath = "STANDARDIZED" +
-                                                        File.separator +
-                                                        metricDir +
-                                                        File.separator +
-                                                        "dMat.txt";
-                                                break;
-                                            case TFIDF:
-                                                dMatPath = "TFIDF" +
-                                                        File.separator +
-                                                        metricDir +
-                                                        File.separator +
-                                                        "dMat.txt";
-                                                break;
-                                        }
-                                    } else {
-                                        switch (normType) {
-                                            case NONE:
-                                                dMatPath = "NO" +
-                                                        File.separator +
-                                                        ((SparseCombinedMetric)
-                                                        cmet).getSparseMetric().
-                                                        getClass().getName() +
-                                                        File.separator +
-                                                        "dMat.txt";
-                                                break;
-                                            case NORM_01:
-                                                dMatPath = "NORM01" +
-                                                        File.separator +
-                                                        ((SparseCombinedMetric)
-                                                        cmet).getSparseMetric().
-                                                        getClass().getName() +
-                                                        File.separator +
-                                                        "dMat.txt";
-                                                break;
-                                            case STANDARDIZE:
-                                                dMatPath = "STANDARDIZED" +
-                                                        File.separator +
-                                                        ((SparseCombinedMetric)
-                                                        cmet).getSparseMetric().
-                                                        getClass().getName() +
-                                                        File.separator +
-                                                        "dMat.txt";
-                                                break;
-                                            case TFIDF:
-                                                dMatPath = "TFIDF" +
-                                                        File.separator +
-                                                        ((SparseCombinedMetric)
-                                                        cmet).getSparseMetric().
-                                                        getClass().getName() +
-                                                        File.separator +
-                                                        "dMat.txt";
-                                                break;
-                                        }
-                                    }
-                                }
-                                File dMatFile = null;
-                                Class cmetClass = originalDSet.getClass();
-                                if (dMatPath != null && noise == 0) {
-                                    dMatFile = new File(distancesDir,
-                                            dsFile.getName().substring(0,
-                                            dsFile.getName().lastIndexOf(".")) +
-                                            File.separator + dMatPath);
-                                    cmetClass = Class.forName(dMatFile.
-                                            getParentFile().getName());
-                                }
-                                if (contextObjects == null) {
-                                    contextObjects =
-                                            new ExternalExperimentalContext();
-                                }
-                                if (distMat == null) {
-                                    if (dMatFile == null || !dMatFile.exists()
-                                            || !(cmetClass.isInstance(
-                                            cmet.getFloatMetric()))) {
-                                        System.out.print(
-                                                "Calculating distances-");
-                                        distMat = currDSet.
-                                                calculateDistMatrixMultThr(
-                                                cmet, 8);
-                                        System.out.println(
-                                                "-distance calculated.");
-                                        if (dMatFile != null) {
-                                            DistanceMatrixIO.printDMatToFile(
-                                                    distMat, dMatFile);
-                                        }
-                                    } else {
-                                        System.out.print("Loading distances-");
-                                        distMat =
-                                                DistanceMatrixIO.
-                                                loadDMatFromFile(dMatFile);
-                                        System.out.println(
-                                                "-distance loaded from file: " +
-                                                dMatFile.getPath());
+                                if (distMat != null) {
+                                    System.out.println(
+                                            "Distances loaded from the cache.");
+                                } else if (!dMatFileUsable) {
+                                    System.out.print(
+                                            "Calculating distances-");
+                                    distMat = currDSet.
+                                            calculateDistMatrixMultThr(
+                                            cmet, 8);
+                                    System.out.println(
+                                            "-distance calculated.");
+                                    if (dMatFile != null) {
+                                        DistanceMatrixIO.printDMatToFile(
+                                                distMat, dMatFile);
                                     }
+                                } else {
+                                    System.out.print("Loading distances-");
+                                    distMat =
+                                            DistanceMatrixIO.
+                                            loadDMatFromFile(dMatFile);
+                                    System.out.println(
+                                            "-distance loaded from file: " +
+                                            dMatFile.getPath());
                                 }
-                                contextObjects.setDistances(distMat);
-                                if (discreteExists) {
-                                    discreteCV =
-                                            new MultiCrossValidation(
-                                                    numTimes,
-                                                    numFolds,
-                                                    numCategories,
-                                                    currDiscDSet,
-                                                    currDiscDSet.data,
-                                                    discreteArray,
-                                                    distMat);
-                                    if (trainTestIndexes == null ||
-                                            trainTestIndexes[datasetIndex] ==
-                                            null) {
-                                        discreteCV.setAllFolds(dsFolds);
-                                    } else {
-                                        discreteCV.setTrainTestIndexes(
-                                                trainTestIndexes[datasetIndex]);
-                                    }
-                                    discreteCV.setExternalContext(
-                                            contextObjects);
-                                }
-                                nonDiscreteCV =
+                            }
+                            contextObjects.setDistances(distMat);
+                            if (discreteExists) {
+                                discreteCV =
                                         new MultiCrossValidation(
                                                 numTimes,
                                                 numFolds,
                                                 numCategories,
-                                                currDSet,
-                                                currDSet.data,
-                                                nonDiscreteArray, distMat);
+                                                currDiscDSet,
+                                                currDiscDSet.data,
+                                                discreteArray,
+                                                distMat);
                                 if (trainTestIndexes == null ||
-                                            trainTestIndexes[datasetIndex] ==
-                                            null) {
-                                    nonDiscreteCV.setAllFolds(dsFolds);
+                                        trainTestIndexes[datasetIndex] ==
+                                        null) {
+                                    discreteCV.setAllFolds(dsFolds);
                                 } else {
-                                    nonDiscreteCV.setTrainTestIndexes(
+                                    discreteCV.setTrainTestIndexes(
                                             trainTestIndexes[datasetIndex]);
                                 }
-                                nonDiscreteCV.setExternalContext(
+                                discreteCV.setExternalContext(
                                         contextObjects);
+                            }
+                            nonDiscreteCV =
+                                    new MultiCrossValidation(
+                                            numTimes,
+                                            numFolds,
+                                            numCategories,
+                                            currDSet,
+                                            currDSet.data,
+                                            nonDiscreteArray, distMat);
+                            if (trainTestIndexes == null ||
+                                        trainTestIndexes[datasetIndex] ==
+                                        null) {
+                                nonDiscreteCV.setAllFolds(dsFolds);
                             } else {
-                                if (discreteExists) {
-                                    discreteCV =
-                                            new MultiCrossValidation(
-                                                    numTimes,
-                                                    numFolds,
-                                                    numCategories,
-                                                    currDiscDSet,
-                                                    currDiscDSet.data,
-                                                    discreteArray);
-                                    if (trainTestIndexes == null ||
-                                            trainTestIndexes[datasetIndex] ==
-                                            null) {
-                                        discreteCV.setAllFolds(dsFolds);
-                                    } else {
-                                        discreteCV.setTrainTestIndexes(
-                                                trainTestIndexes[datasetIndex]);
-                                    }
-                                }
-                                nonDiscreteCV =
+                                nonDiscreteCV.setTrainTestIndexes(
+                                        trainTestIndexes[datasetIndex]);
+                            }
+                            nonDiscreteCV.setExternalContext(
+                                    contextObjects);
+                        } else {
+                            if (discreteExists) {
+                                discreteCV =
                                         new MultiCrossValidation(
                                                 numTimes,
                                                 numFolds,
                                                 numCategories,
-                                                currDSet,
-                                                currDSet.data,
-                                                nonDiscreteArray);
+                                                currDiscDSet,
+                                                currDiscDSet.data,
+                                                discreteArray);
                                 if (trainTestIndexes == null ||
-                                            trainTestIndexes[datasetIndex] ==
-                                            null) {
-                                    nonDiscreteCV.setAllFolds(dsFolds);
+                                        trainTestIndexes[datasetIndex] ==
+                                        null) {
+                                    discreteCV.setAllFolds(dsFolds);
                                 } else {
-                                    nonDiscreteCV.setTrainTestIndexes(
+                                    discreteCV.setTrainTestIndexes(
                                             trainTestIndexes[datasetIndex]);
                                 }
                             }
-                            // First handle the discretized case.
-                            if (discreteExists && discreteCV != null) {
-                                discreteCV.validateOnSeparateLabelArray(
-                                        originalLabels);
-                                discreteCV.useMultipleCommonThreads(
-                                        numCommonThreads);
+                            nonDiscreteCV =
+                                    new MultiCrossValidation(
+                                            numTimes,
+                                            numFolds,
+                                            numCategories,
+                                            currDSet,
+                                            currDSet.data,
+                                            nonDiscreteArray);
+                            if (trainTestIndexes == null ||
+                                        trainTestIndexes[datasetIndex] ==
+                                        null) {
+                                nonDiscreteCV.setAllFolds(dsFolds);
+                            } else {
+                                nonDiscreteCV.setTrainTestIndexes(
+                                        trainTestIndexes[datasetIndex]);
                             }
-                            nonDiscreteCV.validateOnSeparateLabelArray(
+                        }
+                        // First handle the discretized case.
+                        if (discreteExists && discreteCV != null) {
+                            discreteCV.validateOnSeparateLabelArray(
                                     originalLabels);
-                            nonDiscreteCV.useMultipleCommonThreads(
-                                        numCommonThreads);
-                            if (approximateKNNs) {
-                                // In case of approximate kNN set calculations.
-                                if (discreteExists && discreteCV != null) {
-                                    discreteCV.setApproximateKNNParams(
-                                            approximateKNNs, alphaAppKNNs);
-                                }
-                                nonDiscreteCV.setApproximateKNNParams(
-                                        approximateKNNs, alphaAppKNNs);
-                            }
-                            // Performance estimators.
-                            ClassificationEstimator[] avgDiscrete = null;
-                            ClassificationEstimator[][] allDiscreteEstimates =
-                                    null;
+                            discreteCV.useMultipleCommonThreads(
+                                    numCommonThreads);
+                            discreteCV.setTaskPool(taskPool);
+                        }
+                        nonDiscreteCV.validateOnSeparateLabelArray(
+                                originalLabels);
+                        nonDiscreteCV.useMultipleCommonThreads(
+                                    numCommonThreads);
+                        nonDiscreteCV.setTaskPool(taskPool);
+                        if (approximateKNNs) {
+                            // In case of approximate kNN set calculations.
                             if (discreteExists && discreteCV != null) {
-                                // Initialize the cross-validation object.
-                                avgDiscrete = null;
-                                allDiscreteEstimates = null;
-                                if (discreteArray.length > 0) {
-                                    discreteCV.setKValue(k);
-                                    discreteCV.setCombinedMetric(cmet);
-                                    discreteCV.setProtoHubnessMode(
-                                            protoHubnessMode);
-                                    if (selector != null) {
-                                        discreteCV.setDataReducer(
-                                                selector, selectorRate);
-                                    }
-                                    // Perform the tests.
-                                    discreteCV.performAllTests();
-                                    System.out.println();
-                                    if (foldsDir != null) {
-                                        File foldsFile = new File(foldsDir,
-                                                dsFile.getName().substring(0,
-                                                dsFile.getName().lastIndexOf(
-                                                ".")) + "_cv_" + numTimes +
-                                                "_" + numFolds + ".json");
-                                        dsFolds = discreteCV.getAllFolds();
-                                        // We over-write in any case, as the
-                                        // folds might have been loaded
-                                        // externally via OpenML and we might
-                                        // like to save them for future off-line
-                                        // testing.
-                                        System.out.println("Saving the folds "
-                                                + "to:" + foldsFile.getPath());
-                                        CVFoldsIO.saveAllFolds(dsFolds,
-                                                numTimes, numFolds, foldsFile);
-                                    }
-                                    avgDiscrete =
-                                            discreteCV.getAverageResults();
-                                    allDiscreteEstimates =
-                                            discreteCV.getEstimators();
-                                }
+                                discreteCV.setApproximateKNNParams(
+                                        approximateKNNs, alphaAppKNNs);
                             }
-                            // Now the continuous case.
-                            ClassificationEstimator[] avgNonDiscrete = null;
-                            ClassificationEstimator[][] allNonDiscreteEstimates
-                                    = null;
-                            if (nonDiscreteArray.length > 0) {
-                                // Initialize the cross-validation object.
-                                nonDiscreteCV.setKValue(k);
-                                nonDiscreteCV.setCombinedMetric(cmet);
-                                nonDiscreteCV.setProtoHubnessMode(
+                            nonDiscreteCV.setApproximateKNNParams(
+                                    approximateKNNs, alphaAppKNNs);
+                        }
+                        // Performance estimators.
+                        ClassificationEstimator[] avgDiscrete = null;
+                        ClassificationEstimator[][] allDiscreteEstimates =
+                                null;
+                        if (discreteExists && discreteCV != null) {
+                            // Initialize the cross-validation object.
+                            avgDiscrete = null;
+                            allDiscreteEstimates = null;
+                            if (discreteArray.length > 0) {
+                                discreteCV.setKValue(k);
+                                discreteCV.setCombinedMetric(cmet);
+                                discreteCV.setProtoHubnessMode(
                                         protoHubnessMode);
                                 if (selector != null) {
-                                    nonDiscreteCV.setDataReducer(
+                                    discreteCV.setDataReducer(
                                             selector, selectorRate);
                                 }
-                                if (secondaryDistanceType !=
-                                        SecondaryDistance.NONE) {
-                                    nonDiscreteCV.useSecondaryDistances(
-                                            secondaryDistanceType,
-                                            secondaryDistanceK);
-                                }
                                 // Perform the tests.
-                                nonDiscreteCV.performAllTests();
-                                System.out.print("tEstTraining: " + (long) (
-                                        nonDiscreteCV.execTimeAllOneRun));
+                                discreteCV.performAllTests();
                                 System.out.println();
                                 if (foldsDir != null) {
                                     File foldsFile = new File(foldsDir,
                                             dsFile.getName().substring(0,
-                                            dsFile.getName().lastIndexOf(".")) +
-                                            "_cv_" + numTimes + "_" + numFolds +
-                                            ".json");
-                                    dsFolds = nonDiscreteCV.getAllFolds();
-                                    // We over-write in any case, as the folds
-                                    // might have been loaded externally via
-                                    // OpenML and we might like to save them
-                                    // for future off-line testing.
+                                            dsFile.getName().lastIndexOf(
+                                            ".")) + "_cv_" + numTimes +
+                                            "_" + numFolds + ".json");
+                                    dsFolds = discreteCV.getAllFolds();
+                                    // We over-write in any case, as the
+                                    // folds might have been loaded
+                                    // externally via OpenML and we might
+                                    // like to save them for future off-line
+                                    // testing.
                                     System.out.println("Saving the folds "
-                                                + "to:" + foldsFile.getPath());
-                                    CVFoldsIO.saveAllFolds(dsFolds, numTimes,
-                                            numFolds, foldsFile);
+                                            + "to:" + foldsFile.getPath());
+                                    CVFoldsIO.saveAllFolds(dsFolds,
+                                            numTimes, numFolds, foldsFile);
                                 }
-                                avgNonDiscrete =
-                                        nonDiscreteCV.getAverageResults();
-                                allNonDiscreteEstimates =
-                                        nonDiscreteCV.getEstimators();
+                                avgDiscrete =
+                                        discreteCV.getAverageResults();
+                                allDiscreteEstimates =
+                                        discreteCV.getEstimators();
                             }
-                            int discreteCounter = -1;
-                            int nonDiscreteCounter = -1;
-                            float[][][][] allFuzzyPredictionsNonDisc = null;
-                            if (nonDiscreteCV != null) {
-                                allFuzzyPredictionsNonDisc =
-                                    nonDiscreteCV.getAllFuzzyLabelAssignments();
-                                if (dataIndexToOpenMLCounterMap.containsKey(
-                                        datasetIndex)) {
-                                    for (int algIndex = 0; algIndex < 
-                                            nonDiscreteArray.length; algIndex++) {
-                                        ClassificationResultHandler handler =
-                                                new ClassificationResultHandler
-                                                (openmlConnector.getConnector(),
-                                                hubMinerSourceDir, currDSet,
-                                                classNames[datasetIndex]);
-                                        handler.uploadClassificationResults(
-                                                openmlConnector.getTaskForTaskID(
-                                                    openMLTaskIDList.get(
-                                                    dataIndexToOpenMLCounterMap.get(
-                                                    datasetIndex))),
-                                                    nonDiscreteArray[algIndex],
-                                                algIndex,
-                                                ClassifierParametrization.
-                                                    getClassifierParameterStringValues(
-                                                    nonDiscreteArray[algIndex]),
-                                                numTimes,
-                                                numFolds,
-                                                trainTestIndexes[datasetIndex],
-                                                allFuzzyPredictionsNonDisc);
-                                    }
-                                }
+                        }
+                        // Now the continuous case.
+                        ClassificationEstimator[] avgNonDiscrete = null;
+                        ClassificationEstimator[][] allNonDiscreteEstimates
+                                = null;
+                        if (nonDiscreteArray.length > 0) {
+                            // Initialize the cross-validation object.
+                            nonDiscreteCV.setKValue(k);
+                            nonDiscreteCV.setCombinedMetric(cmet);
+                            nonDiscreteCV.setProtoHubnessMode(
+                                    protoHubnessMode);
+                            if (selector != null) {
+                                nonDiscreteCV.setDataReducer(
+                                        selector, selectorRate);
                             }
-                            float[][][][] allFuzzyPredictionsDisc = null;
-                            if (discreteCV != null) {
-                                allFuzzyPredictionsDisc =
-                                    discreteCV.getAllFuzzyLabelAssignments();
-                                if (dataIndexToOpenMLCounterMap.containsKey(
-                                        datasetIndex)) {
-                                    for (int algIndex = 0; algIndex < 
-                                            discreteArray.length; algIndex++) {
-                                        ClassificationResultHandler handler =
-                                                new ClassificationResultHandler
-                                                (openmlConnector.getConnector(),
-                                                hubMinerSourceDir, currDSet,
-                                                classNames[datasetIndex]);
-                                        handler.uploadClassificationResults(
-                                                openmlConnector.getTaskForTaskID(
-                                                    openMLTaskIDList.get(
-                                                    dataIndexToOpenMLCounterMap.get(
-                                                    datasetIndex))),
-                                                    discreteArray[algIndex],
-                                                algIndex,
-                                                ClassifierParametrization.
-                                                    getClassifierParameterStringValues(
-                                                    discreteArray[algIndex]),
-                                                numTimes,
-                                                numFolds,
-                                                trainTestIndexes[datasetIndex],
-                                                allFuzzyPredictionsDisc);
-                                    }
+                            if (secondaryDistanceType !=
+                                    SecondaryDistance.NONE) {
+                                nonDiscreteCV.useSecondaryDistances(
+                                        secondaryDistanceType,
+                                        secondaryDistanceK);
+                            }
+                            // Perform the tests.
+                            nonDiscreteCV.performAllTests();
+                            System.out.print("tEstTraining: " + (long) (
+                                    nonDiscreteCV.execTimeAllOneRun));
+                            System.out.println();
+                            if (foldsDir != null) {
+                                File foldsFile = new File(foldsDir,
+                                        dsFile.getName().substring(0,
+                                        dsFile.getName().lastIndexOf(".")) +
+                                        "_cv_" + numTimes + "_" + numFolds +
+                                        ".json");
+                                dsFolds = nonDiscreteCV.getAllFolds();
+                                // We over-write in any case, as the folds
+                                // might have been loaded externally via
+                                // OpenML and we might like to save them
+                                // for future off-line testing.
+                                System.out.println("Saving the folds "
+                                            + "to:" + foldsFile.getPath());
+                                CVFoldsIO.saveAllFolds(dsFolds, numTimes,
+                                        numFolds, foldsFile);
+                            }
+                            avgNonDiscrete =
+                                    nonDiscreteCV.getAverageResults();
+                            allNonDiscreteEstimates =
+                                    nonDiscreteCV.getEstimators();
+                        }
+                        int discreteCounter = -1;
+                        int nonDiscreteCounter = -1;
+                        float[][][][] allFuzzyPredictionsNonDisc = null;
+                        if (nonDiscreteCV != null) {
+                            allFuzzyPredictionsNonDisc =
+                                nonDiscreteCV.getAllFuzzyLabelAssignments();
+                            if (dataIndexToOpenMLCounterMap.containsKey(
+                                    datasetIndex)) {
+                                for (int algIndex = 0; algIndex < 
+                                        nonDiscreteArray.length; algIndex++) {
+                                    ClassificationResultHandler handler =
+                                            new ClassificationResultHandler
+                                            (openmlConnector.getConnector(),
+                                            hubMinerSourceDir, currDSet,
+                                            classNames[datasetIndex]);
+                                    handler.uploadClassificationResults(
+                                            openmlConnector.getTaskForTaskID(
+                                                openMLTaskIDList.get(
+                                                dataIndexToOpenMLCounterMap.get(
+                                                datasetIndex))),
+                                                nonDiscreteArray[algIndex],
+                                            algIndex,
+                                            ClassifierParametrization.
+                                                getClassifierParameterStringValues(
+                                                nonDiscreteArray[algIndex]),
+                                            numTimes,
+                                            numFolds,
+                                            trainTestIndexes[datasetIndex],
+                                            allFuzzyPredictionsNonDisc);
                                 }
                             }
-                            float[][][] averageFuzzyPredictions =
-                                    new float[classifierNames.size()][
-                                            currDSet.size()][numCategories];
-                            // Persist the average classifier performance
-                            // indicators.
-                            for (int cIndex = 0; cIndex <
-                                    classifierNames.size(); cIndex++) {
-                                File outAlgDir;
-                                if (secondaryDistanceType ==
-                                        SecondaryDistance.NONE) {
-                                    outAlgDir = new File(currOutDSDir,
-                                            classifierNames.get(cIndex));
-                                } else {
-                                    outAlgDir = new File(currOutDSDir,
-                                            classifierNames.get(cIndex) +
-                                            getSecondaryDistanceName(
-                                            secondaryDistanceType));
+                        }
+                        float[][][][] allFuzzyPredictionsDisc = null;
+                        if (discreteCV != null) {
+                            allFuzzyPredictionsDisc =
+                                discreteCV.getAllFuzzyLabelAssignments();
+                            if (dataIndexToOpenMLCounterMap.containsKey(
+                                    datasetIndex)) {
+                                for (int algIndex = 0; algIndex < 
+                                        discreteArray.length; algIndex++) {
+                                    ClassificationResultHandler handler =
+                                            new ClassificationResultHandler
+                                            (openmlConnector.getConnector(),
+                                            hubMinerSourceDir, currDSet,
+                                            classNames[datasetIndex]);
+                                    handler.uploadClassificationResults(
+                                            openmlConnector.getTaskForTaskID(
+                                                openMLTaskIDList.get(
+                                                dataIndexToOpenMLCounterMap.get(
+                                                datasetIndex))),
+                                                discreteArray[algIndex],
+                                            algIndex,
+                                            ClassifierParametrization.
+                                                getClassifierParameterStringValues(
+                                                discreteArray[algIndex]),
+                                            numTimes,
+                                            numFolds,
+                                            trainTestIndexes[datasetIndex],
+                                            allFuzzyPredictionsDisc);
                                 }
-                                if (isDiscreteAlgorithm[cIndex]) {
-                                    discreteCounter++;
-                                    for (int i = 0; i < currDSet.size(); i++) {
-                                        for (int c = 0; c < numCategories;
-                                                c++) {
-                                            for (int rep = 0; rep < numTimes;
-                                                    rep++) {
-                                                averageFuzzyPredictions[cIndex][
-                                                        i][c] +=
-                                                        allFuzzyPredictionsDisc[
-                                                        discreteCounter][
-                                                        rep][i][c];
-                                            }
+                            }
+                        }
+                        float[][][] averageFuzzyPredictions =
+                                new float[classifierNames.size()][
+                                        currDSet.size()][numCategories];
+                        // Persist the average classifier performance
+                        // indicators.
+                        for (int cIndex = 0; cIndex <
+                                classifierNames.size(); cIndex++) {
+                            File outAlgDir;
+                            if (secondaryDistanceType ==
+                                    SecondaryDistance.NONE) {
+                                outAlgDir = new File(currOutDSDir,
+                                        classifierNames.get(cIndex));
+                            } else {
+                                outAlgDir = new File(currOutDSDir,
+                                        classifierNames.get(cIndex) +
+                                        getSecondaryDistanceName(
+                                        secondaryDistanceType));
+                            }
+                            if (isDiscreteAlgorithm[cIndex]) {
+                                discreteCounter++;
+                                for (int i = 0; i < currDSet.size(); i++) {
+                                    for (int c = 0; c < numCategories;
+                                            c++) {
+                                        for (int rep = 0; rep < numTimes;
+                                                rep++) {
+                                            averageFuzzyPredictions[cIndex][
+                                                    i][c] +=
+                                                    allFuzzyPredictionsDisc[
+                                                    discreteCounter][
+                                                    rep][i][c];
                                         }
                                     }
-                                    for (int i = 0; i < currDSet.size(); i++) {
-                                        for (int c = 0; c < numCategories;
-                                                c++) {
-                                            averageFuzzyPredictions[cIndex][i][
-                                                    c] /= numTimes;
-                                        }
+                                }
+                                for (int i = 0; i < currDSet.size(); i++) {
+                                    for (int c = 0; c < numCategories;
+                                            c++) {
+                                        averageFuzzyPredictions[cIndex][i][
+                                                c] /= numTimes;
                                     }
-                                    avgDiscrete[discreteCounter].
-                                            printEstimatorToFile(new File(
-                                            outAlgDir, "avg.txt"));
-                                    ClassificationEstimator.
-                                            printMainPointsOfEstimatorsToFile(
-                                            allDiscreteEstimates[
-                                            discreteCounter], new File(
-                                            outAlgDir, "allSummed.txt"));
-                                    ClassificationEstimator.
-                                            appendMainPointsStDevsToFile(
-                                            allDiscreteEstimates[
-                                            discreteCounter], new File(
-                                            outAlgDir, "avg.txt"));
-                                    for (int j = 0; j < allDiscreteEstimates[
-                                            discreteCounter].length; j++) {
+                                }
+                                avgDiscrete[discreteCounter].
+                                        printEstimatorToFile(new File(
+                                        outAlgDir, "avg.txt"));
+                                ClassificationEstimator.
+                                        printMainPointsOfEstimatorsToFile(
                                         allDiscreteEstimates[
-                                                discreteCounter][j].
-                                                printEstimatorToFile(
-                                                new File(new File(
-                                                outAlgDir, "all"), "run" + j +
-                                                ".txt"));
-                                    }
-                                } else {
-                                    nonDiscreteCounter++;
-                                    for (int i = 0; i < currDSet.size(); i++) {
-                                        for (int c = 0; c < numCategories;
-                                                c++) {
-                                            for (int rep = 0; rep < numTimes;
-                                                    rep++) {
-                                                averageFuzzyPredictions[cIndex][
-                                                        i][c] +=
-                                                        allFuzzyPredictionsNonDisc[
-                                                        nonDiscreteCounter][
-                                                        rep][i][c];
-                                            }
+                                        discreteCounter], new File(
+                                        outAlgDir, "allSummed.txt"));
+                                ClassificationEstimator.
+                                        appendMainPointsStDevsToFile(
+                                        allDiscreteEstimates[
+                                        discreteCounter], new File(
+                                        outAlgDir, "avg.txt"));
+                                for (int j = 0; j < allDiscreteEstimates[
+                                        discreteCounter].length; j++) {
+                                    allDiscreteEstimates[
+                                            discreteCounter][j].
+                                            printEstimatorToFile(
+                                            new File(new File(
+                                            outAlgDir, "all"), "run" + j +
+                                            ".txt"));
+                                }
+                            } else {
+                                nonDiscreteCounter++;
+                                for (int i = 0; i < currDSet.size(); i++) {
+                                    for (int c = 0; c < numCategories;
+                                            c++) {
+                                        for (int rep = 0; rep < numTimes;
+                                                rep++) {
+                                            averageFuzzyPredictions[cIndex][
+                                                    i][c] +=
+                                                    allFuzzyPredictionsNonDisc[
+                                                    nonDiscreteCounter][
+                                                    rep][i][c];
                                         }
                                     }
-                                    for (int i = 0; i < currDSet.size(); i++) {
-                                        for (int c = 0; c < numCategories;
-                                                c++) {
-                                            averageFuzzyPredictions[cIndex][i][
-                                                    c] /= numTimes;
-                                        }
+                                }
+                                for (int i = 0; i < currDSet.size(); i++) {
+                                    for (int c = 0; c < numCategories;
+                                            c++) {
+                                        averageFuzzyPredictions[cIndex][i][
+                                                c] /= numTimes;
                                     }
-                                    avgNonDiscrete[nonDiscreteCounter].
-                                            printEstimatorToFile(
-                                            new File(outAlgDir, "avg.txt"));
-                                    ClassificationEstimator.
-                                            printMainPointsOfEstimatorsToFile(
-                                            allNonDiscreteEstimates[
-                                            nonDiscreteCounter], new File(
-                                            outAlgDir, "allSummed.txt"));
-                                    ClassificationEstimator.
-                                            appendMainPointsStDevsToFile(
-                                            allNonDiscreteEstimates[
-                                            nonDiscreteCounter], new File(
-                                            outAlgDir, "avg.txt"));
-                                    for (int j = 0; j < allNonDiscreteEstimates[
-                                            nonDiscreteCounter].length; j++) {
+                                }
+                                avgNonDiscrete[nonDiscreteCounter].
+                                        printEstimatorToFile(
+                                        new File(outAlgDir, "avg.txt"));
+                                ClassificationEstimator.
+                                        printMainPointsOfEstimatorsToFile(
                                         allNonDiscreteEstimates[
-                                                nonDiscreteCounter][j].
-                                                printEstimatorToFile(new File(
-                                                new File(outAlgDir, "all"),
-                                                "run" + j + ".txt"));
-                                    }
+                                        nonDiscreteCounter], new File(
+                                        outAlgDir, "allSummed.txt"));
+                                ClassificationEstimator.
+                                        appendMainPointsStDevsToFile(
+                                        allNonDiscreteEstimates[
+                                        nonDiscreteCounter], new File(
+                                        outAlgDir, "avg.txt"));
+                                for (int j = 0; j < allNonDiscreteEstimates[
+                                        nonDiscreteCounter].length; j++) {
+                                    allNonDiscreteEstimates[
+                                            nonDiscreteCounter][j].
+                                            printEstimatorToFile(new File(
+                                            new File(outAlgDir, "all"),
+                                            "run" + j + ".txt"));
                                 }
-                                // Persist all fuzzy classifications as json.
-                                Gson gson = new Gson();
-                                String jsonAssignmentsString = gson.toJson(
-                                        averageFuzzyPredictions[cIndex],
-                                        float[][].class);
-                                File outFuzzyLabelAssignmentsFile = new File(
-                                        outAlgDir,
-                                        "avgProbClassAssignments.json");
-                                FileUtil.createFile(
-                                        outFuzzyLabelAssignmentsFile);
-                                try (PrintWriter pw = new PrintWriter(
-                                        new FileWriter(
-                                        outFuzzyLabelAssignmentsFile))) {
-                                    pw.write(jsonAssignmentsString);
-                                } catch (Exception e) {
-                                    throw e;
-                                }   
                             }
+                            // Persist all fuzzy classifications as json.
+                            Gson gson = new Gson();
+                            String jsonAssignmentsString = gson.toJson(
+                                    averageFuzzyPredictions[cIndex],
+                                    float[][].class);
+                            File outFuzzyLabelAssignmentsFile = new File(
+                                    outAlgDir,
+                                    "avgProbClassAssignments.json");
+                            FileUtil.createFile(
+                                    outFuzzyLabelAssignmentsFile);
+                            try (PrintWriter pw = new PrintWriter(
+                                    new FileWriter(
+                                    outFuzzyLabelAssignmentsFile))) {
+                                pw.write(jsonAssignmentsString);
+                            } catch (Exception e) {
+                                throw e;
+                            }   
                         }
                     }
                 }
-                distMat = null;
-                contextObjects = null;
             }
-            datasetIndex++;
-            System.gc();
-        }
-        if (summaryDir != null) {
-            BatchStatSummarizer summarizer =
-                    new BatchStatSummarizer(outDir, summaryDir, numTimes,
-                    numFolds);
-            summarizer.summarize();
+            distMat = null;
+            contextObjects = null;
         }
     }
 
@@ -1171,6 +1252,9 @@ public class BatchClassifierTester {
         selectorRate = conf.selectorRate;
         protoHubnessMode = conf.protoHubnessMode;
         numCommonThreads = conf.numCommonThreads;
+        numConcurrentDataSets = conf.numConcurrentDataSets;
+        cacheDir = conf.cacheDir;
+        cacheMaxBytes = conf.cacheMaxBytes;
         openmlConnector = conf.getOpenMLConnector();
         trainTestIndexes = conf.trainTestIndexes;
         hubMinerSourceDir = conf.hubMinerSourceDir;
@@ -1180,6 +1264,23 @@ public class BatchClassifierTester {
         classNames = conf.classNames;
     }
 
+    /**
+     * This method creates a tester with the same experimental configuration,
+     * used for testing several datasets concurrently.
+     *
+     * @return BatchClassifierTester with the same configuration.
+     */
+    private BatchClassifierTester copyConfiguration() {
+        try {
+            // The shallow copy shares the configuration, which is not modified
+            // by the tests. The per-dataset state is only ever set on the
+            // copies, so each copy starts clean.
+            return (BatchClassifierTester) clone();
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     /**
      * This method loads the experimental configuration from the configuration
      * file.
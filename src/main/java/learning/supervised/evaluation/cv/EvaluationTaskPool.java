@@ -0,0 +1,307 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.supervised.evaluation.cv;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * This class is a shared work-stealing pool for the evaluation tasks in the
+ * cross-validation framework, such as testing one algorithm on one fold or
+ * running the experiments on one dataset. Tasks submitted from within the pool
+ * are forked onto the local queue of the submitting worker, so that nested
+ * tasks are stolen by the idle workers and the waiting tasks help with the
+ * execution. The pool also controls the admission of memory-intensive work,
+ * like the fold distance matrices and kNN sets, against a memory budget, and
+ * keeps track of the queueing and execution times of all tasks.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class EvaluationTaskPool {
+
+    // The default number of the most recent task timings to keep.
+    public static final int DEFAULT_MAX_TASK_TIMINGS = 10000;
+    private ForkJoinPool pool;
+    private int numThreads;
+    // The memory budget for the admitted work, in bytes.
+    private long memoryBudget;
+    private long memoryInUse = 0;
+    private final Object memoryLock = new Object();
+    // The timing information of the most recently completed tasks, as the
+    // pool may be shared by long batch runs.
+    private final ArrayDeque<TaskTiming> taskTimings = new ArrayDeque<>(100);
+    private int maxTaskTimings = DEFAULT_MAX_TASK_TIMINGS;
+    private long numCompletedTasks = 0;
+
+    /**
+     * Initialization. The memory budget is set to half of the maximum heap
+     * size.
+     *
+     * @param numThreads Integer that is the number of worker threads.
+     */
+    public EvaluationTaskPool(int numThreads) {
+        this(numThreads, Runtime.getRuntime().maxMemory() / 2);
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param numThreads Integer that is the number of worker threads.
+     * @param memoryBudget Long that is the memory budget for the admitted work,
+     * in bytes.
+     */
+    public EvaluationTaskPool(int numThreads, long memoryBudget) {
+        this.numThreads = Math.max(1, numThreads);
+        this.memoryBudget = memoryBudget;
+        pool = new ForkJoinPool(this.numThreads);
+    }
+
+    /**
+     * @return Integer that is the number of worker threads.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @return Long that is the memory budget for the admitted work, in bytes.
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return Long that is the currently admitted amount of memory, in bytes.
+     */
+    public long getMemoryInUse() {
+        synchronized (memoryLock) {
+            return memoryInUse;
+        }
+    }
+
+    /**
+     * This method submits a task for execution.
+     *
+     * @param taskName String that is the task name, used in the timing
+     * information.
+     * @param task Runnable that is the task to execute.
+     * @return ForkJoinTask that can be used to wait for the task.
+     */
+    public ForkJoinTask<?> submit(final String taskName, final Runnable task) {
+        final long submitTime = System.nanoTime();
+        ForkJoinTask<?> fjTask = ForkJoinTask.adapt(new Runnable() {
+            @Override
+            public void run() {
+                long startTime = System.nanoTime();
+                try {
+                    task.run();
+                } finally {
+                    long endTime = System.nanoTime();
+                    synchronized (taskTimings) {
+                        numCompletedTasks++;
+                        if (maxTaskTimings > 0) {
+                            if (taskTimings.size() >= maxTaskTimings) {
+                                taskTimings.pollFirst();
+                            }
+                            taskTimings.addLast(new TaskTiming(taskName,
+                                    startTime - submitTime,
+                                    endTime - startTime));
+                        }
+                    }
+                }
+            }
+        });
+        if (ForkJoinTask.getPool() == pool) {
+            fjTask.fork();
+        } else {
+            pool.execute(fjTask);
+        }
+        return fjTask;
+    }
+
+    /**
+     * This method waits for all the provided tasks to complete. Tasks that
+     * are still queued may be executed by the calling thread in the meantime.
+     *
+     * @param tasks List of ForkJoinTask objects to wait for.
+     * @throws Exception if any of the tasks threw an exception.
+     */
+    public static void awaitAll(List<ForkJoinTask<?>> tasks) throws Exception {
+        Throwable firstError = null;
+        for (ForkJoinTask<?> task : tasks) {
+            task.quietlyJoin();
+            if (task.isCompletedAbnormally() && firstError == null) {
+                firstError = task.getException();
+            }
+        }
+        if (firstError instanceof Exception) {
+            throw (Exception) firstError;
+        } else if (firstError != null) {
+            throw new Exception(firstError);
+        }
+    }
+
+    /**
+     * This method blocks until the requested amount of memory can be
+     * admitted within the budget. A request is always admitted when nothing
+     * else is, so that requests larger than the budget do not block forever.
+     * When called from a pool worker, the pool may activate a spare worker
+     * while this one is blocked.
+     *
+     * @param bytes Long that is the requested amount of memory, in bytes.
+     * @throws InterruptedException
+     */
+    public void acquireMemory(final long bytes) throws InterruptedException {
+        ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+            @Override
+            public boolean block() throws InterruptedException {
+                synchronized (memoryLock) {
+                    while (!tryAdmit(bytes)) {
+                        memoryLock.wait();
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public boolean isReleasable() {
+                synchronized (memoryLock) {
+                    return tryAdmit(bytes);
+                }
+            }
+        });
+    }
+
+    /**
+     * This method admits the requested memory if it fits within the budget.
+     * It must be called while holding the memory lock.
+     *
+     * @param bytes Long that is the requested amount of memory, in bytes.
+     * @return True if the memory was admitted, false otherwise.
+     */
+    private boolean tryAdmit(long bytes) {
+        if (memoryInUse == 0 || memoryInUse + bytes <= memoryBudget) {
+            memoryInUse += bytes;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * This method releases the previously admitted memory.
+     *
+     * @param bytes Long that is the amount of memory to release, in bytes.
+     */
+    public void releaseMemory(long bytes) {
+        synchronized (memoryLock) {
+            memoryInUse = Math.max(0, memoryInUse - bytes);
+            memoryLock.notifyAll();
+        }
+    }
+
+    /**
+     * @return ArrayList<TaskTiming> of the timing information of the most
+     * recently completed tasks, in the order of their completion.
+     */
+    public ArrayList<TaskTiming> getTaskTimings() {
+        synchronized (taskTimings) {
+            return new ArrayList<>(taskTimings);
+        }
+    }
+
+    /**
+     * @param maxTaskTimings Integer that is the maximum number of the most
+     * recent task timings to keep. Zero disables the timing records.
+     */
+    public void setMaxTaskTimings(int maxTaskTimings) {
+        synchronized (taskTimings) {
+            this.maxTaskTimings = Math.max(0, maxTaskTimings);
+            while (taskTimings.size() > this.maxTaskTimings) {
+                taskTimings.pollFirst();
+            }
+        }
+    }
+
+    /**
+     * @return Long that is the total number of completed tasks, including the
+     * ones whose timings are no longer kept.
+     */
+    public long getNumCompletedTasks() {
+        synchronized (taskTimings) {
+            return numCompletedTasks;
+        }
+    }
+
+    /**
+     * This method shuts the pool down, after the already submitted tasks are
+     * completed.
+     */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /**
+     * This class holds the timing information of a single task.
+     */
+    public static class TaskTiming {
+
+        private String taskName;
+        private long queueTimeNanos;
+        private long execTimeNanos;
+
+        /**
+         * Initialization.
+         *
+         * @param taskName String that is the task name.
+         * @param queueTimeNanos Long that is the time the task spent waiting
+         * for execution, in nanoseconds.
+         * @param execTimeNanos Long that is the execution time of the task, in
+         * nanoseconds.
+         */
+        public TaskTiming(String taskName, long queueTimeNanos,
+                long execTimeNanos) {
+            this.taskName = taskName;
+            this.queueTimeNanos = queueTimeNanos;
+            this.execTimeNanos = execTimeNanos;
+        }
+
+        /**
+         * @return String that is the task name.
+         */
+        public String getTaskName() {
+            return taskName;
+        }
+
+        /**
+         * @return Long that is the time the task spent waiting for execution,
+         * in nanoseconds.
+         */
+        public long getQueueTimeNanos() {
+            return queueTimeNanos;
+        }
+
+        /**
+         * @return Long that is the execution time of the task, in nanoseconds.
+         */
+        public long getExecTimeNanos() {
+            return execTimeNanos;
+        }
+    }
+}
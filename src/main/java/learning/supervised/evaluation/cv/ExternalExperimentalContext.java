@@ -18,10 +18,15 @@
 package learning.supervised.evaluation.cv;
 
 import data.neighbors.NeighborSetFinder;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import ioformat.ComputationCache;
 
 /**
  * Objects of this class may represent some externally-calculated useful shared
  * objects, like the distance matrix and the primary k-nearest neighbor sets.
+ * If a persistent computation cache is set, the objects that are not available
+ * are looked up in the cache and the newly set objects are persisted to it.
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
 public class ExternalExperimentalContext {
@@ -30,6 +35,12 @@ public class ExternalExperimentalContext {
     private float[][] primaryDMat;
     // kNN sets in the primary metric, on the entire data.
     private NeighborSetFinder primaryNSF;
+    // The persistent computation cache and the data and metric that the cache
+    // entries are looked up for.
+    private ComputationCache cache;
+    private DataSet dset;
+    private CombinedMetric cmet;
+    private String dataHash;
     
     /**
      * Initialization.
@@ -52,10 +63,49 @@ public class ExternalExperimentalContext {
         this.primaryNSF = primaryNSF;
     }
     
+    /**
+     * This method sets the persistent computation cache to use.
+     * 
+     * @param cache ComputationCache object that is the persistent cache.
+     * @param dset DataSet object that is the entire data.
+     * @param cmet CombinedMetric object that is the primary metric.
+     * @throws Exception 
+     */
+    public void setCache(ComputationCache cache, DataSet dset,
+            CombinedMetric cmet) throws Exception {
+        this.cache = cache;
+        this.dset = dset;
+        this.cmet = cmet;
+        dataHash = cache != null ? ComputationCache.hashDataSet(dset) : null;
+    }
+    
+    /**
+     * @return ComputationCache object that is the persistent cache, or null if
+     * none is used.
+     */
+    public ComputationCache getCache() {
+        return cache;
+    }
+    
+    /**
+     * @return String that is the hash of the data content, if a cache is used.
+     */
+    public String getDataHash() {
+        return dataHash;
+    }
+    
     /**
      * @return float[][] representing the distance matrix on the entire data.
      */
     public float[][] getDistances() {
+        if (primaryDMat == null && cache != null) {
+            try {
+                primaryDMat = cache.getDistances(
+                        ComputationCache.getDistanceKey(dataHash, cmet));
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+            }
+        }
         return primaryDMat;
     }
     
@@ -65,6 +115,14 @@ public class ExternalExperimentalContext {
      */
     public void setDistances(float[][] primaryDMat) {
         this.primaryDMat = primaryDMat;
+        if (primaryDMat != null && cache != null) {
+            try {
+                cache.putDistances(ComputationCache.getDistanceKey(dataHash,
+                        cmet), primaryDMat);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+            }
+        }
     }
     
     /**
@@ -73,6 +131,15 @@ public class ExternalExperimentalContext {
      * needed. 
      */
     public NeighborSetFinder getNeighborSets() {
+        if (primaryNSF == null && cache != null) {
+            try {
+                primaryNSF = cache.getNeighborSets(
+                        ComputationCache.getNeighborSetKey(dataHash, cmet),
+                        dset, getDistances(), cmet, 1);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+            }
+        }
         return primaryNSF;
     }
     
@@ -82,7 +149,26 @@ public class ExternalExperimentalContext {
      * k-value that is needed. 
      */
     public void setNeighborSets(NeighborSetFinder primaryNSF) {
+        setNeighborSets(primaryNSF, true);
+    }
+    
+    /**
+     * @param primaryNSF NeighborSetFinder object holding the kNN sets
+     * calculated in the primary metric, on the entire data, for the largest
+     * k-value that is needed.
+     * @param exact Boolean flag indicating whether the kNN sets are exact, in
+     * which case they are also persisted to the cache, if it is used.
+     */
+    public void setNeighborSets(NeighborSetFinder primaryNSF, boolean exact) {
         this.primaryNSF = primaryNSF;
+        if (exact && primaryNSF != null && cache != null) {
+            try {
+                cache.putNeighborSets(ComputationCache.getNeighborSetKey(
+                        dataHash, cmet), primaryNSF);
+            } catch (Exception e) {
+                System.err.println(e.getMessage());
+            }
+        }
     }
     
 }
\ No newline at end of file
@@ -0,0 +1,315 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.supervised.evaluation.cv;
+
+import data.neighbors.NeighborSetFinder;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * This class restricts the global kNN sets to the training part of a
+ * cross-validation split. The global neighbor lists are sorted by distance, so
+ * the restricted kNN set of a point is simply the first k of its global
+ * neighbors that belong to the training set. The training set membership is
+ * kept in a bitset and the index mapping in a reusable array, so that
+ * switching folds costs time proportional to the fold size. Only the points
+ * whose global lists do not contain enough training neighbors are handled by a
+ * scan over the training data. The occurrence statistics are left to the
+ * NeighborSetFinder that receives the restricted kNN sets.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class FoldNeighborRestrictor {
+
+    // The global kNN sets and k-distances, sorted by distance.
+    private int[][] kNeighborsGlobal;
+    private float[][] kDistancesGlobal;
+    // The training set membership bitset for the current split.
+    private long[] trainingMembership;
+    // Maps the global indexes to the training indexes, -1 for non-members.
+    private int[] globalToTraining;
+    private int[] trainingIndexes;
+    // The fold-restricted kNN sets.
+    private int[][] kNeighbors;
+    private float[][] kDistances;
+    // The number of points that required a scan over the training data in the
+    // last restriction.
+    private int numScannedPoints = 0;
+
+    /**
+     * Initialization.
+     *
+     * @param bigNSF NeighborSetFinder object holding the global kNN sets.
+     */
+    public FoldNeighborRestrictor(NeighborSetFinder bigNSF) {
+        this(bigNSF.getKNeighbors(), bigNSF.getKDistances());
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param kNeighborsGlobal int[][] representing the global kNN sets, sorted
+     * by distance.
+     * @param kDistancesGlobal float[][] representing the global k-distances.
+     */
+    public FoldNeighborRestrictor(int[][] kNeighborsGlobal,
+            float[][] kDistancesGlobal) {
+        this.kNeighborsGlobal = kNeighborsGlobal;
+        this.kDistancesGlobal = kDistancesGlobal;
+        int size = kNeighborsGlobal.length;
+        trainingMembership = new long[(size + 63) >>> 6];
+        globalToTraining = new int[size];
+        Arrays.fill(globalToTraining, -1);
+    }
+
+    /**
+     * This method sets the training indexes of the current split, clearing
+     * the membership information of the previous split.
+     *
+     * @param trainingIndexes ArrayList<Integer> representing the global
+     * indexes of the training points, in the order that defines the training
+     * indexes.
+     */
+    public void setTrainingIndexes(ArrayList<Integer> trainingIndexes) {
+        if (this.trainingIndexes != null) {
+            for (int globalIndex : this.trainingIndexes) {
+                trainingMembership[globalIndex >>> 6] = 0;
+                globalToTraining[globalIndex] = -1;
+            }
+        }
+        this.trainingIndexes = new int[trainingIndexes.size()];
+        for (int i = 0; i < this.trainingIndexes.length; i++) {
+            int globalIndex = trainingIndexes.get(i);
+            this.trainingIndexes[i] = globalIndex;
+            trainingMembership[globalIndex >>> 6] |= 1L << globalIndex;
+            globalToTraining[globalIndex] = i;
+        }
+    }
+
+    /**
+     * @param trainingIndexes ArrayList<Integer> representing the global
+     * indexes of the training points.
+     * @return True if the current split has the same training indexes, in the
+     * same order.
+     */
+    public boolean hasTrainingIndexes(ArrayList<Integer> trainingIndexes) {
+        if (this.trainingIndexes == null
+                || this.trainingIndexes.length != trainingIndexes.size()) {
+            return false;
+        }
+        for (int i = 0; i < this.trainingIndexes.length; i++) {
+            if (this.trainingIndexes[i] != trainingIndexes.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param globalIndex Integer that is the global point index.
+     * @return True if the point belongs to the current training set.
+     */
+    public boolean isInTraining(int globalIndex) {
+        return (trainingMembership[globalIndex >>> 6] &
+                (1L << globalIndex)) != 0;
+    }
+
+    /**
+     * @param globalIndex Integer that is the global point index.
+     * @return Integer that is the training index of the point, or -1 if the
+     * point is not in the current training set.
+     */
+    public int getTrainingIndex(int globalIndex) {
+        return globalToTraining[globalIndex];
+    }
+
+    /**
+     * This method restricts the kNN sets of the current training points to
+     * the training set.
+     *
+     * @param k Integer that is the neighborhood size.
+     * @param foldDistMat float[][] that is the upper triangular distance matrix
+     * on the training data, used for the points that do not have enough
+     * training neighbors in their global lists.
+     */
+    public void restrictTrainingNeighbors(int k, float[][] foldDistMat) {
+        int trainSize = trainingIndexes.length;
+        kNeighbors = new int[trainSize][k];
+        kDistances = new float[trainSize][k];
+        numScannedPoints = 0;
+        for (int i = 0; i < trainSize; i++) {
+            int kIndex = filterGlobalList(trainingIndexes[i], k,
+                    kNeighbors[i], kDistances[i]);
+            if (kIndex < k) {
+                numScannedPoints++;
+                scanTrainingRow(i, k, foldDistMat, kNeighbors[i],
+                        kDistances[i]);
+            }
+        }
+    }
+
+    /**
+     * This method restricts the kNN sets of the test points to the current
+     * training set.
+     *
+     * @param testIndexes ArrayList<Integer> representing the global indexes of
+     * the test points.
+     * @param k Integer that is the neighborhood size.
+     * @param pointDistances float[][] representing the distances between the
+     * test and training points, used for the points that do not have enough
+     * training neighbors in their global lists.
+     * @return int[][] representing the kNN sets of the test points, as training
+     * indexes.
+     */
+    public int[][] restrictTestNeighbors(ArrayList<Integer> testIndexes, int k,
+            float[][] pointDistances) {
+        int[][] testNeighbors = new int[testIndexes.size()][k];
+        float[] testDistances = new float[k];
+        numScannedPoints = 0;
+        for (int i = 0; i < testIndexes.size(); i++) {
+            int kIndex = filterGlobalList(testIndexes.get(i), k,
+                    testNeighbors[i], testDistances);
+            if (kIndex < k) {
+                numScannedPoints++;
+                scanTestRow(pointDistances[i], k, testNeighbors[i],
+                        testDistances);
+            }
+        }
+        return testNeighbors;
+    }
+
+    /**
+     * This method takes the first training neighbors from the global kNN list.
+     *
+     * @param globalIndex Integer that is the global point index.
+     * @param k Integer that is the neighborhood size.
+     * @param neighbors int[] to fill with the training indexes of neighbors.
+     * @param distances float[] to fill with the neighbor distances.
+     * @return Integer that is the number of neighbors found.
+     */
+    private int filterGlobalList(int globalIndex, int k, int[] neighbors,
+            float[] distances) {
+        int[] globalList = kNeighborsGlobal[globalIndex];
+        float[] globalDists = kDistancesGlobal[globalIndex];
+        int kIndex = 0;
+        for (int index = 0; index < globalList.length && kIndex < k;
+                index++) {
+            int neighbor = globalList[index];
+            if ((trainingMembership[neighbor >>> 6] & (1L << neighbor)) != 0
+                    && neighbor != globalIndex) {
+                neighbors[kIndex] = globalToTraining[neighbor];
+                distances[kIndex] = globalDists[index];
+                kIndex++;
+            }
+        }
+        return kIndex;
+    }
+
+    /**
+     * This method finds the kNN set of a training point by a scan over the
+     * training data.
+     *
+     * @param i Integer that is the training index of the point.
+     * @param k Integer that is the neighborhood size.
+     * @param foldDistMat float[][] that is the upper triangular distance matrix
+     * on the training data.
+     * @param neighbors int[] to fill with the training indexes of neighbors.
+     * @param distances float[] to fill with the neighbor distances.
+     */
+    private static void scanTrainingRow(int i, int k, float[][] foldDistMat,
+            int[] neighbors, float[] distances) {
+        int kIndex = 0;
+        for (int j = 0; j < i; j++) {
+            kIndex = insertNeighbor(neighbors, distances, kIndex, k, j,
+                    foldDistMat[j][i - j - 1]);
+        }
+        for (int j = i + 1; j < foldDistMat.length; j++) {
+            kIndex = insertNeighbor(neighbors, distances, kIndex, k, j,
+                    foldDistMat[i][j - i - 1]);
+        }
+    }
+
+    /**
+     * This method finds the kNN set of a test point by a scan over the
+     * training data.
+     *
+     * @param distRow float[] of distances from the test point to the training
+     * points.
+     * @param k Integer that is the neighborhood size.
+     * @param neighbors int[] to fill with the training indexes of neighbors.
+     * @param distances float[] to fill with the neighbor distances.
+     */
+    private static void scanTestRow(float[] distRow, int k, int[] neighbors,
+            float[] distances) {
+        int kIndex = 0;
+        for (int j = 0; j < distRow.length; j++) {
+            kIndex = insertNeighbor(neighbors, distances, kIndex, k, j,
+                    distRow[j]);
+        }
+    }
+
+    /**
+     * This method inserts a neighbor into a sorted kNN list.
+     *
+     * @param neighbors int[] of neighbor indexes.
+     * @param distances float[] of neighbor distances.
+     * @param kIndex Integer that is the current list length.
+     * @param k Integer that is the neighborhood size.
+     * @param neighbor Integer that is the index of the new neighbor.
+     * @param dist Float that is the distance to the new neighbor.
+     * @return Integer that is the new list length.
+     */
+    private static int insertNeighbor(int[] neighbors, float[] distances,
+            int kIndex, int k, int neighbor, float dist) {
+        if (kIndex == k && dist >= distances[k - 1]) {
+            return kIndex;
+        }
+        int l = kIndex < k ? kIndex : k - 1;
+        while (l > 0 && dist < distances[l - 1]) {
+            distances[l] = distances[l - 1];
+            neighbors[l] = neighbors[l - 1];
+            l--;
+        }
+        distances[l] = dist;
+        neighbors[l] = neighbor;
+        return kIndex < k ? kIndex + 1 : k;
+    }
+
+    /**
+     * @return int[][] representing the restricted kNN sets of the training
+     * points, as training indexes.
+     */
+    public int[][] getKNeighbors() {
+        return kNeighbors;
+    }
+
+    /**
+     * @return float[][] representing the restricted k-distances of the
+     * training points.
+     */
+    public float[][] getKDistances() {
+        return kDistances;
+    }
+
+    /**
+     * @return Integer that is the number of points that required a scan over
+     * the training data in the last restriction.
+     */
+    public int getNumScannedPoints() {
+        return numScannedPoints;
+    }
+}
@@ -29,6 +29,7 @@ import data.representation.discrete.DiscretizedDataSet;
 import data.representation.sparse.BOWDataSet;
 import data.representation.sparse.BOWInstance;
 import data.representation.util.DataMineConstants;
+import distances.matrix.TriangularDistanceMatrix;
 import distances.primary.CombinedMetric;
 import distances.secondary.LocalScalingCalculator;
 import distances.secondary.MutualProximityCalculator;
@@ -36,8 +37,8 @@ import distances.secondary.NICDMCalculator;
 import distances.secondary.snd.SharedNeighborCalculator;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
 import learning.supervised.Category;
 import learning.supervised.DiscreteCategory;
 import learning.supervised.evaluation.ClassificationEstimator;
@@ -79,14 +80,13 @@ public class MultiCrossValidation {
     // Execution times.
     public double[] execTimeTotal;
     public double execTimeAllOneRun;
+    // The execution times of individual algorithm tests on each fold.
+    private double[][] execTimePerTask;
     // Classifier prototypes.
     private ValidateableInterface[] classifiers;
-    // Currently active learners (under training or testing).
-    private ValidateableInterface[] currClassifierInstances = null;
     // Evaluation structures.
     private boolean keepAllEvaluations = true;
     private ClassificationEstimator[][] estimators = null;
-    private ClassificationEstimator[] currEstimator = null;
     private ClassificationEstimator[] averageEstimator = null;
     private float[][] correctPointClassificationArray = null;
     // numAlgorithms x numTimes x dataSize x classSize
@@ -131,6 +131,9 @@ public class MultiCrossValidation {
     private int[] testLabelArray = null;
     // The total distance matrix, as an upper triangular matrix.
     public float[][] totalDistMat = null;
+    // The total distance matrix storage, used instead of the jagged array when
+    // the matrix is too large for the heap.
+    private TriangularDistanceMatrix totalDistMatBackend = null;
     // Flags indicating whether there are users of the distance matrix or the
     // total kNN sets on the training data.
     private boolean distUserPresent = false;
@@ -139,10 +142,21 @@ public class MultiCrossValidation {
     private NeighborSetFinder bigNSF;
     private NeighborSetFinder nsfCurrent = null;
     private int[][] testPointNeighbors = null;
+    // Restricts the big NSF kNN sets to the current training split.
+    private FoldNeighborRestrictor foldRestrictor = null;
+    private NeighborSetFinder foldRestrictorNSF = null;
     private boolean approximateNNs = false;
     private float alphaAppKNN = 1f;
     // The number of threads used for distance matrix and kNN set calculations.
     private int numCommonThreads = 8;
+    // The shared pool for the algorithm testing tasks. If it is not set, a
+    // pool with numCommonThreads threads is used for each run.
+    private EvaluationTaskPool taskPool = null;
+    // Per-repetition correct classification counts, so that the folds of
+    // different repetitions can be tested concurrently.
+    private float[][][] correctPointClassificationByRep = null;
+    // The number of folds for which all algorithms have been tested.
+    private int numFinishedFolds = 0;
     // If kNN sets and/or distance matrix are available externally.
     ExternalExperimentalContext contextObjects;
 
@@ -207,7 +221,6 @@ public class MultiCrossValidation {
         this.data = data;
         this.classifiers = new ValidateableInterface[1];
         classifiers[0] = classifier;
-        currClassifierInstances = new ValidateableInterface[1];
         execTimeTotal = new double[1];
         this.numClasses = numClasses;
     }
@@ -235,7 +248,6 @@ public class MultiCrossValidation {
         this.data = data;
         this.classifiers = new ValidateableInterface[1];
         classifiers[0] = classifier;
-        currClassifierInstances = new ValidateableInterface[1];
         execTimeTotal = new double[1];
         this.numClasses = numClasses;
         this.totalDistMat = totalDistMat;
@@ -262,7 +274,6 @@ public class MultiCrossValidation {
         this.dataType = dataType;
         this.data = data;
         this.classifiers = classifiers;
-        currClassifierInstances = new ValidateableInterface[classifiers.length];
         execTimeTotal = new double[classifiers.length];
         this.numClasses = numClasses;
     }
@@ -290,7 +301,6 @@ public class MultiCrossValidation {
         this.dataType = dataType;
         this.data = data;
         this.classifiers = classifiers;
-        currClassifierInstances = new ValidateableInterface[classifiers.length];
         execTimeTotal = new double[classifiers.length];
         this.numClasses = numClasses;
         this.totalDistMat = totalDistMat;
@@ -404,6 +414,25 @@ public class MultiCrossValidation {
         this.numCommonThreads = numCommonThreads;
     }
 
+    /**
+     * This sets the shared pool to run the algorithm testing tasks in, so
+     * that several cross-validation runs can share the same worker threads.
+     *
+     * @param taskPool EvaluationTaskPool to run the algorithm tests in.
+     */
+    public void setTaskPool(EvaluationTaskPool taskPool) {
+        this.taskPool = taskPool;
+    }
+
+    /**
+     * @return double[][] representing the execution time of each algorithm
+     * test in each repetition and fold, in microseconds. The second index is
+     * repetitionIndex * numFolds + foldIndex.
+     */
+    public double[][] getExecTimePerTask() {
+        return execTimePerTask;
+    }
+
     /**
      * @param protoHubnessMode Integer code that indicates which prototype
      * hubness estimation mode to use, whether to use the biased simple approach
@@ -458,6 +487,58 @@ public class MultiCrossValidation {
         this.secondaryK = secondaryK;
     }
 
+    /**
+     * @param totalDistMatBackend TriangularDistanceMatrix that holds the upper
+     * triangular distance matrix on the training data. It is used when the
+     * jagged array is not provided, so that the matrices that do not fit in the
+     * heap can be kept off-heap.
+     */
+    public void setTotalDistanceMatrixBackend(
+            TriangularDistanceMatrix totalDistMatBackend) {
+        this.totalDistMatBackend = totalDistMatBackend;
+    }
+
+    /**
+     * @return TriangularDistanceMatrix that holds the upper triangular distance
+     * matrix on the training data, if it was provided.
+     */
+    public TriangularDistanceMatrix getTotalDistanceMatrixBackend() {
+        return totalDistMatBackend;
+    }
+
+    /**
+     * This method gets the distance between two points from the total distance
+     * matrix, regardless of where it is stored.
+     *
+     * @param minIndex Integer that is the smaller point index.
+     * @param maxIndex Integer that is the larger point index.
+     * @return Float value that is the distance between the two points.
+     */
+    private float getTotalDistance(int minIndex, int maxIndex) {
+        if (totalDistMat != null) {
+            return totalDistMat[minIndex][maxIndex - minIndex - 1];
+        } else {
+            return totalDistMatBackend.getRowEntry(minIndex,
+                    maxIndex - minIndex - 1);
+        }
+    }
+
+    /**
+     * This method creates the NeighborSetFinder object on the total distance
+     * matrix, regardless of where it is stored.
+     *
+     * @param dataContextForNSF DataSet that the distances were calculated on.
+     * @return NeighborSetFinder object on the total distance matrix.
+     */
+    private NeighborSetFinder getTotalNSF(DataSet dataContextForNSF) {
+        if (totalDistMat == null && totalDistMatBackend != null) {
+            return new NeighborSetFinder(dataContextForNSF,
+                    totalDistMatBackend, cmet);
+        } else {
+            return new NeighborSetFinder(dataContextForNSF, totalDistMat, cmet);
+        }
+    }
+
     /**
      * @param cmet CombinedMetric object for distance calculations.
      */
@@ -528,126 +609,14 @@ public class MultiCrossValidation {
             DataSet trainDSet, float[][] foldDistMat, int k) {
         NeighborSetFinder nsf = new NeighborSetFinder(
                 trainDSet, foldDistMat, cmet);
-        // Initialize a HashMap indicating which indexes belong to the training
-        // data.
-        HashMap<Integer, Integer> trainHash = new HashMap<>(
-                4 * trainFoldIndexes.size(), 1000);
-        for (int i = 0; i < trainFoldIndexes.size(); i++) {
-            trainHash.put(trainFoldIndexes.get(i), i);
-        }
-        // Initialize the neighbor sets and the k-distance arrays.
-        int[][] kneighbors = new int[trainFoldIndexes.size()][k];
-        float[][] kDistances = new float[trainFoldIndexes.size()][k];
-        // Obtain the kNN sets and the k-distance arrays of the big NSF object.
-        int[][] knBig = bigNSF.getKNeighbors();
-        float[][] kDistancesBig = bigNSF.getKDistances();
-        // Auxiliary variables.
-        int[] currNSet;
-        int kIndex;
-        int index;
-        int lowerIntervalBound, upperIntervalBound, minIndex, maxIndex, l;
-        int datasize = trainDSet.size();
-        ArrayList<Integer> intervals;
-        for (int i = 0; i < trainFoldIndexes.size(); i++) {
-            currNSet = knBig[trainFoldIndexes.get(i)];
-            kIndex = 0;
-            index = 0;
-            // First re-use as many neighbors as are present in the training
-            // split, from the big NSF object.
-            while (kIndex < k && index < knBig[0].length) {
-                if (trainHash.containsKey(currNSet[index])) {
-                    kneighbors[i][kIndex] = trainHash.get(currNSet[index]);
-                    kDistances[i][kIndex] =
-                            kDistancesBig[trainFoldIndexes.get(i)][index];
-                    kIndex++;
-                }
-                index++;
-            }
-            // Perform additional calculations.
-            if (kIndex < k) {
-                intervals = new ArrayList<>(kIndex + 2);
-                intervals.add(-1);
-                for (int j = 0; j < kIndex; j++) {
-                    intervals.add(kneighbors[i][j]);
-                }
-                intervals.add(datasize + 1);
-                Collections.sort(intervals);
-                int iSizeRed = intervals.size() - 1;
-                for (int ind = 0; ind < iSizeRed; ind++) {
-                    lowerIntervalBound = intervals.get(ind);
-                    upperIntervalBound = intervals.get(ind + 1);
-                    for (int j = lowerIntervalBound + 1;
-                            j < upperIntervalBound - 1; j++) {
-                        if (i != j) {
-                            minIndex = Math.min(i, j);
-                            maxIndex = Math.max(i, j);
-                            if (kIndex > 0) {
-                                if (kIndex == k) {
-                                    if (foldDistMat[minIndex][
-                                            maxIndex - minIndex - 1] <
-                                            kDistances[i][kIndex - 1]) {
-                                        // Search and insert.
-                                        l = k - 1;
-                                        while ((l >= 1) && foldDistMat[
-                                                minIndex][maxIndex - minIndex -
-                                                1] < kDistances[i][l - 1]) {
-                                            kDistances[i][l] = kDistances[i][
-                                                    l - 1];
-                                            kneighbors[i][l] = kneighbors[i][
-                                                    l - 1];
-                                            l--;
-                                        }
-                                        kDistances[i][l] = foldDistMat[
-                                                minIndex][maxIndex -
-                                                minIndex - 1];
-                                        kneighbors[i][l] = j;
-                                    }
-                                } else {
-                                    if (foldDistMat[minIndex][
-                                            maxIndex - minIndex - 1] <
-                                            kDistances[i][kIndex - 1]) {
-                                        // Search and insert.
-                                        l = kIndex - 1;
-                                        kDistances[i][kIndex] = kDistances[i][
-                                                kIndex - 1];
-                                        kneighbors[i][kIndex] = kneighbors[i][
-                                                kIndex - 1];
-                                        while ((l >= 1) && foldDistMat[
-                                                minIndex][maxIndex - minIndex -
-                                                1] < kDistances[i][l - 1]) {
-                                            kDistances[i][l] = kDistances[i][
-                                                    l - 1];
-                                            kneighbors[i][l] = kneighbors[i][
-                                                    l - 1];
-                                            l--;
-                                        }
-                                        kDistances[i][l] = foldDistMat[
-                                                minIndex][maxIndex - minIndex
-                                                - 1];
-                                        kneighbors[i][l] = j;
-                                        kIndex++;
-                                    } else {
-                                        kDistances[i][kIndex] = foldDistMat[
-                                                minIndex][maxIndex - minIndex
-                                                - 1];
-                                        kneighbors[i][kIndex] = j;
-                                        kIndex++;
-                                    }
-                                }
-                            } else {
-                                kDistances[i][0] = foldDistMat[minIndex][
-                                        maxIndex - minIndex - 1];
-                                kneighbors[i][0] = j;
-                                kIndex = 1;
-                            }
-                        }
-                    }
-                }
-            }
-        }
+        FoldNeighborRestrictor restrictor = getFoldRestrictor(
+                trainFoldIndexes);
+        // Filter the sorted global kNN sets by the training set membership.
+        restrictor.restrictTrainingNeighbors(k, foldDistMat);
         int[] kCurrLen = new int[trainFoldIndexes.size()];
         Arrays.fill(kCurrLen, k);
-        nsf.setKNeighbors(kneighbors, kDistances, kCurrLen);
+        nsf.setKNeighbors(restrictor.getKNeighbors(),
+                restrictor.getKDistances(), kCurrLen);
         return nsf;
     }
 
@@ -668,112 +637,665 @@ public class MultiCrossValidation {
     public int[][] obtainFoldTestNeighbors(ArrayList<Integer> trainFoldIndexes,
             ArrayList<Integer> testFoldIndexes, DataSet trainDSet,
             float[][] pointDistances, int k) {
-        // Initialize a HashMap indicating which indexes belong to the training
-        // data.
-        HashMap<Integer, Integer> trainHash =
-                new HashMap<>(4 * trainFoldIndexes.size(), 1000);
-        for (int i = 0; i < trainFoldIndexes.size(); i++) {
-            trainHash.put(trainFoldIndexes.get(i), i);
+        FoldNeighborRestrictor restrictor = getFoldRestrictor(
+                trainFoldIndexes);
+        return restrictor.restrictTestNeighbors(testFoldIndexes, k,
+                pointDistances);
+    }
+
+    /**
+     * This method returns the fold restrictor of the big NSF object, with the
+     * training set membership set to the provided training indexes.
+     *
+     * @param trainFoldIndexes ArrayList<Integer> representing the training data
+     * indexes.
+     * @return FoldNeighborRestrictor for the current training/test split.
+     */
+    private FoldNeighborRestrictor getFoldRestrictor(
+            ArrayList<Integer> trainFoldIndexes) {
+        if (foldRestrictor == null || foldRestrictorNSF != bigNSF) {
+            foldRestrictor = new FoldNeighborRestrictor(bigNSF);
+            foldRestrictorNSF = bigNSF;
+        }
+        if (!foldRestrictor.hasTrainingIndexes(trainFoldIndexes)) {
+            // The membership is only updated when the split changes, as the
+            // same split is restricted for several neighborhood sizes.
+            foldRestrictor.setTrainingIndexes(trainFoldIndexes);
         }
-        // Initialize the neighbor sets and the k-distance arrays.
-        int[][] testNeighbors = new int[testFoldIndexes.size()][k];
-        float[][] kDistances = new float[testFoldIndexes.size()][k];
-        // Obtain the kNN sets and the k-distance arrays of the big NSF object.
-        int[][] kNeighborsAllBigK = bigNSF.getKNeighbors();
-        float[][] kDistancesBig = bigNSF.getKDistances();
-
-        int[] currLargerNSet;
-        int kIndex;
-        int index;
-        int lowerIntervalBound, upperIntervalBound, l;
-        int datasize = trainDSet.size();
-        for (int i = 0; i < testFoldIndexes.size(); i++) {
-            currLargerNSet = kNeighborsAllBigK[testFoldIndexes.get(i)];
-            kIndex = 0;
-            index = 0;
-            // First re-use the existing neighbor information.
-            while (kIndex < k && index < kNeighborsAllBigK[0].length) {
-                if (trainHash.containsKey(currLargerNSet[index])) {
-                    testNeighbors[i][kIndex] = trainHash.get(
-                            currLargerNSet[index]);
-                    kDistances[i][kIndex] = kDistancesBig[
-                            testFoldIndexes.get(i)][index];
-                    kIndex++;
-                }
-                index++;
+        return foldRestrictor;
+    }
+
+    /**
+     * This method prepares the distances and the kNN sets of a single fold,
+     * for the current training and test indexes.
+     *
+     * @param foldMemory Long that is the admitted memory for the fold.
+     * @param numAlgs Integer that is the number of algorithms to test.
+     * @return FoldContext holding the fold data.
+     * @throws Exception
+     */
+    private FoldContext prepareFold(long foldMemory, int numAlgs)
+            throws Exception {
+        float[][] foldDistMatrix = null;
+        float[][] pointDistances = null;
+        float[][] foldDistMatrixPrimaryMetric;
+        float[][] pointDistancesMPrimaryMetric;
+        // The following two are there for the case of instance
+        // selection.
+        float[][] foldDistMatrixReduced = null;
+        float[][] testToTrainingDistancesReduced = null;
+        // The index permutation that corresponds to the order in which
+        // they are set to the classifiers.
+        ArrayList<Integer> trainingIndexesReArr = getDataIndexes(
+                currentTrainingIndexes, dataType);
+        if (distUserPresent || nsfUserPresent) {
+            // There exist users of distances and neighbor sets.
+            pointDistancesMPrimaryMetric =
+                    new float[currentTestIndexes.size()][
+                            trainingIndexesReArr.size()];
+            int minIndex, maxIndex;
+            for (int indexFirst = 0; indexFirst <
+                    currentTestIndexes.size(); indexFirst++) {
+                for (int indexSecond = 0; indexSecond <
+                        trainingIndexesReArr.size(); indexSecond++) {
+                    minIndex = Math.min(currentTestIndexes.get(
+                            indexFirst), trainingIndexesReArr.get(
+                            indexSecond));
+                    maxIndex = Math.max(currentTestIndexes.get(
+                            indexFirst), trainingIndexesReArr.get(
+                            indexSecond));
+                    pointDistancesMPrimaryMetric[indexFirst][
+                            indexSecond] = getTotalDistance(minIndex,
+                            maxIndex);
+                }
+            }
+            foldDistMatrixPrimaryMetric = new float[
+                    trainingIndexesReArr.size()][];
+            // Take the fold primary matrix as a sub-matrix of the total
+            // distance matrix.
+            for (int indexFirst = 0; indexFirst <
+                    foldDistMatrixPrimaryMetric.length; indexFirst++) {
+                foldDistMatrixPrimaryMetric[indexFirst] =
+                        new float[foldDistMatrixPrimaryMetric.length -
+                        indexFirst - 1];
+                for (int indexSecond = indexFirst + 1; indexSecond <
+                        foldDistMatrixPrimaryMetric.length;
+                        indexSecond++) {
+                    minIndex = Math.min(trainingIndexesReArr.get(
+                            indexFirst), trainingIndexesReArr.get(
+                            indexSecond));
+                    maxIndex = Math.max(trainingIndexesReArr.get(
+                            indexFirst), trainingIndexesReArr.get(
+                            indexSecond));
+                    foldDistMatrixPrimaryMetric[indexFirst][
+                            indexSecond - indexFirst - 1] =
+                            getTotalDistance(minIndex, maxIndex);
+                }
             }
-            // Additional calculations, if necessary (very rarely, in this
-            // implementation).
-            if (kIndex < k) {
-                ArrayList<Integer> intervals = new ArrayList<>(kIndex + 2);
-                intervals.add(-1);
-                for (int j = 0; j < kIndex; j++) {
-                    intervals.add(testNeighbors[i][j]);
-                }
-                intervals.add(datasize + 1);
-                Collections.sort(intervals);
-                int iSizeRed = intervals.size() - 1;
-                for (int ind = 0; ind < iSizeRed; ind++) {
-                    lowerIntervalBound = intervals.get(ind);
-                    upperIntervalBound = intervals.get(ind + 1);
-                    for (int j = lowerIntervalBound + 1;
-                            j < upperIntervalBound - 1; j++) {
-                        if (i != j) {
-                            if (kIndex > 0) {
-                                if (kIndex == k) {
-                                    if (pointDistances[i][j] <
-                                            kDistances[i][kIndex - 1]) {
-                                        // Search and insert.
-                                        l = k - 1;
-                                        while ((l >= 1) && pointDistances[i][j]
-                                                < kDistances[i][l - 1]) {
-                                            kDistances[i][l] = kDistances[i][
-                                                    l - 1];
-                                            testNeighbors[i][l] =
-                                                    testNeighbors[i][l - 1];
-                                            l--;
-                                        }
-                                        kDistances[i][l] = pointDistances[i][j];
-                                        testNeighbors[i][l] = j;
-                                    }
-                                } else {
-                                    if (pointDistances[i][j] <
-                                            kDistances[i][kIndex - 1]) {
-                                        // Search and insert.
-                                        l = kIndex - 1;
-                                        kDistances[i][kIndex] = kDistances[i][
-                                                kIndex - 1];
-                                        testNeighbors[i][kIndex] =
-                                                testNeighbors[i][kIndex - 1];
-                                        while ((l >= 1) && pointDistances[i][j]
-                                                < kDistances[i][l - 1]) {
-                                            kDistances[i][l] = kDistances[i][
-                                                    l - 1];
-                                            testNeighbors[i][l] =
-                                                    testNeighbors[i][l - 1];
-                                            l--;
-                                        }
-                                        kDistances[i][l] = pointDistances[i][j];
-                                        testNeighbors[i][l] = j;
-                                        kIndex++;
-                                    } else {
-                                        kDistances[i][kIndex] =
-                                                pointDistances[i][j];
-                                        testNeighbors[i][kIndex] = j;
-                                        kIndex++;
-                                    }
-                                }
-                            } else {
-                                kDistances[i][0] = pointDistances[i][j];
-                                testNeighbors[i][0] = j;
-                                kIndex = 1;
+            if (secondaryDistanceType == SecondaryDistance.NONE) {
+                // In this case the primary matrix is used as the fold
+                // matrix.
+                foldDistMatrix = foldDistMatrixPrimaryMetric;
+                pointDistances = pointDistancesMPrimaryMetric;
+            } else {
+                // Initialize the data context for the kNN finder.
+                DataSet dataContextForNSF = new DataSet();
+                int numNom = ((DataInstance) data.get(
+                        trainingIndexesReArr.get(0))).getNumNAtt();
+                int numInt = ((DataInstance) data.get(
+                        trainingIndexesReArr.get(0))).getNumIAtt();
+                int numFloat = ((DataInstance) data.get(
+                        trainingIndexesReArr.get(0))).getNumFAtt();
+                // Generate the generic feature names.
+                if (numFloat > 0) {
+                    dataContextForNSF.fAttrNames = new String[numFloat];
+                    for (int aInd = 0; aInd < numFloat; aInd++) {
+                        dataContextForNSF.fAttrNames[aInd] =
+                                "fAt " + aInd;
+                    }
+                }
+                if (numInt > 0) {
+                    dataContextForNSF.iAttrNames = new String[numInt];
+                    for (int aInd = 0; aInd < numInt; aInd++) {
+                        dataContextForNSF.iAttrNames[aInd] =
+                                "iAt " + aInd;
+                    }
+                }
+                if (numNom > 0) {
+                    dataContextForNSF.sAttrNames = new String[numNom];
+                    for (int aInd = 0; aInd < numNom; aInd++) {
+                        dataContextForNSF.sAttrNames[aInd] =
+                                "nAt " + aInd;
+                    }
+                }
+                // Fill the dataset.
+                dataContextForNSF.data =
+                        new ArrayList<>(trainingIndexesReArr.size());
+                for (int dIndex = 0; dIndex < trainingIndexesReArr.size();
+                        dIndex++) {
+                    dataContextForNSF.data.add(
+                            (DataInstance) data.get(
+                            trainingIndexesReArr.get(dIndex)));
+                }
+                // The kNN finder object with the secondary neighborhood
+                // size, taken as subset of the big-k NSF.
+                NeighborSetFinder nsfSecK;
+                nsfSecK = this.obtainFoldNSF(trainingIndexesReArr,
+                        dataContextForNSF, foldDistMatrixPrimaryMetric,
+                        secondaryK);
+
+                if (secondaryDistanceType == SecondaryDistance.SIMCOS) {
+                    // The simcos shared neighbor secondary distance
+                    // measure.
+                    SharedNeighborFinder snf =
+                            new SharedNeighborFinder(nsfSecK, kValue);
+                    snf.setNumClasses(numClasses);
+                    snf.countSharedNeighborsMultiThread(
+                            numCommonThreads);
+                    // First fetch the similarities.
+                    foldDistMatrix = snf.getSharedNeighborCounts();
+                    // Then transform them into distances.
+                    for (int indexFirst = 0; indexFirst <
+                            foldDistMatrix.length; indexFirst++) {
+                        for (int indexSecond = 0; indexSecond <
+                                foldDistMatrix[indexFirst].length;
+                                indexSecond++) {
+                            foldDistMatrix[indexFirst][indexSecond] =
+                                    secondaryK -
+                                    foldDistMatrix[indexFirst][
+                                    indexSecond];
+                        }
+                    }
+                    // Calculate the test-to-training point distances.
+                    SharedNeighborCalculator snc =
+                            new SharedNeighborCalculator(
+                            snf,SharedNeighborCalculator.
+                            WeightingType.NONE);
+                    DataInstance firstInstance, secondInstance;
+                    pointDistances = new float[
+                            currentTestIndexes.size()][
+                            trainingIndexesReArr.size()];
+                    int[][] pointNeighborsSec = obtainFoldTestNeighbors(
+                            trainingIndexesReArr, currentTestIndexes,
+                            dataContextForNSF,
+                            pointDistancesMPrimaryMetric, secondaryK);
+                    for (int firstIndex = 0; firstIndex <
+                            currentTestIndexes.size(); firstIndex++) {
+                        for (int secondIndex = 0; secondIndex <
+                                trainingIndexesReArr.size();
+                                secondIndex++) {
+                            firstInstance = (DataInstance) (data.get(
+                                    currentTestIndexes.get(
+                                    firstIndex)));
+                            secondInstance = (DataInstance) (
+                                    data.get(trainingIndexesReArr.get(
+                                    secondIndex)));
+                            pointDistances[firstIndex][secondIndex] =
+                                    snc.dist(firstInstance,
+                                    secondInstance, pointNeighborsSec[
+                                    firstIndex], 
+                                    nsfSecK.getKNeighbors()[
+                                    secondIndex]);
+                        }
+                    }
+                } else if (secondaryDistanceType ==
+                        SecondaryDistance.SIMHUB) {
+                    // The simhub hubness-aware secondary
+                    // shared-neighbor distances.
+                    SharedNeighborFinder snf =
+                            new SharedNeighborFinder(nsfSecK, kValue);
+                    snf.setNumClasses(numClasses);
+                    snf.obtainWeightsFromHubnessInformation(0);
+                    snf.countSharedNeighborsMultiThread(
+                            numCommonThreads);
+                    foldDistMatrix = snf.getSharedNeighborCounts();
+                    for (int indexFirst = 0; indexFirst <
+                            foldDistMatrix.length; indexFirst++) {
+                        for (int indexSecond = 0; indexSecond <
+                                foldDistMatrix[indexFirst].length;
+                                indexSecond++) {
+                            foldDistMatrix[indexFirst][indexSecond] =
+                                    secondaryK - foldDistMatrix[
+                                    indexFirst][indexSecond];
+                        }
+                    }
+                    // Calculate the test-to-training point distances.
+                    SharedNeighborCalculator snc =
+                            new SharedNeighborCalculator(snf,
+                            SharedNeighborCalculator.WeightingType.
+                            HUBNESS_INFORMATION);
+                    DataInstance firstInstance, secondInstance;
+                    pointDistances = new float[
+                            currentTestIndexes.size()][
+                            trainingIndexesReArr.size()];
+                    int[][] pointNeighborsSec = obtainFoldTestNeighbors(
+                            trainingIndexesReArr, currentTestIndexes,
+                            dataContextForNSF,
+                            pointDistancesMPrimaryMetric, secondaryK);
+                    for (int indexFirst = 0; indexFirst <
+                            currentTestIndexes.size(); indexFirst++) {
+                        for (int indexSecond = 0; indexSecond <
+                                trainingIndexesReArr.size();
+                                indexSecond++) {
+                            firstInstance = (DataInstance) (data.get(
+                                    currentTestIndexes.get(
+                                    indexFirst)));
+                            secondInstance = (DataInstance) (data.get(
+                                    trainingIndexesReArr.get(
+                                    indexSecond)));
+                            pointDistances[indexFirst][indexSecond] =
+                                    snc.dist(firstInstance,
+                                    secondInstance, pointNeighborsSec[
+                                    indexFirst],
+                                    nsfSecK.getKNeighbors()[
+                                    indexSecond]);
+                        }
+                    }
+                } else if (secondaryDistanceType ==
+                        SecondaryDistance.MP) {
+                    // Use mutual proximity as the secondary distance
+                    // measure.
+                    MutualProximityCalculator calc =
+                            new MutualProximityCalculator(
+                            nsfSecK.getDistances(),
+                            nsfSecK.getDataSet(),
+                            nsfSecK.getCombinedMetric());
+                    foldDistMatrix =
+                            calc.calculateSecondaryDistMatrixMultThr(
+                            nsfSecK, 8);
+                    // Calculate the test-to-training point distances.
+                    DataInstance firstInstance, secondInstance;
+                    pointDistances = new float[
+                            currentTestIndexes.size()][
+                            trainingIndexesReArr.size()];
+                    int[][] pointNeighborsSec = obtainFoldTestNeighbors(
+                            trainingIndexesReArr, currentTestIndexes,
+                            dataContextForNSF,
+                            pointDistancesMPrimaryMetric, secondaryK);
+                    for (int indexFirst = 0; indexFirst <
+                            currentTestIndexes.size(); indexFirst++) {
+                        for (int indexSecond = 0; indexSecond <
+                                trainingIndexesReArr.size();
+                                indexSecond++) {
+                            firstInstance = (DataInstance) (data.get(
+                                    currentTestIndexes.get(
+                                    indexFirst)));
+                            secondInstance = (DataInstance) (data.get(
+                                    trainingIndexesReArr.get(
+                                    indexSecond)));
+                            int[] firstNeighbors = pointNeighborsSec[
+                                    indexFirst];
+                            float[] kDistsFirst = new float[secondaryK];
+                            float[] kDistsSecond =
+                                    nsfSecK.getKDistances()[
+                                    indexSecond];
+                            for (int kInd = 0; kInd < secondaryK;
+                                    kInd++) {
+                                kDistsFirst[kInd] = 
+                                        pointDistancesMPrimaryMetric[
+                                        indexFirst][firstNeighbors[
+                                        kInd]];
+                            }
+                            pointDistances[indexFirst][indexSecond] =
+                                    calc.dist(firstInstance,
+                                    secondInstance, kDistsFirst,
+                                    kDistsSecond);
+                        }
+                    }
+                } else if (secondaryDistanceType ==
+                        SecondaryDistance.LS) {
+                    // Local scaling as the secondary distance measure.
+                    LocalScalingCalculator lsc =
+                            new LocalScalingCalculator(nsfSecK);
+                    foldDistMatrix =
+                            lsc.getTransformedDMatFromNSFPrimaryDMat();
+                    // Calculate the test-to-training point distances.
+                    DataInstance firstInstance, secondInstance;
+                    pointDistances = new float[
+                            currentTestIndexes.size()][
+                            trainingIndexesReArr.size()];
+                    int[][] pointNeighborsSec = obtainFoldTestNeighbors(
+                            trainingIndexesReArr, currentTestIndexes,
+                            dataContextForNSF,
+                            pointDistancesMPrimaryMetric, secondaryK);
+                    for (int indexFirst = 0; indexFirst <
+                            currentTestIndexes.size(); indexFirst++) {
+                        for (int indexSecond = 0; indexSecond <
+                                trainingIndexesReArr.size();
+                                indexSecond++) {
+                            firstInstance = (DataInstance) (data.get(
+                                    currentTestIndexes.get(
+                                    indexFirst)));
+                            secondInstance = (DataInstance) (data.get(
+                                    trainingIndexesReArr.get(
+                                    indexSecond)));
+                            int[] firstNeighbors = pointNeighborsSec[
+                                    indexFirst];
+                            float[] kDistsFirst = new float[secondaryK];
+                            float[] kDistsSecond =
+                                    nsfSecK.getKDistances()[
+                                    indexSecond];
+                            for (int kInd = 0; kInd < secondaryK;
+                                    kInd++) {
+                                kDistsFirst[kInd] =
+                                        pointDistancesMPrimaryMetric[
+                                        indexFirst][firstNeighbors[
+                                        kInd]];
                             }
+                            pointDistances[indexFirst][indexSecond] =
+                                    lsc.distFromKDists(firstInstance,
+                                    secondInstance, kDistsFirst,
+                                    kDistsSecond);
+                        }
+                    }
+                } else if (secondaryDistanceType ==
+                        SecondaryDistance.NICDM) {
+                    // NICDM secondary distance measure.
+                    NICDMCalculator nsc = new NICDMCalculator(nsfSecK);
+                    foldDistMatrix =
+                            nsc.getTransformedDMatFromNSFPrimaryDMat();
+                    // Calculate the test-to-training point distances.
+                    DataInstance firstInstance, secondInstance;
+                    pointDistances = new float[
+                            currentTestIndexes.size()][
+                            trainingIndexesReArr.size()];
+                    int[][] pointNeighborsSec = obtainFoldTestNeighbors(
+                            trainingIndexesReArr, currentTestIndexes,
+                            dataContextForNSF,
+                            pointDistancesMPrimaryMetric, secondaryK);
+                    for (int indexFirst = 0; indexFirst <
+                            currentTestIndexes.size(); indexFirst++) {
+                        for (int indexSecond = 0; indexSecond <
+                                trainingIndexesReArr.size();
+                                indexSecond++) {
+                            firstInstance = (DataInstance) (
+                                    data.get(currentTestIndexes.get(
+                                    indexFirst)));
+                            secondInstance = (DataInstance) (
+                                    data.get(trainingIndexesReArr.get(
+                                    indexSecond)));
+                            int[] firstNeighbors =
+                                    pointNeighborsSec[indexFirst];
+                            float[] kDistsFirst = new float[secondaryK];
+                            float[] kDistsSecond =
+                                    nsfSecK.getKDistances()[
+                                    indexSecond];
+                            for (int kInd = 0; kInd < secondaryK;
+                                    kInd++) {
+                                kDistsFirst[kInd] =
+                                        pointDistancesMPrimaryMetric[
+                                        indexFirst][firstNeighbors[
+                                        kInd]];
+                            }
+                            pointDistances[indexFirst][indexSecond] =
+                                    nsc.distFromKDists(firstInstance,
+                                    secondInstance, kDistsFirst,
+                                    kDistsSecond);
                         }
                     }
                 }
+
             }
         }
-        return testNeighbors;
+        if (nsfUserPresent && kMode == SINGLE) {
+            // Again, generate an appropriate data context for the fold
+            // NeighborSetFinder objects.
+            DataSet dataContextForNSF = new DataSet();
+            int numNom = 0;
+            int numInt = 0;
+            int numFloat = 0;
+            if (data.get(trainingIndexesReArr.get(0)) instanceof
+                    DataInstance) {
+                numNom = ((DataInstance) data.get(
+                        trainingIndexesReArr.get(0))).getNumNAtt();
+                numInt = ((DataInstance) data.get(
+                        trainingIndexesReArr.get(0))).getNumIAtt();
+                numFloat = ((DataInstance) data.get(
+                        trainingIndexesReArr.get(0))).getNumFAtt();
+            } else if (data.get(trainingIndexesReArr.get(0)) instanceof
+                    DiscretizedDataInstance) {
+                numNom = ((DiscretizedDataInstance) data.get(
+                        trainingIndexesReArr.get(0))).
+                        getOriginalInstance().getNumNAtt();
+                numInt = ((DiscretizedDataInstance) data.get(
+                        trainingIndexesReArr.get(0))).
+                        getOriginalInstance().getNumIAtt();
+                numFloat = ((DiscretizedDataInstance) data.get(
+                        trainingIndexesReArr.get(0))).
+                        getOriginalInstance().getNumFAtt();
+            }
+            // Generate the generic feature names.
+            if (numFloat > 0) {
+                dataContextForNSF.fAttrNames = new String[numFloat];
+                for (int aInd = 0; aInd < numFloat; aInd++) {
+                    dataContextForNSF.fAttrNames[aInd] = "fAt " + aInd;
+                }
+            }
+            if (numInt > 0) {
+                dataContextForNSF.iAttrNames = new String[numInt];
+                for (int aInd = 0; aInd < numInt; aInd++) {
+                    dataContextForNSF.iAttrNames[aInd] = "iAt " + aInd;
+                }
+            }
+            if (numNom > 0) {
+                dataContextForNSF.sAttrNames = new String[numNom];
+                for (int aInd = 0; aInd < numNom; aInd++) {
+                    dataContextForNSF.sAttrNames[aInd] = "nAt " + aInd;
+                }
+            }
+
+            dataContextForNSF.data = new ArrayList<>(
+                    trainingIndexesReArr.size());
+            if (data.get(trainingIndexesReArr.get(0)) instanceof
+                    DataInstance) {
+                // The continuous case.
+                for (int dIndex = 0; dIndex < trainingIndexesReArr.size();
+                        dIndex++) {
+                    dataContextForNSF.data.add((DataInstance) data.get(
+                            trainingIndexesReArr.get(dIndex)));
+                }
+            } else if (data.get(trainingIndexesReArr.get(0)) instanceof
+                    DiscretizedDataInstance) {
+                // The discretized case.
+                for (int dIndex = 0; dIndex < trainingIndexesReArr.size();
+                        dIndex++) {
+                    dataContextForNSF.data.add(((
+                            DiscretizedDataInstance) data.get(
+                            trainingIndexesReArr.get(dIndex))).
+                            getOriginalInstance());
+                }
+            }
+            for (int cInd = 0; cInd < numAlgs; cInd++) {
+                // Explicitly state that the classifiers may not modify
+                // the NeighborSetFinder object on the fly without
+                // making a copy.
+                if (classifiers[cInd] instanceof NSFUserInterface) {
+                    ((NSFUserInterface) (classifiers[cInd])).
+                            noRecalcs();
+                }
+            }
+            if (secondaryDistanceType == SecondaryDistance.NONE) {
+                // Obtain the fold NeighborSetFinder object from the
+                // primary kNN sets.
+                nsfCurrent = obtainFoldNSF(trainingIndexesReArr,
+                        dataContextForNSF, foldDistMatrix, kValue);
+                if (dreducer == null) {
+                    testPointNeighbors = obtainFoldTestNeighbors(
+                            trainingIndexesReArr, currentTestIndexes,
+                            dataContextForNSF, pointDistances, kValue);
+                }
+            } else {
+                // In this case, we need to calculate the kNN sets from
+                // the secondary distance matrices.
+                if (!approximateNNs || alphaAppKNN == 1f) {
+                    nsfCurrent = new NeighborSetFinder(
+                            dataContextForNSF, foldDistMatrix, cmet);
+                    nsfCurrent.calculateNeighborSetsMultiThr(kValue,
+                            numCommonThreads);
+                } else {
+                    AppKNNGraphLanczosBisection appNSF =
+                            new AppKNNGraphLanczosBisection(
+                            dataContextForNSF, foldDistMatrix,
+                            kValue, alphaAppKNN);
+                    appNSF.calculateApproximateNeighborSets();
+                    nsfCurrent = NeighborSetFinder.
+                            constructFromAppFinder(appNSF, false);
+                }
+                if (dreducer == null) {
+                    testPointNeighbors =
+                            new int[currentTestIndexes.size()][];
+                    for (int ni = 0; ni <
+                            testPointNeighbors.length; ni++) {
+                        DataInstance inst = (DataInstance) (
+                                data.get(currentTestIndexes.get(ni)));
+                        testPointNeighbors[ni] = NeighborSetFinder.
+                                getIndexesOfNeighbors(
+                                dataContextForNSF, inst, kValue,
+                                pointDistances[ni]);
+                    }
+                }
+            }
+            // Perform instance selection (optional).
+            if (dreducer != null) {
+                foldReducer = dreducer.copy();
+                foldReducer.setOriginalDataSet(dataContextForNSF);
+                if (foldReducer instanceof NSFUserInterface) {
+                    // If the selector needs the kNN sets, we provide
+                    // them.
+                    ((NSFUserInterface) foldReducer).setNSF(
+                            nsfCurrent.copy());
+                }
+                if (DataMineConstants.isZero(selectionRate)) {
+                    // Find the appropriate selection rate
+                    // automatically, if possible.
+                    foldReducer.reduceDataSet();
+                } else {
+                    // Perform the reduction with the specified
+                    // selection rate.
+                    foldReducer.reduceDataSet(selectionRate);
+                }
+                foldReducer.sortSelectedIndexes();
+                if (nsfUserPresent) {
+                    // Calculate the unbiased hubness estimates.
+                    foldReducer.calculatePrototypeHubness(kValue);
+                }
+                // The data context for kNN calculations on the
+                // selected prototype set.
+                DataSet dataContextForNSFReduced =
+                        dataContextForNSF.cloneDefinition();
+                dataContextForNSFReduced.data = null;
+                ArrayList<Integer> protoIndexes =
+                        foldReducer.getPrototypeIndexes();
+                currentPrototypeIndexes =
+                        new ArrayList<>(protoIndexes.size());
+                for (int dIndex = 0; dIndex < protoIndexes.size();
+                        dIndex++) {
+                    currentPrototypeIndexes.add(trainingIndexesReArr.get(
+                            protoIndexes.get(dIndex)));
+                }
+                dataContextForNSFReduced.data =
+                        new ArrayList<>(protoIndexes.size());
+                for (int dIndex = 0; dIndex < protoIndexes.size();
+                        dIndex++) {
+                    dataContextForNSFReduced.data.add((DataInstance)
+                            data.get(currentPrototypeIndexes.get(
+                            dIndex)));
+                }
+
+                foldDistMatrixReduced =
+                        new float[currentPrototypeIndexes.size()][];
+                int minIndex, maxIndex;
+                for (int indexFirst = 0; indexFirst <
+                        foldDistMatrixReduced.length; indexFirst++) {
+                    foldDistMatrixReduced[indexFirst] =
+                            new float[foldDistMatrixReduced.length -
+                            indexFirst - 1];
+                    for (int indexSecond = indexFirst + 1; indexSecond <
+                            foldDistMatrixReduced.length;
+                            indexSecond++) {
+                        minIndex = Math.min(
+                                currentPrototypeIndexes.get(
+                                indexFirst), currentPrototypeIndexes.
+                                get(indexSecond));
+                        maxIndex = Math.max(currentPrototypeIndexes.
+                                get(indexFirst),
+                                currentPrototypeIndexes.get(
+                                indexSecond));
+                        foldDistMatrixReduced[indexFirst][indexSecond -
+                                indexFirst - 1] = getTotalDistance(
+                                minIndex, maxIndex);
+                    }
+                }
+                testToTrainingDistancesReduced = new float[
+                        currentTestIndexes.size()][
+                        currentPrototypeIndexes.size()];
+                for (int indexFirst = 0; indexFirst <
+                        currentTestIndexes.size();indexFirst++) {
+                    for (int indexSecond = 0; indexSecond <
+                            currentPrototypeIndexes.size();
+                            indexSecond++) {
+                        minIndex = Math.min(currentTestIndexes.get(
+                                indexFirst), currentPrototypeIndexes.
+                                get(indexSecond));
+                        maxIndex = Math.max(currentTestIndexes.get(
+                                indexFirst), currentPrototypeIndexes.
+                                get(indexSecond));
+                        testToTrainingDistancesReduced[indexFirst][
+                                indexSecond] = getTotalDistance(minIndex,
+                                maxIndex);
+                    }
+                }
+                if (secondaryDistanceType == SecondaryDistance.NONE) {
+                    nsfCurrent = obtainFoldNSF(trainingIndexesReArr,
+                            dataContextForNSF, foldDistMatrix, kValue);
+                    NeighborSetFinder nsfProto = nsfCurrent.getSubNSF(
+                            kValue, protoIndexes, foldDistMatrixReduced,
+                            dataContextForNSFReduced);
+                    nsfCurrent = nsfProto;
+                } else {
+                    if (!approximateNNs || alphaAppKNN == 1f) {
+                        nsfCurrent = new NeighborSetFinder(
+                                dataContextForNSFReduced,
+                                foldDistMatrixReduced, cmet);
+                        nsfCurrent.calculateNeighborSetsMultiThr(
+                                kValue, numCommonThreads);
+                    } else {
+                        AppKNNGraphLanczosBisection appNSF =
+                                new AppKNNGraphLanczosBisection(
+                                dataContextForNSFReduced,
+                                foldDistMatrixReduced, kValue,
+                                alphaAppKNN);
+                        appNSF.calculateApproximateNeighborSets();
+                        nsfCurrent =
+                                NeighborSetFinder.
+                                constructFromAppFinder(appNSF, false);
+                    }
+                }
+                testPointNeighbors =
+                        new int[currentTestIndexes.size()][];
+                for (int index = 0; index < testPointNeighbors.length;
+                        index++) {
+                    DataInstance inst = (DataInstance) (data.get(
+                            currentTestIndexes.get(index)));
+                    testPointNeighbors[index] = NeighborSetFinder.
+                            getIndexesOfNeighbors(
+                            dataContextForNSFReduced, inst, kValue,
+                            testToTrainingDistancesReduced[index]);
+                }
+            }
+        }
+        if (dreducer == null) {
+            return new FoldContext(currentTrainingIndexes,
+                    currentTestIndexes, null, nsfCurrent, null,
+                    foldDistMatrix, pointDistances, testPointNeighbors,
+                    foldMemory, numAlgs);
+        } else {
+            return new FoldContext(currentTrainingIndexes,
+                    currentTestIndexes, currentPrototypeIndexes,
+                    nsfCurrent, foldReducer, foldDistMatrixReduced,
+                    testToTrainingDistancesReduced, testPointNeighbors,
+                    foldMemory, numAlgs);
+        }
     }
 
     /**
@@ -809,7 +1331,7 @@ public class MultiCrossValidation {
                 dataContextForDists =
                         ((DiscretizedDataSet) dataType).getOriginalData();
             }
-            if (totalDistMat == null) {
+            if (totalDistMat == null && totalDistMatBackend == null) {
                 if (contextObjects != null &&
                         contextObjects.getDistances() != null) {
                     totalDistMat = contextObjects.getDistances();
@@ -828,6 +1350,8 @@ public class MultiCrossValidation {
                 dataContextForNSF =
                         ((DiscretizedDataSet) dataType).getOriginalData();
             }
+            // Only the newly calculated exact kNN sets are persisted.
+            boolean persistNSF = false;
             if (secondaryDistanceType == SecondaryDistance.NONE) {
                 // In case the classification is done with the primary
                 // distances.
@@ -837,14 +1361,16 @@ public class MultiCrossValidation {
                         2 * kMax + 10)) {
                     bigNSF = contextObjects.getNeighborSets();
                 } else {
-                    if (!approximateNNs || alphaAppKNN == 1) {
+                    if (!approximateNNs || alphaAppKNN == 1
+                            || totalDistMat == null
+                            && totalDistMatBackend != null) {
                         // Exact kNN set calculations. A larger NSF object is
                         // first created, so that few recalculations need ever
                         // be done later on.
-                        bigNSF = new NeighborSetFinder(dataContextForNSF,
-                                totalDistMat, cmet);
+                        bigNSF = getTotalNSF(dataContextForNSF);
                         bigNSF.calculateNeighborSetsMultiThr(2 * kMax + 10,
                                 numCommonThreads);
+                        persistNSF = true;
                     } else {
                         // Approximate kNN set calculations. A larger NSF object
                         // is first created, so that few recalculations need
@@ -867,12 +1393,14 @@ public class MultiCrossValidation {
                         secondaryK + kMax + 10)) {
                     bigNSF = contextObjects.getNeighborSets();
                 } else {
-                    if (!approximateNNs || alphaAppKNN == 1) {
+                    if (!approximateNNs || alphaAppKNN == 1
+                            || totalDistMat == null
+                            && totalDistMatBackend != null) {
                         // Exact kNN calculations.
-                        bigNSF = new NeighborSetFinder(dataContextForNSF,
-                                totalDistMat, cmet);
+                        bigNSF = getTotalNSF(dataContextForNSF);
                         bigNSF.calculateNeighborSetsMultiThr(secondaryK + kMax +
                                 10, numCommonThreads);
+                        persistNSF = true;
                     } else {
                         // Approximate kNN calculations.
                         AppKNNGraphLanczosBisection appNSF =
@@ -886,15 +1414,16 @@ public class MultiCrossValidation {
                 }
             }
             if (contextObjects != null) {
-                contextObjects.setNeighborSets(bigNSF);
+                contextObjects.setNeighborSets(bigNSF, persistNSF);
             }
         }
         // Classification estimators..
-        currEstimator = new ClassificationEstimator[classifiers.length];
         numFullFolds = new int[numAlgs];
         averageEstimator = new ClassificationEstimator[numAlgs];
         correctPointClassificationArray =
                 new float[classifiers.length][data.size()];
+        correctPointClassificationByRep =
+                new float[classifiers.length][times][];
         allLabelAssignments = new float[classifiers.length][times][data.size()][
                 numClasses];
         // Initialize the average estimator.
@@ -906,6 +1435,18 @@ public class MultiCrossValidation {
         }
         int totalTests = times * numFolds;
         estimators = new ClassificationEstimator[numAlgs][totalTests];
+        execTimeTotal = new double[numAlgs];
+        execTimePerTask = new double[numAlgs][totalTests];
+        numFinishedFolds = 0;
+        // The algorithm tests of all folds are run as separate tasks, so that
+        // the next fold can be prepared and tested while the slower
+        // algorithms are still running on the previous ones.
+        EvaluationTaskPool pool = taskPool;
+        if (pool == null) {
+            pool = new EvaluationTaskPool(numCommonThreads);
+        }
+        ArrayList<ForkJoinTask<?>> algTasks =
+                new ArrayList<>(numAlgs * totalTests);
         if (times == 0 && numFolds == 1) {
             // A pathological case.
             execTimeAllOneRun =
@@ -990,692 +1531,69 @@ public class MultiCrossValidation {
                     currentTraining = new ArrayList();
                     currentTraining.addAll(currentTrainingIndexes);
                 }
-                float[][] foldDistMatrix = null;
-                float[][] pointDistances = null;
-                float[][] foldDistMatrixPrimaryMetric;
-                float[][] pointDistancesMPrimaryMetric;
-                // The following two are there for the case of instance
-                // selection.
-                float[][] foldDistMatrixReduced = null;
-                float[][] testToTrainingDistancesReduced = null;
-                // The index permutation that corresponds to the order in which
-                // they are set to the classifiers.
-                ArrayList<Integer> trainingIndexesReArr = getDataIndexes(
-                        currentTrainingIndexes, dataType);
-                if (distUserPresent || nsfUserPresent) {
-                    // There exist users of distances and neighbor sets.
-                    pointDistancesMPrimaryMetric =
-                            new float[currentTestIndexes.size()][
-                                    trainingIndexesReArr.size()];
-                    int minIndex, maxIndex;
-                    for (int indexFirst = 0; indexFirst <
-                            currentTestIndexes.size(); indexFirst++) {
-                        for (int indexSecond = 0; indexSecond <
-                                trainingIndexesReArr.size(); indexSecond++) {
-                            minIndex = Math.min(currentTestIndexes.get(
-                                    indexFirst), trainingIndexesReArr.get(
-                                    indexSecond));
-                            maxIndex = Math.max(currentTestIndexes.get(
-                                    indexFirst), trainingIndexesReArr.get(
-                                    indexSecond));
-                            pointDistancesMPrimaryMetric[indexFirst][
-                                    indexSecond] = totalDistMat[minIndex][
-                                    maxIndex - minIndex - 1];
-                        }
-                    }
-                    foldDistMatrixPrimaryMetric = new float[
-                            trainingIndexesReArr.size()][];
-                    // Take the fold primary matrix as a sub-matrix of the total
-                    // distance matrix.
-                    for (int indexFirst = 0; indexFirst <
-                            foldDistMatrixPrimaryMetric.length; indexFirst++) {
-                        foldDistMatrixPrimaryMetric[indexFirst] =
-                                new float[foldDistMatrixPrimaryMetric.length -
-                                indexFirst - 1];
-                        for (int indexSecond = indexFirst + 1; indexSecond <
-                                foldDistMatrixPrimaryMetric.length;
-                                indexSecond++) {
-                            minIndex = Math.min(trainingIndexesReArr.get(
-                                    indexFirst), trainingIndexesReArr.get(
-                                    indexSecond));
-                            maxIndex = Math.max(trainingIndexesReArr.get(
-                                    indexFirst), trainingIndexesReArr.get(
-                                    indexSecond));
-                            foldDistMatrixPrimaryMetric[indexFirst][
-                                    indexSecond - indexFirst - 1] =
-                                    totalDistMat[minIndex][maxIndex -
-                                    minIndex - 1];
-                        }
-                    }
-                    if (secondaryDistanceType == SecondaryDistance.NONE) {
-                        // In this case the primary matrix is used as the fold
-                        // matrix.
-                        foldDistMatrix = foldDistMatrixPrimaryMetric;
-                        pointDistances = pointDistancesMPrimaryMetric;
-                    } else {
-                        // Initialize the data context for the kNN finder.
-                        DataSet dataContextForNSF = new DataSet();
-                        int numNom = ((DataInstance) data.get(
-                                trainingIndexesReArr.get(0))).getNumNAtt();
-                        int numInt = ((DataInstance) data.get(
-                                trainingIndexesReArr.get(0))).getNumIAtt();
-                        int numFloat = ((DataInstance) data.get(
-                                trainingIndexesReArr.get(0))).getNumFAtt();
-                        // Generate the generic feature names.
-                        if (numFloat > 0) {
-                            dataContextForNSF.fAttrNames = new String[numFloat];
-                            for (int aInd = 0; aInd < numFloat; aInd++) {
-                                dataContextForNSF.fAttrNames[aInd] =
-                                        "fAt " + aInd;
-                            }
-                        }
-                        if (numInt > 0) {
-                            dataContextForNSF.iAttrNames = new String[numInt];
-                            for (int aInd = 0; aInd < numInt; aInd++) {
-                                dataContextForNSF.iAttrNames[aInd] =
-                                        "iAt " + aInd;
-                            }
-                        }
-                        if (numNom > 0) {
-                            dataContextForNSF.sAttrNames = new String[numNom];
-                            for (int aInd = 0; aInd < numNom; aInd++) {
-                                dataContextForNSF.sAttrNames[aInd] =
-                                        "nAt " + aInd;
-                            }
-                        }
-                        // Fill the dataset.
-                        dataContextForNSF.data =
-                                new ArrayList<>(trainingIndexesReArr.size());
-                        for (int dIndex = 0; dIndex < trainingIndexesReArr.size();
-                                dIndex++) {
-                            dataContextForNSF.data.add(
-                                    (DataInstance) data.get(
-                                    trainingIndexesReArr.get(dIndex)));
-                        }
-                        // The kNN finder object with the secondary neighborhood
-                        // size, taken as subset of the big-k NSF.
-                        NeighborSetFinder nsfSecK;
-                        nsfSecK = this.obtainFoldNSF(trainingIndexesReArr,
-                                dataContextForNSF, foldDistMatrixPrimaryMetric,
-                                secondaryK);
-
-                        if (secondaryDistanceType == SecondaryDistance.SIMCOS) {
-                            // The simcos shared neighbor secondary distance
-                            // measure.
-                            SharedNeighborFinder snf =
-                                    new SharedNeighborFinder(nsfSecK, kValue);
-                            snf.setNumClasses(numClasses);
-                            snf.countSharedNeighborsMultiThread(
-                                    numCommonThreads);
-                            // First fetch the similarities.
-                            foldDistMatrix = snf.getSharedNeighborCounts();
-                            // Then transform them into distances.
-                            for (int indexFirst = 0; indexFirst <
-                                    foldDistMatrix.length; indexFirst++) {
-                                for (int indexSecond = 0; indexSecond <
-                                        foldDistMatrix[indexFirst].length;
-                                        indexSecond++) {
-                                    foldDistMatrix[indexFirst][indexSecond] =
-                                            secondaryK -
-                                            foldDistMatrix[indexFirst][
-                                            indexSecond];
-                                }
-                            }
-                            // Calculate the test-to-training point distances.
-                            SharedNeighborCalculator snc =
-                                    new SharedNeighborCalculator(
-                                    snf,SharedNeighborCalculator.
-                                    WeightingType.NONE);
-                            DataInstance firstInstance, secondInstance;
-                            pointDistances = new float[
-                                    currentTestIndexes.size()][
-                                    trainingIndexesReArr.size()];
-                            int[][] pointNeighborsSec = new int[
-                                    currentTestIndexes.size()][secondaryK];
-                            for (int index = 0; index <
-                                    currentTestIndexes.size(); index++) {
-                                firstInstance = (DataInstance) (data.get(
-                                        currentTestIndexes.get(index)));
-                                pointNeighborsSec[index] =
-                                        NeighborSetFinder.getIndexesOfNeighbors(
-                                        dataContextForNSF, firstInstance,
-                                        secondaryK,
-                                        pointDistancesMPrimaryMetric[index]);
-                            }
-                            for (int firstIndex = 0; firstIndex <
-                                    currentTestIndexes.size(); firstIndex++) {
-                                for (int secondIndex = 0; secondIndex <
-                                        trainingIndexesReArr.size();
-                                        secondIndex++) {
-                                    firstInstance = (DataInstance) (data.get(
-                                            currentTestIndexes.get(
-                                            firstIndex)));
-                                    secondInstance = (DataInstance) (
-                                            data.get(trainingIndexesReArr.get(
-                                            secondIndex)));
-                                    pointDistances[firstIndex][secondIndex] =
-                                            snc.dist(firstInstance,
-                                            secondInstance, pointNeighborsSec[
-                                            firstIndex], 
-                                            nsfSecK.getKNeighbors()[
-                                            secondIndex]);
-                                }
-                            }
-                        } else if (secondaryDistanceType ==
-                                SecondaryDistance.SIMHUB) {
-                            // The simhub hubness-aware secondary
-                            // shared-neighbor distances.
-                            SharedNeighborFinder snf =
-                                    new SharedNeighborFinder(nsfSecK, kValue);
-                            snf.setNumClasses(numClasses);
-                            snf.obtainWeightsFromHubnessInformation(0);
-                            snf.countSharedNeighborsMultiThread(
-                                    numCommonThreads);
-                            foldDistMatrix = snf.getSharedNeighborCounts();
-                            for (int indexFirst = 0; indexFirst <
-                                    foldDistMatrix.length; indexFirst++) {
-                                for (int indexSecond = 0; indexSecond <
-                                        foldDistMatrix[indexFirst].length;
-                                        indexSecond++) {
-                                    foldDistMatrix[indexFirst][indexSecond] =
-                                            secondaryK - foldDistMatrix[
-                                            indexFirst][indexSecond];
-                                }
-                            }
-                            // Calculate the test-to-training point distances.
-                            SharedNeighborCalculator snc =
-                                    new SharedNeighborCalculator(snf,
-                                    SharedNeighborCalculator.WeightingType.
-                                    HUBNESS_INFORMATION);
-                            DataInstance firstInstance, secondInstance;
-                            pointDistances = new float[
-                                    currentTestIndexes.size()][
-                                    trainingIndexesReArr.size()];
-                            int[][] pointNeighborsSec = new int[
-                                    currentTestIndexes.size()][secondaryK];
-                            for (int index = 0; index <
-                                    currentTestIndexes.size(); index++) {
-                                firstInstance = (DataInstance) (data.get(
-                                        currentTestIndexes.get(index)));
-                                pointNeighborsSec[index] =
-                                        NeighborSetFinder.getIndexesOfNeighbors(
-                                        dataContextForNSF, firstInstance,
-                                        secondaryK,
-                                        pointDistancesMPrimaryMetric[index]);
-                            }
-                            for (int indexFirst = 0; indexFirst <
-                                    currentTestIndexes.size(); indexFirst++) {
-                                for (int indexSecond = 0; indexSecond <
-                                        trainingIndexesReArr.size();
-                                        indexSecond++) {
-                                    firstInstance = (DataInstance) (data.get(
-                                            currentTestIndexes.get(
-                                            indexFirst)));
-                                    secondInstance = (DataInstance) (data.get(
-                                            trainingIndexesReArr.get(
-                                            indexSecond)));
-                                    pointDistances[indexFirst][indexSecond] =
-                                            snc.dist(firstInstance,
-                                            secondInstance, pointNeighborsSec[
-                                            indexFirst],
-                                            nsfSecK.getKNeighbors()[
-                                            indexSecond]);
-                                }
-                            }
-                        } else if (secondaryDistanceType ==
-                                SecondaryDistance.MP) {
-                            // Use mutual proximity as the secondary distance
-                            // measure.
-                            MutualProximityCalculator calc =
-                                    new MutualProximityCalculator(
-                                    nsfSecK.getDistances(),
-                                    nsfSecK.getDataSet(),
-                                    nsfSecK.getCombinedMetric());
-                            foldDistMatrix =
-                                    calc.calculateSecondaryDistMatrixMultThr(
-                                    nsfSecK, 8);
-                            // Calculate the test-to-training point distances.
-                            DataInstance firstInstance, secondInstance;
-                            pointDistances = new float[
-                                    currentTestIndexes.size()][
-                                    trainingIndexesReArr.size()];
-                            int[][] pointNeighborsSec = new int[
-                                    currentTestIndexes.size()][secondaryK];
-                            for (int index = 0; index <
-                                    currentTestIndexes.size(); index++) {
-                                firstInstance = (DataInstance) (
-                                        data.get(
-                                        currentTestIndexes.get(index)));
-                                pointNeighborsSec[index] =
-                                        NeighborSetFinder.getIndexesOfNeighbors(
-                                        dataContextForNSF, firstInstance,
-                                        secondaryK,
-                                        pointDistancesMPrimaryMetric[index]);
-                            }
-                            for (int indexFirst = 0; indexFirst <
-                                    currentTestIndexes.size(); indexFirst++) {
-                                for (int indexSecond = 0; indexSecond <
-                                        trainingIndexesReArr.size();
-                                        indexSecond++) {
-                                    firstInstance = (DataInstance) (data.get(
-                                            currentTestIndexes.get(
-                                            indexFirst)));
-                                    secondInstance = (DataInstance) (data.get(
-                                            trainingIndexesReArr.get(
-                                            indexSecond)));
-                                    int[] firstNeighbors = pointNeighborsSec[
-                                            indexFirst];
-                                    float[] kDistsFirst = new float[secondaryK];
-                                    float[] kDistsSecond =
-                                            nsfSecK.getKDistances()[
-                                            indexSecond];
-                                    for (int kInd = 0; kInd < secondaryK;
-                                            kInd++) {
-                                        kDistsFirst[kInd] = 
-                                                pointDistancesMPrimaryMetric[
-                                                indexFirst][firstNeighbors[
-                                                kInd]];
-                                    }
-                                    pointDistances[indexFirst][indexSecond] =
-                                            calc.dist(firstInstance,
-                                            secondInstance, kDistsFirst,
-                                            kDistsSecond);
-                                }
-                            }
-                        } else if (secondaryDistanceType ==
-                                SecondaryDistance.LS) {
-                            // Local scaling as the secondary distance measure.
-                            LocalScalingCalculator lsc =
-                                    new LocalScalingCalculator(nsfSecK);
-                            foldDistMatrix =
-                                    lsc.getTransformedDMatFromNSFPrimaryDMat();
-                            // Calculate the test-to-training point distances.
-                            DataInstance firstInstance, secondInstance;
-                            pointDistances = new float[
-                                    currentTestIndexes.size()][
-                                    trainingIndexesReArr.size()];
-                            int[][] pointNeighborsSec = new int[
-                                    currentTestIndexes.size()][secondaryK];
-                            for (int index = 0; index <
-                                    currentTestIndexes.size(); index++) {
-                                firstInstance = (DataInstance) (
-                                        data.get(currentTestIndexes.get(
-                                        index)));
-                                pointNeighborsSec[index] =
-                                        NeighborSetFinder.getIndexesOfNeighbors(
-                                        dataContextForNSF, firstInstance,
-                                        secondaryK,
-                                        pointDistancesMPrimaryMetric[index]);
-                            }
-                            for (int indexFirst = 0; indexFirst <
-                                    currentTestIndexes.size(); indexFirst++) {
-                                for (int indexSecond = 0; indexSecond <
-                                        trainingIndexesReArr.size();
-                                        indexSecond++) {
-                                    firstInstance = (DataInstance) (data.get(
-                                            currentTestIndexes.get(
-                                            indexFirst)));
-                                    secondInstance = (DataInstance) (data.get(
-                                            trainingIndexesReArr.get(
-                                            indexSecond)));
-                                    int[] firstNeighbors = pointNeighborsSec[
-                                            indexFirst];
-                                    float[] kDistsFirst = new float[secondaryK];
-                                    float[] kDistsSecond =
-                                            nsfSecK.getKDistances()[
-                                            indexSecond];
-                                    for (int kInd = 0; kInd < secondaryK;
-                                            kInd++) {
-                                        kDistsFirst[kInd] =
-                                                pointDistancesMPrimaryMetric[
-                                                indexFirst][firstNeighbors[
-                                                kInd]];
-                                    }
-                                    pointDistances[indexFirst][indexSecond] =
-                                            lsc.distFromKDists(firstInstance,
-                                            secondInstance, kDistsFirst,
-                                            kDistsSecond);
-                                }
-                            }
-                        } else if (secondaryDistanceType ==
-                                SecondaryDistance.NICDM) {
-                            // NICDM secondary distance measure.
-                            NICDMCalculator nsc = new NICDMCalculator(nsfSecK);
-                            foldDistMatrix =
-                                    nsc.getTransformedDMatFromNSFPrimaryDMat();
-                            // Calculate the test-to-training point distances.
-                            DataInstance firstInstance, secondInstance;
-                            pointDistances = new float[
-                                    currentTestIndexes.size()][
-                                    trainingIndexesReArr.size()];
-                            int[][] pointNeighborsSec = new int[
-                                    currentTestIndexes.size()][secondaryK];
-                            for (int index = 0; index <
-                                    currentTestIndexes.size(); index++) {
-                                firstInstance = (DataInstance) (
-                                        data.get(currentTestIndexes.get(
-                                        index)));
-                                pointNeighborsSec[index] =
-                                        NeighborSetFinder.getIndexesOfNeighbors(
-                                        dataContextForNSF, firstInstance,
-                                        secondaryK,
-                                        pointDistancesMPrimaryMetric[index]);
-                            }
-                            for (int indexFirst = 0; indexFirst <
-                                    currentTestIndexes.size(); indexFirst++) {
-                                for (int indexSecond = 0; indexSecond <
-                                        trainingIndexesReArr.size();
-                                        indexSecond++) {
-                                    firstInstance = (DataInstance) (
-                                            data.get(currentTestIndexes.get(
-                                            indexFirst)));
-                                    secondInstance = (DataInstance) (
-                                            data.get(trainingIndexesReArr.get(
-                                            indexSecond)));
-                                    int[] firstNeighbors =
-                                            pointNeighborsSec[indexFirst];
-                                    float[] kDistsFirst = new float[secondaryK];
-                                    float[] kDistsSecond =
-                                            nsfSecK.getKDistances()[
-                                            indexSecond];
-                                    for (int kInd = 0; kInd < secondaryK;
-                                            kInd++) {
-                                        kDistsFirst[kInd] =
-                                                pointDistancesMPrimaryMetric[
-                                                indexFirst][firstNeighbors[
-                                                kInd]];
-                                    }
-                                    pointDistances[indexFirst][indexSecond] =
-                                            nsc.distFromKDists(firstInstance,
-                                            secondInstance, kDistsFirst,
-                                            kDistsSecond);
-                                }
-                            }
-                        }
-
+                // Wait until the fold structures fit within the memory budget.
+                long foldMemory = estimateFoldMemory(
+                        currentTrainingIndexes.size(),
+                        currentTestIndexes.size());
+                pool.acquireMemory(foldMemory);
+                FoldContext foldContext = null;
+                try {
+                    foldContext = prepareFold(foldMemory, numAlgs);
+                } finally {
+                    if (foldContext == null) {
+                        // Nothing would release the admission otherwise.
+                        pool.releaseMemory(foldMemory);
                     }
                 }
-                if (nsfUserPresent && kMode == SINGLE) {
-                    // Again, generate an appropriate data context for the fold
-                    // NeighborSetFinder objects.
-                    DataSet dataContextForNSF = new DataSet();
-                    int numNom = 0;
-                    int numInt = 0;
-                    int numFloat = 0;
-                    if (data.get(trainingIndexesReArr.get(0)) instanceof
-                            DataInstance) {
-                        numNom = ((DataInstance) data.get(
-                                trainingIndexesReArr.get(0))).getNumNAtt();
-                        numInt = ((DataInstance) data.get(
-                                trainingIndexesReArr.get(0))).getNumIAtt();
-                        numFloat = ((DataInstance) data.get(
-                                trainingIndexesReArr.get(0))).getNumFAtt();
-                    } else if (data.get(trainingIndexesReArr.get(0)) instanceof
-                            DiscretizedDataInstance) {
-                        numNom = ((DiscretizedDataInstance) data.get(
-                                trainingIndexesReArr.get(0))).
-                                getOriginalInstance().getNumNAtt();
-                        numInt = ((DiscretizedDataInstance) data.get(
-                                trainingIndexesReArr.get(0))).
-                                getOriginalInstance().getNumIAtt();
-                        numFloat = ((DiscretizedDataInstance) data.get(
-                                trainingIndexesReArr.get(0))).
-                                getOriginalInstance().getNumFAtt();
-                    }
-                    // Generate the generic feature names.
-                    if (numFloat > 0) {
-                        dataContextForNSF.fAttrNames = new String[numFloat];
-                        for (int aInd = 0; aInd < numFloat; aInd++) {
-                            dataContextForNSF.fAttrNames[aInd] = "fAt " + aInd;
-                        }
-                    }
-                    if (numInt > 0) {
-                        dataContextForNSF.iAttrNames = new String[numInt];
-                        for (int aInd = 0; aInd < numInt; aInd++) {
-                            dataContextForNSF.iAttrNames[aInd] = "iAt " + aInd;
-                        }
-                    }
-                    if (numNom > 0) {
-                        dataContextForNSF.sAttrNames = new String[numNom];
-                        for (int aInd = 0; aInd < numNom; aInd++) {
-                            dataContextForNSF.sAttrNames[aInd] = "nAt " + aInd;
-                        }
-                    }
-
-                    dataContextForNSF.data = new ArrayList<>(
-                            trainingIndexesReArr.size());
-                    if (data.get(trainingIndexesReArr.get(0)) instanceof
-                            DataInstance) {
-                        // The continuous case.
-                        for (int dIndex = 0; dIndex < trainingIndexesReArr.size();
-                                dIndex++) {
-                            dataContextForNSF.data.add((DataInstance) data.get(
-                                    trainingIndexesReArr.get(dIndex)));
-                        }
-                    } else if (data.get(trainingIndexesReArr.get(0)) instanceof
-                            DiscretizedDataInstance) {
-                        // The discretized case.
-                        for (int dIndex = 0; dIndex < trainingIndexesReArr.size();
-                                dIndex++) {
-                            dataContextForNSF.data.add(((
-                                    DiscretizedDataInstance) data.get(
-                                    trainingIndexesReArr.get(dIndex))).
-                                    getOriginalInstance());
-                        }
-                    }
-                    for (int cInd = 0; cInd < numAlgs; cInd++) {
-                        // Explicitly state that the classifiers may not modify
-                        // the NeighborSetFinder object on the fly without
-                        // making a copy.
-                        if (classifiers[cInd] instanceof NSFUserInterface) {
-                            ((NSFUserInterface) (classifiers[cInd])).
-                                    noRecalcs();
-                        }
-                    }
-                    if (secondaryDistanceType == SecondaryDistance.NONE) {
-                        // Obtain the fold NeighborSetFinder object from the
-                        // primary kNN sets.
-                        nsfCurrent = obtainFoldNSF(trainingIndexesReArr,
-                                dataContextForNSF, foldDistMatrix, kValue);
-                        if (dreducer == null) {
-                            testPointNeighbors = obtainFoldTestNeighbors(
-                                    trainingIndexesReArr, currentTestIndexes,
-                                    dataContextForNSF, pointDistances, kValue);
-                        }
-                    } else {
-                        // In this case, we need to calculate the kNN sets from
-                        // the secondary distance matrices.
-                        if (!approximateNNs || alphaAppKNN == 1f) {
-                            nsfCurrent = new NeighborSetFinder(
-                                    dataContextForNSF, foldDistMatrix, cmet);
-                            nsfCurrent.calculateNeighborSetsMultiThr(kValue,
-                                    numCommonThreads);
-                        } else {
-                            AppKNNGraphLanczosBisection appNSF =
-                                    new AppKNNGraphLanczosBisection(
-                                    dataContextForNSF, foldDistMatrix,
-                                    kValue, alphaAppKNN);
-                            appNSF.calculateApproximateNeighborSets();
-                            nsfCurrent = NeighborSetFinder.
-                                    constructFromAppFinder(appNSF, false);
-                        }
-                        if (dreducer == null) {
-                            testPointNeighbors =
-                                    new int[currentTestIndexes.size()][];
-                            for (int ni = 0; ni <
-                                    testPointNeighbors.length; ni++) {
-                                DataInstance inst = (DataInstance) (
-                                        data.get(currentTestIndexes.get(ni)));
-                                testPointNeighbors[ni] = NeighborSetFinder.
-                                        getIndexesOfNeighbors(
-                                        dataContextForNSF, inst, kValue,
-                                        pointDistances[ni]);
-                            }
-                        }
-                    }
-                    // Perform instance selection (optional).
-                    if (dreducer != null) {
-                        foldReducer = dreducer.copy();
-                        foldReducer.setOriginalDataSet(dataContextForNSF);
-                        if (foldReducer instanceof NSFUserInterface) {
-                            // If the selector needs the kNN sets, we provide
-                            // them.
-                            ((NSFUserInterface) foldReducer).setNSF(
-                                    nsfCurrent.copy());
-                        }
-                        if (DataMineConstants.isZero(selectionRate)) {
-                            // Find the appropriate selection rate
-                            // automatically, if possible.
-                            foldReducer.reduceDataSet();
-                        } else {
-                            // Perform the reduction with the specified
-                            // selection rate.
-                            foldReducer.reduceDataSet(selectionRate);
-                        }
-                        foldReducer.sortSelectedIndexes();
-                        if (nsfUserPresent) {
-                            // Calculate the unbiased hubness estimates.
-                            foldReducer.calculatePrototypeHubness(kValue);
-                        }
-                        // The data context for kNN calculations on the
-                        // selected prototype set.
-                        DataSet dataContextForNSFReduced =
-                                dataContextForNSF.cloneDefinition();
-                        dataContextForNSFReduced.data = null;
-                        ArrayList<Integer> protoIndexes =
-                                foldReducer.getPrototypeIndexes();
-                        currentPrototypeIndexes =
-                                new ArrayList<>(protoIndexes.size());
-                        for (int dIndex = 0; dIndex < protoIndexes.size();
-                                dIndex++) {
-                            currentPrototypeIndexes.add(trainingIndexesReArr.get(
-                                    protoIndexes.get(dIndex)));
-                        }
-                        dataContextForNSFReduced.data =
-                                new ArrayList<>(protoIndexes.size());
-                        for (int dIndex = 0; dIndex < protoIndexes.size();
-                                dIndex++) {
-                            dataContextForNSFReduced.data.add((DataInstance)
-                                    data.get(currentPrototypeIndexes.get(
-                                    dIndex)));
-                        }
-
-                        foldDistMatrixReduced =
-                                new float[currentPrototypeIndexes.size()][];
-                        int minIndex, maxIndex;
-                        for (int indexFirst = 0; indexFirst <
-                                foldDistMatrixReduced.length; indexFirst++) {
-                            foldDistMatrixReduced[indexFirst] =
-                                    new float[foldDistMatrixReduced.length -
-                                    indexFirst - 1];
-                            for (int indexSecond = indexFirst + 1; indexSecond <
-                                    foldDistMatrixReduced.length;
-                                    indexSecond++) {
-                                minIndex = Math.min(
-                                        currentPrototypeIndexes.get(
-                                        indexFirst), currentPrototypeIndexes.
-                                        get(indexSecond));
-                                maxIndex = Math.max(currentPrototypeIndexes.
-                                        get(indexFirst),
-                                        currentPrototypeIndexes.get(
-                                        indexSecond));
-                                foldDistMatrixReduced[indexFirst][indexSecond -
-                                        indexFirst - 1] = totalDistMat[
-                                        minIndex][maxIndex - minIndex - 1];
-                            }
-                        }
-                        testToTrainingDistancesReduced = new float[
-                                currentTestIndexes.size()][
-                                currentPrototypeIndexes.size()];
-                        for (int indexFirst = 0; indexFirst <
-                                currentTestIndexes.size();indexFirst++) {
-                            for (int indexSecond = 0; indexSecond <
-                                    currentPrototypeIndexes.size();
-                                    indexSecond++) {
-                                minIndex = Math.min(currentTestIndexes.get(
-                                        indexFirst), currentPrototypeIndexes.
-                                        get(indexSecond));
-                                maxIndex = Math.max(currentTestIndexes.get(
-                                        indexFirst), currentPrototypeIndexes.
-                                        get(indexSecond));
-                                testToTrainingDistancesReduced[indexFirst][
-                                        indexSecond] = totalDistMat[minIndex][
-                                        maxIndex - minIndex - 1];
-                            }
-                        }
-                        if (secondaryDistanceType == SecondaryDistance.NONE) {
-                            nsfCurrent = obtainFoldNSF(trainingIndexesReArr,
-                                    dataContextForNSF, foldDistMatrix, kValue);
-                            NeighborSetFinder nsfProto = nsfCurrent.getSubNSF(
-                                    kValue, protoIndexes, foldDistMatrixReduced,
-                                    dataContextForNSFReduced);
-                            nsfCurrent = nsfProto;
-                        } else {
-                            if (!approximateNNs || alphaAppKNN == 1f) {
-                                nsfCurrent = new NeighborSetFinder(
-                                        dataContextForNSFReduced,
-                                        foldDistMatrixReduced, cmet);
-                                nsfCurrent.calculateNeighborSetsMultiThr(
-                                        kValue, numCommonThreads);
-                            } else {
-                                AppKNNGraphLanczosBisection appNSF =
-                                        new AppKNNGraphLanczosBisection(
-                                        dataContextForNSFReduced,
-                                        foldDistMatrixReduced, kValue,
-                                        alphaAppKNN);
-                                appNSF.calculateApproximateNeighborSets();
-                                nsfCurrent =
-                                        NeighborSetFinder.
-                                        constructFromAppFinder(appNSF, false);
-                            }
-                        }
-                        testPointNeighbors =
-                                new int[currentTestIndexes.size()][];
-                        for (int index = 0; index < testPointNeighbors.length;
-                                index++) {
-                            DataInstance inst = (DataInstance) (data.get(
-                                    currentTestIndexes.get(index)));
-                            testPointNeighbors[index] = NeighborSetFinder.
-                                    getIndexesOfNeighbors(
-                                    dataContextForNSFReduced, inst, kValue,
-                                    testToTrainingDistancesReduced[index]);
-                        }
-                    }
+                if (numAlgs == 0) {
+                    pool.releaseMemory(foldMemory);
                 }
-                // Train the models and test the algorithms.
-                Thread[] algThreads = new Thread[numAlgs];
-                for (int algIndex = 0; algIndex < numAlgs; algIndex++) {
-                    algThreads[algIndex] = null;
-                    if (dreducer == null) {
-                        algThreads[algIndex] = new Thread(
-                                new AlgorithmTesterThread(
-                                algIndex, i, j, foldDistMatrix, pointDistances,
-                                testPointNeighbors));
-                    } else {
-                        algThreads[algIndex] = new Thread(
-                                new AlgorithmTesterThread(
-                                algIndex, i, j, foldDistMatrixReduced,
-                                testToTrainingDistancesReduced,
-                                testPointNeighbors));
+                int numSubmitted = 0;
+                try {
+                    while (numSubmitted < numAlgs) {
+                        ForkJoinTask<?> algTask = pool.submit("alg " +
+                                numSubmitted + " rep " + i + " fold " + j,
+                                new AlgorithmTesterThread(numSubmitted, i, j,
+                                foldContext, pool));
+                        numSubmitted++;
+                        algTasks.add(algTask);
                     }
-                    algThreads[algIndex].start();
-                }
-                for (int algIndex = 0; algIndex < numAlgs; algIndex++) {
-                    if (algThreads[algIndex] != null) {
-                        try {
-                            algThreads[algIndex].join();
-                        } catch (Throwable t) {
+                } finally {
+                    // The tests that were never submitted will not release
+                    // their share of the admission.
+                    for (int algIndex = numSubmitted; algIndex < numAlgs;
+                            algIndex++) {
+                        if (foldContext.numRemainingTests.decrementAndGet()
+                                == 0) {
+                            pool.releaseMemory(foldMemory);
                         }
                     }
                 }
-                System.out.print("|");
-                if ((i * numFolds + j - 4) % 5 == 0) {
-                    System.out.print(" ");
-                }
             }
-            System.gc();
+        }
+        try {
+            EvaluationTaskPool.awaitAll(algTasks);
+        } finally {
+            if (taskPool == null) {
+                pool.shutdown();
+            }
         }
         System.out.println();
+        // Sum up the correct classification counts over the repetitions.
+        for (int algIndex = 0; algIndex < numAlgs; algIndex++) {
+            for (int i = 0; i < times; i++) {
+                float[] repCounts = correctPointClassificationByRep[
+                        algIndex][i];
+                if (repCounts == null) {
+                    continue;
+                }
+                for (int index = 0; index < repCounts.length; index++) {
+                    correctPointClassificationArray[algIndex][index] +=
+                            repCounts[index];
+                }
+            }
+        }
+        correctPointClassificationByRep = null;
         // Turn the sums in the average estimator into averages by normalizing
         // them.
         for (int algIndex = 0; algIndex < numAlgs; algIndex++) {
@@ -1712,33 +1630,93 @@ public class MultiCrossValidation {
     }
 
     /**
-     * This class implements the thread-based algorithm testing and evaluation,
-     * so that one thread evaluates one classifier.
+     * This method estimates the memory that the structures of a single fold
+     * take, which includes the fold distance matrix, the test-to-training
+     * distances and the kNN sets.
+     *
+     * @param trainingSize Integer that is the number of training points.
+     * @param testSize Integer that is the number of test points.
+     * @return Long that is the estimated number of bytes.
      */
-    class AlgorithmTesterThread implements Runnable {
+    private long estimateFoldMemory(int trainingSize, int testSize) {
+        long numDistances = (long) trainingSize * (trainingSize - 1) / 2 +
+                (long) testSize * trainingSize;
+        if (secondaryDistanceType != SecondaryDistance.NONE) {
+            // Both the primary and the secondary distances are kept.
+            numDistances *= 2;
+        }
+        long numNeighbors = nsfUserPresent ?
+                (long) (trainingSize + testSize) * Math.max(kValue, 1) : 0;
+        // Four bytes per distance, eight per neighbor index and k-distance.
+        return 4 * numDistances + 8 * numNeighbors;
+    }
 
-        private int algIndex;
-        private int repetitionIndex;
-        private int foldIndex;
-        private float[][] foldDistMatrix = null;
-        private float[][] testToTrainingDistances = null;
-        private int[][] testToTrainingNeighbors = null;
+    /**
+     * This class holds the data that the algorithm tests on a single fold
+     * share, so that the tests can run while the next folds are prepared.
+     */
+    class FoldContext {
+
+        private ArrayList<Integer> trainingIndexes;
+        private ArrayList<Integer> testIndexes;
+        private ArrayList<Integer> prototypeIndexes;
+        private NeighborSetFinder nsf;
+        private InstanceSelector reducer;
+        private float[][] foldDistMatrix;
+        private float[][] testToTrainingDistances;
+        private int[][] testToTrainingNeighbors;
+        // The admitted memory, released once all the tests are done.
+        private long memory;
+        private AtomicInteger numRemainingTests;
 
         /**
          * Initialization.
-         * @param algIndex Integer that is the index of the classifier to
-         * evaluate.
-         * @param repetitionIndex Integer that is the index of the current
-         * repetition in the CV framework.
-         * @param foldIndex Integer that is the fold index in the current CV
-         * framework.
+         *
+         * @param trainingIndexes ArrayList<Integer> of training indexes.
+         * @param testIndexes ArrayList<Integer> of test indexes.
+         * @param prototypeIndexes ArrayList<Integer> of the selected prototype
+         * indexes, in case of instance selection.
+         * @param nsf NeighborSetFinder object for the training data.
+         * @param reducer InstanceSelector used on the training data, if any.
+         * @param foldDistMatrix float[][] representing the upper triangular
+         * distance matrix on the training data.
+         * @param testToTrainingDistances float[][] representing the distances
+         * between the test and the training points.
+         * @param testToTrainingNeighbors int[][] representing the neighbors of
+         * the test points among the training points.
+         * @param memory Long that is the admitted memory for the fold.
+         * @param numTests Integer that is the number of algorithm tests.
          */
-        public AlgorithmTesterThread(int algIndex, int repetitionIndex,
-                int foldIndex) {
-            this.algIndex = algIndex;
-            this.repetitionIndex = repetitionIndex;
-            this.foldIndex = foldIndex;
+        FoldContext(ArrayList<Integer> trainingIndexes,
+                ArrayList<Integer> testIndexes,
+                ArrayList<Integer> prototypeIndexes, NeighborSetFinder nsf,
+                InstanceSelector reducer, float[][] foldDistMatrix,
+                float[][] testToTrainingDistances,
+                int[][] testToTrainingNeighbors, long memory, int numTests) {
+            this.trainingIndexes = trainingIndexes;
+            this.testIndexes = testIndexes;
+            this.prototypeIndexes = prototypeIndexes;
+            this.nsf = nsf;
+            this.reducer = reducer;
+            this.foldDistMatrix = foldDistMatrix;
+            this.testToTrainingDistances = testToTrainingDistances;
+            this.testToTrainingNeighbors = testToTrainingNeighbors;
+            this.memory = memory;
+            numRemainingTests = new AtomicInteger(numTests);
         }
+    }
+
+    /**
+     * This class implements the task-based algorithm testing and evaluation,
+     * so that one task evaluates one classifier on one fold.
+     */
+    class AlgorithmTesterThread implements Runnable {
+
+        private int algIndex;
+        private int repetitionIndex;
+        private int foldIndex;
+        private FoldContext foldContext;
+        private EvaluationTaskPool pool;
 
         /**
          * Initialization.
@@ -1748,25 +1726,17 @@ public class MultiCrossValidation {
          * repetition in the CV framework.
          * @param foldIndex Integer that is the fold index in the current CV
          * framework.
-         * @param foldDistMatrix float[][] representing the upper triangular
-         * distance matrix on the training data.
-         * @param testToTrainingDistances float[][] representing the distances
-         * between the test and the training points.
-         * @param testToTrainingNeighbors int[][] representing the neighbors
-         * of the test points among the training points.
+         * @param foldContext FoldContext holding the fold data.
+         * @param pool EvaluationTaskPool that admitted the fold memory.
          */
-        public AlgorithmTesterThread(int algIndex,
-                int repetitionIndex,
-                int foldIndex,
-                float[][] foldDistMatrix,
-                float[][] testToTrainingDistances,
-                int[][] testToTrainingNeighbors) {
+        public AlgorithmTesterThread(int algIndex, int repetitionIndex,
+                int foldIndex, FoldContext foldContext,
+                EvaluationTaskPool pool) {
             this.algIndex = algIndex;
             this.repetitionIndex = repetitionIndex;
             this.foldIndex = foldIndex;
-            this.foldDistMatrix = foldDistMatrix;
-            this.testToTrainingDistances = testToTrainingDistances;
-            this.testToTrainingNeighbors = testToTrainingNeighbors;
+            this.foldContext = foldContext;
+            this.pool = pool;
         }
 
         @Override
@@ -1775,22 +1745,46 @@ public class MultiCrossValidation {
                 long startTime = System.nanoTime();
                 // The following method essentially does all the testing.
                 testAndEvaluateClassifier(algIndex, repetitionIndex, foldIndex,
-                        foldDistMatrix, testToTrainingDistances,
-                        testToTrainingNeighbors);
+                        foldContext);
                 long endTime = System.nanoTime();
-                execTimeTotal[algIndex] += (startTime - endTime);
+                synchronized (averageEstimator[algIndex]) {
+                    execTimeTotal[algIndex] += (endTime - startTime);
+                    execTimePerTask[algIndex][repetitionIndex * numFolds +
+                            foldIndex] = (endTime - startTime) / 1000;
+                }
             } catch (Exception e) {
                 // In case some error occurs.
                 System.err.println("Algorithm index: " + algIndex);
                 System.err.println("Error while testing " +
-                        currClassifierInstances[algIndex].getClass().getName());
+                        classifiers[algIndex].getClass().getName());
                 System.err.println(e.getMessage());
+            } finally {
+                if (foldContext.numRemainingTests.decrementAndGet() == 0) {
+                    pool.releaseMemory(foldContext.memory);
+                    reportFinishedFold();
+                }
+                // Let go of the fold data, as the finished tasks are kept
+                // until the end of the run.
+                foldContext = null;
             }
         }
     }
 
     /**
-     * This method does all the classifier testing and evaluation.
+     * This method prints the progress once all algorithms have been tested on
+     * a fold.
+     */
+    private synchronized void reportFinishedFold() {
+        System.out.print("|");
+        if ((numFinishedFolds - 4) % 5 == 0) {
+            System.out.print(" ");
+        }
+        numFinishedFolds++;
+    }
+
+    /**
+     * This method does all the classifier testing and evaluation on the
+     * current fold.
      * 
      * @param algIndex Integer that is the index of the classifier to evaluate.
      * @param repetitionIndex Integer that is the index of the current
@@ -1809,117 +1803,179 @@ public class MultiCrossValidation {
             int foldIndex, float[][] foldDistMatrix,
             float[][] testToTrainingDistances,
             int[][] testToTrainingNeighbors) throws Exception {
+        FoldContext foldContext = new FoldContext(currentTrainingIndexes,
+                currentTestIndexes, currentPrototypeIndexes, nsfCurrent,
+                foldReducer, foldDistMatrix, testToTrainingDistances,
+                testToTrainingNeighbors, 0, 1);
+        testAndEvaluateClassifier(algIndex, repetitionIndex, foldIndex,
+                foldContext);
+    }
+
+    /**
+     * This method does all the classifier testing and evaluation.
+     * 
+     * @param algIndex Integer that is the index of the classifier to evaluate.
+     * @param repetitionIndex Integer that is the index of the current
+     * repetition in the CV framework.
+     * @param foldIndex Integer that is the fold index in the current CV
+     * framework.
+     * @param foldContext FoldContext holding the fold data.
+     * @throws Exception 
+     */
+    private void testAndEvaluateClassifier(int algIndex, int repetitionIndex,
+            int foldIndex, FoldContext foldContext) throws Exception {
+        float[][] foldDistMatrix = foldContext.foldDistMatrix;
+        float[][] testToTrainingDistances =
+                foldContext.testToTrainingDistances;
+        int[][] testToTrainingNeighbors = foldContext.testToTrainingNeighbors;
+        ArrayList<Integer> testIndexes = foldContext.testIndexes;
+        float[] correctCounts = getRepetitionCorrectCounts(algIndex,
+                repetitionIndex);
+        ClassificationEstimator currEstimator;
         // Use the prototype to spawn a new, empty copy of the initial
         // classifier configuration.
-        currClassifierInstances[algIndex] =
+        ValidateableInterface classifierInstance =
                 classifiers[algIndex].copyConfiguration();
-        if (dreducer == null) {
+        if (foldContext.reducer == null) {
             // No instance selection.
-            currClassifierInstances[algIndex].setDataIndexes(
-                    currentTrainingIndexes, dataType);
+            classifierInstance.setDataIndexes(foldContext.trainingIndexes,
+                    dataType);
         } else {
             // Instance selection.
-            currClassifierInstances[algIndex].setDataIndexes(
-                    currentPrototypeIndexes, dataType);
+            classifierInstance.setDataIndexes(foldContext.prototypeIndexes,
+                    dataType);
         }
-        if (currClassifierInstances[algIndex] instanceof
-                DistMatrixUserInterface) {
+        if (classifierInstance instanceof DistMatrixUserInterface) {
             // Provide the fold distance matrix, if needed.
-            ((DistMatrixUserInterface) currClassifierInstances[algIndex]).
-                    setDistMatrix(foldDistMatrix);
+            ((DistMatrixUserInterface) classifierInstance).setDistMatrix(
+                    foldDistMatrix);
         }
-        if (currClassifierInstances[algIndex] instanceof
-                AutomaticKFinderInterface && kMode == INTERVAL) {
+        if (classifierInstance instanceof AutomaticKFinderInterface &&
+                kMode == INTERVAL) {
             // Find the optimal k value, if so specified.
-            ((AutomaticKFinderInterface) currClassifierInstances[algIndex]).
-                    findK(kMin, kMax);
+            ((AutomaticKFinderInterface) classifierInstance).findK(kMin, kMax);
         }
-        if (currClassifierInstances[algIndex] instanceof NSFUserInterface &&
+        if (classifierInstance instanceof NSFUserInterface &&
                 kMode == SINGLE) {
             // Set the training kNN graph, if required.
-            ((NSFUserInterface) currClassifierInstances[algIndex]).setNSF(
-                    nsfCurrent);
+            ((NSFUserInterface) classifierInstance).setNSF(foldContext.nsf);
         }
-        if (dreducer == null) {
+        if (foldContext.reducer == null) {
             // Train the classifier.
-            currClassifierInstances[algIndex].train();
+            classifierInstance.train();
         } else {
             if (protoHubnessMode != PROTO_UNBIASED) {
                 // Just train on the reduced data with the same method as with
                 // no instance selection.
-                currClassifierInstances[algIndex].train();
+                classifierInstance.train();
             } else {
                 // Train while compensating for the instance selection bias.
-                currClassifierInstances[algIndex].trainOnReducedData(
-                        foldReducer);
+                classifierInstance.trainOnReducedData(foldContext.reducer);
             }
         }
         // Test the classifier. Different methods are invoked based on the
         // interfaces that the classifier implements.
-        if (currClassifierInstances[algIndex] instanceof
-                DistToPointsQueryUserInterface ||
-                currClassifierInstances[algIndex] instanceof
+        if (classifierInstance instanceof DistToPointsQueryUserInterface ||
+                classifierInstance instanceof
                 NeighborPointsQueryUserInterface) {
             if (validateOnExternalLabels) {
-                currEstimator[algIndex] = currClassifierInstances[algIndex].
-                        test(allLabelAssignments[algIndex][repetitionIndex],
-                        correctPointClassificationArray[algIndex],
-                        currentTestIndexes, dataType, testLabelArray,
+                currEstimator = classifierInstance.test(
+                        allLabelAssignments[algIndex][repetitionIndex],
+                        correctCounts, testIndexes, dataType, testLabelArray,
                         numClasses, testToTrainingDistances,
                         testToTrainingNeighbors);
             } else {
-                currEstimator[algIndex] = currClassifierInstances[algIndex].
-                        test(allLabelAssignments[algIndex][repetitionIndex],
-                        correctPointClassificationArray[algIndex],
-                        currentTestIndexes, dataType, numClasses,
+                currEstimator = classifierInstance.test(
+                        allLabelAssignments[algIndex][repetitionIndex],
+                        correctCounts, testIndexes, dataType, numClasses,
                         testToTrainingDistances, testToTrainingNeighbors);
             }
-        } else if (currClassifierInstances[algIndex] instanceof
+        } else if (classifierInstance instanceof
                 DiscreteDistToPointsQueryUserInterface ||
-                currClassifierInstances[algIndex] instanceof
+                classifierInstance instanceof
                 DiscreteNeighborPointsQueryUserInterface) {
             if (validateOnExternalLabels) {
-                currEstimator[algIndex] = currClassifierInstances[algIndex].
-                        test(allLabelAssignments[algIndex][repetitionIndex],
-                        correctPointClassificationArray[algIndex],
-                        currentTestIndexes, dataType, testLabelArray,
+                currEstimator = classifierInstance.test(
+                        allLabelAssignments[algIndex][repetitionIndex],
+                        correctCounts, testIndexes, dataType, testLabelArray,
                         numClasses, testToTrainingDistances,
                         testToTrainingNeighbors);
             } else {
-                currEstimator[algIndex] = currClassifierInstances[algIndex].
-                        test(allLabelAssignments[algIndex][repetitionIndex],
-                        correctPointClassificationArray[algIndex],
-                        currentTestIndexes, dataType, numClasses,
+                currEstimator = classifierInstance.test(
+                        allLabelAssignments[algIndex][repetitionIndex],
+                        correctCounts, testIndexes, dataType, numClasses,
                         testToTrainingDistances, testToTrainingNeighbors);
             }
         } else {
             if (validateOnExternalLabels) {
-                currEstimator[algIndex] = currClassifierInstances[algIndex].
-                        test(allLabelAssignments[algIndex][repetitionIndex],
-                        correctPointClassificationArray[algIndex],
-                        currentTestIndexes, dataType, testLabelArray,
+                currEstimator = classifierInstance.test(
+                        allLabelAssignments[algIndex][repetitionIndex],
+                        correctCounts, testIndexes, dataType, testLabelArray,
                         numClasses);
             } else {
-                currEstimator[algIndex] = currClassifierInstances[algIndex].
-                        test(allLabelAssignments[algIndex][repetitionIndex],
-                        correctPointClassificationArray[algIndex],
-                        currentTestIndexes, dataType, numClasses);
+                currEstimator = classifierInstance.test(
+                        allLabelAssignments[algIndex][repetitionIndex],
+                        correctCounts, testIndexes, dataType, numClasses);
             }
         }
+        // The tests of the same algorithm on different folds may finish
+        // concurrently.
+        synchronized (averageEstimator[algIndex]) {
+            accumulateEvaluation(algIndex, repetitionIndex, foldIndex,
+                    currEstimator);
+        }
+    }
+
+    /**
+     * This method returns the correct classification counts of an algorithm
+     * in a repetition. The folds of a single repetition have disjoint test
+     * sets, so they can update the same array.
+     *
+     * @param algIndex Integer that is the index of the classifier.
+     * @param repetitionIndex Integer that is the repetition index.
+     * @return float[] of correct classification counts.
+     */
+    private float[] getRepetitionCorrectCounts(int algIndex,
+            int repetitionIndex) {
+        if (correctPointClassificationByRep == null) {
+            // Outside of a cross-validation run.
+            return correctPointClassificationArray[algIndex];
+        }
+        synchronized (correctPointClassificationByRep[algIndex]) {
+            if (correctPointClassificationByRep[algIndex][repetitionIndex] ==
+                    null) {
+                correctPointClassificationByRep[algIndex][repetitionIndex] =
+                        new float[data.size()];
+            }
+            return correctPointClassificationByRep[algIndex][repetitionIndex];
+        }
+    }
+
+    /**
+     * This method adds the evaluation of a single test to the cumulative
+     * estimators.
+     *
+     * @param algIndex Integer that is the index of the classifier.
+     * @param repetitionIndex Integer that is the repetition index.
+     * @param foldIndex Integer that is the fold index.
+     * @param currEstimator ClassificationEstimator of the current test.
+     */
+    private void accumulateEvaluation(int algIndex, int repetitionIndex,
+            int foldIndex, ClassificationEstimator currEstimator) {
         // Save the evaluation object.
         if (keepAllEvaluations) {
             estimators[algIndex][repetitionIndex * numFolds + foldIndex] =
-                    currEstimator[algIndex];
+                    currEstimator;
         }
         // Sum the evaluations up in the cumulative classification estimator.
         // They will be normalized into proper averages later on.
-        if (currEstimator[algIndex].getConfusionMatrix().length == numClasses) {
+        if (currEstimator.getConfusionMatrix().length == numClasses) {
             numFullFolds[algIndex]++;
             float[][] avgConfMat =
                     averageEstimator[algIndex].getConfusionMatrix();
-            float[][] currConfMat = currEstimator[algIndex].getConfusionMatrix();
-            float[] currPrecision = currEstimator[algIndex].getPrecision();
-            float[] currRecall = currEstimator[algIndex].getRecall();
+            float[][] currConfMat = currEstimator.getConfusionMatrix();
+            float[] currPrecision = currEstimator.getPrecision();
+            float[] currRecall = currEstimator.getRecall();
             for (int cFirst = 0; cFirst < numClasses; cFirst++) {
                 averageEstimator[algIndex].getPrecision()[cFirst] +=
                         currPrecision[cFirst];
@@ -1931,20 +1987,20 @@ public class MultiCrossValidation {
             }
         }
         averageEstimator[algIndex].setAccuracy(averageEstimator[algIndex].
-                getAccuracy() + currEstimator[algIndex].getAccuracy());
+                getAccuracy() + currEstimator.getAccuracy());
         averageEstimator[algIndex].setAvgPrecision(averageEstimator[algIndex].
-                getAvgPrecision() + currEstimator[algIndex].getAvgPrecision());
+                getAvgPrecision() + currEstimator.getAvgPrecision());
         averageEstimator[algIndex].setAvgRecall(averageEstimator[algIndex].
-                getAvgRecall() + currEstimator[algIndex].getAvgRecall());
+                getAvgRecall() + currEstimator.getAvgRecall());
         averageEstimator[algIndex].setMicroFMeasure(averageEstimator[algIndex].
                 getMicroFMeasure() +
-                currEstimator[algIndex].getMicroFMeasure());
+                currEstimator.getMicroFMeasure());
         averageEstimator[algIndex].setMacroFMeasure(averageEstimator[algIndex].
                 getMacroFMeasure() +
-                currEstimator[algIndex].getMacroFMeasure());
+                currEstimator.getMacroFMeasure());
         averageEstimator[algIndex].setMatthewsCorrCoef(
                 averageEstimator[algIndex].getMatthewsCorrCoef() +
-                currEstimator[algIndex].getMatthewsCorrCoef());
+                currEstimator.getMatthewsCorrCoef());
     }
 
     /**
@@ -0,0 +1,164 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.supervised.evaluation.cv.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.supervised.evaluation.ValidateableInterface;
+import learning.supervised.evaluation.cv.EvaluationTaskPool;
+import learning.supervised.evaluation.cv.MultiCrossValidation;
+import learning.supervised.methods.knn.KNN;
+import org.junit.Test;
+
+/**
+ * This class tests the shared evaluation task pool and the cross-validation
+ * runs that are scheduled in it.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class EvaluationTaskPoolTest extends TestCase {
+
+    /**
+     * This method tests that the nested tasks complete, that the admitted
+     * memory stays within the budget and that all tasks are timed.
+     */
+    @Test
+    public static void testNestedTasksAndAdmission() {
+        try {
+            final EvaluationTaskPool pool = new EvaluationTaskPool(2, 100);
+            final AtomicInteger numExecuted = new AtomicInteger(0);
+            final AtomicLong maxInUse = new AtomicLong(0);
+            ArrayList<ForkJoinTask<?>> outerTasks = new ArrayList<>();
+            for (int outer = 0; outer < 4; outer++) {
+                outerTasks.add(pool.submit("outer " + outer, new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            ArrayList<ForkJoinTask<?>> innerTasks =
+                                    new ArrayList<>();
+                            for (int inner = 0; inner < 5; inner++) {
+                                pool.acquireMemory(40);
+                                maxInUse.set(Math.max(maxInUse.get(),
+                                        pool.getMemoryInUse()));
+                                innerTasks.add(pool.submit("inner",
+                                        new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        numExecuted.incrementAndGet();
+                                        pool.releaseMemory(40);
+                                    }
+                                }));
+                            }
+                            EvaluationTaskPool.awaitAll(innerTasks);
+                        } catch (Exception e) {
+                            throw new RuntimeException(e);
+                        }
+                    }
+                }));
+            }
+            EvaluationTaskPool.awaitAll(outerTasks);
+            assertEquals(20, numExecuted.get());
+            assertTrue(maxInUse.get() <= 100);
+            assertEquals(0, pool.getMemoryInUse());
+            assertEquals(24, pool.getTaskTimings().size());
+            // Only the most recent timings are kept.
+            pool.setMaxTaskTimings(10);
+            assertEquals(10, pool.getTaskTimings().size());
+            assertEquals(24, pool.getNumCompletedTasks());
+            pool.shutdown();
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests that the cross-validation results in the shared pool
+     * match the results in a single-threaded pool on the same folds.
+     */
+    @Test
+    public static void testCrossValidationInSharedPool() {
+        try {
+            int numClasses = 3;
+            DataSet dset = ToyDataGenerator.generateClassShiftedData(240, 4,
+                    numClasses, 0.5f, 1);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            int times = 3;
+            int numFolds = 4;
+            EvaluationTaskPool sharedPool = new EvaluationTaskPool(4);
+            MultiCrossValidation sharedCV = createCV(dset, numClasses, cmet,
+                    times, numFolds);
+            sharedCV.setTaskPool(sharedPool);
+            sharedCV.performAllTests();
+            MultiCrossValidation serialCV = createCV(dset, numClasses, cmet,
+                    times, numFolds);
+            serialCV.setAllFolds(sharedCV.getAllFolds());
+            serialCV.useMultipleCommonThreads(1);
+            serialCV.performAllTests();
+            assertEquals(sharedCV.getAverageResults().length,
+                    serialCV.getAverageResults().length);
+            for (int algIndex = 0; algIndex < sharedCV.getAverageResults().
+                    length; algIndex++) {
+                assertEquals(serialCV.getAverageResults()[algIndex].
+                        getAccuracy(), sharedCV.getAverageResults()[algIndex].
+                        getAccuracy(), 0.0001f);
+                float[] sharedCorrect =
+                        sharedCV.getPerPointClassificationPrecision()[algIndex];
+                float[] serialCorrect =
+                        serialCV.getPerPointClassificationPrecision()[algIndex];
+                for (int i = 0; i < dset.size(); i++) {
+                    assertEquals(serialCorrect[i], sharedCorrect[i], 0.0001f);
+                }
+                for (double taskTime : sharedCV.getExecTimePerTask()[
+                        algIndex]) {
+                    assertTrue(taskTime >= 0);
+                }
+            }
+            assertEquals(2 * times * numFolds,
+                    sharedPool.getTaskTimings().size());
+            assertEquals(0, sharedPool.getMemoryInUse());
+            sharedPool.shutdown();
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * @param dset DataSet to evaluate on.
+     * @param numClasses Integer that is the number of classes.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param times Integer that is the number of repetitions.
+     * @param numFolds Integer that is the number of folds.
+     * @return MultiCrossValidation for two kNN classifiers.
+     */
+    private static MultiCrossValidation createCV(DataSet dset,
+            int numClasses, CombinedMetric cmet, int times, int numFolds) {
+        ValidateableInterface[] classifiers = {new KNN(1, cmet),
+            new KNN(5, cmet)};
+        MultiCrossValidation cv = new MultiCrossValidation(times, numFolds,
+                numClasses, dset, dset.data, classifiers);
+        cv.setCombinedMetric(cmet);
+        cv.setKValue(5);
+        return cv;
+    }
+}
@@ -0,0 +1,168 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.supervised.evaluation.cv.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.ArrayList;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.supervised.evaluation.cv.FoldNeighborRestrictor;
+import org.junit.Test;
+
+/**
+ * This class tests the fold-restricted kNN sets against the kNN sets that are
+ * calculated directly on the training and test data of each fold.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class FoldNeighborRestrictorTest extends TestCase {
+
+    /**
+     * This method tests the restricted training and test kNN sets, both when
+     * the global kNN sets are large enough and when they need to be
+     * complemented by scanning.
+     */
+    @Test
+    public static void testFoldRestriction() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(300, 3, 3, 1);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            float[][] distances = dset.calculateDistMatrix(cmet);
+            int k = 5;
+            int numFolds = 4;
+            int[] globalKValues = {3 * k, k + 1};
+            for (int globalK : globalKValues) {
+                NeighborSetFinder bigNSF = new NeighborSetFinder(dset,
+                        distances, cmet);
+                bigNSF.calculateNeighborSets(globalK);
+                FoldNeighborRestrictor restrictor =
+                        new FoldNeighborRestrictor(bigNSF);
+                Random randa = new Random(2);
+                int[] foldOf = new int[dset.size()];
+                for (int i = 0; i < foldOf.length; i++) {
+                    foldOf[i] = randa.nextInt(numFolds);
+                }
+                int numScanned = 0;
+                for (int fold = 0; fold < numFolds; fold++) {
+                    ArrayList<Integer> trainIndexes = new ArrayList<>();
+                    ArrayList<Integer> testIndexes = new ArrayList<>();
+                    for (int i = 0; i < foldOf.length; i++) {
+                        if (foldOf[i] == fold) {
+                            testIndexes.add(i);
+                        } else {
+                            trainIndexes.add(i);
+                        }
+                    }
+                    DataSet trainDSet = dset.cloneDefinition();
+                    for (int index : trainIndexes) {
+                        trainDSet.addDataInstance(dset.getInstance(index));
+                    }
+                    float[][] foldDistMat = new float[trainIndexes.size()][];
+                    for (int i = 0; i < foldDistMat.length; i++) {
+                        foldDistMat[i] = new float[foldDistMat.length - i - 1];
+                        for (int j = i + 1; j < foldDistMat.length; j++) {
+                            foldDistMat[i][j - i - 1] = getDistance(distances,
+                                    trainIndexes.get(i), trainIndexes.get(j));
+                        }
+                    }
+                    float[][] pointDistances =
+                            new float[testIndexes.size()][trainIndexes.size()];
+                    for (int i = 0; i < pointDistances.length; i++) {
+                        for (int j = 0; j < trainIndexes.size(); j++) {
+                            pointDistances[i][j] = getDistance(distances,
+                                    testIndexes.get(i), trainIndexes.get(j));
+                        }
+                    }
+                    assertFalse(restrictor.hasTrainingIndexes(trainIndexes));
+                    restrictor.setTrainingIndexes(trainIndexes);
+                    assertTrue(restrictor.hasTrainingIndexes(
+                            new ArrayList<>(trainIndexes)));
+                    for (int i = 0; i < foldOf.length; i++) {
+                        assertEquals(foldOf[i] != fold,
+                                restrictor.isInTraining(i));
+                    }
+                    restrictor.restrictTrainingNeighbors(k, foldDistMat);
+                    numScanned += restrictor.getNumScannedPoints();
+                    NeighborSetFinder foldNSF = new NeighborSetFinder(
+                            trainDSet, foldDistMat, cmet);
+                    foldNSF.calculateNeighborSets(k);
+                    assertKNNSetsEqual(foldNSF.getKDistances(),
+                            restrictor.getKDistances());
+                    int[][] kNeighbors = restrictor.getKNeighbors();
+                    for (int i = 0; i < kNeighbors.length; i++) {
+                        for (int kInd = 0; kInd < k; kInd++) {
+                            assertEquals(restrictor.getKDistances()[i][kInd],
+                                    getDistance(distances, trainIndexes.get(i),
+                                    trainIndexes.get(kNeighbors[i][kInd])),
+                                    0.00001f);
+                        }
+                    }
+                    int[][] testNeighbors = restrictor.restrictTestNeighbors(
+                            testIndexes, k, pointDistances);
+                    numScanned += restrictor.getNumScannedPoints();
+                    for (int i = 0; i < testNeighbors.length; i++) {
+                        int[] expected = NeighborSetFinder.
+                                getIndexesOfNeighbors(trainDSet,
+                                dset.getInstance(testIndexes.get(i)), k,
+                                pointDistances[i]);
+                        for (int kInd = 0; kInd < k; kInd++) {
+                            assertEquals(pointDistances[i][expected[kInd]],
+                                    pointDistances[i][testNeighbors[i][kInd]],
+                                    0.00001f);
+                        }
+                    }
+                }
+                if (globalK == k + 1) {
+                    assertTrue(numScanned > 0);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * @param expected float[][] of expected k-distances.
+     * @param result float[][] of obtained k-distances.
+     */
+    private static void assertKNNSetsEqual(float[][] expected,
+            float[][] result) {
+        assertEquals(expected.length, result.length);
+        for (int i = 0; i < expected.length; i++) {
+            for (int kInd = 0; kInd < expected[i].length; kInd++) {
+                assertEquals(expected[i][kInd], result[i][kInd], 0.00001f);
+            }
+        }
+    }
+
+    /**
+     * @param distances float[][] that is the upper triangular distance matrix.
+     * @param first Integer that is the first index.
+     * @param second Integer that is the second index.
+     * @return Float that is the distance between the two points.
+     */
+    private static float getDistance(float[][] distances, int first,
+            int second) {
+        int minIndex = Math.min(first, second);
+        int maxIndex = Math.max(first, second);
+        return distances[minIndex][maxIndex - minIndex - 1];
+    }
+}
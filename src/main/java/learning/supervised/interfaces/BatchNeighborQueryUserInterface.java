@@ -0,0 +1,45 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.supervised.interfaces;
+
+import data.representation.DataSet;
+
+/**
+ * This interface declares the methods that are needed for the batch inference
+ * over many test points at once. The kNN sets of a whole block of test points
+ * are calculated from the training data that the classifier exposes and then
+ * passed to the kNN-based classification methods. The classification methods
+ * that take the kNN sets only read the trained model, so the test points can
+ * be classified in parallel.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public interface BatchNeighborQueryUserInterface extends
+        NeighborPointsQueryUserInterface {
+
+    /**
+     * @return DataSet object that is the training data that the neighbor
+     * indexes refer to.
+     */
+    public DataSet getTrainingSet();
+
+    /**
+     * @return Integer that is the neighborhood size that the classifier
+     * needs.
+     */
+    public int getNeighborhoodSize();
+}
@@ -23,6 +23,7 @@ import algref.Publication;
 import algref.Publisher;
 import data.neighbors.NSFUserInterface;
 import data.neighbors.NeighborSetFinder;
+import data.neighbors.TopKSelector;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import data.representation.util.DataMineConstants;
@@ -597,23 +598,11 @@ public class HFNNBoostable extends BoostableClassifier implements
             kDistances[kIndex] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
         // Calculate the kNN set.
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(trainingDistances, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         float[] classProbEstimates = new float[numClasses];
         // Perform the voting.
         for (int kIndex = 0; kIndex < k; kIndex++) {
@@ -663,22 +652,9 @@ public class HFNNBoostable extends BoostableClassifier implements
             kDistances[kIndex] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = distToTraining[i];
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(distToTraining, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         float[] classProbEstimates = new float[numClasses];
         for (int kIndex = 0; kIndex < k; kIndex++) {
             if (neighborOccurrenceFreqs[kNeighbors[kIndex]] > thetaCutoff) {
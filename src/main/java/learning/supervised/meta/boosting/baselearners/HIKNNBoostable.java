@@ -22,6 +22,7 @@ import algref.Publication;
 import algref.Publisher;
 import data.neighbors.NSFUserInterface;
 import data.neighbors.NeighborSetFinder;
+import data.neighbors.TopKSelector;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import data.representation.util.DataMineConstants;
@@ -579,22 +580,10 @@ public class HIKNNBoostable extends BoostableClassifier implements
             kDistances[i] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(trainingDistances, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Calculate the distance weights.
         float[] distance_weights = new float[k];
         float dwSum = 0;
@@ -661,22 +650,9 @@ public class HIKNNBoostable extends BoostableClassifier implements
             kDistances[i] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = distToTraining[i];
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(distToTraining, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Calculate the distance weights.
         float[] distance_weights = new float[k];
         float dwSum = 0;
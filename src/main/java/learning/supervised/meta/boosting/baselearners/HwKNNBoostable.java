@@ -436,8 +436,9 @@ public class HwKNNBoostable extends BoostableClassifier implements
         }
         float currDist;
         int index;
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
         for (int i = 0; i < trainingData.size(); i++) {
-            currDist = cmet.dist(instance, trainingData.data.get(i));
+            currDist = trainingDistances[i];
             index = k - 1;
             while (index >= 0 && nearestDistances[index] > currDist) {
                 index--;
@@ -497,8 +498,9 @@ public class HwKNNBoostable extends BoostableClassifier implements
         }
         float currDist;
         int index;
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
         for (int i = 0; i < trainingData.size(); i++) {
-            currDist = cmet.dist(instance, trainingData.data.get(i));
+            currDist = trainingDistances[i];
             index = k - 1;
             while (index >= 0 && nearestDistances[index] > currDist) {
                 index--;
@@ -21,6 +21,7 @@ import algref.Author;
 import algref.JournalPublication;
 import algref.Publication;
 import algref.Publisher;
+import data.neighbors.TopKSelector;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import data.representation.util.DataMineConstants;
@@ -359,24 +360,13 @@ public class AKNN extends Classifier implements DistMatrixUserInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
         for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
             // Scale by the corrective diameter.
-            currDistance /= diameters[i];
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
+            selector.offer(i, trainingDistances[i] / diameters[i]);
         }
+        selector.getSorted(kNeighbors, kDistances);
 
         float[] classProbEstimates = new float[numClasses];
         float probTotal = 0;
@@ -405,24 +395,12 @@ public class AKNN extends Classifier implements DistMatrixUserInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
+        TopKSelector selector = new TopKSelector(k);
         for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = distToTraining[i];
             // Scale by the corrective diameter.
-            currDistance /= diameters[i];
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
+            selector.offer(i, distToTraining[i] / diameters[i]);
         }
+        selector.getSorted(kNeighbors, kDistances);
 
         float[] classProbEstimates = new float[numClasses];
         float probTotal = 0;
@@ -22,6 +22,7 @@ import algref.Publication;
 import algref.Publisher;
 import data.neighbors.NSFUserInterface;
 import data.neighbors.NeighborSetFinder;
+import data.neighbors.TopKSelector;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import distances.primary.CombinedMetric;
@@ -30,6 +31,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import learning.supervised.Category;
 import learning.supervised.Classifier;
 import learning.supervised.evaluation.ValidateableInterface;
@@ -72,8 +74,10 @@ public class ANHBNN extends Classifier implements DistMatrixUserInterface,
     // One map for each class, that maps a long value obtained from two index
     // values to a value that is the current co-occurrence count.
     private HashMap<Long, Integer>[] coDependencyMaps;
-    // Mutual information between neighbor pairs.
-    private HashMap<Long, Double> mutualInformationMap;
+    // Mutual information between neighbor pairs. The values that are
+    // calculated at query time are also cached here, possibly from several
+    // threads in batch inference.
+    private ConcurrentHashMap<Long, Double> mutualInformationMap;
     // Class-conditional neighbor occurrence counts.
     private float[][] classDataKNeighborRelation = null;
     // Class priors.
@@ -576,7 +580,7 @@ public class ANHBNN extends Classifier implements DistMatrixUserInterface,
         int[][] kneighbors = nsf.getKNeighbors();
         // The map for storing the co-occurrence counts. 
         coDependencyMaps = new HashMap[numClasses];
-        mutualInformationMap = new HashMap<>(dataSize);
+        mutualInformationMap = new ConcurrentHashMap<>(dataSize);
         classConditionalSelfInformation = new double[dataSize][numClasses];
         classCoOccurrencesInNeighborhoodsOfClasses =
                 new float[numClasses][numClasses][numClasses];
@@ -804,7 +808,7 @@ public class ANHBNN extends Classifier implements DistMatrixUserInterface,
         rnnImpurity = this.calculateReverseNeighborEntropies(kneighbors);
         // Initialize the hash maps.
         coDependencyMaps = new HashMap[numClasses];
-        mutualInformationMap = new HashMap<>(trainingData.size());
+        mutualInformationMap = new ConcurrentHashMap<>(trainingData.size());
         classConditionalSelfInformation = new double[trainingData.size()][
                 numClasses];
         classCoOccurrencesInNeighborhoodsOfClasses =
@@ -1028,22 +1032,10 @@ public class ANHBNN extends Classifier implements DistMatrixUserInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(trainingDistances, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         double[] classProbEstimates = new double[numClasses];
         for (int i = 0; i < numClasses; i++) {
             classProbEstimates[i] = classPriors[i];
@@ -1300,22 +1292,9 @@ public class ANHBNN extends Classifier implements DistMatrixUserInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = distToTraining[i];
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(distToTraining, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         double[] classProbEstimates = new double[numClasses];
         for (int i = 0; i < numClasses; i++) {
             classProbEstimates[i] = classPriors[i];
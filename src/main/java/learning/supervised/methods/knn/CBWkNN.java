@@ -31,9 +31,9 @@ import java.util.HashMap;
 import learning.supervised.Category;
 import learning.supervised.Classifier;
 import learning.supervised.evaluation.ValidateableInterface;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
 import learning.supervised.interfaces.DistMatrixUserInterface;
 import learning.supervised.interfaces.DistToPointsQueryUserInterface;
-import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
 
 /**
  * An algorithm described in the paper titled "Class Based Weighted K-Nearest
@@ -45,7 +45,7 @@ import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
  */
 public class CBWkNN extends Classifier implements DistMatrixUserInterface,
         NSFUserInterface, DistToPointsQueryUserInterface,
-        NeighborPointsQueryUserInterface, Serializable {
+        BatchNeighborQueryUserInterface, Serializable {
     
     private static final long serialVersionUID = 1L;
 
@@ -406,8 +406,9 @@ public class CBWkNN extends Classifier implements DistMatrixUserInterface,
         }
         float currDist;
         int index;
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
         for (int i = 0; i < trainingData.size(); i++) {
-            currDist = cmet.dist(instance, trainingData.data.get(i));
+            currDist = trainingDistances[i];
             index = k - 1;
             while (index >= 0 && nearestDistances[index] > currDist) {
                 index--;
@@ -466,8 +467,9 @@ public class CBWkNN extends Classifier implements DistMatrixUserInterface,
         }
         float currDist;
         int index;
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
         for (int i = 0; i < trainingData.size(); i++) {
-            currDist = cmet.dist(instance, trainingData.data.get(i));
+            currDist = trainingDistances[i];
             index = k - 1;
             while (index >= 0 && nearestDistances[index] > currDist) {
                 index--;
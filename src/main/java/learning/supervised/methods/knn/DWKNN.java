@@ -23,14 +23,15 @@ import algref.Publication;
 import algref.Publisher;
 import learning.supervised.evaluation.ValidateableInterface;
 import distances.primary.CombinedMetric;
+import data.neighbors.TopKSelector;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import data.representation.util.DataMineConstants;
 import java.io.Serializable;
 import learning.supervised.Category;
 import learning.supervised.Classifier;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
 import learning.supervised.interfaces.DistToPointsQueryUserInterface;
-import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -42,7 +43,7 @@ import java.util.HashMap;
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
 public class DWKNN extends Classifier implements DistToPointsQueryUserInterface,
-        NeighborPointsQueryUserInterface, Serializable {
+        BatchNeighborQueryUserInterface, Serializable {
     
     private static final long serialVersionUID = 1L;
 
@@ -285,25 +286,13 @@ public class DWKNN extends Classifier implements DistToPointsQueryUserInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
         // Initialize the distance weights.
         float[] distanceWeights = new float[k];
         float dwSum = 0;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(trainingDistances, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Calculate the distance weights.
         for (int kIndex = 0; kIndex < k; kIndex++) {
             if (DataMineConstants.isAcceptableFloat(
@@ -370,20 +359,9 @@ public class DWKNN extends Classifier implements DistToPointsQueryUserInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            if (distToTraining[i] < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > distToTraining[i]) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = distToTraining[i];
-                kNeighbors[index] = i;
-            }
-        }
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(distToTraining, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Calculate the distance weights.
         float[] distanceWeights = new float[k];
         float dwSum = 0;
@@ -616,4 +594,14 @@ public class DWKNN extends Classifier implements DistToPointsQueryUserInterface,
         }
         return classProbEstimates;
     }
+
+    @Override
+    public DataSet getTrainingSet() {
+        return trainingData;
+    }
+
+    @Override
+    public int getNeighborhoodSize() {
+        return k;
+    }
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import algref.Publisher;
 import learning.supervised.interfaces.AutomaticKFinderInterface;
 import data.neighbors.NSFUserInterface;
 import data.neighbors.NeighborSetFinder;
+import data.neighbors.TopKSelector;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import distances.primary.CombinedMetric;
@@ -33,8 +34,8 @@ import java.util.HashMap;
 import learning.supervised.Category;
 import learning.supervised.Classifier;
 import learning.supervised.evaluation.ValidateableInterface;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
 import learning.supervised.interfaces.DistToPointsQueryUserInterface;
-import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
 
 /**
  * This paper implements the classical fuzzy k-nearest neighbor algorithm.
@@ -43,7 +44,7 @@ import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
  */
 public class FNN extends Classifier implements AutomaticKFinderInterface,
         NSFUserInterface, DistToPointsQueryUserInterface,
-        NeighborPointsQueryUserInterface, Serializable {
+        BatchNeighborQueryUserInterface, Serializable {
     
     private static final long serialVersionUID = 1L;
 
@@ -531,22 +532,10 @@ public class FNN extends Classifier implements AutomaticKFinderInterface,
             kDistances[kInd] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(trainingDistances, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Calculate the distance weights.
         float[] distanceWeights = new float[k];
         float dwSum = 0;
@@ -590,22 +579,9 @@ public class FNN extends Classifier implements AutomaticKFinderInterface,
             kDistances[kInd] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = distToTraining[i];
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(distToTraining, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Calculate the distance weights.
         float[] distanceWeights = new float[k];
         float dwSum = 0;
@@ -710,4 +686,9 @@ public class FNN extends Classifier implements AutomaticKFinderInterface,
     public int getNeighborhoodSize() {
         return k;
     }
+
+    @Override
+    public DataSet getTrainingSet() {
+        return trainingData;
+    }
 }
\ No newline at end of file
@@ -24,6 +24,7 @@ import algref.Publisher;
 import learning.supervised.interfaces.AutomaticKFinderInterface;
 import data.neighbors.NSFUserInterface;
 import data.neighbors.NeighborSetFinder;
+import data.neighbors.TopKSelector;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import distances.primary.CombinedMetric;
@@ -36,9 +37,9 @@ import learning.supervised.Category;
 import learning.supervised.Classifier;
 import learning.supervised.evaluation.ValidateableInterface;
 import learning.supervised.evaluation.cv.MultiCrossValidation;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
 import learning.supervised.interfaces.DistMatrixUserInterface;
 import learning.supervised.interfaces.DistToPointsQueryUserInterface;
-import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
 import preprocessing.instance_selection.InstanceSelector;
 
 /**
@@ -51,7 +52,7 @@ import preprocessing.instance_selection.InstanceSelector;
  */
 public class HFNN extends Classifier implements AutomaticKFinderInterface,
         DistMatrixUserInterface, NSFUserInterface,
-        DistToPointsQueryUserInterface, NeighborPointsQueryUserInterface,
+        DistToPointsQueryUserInterface, BatchNeighborQueryUserInterface,
         Serializable {
     
     private static final long serialVersionUID = 1L;
@@ -1063,23 +1064,11 @@ public class HFNN extends Classifier implements AutomaticKFinderInterface,
             kDistances[kIndex] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
         // Iterate over the data.
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(trainingDistances, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Perform the voting.
         float[] classProbEstimates = new float[numClasses];
         for (int kIndex = 0; kIndex < k; kIndex++) {
@@ -1146,23 +1135,10 @@ public class HFNN extends Classifier implements AutomaticKFinderInterface,
             kDistances[i] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
         // Iterate overa all examples.
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = distToTraining[i];
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(distToTraining, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Perform the voting.
         float[] classProbEstimates = new float[numClasses];
         for (int kIndex = 0; kIndex < k; kIndex++) {
@@ -1318,4 +1294,9 @@ public class HFNN extends Classifier implements AutomaticKFinderInterface,
     public int getNeighborhoodSize() {
         return k;
     }
+
+    @Override
+    public DataSet getTrainingSet() {
+        return trainingData;
+    }
 }
\ No newline at end of file
@@ -34,9 +34,9 @@ import learning.supervised.Category;
 import learning.supervised.Classifier;
 import learning.supervised.evaluation.ValidateableInterface;
 import learning.supervised.evaluation.cv.MultiCrossValidation;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
 import learning.supervised.interfaces.DistMatrixUserInterface;
 import learning.supervised.interfaces.DistToPointsQueryUserInterface;
-import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
 import preprocessing.instance_selection.InstanceSelector;
 
 /**
@@ -49,7 +49,7 @@ import preprocessing.instance_selection.InstanceSelector;
  */
 public class HwKNN extends Classifier implements AutomaticKFinderInterface,
         DistMatrixUserInterface, NSFUserInterface,
-        DistToPointsQueryUserInterface, NeighborPointsQueryUserInterface,
+        DistToPointsQueryUserInterface, BatchNeighborQueryUserInterface,
         Serializable {
     
     private static final long serialVersionUID = 1L;
@@ -405,8 +405,9 @@ public class HwKNN extends Classifier implements AutomaticKFinderInterface,
         }
         float currDist;
         int index;
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
         for (int i = 0; i < trainingData.size(); i++) {
-            currDist = cmet.dist(instance, trainingData.data.get(i));
+            currDist = trainingDistances[i];
             index = k - 1;
             while (index >= 0 && nearestDistances[index] > currDist) {
                 index--;
@@ -465,8 +466,9 @@ public class HwKNN extends Classifier implements AutomaticKFinderInterface,
         }
         float currDist;
         int index;
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
         for (int i = 0; i < trainingData.size(); i++) {
-            currDist = cmet.dist(instance, trainingData.data.get(i));
+            currDist = trainingDistances[i];
             index = k - 1;
             while (index >= 0 && nearestDistances[index] > currDist) {
                 index--;
@@ -28,9 +28,10 @@ import data.representation.DataSet;
 import learning.supervised.Category;
 import learning.supervised.Classifier;
 import data.neighbors.NeighborSetFinder;
+import data.neighbors.TopKSelector;
 import java.io.Serializable;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
 import learning.supervised.interfaces.DistToPointsQueryUserInterface;
-import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -41,7 +42,7 @@ import java.util.HashMap;
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
 public class KNN extends Classifier implements AutomaticKFinderInterface,
-        DistToPointsQueryUserInterface, NeighborPointsQueryUserInterface,
+        DistToPointsQueryUserInterface, BatchNeighborQueryUserInterface,
         Serializable {
     
     private static final long serialVersionUID = 1L;
@@ -313,22 +314,10 @@ public class KNN extends Classifier implements AutomaticKFinderInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(trainingDistances, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Perform the voting.
         float[] classProbEstimates = new float[numClasses];
         for (int kIndex = 0; kIndex < k; kIndex++) {
@@ -372,20 +361,9 @@ public class KNN extends Classifier implements AutomaticKFinderInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            if (distToTraining[i] < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > distToTraining[i]) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = distToTraining[i];
-                kNeighbors[index] = i;
-            }
-        }
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(distToTraining, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         // Perform the voting.
         float[] classProbEstimates = new float[numClasses];
         for (int kIndex = 0; kIndex < k; kIndex++) {
@@ -519,4 +497,14 @@ public class KNN extends Classifier implements AutomaticKFinderInterface,
         }
         return classProbEstimates;
     }
+
+    @Override
+    public DataSet getTrainingSet() {
+        return trainingData;
+    }
+
+    @Override
+    public int getNeighborhoodSize() {
+        return k;
+    }
 }
\ No newline at end of file
@@ -23,6 +23,7 @@ import algref.Publisher;
 import learning.supervised.interfaces.AutomaticKFinderInterface;
 import data.neighbors.NSFUserInterface;
 import data.neighbors.NeighborSetFinder;
+import data.neighbors.TopKSelector;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import distances.primary.CombinedMetric;
@@ -36,9 +37,9 @@ import learning.supervised.Classifier;
 import learning.supervised.evaluation.ClassificationEstimator;
 import learning.supervised.evaluation.ValidateableInterface;
 import learning.supervised.evaluation.cv.MultiCrossValidation;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
 import learning.supervised.interfaces.DistMatrixUserInterface;
 import learning.supervised.interfaces.DistToPointsQueryUserInterface;
-import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
 import preprocessing.instance_selection.InstanceSelector;
 
 /**
@@ -68,7 +69,7 @@ import preprocessing.instance_selection.InstanceSelector;
  */
 public class NHBNN extends Classifier implements AutomaticKFinderInterface,
         DistMatrixUserInterface, NSFUserInterface,
-        DistToPointsQueryUserInterface, NeighborPointsQueryUserInterface,
+        DistToPointsQueryUserInterface, BatchNeighborQueryUserInterface,
         Serializable {
 
     private static final long serialVersionUID = 1L;
@@ -867,22 +868,10 @@ public class NHBNN extends Classifier implements AutomaticKFinderInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(trainingDistances, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         double[] classProbEstimates = new double[numClasses];
         for (int cIndex = 0; cIndex < numClasses; cIndex++) {
             classProbEstimates[cIndex] = classPriors[cIndex];
@@ -978,22 +967,9 @@ public class NHBNN extends Classifier implements AutomaticKFinderInterface,
         float[] kDistances = new float[k];
         Arrays.fill(kDistances, Float.MAX_VALUE);
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = distToTraining[i];
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(distToTraining, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         double[] classProbEstimates = new double[numClasses];
         for (int cIndex = 0; cIndex < numClasses; cIndex++) {
             classProbEstimates[cIndex] = classPriors[cIndex];
@@ -1206,4 +1182,9 @@ public class NHBNN extends Classifier implements AutomaticKFinderInterface,
     public int getNeighborhoodSize() {
         return k;
     }
+
+    @Override
+    public DataSet getTrainingSet() {
+        return trainingData;
+    }
 }
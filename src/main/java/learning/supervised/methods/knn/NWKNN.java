@@ -20,6 +20,7 @@ import algref.Author;
 import algref.JournalPublication;
 import algref.Publication;
 import algref.Publisher;
+import data.neighbors.TopKSelector;
 import data.representation.DataInstance;
 import data.representation.DataSet;
 import distances.primary.CombinedMetric;
@@ -30,9 +31,9 @@ import java.util.HashMap;
 import learning.supervised.Category;
 import learning.supervised.Classifier;
 import learning.supervised.evaluation.ValidateableInterface;
+import learning.supervised.interfaces.BatchNeighborQueryUserInterface;
 import learning.supervised.interfaces.DistMatrixUserInterface;
 import learning.supervised.interfaces.DistToPointsQueryUserInterface;
-import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
 
 /**
  * Implements the algorithm described in Neighbor-weighted K-nearest neighbor
@@ -43,7 +44,7 @@ import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
 public class NWKNN extends Classifier implements DistMatrixUserInterface,
-        DistToPointsQueryUserInterface, NeighborPointsQueryUserInterface,
+        DistToPointsQueryUserInterface, BatchNeighborQueryUserInterface,
         Serializable {
     
     private static final long serialVersionUID = 1L;
@@ -371,22 +372,10 @@ public class NWKNN extends Classifier implements DistMatrixUserInterface,
             kDistances[kIndex] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = cmet.dist(trainingData.data.get(i), instance);
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(trainingDistances, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
 
         float[] distanceWeights = new float[k];
         float dwSum = 0;
@@ -432,22 +421,9 @@ public class NWKNN extends Classifier implements DistMatrixUserInterface,
             kDistances[kIndex] = Float.MAX_VALUE;
         }
         int[] kNeighbors = new int[k];
-        float currDistance;
-        int index;
-        for (int i = 0; i < trainingData.size(); i++) {
-            currDistance = distToTraining[i];
-            if (currDistance < kDistances[k - 1]) {
-                // Insertion.
-                index = k - 1;
-                while (index > 0 && kDistances[index - 1] > currDistance) {
-                    kDistances[index] = kDistances[index - 1];
-                    kNeighbors[index] = kNeighbors[index - 1];
-                    index--;
-                }
-                kDistances[index] = currDistance;
-                kNeighbors[index] = i;
-            }
-        }
+        TopKSelector selector = new TopKSelector(k);
+        selector.offer(distToTraining, 0, trainingData.size(), 0);
+        selector.getSorted(kNeighbors, kDistances);
         float[] distanceWeights = new float[k];
         float dwSum = 0;
         for (int kIndex = 0; kIndex < k; kIndex++) {
@@ -559,4 +535,9 @@ public class NWKNN extends Classifier implements DistMatrixUserInterface,
         }
         return classProbEstimates;
     }
+
+    @Override
+    public int getNeighborhoodSize() {
+        return k;
+    }
 }
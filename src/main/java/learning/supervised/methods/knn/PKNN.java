@@ -515,8 +515,9 @@ public class PKNN extends Classifier implements Serializable {
         Arrays.fill(nearestDistances, Float.MAX_VALUE);
         float currDist;
         int index;
+        float[] trainingDistances = cmet.dist(instance, trainingData.data);
         for (int i = 0; i < trainingData.size(); i++) {
-            currDist = cmet.dist(instance, trainingData.data.get(i));
+            currDist = trainingDistances[i];
             index = kMax - 1;
             while (index >= 0 && nearestDistances[index] > currDist) {
                 index--;
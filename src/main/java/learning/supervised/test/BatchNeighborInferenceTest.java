@@ -0,0 +1,141 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.supervised.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.TopKSelector;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.supervised.BatchNeighborInference;
+import learning.supervised.Classifier;
+import learning.supervised.interfaces.NeighborPointsQueryUserInterface;
+import learning.supervised.methods.knn.CBWkNN;
+import learning.supervised.methods.knn.HFNN;
+import learning.supervised.methods.knn.HIKNN;
+import learning.supervised.methods.knn.KNN;
+import learning.supervised.methods.knn.NHBNN;
+import learning.supervised.methods.knn.RRKNN;
+import org.junit.Test;
+
+/**
+ * This class tests the parallel batch inference of the kNN-based classifiers
+ * against the classification of the test points one by one.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class BatchNeighborInferenceTest extends TestCase {
+
+    /**
+     * This method tests that the batch class probabilities are the same as
+     * the ones obtained by classifying each test point separately from its
+     * kNN set, for a number of test points that is not a multiple of the block
+     * size.
+     */
+    @Test
+    public static void testBatchClassification() {
+        try {
+            int numClasses = 3;
+            int k = 7;
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            DataSet trainingSet = ToyDataGenerator.generateClassShiftedData(
+                    200, 4, numClasses, 0.5f, 1);
+            DataSet testSet = ToyDataGenerator.generateClassShiftedData(
+                    3 * BatchNeighborInference.QUERY_BLOCK_SIZE + 5, 4,
+                    numClasses, 0.5f, 2);
+            DataInstance[] testInstances =
+                    new DataInstance[testSet.size()];
+            for (int i = 0; i < testSet.size(); i++) {
+                testInstances[i] = testSet.getInstance(i);
+            }
+            Classifier[] classifiers = {
+                new KNN(trainingSet, numClasses, cmet, k),
+                new HIKNN(trainingSet, numClasses, cmet, k),
+                new HFNN(trainingSet, numClasses, cmet, k),
+                new NHBNN(trainingSet, numClasses, cmet, k),
+                new RRKNN(trainingSet, numClasses, cmet, k),
+                new CBWkNN(trainingSet, numClasses, cmet, k)
+            };
+            for (Classifier classifier : classifiers) {
+                classifier.train();
+                float[][] batchProbs = classifier.classifyProbabilistically(
+                        testInstances, 3);
+                assertEquals(testInstances.length, batchProbs.length);
+                for (int i = 0; i < testInstances.length; i++) {
+                    float[] distToTraining = cmet.dist(testInstances[i],
+                            trainingSet.data);
+                    TopKSelector selector = new TopKSelector(k);
+                    selector.offer(distToTraining, 0, trainingSet.size(), 0);
+                    int[] trNeighbors = new int[k];
+                    selector.getSorted(trNeighbors, null);
+                    float[] expected = ((NeighborPointsQueryUserInterface)
+                            classifier).classifyProbabilistically(
+                            testInstances[i], distToTraining, trNeighbors);
+                    assertEquals(expected.length, batchProbs[i].length);
+                    for (int c = 0; c < expected.length; c++) {
+                        assertEquals(expected[c], batchProbs[i][c], 0.0001f);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests that the training sets that are smaller than the
+     * neighborhood size are classified one by one, instead of voting with
+     * padded kNN sets.
+     */
+    @Test
+    public static void testSmallTrainingSet() {
+        try {
+            int numClasses = 2;
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            DataSet trainingSet = ToyDataGenerator.generateClassShiftedData(
+                    4, 3, numClasses, 0.5f, 3);
+            DataSet testSet = ToyDataGenerator.generateClassShiftedData(20, 3,
+                    numClasses, 0.5f, 4);
+            DataInstance[] testInstances = new DataInstance[testSet.size()];
+            for (int i = 0; i < testSet.size(); i++) {
+                testInstances[i] = testSet.getInstance(i);
+            }
+            KNN classifier = new KNN(trainingSet, numClasses, cmet, 6);
+            classifier.train();
+            float[][] batchProbs = classifier.classifyProbabilistically(
+                    testInstances, 3);
+            for (int i = 0; i < testInstances.length; i++) {
+                float[] expected = classifier.classifyProbabilistically(
+                        testInstances[i]);
+                for (int c = 0; c < numClasses; c++) {
+                    assertEquals(expected[c], batchProbs[i][c], 0.0001f);
+                }
+            }
+            try {
+                BatchNeighborInference.classifyProbabilistically(classifier,
+                        cmet, testInstances, 3);
+                fail("Padded kNN sets were used.");
+            } catch (Exception e) {
+                // The neighborhood size exceeds the training data size.
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+}
@@ -18,8 +18,10 @@ package learning.unsupervised;
 
 import data.representation.DataInstance;
 import data.representation.DataSet;
+import data.representation.PackedFeatureMatrix;
 import data.representation.sparse.BOWDataSet;
 import data.representation.sparse.BOWInstance;
+import data.representation.sparse.SparseVector;
 import data.representation.util.DataInstanceDimComparator;
 import data.representation.util.DataMineConstants;
 import distances.primary.CombinedMetric;
@@ -240,11 +242,10 @@ public class Cluster implements Serializable {
         float[] floatSums = new float[dataContext.getNumFloatAttr()];
         for (int i = 0; i < size(); i++) {
             BOWInstance instance = (BOWInstance) (getInstance(i));
-            HashMap<Integer, Float> indexMap =
-                    instance.getWordIndexesHash();
-            Set<Integer> keys = indexMap.keySet();
-            for (int index : keys) {
-                float value = indexMap.get(index);
+            SparseVector wordVector = instance.getWordVector();
+            for (int pos = 0; pos < wordVector.size(); pos++) {
+                int index = wordVector.getIndexAt(pos);
+                float value = wordVector.getValueAt(pos);
                 if (DataMineConstants.isAcceptableFloat(value)) {
                     if (!sparseCounts.containsKey(index)) {
                         sparseCounts.put(index, 1);
@@ -311,6 +312,7 @@ public class Cluster implements Serializable {
         int[] floatCounts = new int[dataContext.getNumFloatAttr()];
         float[] integerSums = new float[dataContext.getNumIntAttr()];
         float[] floatSums = new float[dataContext.getNumFloatAttr()];
+        PackedFeatureMatrix packed = dataContext.getPackedFeatures();
         for (int i = 0; i < size(); i++) {
             for (int j = 0; j < dataContext.getNumIntAttr(); j++) {
                 if (DataMineConstants.isAcceptableInt(
@@ -319,6 +321,9 @@ public class Cluster implements Serializable {
                     integerCounts[j]++;
                 }
             }
+            if (packed != null) {
+                continue;
+            }
             for (int j = 0; j < dataContext.getNumFloatAttr(); j++) {
                 if (DataMineConstants.isAcceptableFloat(
                         getInstance(i).fAttr[j])) {
@@ -327,6 +332,9 @@ public class Cluster implements Serializable {
                 }
             }
         }
+        if (packed != null) {
+            addPackedFloatSums(packed, floatSums, floatCounts);
+        }
         if (dataContext.getNumNominalAttr() > 0) {
             for (int i = 0; i < dataContext.getNumNominalAttr(); i++) {
                 centroid.sAttr[i] = "dummy" + i;
@@ -345,6 +353,43 @@ public class Cluster implements Serializable {
         return centroid;
     }
 
+    /**
+     * This method sums up the float features of the cluster instances by
+     * reading them from the packed feature matrix of the data context.
+     *
+     * @param packed PackedFeatureMatrix of the data context.
+     * @param floatSums float[] to add the feature sums to.
+     * @param floatCounts int[] to add the counts of the non-missing values to.
+     */
+    private void addPackedFloatSums(PackedFeatureMatrix packed,
+            float[] floatSums, int[] floatCounts) {
+        float[] values = packed.getValues();
+        int numCols = packed.getNumCols();
+        int offset;
+        if (packed.hasMissingValues()) {
+            for (int i = 0; i < size(); i++) {
+                offset = indexes.get(i) * numCols;
+                for (int j = 0; j < numCols; j++) {
+                    if (DataMineConstants.isAcceptableFloat(
+                            values[offset + j])) {
+                        floatSums[j] += values[offset + j];
+                        floatCounts[j]++;
+                    }
+                }
+            }
+        } else {
+            for (int i = 0; i < size(); i++) {
+                offset = indexes.get(i) * numCols;
+                for (int j = 0; j < numCols; j++) {
+                    floatSums[j] += values[offset + j];
+                }
+            }
+            for (int j = 0; j < numCols; j++) {
+                floatCounts[j] += size();
+            }
+        }
+    }
+
     /**
      * @throws Exception
      * @return DataInstance closest to the cluster centroid.
@@ -38,6 +38,7 @@ import learning.unsupervised.methods.KernelGHPKM;
 import learning.unsupervised.methods.KernelKMeans;
 import learning.unsupervised.methods.LHPC;
 import learning.unsupervised.methods.LKH;
+import learning.unsupervised.methods.multithreaded.MTHamerlyKMeans;
 
 /**
  * This class is used to fetch the initial parametrizations of various
@@ -150,6 +151,12 @@ public class ClustererFactory {
             case "learning.unsupervised.methods.fastkmeansplusplus":
                 clusterer = new FastKMeansPlusPlus(dset, cmet, nClust);
                 break;
+            case "mthamerlykmeans":
+            case "hamerlykmeans":
+            case "learning.unsupervised.methods.multithreaded.mthamerlykmeans":
+                clusterer = new MTHamerlyKMeans(dset, cmet, nClust,
+                        Runtime.getRuntime().availableProcessors());
+                break;
             case "kmedoids":
             case "learning.unsupervised.methods.kmedoids":
                 clusterer = new KMedoids(dset, cmet, nClust);
@@ -243,6 +250,10 @@ public class ClustererFactory {
         allClusterers.add(getClustererForName(
                 "learning.unsupervised.methods.fastkmeansplusplus", dset, k,
                 distMat, nsf, trainingKernelMat, nsfKernel, nClust, cmet, ker));
+        allClusterers.add(getClustererForName(
+                "learning.unsupervised.methods.multithreaded.mthamerlykmeans",
+                dset, k, distMat, nsf, trainingKernelMat, nsfKernel, nClust,
+                cmet, ker));
         allClusterers.add(getClustererForName(
                 "learning.unsupervised.methods.kmedoids", dset, k, distMat, nsf,
                 trainingKernelMat, nsfKernel, nClust, cmet, ker));
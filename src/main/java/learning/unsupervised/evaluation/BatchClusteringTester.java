@@ -50,6 +50,7 @@ import distances.secondary.LocalScalingCalculator;
 import distances.secondary.MutualProximityCalculator;
 import distances.secondary.NICDMCalculator;
 import distances.secondary.snd.SharedNeighborCalculator;
+import ioformat.ComputationCache;
 import ioformat.DistanceMatrixIO;
 import java.util.HashMap;
 import java.util.logging.Level;
@@ -149,6 +150,10 @@ public class BatchClusteringTester {
     private boolean approximateNeighbors = false;
     // The number of threads used for distance matrix and kNN set calculations.
     private int numCommonThreads = 8;
+    // The persistent cache for the distance matrices.
+    private File cacheDir;
+    private long cacheMaxBytes = ComputationCache.DEFAULT_MAX_BYTES;
+    private ComputationCache cache;
 
     /**
      * Reads the parameters from the configuration file.
@@ -162,6 +167,9 @@ public class BatchClusteringTester {
     }
 
     public void runAllTests() throws Exception {
+        if (cacheDir != null) {
+            cache = new ComputationCache(cacheDir, cacheMaxBytes);
+        }
         // Index of the currently examined dataset.
         int dsCounter = 0;
         // We iterate over dataset paths.
@@ -602,10 +610,25 @@ public class BatchClusteringTester {
                             cmetClass = Class.forName(
                                     dMatFile.getParentFile().getName());
                         }
+                        boolean dMatFileUsable = dMatFile != null
+                                && dMatFile.exists()
+                                && cmetClass.isInstance(
+                                currCmet.getFloatMetric());
+                        String dMatKey = null;
+                        if (distMat == null && !dMatFileUsable
+                                && cache != null) {
+                            // Look the distances up in the cache.
+                            dMatKey = ComputationCache.getDistanceKey(
+                                    ComputationCache.hashDataSet(currDSet),
+                                    currCmet);
+                            distMat = cache.getDistances(dMatKey);
+                            if (distMat != null) {
+                                System.out.println(
+                                        "Distances loaded from the cache.");
+                            }
+                        }
                         if (distMat == null) {
-                            if (dMatFile == null || !dMatFile.exists()
-                                    || !(cmetClass.isInstance(
-                                    currCmet.getFloatMetric()))) {
+                            if (!dMatFileUsable) {
                                 // Distances are not available and need to be
                                 // calculated here.
                                 System.out.print("Calculating distances-");
@@ -616,6 +639,9 @@ public class BatchClusteringTester {
                                     DistanceMatrixIO.printDMatToFile(
                                             distMat, dMatFile);
                                 }
+                                if (dMatKey != null) {
+                                    cache.putDistances(dMatKey, distMat);
+                                }
                             } else {
                                 // They have previously been calculated and we
                                 // load them here.
@@ -1716,6 +1742,8 @@ public class BatchClusteringTester {
         approximateNeighborsAlpha = conf.approximateNeighborsAlpha;
         approximateNeighbors = conf.approximateNeighbors;
         numCommonThreads = conf.numCommonThreads;
+        cacheDir = conf.cacheDir;
+        cacheMaxBytes = conf.cacheMaxBytes;
         algorithmParametrizationMap = conf.algorithmParametrizationMap;
     }
 
@@ -0,0 +1,99 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.evaluation.quality;
+
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+
+/**
+ * This class holds the configuration shared by the clustering quality indexes
+ * that are based on counting the concordant and discordant distance pairs.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public abstract class ConcordanceQualityIndex extends ClusteringQualityIndex {
+
+    private CombinedMetric cmet = null;
+    private int[] clusterAssociations;
+    private float[][] distances;
+    private boolean dGiven = false;
+    private PairwiseConcordanceCounter.CountingMode countingMode =
+            PairwiseConcordanceCounter.CountingMode.EXACT;
+    private int numThreads = 1;
+
+    /**
+     * Initialization.
+     *
+     * @param clusterAssociations Cluster association array for the points.
+     * @param dset DataSet object.
+     * @param cmet CombinedMetric object for distance calculations.
+     */
+    public ConcordanceQualityIndex(int[] clusterAssociations, DataSet dset,
+            CombinedMetric cmet) {
+        this.clusterAssociations = clusterAssociations;
+        setDataSet(dset);
+        this.cmet = cmet;
+    }
+
+    /**
+     * @return Cluster association array for the points.
+     */
+    public int[] getClusterAssociations() {
+        return clusterAssociations;
+    }
+
+    /**
+     * @param distances float[][] representing the upper triangular distance
+     * matrix of the data.
+     */
+    public void setDistanceMatrix(float[][] distances) {
+        this.distances = distances;
+        this.dGiven = true;
+    }
+
+    /**
+     * @param countingMode CountingMode that determines whether the concordant
+     * and discordant distance pairs are counted exactly or approximated from
+     * a histogram of the distances.
+     */
+    public void setCountingMode(
+            PairwiseConcordanceCounter.CountingMode countingMode) {
+        this.countingMode = countingMode;
+    }
+
+    /**
+     * @param numThreads Integer that is the number of threads to use for
+     * counting the concordant and discordant distance pairs.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @return PairwiseConcordanceCounter for the current configuration.
+     */
+    protected PairwiseConcordanceCounter getConcordanceCounter() {
+        PairwiseConcordanceCounter counter = new PairwiseConcordanceCounter(
+                clusterAssociations, getDataSet(), cmet);
+        if (dGiven) {
+            counter.setDistanceMatrix(distances);
+        }
+        counter.setCountingMode(countingMode);
+        counter.setNumThreads(numThreads);
+        return counter;
+    }
+}
@@ -0,0 +1,669 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.evaluation.quality;
+
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class counts the concordant and discordant pairs of intra-cluster and
+ * inter-cluster distances that the Goodman-Kruskal, Tau and G+ clustering
+ * quality indices are based on. A pair of an intra-cluster distance and an
+ * inter-cluster distance is discordant if the intra-cluster distance is not
+ * smaller than the inter-cluster distance, and concordant otherwise.
+ *
+ * The distances are never materialized all at once. They are streamed in
+ * parallel over blocks of rows of the upper triangular distance matrix, either
+ * read from a provided matrix or calculated on the fly. In the approximate
+ * mode, they are placed into an equal-width histogram and the pairs that fall
+ * into the same bucket are counted as half discordant. In the exact mode, the
+ * buckets that contain both types of distances are refined by further
+ * histogram passes until they fit into the memory budget, when their distances
+ * are gathered, sorted and merged. A bucket where all distances are equal
+ * consists of ties, which are all discordant. The exact mode therefore makes
+ * several passes over the data.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class PairwiseConcordanceCounter {
+
+    /**
+     * The counting mode.
+     */
+    public enum CountingMode {
+
+        EXACT, APPROXIMATE;
+    }
+    // The number of rows that a thread takes at once.
+    private static final int ROW_BLOCK_SIZE = 32;
+    // The number of distances that a thread buffers before writing them out.
+    private static final int GATHER_BUFFER_SIZE = 512;
+    private DataSet dset;
+    private int[] clusterAssociations;
+    private CombinedMetric cmet = CombinedMetric.EUCLIDEAN;
+    // Upper triangular distance matrix, if provided.
+    private float[][] distances;
+    private CountingMode mode = CountingMode.EXACT;
+    private int numThreads = 1;
+    // The number of buckets in the refinement histograms of the exact mode.
+    private int numRefinementBins = 1024;
+    // The number of buckets in the histogram of the approximate mode.
+    private int numApproximationBins = 1 << 16;
+    // The maximal number of distances to gather into memory in one pass.
+    private int memoryBudget = 1 << 24;
+    // Whether each point is a cluster member that enters the counts.
+    private boolean[] included;
+    // Results.
+    private long numIntraDists;
+    private long numInterDists;
+    private long numDiscordant;
+    private long discordanceErrorBound;
+    // The root of the tree of distance ranges that are being refined. It has a
+    // single bucket that contains all the distances.
+    private DistanceRange superRoot;
+
+    /**
+     * Initialization.
+     *
+     * @param clusterAssociations Cluster association array for the points.
+     * Negative values denote noise.
+     * @param dset DataSet object.
+     */
+    public PairwiseConcordanceCounter(int[] clusterAssociations,
+            DataSet dset) {
+        this.clusterAssociations = clusterAssociations;
+        this.dset = dset;
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param clusterAssociations Cluster association array for the points.
+     * Negative values denote noise.
+     * @param dset DataSet object.
+     * @param cmet CombinedMetric object for distance calculations.
+     */
+    public PairwiseConcordanceCounter(int[] clusterAssociations,
+            DataSet dset, CombinedMetric cmet) {
+        this.clusterAssociations = clusterAssociations;
+        this.dset = dset;
+        this.cmet = cmet;
+    }
+
+    /**
+     * @param distances float[][] representing the upper triangular distance
+     * matrix of the data. If not set, distances are calculated on the fly in
+     * each pass.
+     */
+    public void setDistanceMatrix(float[][] distances) {
+        this.distances = distances;
+    }
+
+    /**
+     * @param mode CountingMode that determines whether to count exactly or to
+     * approximate from a histogram.
+     */
+    public void setCountingMode(CountingMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param memoryBudget Integer that is the maximal number of distances to
+     * hold in memory at once in the exact mode.
+     */
+    public void setMemoryBudget(int memoryBudget) {
+        this.memoryBudget = Math.max(2, memoryBudget);
+    }
+
+    /**
+     * @param numRefinementBins Integer that is the number of histogram buckets
+     * used in each refinement pass in the exact mode.
+     */
+    public void setNumRefinementBins(int numRefinementBins) {
+        this.numRefinementBins = Math.max(2, numRefinementBins);
+    }
+
+    /**
+     * @param numApproximationBins Integer that is the number of histogram
+     * buckets used in the approximate mode.
+     */
+    public void setNumApproximationBins(int numApproximationBins) {
+        this.numApproximationBins = Math.max(2, numApproximationBins);
+    }
+
+    /**
+     * @return The number of intra-cluster distances.
+     */
+    public long getNumIntraDists() {
+        return numIntraDists;
+    }
+
+    /**
+     * @return The number of inter-cluster distances.
+     */
+    public long getNumInterDists() {
+        return numInterDists;
+    }
+
+    /**
+     * @return The number of discordant pairs.
+     */
+    public long getNumDiscordant() {
+        return numDiscordant;
+    }
+
+    /**
+     * @return The number of concordant pairs.
+     */
+    public long getNumConcordant() {
+        return numIntraDists * numInterDists - numDiscordant;
+    }
+
+    /**
+     * @return The maximal absolute error of the number of discordant pairs.
+     * It is zero in the exact mode.
+     */
+    public long getDiscordanceErrorBound() {
+        return discordanceErrorBound;
+    }
+
+    /**
+     * This method counts the concordant and discordant pairs.
+     *
+     * @throws Exception
+     */
+    public void count() throws Exception {
+        numIntraDists = 0;
+        numInterDists = 0;
+        numDiscordant = 0;
+        discordanceErrorBound = 0;
+        int size = dset.size();
+        included = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            included[i] = clusterAssociations[i] >= 0
+                    && !dset.getInstance(i).isNoise();
+        }
+        superRoot = new DistanceRange(0, 0, 0, 0);
+        superRoot.numBins = 1;
+        superRoot.width = 1;
+        ArrayList<DistanceRange> pending = new ArrayList<>(1);
+        ArrayList<DistanceRange> targets = new ArrayList<>(1);
+        targets.add(superRoot);
+        runPass(targets, pending);
+        DistanceRange root = superRoot.children == null ? null
+                : superRoot.children[0];
+        if (root == null) {
+            // Either there are no intra-cluster or no inter-cluster distances,
+            // so the totals have been set in the first pass and there are no
+            // pairs to count.
+            return;
+        }
+        numIntraDists = root.numIntra;
+        numInterDists = root.numInter;
+        if (mode == CountingMode.APPROXIMATE) {
+            pending.clear();
+            if (root.min == root.max) {
+                numDiscordant = numIntraDists * numInterDists;
+                return;
+            }
+            root.setBins(numApproximationBins);
+            targets.clear();
+            targets.add(root);
+            runPass(targets, pending);
+            for (DistanceRange range : pending) {
+                long numPairs = range.numIntra * range.numInter;
+                if (range.min == range.max) {
+                    numDiscordant += numPairs;
+                } else {
+                    numDiscordant += numPairs / 2;
+                    discordanceErrorBound += numPairs - numPairs / 2;
+                }
+            }
+            return;
+        }
+        while (!pending.isEmpty()) {
+            ArrayList<DistanceRange> current = pending;
+            pending = new ArrayList<>();
+            targets.clear();
+            long numGathered = 0;
+            for (DistanceRange range : current) {
+                long rangeSize = range.numIntra + range.numInter;
+                if (range.min == range.max) {
+                    // All ties.
+                    numDiscordant += range.numIntra * range.numInter;
+                } else if (rangeSize > memoryBudget) {
+                    range.setBins(numRefinementBins);
+                    targets.add(range);
+                } else if (numGathered + rangeSize <= memoryBudget) {
+                    range.gather = true;
+                    numGathered += rangeSize;
+                    targets.add(range);
+                } else {
+                    // Deferred to one of the subsequent passes.
+                    pending.add(range);
+                }
+            }
+            if (!targets.isEmpty()) {
+                runPass(targets, pending);
+            }
+        }
+    }
+
+    /**
+     * This method runs a single pass over all the distances and updates the
+     * histograms and the gathered distances for the target ranges.
+     *
+     * @param targets ArrayList of the target distance ranges.
+     * @param pending ArrayList to add the new unresolved ranges to.
+     * @throws Exception
+     */
+    private void runPass(ArrayList<DistanceRange> targets,
+            ArrayList<DistanceRange> pending) throws Exception {
+        for (int tIndex = 0; tIndex < targets.size(); tIndex++) {
+            DistanceRange range = targets.get(tIndex);
+            range.slot = tIndex;
+            if (range.gather) {
+                range.intraValues = new float[(int) range.numIntra];
+                range.interValues = new float[(int) range.numInter];
+                range.intraPos = new AtomicInteger(0);
+                range.interPos = new AtomicInteger(0);
+            }
+        }
+        int size = dset.size();
+        int numBlocks = (size + ROW_BLOCK_SIZE - 1) / ROW_BLOCK_SIZE;
+        int numPassThreads = Math.max(1, Math.min(numThreads, numBlocks));
+        AtomicInteger nextBlock = new AtomicInteger(0);
+        PassWorker[] workers = new PassWorker[numPassThreads];
+        Thread[] threads = new Thread[numPassThreads];
+        for (int tIndex = 0; tIndex < numPassThreads; tIndex++) {
+            workers[tIndex] = new PassWorker(targets, nextBlock, numBlocks);
+            threads[tIndex] = new Thread(workers[tIndex]);
+            threads[tIndex].start();
+        }
+        for (int tIndex = 0; tIndex < numPassThreads; tIndex++) {
+            try {
+                threads[tIndex].join();
+            } catch (Throwable t) {
+                System.err.println(t.getMessage());
+            }
+        }
+        for (int tIndex = 0; tIndex < numPassThreads; tIndex++) {
+            if (workers[tIndex].error != null) {
+                throw workers[tIndex].error;
+            }
+        }
+        for (DistanceRange range : targets) {
+            if (range.gather) {
+                numDiscordant += countSortedDiscordant(range.intraValues,
+                        range.interValues);
+                range.intraValues = null;
+                range.interValues = null;
+                range.gather = false;
+            } else {
+                mergeHistograms(range, workers, pending);
+            }
+            range.slot = -1;
+        }
+    }
+
+    /**
+     * This method merges the thread-local histograms of a range, counts the
+     * discordant pairs across different buckets and creates the child ranges
+     * for the buckets that contain both types of distances.
+     *
+     * @param range DistanceRange that was binned.
+     * @param workers PassWorker[] that hold the thread-local histograms.
+     * @param pending ArrayList to add the new unresolved ranges to.
+     */
+    private void mergeHistograms(DistanceRange range, PassWorker[] workers,
+            ArrayList<DistanceRange> pending) {
+        int numBins = range.numBins;
+        long[] intraCounts = new long[numBins];
+        long[] interCounts = new long[numBins];
+        float[] binMins = new float[numBins];
+        float[] binMaxs = new float[numBins];
+        Arrays.fill(binMins, Float.MAX_VALUE);
+        Arrays.fill(binMaxs, -Float.MAX_VALUE);
+        for (PassWorker worker : workers) {
+            long[] wIntra = worker.intraCounts[range.slot];
+            long[] wInter = worker.interCounts[range.slot];
+            float[] wMins = worker.binMins[range.slot];
+            float[] wMaxs = worker.binMaxs[range.slot];
+            for (int b = 0; b < numBins; b++) {
+                intraCounts[b] += wIntra[b];
+                interCounts[b] += wInter[b];
+                binMins[b] = Math.min(binMins[b], wMins[b]);
+                binMaxs[b] = Math.max(binMaxs[b], wMaxs[b]);
+            }
+        }
+        if (range == superRoot) {
+            numIntraDists = intraCounts[0];
+            numInterDists = interCounts[0];
+        }
+        // An inter-cluster distance is discordant with all intra-cluster
+        // distances from the higher buckets.
+        long intraAbove = 0;
+        for (int b = numBins - 1; b >= 0; b--) {
+            numDiscordant += interCounts[b] * intraAbove;
+            intraAbove += intraCounts[b];
+        }
+        range.children = new DistanceRange[numBins];
+        for (int b = 0; b < numBins; b++) {
+            if (intraCounts[b] > 0 && interCounts[b] > 0) {
+                range.children[b] = new DistanceRange(intraCounts[b],
+                        interCounts[b], binMins[b], binMaxs[b]);
+                pending.add(range.children[b]);
+            }
+        }
+    }
+
+    /**
+     * This method counts the discordant pairs by merging the sorted distances.
+     *
+     * @param intraValues float[] of intra-cluster distances.
+     * @param interValues float[] of inter-cluster distances.
+     * @return The number of discordant pairs.
+     */
+    private static long countSortedDiscordant(float[] intraValues,
+            float[] interValues) {
+        Arrays.sort(intraValues);
+        Arrays.sort(interValues);
+        long result = 0;
+        int intraIndex = 0;
+        for (int interIndex = 0; interIndex < interValues.length;
+                interIndex++) {
+            while (intraIndex < intraValues.length
+                    && intraValues[intraIndex] < interValues[interIndex]) {
+                intraIndex++;
+            }
+            if (intraIndex == intraValues.length) {
+                break;
+            }
+            // The current inter-cluster distance is discordant with all the
+            // remaining intra-cluster distances.
+            result += intraValues.length - intraIndex;
+        }
+        return result;
+    }
+
+    /**
+     * A range of distance values, defined by a bucket of the histogram of the
+     * parent range. Once binned, the range keeps its own child ranges for the
+     * buckets that are yet to be resolved.
+     */
+    private static class DistanceRange {
+
+        private long numIntra;
+        private long numInter;
+        private float min;
+        private float max;
+        // Histogram layout.
+        private int numBins;
+        private double width;
+        private DistanceRange[] children;
+        // The index of the range among the targets of the current pass, or -1
+        // if it is not a target.
+        private int slot = -1;
+        // Whether the distances are to be gathered in the current pass.
+        private boolean gather = false;
+        private float[] intraValues;
+        private float[] interValues;
+        private AtomicInteger intraPos;
+        private AtomicInteger interPos;
+
+        /**
+         * Initialization.
+         *
+         * @param numIntra Long that is the number of intra-cluster distances.
+         * @param numInter Long that is the number of inter-cluster distances.
+         * @param min Float that is the minimal distance in the range.
+         * @param max Float that is the maximal distance in the range.
+         */
+        DistanceRange(long numIntra, long numInter, float min, float max) {
+            this.numIntra = numIntra;
+            this.numInter = numInter;
+            this.min = min;
+            this.max = max;
+        }
+
+        /**
+         * @param numBins Integer that is the number of equal-width buckets to
+         * split the range into.
+         */
+        void setBins(int numBins) {
+            this.numBins = numBins;
+            this.width = ((double) max - (double) min) / numBins;
+        }
+
+        /**
+         * @param value Float that is the distance value.
+         * @return The index of the bucket that the value belongs to.
+         */
+        int getBin(float value) {
+            if (numBins == 1) {
+                return 0;
+            }
+            int bin = (int) ((value - (double) min) / width);
+            return bin < 0 ? 0 : (bin >= numBins ? numBins - 1 : bin);
+        }
+    }
+
+    /**
+     * This class processes blocks of rows of the distance matrix in one pass.
+     */
+    class PassWorker implements Runnable {
+
+        private ArrayList<DistanceRange> targets;
+        private AtomicInteger nextBlock;
+        private int numBlocks;
+        private float[] rowBuffer;
+        // Thread-local histograms for the binned targets.
+        long[][] intraCounts;
+        long[][] interCounts;
+        float[][] binMins;
+        float[][] binMaxs;
+        // Thread-local buffers for the gathered targets.
+        private float[][] intraBuffers;
+        private float[][] interBuffers;
+        private int[] intraBufferLengths;
+        private int[] interBufferLengths;
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param targets ArrayList of the target distance ranges.
+         * @param nextBlock AtomicInteger that is the index of the next
+         * unprocessed row block.
+         * @param numBlocks Integer that is the total number of row blocks.
+         */
+        PassWorker(ArrayList<DistanceRange> targets, AtomicInteger nextBlock,
+                int numBlocks) {
+            this.targets = targets;
+            this.nextBlock = nextBlock;
+            this.numBlocks = numBlocks;
+            int numTargets = targets.size();
+            intraCounts = new long[numTargets][];
+            interCounts = new long[numTargets][];
+            binMins = new float[numTargets][];
+            binMaxs = new float[numTargets][];
+            intraBuffers = new float[numTargets][];
+            interBuffers = new float[numTargets][];
+            intraBufferLengths = new int[numTargets];
+            interBufferLengths = new int[numTargets];
+            for (int tIndex = 0; tIndex < numTargets; tIndex++) {
+                DistanceRange range = targets.get(tIndex);
+                if (!range.gather) {
+                    intraCounts[tIndex] = new long[range.numBins];
+                    interCounts[tIndex] = new long[range.numBins];
+                    binMins[tIndex] = new float[range.numBins];
+                    binMaxs[tIndex] = new float[range.numBins];
+                    Arrays.fill(binMins[tIndex], Float.MAX_VALUE);
+                    Arrays.fill(binMaxs[tIndex], -Float.MAX_VALUE);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                int size = dset.size();
+                if (distances == null) {
+                    rowBuffer = new float[size];
+                }
+                int block;
+                while ((block = nextBlock.getAndIncrement()) < numBlocks) {
+                    int endRow = Math.min(size, (block + 1) * ROW_BLOCK_SIZE);
+                    for (int i = block * ROW_BLOCK_SIZE; i < endRow; i++) {
+                        if (included[i]) {
+                            processRow(i);
+                        }
+                    }
+                }
+                for (int tIndex = 0; tIndex < targets.size(); tIndex++) {
+                    if (targets.get(tIndex).gather) {
+                        flush(tIndex, true);
+                        flush(tIndex, false);
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /**
+         * This method processes the distances from a point to all the
+         * subsequent points.
+         *
+         * @param i Integer that is the index of the row.
+         * @throws Exception
+         */
+        private void processRow(int i) throws Exception {
+            int size = dset.size();
+            float[] row;
+            int offset;
+            if (distances != null) {
+                row = distances[i];
+                offset = i + 1;
+            } else {
+                if (i + 1 < size) {
+                    cmet.dist(dset, i, i + 1, size, rowBuffer, 0);
+                }
+                row = rowBuffer;
+                offset = i + 1;
+            }
+            int cluster = clusterAssociations[i];
+            for (int j = i + 1; j < size; j++) {
+                if (included[j]) {
+                    accept(row[j - offset], clusterAssociations[j] == cluster);
+                }
+            }
+        }
+
+        /**
+         * This method routes a distance to the target range that contains it,
+         * if there is one.
+         *
+         * @param value Float that is the distance value.
+         * @param intra Boolean flag indicating whether the distance is an
+         * intra-cluster distance.
+         */
+        private void accept(float value, boolean intra) {
+            DistanceRange range = superRoot;
+            while (range.slot < 0) {
+                if (range.children == null) {
+                    return;
+                }
+                range = range.children[range.getBin(value)];
+                if (range == null) {
+                    return;
+                }
+            }
+            int tIndex = range.slot;
+            if (range.gather) {
+                if (intra) {
+                    if (intraBuffers[tIndex] == null) {
+                        intraBuffers[tIndex] = new float[GATHER_BUFFER_SIZE];
+                    }
+                    intraBuffers[tIndex][intraBufferLengths[tIndex]++] = value;
+                    if (intraBufferLengths[tIndex] == GATHER_BUFFER_SIZE) {
+                        flush(tIndex, true);
+                    }
+                } else {
+                    if (interBuffers[tIndex] == null) {
+                        interBuffers[tIndex] = new float[GATHER_BUFFER_SIZE];
+                    }
+                    interBuffers[tIndex][interBufferLengths[tIndex]++] = value;
+                    if (interBufferLengths[tIndex] == GATHER_BUFFER_SIZE) {
+                        flush(tIndex, false);
+                    }
+                }
+            } else {
+                int bin = range.getBin(value);
+                if (intra) {
+                    intraCounts[tIndex][bin]++;
+                } else {
+                    interCounts[tIndex][bin]++;
+                }
+                if (value < binMins[tIndex][bin]) {
+                    binMins[tIndex][bin] = value;
+                }
+                if (value > binMaxs[tIndex][bin]) {
+                    binMaxs[tIndex][bin] = value;
+                }
+            }
+        }
+
+        /**
+         * This method writes the buffered distances of a gathered range to the
+         * shared arrays of the range.
+         *
+         * @param tIndex Integer that is the index of the target range.
+         * @param intra Boolean flag indicating whether to flush the
+         * intra-cluster or the inter-cluster buffer.
+         */
+        private void flush(int tIndex, boolean intra) {
+            DistanceRange range = targets.get(tIndex);
+            float[] buffer = intra ? intraBuffers[tIndex]
+                    : interBuffers[tIndex];
+            int length = intra ? intraBufferLengths[tIndex]
+                    : interBufferLengths[tIndex];
+            if (buffer == null || length == 0) {
+                return;
+            }
+            if (intra) {
+                int pos = range.intraPos.getAndAdd(length);
+                System.arraycopy(buffer, 0, range.intraValues, pos, length);
+                intraBufferLengths[tIndex] = 0;
+            } else {
+                int pos = range.interPos.getAndAdd(length);
+                System.arraycopy(buffer, 0, range.interValues, pos, length);
+                interBufferLengths[tIndex] = 0;
+            }
+        }
+    }
+}
@@ -18,7 +18,6 @@ package learning.unsupervised.evaluation.quality;
 
 import data.representation.DataSet;
 import distances.primary.CombinedMetric;
-import java.util.Arrays;
 import learning.unsupervised.Cluster;
 
 /**
@@ -28,12 +27,7 @@ import learning.unsupervised.Cluster;
  * 
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
-public class QIndexGPlusComplement extends ClusteringQualityIndex {
-    
-    private CombinedMetric cmet = null;
-    private int[] clusterAssociations;
-    private float[][] distances;
-    private boolean dGiven = false;
+public class QIndexGPlusComplement extends ConcordanceQualityIndex {
     
     /**
      * Initialization.
@@ -43,9 +37,7 @@ public class QIndexGPlusComplement extends ClusteringQualityIndex {
      */
     public QIndexGPlusComplement(int[] clusterAssociations,
             DataSet dset) {
-        this.clusterAssociations = clusterAssociations;
-        setDataSet(dset);
-        cmet = CombinedMetric.EUCLIDEAN;
+        super(clusterAssociations, dset, CombinedMetric.EUCLIDEAN);
     }
 
     /**
@@ -57,93 +49,29 @@ public class QIndexGPlusComplement extends ClusteringQualityIndex {
      */
     public QIndexGPlusComplement(int[] clusterAssociations,
             DataSet dset, CombinedMetric cmet) {
-        this.clusterAssociations = clusterAssociations;
-        setDataSet(dset);
-        this.cmet = cmet;
+        super(clusterAssociations, dset, cmet);
     }
 
-    /**
-     * @param distances float[][] representing the upper triangular distance 
-     * matrix of the data.
-     */
-    public void setDistanceMatrix(float[][] distances) {
-        this.distances = distances;
-        this.dGiven = true;
-    }
-    
     @Override
     public float validity() throws Exception {
         DataSet instances = getDataSet();
-        if (!dGiven) {
-            distances = instances.calculateDistMatrix(cmet);
-        }
+        int[] clusterAssociations = getClusterAssociations();
         Cluster[] clusterConfiguration =
                 Cluster.getConfigurationFromAssociations(clusterAssociations,
                 instances);
-        int numIntraDists = 0;
-        int numInterDists = 0;
         int numClusters = clusterConfiguration.length;
         if (numClusters < 2) {
             return 0;
         }
-        for (int c1 = 0; c1 < numClusters; c1++) {
-            if (clusterConfiguration[c1].size() > 0) {
-                numIntraDists += clusterConfiguration[c1].size()
-                        * (clusterConfiguration[c1].size() - 1) / 2;
-                for (int c2 = 0; c2 < numClusters; c2++) {
-                    if (clusterConfiguration[c2].size() > 0) {
-                        numInterDists += clusterConfiguration[c1].size()
-                                * clusterConfiguration[c2].size();
-                    }
-                }
-            }
-        }
-        float[] intraDists = new float[numIntraDists];
-        float[] interDists = new float[numInterDists];
-        int intraIndex = -1;
-        int interIndex = -1;
-        int numNoisyPoints = 0;
-        for (int i = 0; i < distances.length; i++) {
-            if (instances.getInstance(i).isNoise() ||
-                    clusterAssociations[i] < 0) {
-                numNoisyPoints++;
-                continue;
-            }
-            for (int j = 0; j < distances[i].length; j++) {
-                if (instances.getInstance(j).isNoise()) {
-                    continue;
-                }
-                if (clusterAssociations[i] == clusterAssociations[i + j + 1]) {
-                    intraDists[++intraIndex] = distances[i][j];
-                } else {
-                    interDists[++interIndex] = distances[i][j];
-                }
-            }
+        // The distances are streamed rather than materialized and sorted.
+        PairwiseConcordanceCounter counter = getConcordanceCounter();
+        counter.count();
+        long Nd = counter.getNumDiscordant(); // Num discordant pairs.
+        long totalDists = counter.getNumIntraDists()
+                + counter.getNumInterDists();
+        if (totalDists < 2) {
+            return 0;
         }
-        Arrays.sort(intraDists); //ascending sort
-        Arrays.sort(interDists); //ascending sort
-        intraIndex = 0;
-        interIndex = 0;
-        // This is the sum of concordant and discordant pairs.
-        long Nd = 0; // Num discordant pairs.
-        // We will only count the breaches.
-        long totalDists = numIntraDists + numInterDists;
-        do {
-            while (intraIndex < numIntraDists
-                    && intraDists[intraIndex] < interDists[interIndex]) {
-                intraIndex++;
-            }
-            if (intraIndex == numIntraDists) {
-                break;
-            }
-            // Then the interDists[interIndex] is discordant with all
-            // intraDists[i] for i >= intraIndex. There are numIntraDists -
-            // intraIndex of them.
-            Nd += (numIntraDists - intraIndex);
-            // The inter-distance at interIndex has been processed, so it is
-            // time to move on.
-            interIndex++;
-        } while (intraIndex < numIntraDists && interIndex < numInterDists);
         double maxPairComparisons = (totalDists * (totalDists - 1)) / 2.;
         double gPlusIndex = Nd / maxPairComparisons;
         return (float) (1 - gPlusIndex);
@@ -19,7 +19,6 @@ package learning.unsupervised.evaluation.quality;
 
 import data.representation.DataSet;
 import distances.primary.CombinedMetric;
-import java.util.Arrays;
 import learning.unsupervised.Cluster;
 
 /**
@@ -30,12 +29,7 @@ import learning.unsupervised.Cluster;
  *
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
-public class QIndexGoodmanKruskal extends ClusteringQualityIndex {
-
-    private CombinedMetric cmet = null;
-    private int[] clusterAssociations;
-    private float[][] distances;
-    private boolean dGiven = false;
+public class QIndexGoodmanKruskal extends ConcordanceQualityIndex {
 
     /**
      * Initialization.
@@ -45,9 +39,7 @@ public class QIndexGoodmanKruskal extends ClusteringQualityIndex {
      */
     public QIndexGoodmanKruskal(int[] clusterAssociations,
             DataSet dset) {
-        this.clusterAssociations = clusterAssociations;
-        setDataSet(dset);
-        cmet = CombinedMetric.EUCLIDEAN;
+        super(clusterAssociations, dset, CombinedMetric.EUCLIDEAN);
     }
 
     /**
@@ -59,96 +51,29 @@ public class QIndexGoodmanKruskal extends ClusteringQualityIndex {
      */
     public QIndexGoodmanKruskal(int[] clusterAssociations, DataSet dset,
             CombinedMetric cmet) {
-        this.clusterAssociations = clusterAssociations;
-        setDataSet(dset);
-        this.cmet = cmet;
-    }
-
-    /**
-     * @param distances float[][] representing the upper triangular distance 
-     * matrix of the data.
-     */
-    public void setDistanceMatrix(float[][] distances) {
-        this.distances = distances;
-        this.dGiven = true;
+        super(clusterAssociations, dset, cmet);
     }
 
     @Override
     public float validity() throws Exception {
-        float gkIndex;
         DataSet instances = getDataSet();
-        if (!dGiven) {
-            distances = instances.calculateDistMatrix(cmet);
-        }
-
+        int[] clusterAssociations = getClusterAssociations();
         Cluster[] clusterConfiguration =
                 Cluster.getConfigurationFromAssociations(clusterAssociations,
                 instances);
-        int numIntraDists = 0;
-        int numInterDists = 0;
         int numClusters = clusterConfiguration.length;
         if (numClusters < 2) {
             return 0;
         }
-        for (int c1 = 0; c1 < numClusters; c1++) {
-            if (clusterConfiguration[c1].size() > 0) {
-                numIntraDists += clusterConfiguration[c1].size()
-                        * (clusterConfiguration[c1].size() - 1) / 2;
-                for (int c2 = 0; c2 < numClusters; c2++) {
-                    if (clusterConfiguration[c2].size() > 0) {
-                        numInterDists += clusterConfiguration[c1].size()
-                                * clusterConfiguration[c2].size();
-                    }
-                }
-            }
-        }
-        float[] intraDists = new float[numIntraDists];
-        float[] interDists = new float[numInterDists];
-        int intraIndex = -1;
-        int interIndex = -1;
-        for (int i = 0; i < distances.length; i++) {
-            if (instances.getInstance(i).isNoise()) {
-                continue;
-            }
-            for (int j = 0; j < distances[i].length; j++) {
-                if (instances.getInstance(j).isNoise()) {
-                    continue;
-                }
-                if (clusterAssociations[i] == clusterAssociations[i + j + 1]) {
-                    intraDists[++intraIndex] = distances[i][j];
-                } else {
-                    interDists[++interIndex] = distances[i][j];
-                }
-            }
+        // The distances are streamed rather than materialized and sorted.
+        PairwiseConcordanceCounter counter = getConcordanceCounter();
+        counter.count();
+        long Nc = counter.getNumConcordant(); // Num concordant pairs.
+        long Nd = counter.getNumDiscordant(); // Num discordant pairs.
+        if (Nc + Nd == 0) {
+            return 0;
         }
-        Arrays.sort(intraDists); //ascending sort
-        Arrays.sort(interDists); //ascending sort
-        intraIndex = 0;
-        interIndex = 0;
-        long totalDists = numIntraDists + numInterDists;
-        long totalPairs = numIntraDists * numInterDists;
-        // This is the sum of concordant and discordant pairs.
-        long Nc; // Num concordant pairs.
-        long Nd = 0; // Num discordant pairs.
-        // We will only count the breaches.
-        do {
-            while (intraIndex < numIntraDists
-                    && intraDists[intraIndex] < interDists[interIndex]) {
-                intraIndex++;
-            }
-            if (intraIndex == numIntraDists) {
-                break;
-            }
-            // Then the interDists[interIndex] is discordant with all
-            // intraDists[i] for i >= intraIndex. There are numIntraDists -
-            //intraIndex of them
-            Nd += numIntraDists - intraIndex;
-            // The inter-distance at interIndex has been processed, so it is
-            // time to move on.
-            interIndex++;
-        } while (intraIndex < numIntraDists && interIndex < numInterDists);
-        Nc = totalPairs - Nd;
-        gkIndex = (float) (Nc - Nd) / (float) (Nc + Nd);
+        float gkIndex = (float) (Nc - Nd) / (float) (Nc + Nd);
         return gkIndex;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,169 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.evaluation.quality.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.unsupervised.evaluation.quality.PairwiseConcordanceCounter;
+import learning.unsupervised.evaluation.quality.PairwiseConcordanceCounter.CountingMode;
+import learning.unsupervised.evaluation.quality.QIndexGoodmanKruskal;
+import org.junit.Test;
+
+/**
+ * This class tests the streaming concordance counts against the exhaustive
+ * comparison of all intra-cluster and inter-cluster distance pairs.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class PairwiseConcordanceCounterTest extends TestCase {
+
+    /**
+     * This method tests the exact counts, with and without a distance matrix
+     * and with a memory budget that forces several refinement passes.
+     */
+    @Test
+    public static void testExactCounts() {
+        try {
+            // Discrete feature values produce many tied distances.
+            boolean[] discreteValues = {false, true};
+            for (boolean discrete : discreteValues) {
+                DataSet dset = discrete
+                        ? ToyDataGenerator.generateDiscreteData(300, 3, 4, 0, 1)
+                        : ToyDataGenerator.generateUniformData(300, 3, 2);
+                int[] associations = generateAssociations(dset.size(), 4, 4);
+                CombinedMetric cmet = CombinedMetric.FLOAT_MANHATTAN;
+                float[][] distances = dset.calculateDistMatrix(cmet);
+                long[] expected = countExhaustively(distances, associations);
+                int[] budgets = {1 << 24, 500};
+                for (int budget : budgets) {
+                    for (int useMatrix = 0; useMatrix < 2; useMatrix++) {
+                        PairwiseConcordanceCounter counter =
+                                new PairwiseConcordanceCounter(associations,
+                                dset, cmet);
+                        if (useMatrix == 1) {
+                            counter.setDistanceMatrix(distances);
+                        }
+                        counter.setMemoryBudget(budget);
+                        counter.setNumRefinementBins(8);
+                        counter.setNumThreads(3);
+                        counter.count();
+                        assertEquals(expected[0], counter.getNumIntraDists());
+                        assertEquals(expected[1], counter.getNumInterDists());
+                        assertEquals(expected[2], counter.getNumDiscordant());
+                        assertEquals(0, counter.getDiscordanceErrorBound());
+                    }
+                }
+                QIndexGoodmanKruskal gkIndex = new QIndexGoodmanKruskal(
+                        associations, dset, cmet);
+                long numPairs = expected[0] * expected[1];
+                assertEquals((float) (numPairs - 2 * expected[2]) / numPairs,
+                        gkIndex.validity(), 0.0001f);
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests that the approximate counts are within the reported
+     * error bound.
+     */
+    @Test
+    public static void testApproximateCounts() {
+        try {
+            DataSet dset = ToyDataGenerator.generateUniformData(400, 5, 3);
+            int[] associations = generateAssociations(dset.size(), 3, 5);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            float[][] distances = dset.calculateDistMatrix(cmet);
+            long[] expected = countExhaustively(distances, associations);
+            PairwiseConcordanceCounter counter =
+                    new PairwiseConcordanceCounter(associations, dset, cmet);
+            counter.setCountingMode(CountingMode.APPROXIMATE);
+            counter.setNumApproximationBins(256);
+            counter.setNumThreads(2);
+            counter.count();
+            assertEquals(expected[0], counter.getNumIntraDists());
+            assertEquals(expected[1], counter.getNumInterDists());
+            assertTrue(Math.abs(counter.getNumDiscordant() - expected[2])
+                    <= counter.getDiscordanceErrorBound());
+            assertTrue(counter.getDiscordanceErrorBound()
+                    < expected[0] * expected[1] / 100);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * @param distances float[][] that is the upper triangular distance matrix.
+     * @param associations int[] of cluster associations.
+     * @return long[] with the number of intra-cluster distances, the number of
+     * inter-cluster distances and the number of discordant pairs.
+     */
+    private static long[] countExhaustively(float[][] distances,
+            int[] associations) {
+        int size = associations.length;
+        int numIntra = 0;
+        int numInter = 0;
+        float[] intraDists = new float[size * size];
+        float[] interDists = new float[size * size];
+        for (int i = 0; i < size; i++) {
+            if (associations[i] < 0) {
+                continue;
+            }
+            for (int j = i + 1; j < size; j++) {
+                if (associations[j] < 0) {
+                    continue;
+                }
+                if (associations[i] == associations[j]) {
+                    intraDists[numIntra++] = distances[i][j - i - 1];
+                } else {
+                    interDists[numInter++] = distances[i][j - i - 1];
+                }
+            }
+        }
+        long numDiscordant = 0;
+        for (int i = 0; i < numIntra; i++) {
+            for (int j = 0; j < numInter; j++) {
+                if (intraDists[i] >= interDists[j]) {
+                    numDiscordant++;
+                }
+            }
+        }
+        return new long[]{numIntra, numInter, numDiscordant};
+    }
+
+    /**
+     * @param size Integer that is the number of points.
+     * @param numClusters Integer that is the number of clusters.
+     * @param seed Long that is the random seed.
+     * @return int[] of random cluster associations, with some noise points.
+     */
+    private static int[] generateAssociations(int size, int numClusters,
+            long seed) {
+        Random randa = new Random(seed);
+        int[] associations = new int[size];
+        for (int i = 0; i < size; i++) {
+            associations[i] = i < numClusters ? i
+                    : randa.nextInt(numClusters + 1) - 1;
+        }
+        return associations;
+    }
+}
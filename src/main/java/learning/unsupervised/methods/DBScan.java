@@ -24,11 +24,14 @@ import combinatorial.Permutation;
 import data.neighbors.NeighborSetFinder;
 import data.representation.DataInstance;
 import data.representation.DataSet;
+import data.structures.VPTree;
 import distances.primary.CombinedMetric;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Stack;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 import learning.unsupervised.Cluster;
 import learning.unsupervised.ClusteringAlg;
 import util.ArrayUtil;
@@ -40,6 +43,13 @@ import util.AuxSort;
  * Sander, Xiaowei Xu (1996). "A density-based algorithm for discovering
  * clusters in large spatial databases with noise"
  *
+ * By default, the epsilon-neighborhoods are approximated by the kNN sets. In
+ * the range index mode, they are obtained by exact range queries in a vantage
+ * point tree instead, so they are not limited to k points. The range queries
+ * are run in parallel and the clusters are formed by merging the neighboring
+ * core points in a concurrent union-find structure, after which the border
+ * points are attached to the cluster of one of their core neighbors.
+ *
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
 public class DBScan extends ClusteringAlg implements
@@ -59,6 +69,16 @@ public class DBScan extends ClusteringAlg implements
     private float epsilonNeighborhoodDist = Float.MAX_VALUE;
     // Noise percentage should be carefully set.
     private float noisePerc = 0.15f;
+    public static final int DEFAULT_EPSILON_SAMPLE_SIZE = 1000;
+    // The number of points whose k-distances are used for estimating epsilon
+    // in the range index mode.
+    private int epsilonSampleSize = DEFAULT_EPSILON_SAMPLE_SIZE;
+    // Whether to use exact range queries in a metric index.
+    private boolean useRangeIndex = false;
+    private VPTree rangeIndex;
+    private int numThreads = 8;
+    // The number of points in a block of work in the range index mode.
+    private static final int BLOCK_SIZE = 32;
     
     @Override
     public Publication getPublicationInfo() {
@@ -104,6 +124,76 @@ public class DBScan extends ClusteringAlg implements
         epsilonNeighborhoodDist = kthdistance[threshold];
     }
 
+    /**
+     * This method searches for a good parameter configuration in the same way
+     * as searchForGoodParameters(), but from a sample of the k-distances that
+     * are calculated by kNN queries in the range index, so that the kNN sets
+     * of all points are not needed.
+     *
+     * @param sampleSize Integer that is the number of points to sample.
+     * @throws Exception
+     */
+    public void searchForGoodParameters(int sampleSize) throws Exception {
+        DataSet dset = getDataSet();
+        int size = dset.size();
+        int numSamples = Math.max(1, Math.min(sampleSize, size));
+        buildRangeIndex();
+        int[] perm = Permutation.obtainRandomPermutation(size);
+        int[] neighbors = new int[k];
+        float[] kDistances = new float[k];
+        float[] kthdistance = new float[numSamples];
+        for (int i = 0; i < numSamples; i++) {
+            int kCurrLen = rangeIndex.getKNeighbors(dset.data.get(perm[i]), k,
+                    perm[i], neighbors, kDistances);
+            kthdistance[i] = kCurrLen > 0 ? kDistances[kCurrLen - 1] : 0;
+        }
+        AuxSort.sortIndexedValue(kthdistance, true);
+        minPoints = k;
+        int threshold = (int) (noisePerc * numSamples);
+        epsilonNeighborhoodDist = kthdistance[threshold];
+    }
+
+    /**
+     * @param useRangeIndex Boolean flag indicating whether to obtain the exact
+     * epsilon-neighborhoods by range queries in a metric index, instead of
+     * approximating them by the kNN sets.
+     */
+    public void setUseRangeIndex(boolean useRangeIndex) {
+        this.useRangeIndex = useRangeIndex;
+    }
+
+    /**
+     * @param rangeIndex VPTree on the data to use for the range queries. It is
+     * built if it has not been built already.
+     */
+    public void setRangeIndex(VPTree rangeIndex) {
+        this.rangeIndex = rangeIndex;
+        this.useRangeIndex = rangeIndex != null;
+    }
+
+    /**
+     * @return VPTree that is used for the range queries.
+     */
+    public VPTree getRangeIndex() {
+        return rangeIndex;
+    }
+
+    /**
+     * @param numThreads Integer that is the number of threads to use in the
+     * range index mode.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @param epsilonSampleSize Integer that is the number of points whose
+     * k-distances are used for estimating epsilon in the range index mode.
+     */
+    public void setEpsilonSampleSize(int epsilonSampleSize) {
+        this.epsilonSampleSize = epsilonSampleSize;
+    }
+
     /**
      * @return Integer that is the minimal number of points a neighborhood can
      * have not to be considered noise.
@@ -221,6 +311,10 @@ public class DBScan extends ClusteringAlg implements
     public void cluster() throws Exception {
         performBasicChecks();
         flagAsActive();
+        if (useRangeIndex) {
+            clusterWithRangeIndex();
+            return;
+        }
         DataSet dset = getDataSet();
         int size = dset.size();
         visited = new boolean[size];
@@ -229,14 +323,14 @@ public class DBScan extends ClusteringAlg implements
         ArrayList<Cluster> clusters = new ArrayList<>(10);
         bestAssociations = new int[size];
         Arrays.fill(bestAssociations, -1);
-        if (epsilonNeighborhoodDist == Float.MAX_VALUE) {
-            searchForGoodParameters();
-        }
         int neighbSize;
         CombinedMetric cmet = getCombinedMetric();
         // Only calculates them if the current NeighborSetFinder object doesn't
         // have them properly calculated.
         calculateNeighborSets(k, cmet);
+        if (epsilonNeighborhoodDist == Float.MAX_VALUE) {
+            searchForGoodParameters();
+        }
         int[] perm = Permutation.obtainRandomPermutation(size);
         for (int i = 0; i < size; i++) {
             if (!visited[perm[i]]) {
@@ -255,6 +349,256 @@ public class DBScan extends ClusteringAlg implements
         setClusterAssociations(bestAssociations);
     }
 
+    /**
+     * Builds the range index on the data, if it is not already available.
+     *
+     * @throws Exception
+     */
+    private void buildRangeIndex() throws Exception {
+        if (rangeIndex == null) {
+            CombinedMetric cmet = getCombinedMetric();
+            if (cmet == null) {
+                cmet = CombinedMetric.EUCLIDEAN;
+            }
+            rangeIndex = new VPTree(getDataSet(), cmet);
+        }
+        if (!rangeIndex.isBuilt()) {
+            rangeIndex.build(numThreads);
+        }
+    }
+
+    /**
+     * Clusters the data by exact range queries in the range index. The
+     * epsilon-neighborhoods of all points are calculated in parallel and
+     * stored for the core points only. The core points within epsilon of each
+     * other are then merged in parallel, so that the clusters correspond to
+     * the connected components of the core points.
+     *
+     * @throws Exception
+     */
+    private void clusterWithRangeIndex() throws Exception {
+        DataSet dset = getDataSet();
+        int size = dset.size();
+        buildRangeIndex();
+        if (epsilonNeighborhoodDist == Float.MAX_VALUE) {
+            searchForGoodParameters(epsilonSampleSize);
+        }
+        int[][] coreNeighborhoods = new int[size][];
+        ConcurrentUnionFind uFind = new ConcurrentUnionFind(size);
+        // The core neighbor with the smallest index for each border point.
+        AtomicIntegerArray borderCores = new AtomicIntegerArray(size);
+        for (int i = 0; i < size; i++) {
+            borderCores.set(i, Integer.MAX_VALUE);
+        }
+        int numWorkers = Math.max(1, Math.min(numThreads,
+                (size + BLOCK_SIZE - 1) / BLOCK_SIZE));
+        RangeWorker[] workers = new RangeWorker[numWorkers];
+        AtomicInteger nextBlock = new AtomicInteger();
+        for (int wIndex = 0; wIndex < numWorkers; wIndex++) {
+            workers[wIndex] = new RangeWorker(nextBlock, coreNeighborhoods,
+                    uFind, borderCores);
+        }
+        runPhase(workers, nextBlock, RangeWorker.PHASE_NEIGHBORHOODS);
+        runPhase(workers, nextBlock, RangeWorker.PHASE_MERGE);
+        bestAssociations = new int[size];
+        Arrays.fill(bestAssociations, -1);
+        int[] rootClusters = new int[size];
+        Arrays.fill(rootClusters, -1);
+        int cNum = 0;
+        for (int i = 0; i < size; i++) {
+            if (coreNeighborhoods[i] != null) {
+                int root = uFind.find(i);
+                if (rootClusters[root] == -1) {
+                    rootClusters[root] = cNum++;
+                }
+                bestAssociations[i] = rootClusters[root];
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            if (coreNeighborhoods[i] == null
+                    && borderCores.get(i) != Integer.MAX_VALUE) {
+                bestAssociations[i] = bestAssociations[borderCores.get(i)];
+            }
+        }
+        setClusterAssociations(bestAssociations);
+    }
+
+    /**
+     * Runs one phase of the range index mode in all the workers and waits for
+     * them to finish.
+     *
+     * @param workers RangeWorker[] of the workers.
+     * @param nextBlock AtomicInteger that is the shared block counter.
+     * @param phase Integer code of the phase to run.
+     * @throws Exception if any of the workers failed.
+     */
+    private void runPhase(RangeWorker[] workers, AtomicInteger nextBlock,
+            int phase) throws Exception {
+        nextBlock.set(0);
+        Thread[] threads = new Thread[workers.length];
+        for (int wIndex = 0; wIndex < workers.length; wIndex++) {
+            workers[wIndex].phase = phase;
+            threads[wIndex] = new Thread(workers[wIndex]);
+            threads[wIndex].start();
+        }
+        for (int wIndex = 0; wIndex < workers.length; wIndex++) {
+            try {
+                threads[wIndex].join();
+            } catch (Throwable t) {
+                System.err.println(t.getMessage());
+            }
+        }
+        for (RangeWorker worker : workers) {
+            if (worker.error != null) {
+                throw worker.error;
+            }
+        }
+    }
+
+    /**
+     * This class processes blocks of points in the range index mode. In the
+     * first phase, it calculates the epsilon-neighborhoods and in the second
+     * one it merges the core points and registers the border points.
+     */
+    class RangeWorker implements Runnable {
+
+        static final int PHASE_NEIGHBORHOODS = 0;
+        static final int PHASE_MERGE = 1;
+        int phase;
+        private AtomicInteger nextBlock;
+        private int[][] coreNeighborhoods;
+        private ConcurrentUnionFind uFind;
+        private AtomicIntegerArray borderCores;
+        // Re-usable buffer for the range query results.
+        private VPTree.IndexBuffer buffer = new VPTree.IndexBuffer(64);
+        // The first error encountered, if any.
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param nextBlock AtomicInteger that is the shared block counter.
+         * @param coreNeighborhoods int[][] of the epsilon-neighborhoods of the
+         * core points, null for the other points.
+         * @param uFind ConcurrentUnionFind of the core points.
+         * @param borderCores AtomicIntegerArray of the smallest core neighbor
+         * indexes of the border points.
+         */
+        RangeWorker(AtomicInteger nextBlock, int[][] coreNeighborhoods,
+                ConcurrentUnionFind uFind, AtomicIntegerArray borderCores) {
+            this.nextBlock = nextBlock;
+            this.coreNeighborhoods = coreNeighborhoods;
+            this.uFind = uFind;
+            this.borderCores = borderCores;
+        }
+
+        @Override
+        public void run() {
+            int size = coreNeighborhoods.length;
+            try {
+                int first;
+                while ((first = nextBlock.getAndIncrement() * BLOCK_SIZE)
+                        < size) {
+                    int last = Math.min(first + BLOCK_SIZE, size);
+                    for (int i = first; i < last; i++) {
+                        if (phase == PHASE_NEIGHBORHOODS) {
+                            if (rangeIndex.rangeQuery(i,
+                                    epsilonNeighborhoodDist, buffer)
+                                    >= minPoints) {
+                                coreNeighborhoods[i] = buffer.toArray();
+                            }
+                        } else if (coreNeighborhoods[i] != null) {
+                            mergeNeighborhood(i);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /**
+         * Merges a core point with its core neighbors and registers it as a
+         * candidate cluster for its border neighbors.
+         *
+         * @param index Integer that is the index of the core point.
+         */
+        private void mergeNeighborhood(int index) {
+            for (int neighbor : coreNeighborhoods[index]) {
+                if (coreNeighborhoods[neighbor] != null) {
+                    uFind.union(index, neighbor);
+                } else {
+                    int current = borderCores.get(neighbor);
+                    while (index < current && !borderCores.compareAndSet(
+                            neighbor, current, index)) {
+                        current = borderCores.get(neighbor);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This class implements a lock-free union-find structure. The roots are
+     * always linked towards the smaller index, so the concurrent links can not
+     * form cycles, and the paths are halved during the find operations.
+     */
+    static class ConcurrentUnionFind {
+
+        private AtomicIntegerArray parent;
+
+        /**
+         * Initialization.
+         *
+         * @param size Integer that is the number of elements.
+         */
+        ConcurrentUnionFind(int size) {
+            parent = new AtomicIntegerArray(size);
+            for (int i = 0; i < size; i++) {
+                parent.set(i, i);
+            }
+        }
+
+        /**
+         * @param element Integer that is the element index.
+         * @return Integer that is the current root of the element.
+         */
+        int find(int element) {
+            int current = element;
+            int p = parent.get(current);
+            while (p != current) {
+                int grandParent = parent.get(p);
+                if (grandParent != p) {
+                    parent.compareAndSet(current, p, grandParent);
+                }
+                current = p;
+                p = parent.get(current);
+            }
+            return current;
+        }
+
+        /**
+         * Merges the sets of the two elements.
+         *
+         * @param first Integer that is the first element index.
+         * @param second Integer that is the second element index.
+         */
+        void union(int first, int second) {
+            while (true) {
+                int firstRoot = find(first);
+                int secondRoot = find(second);
+                if (firstRoot == secondRoot) {
+                    return;
+                }
+                int child = Math.max(firstRoot, secondRoot);
+                int root = Math.min(firstRoot, secondRoot);
+                if (parent.compareAndSet(child, child, root)) {
+                    return;
+                }
+            }
+        }
+    }
+
     /**
      * Expands the cluster around the considered core point as much as possible.
      *
@@ -139,7 +139,7 @@ public class KMeans extends ClusteringAlg {
                 int closestCentroidIndex = -1;
                 for (int cIndex = 0; cIndex < centroids.length; cIndex++) {
                     currentDistance = cmet.dist(
-                            dset.getInstance(i), centroids[cIndex]);
+                            dset, i, centroids[cIndex]);
                     if (currentDistance < smallestDistance) {
                         smallestDistance = currentDistance;
                         closestCentroidIndex = cIndex;
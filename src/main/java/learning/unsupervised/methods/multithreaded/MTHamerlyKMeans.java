@@ -0,0 +1,655 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.methods.multithreaded;
+
+import algref.Author;
+import algref.ConferencePublication;
+import algref.Publication;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import data.representation.util.DataMineConstants;
+import distances.primary.CombinedMetric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import learning.unsupervised.Cluster;
+import learning.unsupervised.ClusteringAlg;
+
+/**
+ * A multi-threaded K-means implementation that uses the triangle inequality
+ * bounds described in: Greg Hamerly, "Making k-means even faster". Each point
+ * keeps an upper bound on the distance to its centroid and a single lower
+ * bound on the distance to all other centroids, so most points are not
+ * compared to any centroid once the clusters settle. Unlike the Elkan bounds,
+ * this requires only linear memory, which matters for large codebooks. The
+ * threads record the changes of the cluster sums in their own accumulators,
+ * which are merged once per iteration over disjoint cluster ranges, so no
+ * locking is needed. The workers run all the phases in the same pool, so no
+ * threads are created per phase. The bounds are only valid for metrics that
+ * satisfy the triangle inequality.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class MTHamerlyKMeans extends ClusteringAlg {
+
+    public static final int DEFAULT_MAX_ITERATIONS = 300;
+    // Worker phases.
+    private static final int PHASE_INITIAL_ASSIGNMENT = 0;
+    private static final int PHASE_CENTROID_UPDATE = 1;
+    private static final int PHASE_SEPARATIONS = 2;
+    private static final int PHASE_ASSIGNMENT = 3;
+    private int numThreads = 8;
+    private int maxIterations = DEFAULT_MAX_ITERATIONS;
+    private boolean printOutIteration = false;
+    private Cluster[] clusters = null;
+    private DataInstance[] endCentroids = null;
+    // The number of point-to-centroid and centroid-to-centroid distance
+    // calculations in the last run.
+    private long numDistanceCalculations = 0;
+    // The state of the current run.
+    private DataInstance[] centroids;
+    private DataInstance[] previousCentroids;
+    private int[] assignments;
+    private double[] upperBounds;
+    private double[] lowerBounds;
+    // Half of the distance from each centroid to its closest other centroid.
+    private double[] halfSeparations;
+    private double[] centroidShifts;
+    private int maxShiftIndex;
+    private double maxShift;
+    private double secondMaxShift;
+    private int[] clusterSizes;
+    private double[][] clusterIntSums;
+    private double[][] clusterFloatSums;
+    private Worker[] workers;
+    // The pool that runs the phases and the tasks of the workers in it.
+    private ForkJoinPool pool;
+    private ArrayList<Callable<Object>> workerTasks;
+
+    @Override
+    public HashMap<String, String> getParameterNamesAndDescriptions() {
+        HashMap<String, String> paramMap = new HashMap<>();
+        paramMap.put("numThreads", "Number of threads to use.");
+        paramMap.put("maxIterations", "Maximal number of iterations.");
+        return paramMap;
+    }
+
+    @Override
+    public Publication getPublicationInfo() {
+        ConferencePublication pub = new ConferencePublication();
+        pub.setConferenceName("SIAM International Conference on Data Mining");
+        pub.addAuthor(new Author("Greg", "Hamerly"));
+        pub.setTitle("Making k-means even faster");
+        pub.setYear(2010);
+        pub.setStartPage(130);
+        pub.setEndPage(140);
+        return pub;
+    }
+
+    public MTHamerlyKMeans() {
+    }
+
+    /**
+     * @param dset DataSet object.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param numClusters A pre-defined number of clusters.
+     */
+    public MTHamerlyKMeans(DataSet dset, CombinedMetric cmet,
+            int numClusters) {
+        setNumClusters(numClusters);
+        setCombinedMetric(cmet);
+        setDataSet(dset);
+    }
+
+    /**
+     * @param dset DataSet object.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param numClusters A pre-defined number of clusters.
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public MTHamerlyKMeans(DataSet dset, CombinedMetric cmet,
+            int numClusters, int numThreads) {
+        setNumClusters(numClusters);
+        setCombinedMetric(cmet);
+        setDataSet(dset);
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @param dset DataSet object.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param numClusters A pre-defined number of clusters.
+     * @param numThreads Integer that is the number of threads to use.
+     * @param printOutIteration Boolean flag indicating whether to print out an
+     * indicator of each completed iteration to the output stream, which can be
+     * used for tracking very long clustering runs.
+     */
+    public MTHamerlyKMeans(DataSet dset, CombinedMetric cmet,
+            int numClusters, int numThreads, boolean printOutIteration) {
+        setNumClusters(numClusters);
+        setCombinedMetric(cmet);
+        setDataSet(dset);
+        this.numThreads = numThreads;
+        this.printOutIteration = printOutIteration;
+    }
+
+    /**
+     * @param dset DataSet object.
+     * @param numClusters A pre-defined number of clusters.
+     */
+    public MTHamerlyKMeans(DataSet dset, int numClusters) {
+        setNumClusters(numClusters);
+        setCombinedMetric(CombinedMetric.EUCLIDEAN);
+        setDataSet(dset);
+    }
+
+    /**
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * @return Integer that is the number of threads to use.
+     */
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * @param maxIterations Integer that is the maximal number of iterations.
+     */
+    public void setMaxIterations(int maxIterations) {
+        this.maxIterations = maxIterations;
+    }
+
+    /**
+     * @return Integer that is the maximal number of iterations.
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @return Long that is the number of distance calculations that were
+     * performed in the last run.
+     */
+    public long getNumDistanceCalculations() {
+        return numDistanceCalculations;
+    }
+
+    @Override
+    public void cluster() throws Exception {
+        performBasicChecks();
+        flagAsActive();
+        DataSet dset = getDataSet();
+        CombinedMetric cmet = getCombinedMetric();
+        int numClusters = getNumClusters();
+        boolean trivial = checkIfTrivial();
+        if (trivial) {
+            clusters = Cluster.getConfigurationFromAssociations(
+                    getClusterAssociations(), dset);
+            endCentroids = new DataInstance[clusters.length];
+            for (int cIndex = 0; cIndex < clusters.length; cIndex++) {
+                endCentroids[cIndex] = clusters[cIndex].getCentroid();
+            }
+            flagAsInactive();
+            return;
+        }
+        int size = dset.size();
+        // Random distinct points are taken as the initial centroids.
+        assignments = new int[size];
+        Arrays.fill(assignments, -1);
+        centroids = new DataInstance[numClusters];
+        previousCentroids = new DataInstance[numClusters];
+        Random randa = new Random();
+        int centroidIndex;
+        for (int cIndex = 0; cIndex < numClusters; cIndex++) {
+            centroidIndex = randa.nextInt(size);
+            while (assignments[centroidIndex] != -1) {
+                centroidIndex = randa.nextInt(size);
+            }
+            assignments[centroidIndex] = cIndex;
+            centroids[cIndex] = dset.getInstance(centroidIndex).copyContent();
+            previousCentroids[cIndex] = centroids[cIndex].copyContent();
+        }
+        Arrays.fill(assignments, -1);
+        upperBounds = new double[size];
+        lowerBounds = new double[size];
+        halfSeparations = new double[numClusters];
+        centroidShifts = new double[numClusters];
+        clusterSizes = new int[numClusters];
+        clusterIntSums = new double[numClusters][dset.getNumIntAttr()];
+        clusterFloatSums = new double[numClusters][dset.getNumFloatAttr()];
+        int numWorkers = Math.max(1, Math.min(numThreads, size));
+        workers = new Worker[numWorkers];
+        for (int wIndex = 0; wIndex < numWorkers; wIndex++) {
+            workers[wIndex] = new Worker(
+                    (int) ((long) wIndex * size / numWorkers),
+                    (int) ((long) (wIndex + 1) * size / numWorkers),
+                    (int) ((long) wIndex * numClusters / numWorkers),
+                    (int) ((long) (wIndex + 1) * numClusters / numWorkers),
+                    numClusters, dset.getNumIntAttr(),
+                    dset.getNumFloatAttr());
+        }
+        workerTasks = new ArrayList<>(numWorkers);
+        for (Worker worker : workers) {
+            workerTasks.add(Executors.callable(worker));
+        }
+        pool = new ForkJoinPool(numWorkers);
+        try {
+            setIterationIndex(0);
+            nextIteration();
+            runPhase(PHASE_INITIAL_ASSIGNMENT);
+            int numChanged = size;
+            while (numChanged > 0 && getIterationIndex() < maxIterations) {
+                if (printOutIteration) {
+                    System.out.print("|");
+                }
+                runPhase(PHASE_CENTROID_UPDATE);
+                findMaxShifts();
+                runPhase(PHASE_SEPARATIONS);
+                nextIteration();
+                runPhase(PHASE_ASSIGNMENT);
+                numChanged = 0;
+                for (Worker worker : workers) {
+                    numChanged += worker.numChanged;
+                }
+            }
+            if (numChanged > 0) {
+                // The iteration limit was reached, so the centroids are
+                // updated to match the final assignments.
+                runPhase(PHASE_CENTROID_UPDATE);
+            }
+        } finally {
+            pool.shutdown();
+            pool = null;
+            workerTasks = null;
+        }
+        numDistanceCalculations = 0;
+        for (Worker worker : workers) {
+            numDistanceCalculations += worker.numDistanceCalculations;
+        }
+        setClusterAssociations(assignments);
+        clusters = Cluster.getConfigurationFromAssociations(assignments, dset);
+        endCentroids = centroids;
+        centroids = null;
+        previousCentroids = null;
+        upperBounds = null;
+        lowerBounds = null;
+        clusterIntSums = null;
+        clusterFloatSums = null;
+        workers = null;
+        flagAsInactive();
+    }
+
+    /**
+     * This method runs one phase of the iteration in all the workers and waits
+     * for them to finish.
+     *
+     * @param phase Integer code of the phase to run.
+     * @throws Exception if any of the workers failed.
+     */
+    private void runPhase(int phase) throws Exception {
+        for (Worker worker : workers) {
+            worker.phase = phase;
+        }
+        // The workers catch their own errors, so all the tasks complete.
+        pool.invokeAll(workerTasks);
+        for (Worker worker : workers) {
+            if (worker.error != null) {
+                throw worker.error;
+            }
+        }
+    }
+
+    /**
+     * This method finds the largest and the second largest centroid shift in
+     * the last centroid update, which are used for the lower bound updates.
+     */
+    private void findMaxShifts() {
+        maxShiftIndex = 0;
+        maxShift = 0;
+        secondMaxShift = 0;
+        for (int cIndex = 0; cIndex < centroidShifts.length; cIndex++) {
+            if (centroidShifts[cIndex] > maxShift) {
+                secondMaxShift = maxShift;
+                maxShift = centroidShifts[cIndex];
+                maxShiftIndex = cIndex;
+            } else if (centroidShifts[cIndex] > secondMaxShift) {
+                secondMaxShift = centroidShifts[cIndex];
+            }
+        }
+    }
+
+    /**
+     * @return DataInstance array of the final centroids. Centroids of the
+     * clusters that became empty remain at their last position.
+     */
+    public DataInstance[] getCentroids() {
+        return endCentroids;
+    }
+
+    @Override
+    public int[] assignPointsToModelClusters(DataSet dsetTest,
+            NeighborSetFinder nsfTest) {
+        if (dsetTest == null || dsetTest.isEmpty()) {
+            return null;
+        } else {
+            int[] clusterAssociations = new int[dsetTest.size()];
+            if (endCentroids == null) {
+                return clusterAssociations;
+            }
+            float minDist;
+            float dist;
+            CombinedMetric cmet = getCombinedMetric();
+            cmet = cmet != null ? cmet : CombinedMetric.EUCLIDEAN;
+            for (int i = 0; i < dsetTest.size(); i++) {
+                minDist = Float.MAX_VALUE;
+                for (int cIndex = 0; cIndex < endCentroids.length; cIndex++) {
+                    dist = Float.MAX_VALUE;
+                    try {
+                        dist = cmet.dist(dsetTest, i, endCentroids[cIndex]);
+                    } catch (Exception e) {
+                    }
+                    if (dist < minDist) {
+                        clusterAssociations[i] = cIndex;
+                        minDist = dist;
+                    }
+                }
+            }
+            return clusterAssociations;
+        }
+    }
+
+    @Override
+    public Cluster[] getClusters() {
+        return clusters;
+    }
+
+    /**
+     * This class processes a range of points and a range of clusters in each
+     * phase of the iteration. The changes of the cluster sums caused by the
+     * reassignments in its point range are accumulated locally and merged
+     * into the global sums by the workers that own the affected clusters.
+     */
+    class Worker implements Runnable {
+
+        private int firstPoint;
+        private int lastPoint;
+        private int firstCluster;
+        private int lastCluster;
+        // Thread-local changes of the cluster sums.
+        private int[] sizeDeltas;
+        private double[][] intDeltas;
+        private double[][] floatDeltas;
+        private boolean[] touched;
+        int phase;
+        int numChanged;
+        long numDistanceCalculations;
+        Exception error;
+
+        /**
+         * Initialization.
+         *
+         * @param firstPoint Integer that is the first point index, inclusive.
+         * @param lastPoint Integer that is the last point index, exclusive.
+         * @param firstCluster Integer that is the first cluster index,
+         * inclusive.
+         * @param lastCluster Integer that is the last cluster index, exclusive.
+         * @param numClusters Integer that is the number of clusters.
+         * @param numIntAttr Integer that is the number of integer features.
+         * @param numFloatAttr Integer that is the number of float features.
+         */
+        Worker(int firstPoint, int lastPoint, int firstCluster,
+                int lastCluster, int numClusters, int numIntAttr,
+                int numFloatAttr) {
+            this.firstPoint = firstPoint;
+            this.lastPoint = lastPoint;
+            this.firstCluster = firstCluster;
+            this.lastCluster = lastCluster;
+            sizeDeltas = new int[numClusters];
+            intDeltas = new double[numClusters][numIntAttr];
+            floatDeltas = new double[numClusters][numFloatAttr];
+            touched = new boolean[numClusters];
+        }
+
+        @Override
+        public void run() {
+            try {
+                switch (phase) {
+                    case PHASE_INITIAL_ASSIGNMENT:
+                        assignInitially();
+                        break;
+                    case PHASE_CENTROID_UPDATE:
+                        updateCentroids();
+                        break;
+                    case PHASE_SEPARATIONS:
+                        calculateSeparations();
+                        break;
+                    case PHASE_ASSIGNMENT:
+                        assign();
+                        break;
+                }
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        /**
+         * This method assigns the points in the range to their closest
+         * centroids and initializes their bounds.
+         *
+         * @throws Exception
+         */
+        private void assignInitially() throws Exception {
+            for (int i = firstPoint; i < lastPoint; i++) {
+                int closest = scanCentroids(i);
+                addToDeltas(i, closest, 1);
+                assignments[i] = closest;
+            }
+        }
+
+        /**
+         * This method merges the thread-local changes of the sums for the
+         * clusters in the range and moves their centroids to the new means.
+         *
+         * @throws Exception
+         */
+        private void updateCentroids() throws Exception {
+            CombinedMetric cmet = getCombinedMetric();
+            for (int cIndex = firstCluster; cIndex < lastCluster; cIndex++) {
+                boolean changed = false;
+                for (Worker worker : workers) {
+                    if (!worker.touched[cIndex]) {
+                        continue;
+                    }
+                    changed = true;
+                    clusterSizes[cIndex] += worker.sizeDeltas[cIndex];
+                    double[] intSums = clusterIntSums[cIndex];
+                    double[] intChanges = worker.intDeltas[cIndex];
+                    for (int d = 0; d < intSums.length; d++) {
+                        intSums[d] += intChanges[d];
+                    }
+                    double[] floatSums = clusterFloatSums[cIndex];
+                    double[] floatChanges = worker.floatDeltas[cIndex];
+                    for (int d = 0; d < floatSums.length; d++) {
+                        floatSums[d] += floatChanges[d];
+                    }
+                    worker.sizeDeltas[cIndex] = 0;
+                    Arrays.fill(intChanges, 0);
+                    Arrays.fill(floatChanges, 0);
+                    worker.touched[cIndex] = false;
+                }
+                centroidShifts[cIndex] = 0;
+                if (!changed || clusterSizes[cIndex] <= 0) {
+                    // An empty cluster keeps its centroid, which might attract
+                    // some points again in the later iterations.
+                    continue;
+                }
+                DataInstance centroid = centroids[cIndex];
+                DataInstance previous = previousCentroids[cIndex];
+                int clusterSize = clusterSizes[cIndex];
+                if (centroid.iAttr != null) {
+                    System.arraycopy(centroid.iAttr, 0, previous.iAttr, 0,
+                            centroid.iAttr.length);
+                    for (int d = 0; d < centroid.iAttr.length; d++) {
+                        centroid.iAttr[d] = (int) (clusterIntSums[cIndex][d]
+                                / clusterSize);
+                    }
+                }
+                if (centroid.fAttr != null) {
+                    System.arraycopy(centroid.fAttr, 0, previous.fAttr, 0,
+                            centroid.fAttr.length);
+                    for (int d = 0; d < centroid.fAttr.length; d++) {
+                        centroid.fAttr[d] = (float) (clusterFloatSums[cIndex][d]
+                                / clusterSize);
+                    }
+                }
+                centroidShifts[cIndex] = cmet.dist(previous, centroid);
+                numDistanceCalculations++;
+            }
+        }
+
+        /**
+         * This method calculates half of the distance from each centroid in the
+         * range to its closest other centroid.
+         *
+         * @throws Exception
+         */
+        private void calculateSeparations() throws Exception {
+            CombinedMetric cmet = getCombinedMetric();
+            for (int cIndex = firstCluster; cIndex < lastCluster; cIndex++) {
+                double minDist = Double.MAX_VALUE;
+                for (int otherIndex = 0; otherIndex < centroids.length;
+                        otherIndex++) {
+                    if (otherIndex != cIndex) {
+                        minDist = Math.min(minDist, cmet.dist(
+                                centroids[cIndex], centroids[otherIndex]));
+                    }
+                }
+                numDistanceCalculations += centroids.length - 1;
+                halfSeparations[cIndex] = minDist / 2;
+            }
+        }
+
+        /**
+         * This method updates the bounds of the points in the range after the
+         * centroid shifts and reassigns the points whose bounds do not exclude
+         * all the other centroids.
+         *
+         * @throws Exception
+         */
+        private void assign() throws Exception {
+            DataSet dset = getDataSet();
+            CombinedMetric cmet = getCombinedMetric();
+            numChanged = 0;
+            for (int i = firstPoint; i < lastPoint; i++) {
+                int assigned = assignments[i];
+                upperBounds[i] += centroidShifts[assigned];
+                lowerBounds[i] -= assigned == maxShiftIndex ? secondMaxShift
+                        : maxShift;
+                double bound = Math.max(halfSeparations[assigned],
+                        lowerBounds[i]);
+                if (upperBounds[i] <= bound) {
+                    continue;
+                }
+                // Tighten the upper bound before scanning all centroids.
+                upperBounds[i] = cmet.dist(dset, i, centroids[assigned]);
+                numDistanceCalculations++;
+                if (upperBounds[i] <= bound) {
+                    continue;
+                }
+                int closest = scanCentroids(i);
+                if (closest != assigned) {
+                    addToDeltas(i, assigned, -1);
+                    addToDeltas(i, closest, 1);
+                    assignments[i] = closest;
+                    numChanged++;
+                }
+            }
+        }
+
+        /**
+         * This method compares a point to all centroids and sets its bounds to
+         * the distances to the closest and the second closest centroid.
+         *
+         * @param index Integer that is the index of the point.
+         * @return Integer that is the index of the closest centroid.
+         * @throws Exception
+         */
+        private int scanCentroids(int index) throws Exception {
+            DataSet dset = getDataSet();
+            CombinedMetric cmet = getCombinedMetric();
+            int closest = 0;
+            double minDist = Double.MAX_VALUE;
+            double secondMinDist = Double.MAX_VALUE;
+            double dist;
+            for (int cIndex = 0; cIndex < centroids.length; cIndex++) {
+                dist = cmet.dist(dset, index, centroids[cIndex]);
+                if (dist < minDist) {
+                    secondMinDist = minDist;
+                    minDist = dist;
+                    closest = cIndex;
+                } else if (dist < secondMinDist) {
+                    secondMinDist = dist;
+                }
+            }
+            numDistanceCalculations += centroids.length;
+            upperBounds[index] = minDist;
+            lowerBounds[index] = secondMinDist;
+            return closest;
+        }
+
+        /**
+         * This method adds or removes a point to or from the local changes of
+         * the cluster sums.
+         *
+         * @param index Integer that is the index of the point.
+         * @param cIndex Integer that is the index of the cluster.
+         * @param sign Integer that is 1 for adding and -1 for removing.
+         */
+        private void addToDeltas(int index, int cIndex, int sign) {
+            DataInstance instance = getDataSet().getInstance(index);
+            touched[cIndex] = true;
+            sizeDeltas[cIndex] += sign;
+            if (instance.iAttr != null) {
+                double[] intChanges = intDeltas[cIndex];
+                for (int d = 0; d < intChanges.length; d++) {
+                    if (DataMineConstants.isAcceptableInt(instance.iAttr[d])) {
+                        intChanges[d] += sign * instance.iAttr[d];
+                    }
+                }
+            }
+            if (instance.fAttr != null) {
+                double[] floatChanges = floatDeltas[cIndex];
+                for (int d = 0; d < floatChanges.length; d++) {
+                    if (DataMineConstants.isAcceptableFloat(
+                            instance.fAttr[d])) {
+                        floatChanges[d] += sign * instance.fAttr[d];
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.methods.multithreaded.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.unsupervised.Cluster;
+import learning.unsupervised.methods.multithreaded.MTHamerlyKMeans;
+import org.junit.Test;
+
+/**
+ * This class tests the bounded multi-threaded K-means against the conditions
+ * that hold for any converged K-means configuration.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class MTHamerlyKMeansTest extends TestCase {
+
+    /**
+     * This method tests that each point is assigned to its closest centroid,
+     * that each centroid is the mean of its cluster and that the bounds save
+     * distance calculations, for different numbers of threads.
+     */
+    @Test
+    public static void testConvergedConfiguration() {
+        try {
+            DataSet dset = generateToyData(2000, 8, 12, 1);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            int numClusters = 12;
+            int[] threadCounts = {1, 4};
+            for (int numThreads : threadCounts) {
+                MTHamerlyKMeans clusterer = new MTHamerlyKMeans(dset, cmet,
+                        numClusters, numThreads);
+                clusterer.cluster();
+                int[] associations = clusterer.getClusterAssociations();
+                DataInstance[] centroids = clusterer.getCentroids();
+                Cluster[] clusters = clusterer.getClusters();
+                assertEquals(numClusters, centroids.length);
+                assertEquals(numClusters, clusters.length);
+                for (int i = 0; i < dset.size(); i++) {
+                    float assignedDist = cmet.dist(dset.getInstance(i),
+                            centroids[associations[i]]);
+                    for (DataInstance centroid : centroids) {
+                        assertTrue(assignedDist <= cmet.dist(
+                                dset.getInstance(i), centroid) + 0.0001f);
+                    }
+                }
+                int numAssigned = 0;
+                for (int cIndex = 0; cIndex < numClusters; cIndex++) {
+                    numAssigned += clusters[cIndex].size();
+                    if (clusters[cIndex].isEmpty()) {
+                        continue;
+                    }
+                    DataInstance mean = clusters[cIndex].getCentroid();
+                    for (int d = 0; d < dset.getNumFloatAttr(); d++) {
+                        assertEquals(mean.fAttr[d],
+                                centroids[cIndex].fAttr[d], 0.0001f);
+                    }
+                    for (int index : clusters[cIndex].getIndexes()) {
+                        assertEquals(cIndex, associations[index]);
+                    }
+                }
+                assertEquals(dset.size(), numAssigned);
+                long numNaiveCalculations = (long) dset.size() * numClusters
+                        * clusterer.getIterationIndex();
+                assertTrue(clusterer.getNumDistanceCalculations()
+                        < numNaiveCalculations);
+                int[] modelAssociations = clusterer.
+                        assignPointsToModelClusters(dset, null);
+                for (int i = 0; i < dset.size(); i++) {
+                    assertEquals(cmet.dist(dset.getInstance(i),
+                            centroids[associations[i]]), cmet.dist(
+                            dset.getInstance(i),
+                            centroids[modelAssociations[i]]), 0.0001f);
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the trivial configuration with a single cluster.
+     */
+    @Test
+    public static void testSingleCluster() {
+        try {
+            DataSet dset = generateToyData(100, 3, 2, 2);
+            MTHamerlyKMeans clusterer = new MTHamerlyKMeans(dset,
+                    CombinedMetric.FLOAT_EUCLIDEAN, 1, 2);
+            clusterer.cluster();
+            assertEquals(1, clusterer.getClusters().length);
+            assertEquals(dset.size(), clusterer.getClusters()[0].size());
+            assertEquals(1, clusterer.getCentroids().length);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method generates a toy dataset with random float features around
+     * the specified number of random centers.
+     *
+     * @param size Integer that is the number of instances.
+     * @param dim Integer that is the number of float features.
+     * @param numCenters Integer that is the number of centers.
+     * @param seed Long that is the random seed.
+     * @return DataSet that was generated.
+     */
+    private static DataSet generateToyData(int size, int dim,
+            int numCenters, long seed) {
+        DataSet dset = ToyDataGenerator.createFloatDataSet(size, dim);
+        Random randa = new Random(seed);
+        float[][] centers = new float[numCenters][dim];
+        for (int c = 0; c < numCenters; c++) {
+            for (int d = 0; d < dim; d++) {
+                centers[c][d] = 10 * randa.nextFloat();
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            DataInstance instance = new DataInstance(dset);
+            int center = randa.nextInt(numCenters);
+            for (int d = 0; d < dim; d++) {
+                instance.fAttr[d] = centers[center][d]
+                        + (float) randa.nextGaussian();
+            }
+            dset.addDataInstance(instance);
+        }
+        return dset;
+    }
+}
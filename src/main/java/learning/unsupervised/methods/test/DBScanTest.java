@@ -0,0 +1,193 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.methods.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.Arrays;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.unsupervised.methods.DBScan;
+import org.junit.Test;
+
+/**
+ * This class tests the range index mode of DBScan against the clusters that
+ * are obtained from the exhaustive epsilon-neighborhoods.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class DBScanTest extends TestCase {
+
+    /**
+     * This method tests the clusters in the range index mode.
+     */
+    @Test
+    public static void testRangeIndexClusters() {
+        try {
+            DataSet dset = generateToyData(600, 4, 1);
+            CombinedMetric cmet = CombinedMetric.FLOAT_EUCLIDEAN;
+            float epsilon = 0.35f;
+            int minPoints = 12;
+            DBScan clusterer = new DBScan(dset, cmet, 10, minPoints, epsilon);
+            clusterer.setUseRangeIndex(true);
+            clusterer.setNumThreads(4);
+            clusterer.cluster();
+            int[] associations = clusterer.getClusterAssociations();
+            int size = dset.size();
+            // The exhaustive epsilon-neighborhoods.
+            boolean[][] close = new boolean[size][size];
+            boolean[] isCore = new boolean[size];
+            for (int i = 0; i < size; i++) {
+                int count = 0;
+                for (int j = 0; j < size; j++) {
+                    close[i][j] = j != i && cmet.dist(dset.getInstance(i),
+                            dset.getInstance(j)) < epsilon;
+                    if (close[i][j]) {
+                        count++;
+                    }
+                }
+                isCore[i] = count >= minPoints;
+            }
+            // The connected components of the core points.
+            int[] components = new int[size];
+            Arrays.fill(components, -1);
+            int numComponents = 0;
+            int[] queue = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (!isCore[i] || components[i] != -1) {
+                    continue;
+                }
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = i;
+                components[i] = numComponents;
+                while (head < tail) {
+                    int current = queue[head++];
+                    for (int j = 0; j < size; j++) {
+                        if (close[current][j] && isCore[j]
+                                && components[j] == -1) {
+                            components[j] = numComponents;
+                            queue[tail++] = j;
+                        }
+                    }
+                }
+                numComponents++;
+            }
+            assertTrue(numComponents > 1);
+            int[] componentClusters = new int[numComponents];
+            Arrays.fill(componentClusters, -1);
+            int[] clusterComponents = new int[size];
+            Arrays.fill(clusterComponents, -1);
+            for (int i = 0; i < size; i++) {
+                if (isCore[i]) {
+                    assertTrue(associations[i] >= 0);
+                    if (componentClusters[components[i]] == -1) {
+                        componentClusters[components[i]] = associations[i];
+                        assertEquals(-1, clusterComponents[associations[i]]);
+                        clusterComponents[associations[i]] = components[i];
+                    }
+                    assertEquals(componentClusters[components[i]],
+                            associations[i]);
+                } else {
+                    boolean hasCoreNeighbor = false;
+                    boolean inNeighborCluster = false;
+                    for (int j = 0; j < size; j++) {
+                        if (close[j][i] && isCore[j]) {
+                            hasCoreNeighbor = true;
+                            if (associations[j] == associations[i]) {
+                                inNeighborCluster = true;
+                            }
+                        }
+                    }
+                    if (hasCoreNeighbor) {
+                        assertTrue(inNeighborCluster);
+                    } else {
+                        assertEquals(-1, associations[i]);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the epsilon estimate from the sampled k-distances.
+     */
+    @Test
+    public static void testSampledEpsilon() {
+        try {
+            DataSet dset = generateToyData(300, 3, 2);
+            int k = 8;
+            NeighborSetFinder nsf = new NeighborSetFinder(dset,
+                    CombinedMetric.FLOAT_EUCLIDEAN);
+            nsf.calculateDistances();
+            nsf.calculateNeighborSets(k);
+            DBScan clusterer = new DBScan(dset, CombinedMetric.FLOAT_EUCLIDEAN,
+                    k);
+            clusterer.setNSF(nsf);
+            clusterer.searchForGoodParameters();
+            float fullEpsilon = clusterer.getEpsilon();
+            // The whole data as the sample gives the same estimate.
+            clusterer.searchForGoodParameters(dset.size());
+            assertEquals(fullEpsilon, clusterer.getEpsilon(),
+                    fullEpsilon * 1e-5f);
+            assertEquals(k, clusterer.getMinPoints());
+            // The estimated parameters are used when epsilon is not set.
+            DBScan estimated = new DBScan(dset, CombinedMetric.FLOAT_EUCLIDEAN,
+                    k);
+            estimated.setUseRangeIndex(true);
+            estimated.setEpsilonSampleSize(100);
+            estimated.cluster();
+            assertTrue(estimated.getEpsilon() < Float.MAX_VALUE);
+            assertEquals(dset.size(),
+                    estimated.getClusterAssociations().length);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * @param size Number of instances to generate.
+     * @param dim Number of float features.
+     * @param seed Long that is the random seed.
+     * @return DataSet with points around a few centers and uniform noise.
+     */
+    private static DataSet generateToyData(int size, int dim, long seed) {
+        DataSet dset = ToyDataGenerator.createFloatDataSet(size, dim);
+        Random randa = new Random(seed);
+        int numCenters = 3;
+        for (int i = 0; i < size; i++) {
+            DataInstance instance = new DataInstance(dset);
+            int center = i % (numCenters + 1);
+            for (int d = 0; d < dim; d++) {
+                if (center == numCenters) {
+                    instance.fAttr[d] = randa.nextFloat() * 8;
+                } else {
+                    instance.fAttr[d] = 2 + 2 * center
+                            + (float) randa.nextGaussian() * 0.2f;
+                }
+            }
+            dset.addDataInstance(instance);
+        }
+        return dset;
+    }
+}
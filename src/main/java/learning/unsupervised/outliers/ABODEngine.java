@@ -0,0 +1,458 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.outliers;
+
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import data.representation.util.DataMineConstants;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import util.AuxSort;
+import util.RangeTask;
+
+/**
+ * This class calculates the angle-based outlier factors (ABOF) from the paper
+ * titled 'Angle-Based Outlier Detection in High-dimensional Data' that was
+ * presented at KDD in 2008. The ABOF of a point A is the variance of
+ * &lt;AB, AC&gt; / (|AB|^2 |AC|^2) over the pairs of other points B and C,
+ * weighted by 1 / (|AB| |AC|). Low factors correspond to outliers. The data is
+ * materialized once into a primitive feature matrix and the difference
+ * vectors of each point are written into a buffer that each worker thread
+ * reuses for all the points that it processes, so that no objects are
+ * allocated per pair. The points are processed in parallel in a fork-join
+ * pool.
+ *
+ * The engine supports the kNN-based approximation (FastABOD), as well as the
+ * LB-ABOD procedure that uses the kNN pairs to obtain lower bounds on the
+ * exact ABOF and calculates the exact factors only for the points whose lower
+ * bounds do not exclude them from the top outliers.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class ABODEngine {
+
+    // The maximum number of points that a task processes without splitting.
+    private static final int TASK_GRAIN = 16;
+    private int size;
+    private int dim;
+    // Features of all points, one row after another. Missing values are
+    // marked by NaN.
+    private float[] features;
+    private int numThreads;
+    // The number of exact factor calculations in the last top outlier search.
+    private int numExactEvaluations = 0;
+
+    /**
+     * Initialization.
+     *
+     * @param dset DataSet object to calculate the factors for.
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public ABODEngine(DataSet dset, int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+        size = dset.size();
+        int numFloats = dset.getNumFloatAttr();
+        int numInts = dset.getNumIntAttr();
+        dim = numFloats + numInts;
+        features = new float[size * dim];
+        for (int i = 0; i < size; i++) {
+            DataInstance instance = dset.getInstance(i);
+            int offset = i * dim;
+            for (int d = 0; d < numFloats; d++) {
+                features[offset + d] = DataMineConstants.isAcceptableFloat(
+                        instance.fAttr[d]) ? instance.fAttr[d] : Float.NaN;
+            }
+            for (int d = 0; d < numInts; d++) {
+                features[offset + numFloats + d] =
+                        DataMineConstants.isAcceptableInt(instance.iAttr[d])
+                        ? instance.iAttr[d] : Float.NaN;
+            }
+        }
+    }
+
+    /**
+     * @return Integer that is the number of exact factor calculations in the
+     * last top outlier search.
+     */
+    public int getNumExactEvaluations() {
+        return numExactEvaluations;
+    }
+
+    /**
+     * This method calculates the kNN-based approximations of the factors,
+     * where only the pairs of the k-nearest neighbors of each point are
+     * considered.
+     *
+     * @param kNeighbors int[][] representing the kNN sets.
+     * @param k Integer that is the neighborhood size.
+     * @return double[] of the approximate factors of all points.
+     */
+    public double[] computeApproximateFactors(final int[][] kNeighbors,
+            final int k) {
+        final double[] factors = new double[size];
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            pool.invoke(new RangeTask(0, size, TASK_GRAIN,
+                    new RangeTask.RangeProcessor() {
+                @Override
+                public void processRange(int first, int last) {
+                    PairSums sums = new PairSums(k);
+                    for (int i = first; i < last; i++) {
+                        sums.accumulate(i, kNeighbors[i], k);
+                        factors[i] = sums.getVariance();
+                    }
+                }
+            }));
+        } finally {
+            pool.shutdown();
+        }
+        return factors;
+    }
+
+    /**
+     * This method finds the points with the lowest exact factors by the
+     * LB-ABOD procedure. The lower bounds of the exact factors are calculated
+     * from the kNN pairs and the sums over all points, which can be obtained
+     * in linear time. The points are then processed in the order of increasing
+     * lower bounds and the search stops once the lower bound of the next point
+     * exceeds the current numOutliers-th lowest exact factor.
+     *
+     * @param kNeighbors int[][] representing the kNN sets.
+     * @param k Integer that is the neighborhood size.
+     * @param numOutliers Integer that is the number of outliers to find.
+     * @param outlierFactors double[] for the exact factors of the found
+     * outliers, of length numOutliers.
+     * @return int[] of the indexes of the found outliers, in the order of
+     * increasing factors.
+     * @throws Exception
+     */
+    public int[] findTopOutliers(final int[][] kNeighbors, final int k,
+            int numOutliers, double[] outlierFactors) throws Exception {
+        numOutliers = Math.min(numOutliers, size);
+        final double[] lowerBounds = new double[size];
+        ForkJoinPool pool = new ForkJoinPool(numThreads);
+        try {
+            pool.invoke(new RangeTask(0, size, TASK_GRAIN,
+                    new RangeTask.RangeProcessor() {
+                @Override
+                public void processRange(int first, int last) {
+                    PairSums sums = new PairSums(k);
+                    for (int i = first; i < last; i++) {
+                        sums.accumulate(i, kNeighbors[i], k);
+                        lowerBounds[i] = getLowerBound(i, sums);
+                    }
+                }
+            }));
+            double[] sortedBounds = Arrays.copyOf(lowerBounds, size);
+            // Ascending sort.
+            final int[] order = AuxSort.sortIndexedValue(sortedBounds, false);
+            int[] topIndexes = new int[numOutliers];
+            double[] topFactors = new double[numOutliers];
+            int numTop = 0;
+            int processed = 0;
+            numExactEvaluations = 0;
+            final double[] batchFactors = new double[numThreads * TASK_GRAIN];
+            // The difference vector buffers are kept per worker thread, as
+            // they are as large as the data.
+            final ThreadLocal<float[]> diffBuffers =
+                    new ThreadLocal<float[]>() {
+                @Override
+                protected float[] initialValue() {
+                    return new float[size * dim];
+                }
+            };
+            final ThreadLocal<double[]> normBuffers =
+                    new ThreadLocal<double[]>() {
+                @Override
+                protected double[] initialValue() {
+                    return new double[size];
+                }
+            };
+            while (processed < size) {
+                if (numTop == numOutliers && (numOutliers == 0
+                        || topFactors[numTop - 1] <= sortedBounds[processed])) {
+                    break;
+                }
+                final int batchStart = processed;
+                final int batchEnd = Math.min(size, processed
+                        + batchFactors.length);
+                pool.invoke(new RangeTask(batchStart, batchEnd, TASK_GRAIN,
+                        new RangeTask.RangeProcessor() {
+                    @Override
+                    public void processRange(int first, int last) {
+                        float[] diffs = diffBuffers.get();
+                        double[] norms = normBuffers.get();
+                        for (int p = first; p < last; p++) {
+                            batchFactors[p - batchStart] = computeExactFactor(
+                                    order[p], diffs, norms);
+                        }
+                    }
+                }));
+                numExactEvaluations += batchEnd - batchStart;
+                for (int p = batchStart; p < batchEnd; p++) {
+                    double factor = batchFactors[p - batchStart];
+                    if (numTop < numOutliers) {
+                        numTop++;
+                    } else if (numOutliers == 0
+                            || factor >= topFactors[numTop - 1]) {
+                        continue;
+                    }
+                    // Insert into the sorted list of the lowest factors.
+                    int l = numTop - 1;
+                    while (l > 0 && factor < topFactors[l - 1]) {
+                        topFactors[l] = topFactors[l - 1];
+                        topIndexes[l] = topIndexes[l - 1];
+                        l--;
+                    }
+                    topFactors[l] = factor;
+                    topIndexes[l] = order[p];
+                }
+                processed = batchEnd;
+            }
+            if (outlierFactors != null) {
+                System.arraycopy(topFactors, 0, outlierFactors, 0, numOutliers);
+            }
+            return topIndexes;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * This method calculates the exact factor of a point, over all pairs of
+     * other points.
+     *
+     * @param i Integer that is the index of the point.
+     * @param diffs float[] buffer for the difference vectors.
+     * @param norms double[] buffer for the squared difference norms.
+     * @return Double that is the exact factor of the point.
+     */
+    private double computeExactFactor(int i, float[] diffs, double[] norms) {
+        int numOther = 0;
+        for (int j = 0; j < size; j++) {
+            if (j != i) {
+                norms[numOther] = fillDifference(i, j, diffs,
+                        numOther * dim);
+                numOther++;
+            }
+        }
+        double sumWeights = 0;
+        double sumWeighted = 0;
+        double sumWeightedSquares = 0;
+        for (int a = 0; a < numOther; a++) {
+            if (norms[a] == 0) {
+                continue;
+            }
+            int offsetA = a * dim;
+            for (int b = a + 1; b < numOther; b++) {
+                if (norms[b] == 0) {
+                    continue;
+                }
+                double dot = dot(diffs, offsetA, b * dim);
+                double normProduct = norms[a] * norms[b];
+                double angle = dot / normProduct;
+                double weight = 1 / Math.sqrt(normProduct);
+                sumWeights += weight;
+                sumWeighted += weight * angle;
+                sumWeightedSquares += weight * angle * angle;
+            }
+        }
+        return variance(sumWeights, sumWeighted, sumWeightedSquares);
+    }
+
+    /**
+     * This method calculates the lower bound of the exact factor of a point,
+     * from the sums over its kNN pairs. The weights of all pairs and the
+     * maximal absolute weighted terms of all pairs are obtained from the sums
+     * of the inverse distance powers over all points.
+     *
+     * @param i Integer that is the index of the point.
+     * @param sums PairSums over the kNN pairs of the point.
+     * @return Double that is the lower bound of the exact factor.
+     */
+    private double getLowerBound(int i, PairSums sums) {
+        double sumInv = 0;
+        double sumInvSq = 0;
+        double sumInvQuad = 0;
+        int offsetI = i * dim;
+        for (int j = 0; j < size; j++) {
+            if (j == i) {
+                continue;
+            }
+            int offsetJ = j * dim;
+            double norm = 0;
+            for (int d = 0; d < dim; d++) {
+                float diff = features[offsetJ + d] - features[offsetI + d];
+                if (diff == diff) {
+                    norm += diff * diff;
+                }
+            }
+            if (norm > 0) {
+                double inv = 1 / norm;
+                sumInv += Math.sqrt(inv);
+                sumInvSq += inv;
+                sumInvQuad += inv * inv;
+            }
+        }
+        // The sum of the weights over all pairs.
+        double totalWeights = (sumInv * sumInv - sumInvSq) / 2;
+        if (totalWeights <= 0) {
+            return 0;
+        }
+        if (sums.sumWeights <= 0) {
+            return 0;
+        }
+        // Each weighted term is bounded by 1 / (|AB|^2 |AC|^2) in absolute
+        // value, which bounds the sum of the terms of the non-kNN pairs and
+        // therefore the range of the overall weighted mean.
+        double remainder = Math.max(0, (sumInvSq * sumInvSq - sumInvQuad) / 2
+                - sums.sumInvNormProducts);
+        double meanLower = (sums.sumWeighted - remainder) / totalWeights;
+        double meanUpper = (sums.sumWeighted + remainder) / totalWeights;
+        // The weighted squared deviations of the kNN pairs from the overall
+        // mean are at least their deviations from their own mean, plus the
+        // squared gap between their own mean and the range of the overall
+        // mean. The deviations of the other pairs are non-negative.
+        double meanKNN = sums.sumWeighted / sums.sumWeights;
+        double gap = Math.max(0, Math.max(meanLower - meanKNN,
+                meanKNN - meanUpper));
+        double deviationsKNN = Math.max(0, sums.sumWeightedSquares
+                - sums.sumWeighted * meanKNN);
+        return (deviationsKNN + sums.sumWeights * gap * gap) / totalWeights;
+    }
+
+    /**
+     * This method writes the difference vector from a point to another point
+     * into the buffer. The components where either value is missing are set
+     * to zero, so that they are ignored in the dot products and the norms.
+     *
+     * @param i Integer that is the index of the origin point.
+     * @param j Integer that is the index of the other point.
+     * @param diffs float[] buffer for the difference vectors.
+     * @param offset Integer that is the offset in the buffer.
+     * @return Double that is the squared norm of the difference vector.
+     */
+    private double fillDifference(int i, int j, float[] diffs, int offset) {
+        int offsetI = i * dim;
+        int offsetJ = j * dim;
+        double norm = 0;
+        for (int d = 0; d < dim; d++) {
+            float diff = features[offsetJ + d] - features[offsetI + d];
+            if (diff != diff) {
+                diff = 0;
+            }
+            diffs[offset + d] = diff;
+            norm += diff * diff;
+        }
+        return norm;
+    }
+
+    /**
+     * @param diffs float[] buffer of the difference vectors.
+     * @param offsetA Integer that is the offset of the first vector.
+     * @param offsetB Integer that is the offset of the second vector.
+     * @return Double that is the dot product of the vectors.
+     */
+    private double dot(float[] diffs, int offsetA, int offsetB) {
+        double dot = 0;
+        for (int d = 0; d < dim; d++) {
+            dot += diffs[offsetA + d] * diffs[offsetB + d];
+        }
+        return dot;
+    }
+
+    /**
+     * @param sumWeights Double that is the sum of the weights.
+     * @param sumWeighted Double that is the sum of the weighted values.
+     * @param sumWeightedSquares Double that is the sum of the weighted squared
+     * values.
+     * @return Double that is the weighted variance.
+     */
+    private static double variance(double sumWeights, double sumWeighted,
+            double sumWeightedSquares) {
+        if (sumWeights <= 0) {
+            return 0;
+        }
+        double mean = sumWeighted / sumWeights;
+        return Math.max(0, sumWeightedSquares / sumWeights - mean * mean);
+    }
+
+    /**
+     * This class accumulates the sums over the pairs of the k-nearest
+     * neighbors of a point, in buffers that are reused for different points.
+     */
+    private class PairSums {
+
+        private float[] diffs;
+        private double[] norms;
+        double sumWeights;
+        double sumWeighted;
+        double sumWeightedSquares;
+        // The sum of 1 / (|AB|^2 |AC|^2) over the pairs.
+        double sumInvNormProducts;
+
+        /**
+         * @param k Integer that is the neighborhood size.
+         */
+        PairSums(int k) {
+            diffs = new float[k * dim];
+            norms = new double[k];
+        }
+
+        /**
+         * This method calculates the sums over the kNN pairs of a point.
+         *
+         * @param i Integer that is the index of the point.
+         * @param neighbors int[] that is the kNN set of the point.
+         * @param k Integer that is the neighborhood size.
+         */
+        void accumulate(int i, int[] neighbors, int k) {
+            sumWeights = 0;
+            sumWeighted = 0;
+            sumWeightedSquares = 0;
+            sumInvNormProducts = 0;
+            for (int a = 0; a < k; a++) {
+                norms[a] = fillDifference(i, neighbors[a], diffs, a * dim);
+            }
+            for (int a = 0; a < k; a++) {
+                if (norms[a] == 0) {
+                    continue;
+                }
+                int offsetA = a * dim;
+                for (int b = a + 1; b < k; b++) {
+                    if (norms[b] == 0) {
+                        continue;
+                    }
+                    double normProduct = norms[a] * norms[b];
+                    double angle = dot(diffs, offsetA, b * dim) / normProduct;
+                    double weight = 1 / Math.sqrt(normProduct);
+                    sumWeights += weight;
+                    sumWeighted += weight * angle;
+                    sumWeightedSquares += weight * angle * angle;
+                    sumInvNormProducts += 1 / normProduct;
+                }
+            }
+        }
+
+        /**
+         * @return Double that is the weighted variance over the kNN pairs.
+         */
+        double getVariance() {
+            return variance(sumWeights, sumWeighted, sumWeightedSquares);
+        }
+    }
+}
@@ -18,12 +18,8 @@ package learning.unsupervised.outliers;
 
 import data.neighbors.NSFUserInterface;
 import data.neighbors.NeighborSetFinder;
-import data.representation.DataInstance;
 import data.representation.DataSet;
-import data.representation.util.DataMineConstants;
-import distances.primary.MinkowskiMetric;
 import java.util.ArrayList;
-import util.ArrayUtil;
 import util.AuxSort;
 
 /**
@@ -31,7 +27,8 @@ import util.AuxSort;
  * approach tailored specifically for high-dimensional data. It was originally 
  * proposed in the paper titled 'Angle-Based Outlier Detection in 
  * High-dimensional Data' that was presented at KDD in 2008. It implements the 
- * faster, kNN-based approximation.
+ * faster, kNN-based approximation, where the weighted variance of the angles is
+ * calculated over the pairs of the k-nearest neighbors of each point.
  * 
  * @author Nenad Tomasev <nenad.tomasev at gmail.com>
  */
@@ -40,6 +37,7 @@ public class FastABOD extends OutlierDetector implements NSFUserInterface {
     private int k = 50;
     private NeighborSetFinder nsf;
     private float outlierRatio;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
     
     /**
      * Default empty constructor.
@@ -80,6 +78,13 @@ public class FastABOD extends OutlierDetector implements NSFUserInterface {
         this.outlierRatio = outlierRatio;
     }
 
+    /**
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
     @Override
     public NeighborSetFinder getNSF() {
         return nsf;
@@ -117,60 +122,9 @@ public class FastABOD extends OutlierDetector implements NSFUserInterface {
                     + "compared to " + k);
         }
         int size = dset.size();
-        int[][] kNeighbors = nsf.getKNeighbors();
-        double[] abofScores = new double[size];
-        double[] normalizedAngles;
-        double dotProduct;
-        // Get the number of float and integer features.
-        int numFloats = dset.getNumFloatAttr();
-        int numInts = dset.getNumIntAttr();
-        MinkowskiMetric euc = new MinkowskiMetric(2);
-        // Loop over all data points.
-        for (int i = 0; i < size; i++) {
-            DataInstance instance = dset.getInstance(i);
-            normalizedAngles = new double[(k * (k - 1)) / 2];
-            int counter = -1;
-            // Loop over all pairs of neighbor points.
-            for (int kIndFirst = 0; kIndFirst < k; kIndFirst++) {
-                DataInstance first = dset.getInstance(kNeighbors[i][kIndFirst]);
-                DataInstance diffFirst = DataInstance.subtract(first, instance);
-                float normFirst = euc.norm(first);
-                for (int kIndSecond = kIndFirst + 1; kIndSecond < k;
-                        kIndSecond++) {
-                    counter++;
-                    DataInstance second = dset.getInstance(kNeighbors[i][
-                            kIndSecond]);
-                    DataInstance diffSecond = DataInstance.subtract(second,
-                            instance);
-                    dotProduct = 0;
-                    for (int d = 0; d < numFloats; d++) {
-                        if (DataMineConstants.isAcceptableFloat(
-                                diffFirst.fAttr[d]) && DataMineConstants.
-                                isAcceptableFloat(diffSecond.fAttr[d])) {
-                            dotProduct += diffFirst.fAttr[d] *
-                                    diffSecond.fAttr[d];
-                        }
-                    }
-                    for (int d = 0; d < numInts; d++) {
-                        if (DataMineConstants.isAcceptableInt(
-                                diffFirst.iAttr[d]) && DataMineConstants.
-                                isAcceptableInt(diffSecond.iAttr[d])) {
-                            dotProduct += diffFirst.iAttr[d] *
-                                    diffSecond.iAttr[d];
-                        }
-                    }
-                    float normSecond = euc.norm(second);
-                    if (DataMineConstants.isAcceptableFloat(normFirst) &&
-                            DataMineConstants.isAcceptableFloat(normSecond)) {
-                        normalizedAngles[counter] = dotProduct / (normFirst *
-                                normFirst * normSecond * normSecond);
-                    }
-                }
-                double meanVal = ArrayUtil.findMean(normalizedAngles);
-                double stDev = ArrayUtil.findStdev(normalizedAngles, meanVal);
-                abofScores[i] = (float) (stDev * stDev);
-            }
-        }
+        ABODEngine engine = new ABODEngine(dset, numThreads);
+        double[] abofScores = engine.computeApproximateFactors(
+                nsf.getKNeighbors(), k);
         // Ascending sort.
         int[] reArr = AuxSort.sortIndexedValue(abofScores, false);
         int numOutliers = (int)(Math.min(Math.ceil(outlierRatio * size), size));
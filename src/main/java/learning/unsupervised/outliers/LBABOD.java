@@ -0,0 +1,155 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.outliers;
+
+import data.neighbors.NSFUserInterface;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataSet;
+import java.util.ArrayList;
+
+/**
+ * This class implements the LB-ABOD variant of angle-based outlier detection
+ * from the paper titled 'Angle-Based Outlier Detection in High-dimensional
+ * Data' that was presented at KDD in 2008. The kNN sets are used to obtain
+ * lower bounds of the exact angle-based outlier factors, so that the exact
+ * factors only need to be calculated for the points that can still be among
+ * the top outliers. The detected outliers are the same as for the exact ABOD.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class LBABOD extends OutlierDetector implements NSFUserInterface {
+
+    private int k = 10;
+    private NeighborSetFinder nsf;
+    private float outlierRatio;
+    private int numThreads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Default empty constructor.
+     */
+    public LBABOD() {
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param dset DataSet object to find outliers for.
+     * @param nsf NeighborSet finder object holding the kNN sets.
+     * @param k Integer that is the neighborhood size to use for the bounds.
+     * @param outlierRatio Float value corresponding to the proportion of points
+     * to consider as outliers.
+     */
+    public LBABOD(DataSet dset, NeighborSetFinder nsf, int k,
+            float outlierRatio) {
+        setDataSet(dset);
+        this.k = k;
+        this.nsf = nsf;
+        this.outlierRatio = outlierRatio;
+    }
+
+    @Override
+    public void setNSF(NeighborSetFinder nsf) {
+        this.nsf = nsf;
+        if (nsf != null) {
+            this.k = nsf.getCurrK();
+        }
+    }
+
+    /**
+     * @param outlierRatio Float value that it the outlier ratio to use, the
+     * proportion of points to select as outliers.
+     */
+    public void setOutlierRatio(float outlierRatio) {
+        this.outlierRatio = outlierRatio;
+    }
+
+    /**
+     * @param numThreads Integer that is the number of threads to use.
+     */
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    public NeighborSetFinder getNSF() {
+        return nsf;
+    }
+
+    @Override
+    public void noRecalcs() {
+    }
+
+    @Override
+    public int getNeighborhoodSize() {
+        return k;
+    }
+
+    @Override
+    public void detectOutliers() throws Exception {
+        DataSet dset = getDataSet();
+        // Check for trivial and ill-defined cases.
+        if (dset == null || dset.isEmpty()) {
+            return;
+        }
+        if (nsf == null) {
+            return;
+        }
+        if (k <= 1) {
+            return;
+        }
+        if (nsf.getCurrK() > k) {
+            // Sub-sample the kNN sets, since they are incompatible with the
+            // specified neighborhood size.
+            nsf = nsf.getSubNSF(k);
+        } else if (nsf.getCurrK() < k) {
+            throw new Exception("Provided kNN sets do not correspond to the "
+                    + "requested neighborhood size: " + nsf.getCurrK() + " "
+                    + "compared to " + k);
+        }
+        int size = dset.size();
+        int numOutliers = (int) (Math.min(Math.ceil(outlierRatio * size),
+                size));
+        ABODEngine engine = new ABODEngine(dset, numThreads);
+        double[] abofScores = new double[numOutliers];
+        int[] outlierIndexArray = engine.findTopOutliers(nsf.getKNeighbors(),
+                k, numOutliers, abofScores);
+        ArrayList<Float> outlierScores = new ArrayList<>(numOutliers);
+        ArrayList<Integer> outlierIndexes = new ArrayList<>(numOutliers);
+        double maxOutlierScore = 0;
+        double minOutlierScore = Double.MAX_VALUE;
+        for (int i = 0; i < numOutliers; i++) {
+            outlierIndexes.add(outlierIndexArray[i]);
+            outlierScores.add((float) abofScores[i]);
+            if (abofScores[i] > maxOutlierScore) {
+                maxOutlierScore = abofScores[i];
+            }
+            if (abofScores[i] < minOutlierScore) {
+                minOutlierScore = abofScores[i];
+            }
+        }
+        // Normalize. Also, transform the scores so that now the higher scores
+        // correspond to more likely outliers.
+        if (maxOutlierScore > minOutlierScore) {
+            for (int j = 0; j < outlierScores.size(); j++) {
+                outlierScores.set(j, 1 - (float) ((outlierScores.get(j)
+                        - minOutlierScore) / (maxOutlierScore
+                        - minOutlierScore)));
+            }
+        }
+        setOutlierIndexes(outlierIndexes, outlierScores);
+    }
+}
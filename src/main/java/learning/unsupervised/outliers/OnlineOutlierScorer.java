@@ -0,0 +1,498 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.outliers;
+
+import data.neighbors.IncrementalNeighborGraph;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import data.representation.util.DataMineConstants;
+import distances.primary.CombinedMetric;
+import java.util.ArrayList;
+import java.util.Arrays;
+import statistics.HigherMoments;
+
+/**
+ * This class scores the points of a data stream by the kNN-based outlier
+ * scores of LocalOutlierFactor, LDOF, AntiHub and LOCI, without re-running the
+ * batch detectors. The points are kept in an IncrementalNeighborGraph and the
+ * stored per-point statistics are only updated in the neighborhood that is
+ * affected by an insertion or a deletion: the local reachability densities of
+ * the points whose kNN sets or whose neighbors' k-distances have changed, the
+ * LOCI alpha-neighborhood counts of the points whose kNN sets have changed and
+ * the neighbor occurrence counts, which are the sizes of the reverse kNN sets.
+ * The scores are then obtained from these statistics in O(k) time, or O(k^2)
+ * in case of LDOF, where the values are cached until the kNN set changes. New
+ * points can also be scored against the current data without being inserted.
+ * A single neighborhood size is used for all scores, so the LOCI
+ * neighborhoods are the kNN sets.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class OnlineOutlierScorer {
+
+    public static final float DEFAULT_LOCI_ALPHA = 0.5f;
+    public static final float DEFAULT_LOCI_KSIGMA = 3f;
+    public static final float DEFAULT_ANTIHUB_ALPHA = 0.5f;
+    private IncrementalNeighborGraph graph;
+    // Neighborhood size.
+    private int k;
+    // The part of the neighborhood used for the LOCI counts.
+    private float lociAlpha = DEFAULT_LOCI_ALPHA;
+    // The multiple of standard deviations that defines LOCI outliers.
+    private float ksigma = DEFAULT_LOCI_KSIGMA;
+    // The weight of the neighbors' occurrence counts in the AntiHub scores.
+    private float antiHubAlpha = DEFAULT_ANTIHUB_ALPHA;
+    private float[] localReachabilityDensity = new float[0];
+    // The numbers of kNN within the alpha-fraction of the k-distance.
+    private int[] alphaCounts = new int[0];
+    // Cached LDOF values, NaN when they need to be re-calculated.
+    private float[] ldofValues = new float[0];
+
+    /**
+     * This class holds all the outlier scores of a single point.
+     */
+    public static class PointScores {
+
+        private float lof;
+        private float ldof;
+        private float antiHub;
+        private float mdef;
+        private float mdefDeviation;
+
+        /**
+         * @return Float that is the local outlier factor.
+         */
+        public float getLOF() {
+            return lof;
+        }
+
+        /**
+         * @return Float that is the local distance-based outlier factor.
+         */
+        public float getLDOF() {
+            return ldof;
+        }
+
+        /**
+         * @return Float that is the AntiHub score, where lower values indicate
+         * outliers.
+         */
+        public float getAntiHub() {
+            return antiHub;
+        }
+
+        /**
+         * @return Float that is the LOCI multi-granularity deviation factor.
+         */
+        public float getMDEF() {
+            return mdef;
+        }
+
+        /**
+         * @return Float that is the normalized standard deviation of the LOCI
+         * alpha-neighborhood counts in the neighborhood.
+         */
+        public float getMDEFDeviation() {
+            return mdefDeviation;
+        }
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param k Integer that is the neighborhood size.
+     */
+    public OnlineOutlierScorer(CombinedMetric cmet, int k) {
+        this.k = k;
+        graph = new IncrementalNeighborGraph(cmet, k);
+    }
+
+    /**
+     * Initialization that inserts the points of an initial data set.
+     *
+     * @param dset DataSet object with the initial points, which are assigned
+     * the slots that correspond to their indexes in the data set.
+     * @param cmet CombinedMetric object for distance calculations.
+     * @param k Integer that is the neighborhood size.
+     * @throws Exception
+     */
+    public OnlineOutlierScorer(DataSet dset, CombinedMetric cmet, int k)
+            throws Exception {
+        this(cmet, k);
+        if (dset != null) {
+            for (int i = 0; i < dset.size(); i++) {
+                insert(dset.getInstance(i));
+            }
+        }
+    }
+
+    /**
+     * @param lociAlpha Float value that is the part of the neighborhood radius
+     * used for the LOCI counts.
+     */
+    public void setLOCIAlpha(float lociAlpha) {
+        this.lociAlpha = lociAlpha;
+        for (int i = 0; i < graph.getNumSlots(); i++) {
+            if (graph.contains(i)) {
+                updateAlphaCount(i);
+            }
+        }
+    }
+
+    /**
+     * @param ksigma Float value that is the number of deviations that define
+     * LOCI outliers.
+     */
+    public void setKSigma(float ksigma) {
+        this.ksigma = ksigma;
+    }
+
+    /**
+     * @param antiHubAlpha Float value that is the weight of the neighbors'
+     * occurrence counts in the AntiHub scores. The value that was selected by
+     * a batch AntiHub run can be obtained by AntiHub.getAlpha().
+     */
+    public void setAntiHubAlpha(float antiHubAlpha) {
+        this.antiHubAlpha = antiHubAlpha;
+    }
+
+    /**
+     * @return IncrementalNeighborGraph that holds the kNN sets.
+     */
+    public IncrementalNeighborGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * This method inserts a point and updates the statistics in the affected
+     * neighborhood.
+     *
+     * @param instance DataInstance to insert.
+     * @return Integer that is the slot index of the inserted point.
+     * @throws Exception
+     */
+    public int insert(DataInstance instance) throws Exception {
+        int index = graph.insert(instance);
+        ensureCapacity();
+        updateAffected(graph.getLastChanged());
+        return index;
+    }
+
+    /**
+     * This method deletes a point and updates the statistics in the affected
+     * neighborhood.
+     *
+     * @param index Integer that is the slot index of the point to delete.
+     * @throws Exception
+     */
+    public void delete(int index) throws Exception {
+        // Only the reverse neighbors of the deleted point get new kNN sets.
+        graph.delete(index);
+        localReachabilityDensity[index] = Float.NaN;
+        ldofValues[index] = Float.NaN;
+        alphaCounts[index] = 0;
+        updateAffected(graph.getLastChanged());
+    }
+
+    /**
+     * Grows the statistics arrays to the number of slots in the graph.
+     */
+    private void ensureCapacity() {
+        int numSlots = graph.getNumSlots();
+        if (localReachabilityDensity.length < numSlots) {
+            int capacity = Math.max(numSlots,
+                    2 * localReachabilityDensity.length);
+            localReachabilityDensity = Arrays.copyOf(localReachabilityDensity,
+                    capacity);
+            alphaCounts = Arrays.copyOf(alphaCounts, capacity);
+            ldofValues = Arrays.copyOf(ldofValues, capacity);
+        }
+    }
+
+    /**
+     * Updates the statistics that depend on the kNN sets of the changed
+     * points.
+     *
+     * @param changed ArrayList<Integer> of the points whose kNN sets were
+     * changed.
+     */
+    private void updateAffected(ArrayList<Integer> changed) {
+        // The local reachability density depends on the kNN set of the point
+        // and the k-distances of its neighbors, so the reverse neighbors of
+        // the changed points need to be updated as well.
+        boolean[] marked = new boolean[graph.getNumSlots()];
+        for (int i : changed) {
+            ldofValues[i] = Float.NaN;
+            updateAlphaCount(i);
+            if (!marked[i]) {
+                marked[i] = true;
+                updateReachabilityDensity(i);
+            }
+            for (int r : graph.getReverseNeighbors(i)) {
+                if (!marked[r]) {
+                    marked[r] = true;
+                    updateReachabilityDensity(r);
+                }
+            }
+        }
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     */
+    private void updateReachabilityDensity(int index) {
+        int len = graph.getKCurrLen()[index];
+        int[] neighbors = graph.getKNeighbors()[index];
+        float[] distances = graph.getKDistances()[index];
+        float sum = 0;
+        for (int kInd = 0; kInd < len; kInd++) {
+            sum += Math.max(distances[kInd],
+                    graph.getKDistance(neighbors[kInd]));
+        }
+        localReachabilityDensity[index] = len > 0 ? len / sum : Float.NaN;
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     */
+    private void updateAlphaCount(int index) {
+        alphaCounts[index] = getAlphaCount(graph.getKDistances()[index],
+                graph.getKCurrLen()[index]);
+    }
+
+    /**
+     * @param distances float[] of the sorted distances to the kNN.
+     * @param len Integer that is the number of neighbors.
+     * @return Integer that is the number of neighbors, apart from the k-th
+     * one, within the alpha-fraction of the k-distance.
+     */
+    private int getAlphaCount(float[] distances, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        float alphaRadius = distances[len - 1] * lociAlpha;
+        int kInd = len - 2;
+        while (kInd >= 0 && distances[kInd] > alphaRadius) {
+            kInd--;
+        }
+        return kInd + 1;
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     * @return Float that is the local reachability density of the point.
+     */
+    public float getLocalReachabilityDensity(int index) {
+        return localReachabilityDensity[index];
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     * @return Integer that is the LOCI alpha-neighborhood count of the point.
+     */
+    public int getAlphaCount(int index) {
+        return alphaCounts[index];
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     * @return Float that is the local outlier factor of the point.
+     */
+    public float getLOF(int index) {
+        return lof(localReachabilityDensity[index],
+                graph.getKNeighbors()[index], graph.getKCurrLen()[index]);
+    }
+
+    /**
+     * @param lrd Float that is the local reachability density of the point.
+     * @param neighbors int[] of the neighbors of the point.
+     * @param len Integer that is the number of neighbors.
+     * @return Float that is the local outlier factor, or NaN if undefined.
+     */
+    private float lof(float lrd, int[] neighbors, int len) {
+        float sum = 0;
+        int count = 0;
+        for (int kInd = 0; kInd < len; kInd++) {
+            if (DataMineConstants.isAcceptableFloat(
+                    localReachabilityDensity[neighbors[kInd]])) {
+                count++;
+                sum += localReachabilityDensity[neighbors[kInd]];
+            }
+        }
+        if (count > 0 && DataMineConstants.isAcceptableFloat(sum)
+                && DataMineConstants.isAcceptableFloat(lrd) && lrd != 0) {
+            return sum / (lrd * count);
+        }
+        return Float.NaN;
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     * @return Float that is the local distance-based outlier factor of the
+     * point.
+     * @throws Exception
+     */
+    public float getLDOF(int index) throws Exception {
+        if (Float.isNaN(ldofValues[index])) {
+            ldofValues[index] = ldof(graph.getKNeighbors()[index],
+                    graph.getKDistances()[index], graph.getKCurrLen()[index]);
+        }
+        return ldofValues[index];
+    }
+
+    /**
+     * @param neighbors int[] of the neighbors of the point.
+     * @param distances float[] of the distances to the neighbors.
+     * @param len Integer that is the number of neighbors.
+     * @return Float that is the local distance-based outlier factor, zero if
+     * the inter-neighbor distances are all zero.
+     * @throws Exception
+     */
+    private float ldof(int[] neighbors, float[] distances, int len)
+            throws Exception {
+        CombinedMetric cmet = graph.getCombinedMetric();
+        double kDistancesAvg = 0;
+        double interNeighborDistAvg = 0;
+        for (int kInd = 0; kInd < len; kInd++) {
+            kDistancesAvg += distances[kInd];
+            DataInstance first = graph.getInstance(neighbors[kInd]);
+            for (int kIndSecond = kInd + 1; kIndSecond < len; kIndSecond++) {
+                interNeighborDistAvg += cmet.dist(first,
+                        graph.getInstance(neighbors[kIndSecond]));
+            }
+        }
+        if (interNeighborDistAvg > 0) {
+            return (float) ((kDistancesAvg / len)
+                    / (interNeighborDistAvg / (len * (len - 1))));
+        }
+        return 0;
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     * @return Float that is the AntiHub score of the point, where lower values
+     * indicate outliers.
+     */
+    public float getAntiHubScore(int index) {
+        return antiHub(graph.getOccurrenceFrequency(index),
+                graph.getKNeighbors()[index], graph.getKCurrLen()[index]);
+    }
+
+    /**
+     * @param occFreq Integer that is the occurrence count of the point.
+     * @param neighbors int[] of the neighbors of the point.
+     * @param len Integer that is the number of neighbors.
+     * @return Float that is the AntiHub score.
+     */
+    private float antiHub(int occFreq, int[] neighbors, int len) {
+        float neighborhoodOccSum = 0;
+        for (int kInd = 0; kInd < len; kInd++) {
+            neighborhoodOccSum += graph.getOccurrenceFrequency(neighbors[kInd]);
+        }
+        return (1 - antiHubAlpha) * occFreq + antiHubAlpha
+                * neighborhoodOccSum;
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     * @return PointScores object with all the scores of the point.
+     * @throws Exception
+     */
+    public PointScores getScores(int index) throws Exception {
+        PointScores scores = new PointScores();
+        scores.lof = getLOF(index);
+        scores.ldof = getLDOF(index);
+        scores.antiHub = getAntiHubScore(index);
+        setLOCIScores(scores, alphaCounts[index], graph.getKNeighbors()[index],
+                graph.getKCurrLen()[index]);
+        return scores;
+    }
+
+    /**
+     * @param index Integer that is the slot index of the point.
+     * @return True if the point is a LOCI outlier, false otherwise.
+     */
+    public boolean isLOCIOutlier(int index) {
+        PointScores scores = new PointScores();
+        setLOCIScores(scores, alphaCounts[index], graph.getKNeighbors()[index],
+                graph.getKCurrLen()[index]);
+        return scores.mdef > ksigma * scores.mdefDeviation;
+    }
+
+    /**
+     * Sets the multi-granularity deviation factor and its normalized
+     * deviation, calculated from the alpha-neighborhood counts in the kNN set.
+     *
+     * @param scores PointScores object to set the LOCI scores of.
+     * @param alphaCount Integer that is the alpha-neighborhood count of the
+     * point.
+     * @param neighbors int[] of the neighbors of the point.
+     * @param len Integer that is the number of neighbors.
+     */
+    private void setLOCIScores(PointScores scores, int alphaCount,
+            int[] neighbors, int len) {
+        // The counts include the points themselves.
+        float[] localAlphaCounts = new float[len + 1];
+        float sum = 0;
+        for (int kInd = 0; kInd < len; kInd++) {
+            localAlphaCounts[kInd] = alphaCounts[neighbors[kInd]] + 1;
+            sum += localAlphaCounts[kInd];
+        }
+        localAlphaCounts[len] = alphaCount + 1;
+        sum += localAlphaCounts[len];
+        float avgAlphaCount = sum / (len + 1);
+        scores.mdef = 1 - (alphaCount + 1) / avgAlphaCount;
+        scores.mdefDeviation = HigherMoments.calculateArrayStDev(
+                avgAlphaCount, localAlphaCounts) / avgAlphaCount;
+    }
+
+    /**
+     * This method scores a new point against the current points, without
+     * inserting it. The occurrence count of the point is the number of points
+     * that would include it in their kNN sets.
+     *
+     * @param instance DataInstance to score.
+     * @return PointScores object with all the scores of the point.
+     * @throws Exception
+     */
+    public PointScores score(DataInstance instance) throws Exception {
+        float[] distances = graph.getDistancesTo(instance);
+        int[] neighbors = new int[k];
+        float[] neighborDistances = new float[k];
+        int len = graph.selectNeighbors(distances, neighbors,
+                neighborDistances);
+        PointScores scores = new PointScores();
+        float sum = 0;
+        for (int kInd = 0; kInd < len; kInd++) {
+            sum += Math.max(neighborDistances[kInd],
+                    graph.getKDistance(neighbors[kInd]));
+        }
+        scores.lof = lof(len > 0 ? len / sum : Float.NaN, neighbors, len);
+        scores.ldof = ldof(neighbors, neighborDistances, len);
+        int occFreq = 0;
+        for (int i = 0; i < distances.length; i++) {
+            if (graph.contains(i) && graph.admits(i, distances[i])) {
+                occFreq++;
+            }
+        }
+        scores.antiHub = antiHub(occFreq, neighbors, len);
+        setLOCIScores(scores, getAlphaCount(neighborDistances, len), neighbors,
+                len);
+        return scores;
+    }
+}
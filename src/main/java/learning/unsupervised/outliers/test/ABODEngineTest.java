@@ -0,0 +1,180 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.outliers.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.NeighborSetFinder;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.Arrays;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.unsupervised.outliers.ABODEngine;
+import learning.unsupervised.outliers.LBABOD;
+import org.junit.Test;
+
+/**
+ * This class tests the angle-based outlier factor calculations against a
+ * direct implementation of the weighted angle variance.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class ABODEngineTest extends TestCase {
+
+    /**
+     * This method tests the kNN-based approximate factors.
+     */
+    @Test
+    public static void testApproximateFactors() {
+        try {
+            DataSet dset = generateToyData(120, 6, 5, 1);
+            int k = 15;
+            NeighborSetFinder nsf = new NeighborSetFinder(dset,
+                    CombinedMetric.FLOAT_EUCLIDEAN);
+            nsf.calculateDistances();
+            nsf.calculateNeighborSets(k);
+            int[][] kNeighbors = nsf.getKNeighbors();
+            double[] factors = new ABODEngine(dset, 3).
+                    computeApproximateFactors(kNeighbors, k);
+            for (int i = 0; i < dset.size(); i++) {
+                double expected = referenceFactor(dset, i, kNeighbors[i]);
+                assertEquals(expected, factors[i], Math.abs(expected) * 1e-4
+                        + 1e-9);
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests that the LB-ABOD search finds the points with the
+     * lowest exact factors.
+     */
+    @Test
+    public static void testTopOutliers() {
+        try {
+            DataSet dset = generateToyData(150, 4, 6, 2);
+            int size = dset.size();
+            int k = 10;
+            int numOutliers = 8;
+            NeighborSetFinder nsf = new NeighborSetFinder(dset,
+                    CombinedMetric.FLOAT_EUCLIDEAN);
+            nsf.calculateDistances();
+            nsf.calculateNeighborSets(k);
+            int[] allPoints = new int[size];
+            for (int i = 0; i < size; i++) {
+                allPoints[i] = i;
+            }
+            double[] exactFactors = new double[size];
+            for (int i = 0; i < size; i++) {
+                exactFactors[i] = referenceFactor(dset, i, allPoints);
+            }
+            double[] sortedFactors = Arrays.copyOf(exactFactors, size);
+            Arrays.sort(sortedFactors);
+            ABODEngine engine = new ABODEngine(dset, 4);
+            double[] outlierFactors = new double[numOutliers];
+            int[] outliers = engine.findTopOutliers(nsf.getKNeighbors(), k,
+                    numOutliers, outlierFactors);
+            assertTrue(engine.getNumExactEvaluations() <= size);
+            for (int i = 0; i < numOutliers; i++) {
+                assertEquals(sortedFactors[i], outlierFactors[i],
+                        sortedFactors[i] * 1e-4 + 1e-9);
+                assertEquals(exactFactors[outliers[i]], outlierFactors[i],
+                        outlierFactors[i] * 1e-4 + 1e-9);
+            }
+            LBABOD detector = new LBABOD(dset, nsf, k,
+                    (float) numOutliers / size);
+            detector.detectOutliers();
+            assertEquals(numOutliers, detector.numberOfOutliersFound());
+            for (int i = 0; i < numOutliers; i++) {
+                assertTrue(detector.isOutlier(outliers[i]));
+            }
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method calculates the weighted variance of the angles over the
+     * pairs of the provided points, directly from the feature values.
+     *
+     * @param dset DataSet object.
+     * @param index Integer that is the index of the point.
+     * @param others int[] of the indexes of the other points.
+     * @return Double that is the angle-based outlier factor.
+     */
+    private static double referenceFactor(DataSet dset, int index,
+            int[] others) {
+        float[] origin = dset.getInstance(index).fAttr;
+        double sumWeights = 0;
+        double sumWeighted = 0;
+        double sumWeightedSquares = 0;
+        for (int a = 0; a < others.length; a++) {
+            float[] first = dset.getInstance(others[a]).fAttr;
+            for (int b = a + 1; b < others.length; b++) {
+                if (others[a] == index || others[b] == index) {
+                    continue;
+                }
+                float[] second = dset.getInstance(others[b]).fAttr;
+                double dot = 0;
+                double normFirst = 0;
+                double normSecond = 0;
+                for (int d = 0; d < origin.length; d++) {
+                    double diffFirst = first[d] - origin[d];
+                    double diffSecond = second[d] - origin[d];
+                    dot += diffFirst * diffSecond;
+                    normFirst += diffFirst * diffFirst;
+                    normSecond += diffSecond * diffSecond;
+                }
+                double angle = dot / (normFirst * normSecond);
+                double weight = 1 / Math.sqrt(normFirst * normSecond);
+                sumWeights += weight;
+                sumWeighted += weight * angle;
+                sumWeightedSquares += weight * angle * angle;
+            }
+        }
+        double mean = sumWeighted / sumWeights;
+        return sumWeightedSquares / sumWeights - mean * mean;
+    }
+
+    /**
+     * @param size Number of instances to generate.
+     * @param dim Number of float features.
+     * @param numOutliers Number of instances that are placed far from the
+     * rest of the data.
+     * @param seed Long that is the random seed.
+     * @return DataSet with random float features.
+     */
+    private static DataSet generateToyData(int size, int dim,
+            int numOutliers, long seed) {
+        DataSet dset = ToyDataGenerator.createFloatDataSet(size, dim);
+        Random randa = new Random(seed);
+        for (int i = 0; i < size; i++) {
+            DataInstance instance = new DataInstance(dset);
+            for (int d = 0; d < dim; d++) {
+                instance.fAttr[d] = (float) randa.nextGaussian();
+                if (i < numOutliers) {
+                    instance.fAttr[d] += 6;
+                }
+            }
+            dset.addDataInstance(instance);
+        }
+        return dset;
+    }
+}
@@ -0,0 +1,225 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package learning.unsupervised.outliers.test;
+
+import data.generators.util.ToyDataGenerator;
+import data.neighbors.IncrementalNeighborGraph;
+import data.representation.DataInstance;
+import data.representation.DataSet;
+import distances.primary.CombinedMetric;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import static junit.framework.Assert.fail;
+import junit.framework.TestCase;
+import learning.unsupervised.outliers.OnlineOutlierScorer;
+import org.junit.Test;
+
+/**
+ * This class tests the incremental kNN graph and the online outlier scores
+ * against the kNN sets and the statistics that are calculated from scratch
+ * after a sequence of insertions and deletions.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class OnlineOutlierScorerTest extends TestCase {
+
+    /**
+     * This method tests the repaired kNN and reverse kNN sets.
+     */
+    @Test
+    public static void testIncrementalGraph() {
+        try {
+            int k = 6;
+            DataSet dset = ToyDataGenerator.generateUniformData(150, 4, 1);
+            IncrementalNeighborGraph graph = new IncrementalNeighborGraph(
+                    CombinedMetric.FLOAT_EUCLIDEAN, k);
+            // Start with fewer points than the neighborhood size.
+            for (int i = 0; i < 4; i++) {
+                graph.insert(dset.getInstance(i));
+            }
+            assertEquals(3, graph.getKCurrLen()[0]);
+            runOperations(graph, null, dset, 4, new Random(1));
+            checkGraph(graph, k);
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * This method tests the locally updated outlier scores.
+     */
+    @Test
+    public static void testOnlineScores() {
+        try {
+            int k = 7;
+            DataSet dset = ToyDataGenerator.generateUniformData(200, 5, 2);
+            OnlineOutlierScorer scorer = new OnlineOutlierScorer(
+                    CombinedMetric.FLOAT_EUCLIDEAN, k);
+            IncrementalNeighborGraph graph = scorer.getGraph();
+            runOperations(graph, scorer, dset, 0, new Random(2));
+            checkGraph(graph, k);
+            int numSlots = graph.getNumSlots();
+            int[][] kNeighbors = graph.getKNeighbors();
+            float[][] kDistances = graph.getKDistances();
+            float[] lrd = new float[numSlots];
+            for (int i = 0; i < numSlots; i++) {
+                if (graph.contains(i)) {
+                    float sum = 0;
+                    for (int kInd = 0; kInd < k; kInd++) {
+                        int neighbor = kNeighbors[i][kInd];
+                        sum += Math.max(kDistances[i][kInd],
+                                kDistances[neighbor][k - 1]);
+                    }
+                    lrd[i] = k / sum;
+                }
+            }
+            for (int i = 0; i < numSlots; i++) {
+                if (!graph.contains(i)) {
+                    continue;
+                }
+                assertEquals(lrd[i], scorer.getLocalReachabilityDensity(i),
+                        lrd[i] * 1e-5f);
+                float lrdSum = 0;
+                int occSum = 0;
+                int alphaCount = 0;
+                for (int kInd = 0; kInd < k; kInd++) {
+                    int neighbor = kNeighbors[i][kInd];
+                    lrdSum += lrd[neighbor];
+                    occSum += graph.getReverseNeighbors(neighbor).size();
+                    if (kInd < k - 1 && kDistances[i][kInd]
+                            <= kDistances[i][k - 1]
+                            * OnlineOutlierScorer.DEFAULT_LOCI_ALPHA) {
+                        alphaCount++;
+                    }
+                }
+                float lof = lrdSum / (k * lrd[i]);
+                assertEquals(lof, scorer.getLOF(i), lof * 1e-4f);
+                assertEquals(alphaCount, scorer.getAlphaCount(i));
+                float antiHub = OnlineOutlierScorer.DEFAULT_ANTIHUB_ALPHA
+                        * occSum + (1 - OnlineOutlierScorer.
+                        DEFAULT_ANTIHUB_ALPHA)
+                        * graph.getReverseNeighbors(i).size();
+                assertEquals(antiHub, scorer.getAntiHubScore(i), 1e-4f);
+            }
+            // A query point is scored the same as after its insertion, in
+            // terms of its occurrence count and its own neighborhood.
+            DataInstance query = ToyDataGenerator.generateUniformData(1, 5,
+                    3).getInstance(0);
+            OnlineOutlierScorer.PointScores queryScores = scorer.score(query);
+            int[] queryNeighbors = new int[k];
+            graph.selectNeighbors(graph.getDistancesTo(query), queryNeighbors,
+                    new float[k]);
+            int neighborhoodOccSum = 0;
+            for (int kInd = 0; kInd < k; kInd++) {
+                neighborhoodOccSum += graph.getOccurrenceFrequency(
+                        queryNeighbors[kInd]);
+            }
+            int index = scorer.insert(query);
+            OnlineOutlierScorer.PointScores insertedScores =
+                    scorer.getScores(index);
+            assertEquals(insertedScores.getLDOF(), queryScores.getLDOF(),
+                    insertedScores.getLDOF() * 1e-5f);
+            float antiHub = OnlineOutlierScorer.DEFAULT_ANTIHUB_ALPHA
+                    * neighborhoodOccSum + (1 - OnlineOutlierScorer.
+                    DEFAULT_ANTIHUB_ALPHA)
+                    * graph.getOccurrenceFrequency(index);
+            assertEquals(antiHub, queryScores.getAntiHub(), 1e-4f);
+            assertFalse(Float.isNaN(queryScores.getLOF()));
+            assertFalse(Float.isNaN(queryScores.getMDEF()));
+        } catch (Exception e) {
+            fail(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a random sequence of insertions and deletions.
+     *
+     * @param graph IncrementalNeighborGraph to modify.
+     * @param scorer OnlineOutlierScorer to modify instead of the graph, if not
+     * null.
+     * @param dset DataSet of points to insert.
+     * @param first Integer that is the index of the first point to insert.
+     * @param randa Random object.
+     * @throws Exception
+     */
+    private static void runOperations(IncrementalNeighborGraph graph,
+            OnlineOutlierScorer scorer, DataSet dset, int first, Random randa)
+            throws Exception {
+        for (int i = first; i < dset.size(); i++) {
+            if (scorer != null) {
+                scorer.insert(dset.getInstance(i));
+            } else {
+                graph.insert(dset.getInstance(i));
+            }
+            if (graph.size() > 20 && randa.nextFloat() < 0.3f) {
+                int index;
+                do {
+                    index = randa.nextInt(graph.getNumSlots());
+                } while (!graph.contains(index));
+                if (scorer != null) {
+                    scorer.delete(index);
+                } else {
+                    graph.delete(index);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compares the kNN sets of the graph to the ones that are calculated from
+     * scratch, along with the reverse kNN sets.
+     *
+     * @param graph IncrementalNeighborGraph to check.
+     * @param k Integer that is the neighborhood size.
+     * @throws Exception
+     */
+    private static void checkGraph(IncrementalNeighborGraph graph, int k)
+            throws Exception {
+        int numSlots = graph.getNumSlots();
+        int[] occFreqs = new int[numSlots];
+        for (int i = 0; i < numSlots; i++) {
+            if (!graph.contains(i)) {
+                continue;
+            }
+            float[] distances = graph.getDistancesTo(graph.getInstance(i));
+            ArrayList<Float> sorted = new ArrayList<>();
+            for (int j = 0; j < numSlots; j++) {
+                if (j != i && graph.contains(j)) {
+                    sorted.add(distances[j]);
+                }
+            }
+            Collections.sort(sorted);
+            assertEquals(k, graph.getKCurrLen()[i]);
+            for (int kInd = 0; kInd < k; kInd++) {
+                int neighbor = graph.getKNeighbors()[i][kInd];
+                assertTrue(graph.contains(neighbor));
+                assertEquals(sorted.get(kInd), graph.getKDistances()[i][kInd],
+                        1e-5f);
+                assertEquals(distances[neighbor],
+                        graph.getKDistances()[i][kInd], 1e-5f);
+                assertTrue(graph.getReverseNeighbors(neighbor).contains(i));
+                occFreqs[neighbor]++;
+            }
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (graph.contains(i)) {
+                assertEquals(occFreqs[i], graph.getOccurrenceFrequency(i));
+            }
+        }
+    }
+}
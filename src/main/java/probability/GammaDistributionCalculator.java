@@ -0,0 +1,118 @@
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+*
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+*
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package probability;
+
+/**
+ * This class calculates the cumulative distribution function of the Gamma
+ * distribution, via the regularized lower incomplete gamma function. The
+ * series expansion is used below the shape parameter and the continued
+ * fraction above it, as described in Numerical Recipes.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class GammaDistributionCalculator {
+
+    // Lanczos approximation coefficients, for g = 5 and n = 6.
+    private static final double[] LANCZOS = {76.18009172947146,
+        -86.50532032941677, 24.01409824083091, -1.231739572450155,
+        0.1208650973866179e-2, -0.5395239384953e-5};
+    // The maximum number of iterations in the series and fraction expansions.
+    private static final int MAX_ITERATIONS = 200;
+    // The relative precision of the expansions.
+    private static final double EPSILON = 1e-10;
+    // A number close to the smallest representable double.
+    private static final double FPMIN = 1e-300;
+
+    /**
+     * @param x Double value, larger than zero.
+     * @return The natural logarithm of the gamma function at x.
+     */
+    public static double logGamma(double x) {
+        double y = x;
+        double tmp = x + 5.5;
+        tmp -= (x + 0.5) * Math.log(tmp);
+        double ser = 1.000000000190015;
+        for (int i = 0; i < LANCZOS.length; i++) {
+            ser += LANCZOS[i] / ++y;
+        }
+        return -tmp + Math.log(2.5066282746310005 * ser / x);
+    }
+
+    /**
+     * @param a Double value that is the shape parameter, larger than zero.
+     * @param x Double value.
+     * @return The regularized lower incomplete gamma function P(a, x).
+     */
+    public static double regularizedGammaP(double a, double x) {
+        if (x <= 0) {
+            return 0;
+        }
+        if (x < a + 1) {
+            // Series expansion.
+            double ap = a;
+            double sum = 1 / a;
+            double del = sum;
+            for (int i = 0; i < MAX_ITERATIONS; i++) {
+                ap++;
+                del *= x / ap;
+                sum += del;
+                if (Math.abs(del) < Math.abs(sum) * EPSILON) {
+                    break;
+                }
+            }
+            return sum * Math.exp(-x + a * Math.log(x) - logGamma(a));
+        } else {
+            // Continued fraction expansion of Q(a, x), by the modified Lentz
+            // method.
+            double b = x + 1 - a;
+            double c = 1 / FPMIN;
+            double d = 1 / b;
+            double h = d;
+            for (int i = 1; i <= MAX_ITERATIONS; i++) {
+                double an = -i * (i - a);
+                b += 2;
+                d = an * d + b;
+                if (Math.abs(d) < FPMIN) {
+                    d = FPMIN;
+                }
+                c = b + an / c;
+                if (Math.abs(c) < FPMIN) {
+                    c = FPMIN;
+                }
+                d = 1 / d;
+                double del = d * c;
+                h *= del;
+                if (Math.abs(del - 1) < EPSILON) {
+                    break;
+                }
+            }
+            return 1 - Math.exp(-x + a * Math.log(x) - logGamma(a)) * h;
+        }
+    }
+
+    /**
+     * @param x Double value.
+     * @param shape Shape parameter of the distribution.
+     * @param scale Scale parameter of the distribution.
+     * @return Cumulative distribution function of the Gamma distribution,
+     * upper bounded by the passed value x.
+     */
+    public static double GammaCumulative(double x, double shape,
+            double scale) {
+        return regularizedGammaP(shape, x / scale);
+    }
+}
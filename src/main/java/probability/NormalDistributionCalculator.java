@@ -57,13 +57,17 @@ public class NormalDistributionCalculator {
 
     /**
      * Zelen & Severo (1964) - method for approximating the cumulative
-     * distribution function
+     * distribution function. The approximation only holds for non-negative
+     * arguments, so the negative ones are handled via symmetry.
      *
      * @param x Double value.
      * @return Cumulative distribution function for the normal distribution,
      * upper bounded by the passed value x.
      */
     public static double PhiCumulative(double x) {
+        if (x < 0) {
+            return 1 - PhiCumulative(-x);
+        }
         double t = 1 / (1 + b0 * x);
         double tDeg = t;
         double result = b1 * tDeg;
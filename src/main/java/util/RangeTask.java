@@ -0,0 +1,80 @@
+
+/**
+* Hub Miner: a hubness-aware machine learning experimentation library.
+* Copyright (C) 2014  Nenad Tomasev. Email: nenad.tomasev at gmail.com
+* 
+* This program is free software: you can redistribute it and/or modify it under
+* the terms of the GNU General Public License as published by the Free Software
+* Foundation, either version 3 of the License, or (at your option) any later
+* version.
+* 
+* This program is distributed in the hope that it will be useful, but WITHOUT
+* ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+* FOR A PARTICULAR PURPOSE. See the GNU General Public License for more details.
+*
+* You should have received a copy of the GNU General Public License along with
+* this program. If not, see <http://www.gnu.org/licenses/>.
+*/
+package util;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * This class processes a range of indexes in a fork-join pool, splitting it
+ * into halves until the ranges are small enough. The ranges are passed on to a
+ * RangeProcessor, so that the callers do not need to subclass a serializable
+ * task.
+ *
+ * @author Nenad Tomasev <nenad.tomasev at gmail.com>
+ */
+public class RangeTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+    private int first;
+    private int last;
+    // The maximum range length that is processed without splitting.
+    private int grain;
+    private RangeProcessor processor;
+
+    /**
+     * This interface declares the processing of a range of indexes.
+     */
+    public interface RangeProcessor {
+
+        /**
+         * This method processes the indexes in a range.
+         *
+         * @param first Integer that is the first index in the range.
+         * @param last Integer that is the index after the range.
+         */
+        public void processRange(int first, int last);
+    }
+
+    /**
+     * Initialization.
+     *
+     * @param first Integer that is the first index in the range.
+     * @param last Integer that is the index after the range.
+     * @param grain Integer that is the maximum range length that is processed
+     * without splitting.
+     * @param processor RangeProcessor that processes the ranges.
+     */
+    public RangeTask(int first, int last, int grain,
+            RangeProcessor processor) {
+        this.first = first;
+        this.last = last;
+        this.grain = Math.max(1, grain);
+        this.processor = processor;
+    }
+
+    @Override
+    protected void compute() {
+        if (last - first <= grain) {
+            processor.processRange(first, last);
+            return;
+        }
+        int middle = (first + last) >>> 1;
+        invokeAll(new RangeTask(first, middle, grain, processor),
+                new RangeTask(middle, last, grain, processor));
+    }
+}